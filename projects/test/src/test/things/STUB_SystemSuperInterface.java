@@ -37,6 +37,7 @@ import things.thinger.io.Logger;
 import things.thinger.io.conduits.ConduitController;
 import things.thinger.kernel.Clearance;
 import things.thinger.kernel.PCB;
+import things.thinger.kernel.ProcessCoordinator;
 import things.thinger.kernel.ProcessInterface;
 import things.thinger.kernel.ThingsProcess;
 import things.thinger.kernel.ThingsState;
@@ -524,6 +525,15 @@ public class STUB_SystemSuperInterface implements SystemSuperInterface {
 		return myFakeId;
 	}
 	
+	/**
+	 * Get a binding for the calling process.  There is no kernel, so there is nothing to bind to.
+	 * @return null
+	 * @throws things.thinger.SystemException
+	 */
+	public ProcessCoordinator.Binding getThreadBinding() throws SystemException {
+		return null;
+	}
+	
 	/**
 	 * Get an empty tree using the preferred, non-persistent implementation for the local host.
 	 * @return a new property tree.  
@@ -28,6 +28,10 @@ import things.testing.unit.TestGroup;
  * EPG - Initial - 13 JAN 07
  * EPG - Add CommanLineProcessor 5 JUN 07
  * EPG - Add StringScanner 28 JUN 07
+ * EPG - Add Base64Codec 31 MAY 10
+ * EPG - Add FastRandom 14 JUN 10
+ * EPG - Add Template 16 JUN 10
+ * EPG - Add Parallel 30 JUN 10
  * </pre> 
  */
 public class GROUP_TOOLS extends TestGroup {
@@ -38,6 +42,10 @@ public class GROUP_TOOLS extends TestGroup {
 	    DECLARETEST("things.common.tools.TEST_CommandLineSingleTokenizer","test.things.common.tools.TEST_CommandLineSingleTokenizer");
 	    DECLARETEST("things.common.tools.TEST_CommanLineProcessor","test.things.common.tools.TEST_CommanLineProcessor");
 	    DECLARETEST("things.common.tools.TEST_StringScanner","test.things.common.tools.TEST_StringScanner");
+	    DECLARETEST("things.common.tools.TEST_Base64Codec","test.things.common.tools.TEST_Base64Codec");
+	    DECLARETEST("things.common.tools.TEST_FastRandom","test.things.common.tools.TEST_FastRandom");
+	    DECLARETEST("things.common.tools.TEST_Template","test.things.common.tools.TEST_Template");
+	    DECLARETEST("things.common.tools.TEST_Parallel","test.things.common.tools.TEST_Parallel");
 	}
 
 	public void group_execute() throws Throwable {
@@ -45,6 +53,10 @@ public class GROUP_TOOLS extends TestGroup {
 		RUN("things.common.tools.TEST_CommandLineSingleTokenizer");
 		RUN("things.common.tools.TEST_CommanLineProcessor");
 		RUN("things.common.tools.TEST_StringScanner");
+		RUN("things.common.tools.TEST_Base64Codec");
+		RUN("things.common.tools.TEST_FastRandom");
+		RUN("things.common.tools.TEST_Template");
+		RUN("things.common.tools.TEST_Parallel");
 	}
 
 }
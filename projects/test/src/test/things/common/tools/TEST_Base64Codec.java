@@ -0,0 +1,355 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.common.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import things.common.ThingsException;
+import things.common.tools.Base64;
+import things.common.tools.Base64Codec;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the Base64Codec.  Most cases check it against Base64, byte for byte.  The benchmark times both on the same data.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 31 MAY 10
+ * </pre> 
+ */
+public class TEST_Base64Codec extends Test {
+
+	// TESTS
+	public final static String VECTORS = "Known vectors";
+	public final static String AGAINST_BASE64 = "Against Base64";
+	public final static String INCREMENTAL = "Incremental buffers";
+	public final static String DECODING = "Decoding whitespace, padding and bad characters";
+	public final static String STREAMS = "Streams";
+	public final static String BENCHMARK = "Benchmark against Base64";
+
+	// Configuration
+	public final static long SEED = 20100531L;
+	public final static int ROUNDS = 600;
+	public final static int BENCHMARK_SIZE = 4 * 1024 * 1024;
+	public final static int BENCHMARK_PASSES = 5;
+
+	private final static int[] OPTIONS = { Base64.NO_OPTIONS, Base64.DONT_BREAK_LINES, Base64.URL_SAFE, Base64.ORDERED | Base64.DONT_BREAK_LINES };
+
+	private final static String[][] RFC_VECTORS = { { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" }, { "foo", "Zm9v" }, { "foob", "Zm9vYg==" },
+		{ "fooba", "Zm9vYmE=" }, { "foobar", "Zm9vYmFy" } };
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.common.tools.TEST_Base64Codec");
+		DECLARE(VECTORS);
+		DECLARE(AGAINST_BASE64);
+		DECLARE(INCREMENTAL);
+		DECLARE(DECODING);
+		DECLARE(STREAMS);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		Random rng = new Random(SEED);
+
+		// == VECTORS =======================================================================================================================
+		try {
+			for (String[] vector : RFC_VECTORS) {
+				String encoded = Base64Codec.encodeToString(vector[0].getBytes("US-ASCII"), Base64.NO_OPTIONS);
+				if (!encoded.equals(vector[1])) PUNT("Encoded '" + vector[0] + "' to '" + encoded + "' and not '" + vector[1] + "'.");
+				String decoded = new String(Base64Codec.decode(vector[1], Base64.NO_OPTIONS), "US-ASCII");
+				if (!decoded.equals(vector[0])) PUNT("Decoded '" + vector[1] + "' to '" + decoded + "' and not '" + vector[0] + "'.");
+			}
+
+			// The last two characters are what set the dialects apart.
+			byte[] data = { (byte)0xfb, (byte)0xff, (byte)0xbf };
+			if (!Base64Codec.encodeToString(data, Base64.NO_OPTIONS).equals("+/+/")) PUNT("Standard dialect wrong.");
+			if (!Base64Codec.encodeToString(data, Base64.URL_SAFE).equals("-_-_")) PUNT("URL safe dialect wrong.");
+			if (!Base64Codec.encodeToString(data, Base64.ORDERED).equals("yzyz")) PUNT("Ordered dialect wrong.");
+			if (!Arrays.equals(Base64Codec.decode("-_-_", Base64.URL_SAFE), data)) PUNT("URL safe dialect did not decode.");
+			if (!Arrays.equals(Base64Codec.decode("yzyz", Base64.ORDERED), data)) PUNT("Ordered dialect did not decode.");
+
+			PASS(VECTORS);
+		} catch (TestLocalException tle) {
+			FAIL(VECTORS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(VECTORS, e.getMessage());
+		}
+
+		// == AGAINST BASE64 ================================================================================================================
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				byte[] data = randomBytes(rng, rng.nextInt(round < 100 ? 8 : 700));
+				int options = OPTIONS[round % OPTIONS.length];
+
+				String expected = Base64.encodeBytes(data, options);
+				String encoded = Base64Codec.encodeToString(data, options);
+				if (!encoded.equals(expected)) PUNT("Encoding differs from Base64.  round=" + round + " length=" + data.length + " options=" + options);
+				if (encoded.length() != Base64Codec.encodedLength(data.length, options)) PUNT("encodedLength() is wrong.  round=" + round + " length=" + data.length);
+
+				byte[] decoded = Base64Codec.decode(expected, options);
+				if (!Arrays.equals(decoded, data)) PUNT("Did not decode what Base64 encoded.  round=" + round + " length=" + data.length);
+				if (!Arrays.equals(Base64.decode(encoded, options), data)) PUNT("Base64 did not decode it.  round=" + round + " length=" + data.length);
+			}
+			PASS(AGAINST_BASE64);
+		} catch (TestLocalException tle) {
+			FAIL(AGAINST_BASE64, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(AGAINST_BASE64, e.getMessage());
+		}
+
+		// == INCREMENTAL ===================================================================================================================
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				byte[] data = randomBytes(rng, rng.nextInt(3000));
+				int options = OPTIONS[round % OPTIONS.length];
+				boolean direct = (round % 3) == 0;
+				byte[] expected = Base64Codec.encode(data, options);
+
+				// Encode in dribs.
+				Base64Codec.Encoder encoder = new Base64Codec.Encoder(options);
+				ByteArrayOutputStream collected = new ByteArrayOutputStream();
+				int offset = 0;
+				int result = Base64Codec.OVERFLOW;
+				while (true) {
+					int size = Math.min(data.length - offset, rng.nextInt(200));
+					boolean last = (offset + size == data.length);
+					ByteBuffer in = buffer(data, offset, size, direct);
+					do {
+						ByteBuffer out = direct ? ByteBuffer.allocateDirect(5 + rng.nextInt(100)) : ByteBuffer.allocate(5 + rng.nextInt(100));
+						result = encoder.encode(in, out, last);
+						out.flip();
+						while (out.hasRemaining()) collected.write(out.get());
+					} while (result == Base64Codec.OVERFLOW);
+					if (in.hasRemaining()) PUNT("Encoder left input on UNDERFLOW.  round=" + round);
+					offset += size;
+					if (last) break;
+				}
+				if (!Arrays.equals(collected.toByteArray(), expected)) PUNT("Incremental encoding differs.  round=" + round + " length=" + data.length + " options=" + options);
+
+				// Decode in dribs.
+				Base64Codec.Decoder decoder = new Base64Codec.Decoder(options);
+				collected.reset();
+				offset = 0;
+				while (true) {
+					int size = Math.min(expected.length - offset, rng.nextInt(200));
+					boolean last = (offset + size == expected.length);
+					ByteBuffer in = buffer(expected, offset, size, direct);
+					do {
+						ByteBuffer out = direct ? ByteBuffer.allocateDirect(5 + rng.nextInt(100)) : ByteBuffer.allocate(5 + rng.nextInt(100));
+						result = decoder.decode(in, out, last);
+						out.flip();
+						while (out.hasRemaining()) collected.write(out.get());
+					} while (result == Base64Codec.OVERFLOW);
+					if (result != Base64Codec.UNDERFLOW) PUNT("Decoder said MALFORMED.  round=" + round);
+					offset += size;
+					if (last) break;
+				}
+				if (!Arrays.equals(collected.toByteArray(), data)) PUNT("Incremental decoding differs.  round=" + round + " length=" + data.length + " options=" + options);
+			}
+			PASS(INCREMENTAL);
+		} catch (TestLocalException tle) {
+			FAIL(INCREMENTAL, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(INCREMENTAL, e.getMessage());
+		}
+
+		// == DECODING ======================================================================================================================
+		try {
+			// Whitespace anywhere, unpadded and padded ends, junk after padding.
+			if (!"foobar".equals(new String(Base64Codec.decode(" Zm\r\n9v\tYm Fy ", Base64.NO_OPTIONS), "US-ASCII"))) PUNT("Whitespace not skipped.");
+			if (!"fooba".equals(new String(Base64Codec.decode("Zm9vYmE", Base64.NO_OPTIONS), "US-ASCII"))) PUNT("Unpadded three not decoded.");
+			if (!"foob".equals(new String(Base64Codec.decode("Zm9vYg", Base64.NO_OPTIONS), "US-ASCII"))) PUNT("Unpadded two not decoded.");
+			if (!"foob".equals(new String(Base64Codec.decode("Zm9vYg==Zm9v", Base64.NO_OPTIONS), "US-ASCII"))) PUNT("Data after padding not ignored.");
+
+			// Strict stops on a bad character and says where.
+			try {
+				Base64Codec.decode("Zm9v*mFy", Base64.NO_OPTIONS);
+				PUNT("Bad character was accepted.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.DATA_ERROR_BAD_BASE64) PUNT("Bad character gave the wrong exception.  code=" + te.numeric);
+			}
+			try {
+				Base64Codec.decode("Zm9vY", Base64.NO_OPTIONS);
+				PUNT("Lone last character was accepted.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.DATA_ERROR_BAD_BASE64) PUNT("Lone last character gave the wrong exception.  code=" + te.numeric);
+			}
+			Base64Codec.Decoder decoder = new Base64Codec.Decoder(Base64.NO_OPTIONS);
+			ByteBuffer in = ByteBuffer.wrap("Zm9vYm*y".getBytes("US-ASCII"));
+			ByteBuffer out = ByteBuffer.allocate(16);
+			if (decoder.decode(in, out, true) != Base64Codec.MALFORMED) PUNT("Decoder did not say MALFORMED.");
+			if (in.position() != 6) PUNT("MALFORMED left the input at " + in.position() + " and not at the bad character.");
+			if (out.position() != 3) PUNT("MALFORMED should leave the whole quartet decoded.");
+
+			// The URL safe characters are bad in the standard dialect.
+			try {
+				Base64Codec.decode("-_-_", Base64.NO_OPTIONS);
+				PUNT("URL safe characters accepted in the standard dialect.");
+			} catch (ThingsException te) {
+				// Good
+			}
+
+			// Lenient skips.
+			decoder = new Base64Codec.Decoder(Base64.NO_OPTIONS, true);
+			in = ByteBuffer.wrap("Zm9v*Ym!Fy.Z".getBytes("US-ASCII"));
+			out = ByteBuffer.allocate(16);
+			if (decoder.decode(in, out, true) != Base64Codec.UNDERFLOW) PUNT("Lenient decoder did not finish.");
+			if (!"foobar".equals(new String(out.array(), 0, out.position(), "US-ASCII"))) PUNT("Lenient decoder got it wrong.");
+
+			PASS(DECODING);
+		} catch (TestLocalException tle) {
+			FAIL(DECODING, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(DECODING, e.getMessage());
+		}
+
+		// == STREAMS =======================================================================================================================
+		try {
+			for (int round = 0; round < ROUNDS / 4; round++) {
+				byte[] data = randomBytes(rng, rng.nextInt(20000));
+				int options = OPTIONS[round % OPTIONS.length];
+
+				// Against Base64.OutputStream, with writes of all sizes.
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				Base64.OutputStream oldOut = new Base64.OutputStream(expected, Base64.ENCODE | options);
+				ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+				Base64Codec.EncodingOutputStream newOut = new Base64Codec.EncodingOutputStream(encoded, options);
+				int offset = 0;
+				while (offset < data.length) {
+					int size = Math.min(data.length - offset, rng.nextInt(500));
+					if (size == 1) newOut.write(data[offset]);
+					else newOut.write(data, offset, size);
+					oldOut.write(data, offset, size);
+					offset += size;
+				}
+				newOut.close();
+				oldOut.close();
+				if (!Arrays.equals(encoded.toByteArray(), expected.toByteArray())) PUNT("Stream encoding differs from Base64.OutputStream.  round=" + round + " length=" + data.length);
+
+				// Back again, with reads of all sizes.
+				InputStream newIn = new Base64Codec.DecodingInputStream(new ByteArrayInputStream(encoded.toByteArray()), options);
+				ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+				byte[] chunk = new byte[700];
+				int size = 0;
+				while (size >= 0) {
+					if ((round & 1) == 0) {
+						size = newIn.read();
+						if (size >= 0) decoded.write(size);
+					} else {
+						size = newIn.read(chunk, 0, 1 + rng.nextInt(chunk.length - 1));
+						if (size > 0) decoded.write(chunk, 0, size);
+					}
+				}
+				if (!Arrays.equals(decoded.toByteArray(), data)) PUNT("Stream decoding differs.  round=" + round + " length=" + data.length);
+			}
+			PASS(STREAMS);
+		} catch (TestLocalException tle) {
+			FAIL(STREAMS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(STREAMS, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			byte[] data = randomBytes(new Random(SEED), BENCHMARK_SIZE);
+			byte[] encoded = null;
+			byte[] decoded = null;
+			ByteBuffer encodedBuffer = null;
+			ByteBuffer decodedBuffer = ByteBuffer.allocate(BENCHMARK_SIZE);
+			long oldEncode = 0;
+			long oldDecode = 0;
+			long newEncode = 0;
+			long newDecode = 0;
+			long newBufferDecode = 0;
+			long mark;
+
+			// The last pass is the one that counts.  The ones before warm up.
+			for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+				mark = System.nanoTime();
+				String oldEncoded = Base64.encodeBytes(data);
+				oldEncode = System.nanoTime() - mark;
+
+				mark = System.nanoTime();
+				decoded = Base64.decode(oldEncoded, Base64.NO_OPTIONS);
+				oldDecode = System.nanoTime() - mark;
+
+				mark = System.nanoTime();
+				encoded = Base64Codec.encode(data, Base64.NO_OPTIONS);
+				newEncode = System.nanoTime() - mark;
+
+				mark = System.nanoTime();
+				decoded = Base64Codec.decode(encoded, 0, encoded.length, Base64.NO_OPTIONS);
+				newDecode = System.nanoTime() - mark;
+
+				encodedBuffer = ByteBuffer.wrap(encoded);
+				decodedBuffer.clear();
+				mark = System.nanoTime();
+				new Base64Codec.Decoder(Base64.NO_OPTIONS).decode(encodedBuffer, decodedBuffer, true);
+				newBufferDecode = System.nanoTime() - mark;
+			}
+			if (!Arrays.equals(decoded, data)) PUNT("Benchmark data did not survive.");
+
+			TIME(BENCHMARK, (newEncode + newDecode) / 1000000);
+			SIZE(BENCHMARK, BENCHMARK_SIZE);
+			VALUE(BENCHMARK, "old.encode.mb.per.s", Long.toString(rate(oldEncode)));
+			VALUE(BENCHMARK, "old.decode.mb.per.s", Long.toString(rate(oldDecode)));
+			VALUE(BENCHMARK, "new.encode.mb.per.s", Long.toString(rate(newEncode)));
+			VALUE(BENCHMARK, "new.decode.mb.per.s", Long.toString(rate(newDecode)));
+			VALUE(BENCHMARK, "new.buffer.decode.mb.per.s", Long.toString(rate(newBufferDecode)));
+			PASS(BENCHMARK, "encode old=" + rate(oldEncode) + "MB/s new=" + rate(newEncode) + "MB/s, decode old=" + rate(oldDecode) + "MB/s new=" + rate(newDecode) + "MB/s");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+		    ABORT(BENCHMARK, e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private static byte[] randomBytes(Random rng, int size) {
+		byte[] result = new byte[size];
+		rng.nextBytes(result);
+		return result;
+	}
+
+	private static ByteBuffer buffer(byte[] data, int offset, int size, boolean direct) {
+		if (!direct) return ByteBuffer.wrap(data, offset, size);
+		ByteBuffer result = ByteBuffer.allocateDirect(size);
+		result.put(data, offset, size);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Megabytes of binary data per second.
+	 */
+	private static long rate(long nanos) {
+		if (nanos <= 0) return 0;
+		return BENCHMARK_SIZE / Math.max(1, nanos / 1000);
+	}
+
+}
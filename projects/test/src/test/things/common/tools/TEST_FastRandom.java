@@ -0,0 +1,284 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.common.tools;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import things.common.tools.FastRandom;
+import things.common.tools.Gamer;
+import things.common.tools.TokenFactory;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the FastRandom and the token tools that use it.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 JUN 10
+ * </pre>
+ */
+public class TEST_FastRandom extends Test {
+
+	// TESTS
+	public final static String KNOWN = "Known values";
+	public final static String SEEDS = "Seeding";
+	public final static String BOUNDS = "Bounds";
+	public final static String THREADS = "Threads";
+	public final static String TOKENS = "Tokens";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static long SEED = 20100614L;
+	public final static int SAMPLES = 700000;
+	public final static int THREAD_COUNT = 4;
+	public final static int BENCHMARK_TOKENS = 200000;
+	public final static int TOKEN_SIZE = 16;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.common.tools.TEST_FastRandom");
+		DECLARE(KNOWN);
+		DECLARE(SEEDS);
+		DECLARE(BOUNDS);
+		DECLARE(THREADS);
+		DECLARE(TOKENS);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == KNOWN =========================================================================================================================
+		try {
+			// xoshiro256** with the state from SplitMix64.
+			long[] zero = { -7355399402456485196L, -4652746763540216534L, 1900383378846508768L };
+			long[] seeded = { -8734963453135477384L, -7654493946899064213L, 7433183135778081296L };
+			FastRandom random = new FastRandom(0);
+			for (long value : zero) if (random.nextLong() != value) PUNT("Seed 0 gave the wrong numbers.");
+			random = new FastRandom(SEED);
+			for (long value : seeded) if (random.nextLong() != value) PUNT("Seed " + SEED + " gave the wrong numbers.");
+			PASS(KNOWN);
+		} catch (TestLocalException tle) {
+			FAIL(KNOWN, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(KNOWN, e.getMessage());
+		}
+
+		// == SEEDS =========================================================================================================================
+		try {
+			FastRandom first = new FastRandom(SEED);
+			FastRandom second = new FastRandom(SEED);
+			for (int index = 0; index < 1000; index++) {
+				if (first.nextInt(1000) != second.nextInt(1000)) PUNT("The same seed gave different numbers.");
+			}
+			long after = first.nextLong();
+			first.setSeed(SEED);
+			second.setSeed(SEED);
+			if (first.nextLong() != second.nextLong()) PUNT("setSeed did not start over.");
+			
+			FastRandom split = first.split();
+			if (split.nextLong() == first.nextLong()) PUNT("A split gave the same number as its parent.");
+			if (after == new FastRandom(SEED + 1).nextLong()) PUNT("Seeds next to each other gave the same number.");
+
+			Gamer gamer = new Gamer(SEED);
+			Gamer again = new Gamer();
+			again.setSeed(SEED);
+			for (int index = 0; index < 100; index++) {
+				if (gamer.range(0, 1000) != again.range(0, 1000)) PUNT("Gamers with the same seed differed.");
+			}
+			again.setRandom(null);
+			if (again.getRandom() != FastRandom.shared()) PUNT("A null source did not go back to the default.");
+			PASS(SEEDS);
+		} catch (TestLocalException tle) {
+			FAIL(SEEDS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SEEDS, e.getMessage());
+		}
+
+		// == BOUNDS ========================================================================================================================
+		try {
+			FastRandom random = new FastRandom(SEED);
+			int[] counts = new int[7];
+			for (int index = 0; index < SAMPLES; index++) counts[random.nextInt(7)]++;
+			for (int count : counts) {
+				if (Math.abs(count - (SAMPLES / 7)) > SAMPLES / 100) PUNT("nextInt(7) is lopsided: " + count);
+			}
+
+			// A bound just over a power of two is where a biased method shows it.
+			int bound = (1 << 30) + 1;
+			int high = 0;
+			for (int index = 0; index < SAMPLES; index++) {
+				int value = random.nextInt(bound);
+				if ((value < 0)||(value >= bound)) PUNT("nextInt out of range: " + value);
+				if (value >= (bound >>> 1)) high++;
+			}
+			if (Math.abs(high - (SAMPLES / 2)) > SAMPLES / 100) PUNT("nextInt(2^30+1) is lopsided: " + high);
+
+			for (int index = 0; index < SAMPLES; index++) {
+				double value = random.nextDouble();
+				if ((value < 0.0)||(value >= 1.0)) PUNT("nextDouble out of range: " + value);
+				float single = random.nextFloat();
+				if ((single < 0.0f)||(single >= 1.0f)) PUNT("nextFloat out of range: " + single);
+			}
+			try {
+				random.nextInt(0);
+				PUNT("nextInt(0) was allowed.");
+			} catch (IllegalArgumentException iae) {
+				// Good
+			}
+			PASS(BOUNDS);
+		} catch (TestLocalException tle) {
+			FAIL(BOUNDS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BOUNDS, e.getMessage());
+		}
+
+		// == THREADS =======================================================================================================================
+		try {
+			final FastRandom[] instances = new FastRandom[THREAD_COUNT];
+			final long[] sums = new long[THREAD_COUNT];
+			Thread[] workers = new Thread[THREAD_COUNT];
+			for (int index = 0; index < THREAD_COUNT; index++) {
+				final int slot = index;
+				workers[index] = new Thread() {
+					public void run() {
+						instances[slot] = FastRandom.current();
+						Random shared = FastRandom.shared();
+						for (int sample = 0; sample < 10000; sample++) sums[slot] += shared.nextInt(10);
+					}
+				};
+				workers[index].start();
+			}
+			for (Thread worker : workers) worker.join();
+			HashSet<FastRandom> distinct = new HashSet<FastRandom>();
+			for (int index = 0; index < THREAD_COUNT; index++) {
+				if (instances[index] == null) PUNT("A thread got no instance.");
+				distinct.add(instances[index]);
+				if ((sums[index] < 40000)||(sums[index] > 50000)) PUNT("A thread's numbers from the shared source were off: " + sums[index]);
+			}
+			if (distinct.size() != THREAD_COUNT) PUNT("Threads shared an instance.");
+			if (FastRandom.current() != FastRandom.current()) PUNT("The same thread got two instances.");
+			try {
+				FastRandom.shared().setSeed(SEED);
+				PUNT("The shared source was seeded.");
+			} catch (UnsupportedOperationException uoe) {
+				// Good
+			}
+			PASS(THREADS);
+		} catch (TestLocalException tle) {
+			FAIL(THREADS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(THREADS, e.getMessage());
+		}
+
+		// == TOKENS ========================================================================================================================
+		try {
+			TokenFactory first = new TokenFactory(12, false, false, SEED);
+			TokenFactory second = new TokenFactory(12, false, false, new FastRandom(SEED));
+			for (int index = 0; index < 100; index++) {
+				if (!first.randomTokenAN().equals(second.randomTokenAN())) PUNT("Seeded factories made different tokens.");
+			}
+
+			TokenFactory tokens = new TokenFactory(12, false, false);
+			String digits = tokens.randomTokenN(500);
+			for (int index = 0; index < digits.length(); index++) {
+				if (!Character.isDigit(digits.charAt(index))) PUNT("randomTokenN made a non-digit.");
+			}
+			String token = tokens.randomToken(500);
+			for (int index = 0; index < token.length(); index++) {
+				if ((token.charAt(index) < 33)||(token.charAt(index) >= 127)) PUNT("randomToken out of range: " + (int)token.charAt(index));
+			}
+			if (tokens.randomTokenAN(0).length() != 0) PUNT("A zero size token was not empty.");
+			if (tokens.randomHex(-1).length() != 0) PUNT("A negative size token was not empty.");
+
+			// Bulk fill, at an offset, evenly over the set.
+			char[] buffer = new char[SAMPLES + 2];
+			buffer[0] = '!';
+			buffer[buffer.length - 1] = '!';
+			tokens.fillHex(buffer, 1, SAMPLES);
+			if ((buffer[0] != '!')||(buffer[buffer.length - 1] != '!')) PUNT("fill went outside its range.");
+			int[] counts = new int[16];
+			for (int index = 1; index <= SAMPLES; index++) {
+				int value = Character.digit(buffer[index], 16);
+				if (value < 0) PUNT("fillHex made a non-hex character.");
+				counts[value]++;
+			}
+			for (int count : counts) {
+				if (Math.abs(count - (SAMPLES / 16)) > SAMPLES / 200) PUNT("fillHex is lopsided: " + count);
+			}
+			PASS(TOKENS);
+		} catch (TestLocalException tle) {
+			FAIL(TOKENS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(TOKENS, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			long oldTime = tokens(new TokenFactory(TOKEN_SIZE, false, false, new Random()));
+			long newTime = tokens(new TokenFactory(TOKEN_SIZE, false, false));
+
+			TokenFactory bulk = new TokenFactory(TOKEN_SIZE, false, false);
+			char[] buffer = new char[TOKEN_SIZE * 1024];
+			long mark = System.nanoTime();
+			for (int round = 0; round < BENCHMARK_TOKENS / 1024; round++) bulk.fillAN(buffer, 0, buffer.length);
+			long bulkTime = System.nanoTime() - mark;
+
+			long count = (long)BENCHMARK_TOKENS * THREAD_COUNT;
+			TIME(BENCHMARK, (oldTime + newTime + bulkTime) / 1000000);
+			SIZE(BENCHMARK, count);
+			VALUE(BENCHMARK, "random.ns.per.token", Long.toString(oldTime / count));
+			VALUE(BENCHMARK, "fastrandom.ns.per.token", Long.toString(newTime / count));
+			VALUE(BENCHMARK, "fill.ns.per.token", Long.toString(bulkTime / BENCHMARK_TOKENS));
+			PASS(BENCHMARK, THREAD_COUNT + " threads, " + TOKEN_SIZE + " character tokens: shared Random=" + (oldTime / count) + "ns FastRandom=" + 
+					(newTime / count) + "ns, one thread bulk fill=" + (bulkTime / BENCHMARK_TOKENS) + "ns");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	/**
+	 * Make tokens from several threads at once with one factory.
+	 */
+	private static long tokens(final TokenFactory factory) throws Throwable {
+		final AtomicInteger length = new AtomicInteger();
+		Thread[] workers = new Thread[THREAD_COUNT];
+		for (int index = 0; index < THREAD_COUNT; index++) {
+			workers[index] = new Thread() {
+				public void run() {
+					int total = 0;
+					for (int token = 0; token < BENCHMARK_TOKENS; token++) total += factory.randomTokenAN(TOKEN_SIZE).length();
+					length.addAndGet(total);
+				}
+			};
+		}
+		long mark = System.nanoTime();
+		for (Thread worker : workers) worker.start();
+		for (Thread worker : workers) worker.join();
+		if (length.get() != BENCHMARK_TOKENS * THREAD_COUNT * TOKEN_SIZE) throw new Exception("Tokens came out the wrong size.");
+		return System.nanoTime() - mark;
+	}
+
+}
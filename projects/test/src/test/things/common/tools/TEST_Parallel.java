@@ -0,0 +1,195 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.common.tools;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import things.common.ThingsException;
+import things.common.tools.Parallel;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the Parallel.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 30 JUN 10
+ * </pre>
+ */
+public class TEST_Parallel extends Test {
+
+	// TESTS
+	public final static String ALL = "All jobs";
+	public final static String PROBLEM = "First problem";
+	public final static String INTERRUPT = "Interrupted caller";
+	public final static String CANCEL = "Cancel";
+
+	// Configuration
+	public final static int JOBS = 16;
+	public final static long WAIT = 10000;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.common.tools.TEST_Parallel");
+		DECLARE(ALL);
+		DECLARE(PROBLEM);
+		DECLARE(INTERRUPT);
+		DECLARE(CANCEL);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == ALL ===========================================================================================================================
+		try {
+			final AtomicInteger count = new AtomicInteger();
+			Parallel.Job[] jobs = new Parallel.Job[JOBS];
+			for (int index = 0; index < JOBS; index++) {
+				jobs[index] = new Parallel.Job() {
+					public void run() {
+						count.incrementAndGet();
+					}
+				};
+			}
+			Parallel.runAll(jobs);
+			if (count.get() != JOBS) PUNT("Not every job ran.  count=" + count.get());
+			Parallel.runAll();
+			PASS(ALL);
+		} catch (TestLocalException tle) {
+			FAIL(ALL, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(ALL, e.getMessage());
+		}
+
+		// == PROBLEM =======================================================================================================================
+		// The problem comes out only after the job that was left waiting is interrupted and out.
+		try {
+			final AtomicInteger out = new AtomicInteger();
+			try {
+				Parallel.runAll(sleeper(out), thrower(new IllegalStateException("first")));
+				PUNT("An unchecked problem did not come out.");
+			} catch (IllegalStateException ise) {
+				if (!"first".equals(ise.getMessage())) PUNT("Wrong problem.  message=" + ise.getMessage());
+			}
+			if (out.get() != 1) PUNT("The waiting job was not out before the problem came out.");
+
+			try {
+				Parallel.runAll(thrower(new IOException("checked")));
+				PUNT("A checked problem did not come out.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.SYSTEM_FAULT_PROCESS_JOB_FAILED) PUNT("Wrong code.  numeric=" + te.numeric);
+				if (!(te.getCause() instanceof IOException)) PUNT("The checked problem was not the cause.");
+			}
+
+			ThingsException original = new ThingsException("original", ThingsException.SYSTEM_FAULT_SOFTWARE_DETECTED);
+			try {
+				Parallel.runAll(thrower(original));
+				PUNT("A ThingsException did not come out.");
+			} catch (ThingsException te) {
+				if (te != original) PUNT("The ThingsException was wrapped.");
+			}
+			PASS(PROBLEM);
+		} catch (TestLocalException tle) {
+			FAIL(PROBLEM, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(PROBLEM, e.getMessage());
+		}
+
+		// == INTERRUPT =====================================================================================================================
+		try {
+			final AtomicInteger out = new AtomicInteger();
+			final Throwable[] thrown = new Throwable[1];
+			Thread caller = new Thread() {
+				public void run() {
+					try {
+						Parallel.runAll(sleeper(out), sleeper(out));
+					} catch (Throwable t) {
+						thrown[0] = t;
+					}
+				}
+			};
+			caller.start();
+			Thread.sleep(100);
+			caller.interrupt();
+			caller.join(WAIT);
+			if (caller.isAlive()) PUNT("The caller did not come back.");
+			if (!(thrown[0] instanceof InterruptedException)) PUNT("The caller did not get an InterruptedException.  thrown=" + thrown[0]);
+			if (out.get() != 2) PUNT("The jobs were not out before the caller came back.  out=" + out.get());
+			PASS(INTERRUPT);
+		} catch (TestLocalException tle) {
+			FAIL(INTERRUPT, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(INTERRUPT, e.getMessage());
+		}
+
+		// == CANCEL ========================================================================================================================
+		try {
+			final AtomicInteger out = new AtomicInteger();
+			final CountDownLatch started = new CountDownLatch(1);
+			Parallel run = Parallel.start(new Parallel.Job() {
+				public void run() throws Throwable {
+					started.countDown();
+					sleeper(out).run();
+				}
+			});
+			started.await();
+			if (run.isDone()) PUNT("Done before it was cancelled.");
+			run.cancel();
+			if (!run.isDone()) PUNT("Not done after cancel.");
+			if (out.get() != 1) PUNT("The job was not out after cancel.");
+			if (run.getProblem() != null) PUNT("Cancel left a problem.  problem=" + run.getProblem());
+			PASS(CANCEL);
+		} catch (TestLocalException tle) {
+			FAIL(CANCEL, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(CANCEL, e.getMessage());
+		}
+	}
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	/**
+	 * A job that sleeps until interrupted and counts itself out.
+	 */
+	private Parallel.Job sleeper(final AtomicInteger out) {
+		return new Parallel.Job() {
+			public void run() throws Throwable {
+				try {
+					Thread.sleep(WAIT);
+				} finally {
+					out.incrementAndGet();
+				}
+			}
+		};
+	}
+
+	/**
+	 * A job that throws after a moment.
+	 */
+	private Parallel.Job thrower(final Throwable problem) {
+		return new Parallel.Job() {
+			public void run() throws Throwable {
+				Thread.sleep(50);
+				throw problem;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,452 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.common.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import things.common.ThingsException;
+import things.common.configuration.ConfigureByProps;
+import things.common.impl.StringPosterStringBuffer;
+import things.common.tools.FileTools;
+import things.common.tools.StreamTools;
+import things.common.tools.Template;
+import things.common.tools.TemplateCache;
+import things.data.ThingsPropertyView;
+import things.data.impl.LineFeederFromStream;
+import things.data.impl.ThingsPropertyTreeBASIC;
+import things.data.impl.ThingsPropertyTrunkInMemory;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.io.fs.FSFileSystem;
+
+/**
+ * TEST the compiled Template, the TemplateCache and the merges that use them.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 16 JUN 10
+ * </pre>
+ */
+public class TEST_Template extends Test {
+
+	// TESTS
+	public final static String BASIC = "Basic";
+	public final static String INCOMPLETE = "Incomplete";
+	public final static String STREAM = "Stream";
+	public final static String RANDOM = "Random templates";
+	public final static String CACHE = "Cache";
+	public final static String CONFIGURE = "Configure";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static long SEED = 20100616L;
+	public final static int RANDOM_TEMPLATES = 3000;
+	public final static int CONFIGURE_FILES = 40;
+	public final static int BENCHMARK_LINES = 2000;
+	public final static int BENCHMARK_MERGES = 50;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.common.tools.TEST_Template");
+		DECLARE(BASIC);
+		DECLARE(INCOMPLETE);
+		DECLARE(STREAM);
+		DECLARE(RANDOM);
+		DECLARE(CACHE);
+		DECLARE(CONFIGURE);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		ThingsPropertyView props = null;
+		try {
+			ThingsPropertyTreeBASIC tree = new ThingsPropertyTreeBASIC();
+			tree.init(new ThingsPropertyTrunkInMemory());
+			props = tree.getRoot();
+			props.setProperty("a", "1");
+			props.setProperty("bb", "two");
+			props.setProperty("host.name", "example.com");
+			props.setProperty("a$$b", "escaped");
+		} catch (Throwable e) {
+			ABORT(BASIC, "Could not set up the properties: " + e.getMessage());
+			return;
+		}
+
+		// == BASIC =========================================================================================================================
+		try {
+			check("Plain text", "Plain text", props);
+			check("Test $$ text", "Test $ text", props);
+			check("x=$a$ y=$bb$.", "x=1 y=two.", props);
+			check("http://$host.name$/index.html", "http://example.com/index.html", props);
+			check("Missing $nope$ stays", "Missing $nope$ stays", props);
+			check("$a$$b$ is", "escaped is", props);
+			check("$$$$", "$$", props);
+			check("", "", props);
+
+			Template template = Template.compile("$a$-$bb$-$a$-$a$ ");
+			if (template.getSlotCount() != 4) PUNT("Wrong slot count: " + template.getSlotCount());
+			if (template.getNames().length != 2) PUNT("Names were not shared: " + template.getNames().length);
+			if (!template.merge(props).equals("1-two-1-1 ")) PUNT("Shared names merged wrong: " + template.merge(props));
+			if (!template.isComplete()) PUNT("Complete template says it isn't.");
+			PASS(BASIC);
+		} catch (TestLocalException tle) {
+			FAIL(BASIC, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BASIC, e.getMessage());
+		}
+
+		// == INCOMPLETE ====================================================================================================================
+		try {
+			String[] incomplete = { "abc $a", "abc $a$", "abc $", "x $a$$" };
+			for (String text : incomplete) {
+				Template template = Template.compile(text);
+				if (template.isComplete()) PUNT("Incomplete template says it's complete: " + text);
+				StringWriter output = new StringWriter();
+				try {
+					template.merge(output, props);
+					PUNT("Incomplete merge did not throw: " + text);
+				} catch (ThingsException te) {
+					if (te.numeric != ThingsException.PROCESSING_ERROR_MERGE_INCOMPLETE) PUNT("Wrong error: " + te.numeric);
+				}
+				if (!output.toString().equals(text.substring(0, text.indexOf('$')))) PUNT("Wrong partial output: " + output);
+			}
+			
+			// The old engine stopped at these.
+			check("stop\ufffehere $a$", "stop", props);
+			check("stop $a$ \uffff", "stop 1 ", props);
+			PASS(INCOMPLETE);
+		} catch (TestLocalException tle) {
+			FAIL(INCOMPLETE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(INCOMPLETE, e.getMessage());
+		}
+
+		// == STREAM ========================================================================================================================
+		try {
+			StringWriter output = new StringWriter();
+			if (!StreamTools.merge(new StringReader("a=$a$ "), output, props)) PUNT("Throwing merge returned false.");
+			if (!output.toString().equals("a=1 ")) PUNT("Throwing merge wrong: " + output);
+			try {
+				StreamTools.merge(new StringReader("a=$a"), new StringWriter(), props);
+				PUNT("Throwing merge did not throw.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.PROCESSING_ERROR_MERGE_INCOMPLETE) PUNT("Wrong error: " + te.numeric);
+			}
+
+			StringPosterStringBuffer log = new StringPosterStringBuffer();
+			output = new StringWriter();
+			if (!StreamTools.merge(new StringReader("b=$bb$ "), output, props, log)) PUNT("Logging merge returned false.  log=" + log);
+			if (!output.toString().equals("b=two ")) PUNT("Logging merge wrong: " + output);
+			log = new StringPosterStringBuffer();
+			if (StreamTools.merge(new StringReader("b=$bb"), new StringWriter(), props, log)) PUNT("Incomplete logging merge returned true.");
+			if (log.toString().indexOf("Incomplete") < 0) PUNT("Incomplete merge not logged: " + log);
+			log = new StringPosterStringBuffer();
+			if (StreamTools.merge(new Dribble("b=$bb$", 1, true), new StringWriter(), props, log)) PUNT("Failed read returned true.");
+			if (log.toString().indexOf("Catastrophic") < 0) PUNT("Failed read not logged: " + log);
+			PASS(STREAM);
+		} catch (TestLocalException tle) {
+			FAIL(STREAM, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(STREAM, e.getMessage());
+		}
+
+		// == RANDOM ========================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			char[] alphabet = { 'a', 'b', '$', '$', '$', ' ', 'x', '.', '\n' };
+			for (int count = 0; count < RANDOM_TEMPLATES; count++) {
+				char[] text = new char[random.nextInt(60)];
+				for (int index = 0; index < text.length; index++) text[index] = alphabet[random.nextInt(alphabet.length)];
+				if ((count % 50 == 0)&&(text.length > 0)) text[random.nextInt(text.length)] = '\ufffe';
+				String source = new String(text);
+
+				StringWriter expected = new StringWriter();
+				boolean expectedComplete = reference(source, expected, props);
+
+				// Compiled
+				Template template = Template.compile(new Dribble(source, 1 + random.nextInt(5), false));
+				if (template.isComplete() != expectedComplete) PUNT("Completion differs for '" + source + "'");
+				StringWriter output = new StringWriter();
+				try {
+					template.merge(output, props);
+				} catch (ThingsException te) {
+					if (expectedComplete) throw te;
+				}
+				if (!output.toString().equals(expected.toString())) PUNT("Compiled merge differs for '" + source + "': '" + output + "' expected '" + expected + "'");
+
+				// Streamed in pieces
+				output = new StringWriter();
+				if (Template.merge(new Dribble(source, 1 + random.nextInt(5), false), output, props) != expectedComplete) PUNT("Streamed completion differs for '" + source + "'");
+				if (!output.toString().equals(expected.toString())) PUNT("Streamed merge differs for '" + source + "': '" + output + "' expected '" + expected + "'");
+			}
+			PASS(RANDOM);
+		} catch (TestLocalException tle) {
+			FAIL(RANDOM, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(RANDOM, e.getMessage());
+		}
+
+		// == CACHE =========================================================================================================================
+		try {
+			Template small = Template.compile("0123456789$a$");
+			Template other = Template.compile("abcdefghij$a$");
+			TemplateCache cache = new TemplateCache(25);
+			cache.put("one", 100, 13, small);
+			if (cache.get("one", 100, 13) != small) PUNT("Did not get it back.");
+			if (cache.get("one", 101, 13) != null) PUNT("Changed time was a hit.");
+			if (cache.get("one", 100, 13) != null) PUNT("Stale entry was not dropped.");
+			cache.put("one", 100, 13, small);
+			cache.put("two", 100, 13, other);
+			cache.get("one", 100, 13);
+			cache.put("three", 100, 13, Template.compile("ABCDEFGHIJ"));
+			if (cache.get("two", 100, 13) != null) PUNT("Least recently used was not evicted.");
+			if (cache.get("one", 100, 13) != small) PUNT("Recently used was evicted.");
+			cache.put("big", 1, 1, Template.compile("12345678901234567890123456"));
+			if (cache.get("big", 1, 1) != null) PUNT("Too big was cached.");
+			if (cache.getHits() != 3) PUNT("Wrong hit count: " + cache);
+			PASS(CACHE);
+		} catch (TestLocalException tle) {
+			FAIL(CACHE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(CACHE, e.getMessage());
+		}
+
+		// == CONFIGURE =====================================================================================================================
+		File root = null;
+		try {
+			root = File.createTempFile("things", "configure");
+			root.delete();
+			File source = new File(root, "source");
+			File destination = new File(root, "destination");
+			new File(source, "deeper").mkdirs();
+			destination.mkdirs();
+			for (int index = 0; index < CONFIGURE_FILES; index++) {
+				String name = ((index % 2) == 0) ? "file" + index + ".txt" : "deeper/file" + index + ".txt";
+				FileTools.saveString2File(new File(source, name), "File " + index + " for $host.name$ a=$a$ $$\n");
+			}
+			new File(destination, "deeper").mkdirs();
+			
+			StringPosterStringBuffer log = new StringPosterStringBuffer();
+			configure(props, log, source, destination);
+			for (int index = 0; index < CONFIGURE_FILES; index++) {
+				String name = ((index % 2) == 0) ? "file" + index + ".txt" : "deeper/file" + index + ".txt";
+				String result = FileTools.loadFile2String(new File(destination, name));
+				if (!result.equals("File " + index + " for example.com a=1 $\n")) PUNT("Wrong configured file " + name + ": " + result);
+			}
+			
+			// Logged in the order they were found, not the order they finished.
+			List<String> found = new ArrayList<String>();
+			walk(source, "", found);
+			List<String> logged = new ArrayList<String>();
+			for (String line : log.toString().split("[\r\n]+")) {
+				if (line.indexOf("Configured ") >= 0) logged.add(line);
+			}
+			if (logged.size() != found.size()) PUNT("Wrong number of files logged.  logged=" + logged.size() + " found=" + found.size());
+			for (int index = 0; index < found.size(); index++) {
+				if (!logged.get(index).endsWith(found.get(index))) PUNT("Logged out of order.  expected=" + found.get(index) + " line=" + logged.get(index));
+			}
+			log = new StringPosterStringBuffer();
+			
+			// Again, from the cache, with one changed.
+			props.setProperty("a", "2");
+			File changed = new File(source, "file0.txt");
+			FileTools.saveString2File(changed, "Changed $a$ and more\n");
+			changed.setLastModified(changed.lastModified() + 2000);
+			configure(props, log, source, destination);
+			if (!FileTools.loadFile2String(new File(destination, "file0.txt")).equals("Changed 2 and more\n")) PUNT("Changed file was not recompiled.");
+			if (!FileTools.loadFile2String(new File(destination, "deeper/file1.txt")).equals("File 1 for example.com a=2 $\n")) PUNT("Cached file did not merge again.");
+			
+			// A broken one fails the run.
+			FileTools.saveString2File(new File(source, "deeper/broken.txt"), "Broken $a");
+			try {
+				configure(props, log, source, destination);
+				PUNT("A broken template did not fail the configure.");
+			} catch (ThingsException te) {
+				// Good
+			}
+			PASS(CONFIGURE);
+		} catch (TestLocalException tle) {
+			FAIL(CONFIGURE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(CONFIGURE, e.getMessage());
+		} finally {
+			try {
+				props.setProperty("a", "1");
+				if (root != null) FileTools.destroy(root);
+			} catch (Throwable t) {
+				// Don't care
+			}
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			StringBuffer text = new StringBuffer();
+			for (int index = 0; index < BENCHMARK_LINES; index++) {
+				text.append("server.").append(index).append(" = http://$host.name$:80").append(index % 10).append("/path/$bb$?a=$a$ $$").append('\n');
+			}
+			String source = text.toString();
+			StringWriter expected = new StringWriter();
+			reference(source, expected, props);
+
+			long oldTime = System.nanoTime();
+			for (int index = 0; index < BENCHMARK_MERGES; index++) reference(source, new StringWriter(source.length() * 2), props);
+			oldTime = System.nanoTime() - oldTime;
+
+			long streamTime = System.nanoTime();
+			for (int index = 0; index < BENCHMARK_MERGES; index++) Template.merge(new StringReader(source), new StringWriter(source.length() * 2), props);
+			streamTime = System.nanoTime() - streamTime;
+
+			Template template = Template.compile(source);
+			long compiledTime = System.nanoTime();
+			String merged = null;
+			for (int index = 0; index < BENCHMARK_MERGES; index++) merged = template.merge(props);
+			compiledTime = System.nanoTime() - compiledTime;
+			if (!merged.equals(expected.toString())) PUNT("Benchmark merge differs.");
+
+			long chars = (long)source.length() * BENCHMARK_MERGES;
+			TIME(BENCHMARK, (oldTime + streamTime + compiledTime) / 1000000);
+			SIZE(BENCHMARK, chars);
+			VALUE(BENCHMARK, "character.ns.per.kchar", Long.toString(oldTime * 1000 / chars));
+			VALUE(BENCHMARK, "streamed.ns.per.kchar", Long.toString(streamTime * 1000 / chars));
+			VALUE(BENCHMARK, "compiled.ns.per.kchar", Long.toString(compiledTime * 1000 / chars));
+			PASS(BENCHMARK, BENCHMARK_LINES + " line template merged " + BENCHMARK_MERGES + " times_ per 1000 characters character engine=" + (oldTime * 1000 / chars) 
+					+ "ns streamed=" + (streamTime * 1000 / chars) + "ns compiled=" + (compiledTime * 1000 / chars) + "ns");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+	}
+
+	/**
+	 * Check compiled, streamed and string merges against an expected result.
+	 */
+	private void check(String text, String expected, ThingsPropertyView props) throws Throwable {
+		String compiled = Template.compile(text).merge(props);
+		if (!compiled.equals(expected)) PUNT("Compiled '" + text + "' gave '" + compiled + "'");
+		StringWriter output = new StringWriter();
+		Template.merge(new StringReader(text), output, props);
+		if (!output.toString().equals(expected)) PUNT("Streamed '" + text + "' gave '" + output + "'");
+	}
+
+	/**
+	 * Run a configure from source to destination.
+	 */
+	private void configure(ThingsPropertyView props, StringPosterStringBuffer log, File source, File destination) throws Throwable {
+		LineFeederFromStream lines = new LineFeederFromStream();
+		lines.init(new ByteArrayInputStream("# Test\nconfig either recurse /\n".getBytes("US-ASCII")));
+		ConfigureByProps.configure(props, lines, log, new FSFileSystem(source.getAbsolutePath()), new FSFileSystem(destination.getAbsolutePath()));
+	}
+
+	/**
+	 * List the files under a directory in the order the configure finds them: each directory's files in listing order, with a 
+	 * subdirectory's files where the subdirectory is.
+	 */
+	private void walk(File directory, String prefix, List<String> found) {
+		for (String name : directory.list()) {
+			File entry = new File(directory, name);
+			if (entry.isDirectory()) walk(entry, prefix + name + "/", found);
+			else found.add(prefix + name);
+		}
+	}
+
+	/**
+	 * The character by character engine StreamTools.merge used to have.  The new ones must do just what it did.
+	 * @return true if it was complete.
+	 */
+	private static boolean reference(String text, StringWriter output, ThingsPropertyView props) throws Throwable {
+		final int START = 0, OPEN = 1, READ = 2, CLOSE = 3;
+		int state = START;
+		StringBuffer name = null;
+		for (int index = 0; index < text.length(); index++) {
+			char character = text.charAt(index);
+			if (character >= 65534) break;
+			switch (state) {
+			case START:
+				if (character == '$') state = OPEN;
+				else output.write(character);
+				break;
+			case OPEN:
+				if (character == '$') {
+					state = START;
+					output.write('$');
+				} else {
+					state = READ;
+					name = new StringBuffer();
+					name.append(character);
+				}
+				break;
+			case READ:
+				if (character == '$') state = CLOSE;
+				else name.append(character);
+				break;
+			case CLOSE:
+				if (character == '$') {
+					state = READ;
+					name.append('$').append('$');
+				} else {
+					String value = props.getProperty(name.toString());
+					if (value != null) output.write(value);
+					else output.write("$" + name + "$");
+					output.write(character);
+					state = START;
+				}
+				break;
+			}
+		}
+		return state == START;
+	}
+
+	/**
+	 * A reader that gives a few characters at a time and can fail at the end.
+	 */
+	private static class Dribble extends Reader {
+		private String text;
+		private int position;
+		private int most;
+		private boolean fail;
+
+		Dribble(String text, int most, boolean fail) {
+			this.text = text;
+			this.most = most;
+			this.fail = fail;
+		}
+
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			if (position >= text.length()) {
+				if (fail) throw new IOException("Broken on purpose.");
+				return -1;
+			}
+			int amount = Math.min(Math.min(length, most), text.length() - position);
+			text.getChars(position, position + amount, buffer, offset);
+			position += amount;
+			return amount;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -25,6 +25,7 @@ import things.testing.unit.TestGroup;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 1 AUG 04
+ * EPG - Add language - 2 JUN 10
  * </pre> 
  */
 public class GROUP_data extends TestGroup {
@@ -32,10 +33,14 @@ public class GROUP_data extends TestGroup {
 	public void group_prepare() throws Throwable {
 		SET_LONG_NAME("things.data.");
 		DECLAREGROUP("things.data.processing.GROUP_Processing","test.things.data.processing.GROUP_Processing");
+		DECLAREGROUP("things.data.transport.GROUP_Transport","test.things.data.transport.GROUP_Transport");
+		DECLAREGROUP("things.data.language.GROUP_language","test.things.data.language.GROUP_language");
 	}
     
 	public void group_execute() throws Throwable {
 		THE_BUCK_STOPS_HERE();
 		RUNGROUP("things.data.processing.GROUP_Processing");
+		RUNGROUP("things.data.transport.GROUP_Transport");
+		RUNGROUP("things.data.language.GROUP_language");
 	}
 }
@@ -0,0 +1,360 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.language;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import things.common.ThingsException;
+import things.data.language.AText;
+import things.data.language.LanguageGenerator_Basic;
+import things.data.language.PackedWords;
+import things.data.language.WordDictionary;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the WordDictionary and LanguageGenerator_Basic.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 2 JUN 10
+ * EPG - Packed words and translation memory - 4 JUN 10
+ * </pre>
+ */
+public class TEST_LanguageGenerator extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String SIZES = "Size sampling";
+	public final static String SEEDS = "Seeded text";
+	public final static String PARALLEL = "Parallel generate";
+	public final static String PACKED = "Packed words";
+	public final static String MEMORY = "Translation memory";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static long SEED = 20100602L;
+	public final static int SAMPLES = 500000;
+	public final static int PAGES = 64;
+	public final static int PAGE_SIZE = 16384;
+	public final static int BENCHMARK_PAGES = 256;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.language.TEST_LanguageGenerator");
+		DECLARE(SETUP);
+		DECLARE(SIZES);
+		DECLARE(SEEDS);
+		DECLARE(PARALLEL);
+		DECLARE(PACKED);
+		DECLARE(MEMORY);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		WordDictionary dictionary = null;
+
+		// == SETUP =========================================================================================================================
+		try {
+			dictionary = new WordDictionary(new ByteArrayInputStream(words(new Random(SEED), 5000).getBytes("US-ASCII")));
+			PASS(SETUP);
+		} catch (Throwable e) {
+			ABORT(SETUP, e.getMessage());
+			return;
+		}
+
+		// == SIZES =========================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			for (int max : new int[] { 1, 3, 8, 30 }) {
+				int[] expected = new int[WordDictionary.MAXSIZE + 1];
+				int fits = 0;
+				for (int size : WordDictionary.defaultFrequencyChart) {
+					if (size <= max) {
+						expected[size]++;
+						fits++;
+					}
+				}
+
+				WordDictionary.SizeChart chart = new WordDictionary.SizeChart(WordDictionary.defaultFrequencyChart);
+				int[] counts = new int[WordDictionary.MAXSIZE + 1];
+				for (int sample = 0; sample < SAMPLES; sample++) {
+					int size = chart.sample(max, random);
+					if (size > max) PUNT("Sampled " + size + " when the max was " + max);
+					counts[size]++;
+				}
+
+				// Within a percent of the share the chart gives it.
+				for (int size = 0; size <= max; size++) {
+					double share = (double)expected[size] / fits;
+					double got = (double)counts[size] / SAMPLES;
+					if (Math.abs(share - got) > 0.01) PUNT("Size " + size + " with max " + max + " came up " + got + " of the time, not " + share);
+				}
+			}
+
+			// Nothing fits.
+			WordDictionary.SizeChart chart = new WordDictionary.SizeChart(WordDictionary.firstnameFrequencyChart);
+			if (chart.sample(1, random) != 1) PUNT("Should have picked the max when nothing fits.");
+
+			// Words come out the right size.
+			for (int size = 1; size <= WordDictionary.MAXSIZE; size++) {
+				if (dictionary.get(size, random).length() != size) PUNT("Wrong size word for size " + size);
+				if (dictionary.getMax(size, random).length() > size) PUNT("Word over the max for max " + size);
+			}
+			PASS(SIZES);
+		} catch (TestLocalException tle) {
+			FAIL(SIZES, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SIZES, e.getMessage());
+		}
+
+		// == SEEDS =========================================================================================================================
+		try {
+			LanguageGenerator_Basic first = new LanguageGenerator_Basic(SEED);
+			first.initialize(dictionary);
+			LanguageGenerator_Basic second = new LanguageGenerator_Basic(SEED);
+			second.initialize(dictionary);
+			String page = first.page(PAGE_SIZE, 72, "> ");
+			if (!page.equals(second.page(PAGE_SIZE, 72, "> "))) PUNT("The same seed made different pages.");
+			if (page.equals(first.page(PAGE_SIZE, 72, "> "))) PUNT("The next page was the same as the first.");
+			if (!Character.isUpperCase(page.charAt(0))) PUNT("Page did not start with a capital.");
+			if (page.charAt(page.length() - 1) != '.') PUNT("Page did not end with a period.");
+
+			AText text = new AText(PAGE_SIZE);
+			second.setSeed(SEED);
+			second.page(text, PAGE_SIZE, 72, "> ");
+			if (!page.equals(text.text.toString())) PUNT("Reseeding did not start over.");
+			text.clear();
+			if ((text.text.length() != 0)||(text.currentWrap != 0)) PUNT("clear() did not empty the text.");
+
+			PASS(SEEDS);
+		} catch (TestLocalException tle) {
+			FAIL(SEEDS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SEEDS, e.getMessage());
+		}
+
+		// == PARALLEL ======================================================================================================================
+		try {
+			LanguageGenerator_Basic generator = new LanguageGenerator_Basic(SEED);
+			generator.initialize(dictionary);
+			String[] single = generator.generate(PAGES, PAGE_SIZE, 76, null, 1);
+			String[] many = generator.generate(PAGES, PAGE_SIZE, 76, null, 7);
+			if (!Arrays.equals(single, many)) PUNT("Thread count changed the pages.");
+			for (int index = 0; index < PAGES; index++) {
+				if ((single[index] == null)||(single[index].length() < LanguageGenerator_Basic.DEFAULT_WRAP)) PUNT("Page " + index + " is missing or short.");
+				if ((index > 0)&&(single[index].equals(single[index - 1]))) PUNT("Page " + index + " is the same as the one before.");
+			}
+
+			generator.setSeed(SEED + 1);
+			if (Arrays.equals(single, generator.generate(PAGES, PAGE_SIZE, 76, null, 3))) PUNT("A different seed made the same pages.");
+			if (generator.generate(0, PAGE_SIZE).length != 0) PUNT("Zero pages wasn't empty.");
+
+			try {
+				generator.generate(1, 2);
+				PUNT("A runt size was accepted.");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				// Good
+			}
+			PASS(PARALLEL);
+		} catch (TestLocalException tle) {
+			FAIL(PARALLEL, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(PARALLEL, e.getMessage());
+		}
+
+		// == PACKED ========================================================================================================================
+		try {
+			PackedWords packed = dictionary.getWords();
+			if (packed.getMaxSize() != WordDictionary.MAXSIZE) PUNT("Packed max size is wrong.");
+			for (int size = 1; size <= WordDictionary.MAXSIZE; size++) {
+				if (packed.count(size) < 1) PUNT("No words of size " + size);
+				for (int index = 0; index < packed.count(size); index++) {
+					if (packed.get(size, index).length() != size) PUNT("Word " + index + " of size " + size + " is the wrong size.");
+				}
+			}
+			try {
+				packed.get(1, packed.count(1));
+				PUNT("Got a word past the end.");
+			} catch (IndexOutOfBoundsException ioobe) {
+				// Good
+			}
+
+			// Through a stream.
+			ByteArrayOutputStream written = new ByteArrayOutputStream();
+			packed.write(written);
+			PackedWords read = PackedWords.read(new ByteArrayInputStream(written.toByteArray()));
+			if (read.isMapped()) PUNT("Read words say they are mapped.");
+			same(packed, read);
+
+			// Through a mapped file.
+			File file = File.createTempFile("words", ".pack");
+			file.deleteOnExit();
+			FileOutputStream output = new FileOutputStream(file);
+			packed.write(output);
+			output.close();
+			PackedWords mapped = PackedWords.map(file);
+			if (!mapped.isMapped()) PUNT("Mapped words say they aren't.");
+			same(packed, mapped);
+
+			// A dictionary from the mapped words makes the same text.
+			WordDictionary mappedDictionary = new WordDictionary(mapped);
+			LanguageGenerator_Basic first = new LanguageGenerator_Basic(SEED);
+			first.initialize(dictionary);
+			LanguageGenerator_Basic second = new LanguageGenerator_Basic(SEED);
+			second.initialize(mappedDictionary);
+			if (!first.page(PAGE_SIZE, 76, null).equals(second.page(PAGE_SIZE, 76, null))) PUNT("Mapped dictionary made different text.");
+
+			// Junk isn't words.
+			try {
+				PackedWords.read(new ByteArrayInputStream("This is not packed words.".getBytes("US-ASCII")));
+				PUNT("Read junk.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.LANGUAGE_WORD_FILE_FAILED) PUNT("Junk gave the wrong exception.  code=" + te.numeric);
+			}
+			byte[] truncated = Arrays.copyOf(written.toByteArray(), written.size() - 10);
+			try {
+				PackedWords.read(new ByteArrayInputStream(truncated));
+				PUNT("Read truncated words.");
+			} catch (ThingsException te) {
+				// Good
+			}
+
+			VALUE(PACKED, "words", Integer.toString(packed.count()));
+			VALUE(PACKED, "bytes", Integer.toString(packed.size() * 2));
+			PASS(PACKED, packed.count() + " words in " + (packed.size() * 2) + " bytes");
+		} catch (TestLocalException tle) {
+			FAIL(PACKED, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(PACKED, e.getMessage());
+		}
+
+		// == MEMORY ========================================================================================================================
+		try {
+			dictionary.setTranslationMemory(100);
+			String first = dictionary.translate("remembered");
+			if (first.length() != "remembered".length()) PUNT("Translation is the wrong size.");
+			for (int index = 0; index < 1000; index++) {
+				dictionary.translate("word" + index);
+
+				// Keep using it so it stays.
+				if (!dictionary.translate("remembered").equals(first)) PUNT("Forgot a translation that was in use.  index=" + index);
+			}
+			if (dictionary.getRememberedCount() != 100) PUNT("Memory was not bounded.  count=" + dictionary.getRememberedCount());
+			if (!"".equals(dictionary.translate(""))) PUNT("Empty word did not translate to empty.");
+
+			dictionary.refreshMemory();
+			if (dictionary.getRememberedCount() != 0) PUNT("Refresh did not forget.");
+			dictionary.setTranslationMemory(WordDictionary.DEFAULT_TRANSLATION_MEMORY);
+			PASS(MEMORY);
+		} catch (TestLocalException tle) {
+			FAIL(MEMORY, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(MEMORY, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			Random random = new Random(SEED);
+
+			// The old way of picking a size: throw back what doesn't fit.
+			long mark = System.nanoTime();
+			long check = 0;
+			for (int sample = 0; sample < SAMPLES; sample++) {
+				int max = 1 + (sample & 7);
+				int size = WordDictionary.defaultFrequencyChart[random.nextInt(100)];
+				int loop = 0;
+				while (size > max) {
+					size = WordDictionary.defaultFrequencyChart[random.nextInt(100)];
+					loop++;
+					if (loop > 5) size = max;
+				}
+				check += size;
+			}
+			long rejectTime = System.nanoTime() - mark;
+
+			WordDictionary.SizeChart chart = new WordDictionary.SizeChart(WordDictionary.defaultFrequencyChart);
+			mark = System.nanoTime();
+			for (int sample = 0; sample < SAMPLES; sample++) {
+				check += chart.sample(1 + (sample & 7), random);
+			}
+			long aliasTime = System.nanoTime() - mark;
+
+			LanguageGenerator_Basic generator = new LanguageGenerator_Basic(SEED);
+			generator.initialize(dictionary);
+			int threads = Runtime.getRuntime().availableProcessors();
+			mark = System.nanoTime();
+			generator.generate(BENCHMARK_PAGES, PAGE_SIZE, 76, null, 1);
+			long singleTime = System.nanoTime() - mark;
+			mark = System.nanoTime();
+			generator.generate(BENCHMARK_PAGES, PAGE_SIZE, 76, null, threads);
+			long manyTime = System.nanoTime() - mark;
+
+			long bytes = (long)BENCHMARK_PAGES * PAGE_SIZE;
+			TIME(BENCHMARK, (singleTime + manyTime) / 1000000);
+			SIZE(BENCHMARK, bytes);
+			VALUE(BENCHMARK, "reject.ns.per.size", Long.toString(rejectTime / SAMPLES));
+			VALUE(BENCHMARK, "alias.ns.per.size", Long.toString(aliasTime / SAMPLES));
+			VALUE(BENCHMARK, "single.mb.per.s", Long.toString(bytes / Math.max(1, singleTime / 1000)));
+			VALUE(BENCHMARK, "parallel.mb.per.s", Long.toString(bytes / Math.max(1, manyTime / 1000)));
+			VALUE(BENCHMARK, "threads", Integer.toString(threads));
+			PASS(BENCHMARK, "size pick reject=" + (rejectTime / SAMPLES) + "ns alias=" + (aliasTime / SAMPLES) + "ns, text one thread=" + 
+					(bytes / Math.max(1, singleTime / 1000)) + "MB/s " + threads + " threads=" + (bytes / Math.max(1, manyTime / 1000)) + "MB/s (check " + check + ")");
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private final static String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	private void same(PackedWords expected, PackedWords actual) throws Throwable {
+		if (actual.getMaxSize() != expected.getMaxSize()) PUNT("Max size changed.");
+		if (actual.size() != expected.size()) PUNT("Character count changed.");
+		for (int size = 1; size <= expected.getMaxSize(); size++) {
+			if (actual.count(size) != expected.count(size)) PUNT("Count for size " + size + " changed.");
+			for (int index = 0; index < expected.count(size); index++) {
+				if (!actual.get(size, index).equals(expected.get(size, index))) PUNT("Word " + index + " of size " + size + " changed.");
+			}
+		}
+	}
+
+	/**
+	 * Made up words, mostly short like English.
+	 */
+	private static String words(Random random, int count) {
+		StringBuilder result = new StringBuilder();
+		for (int word = 0; word < count; word++) {
+			int size = 1 + random.nextInt(4) + random.nextInt(4) + random.nextInt(random.nextInt(10) + 1);
+			for (int index = 0; index < size; index++) result.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+			result.append((word % 12 == 11) ? '\n' : ' ');
+		}
+		return result.toString();
+	}
+
+}
@@ -25,6 +25,10 @@ import things.testing.unit.TestGroup;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 7 JAN 07
+ * EPG - Add http - 3 MAY 10
+ * EPG - Add PhraseAutomaton - 7 JUN 10
+ * EPG - Add StreamCrawler - 9 JUN 10
+ * EPG - Add Tokenizer - 11 JUN 10
  * </pre> 
  */
 public class GROUP_Processing extends TestGroup {
@@ -32,10 +36,18 @@ public class GROUP_Processing extends TestGroup {
 	public void group_prepare() throws Throwable {
 		SET_LONG_NAME("things.data.processing.");
 		DECLAREGROUP("things.data.processing.rfc822.GROUP_RFC822","test.things.data.processing.rfc822.GROUP_RFC822");
+		DECLAREGROUP("things.data.processing.http.GROUP_HTTP","test.things.data.processing.http.GROUP_HTTP");
+		DECLARETEST("things.data.processing.TEST_PhraseAutomaton","test.things.data.processing.TEST_PhraseAutomaton");
+		DECLARETEST("things.data.processing.TEST_StreamCrawler","test.things.data.processing.TEST_StreamCrawler");
+		DECLARETEST("things.data.processing.TEST_Tokenizer","test.things.data.processing.TEST_Tokenizer");
 	}
 
 	public void group_execute() throws Throwable {
 		RUNGROUP("things.data.processing.rfc822.GROUP_RFC822");
+		RUNGROUP("things.data.processing.http.GROUP_HTTP");
+		RUN("things.data.processing.TEST_PhraseAutomaton");
+		RUN("things.data.processing.TEST_StreamCrawler");
+		RUN("things.data.processing.TEST_Tokenizer");
 	}
 	
 }
@@ -0,0 +1,382 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import things.data.processing.PhraseAutomaton;
+import things.data.processing.PhraseListener;
+import things.data.processing.PhraseMatcher;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the PhraseAutomaton and the PhraseMatcher built on it.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 7 JUN 10
+ * </pre>
+ */
+public class TEST_PhraseAutomaton extends Test {
+
+	// TESTS
+	public final static String BASIC = "Basic scan";
+	public final static String CASE = "Case sensitivity";
+	public final static String SPACING = "White space";
+	public final static String UNICODE = "Unicode";
+	public final static String THREADS = "Shared automaton";
+	public final static String MATCHER = "PhraseMatcher filter";
+	public final static String RANDOM = "Random against naive";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static long SEED = 20100607L;
+	public final static int RANDOM_ROUNDS = 200;
+	public final static int BENCHMARK_PHRASES = 5000;
+	public final static int BENCHMARK_SIZE = 4 * 1024 * 1024;
+	public final static int NAIVE_PHRASES = 10;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.TEST_PhraseAutomaton");
+		DECLARE(BASIC);
+		DECLARE(CASE);
+		DECLARE(SPACING);
+		DECLARE(UNICODE);
+		DECLARE(THREADS);
+		DECLARE(MATCHER);
+		DECLARE(RANDOM);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == BASIC =========================================================================================================================
+		try {
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			builder.declare("he", 2, true);
+			builder.declare("she", 3, true);
+			builder.declare("his", 4, true);
+			builder.declare("hers", 5, true);
+			PhraseAutomaton automaton = builder.build();
+			if (automaton.getPhraseCount() != 4) PUNT("Wrong phrase count: " + automaton.getPhraseCount());
+			expect(automaton, "ushers", "3:1-4 2:2-4 5:2-6");
+			expect(automaton, "this his", "4:1-4 4:5-8");
+			expect(automaton, "nothing", "");
+
+			// Redeclaring replaces the id, and an old automaton keeps the old one.
+			builder.declare("he", 9, true);
+			expect(builder.build(), "he", "9:0-2");
+			expect(automaton, "he", "2:0-2");
+
+			try {
+				builder.declare("   ", 2, true);
+				PUNT("An empty phrase was allowed.");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				// Good
+			}
+			PASS(BASIC);
+		} catch (TestLocalException tle) {
+			FAIL(BASIC, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BASIC, e.getMessage());
+		}
+
+		// == CASE ==========================================================================================================================
+		try {
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			builder.declare("Thing", 2, true);
+			builder.declare("thinger", 3, false);
+			PhraseAutomaton automaton = builder.build();
+			expect(automaton, "thing Thing", "2:6-11");
+			expect(automaton, "THINGER", "3:0-7");
+			expect(automaton, "Thinger", "2:0-5 3:0-7");
+			PASS(CASE);
+		} catch (TestLocalException tle) {
+			FAIL(CASE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(CASE, e.getMessage());
+		}
+
+		// == SPACING =======================================================================================================================
+		try {
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			builder.declare("  big \t red  dog ", 2, false);
+			PhraseAutomaton automaton = builder.build();
+			expect(automaton, "a big red dog", "2:2-13");
+			expect(automaton, "a\n  BIG\r\n\tred\u00a0 dog!", "2:4-18");
+			expect(automaton, "bigred dog", "");
+			PASS(SPACING);
+		} catch (TestLocalException tle) {
+			FAIL(SPACING, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SPACING, e.getMessage());
+		}
+
+		// == UNICODE =======================================================================================================================
+		try {
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			builder.declare("\u0394\u03b5\u03bb\u03c4\u03b1", 2, false);		// Greek delta word
+			builder.declare("\u6771\u4eac", 3, true);							// Tokyo
+			builder.declare("\ud834\udd1e clef", 4, true);					// Musical G clef
+			PhraseAutomaton automaton = builder.build();
+			expect(automaton, "x \u0394\u0395\u039b\u03a4\u0391 y", "2:2-7");
+			expect(automaton, "\u6771\u6771\u4eac", "3:1-3");
+			expect(automaton, "a \ud834\udd1e  clef", "4:2-10");
+			expect(automaton, "a \ud834\udd1f clef", "");
+			PASS(UNICODE);
+		} catch (TestLocalException tle) {
+			FAIL(UNICODE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(UNICODE, e.getMessage());
+		}
+
+		// == THREADS =======================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			final String[] phrases = phrases(random, 500, 2);
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			for (int index = 0; index < phrases.length; index++) builder.declare(phrases[index], index + 2, false);
+			final PhraseAutomaton automaton = builder.build();
+			final String text = text(random, 200000);
+			final String expected = collect(automaton, text);
+
+			final int[] bad = new int[1];
+			Thread[] workers = new Thread[4];
+			for (int index = 0; index < workers.length; index++) {
+				workers[index] = new Thread() {
+					public void run() {
+						try {
+							for (int round = 0; round < 5; round++) {
+								if (!expected.equals(collect(automaton, text))) {
+									synchronized(bad) { bad[0]++; }
+								}
+							}
+						} catch (Throwable t) {
+							synchronized(bad) { bad[0]++; }
+						}
+					}
+				};
+				workers[index].start();
+			}
+			for (int index = 0; index < workers.length; index++) workers[index].join();
+			if (bad[0] > 0) PUNT("Threads sharing an automaton got different matches " + bad[0] + " times.");
+			PASS(THREADS);
+		} catch (TestLocalException tle) {
+			FAIL(THREADS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(THREADS, e.getMessage());
+		}
+
+		// == MATCHER =======================================================================================================================
+		try {
+			Replacer replacer = new Replacer(new String[] { "red dog", "dog house", "\u6771\u4eac" });
+			StringWriter out = new StringWriter();
+			replacer.process("doc", new StringReader("The red\n dog house, the DOG HOUSE and \u6771\u4eac."), out);
+			if (!out.toString().equals("The [2:red\n dog] house, the [3:DOG HOUSE] and [4:\u6771\u4eac].")) PUNT("Bad filter output: " + out.toString());
+
+			// Text much bigger than the buffer goes through untouched.
+			String text = text(new Random(SEED), 100000);
+			replacer = new Replacer(new String[] { "not in there" });
+			out = new StringWriter();
+			replacer.process("big", new StringReader(text), out);
+			if (!out.toString().equals(text)) PUNT("Big text was changed.");
+
+			// A null writer is allowed.
+			replacer.process("none", new StringReader(text), null);
+			PASS(MATCHER);
+		} catch (TestLocalException tle) {
+			FAIL(MATCHER, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(MATCHER, e.getMessage());
+		}
+
+		// == RANDOM ========================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			for (int round = 0; round < RANDOM_ROUNDS; round++) {
+				String[] phrases = phrases(random, 1 + random.nextInt(30), 2);
+				PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+				for (int index = 0; index < phrases.length; index++) builder.declare(phrases[index], index + 2, false);
+				PhraseAutomaton automaton = builder.build();
+				String text = text(random, 2000);
+				int found = count(automaton, text);
+				int naive = naive(phrases, text);
+				if (found != naive) PUNT("Round " + round + " found " + found + " but the naive search found " + naive);
+			}
+			PASS(RANDOM);
+		} catch (TestLocalException tle) {
+			FAIL(RANDOM, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(RANDOM, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			String[] phrases = phrases(random, BENCHMARK_PHRASES, 4);
+			String text = text(random, BENCHMARK_SIZE);
+
+			long mark = System.nanoTime();
+			PhraseAutomaton.Builder builder = new PhraseAutomaton.Builder();
+			for (int index = 0; index < phrases.length; index++) builder.declare(phrases[index], index + 2, false);
+			PhraseAutomaton automaton = builder.build();
+			long buildTime = System.nanoTime() - mark;
+
+			count(automaton, text.substring(0, BENCHMARK_SIZE / 4));		// Warm up
+			mark = System.nanoTime();
+			int found = count(automaton, text);
+			long scanTime = System.nanoTime() - mark;
+
+			// The naive search is far too slow for all of them, so time a few and scale it.
+			String[] few = new String[NAIVE_PHRASES];
+			System.arraycopy(phrases, 0, few, 0, NAIVE_PHRASES);
+			mark = System.nanoTime();
+			int naiveFound = naive(few, text);
+			long naiveTime = (System.nanoTime() - mark) * (BENCHMARK_PHRASES / NAIVE_PHRASES);
+
+			TIME(BENCHMARK, (buildTime + scanTime) / 1000000);
+			SIZE(BENCHMARK, BENCHMARK_SIZE);
+			VALUE(BENCHMARK, "phrases", Integer.toString(BENCHMARK_PHRASES));
+			VALUE(BENCHMARK, "states", Integer.toString(automaton.getStateCount()));
+			VALUE(BENCHMARK, "build.ms", Long.toString(buildTime / 1000000));
+			VALUE(BENCHMARK, "scan.ns.per.char", Double.toString((double)scanTime / BENCHMARK_SIZE));
+			VALUE(BENCHMARK, "naive.ns.per.char", Double.toString((double)naiveTime / BENCHMARK_SIZE));
+			PASS(BENCHMARK, "phrases=" + BENCHMARK_PHRASES + " states=" + automaton.getStateCount() + " build=" + (buildTime / 1000000) + "ms scan=" +
+					(scanTime / BENCHMARK_SIZE) + "ns/char naive (scaled)=" + (naiveTime / BENCHMARK_SIZE) + "ns/char (found " + found + ", naive sample " + 
+					naiveFound + ")");
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private final static String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+	/**
+	 * Scan and compare to the expected "id:start-end" list.
+	 */
+	private void expect(PhraseAutomaton automaton, String text, String expected) throws Throwable {
+		String result = collect(automaton, text);
+		if (!result.equals(expected)) PUNT("Scanning '" + text + "' got '" + result + "' not '" + expected + "'");
+	}
+
+	private static String collect(PhraseAutomaton automaton, String text) throws Throwable {
+		final StringBuilder result = new StringBuilder();
+		automaton.scan(text, new PhraseListener() {
+			public void phrase(int id, long start, long end) throws Throwable {
+				if (result.length() > 0) result.append(' ');
+				result.append(id).append(':').append(start).append('-').append(end);
+			}
+		});
+		return result.toString();
+	}
+
+	private static int count(PhraseAutomaton automaton, String text) throws Throwable {
+		final int[] found = new int[1];
+		automaton.scan(text, new PhraseListener() {
+			public void phrase(int id, long start, long end) throws Throwable {
+				found[0]++;
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Every case insensitive occurrence of every distinct phrase.  The text has single spaces, so no collapsing is needed.
+	 */
+	private static int naive(String[] phrases, String text) {
+		List<String> distinct = new ArrayList<String>();
+		for (String phrase : phrases) {
+			if (!distinct.contains(phrase.toLowerCase())) distinct.add(phrase.toLowerCase());
+		}
+		int found = 0;
+		for (String phrase : distinct) {
+			int last = text.length() - phrase.length();
+			for (int index = 0; index <= last; index++) {
+				if (text.regionMatches(true, index, phrase, 0, phrase.length())) found++;
+			}
+		}
+		return found;
+	}
+
+	private static String[] phrases(Random random, int count, int shortest) {
+		String[] result = new String[count];
+		for (int index = 0; index < count; index++) {
+			result[index] = word(random, shortest + random.nextInt(4));
+			if (random.nextInt(4) == 0) result[index] = result[index] + ' ' + word(random, 1 + random.nextInt(3));
+		}
+		return result;
+	}
+
+	private static String text(Random random, int size) {
+		StringBuilder result = new StringBuilder(size + 8);
+		while (result.length() < size) {
+			result.append(word(random, 1 + random.nextInt(7)));
+			result.append(' ');
+		}
+		result.setLength(size);
+		return result.toString();
+	}
+
+	private static String word(Random random, int size) {
+		char[] result = new char[size];
+		for (int index = 0; index < size; index++) result[index] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+		return new String(result);
+	}
+
+	/**
+	 * Writes each phrase as [id:phrase].
+	 */
+	private static class Replacer extends PhraseMatcher {
+		private String[] phrases;
+
+		Replacer(String[] phrases) throws Throwable {
+			super();
+			this.phrases = phrases;
+			init();
+		}
+
+		protected void declarations() throws Throwable {
+			if (phrases == null) return;
+			for (int index = 0; index < phrases.length; index++) declare(phrases[index], index + 2, false);
+		}
+
+		protected void start(String docId) throws Throwable {
+			// Nothing to do.
+		}
+
+		protected void match(int id, char[] phrase, int len, Writer out) throws Throwable {
+			if (out == null) return;
+			out.write("[" + id + ":");
+			out.write(phrase, 0, len);
+			out.write("]");
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+
+import test.things.STUB_Logger;
+import things.common.impl.StringPosterBitBucket;
+import things.data.processing.Crawler;
+import things.data.processing.StreamCrawler;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.io.Logger;
+
+/**
+ * TEST the StreamCrawler.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 9 JUN 10
+ * </pre>
+ */
+public class TEST_StreamCrawler extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String EVERYTHING = "Everything";
+	public final static String FILTERS = "Filters";
+	public final static String BOUNDED = "Bounded queue";
+	public final static String STOP = "Stop";
+	public final static String BAD_ROOT = "Bad root";
+	public final static String LOOP = "Link loop";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static int FANOUT = 6;
+	public final static int DEPTH = 3;
+	public final static int FILES_PER_DIRECTORY = 8;
+	public final static String[] SUFFIXES = { ".txt", ".LOG", ".dat", ".eml" };
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.TEST_StreamCrawler");
+		DECLARE(SETUP);
+		DECLARE(EVERYTHING);
+		DECLARE(FILTERS);
+		DECLARE(BOUNDED);
+		DECLARE(STOP);
+		DECLARE(BAD_ROOT);
+		DECLARE(LOOP);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		File root = null;
+		HashSet<String> all = new HashSet<String>();
+		Logger logger = new STUB_Logger(new StringPosterBitBucket());
+
+		// == SETUP =========================================================================================================================
+		try {
+			root = File.createTempFile("crawl", "");
+			root.delete();
+			if (!root.mkdir()) PUNT("Could not make the directory " + root.getPath());
+			tree(root, DEPTH, all);
+			new File(root, "empty").mkdir();
+			PASS(SETUP, "files=" + all.size());
+		} catch (Throwable e) {
+			ABORT(SETUP, e.getMessage());
+			remove(root);
+			return;
+		}
+
+		// == EVERYTHING ====================================================================================================================
+		try {
+			for (int threads : new int[] { 1, 4 }) {
+				StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+				crawler.setThreads(threads);
+				HashSet<String> found = drain(crawler);
+				if (!found.equals(all)) PUNT("With " + threads + " threads found " + found.size() + " files, not " + all.size());
+				if (crawler.getFileCount() != all.size()) PUNT("File count is wrong: " + crawler.getFileCount());
+				if (crawler.next() != null) PUNT("next() after the end did not stay null.");
+				if (crawler.isCrawling()) PUNT("Still crawling after the end.");
+
+				// It can go again.
+				if (!drain(crawler).equals(all)) PUNT("A restart with " + threads + " threads was different.");
+			}
+			PASS(EVERYTHING);
+		} catch (TestLocalException tle) {
+			FAIL(EVERYTHING, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(EVERYTHING, e.getMessage());
+		}
+
+		// == FILTERS =======================================================================================================================
+		try {
+			StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+			crawler.match(".*\\.txt");
+			crawler.match(".*\\.LOG");
+			crawler.dontMatch("f0.*");
+			HashSet<String> found = drain(crawler);
+			if (found.size() != count(all, ".txt", ".LOG", "f0")) PUNT("Include and exclude found " + found.size());
+			for (String path : found) {
+				if (!(path.endsWith(".txt")||path.endsWith(".LOG"))||new File(path).getName().startsWith("f0")) PUNT("Should not have found " + path);
+			}
+
+			crawler = new StreamCrawler(root.getPath(), logger);
+			crawler.dropSuffix(".log");
+			found = drain(crawler);
+			if (found.size() != all.size() - count(all, ".LOG", null, null)) PUNT("Dropping a suffix found " + found.size());
+			crawler.dropSuffix(null);
+			if (drain(crawler).size() != all.size()) PUNT("Turning off the suffix didn't.");
+			if (crawler.getSkipCount() != 0) PUNT("Skipped files with no filters.");
+			PASS(FILTERS);
+		} catch (TestLocalException tle) {
+			FAIL(FILTERS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(FILTERS, e.getMessage());
+		}
+
+		// == BOUNDED =======================================================================================================================
+		try {
+			StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+			crawler.setThreads(3);
+			crawler.setCapacity(1);
+			crawler.start();
+			HashSet<String> found = new HashSet<String>();
+			File file = crawler.next();
+			if (file == null) PUNT("Nothing found.");
+			Thread.sleep(100);
+			if (!crawler.isCrawling()) PUNT("The crawl didn't wait for the consumer.");
+			while (file != null) {
+				if (!found.add(file.getPath())) PUNT("Got the same file twice: " + file.getPath());
+				file = crawler.next();
+			}
+			if (!found.equals(all)) PUNT("Found " + found.size() + " files, not " + all.size());
+			PASS(BOUNDED);
+		} catch (TestLocalException tle) {
+			FAIL(BOUNDED, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BOUNDED, e.getMessage());
+		}
+
+		// == STOP ==========================================================================================================================
+		try {
+			StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+			crawler.setCapacity(2);
+			crawler.start();
+			crawler.next();
+			crawler.stop();
+			if (crawler.next() != null) PUNT("Got a file after stop.");
+			if (crawler.isCrawling()) PUNT("Still crawling after stop.");
+			crawler.stop();
+			PASS(STOP);
+		} catch (TestLocalException tle) {
+			FAIL(STOP, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(STOP, e.getMessage());
+		}
+
+		// == BAD ROOT ======================================================================================================================
+		try {
+			StreamCrawler crawler = new StreamCrawler(new File(root, "not there").getPath(), logger);
+			try {
+				crawler.start();
+				PUNT("Started on a root that isn't there.");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				// Good
+			}
+			PASS(BAD_ROOT);
+		} catch (TestLocalException tle) {
+			FAIL(BAD_ROOT, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BAD_ROOT, e.getMessage());
+		}
+
+		// == LOOP ==========================================================================================================================
+		File link = new File(new File(root, "d0"), "up");
+		try {
+			int made = -1;
+			try {
+				made = new ProcessBuilder("ln", "-s", root.getPath(), link.getPath()).start().waitFor();
+			} catch (Throwable t) {
+				// No ln, so no links.
+			}
+			if ((made != 0)||(!link.isDirectory())) {
+				PASS(LOOP, "Could not make a symbolic link here.");
+			} else {
+				StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+				crawler.setThreads(4);
+				HashSet<String> found = drain(crawler);
+				if (!found.equals(all)) PUNT("Through a link loop found " + found.size() + " files, not " + all.size());
+				if (crawler.getRepeatCount() != 1) PUNT("Repeat count is wrong: " + crawler.getRepeatCount());
+				PASS(LOOP);
+			}
+		} catch (TestLocalException tle) {
+			FAIL(LOOP, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(LOOP, e.getMessage());
+		} finally {
+			// Before remove(), which would follow it.
+			link.delete();
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			Crawler old = new Crawler();
+			old.crawl(root.getPath(), logger, false);
+			old.match(".*\\.(txt|dat)");
+			long mark = System.nanoTime();
+			int oldCount = 0;
+			while (old.next() != null) oldCount++;
+			long oldTime = System.nanoTime() - mark;
+
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			StreamCrawler crawler = new StreamCrawler(root.getPath(), logger);
+			crawler.setThreads(threads);
+			crawler.match(".*\\.(txt|dat)");
+			mark = System.nanoTime();
+			int newCount = drain(crawler).size();
+			long newTime = System.nanoTime() - mark;
+
+			if (oldCount != newCount) PUNT("The old crawler found " + oldCount + " and the new one found " + newCount);
+			TIME(BENCHMARK, (oldTime + newTime) / 1000000);
+			SIZE(BENCHMARK, all.size());
+			VALUE(BENCHMARK, "crawler.us", Long.toString(oldTime / 1000));
+			VALUE(BENCHMARK, "stream.us", Long.toString(newTime / 1000));
+			VALUE(BENCHMARK, "threads", Integer.toString(threads));
+			PASS(BENCHMARK, "files=" + all.size() + " accepted=" + newCount + " Crawler=" + (oldTime / 1000) + "us StreamCrawler(" + threads + ")=" + (newTime / 1000) + "us");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+
+		remove(root);
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private static HashSet<String> drain(StreamCrawler crawler) throws Throwable {
+		HashSet<String> result = new HashSet<String>();
+		crawler.start();
+		File file = crawler.next();
+		while (file != null) {
+			result.add(file.getPath());
+			file = crawler.next();
+		}
+		return result;
+	}
+
+	/**
+	 * Count paths with either suffix and whose names don't start with the prefix.
+	 */
+	private static int count(HashSet<String> paths, String suffix, String other, String prefix) {
+		int result = 0;
+		for (String path : paths) {
+			if ((prefix != null)&&(new File(path).getName().startsWith(prefix))) continue;
+			if (path.endsWith(suffix)||((other != null)&&path.endsWith(other))) result++;
+		}
+		return result;
+	}
+
+	private static void tree(File directory, int depth, HashSet<String> all) throws Throwable {
+		for (int index = 0; index < FILES_PER_DIRECTORY; index++) {
+			File file = new File(directory, "f" + index + SUFFIXES[index % SUFFIXES.length]);
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(index);
+			out.close();
+			all.add(file.getPath());
+		}
+		if (depth == 0) return;
+		for (int index = 0; index < FANOUT; index++) {
+			File child = new File(directory, "d" + index);
+			child.mkdir();
+			tree(child, depth - 1, all);
+		}
+	}
+
+	private static void remove(File file) {
+		if (file == null) return;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) remove(child);
+		}
+		file.delete();
+	}
+
+}
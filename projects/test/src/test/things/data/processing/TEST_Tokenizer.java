@@ -0,0 +1,335 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import things.data.processing.Decomposer;
+import things.data.processing.Tokenizer;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the Tokenizer and the Decomposer that uses it.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 11 JUN 10
+ * </pre>
+ */
+public class TEST_Tokenizer extends Test {
+
+	// TESTS
+	public final static String BASIC = "Basic tokens";
+	public final static String LINES = "Line ends";
+	public final static String VIEWS = "Token views";
+	public final static String RANDOM = "Random against StringTokenizer";
+	public final static String DECOMPOSER = "Decomposer";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static long SEED = 20100611L;
+	public final static int RANDOM_ROUNDS = 300;
+	public final static long BENCHMARK_SIZE = 32L * 1024 * 1024;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.TEST_Tokenizer");
+		DECLARE(BASIC);
+		DECLARE(LINES);
+		DECLARE(VIEWS);
+		DECLARE(RANDOM);
+		DECLARE(DECOMPOSER);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == BASIC =========================================================================================================================
+		try {
+			Tokenizer tokenizer = new Tokenizer(null);
+			tokenizer.start(new StringReader("  one two\tthree\f\n\n four  "));
+			expect(tokenizer, "one@1 two@1 three@1 four@3");
+
+			// Line ends break tokens even when they aren't delimiters.
+			tokenizer = new Tokenizer(",;");
+			tokenizer.start(new StringReader("a b,c;;d\ne,f\r\ng"));
+			expect(tokenizer, "a b@1 c@1 d@1 e@2 f@2 g@3");
+
+			tokenizer = new Tokenizer(null);
+			tokenizer.start(new StringReader(""));
+			if (tokenizer.next() != null) PUNT("Got a token from nothing.");
+			tokenizer.start(new StringReader(" \n\t "));
+			if (tokenizer.hasNext()) PUNT("Found a token in only delimiters.");
+
+			try {
+				new Tokenizer("");
+				PUNT("Empty delimiters were allowed.");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				// Good
+			}
+			PASS(BASIC);
+		} catch (TestLocalException tle) {
+			FAIL(BASIC, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BASIC, e.getMessage());
+		}
+
+		// == LINES =========================================================================================================================
+		try {
+			Tokenizer tokenizer = new Tokenizer(null, 2);
+			tokenizer.start(new StringReader("a\rb\r\nc\n\rd\n\ne\r\r\nf"));
+			expect(tokenizer, "a@1 b@2 c@3 d@5 e@7 f@9");
+
+			// Tokens on a line, then the rest of a line.
+			tokenizer.start(new StringReader("one two three\r\nfour five\n\nsix"));
+			if (!tokenizer.nextOnLine().matches("one")) PUNT("Wrong first token.");
+			if (!tokenizer.restOfLine(false).equals("two three")) PUNT("Peek at the rest of the line was wrong.");
+			if (!tokenizer.restOfLine(true).equals("two three")) PUNT("Rest of the line was wrong.");
+			if (!tokenizer.nextOnLine().matches("four")) PUNT("Wrong token after the line.");
+			if (!tokenizer.nextOnLine().matches("five")) PUNT("Wrong second token on line 2.");
+			if (tokenizer.nextOnLine() != null) PUNT("Went past the end of the line.");
+			if (!tokenizer.restOfLine(true).equals("")) PUNT("The end of a line was not empty.");
+			if (!tokenizer.restOfLine(true).equals("")) PUNT("A blank line was not empty.");
+			if (tokenizer.getLineNumber() != 4) PUNT("Wrong line number: " + tokenizer.getLineNumber());
+			if (!tokenizer.restOfLine(true).equals("six")) PUNT("Last line was wrong.");
+			if (tokenizer.restOfLine(true) != null) PUNT("Got a line past the end.");
+			
+			// Whole lines, after tokens have been taken from them.
+			tokenizer.start(new StringReader("  one two\r\n\rthree"));
+			if (!tokenizer.nextOnLine().matches("one")) PUNT("Wrong first token for whole lines.");
+			if (!tokenizer.line(false).equals("  one two")) PUNT("Peek at the whole line was wrong: " + tokenizer.line(false));
+			if (!tokenizer.nextOnLine().matches("two")) PUNT("Peek at the whole line moved the position.");
+			if (!tokenizer.line(true).equals("  one two")) PUNT("Whole line was wrong.");
+			if (!tokenizer.line(true).equals("")) PUNT("A blank whole line was not empty.");
+			if (!tokenizer.line(true).equals("three")) PUNT("Last whole line was wrong.");
+			if (tokenizer.line(true) != null) PUNT("Got a whole line past the end.");
+			PASS(LINES);
+		} catch (TestLocalException tle) {
+			FAIL(LINES, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(LINES, e.getMessage());
+		}
+
+		// == VIEWS =========================================================================================================================
+		try {
+			StringBuilder big = new StringBuilder();
+			for (int index = 0; index < 1000; index++) big.append((char)('a' + (index % 26)));
+			Tokenizer tokenizer = new Tokenizer(null, 4);
+			tokenizer.start(new StringReader("xy " + big + " z"));
+			Tokenizer.Token token = tokenizer.next();
+			if ((token.length() != 2)||(token.charAt(1) != 'y')) PUNT("Bad first view.");
+			if (!token.subSequence(1, 2).toString().equals("y")) PUNT("Bad subSequence.");
+			token = tokenizer.next();
+			if (!token.matches(big)) PUNT("A token bigger than the buffer was wrong.");
+			char[] copy = new char[token.length() + 1];
+			token.getChars(copy, 1);
+			if (!new String(copy, 1, token.length()).equals(big.toString())) PUNT("getChars was wrong.");
+			if (!tokenizer.next().toString().equals("z")) PUNT("Bad last token.");
+			try {
+				token.charAt(token.length());
+				PUNT("charAt went past the end.");
+			} catch (IndexOutOfBoundsException ioobe) {
+				// Good
+			}
+			PASS(VIEWS);
+		} catch (TestLocalException tle) {
+			FAIL(VIEWS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(VIEWS, e.getMessage());
+		}
+
+		// == RANDOM ========================================================================================================================
+		try {
+			Random random = new Random(SEED);
+			int[] sizes = { 1, 3, 16, 4096 };
+			for (int round = 0; round < RANDOM_ROUNDS; round++) {
+				String text = text(random, 1 + random.nextInt(3000));
+				String delimiters = (random.nextBoolean()) ? null : ",; \t";
+				String expected = reference(text, (delimiters == null) ? Tokenizer.DEFAULT_DELIMITERS : delimiters);
+				Tokenizer tokenizer = new Tokenizer(delimiters, sizes[round % sizes.length]);
+				tokenizer.start(new StringReader(text));
+				String got = collect(tokenizer);
+				if (!got.equals(expected)) PUNT("Round " + round + " was different from BufferedReader and StringTokenizer.");
+			}
+			PASS(RANDOM);
+		} catch (TestLocalException tle) {
+			FAIL(RANDOM, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(RANDOM, e.getMessage());
+		}
+
+		// == DECOMPOSER ====================================================================================================================
+		try {
+			Decomposer decomposer = new Decomposer();
+			decomposer.start(new ByteArrayInputStream("\n\n  alpha beta\r\ngamma\n\n delta epsilon\nzeta".getBytes("US-ASCII")));
+			if (decomposer.getLineNumber() != 3) PUNT("Should start on line 3, not " + decomposer.getLineNumber());
+			if (!decomposer.token().equals("alpha")) PUNT("Bad first token.");
+			if (!decomposer.peekLine().equals("  alpha beta")) PUNT("Bad peek at line 3: " + decomposer.peekLine());
+			if (!decomposer.nonbreaking_token().equals("beta")) PUNT("Bad nonbreaking token.");
+			if (decomposer.nonbreaking_token() != null) PUNT("nonbreaking_token went to the next line.");
+			if (!decomposer.hasmore()) PUNT("Should have more.");
+			if (decomposer.getLineNumber() != 4) PUNT("Should be on line 4, not " + decomposer.getLineNumber());
+			if (!decomposer.tokenView().toString().equals("gamma")) PUNT("Bad token view.");
+			if (!decomposer.peekLine().equals("gamma")) PUNT("Bad peek at a used up line.");
+			if (!decomposer.line().equals("gamma")) PUNT("Bad line 4.");
+			if (!decomposer.peekLine().equals(" delta epsilon")) PUNT("Bad peek at line 6: " + decomposer.peekLine());
+			if (!decomposer.token().equals("delta")) PUNT("Bad token on line 6.");
+			if (!decomposer.restOfLine().equals("epsilon")) PUNT("Bad rest of line 6.");
+			if (!decomposer.line().equals("zeta")) PUNT("Bad last line.");
+			if (decomposer.hasmore()) PUNT("Should be done.");
+			if (decomposer.token() != null) PUNT("Token after the end.");
+			decomposer.done();
+			if (decomposer.line() != null) PUNT("Line after done.");
+			PASS(DECOMPOSER);
+		} catch (TestLocalException tle) {
+			FAIL(DECOMPOSER, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(DECOMPOSER, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			long mark = System.nanoTime();
+			long oldCount = 0;
+			BufferedReader lines = new BufferedReader(new Corpus(BENCHMARK_SIZE));
+			String line = lines.readLine();
+			while (line != null) {
+				StringTokenizer tokens = new StringTokenizer(line, Tokenizer.DEFAULT_DELIMITERS);
+				while (tokens.hasMoreTokens()) {
+					tokens.nextToken();
+					oldCount++;
+				}
+				line = lines.readLine();
+			}
+			long oldTime = System.nanoTime() - mark;
+
+			mark = System.nanoTime();
+			long newCount = 0;
+			Tokenizer tokenizer = new Tokenizer(null);
+			tokenizer.start(new Corpus(BENCHMARK_SIZE));
+			while (tokenizer.next() != null) newCount++;
+			long newTime = System.nanoTime() - mark;
+
+			if (oldCount != newCount) PUNT("StringTokenizer found " + oldCount + " tokens and the Tokenizer found " + newCount);
+			TIME(BENCHMARK, (oldTime + newTime) / 1000000);
+			SIZE(BENCHMARK, BENCHMARK_SIZE);
+			VALUE(BENCHMARK, "tokens", Long.toString(newCount));
+			VALUE(BENCHMARK, "stringtokenizer.mb.per.s", Long.toString(BENCHMARK_SIZE / Math.max(1, oldTime / 1000)));
+			VALUE(BENCHMARK, "tokenizer.mb.per.s", Long.toString(BENCHMARK_SIZE / Math.max(1, newTime / 1000)));
+			PASS(BENCHMARK, "tokens=" + newCount + " StringTokenizer=" + (BENCHMARK_SIZE / Math.max(1, oldTime / 1000)) + "MB/s Tokenizer=" + 
+					(BENCHMARK_SIZE / Math.max(1, newTime / 1000)) + "MB/s");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private final static String PIECES[] = { "a", "bc", "def", " ", "  ", "\t", ",", ";", "\n", "\r", "\r\n", "\f", "\u00e9t\u00e9" };
+
+	private void expect(Tokenizer tokenizer, String expected) throws Throwable {
+		String got = collect(tokenizer);
+		if (!got.equals(expected)) PUNT("Got '" + got + "' not '" + expected + "'");
+	}
+
+	private static String collect(Tokenizer tokenizer) throws Throwable {
+		StringBuilder result = new StringBuilder();
+		Tokenizer.Token token = tokenizer.next();
+		while (token != null) {
+			if (result.length() > 0) result.append(' ');
+			result.append(token).append('@').append(token.getLine());
+			token = tokenizer.next();
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The way it was done before.
+	 */
+	private static String reference(String text, String delimiters) throws Throwable {
+		StringBuilder result = new StringBuilder();
+		BufferedReader lines = new BufferedReader(new StringReader(text));
+		int lineNumber = 1;
+		String line = lines.readLine();
+		while (line != null) {
+			StringTokenizer tokens = new StringTokenizer(line, delimiters);
+			while (tokens.hasMoreTokens()) {
+				if (result.length() > 0) result.append(' ');
+				result.append(tokens.nextToken()).append('@').append(lineNumber);
+			}
+			line = lines.readLine();
+			lineNumber++;
+		}
+		return result.toString();
+	}
+
+	private static String text(Random random, int pieces) {
+		StringBuilder result = new StringBuilder();
+		for (int index = 0; index < pieces; index++) result.append(PIECES[random.nextInt(PIECES.length)]);
+		return result.toString();
+	}
+
+	/**
+	 * Made up text of any size, without holding it.
+	 */
+	private static class Corpus extends Reader {
+		private final char[] block;
+		private long left;
+		private int index;
+
+		Corpus(long size) {
+			StringBuilder text = new StringBuilder();
+			Random random = new Random(SEED);
+			while (text.length() < 65536) {
+				for (int word = 1 + random.nextInt(12); word > 0; word--) {
+					for (int letter = 1 + random.nextInt(9); letter > 0; letter--) text.append((char)('a' + random.nextInt(26)));
+					text.append(' ');
+				}
+				text.append(random.nextBoolean() ? "\n" : ".\r\n");
+			}
+			block = text.toString().toCharArray();
+			left = size;
+		}
+
+		public int read(char[] destination, int offset, int length) {
+			if (left <= 0) return -1;
+			int count = (int)Math.min(Math.min(length, left), block.length - index);
+			System.arraycopy(block, index, destination, offset, count);
+			index = (index + count) % block.length;
+			left -= count;
+			return count;
+		}
+
+		public void close() {
+			// Nothing
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A stream that gives up only a few bytes per read, so the code reading it has to handle short reads.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 JUN 10
+ * </pre> 
+ */
+public class TrickleInputStream extends ByteArrayInputStream {
+	
+	private Random rng;
+	private int most;
+	private int sometimes;
+	
+	/**
+	 * Each read gives from 1 to most bytes.
+	 * @param data the data.
+	 * @param rng where the sizes come from.
+	 * @param most the most bytes per read.
+	 */
+	public TrickleInputStream(byte[] data, Random rng, int most) {
+		this(data, rng, most, most);
+	}
+	
+	/**
+	 * Half the reads give from 1 to most bytes and the other half from 1 to sometimes bytes.
+	 * @param data the data.
+	 * @param rng where the sizes come from.
+	 * @param most the most bytes per read, usually.
+	 * @param sometimes the most bytes per read, the rest of the time.
+	 */
+	public TrickleInputStream(byte[] data, Random rng, int most, int sometimes) {
+		super(data);
+		this.rng = rng;
+		this.most = most;
+		this.sometimes = sometimes;
+	}
+	
+	public synchronized int read(byte[] b, int off, int len) {
+		int size = ((most == sometimes)||rng.nextBoolean()) ? most : sometimes;
+		return super.read(b, off, Math.min(len, 1 + rng.nextInt(size)));
+	}
+	
+	public synchronized int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+	
+}
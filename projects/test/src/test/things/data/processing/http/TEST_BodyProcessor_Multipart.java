@@ -0,0 +1,360 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import test.things.data.processing.TrickleInputStream;
+import things.common.ThingsException;
+import things.common.tools.FileTools;
+import things.data.processing.http.BodyProcessor_Multipart;
+import things.data.processing.http.HttpBodyPart;
+import things.data.processing.http.HttpRequest;
+import things.data.processing.http.HttpRequestProcessor;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.universe.UniverseID;
+import things.universe.server.UniverseLocal;
+
+/**
+ * TEST the multipart and chunked request bodies in HttpRequestProcessor and BodyProcessor_Multipart, including spilling large parts
+ * to a universe.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 5 MAY 10
+ * </pre>
+ */
+public class TEST_BodyProcessor_Multipart extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String FORM_FIELDS = "Form fields";
+	public final static String CHUNKED = "Chunked bodies";
+	public final static String SPILL = "Spill to universe";
+	public final static String TRICKLE = "Trickled random bodies";
+	public final static String NO_SPILL = "Large part without a spill universe";
+	public final static String MALFORMED = "Malformed bodies";
+
+	// Configuration
+	public final static long SEED = 20100505L;
+	public final static int TRICKLE_ROUNDS = 300;
+	public final static int SPILL_THRESHOLD = 1024;
+	public final static String CRLF = "\r\n";
+	public final static String BOUNDARY = "----ThingsBoundary7MA4YWxkTrZu0gW";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.http.TEST_BodyProcessor_Multipart");
+		DECLARE(SETUP);
+		DECLARE(FORM_FIELDS);
+		DECLARE(CHUNKED);
+		DECLARE(SPILL);
+		DECLARE(TRICKLE);
+		DECLARE(NO_SPILL);
+		DECLARE(MALFORMED);
+	}
+
+	public void test_execute() throws Throwable {
+
+		File root = null;
+		UniverseLocal universe = null;
+		HttpRequestProcessor processor = null;
+		Random rng = new Random(SEED);
+
+		// == SETUP =========================================================================================================================
+		try {
+			root = File.createTempFile("things", "spill");
+			root.delete();
+			root.mkdirs();
+			universe = new UniverseLocal();
+			universe.genesis(root.getAbsolutePath(), new UniverseID("spill"));
+			processor = new HttpRequestProcessor(universe, "spill/part", SPILL_THRESHOLD);
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		// == FORM FIELDS ===================================================================================================================
+		try {
+			String body = "preamble" + CRLF +
+				"--" + BOUNDARY + CRLF +
+				"Content-Disposition: form-data; name=\"first\"" + CRLF +
+				CRLF +
+				"one" + CRLF +
+				"--" + BOUNDARY + "  " + CRLF +
+				"content-disposition: form-data;" + CRLF +
+				"  name=\"second\"; filename=\"a;b.txt\"" + CRLF +
+				"Content-Type: text/plain" + CRLF +
+				CRLF +
+				"line" + CRLF + "--not the boundary" + CRLF +
+				"--" + BOUNDARY + CRLF +
+				"Content-Disposition: form-data; name=third" + CRLF +
+				CRLF +
+				CRLF +
+				"--" + BOUNDARY + "--" + CRLF +
+				"epilogue";
+			InputStream ins = new ByteArrayInputStream((head(body.length(), false) + body + "NEXT").getBytes("ISO-8859-1"));
+			HttpRequest request = processor.process(ins);
+
+			if (request.bodyParts.size() != 3) PUNT("Wrong part count.  count=" + request.bodyParts.size());
+			if (!"one".equals(request.bodyValues.getProperty("first"))) PUNT("Bad first value.  value=" + request.bodyValues.getProperty("first"));
+			if (!"".equals(request.bodyValues.getProperty("third"))) PUNT("Bad third value.");
+			if (request.bodyValues.getProperty("second") != null) PUNT("File part set as a body value.");
+			HttpBodyPart part = request.bodyParts.get(1);
+			if (!"second".equals(part.name)) PUNT("Folded disposition lost the name.  name=" + part.name);
+			if (!"a;b.txt".equals(part.filename)) PUNT("Bad filename.  filename=" + part.filename);
+			if (!"text/plain".equals(part.contentType)) PUNT("Bad content type.");
+			if (!("line" + CRLF + "--not the boundary").equals(part.getValue(null))) PUNT("Bad file content.  content=" + part.getValue(null));
+			if (ins.read() != 'N') PUNT("Did not stop at the end of the body.");
+			request.releaseBodyParts();
+
+			if (!BOUNDARY.equals(BodyProcessor_Multipart.getParameter("multipart/form-data; BOUNDARY=\"" + BOUNDARY + "\"", "boundary"))) PUNT("Quoted boundary not found.");
+			if (BodyProcessor_Multipart.getParameter("multipart/form-data", "boundary") != null) PUNT("Found a boundary that isn't there.");
+
+			PASS(FORM_FIELDS);
+		} catch (TestLocalException tle) {
+			FAIL(FORM_FIELDS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FORM_FIELDS,e.getMessage());
+		}
+
+		// == CHUNKED =======================================================================================================================
+		try {
+			String body = "--" + BOUNDARY + CRLF +
+				"Content-Disposition: form-data; name=\"field\"" + CRLF +
+				CRLF +
+				"chunky" + CRLF +
+				"--" + BOUNDARY + "--";
+			InputStream ins = new ByteArrayInputStream((head(-1, false) + chunk(body, 7) + "NEXT").getBytes("ISO-8859-1"));
+			HttpRequest request = processor.process(ins);
+			if (!"chunky".equals(request.bodyValues.getProperty("field"))) PUNT("Bad chunked multipart value.");
+			if (ins.read() != 'N') PUNT("Did not stop at the end of the chunked multipart body.");
+
+			body = "a=b&c=d+e";
+			ins = new ByteArrayInputStream(("POST /x HTTP/1.1" + CRLF + "Content-Type: application/x-www-form-urlencoded" + CRLF +
+					"Transfer-Encoding: chunked" + CRLF + CRLF + chunk(body, 4) + "NEXT").getBytes("ISO-8859-1"));
+			request = processor.process(ins);
+			if (!"d e".equals(request.bodyValues.getProperty("c"))) PUNT("Bad chunked form value.");
+			if (ins.read() != 'N') PUNT("Did not stop at the end of the chunked form body.");
+
+			PASS(CHUNKED);
+		} catch (TestLocalException tle) {
+			FAIL(CHUNKED,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CHUNKED,e.getMessage());
+		}
+
+		// == SPILL =========================================================================================================================
+		try {
+			byte[] content = randomContent(rng, 300000);
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(("--" + BOUNDARY + CRLF + "Content-Disposition: form-data; name=\"upload\"; filename=\"big.bin\"" + CRLF + CRLF).getBytes("ISO-8859-1"));
+			body.write(content);
+			body.write((CRLF + "--" + BOUNDARY + "--").getBytes("ISO-8859-1"));
+
+			ByteArrayOutputStream all = new ByteArrayOutputStream();
+			all.write(head(body.size(), false).getBytes("ISO-8859-1"));
+			body.writeTo(all);
+			HttpRequest request = processor.process(new ByteArrayInputStream(all.toByteArray()));
+
+			HttpBodyPart part = request.bodyParts.get(0);
+			if (!part.isSpilled()) PUNT("Large part not spilled.");
+			if (part.size() != content.length) PUNT("Spilled size wrong.  size=" + part.size());
+			if (part.getBytes() != null) PUNT("Spilled part gave bytes.");
+			if (!universe.exists(part.getSpillName())) PUNT("Spilled object isn't there.");
+			InputStream spilled = part.getStream();
+			byte[] back = readAll(spilled);
+			spilled.close();
+			if (!java.util.Arrays.equals(content, back)) PUNT("Spilled content differs.");
+
+			String name = part.getSpillName();
+			request.releaseBodyParts();
+			if (universe.exists(name)) PUNT("Spilled object not released.");
+
+			PASS(SPILL);
+		} catch (TestLocalException tle) {
+			FAIL(SPILL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(SPILL,e.getMessage());
+		}
+
+		// == TRICKLE =======================================================================================================================
+		// Bodies full of near-boundaries, delivered a few bytes at a time.
+		try {
+			for (int round = 0; round < TRICKLE_ROUNDS; round++) {
+				int count = 1 + rng.nextInt(4);
+				byte[][] contents = new byte[count][];
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				for (int index = 0; index < count; index++) {
+					contents[index] = trickyContent(rng, rng.nextInt(3000));
+					body.write(("--" + BOUNDARY + CRLF + "Content-Disposition: form-data; name=\"f" + index + "\"; filename=\"f\"" + CRLF + CRLF).getBytes("ISO-8859-1"));
+					body.write(contents[index]);
+					body.write(CRLF.getBytes("ISO-8859-1"));
+				}
+				body.write(("--" + BOUNDARY + "--" + CRLF).getBytes("ISO-8859-1"));
+
+				ByteArrayOutputStream all = new ByteArrayOutputStream();
+				all.write(head(body.size(), false).getBytes("ISO-8859-1"));
+				body.writeTo(all);
+				HttpRequest request = processor.process(new TrickleInputStream(all.toByteArray(), rng, 7));
+
+				if (request.bodyParts.size() != count) PUNT("Wrong part count.  round=" + round);
+				for (int index = 0; index < count; index++) {
+					HttpBodyPart part = request.bodyParts.get(index);
+					InputStream partIns = part.getStream();
+					byte[] back = readAll(partIns);
+					partIns.close();
+					if (!java.util.Arrays.equals(contents[index], back)) PUNT("Part content differs.  round=" + round + " part=" + index + " spilled=" + part.isSpilled());
+				}
+				request.releaseBodyParts();
+			}
+
+			PASS(TRICKLE);
+		} catch (TestLocalException tle) {
+			FAIL(TRICKLE,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(TRICKLE,e.getMessage());
+		}
+
+		// == NO SPILL ======================================================================================================================
+		try {
+			HttpRequestProcessor small = new HttpRequestProcessor(null, "none", SPILL_THRESHOLD);
+			String body = "--" + BOUNDARY + CRLF + "Content-Disposition: form-data; name=\"big\"" + CRLF + CRLF +
+				new String(randomContent(rng, SPILL_THRESHOLD * 2), "ISO-8859-1") + CRLF + "--" + BOUNDARY + "--";
+			try {
+				small.process(new ByteArrayInputStream((head(body.length(), false) + body).getBytes("ISO-8859-1")));
+				PUNT("Large part accepted without a spill universe.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.PROCESSOR_HTTPBODY_FAILED) PUNT("Wrong exception.  numeric=" + te.numeric + " message=" + te.getMessage());
+			}
+			PASS(NO_SPILL);
+		} catch (TestLocalException tle) {
+			FAIL(NO_SPILL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(NO_SPILL,e.getMessage());
+		}
+
+		// == MALFORMED =====================================================================================================================
+		try {
+			String[] bodies = {
+				"--" + BOUNDARY + CRLF + "Content-Disposition: form-data; name=\"a\"" + CRLF + CRLF + "no closing boundary",
+				"no opening boundary at all",
+				"--" + BOUNDARY + "junk" + CRLF + CRLF + "x" + CRLF + "--" + BOUNDARY + "--",
+				"--" + BOUNDARY + CRLF + "No colon here" + CRLF + CRLF + "x" + CRLF + "--" + BOUNDARY + "--",
+				"--" + BOUNDARY + CRLF + "Content-Disposition: form-data; name=\"a\"" + CRLF + "truncated in the headers"
+			};
+			for (int index = 0; index < bodies.length; index++) {
+				try {
+					processor.process(new ByteArrayInputStream((head(bodies[index].length(), false) + bodies[index]).getBytes("ISO-8859-1")));
+					PUNT("Malformed body accepted.  index=" + index);
+				} catch (ThingsException te) {
+					// Good
+				}
+			}
+			try {
+				processor.process(new ByteArrayInputStream((head(4, true) + "abcd").getBytes("ISO-8859-1")));
+				PUNT("Body without a boundary accepted.");
+			} catch (ThingsException te) {
+				// Good
+			}
+
+			if (root.list().length > 0) {
+				File spillDir = new File(root, "spill");
+				if ((spillDir.exists())&&(spillDir.list().length > 0)) PUNT("Spill objects left behind.  count=" + spillDir.list().length);
+			}
+			PASS(MALFORMED);
+		} catch (TestLocalException tle) {
+			FAIL(MALFORMED,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(MALFORMED,e.getMessage());
+		}
+
+		// Clean up
+		try {
+			FileTools.destroy(root);
+		} catch (Throwable t) {
+			// Don't care.
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private String head(int length, boolean noBoundary) {
+		StringBuffer result = new StringBuffer();
+		result.append("POST /upload HTTP/1.1").append(CRLF);
+		if (noBoundary) result.append("Content-Type: multipart/form-data").append(CRLF);
+		else result.append("Content-Type: multipart/form-data; boundary=").append(BOUNDARY).append(CRLF);
+		if (length < 0) result.append("Transfer-Encoding: chunked").append(CRLF);
+		else result.append("Content-Length: ").append(length).append(CRLF);
+		result.append(CRLF);
+		return result.toString();
+	}
+
+	private String chunk(String body, int size) {
+		StringBuffer result = new StringBuffer();
+		for (int index = 0; index < body.length(); index += size) {
+			String piece = body.substring(index, Math.min(body.length(), index + size));
+			result.append(Integer.toHexString(piece.length())).append(CRLF).append(piece).append(CRLF);
+		}
+		result.append("0").append(CRLF).append(CRLF);
+		return result.toString();
+	}
+
+	private byte[] randomContent(Random rng, int size) {
+		byte[] result = new byte[size];
+		rng.nextBytes(result);
+		return result;
+	}
+
+	/**
+	 * Content salted with pieces of the delimiter.
+	 */
+	private byte[] trickyContent(Random rng, int size) throws Throwable {
+		byte[] delimiter = (CRLF + "--" + BOUNDARY).getBytes("ISO-8859-1");
+		byte[] result = randomContent(rng, size);
+		for (int index = 0; index < size; index++) {
+			if (rng.nextInt(50)==0) {
+				int length = rng.nextInt(delimiter.length);
+				for (int piece = 0; (piece < length)&&(index < size); piece++, index++) result[index] = delimiter[piece];
+				
+				// Don't let a random byte finish it.
+				if ((index < size)&&(result[index]==delimiter[length])) result[index] = 0;
+			}
+		}
+		return result;
+	}
+
+	private byte[] readAll(InputStream ins) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read = ins.read(buffer);
+		while (read >= 0) {
+			result.write(buffer, 0, read);
+			read = ins.read(buffer);
+		}
+		return result.toByteArray();
+	}
+
+}
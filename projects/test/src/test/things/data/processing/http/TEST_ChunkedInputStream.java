@@ -0,0 +1,275 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import test.things.data.processing.TrickleInputStream;
+import things.data.processing.http.ChunkedInputStream;
+import things.data.processing.http.LimitedInputStream;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the ChunkedInputStream and LimitedInputStream.  The most important thing is that neither reads a byte past the end of the body.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 7 MAY 10
+ * </pre>
+ */
+public class TEST_ChunkedInputStream extends Test {
+
+	// TESTS
+	public final static String BASIC = "Basic chunked body";
+	public final static String TRAILERS = "Trailers and extensions";
+	public final static String RANDOM = "Random chunked bodies";
+	public final static String LIMITED = "Random limited bodies";
+	public final static String BAD = "Bad chunking";
+	public final static String CHATTER = "Source reads per body";
+
+	// Configuration
+	public final static long SEED = 20100507L;
+	public final static int ROUNDS = 500;
+	public final static String CRLF = "\r\n";
+	public final static byte[] NEXT = { 'N', 'E', 'X', 'T' };
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.http.TEST_ChunkedInputStream");
+		DECLARE(BASIC);
+		DECLARE(TRAILERS);
+		DECLARE(RANDOM);
+		DECLARE(LIMITED);
+		DECLARE(BAD);
+		DECLARE(CHATTER);
+	}
+
+	public void test_execute() throws Throwable {
+
+		Random rng = new Random(SEED);
+
+		// == BASIC =========================================================================================================================
+		try {
+			InputStream source = new ByteArrayInputStream(("5" + CRLF + "Hello" + CRLF + "7" + CRLF + ", world" + CRLF + "0" + CRLF + CRLF + "NEXT").getBytes("ISO-8859-1"));
+			ChunkedInputStream chunked = new ChunkedInputStream(source);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int value = chunked.read();
+			while (value >= 0) {
+				out.write(value);
+				value = chunked.read();
+			}
+			if (!"Hello, world".equals(out.toString("ISO-8859-1"))) PUNT("Bad content.  content=" + out.toString("ISO-8859-1"));
+			if (chunked.getTrailers() != null) PUNT("Trailers out of nowhere.");
+			if (source.read() != 'N') PUNT("Read past the end of the body.");
+			if (chunked.read() != -1) PUNT("Not EOF after the end.");
+
+			PASS(BASIC);
+		} catch (TestLocalException tle) {
+			FAIL(BASIC,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(BASIC,e.getMessage());
+		}
+
+		// == TRAILERS ======================================================================================================================
+		try {
+			InputStream source = new ByteArrayInputStream(("a;name=value" + CRLF + "0123456789" + CRLF + "0 ;last" + CRLF + "Expires: never" + CRLF +
+					"X-Sum:  abc " + CRLF + CRLF + "NEXT").getBytes("ISO-8859-1"));
+			ChunkedInputStream chunked = new ChunkedInputStream(source, new byte[16]);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (chunked.transferTo(out) != 10) PUNT("Wrong transfer size.");
+			if (!"0123456789".equals(out.toString("ISO-8859-1"))) PUNT("Bad content.");
+			if (chunked.getTrailers() == null) PUNT("Trailers lost.");
+			if (!"never".equals(chunked.getTrailers().getProperty("Expires"))) PUNT("Bad Expires trailer.");
+			if (!"abc".equals(chunked.getTrailers().getProperty("X-Sum"))) PUNT("Bad X-Sum trailer.");
+			if (source.read() != 'N') PUNT("Read past the end of the body.");
+
+			PASS(TRAILERS);
+		} catch (TestLocalException tle) {
+			FAIL(TRAILERS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(TRAILERS,e.getMessage());
+		}
+
+		// == RANDOM ========================================================================================================================
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				byte[] data = new byte[rng.nextInt(20000)];
+				rng.nextBytes(data);
+				ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+				int rover = 0;
+				while (rover < data.length) {
+					int size = Math.min(data.length - rover, 1 + rng.nextInt(rng.nextBoolean() ? 16 : 9000));
+					String sizeText = Integer.toHexString(size);
+					if (rng.nextBoolean()) sizeText = sizeText.toUpperCase();
+					encoded.write(sizeText.getBytes("ISO-8859-1"));
+					if (rng.nextInt(4)==0) encoded.write(";ext=1".getBytes("ISO-8859-1"));
+					encoded.write(CRLF.getBytes("ISO-8859-1"));
+					encoded.write(data, rover, size);
+					encoded.write(CRLF.getBytes("ISO-8859-1"));
+					rover += size;
+				}
+				encoded.write(("0" + CRLF).getBytes("ISO-8859-1"));
+				if (rng.nextInt(3)==0) encoded.write(("Trailer: " + round + CRLF).getBytes("ISO-8859-1"));
+				encoded.write(CRLF.getBytes("ISO-8859-1"));
+				encoded.write(NEXT);
+
+				InputStream source = new TrickleInputStream(encoded.toByteArray(), rng, 7, 5000);
+				ChunkedInputStream chunked = new ChunkedInputStream(source, new byte[16 + rng.nextInt(10000)]);
+				byte[] back = drainRandomly(chunked, rng);
+				if (!Arrays.equals(data, back)) PUNT("Content differs.  round=" + round);
+				if (source.read() != 'N') PUNT("Read past the end of the body.  round=" + round);
+			}
+
+			PASS(RANDOM);
+		} catch (TestLocalException tle) {
+			FAIL(RANDOM,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(RANDOM,e.getMessage());
+		}
+
+		// == LIMITED =======================================================================================================================
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				byte[] data = new byte[1 + rng.nextInt(20000)];
+				rng.nextBytes(data);
+				byte[] all = new byte[data.length + NEXT.length];
+				System.arraycopy(data, 0, all, 0, data.length);
+				System.arraycopy(NEXT, 0, all, data.length, NEXT.length);
+
+				InputStream source = new TrickleInputStream(all, rng, 7, 5000);
+				LimitedInputStream limited = new LimitedInputStream(source, data.length, rng.nextBoolean() ? null : new byte[1 + rng.nextInt(5000)]);
+				byte[] back = drainRandomly(limited, rng);
+				if (!Arrays.equals(data, back)) PUNT("Content differs.  round=" + round);
+				if (source.read() != 'N') PUNT("Read past the limit.  round=" + round);
+			}
+
+			PASS(LIMITED);
+		} catch (TestLocalException tle) {
+			FAIL(LIMITED,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(LIMITED,e.getMessage());
+		}
+
+		// == BAD ===========================================================================================================================
+		try {
+			String[] bads = {
+				" 5" + CRLF + "Hello" + CRLF + "0" + CRLF + CRLF,
+				"5\n" + "Hello" + CRLF + "0" + CRLF + CRLF,
+				"5" + CRLF + "HelloX" + CRLF + "0" + CRLF + CRLF,
+				"5" + CRLF + "Hel",
+				"g" + CRLF,
+				"5 x" + CRLF + "Hello" + CRLF + "0" + CRLF + CRLF,
+				"0" + CRLF + "NoColon" + CRLF + CRLF,
+				"10000000000000000" + CRLF
+			};
+			for (int index = 0; index < bads.length; index++) {
+				try {
+					new ChunkedInputStream(new ByteArrayInputStream(bads[index].getBytes("ISO-8859-1"))).transferTo(null);
+					PUNT("Bad chunking accepted.  index=" + index);
+				} catch (IOException ioe) {
+					// Good
+				}
+			}
+			PASS(BAD);
+		} catch (TestLocalException tle) {
+			FAIL(BAD,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(BAD,e.getMessage());
+		}
+
+		// == CHATTER =======================================================================================================================
+		// A 64k body in 1k chunks.  Byte at a time parsing would be more than 6 source reads per chunk.
+		try {
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			byte[] data = new byte[1024];
+			for (int index = 0; index < 64; index++) {
+				encoded.write(("400" + CRLF).getBytes("ISO-8859-1"));
+				encoded.write(data);
+				encoded.write(CRLF.getBytes("ISO-8859-1"));
+			}
+			encoded.write(("0" + CRLF + CRLF).getBytes("ISO-8859-1"));
+			CountingInputStream source = new CountingInputStream(encoded.toByteArray());
+			ChunkedInputStream chunked = new ChunkedInputStream(source);
+			if (chunked.transferTo(null) != 64 * 1024) PUNT("Wrong size.");
+			VALUE(CHATTER, "source.reads", Integer.toString(source.reads));
+			if (source.reads > 64 * 4) PUNT("Too many source reads.  reads=" + source.reads);
+			PASS(CHATTER, "source reads=" + source.reads + " for 64 chunks");
+		} catch (TestLocalException tle) {
+			FAIL(CHATTER,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CHATTER,e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	/**
+	 * Mix single byte reads, array reads and transferTo.
+	 */
+	private byte[] drainRandomly(InputStream ins, Random rng) throws Throwable {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[30000];
+		while (true) {
+			int choice = rng.nextInt(10);
+			if (choice == 0) {
+				if (ins instanceof ChunkedInputStream) ((ChunkedInputStream)ins).transferTo(result);
+				else ((LimitedInputStream)ins).transferTo(result);
+				break;
+			} else if (choice < 4) {
+				int value = ins.read();
+				if (value < 0) break;
+				result.write(value);
+			} else {
+				int offset = rng.nextInt(10);
+				int read = ins.read(buffer, offset, 1 + rng.nextInt(buffer.length - offset - 1));
+				if (read < 0) break;
+				result.write(buffer, offset, read);
+			}
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Counts the reads.
+	 */
+	private static class CountingInputStream extends ByteArrayInputStream {
+		public int reads;
+		public CountingInputStream(byte[] data) {
+			super(data);
+		}
+		public synchronized int read() {
+			reads++;
+			return super.read();
+		}
+		public synchronized int read(byte[] b, int off, int len) {
+			reads++;
+			return super.read(b, off, len);
+		}
+		public synchronized int read(byte[] b) throws IOException {
+			return read(b, 0, b.length);
+		}
+	}
+
+}
@@ -32,10 +32,16 @@ public class GROUP_RFC822 extends TestGroup {
 	public void group_prepare() throws Throwable {
 		SET_LONG_NAME("things.data.processing.rfc822.");
 	    DECLARETEST("things.data.processing.rfc822.TEST_HeaderProcessor","test.things.data.processing.rfc822.TEST_HeaderProcessor");
+	    DECLARETEST("things.data.processing.rfc822.TEST_CharAddressParser","test.things.data.processing.rfc822.TEST_CharAddressParser");
+	    DECLARETEST("things.data.processing.rfc822.TEST_HeaderEngine","test.things.data.processing.rfc822.TEST_HeaderEngine");
+	    DECLARETEST("things.data.processing.rfc822.TEST_MimeDecomposer","test.things.data.processing.rfc822.TEST_MimeDecomposer");
 	}
 
 	public void group_execute() throws Throwable {
 		RUN("things.data.processing.rfc822.TEST_HeaderProcessor");
+		RUN("things.data.processing.rfc822.TEST_CharAddressParser");
+		RUN("things.data.processing.rfc822.TEST_HeaderEngine");
+		RUN("things.data.processing.rfc822.TEST_MimeDecomposer");
 	}
 
 }
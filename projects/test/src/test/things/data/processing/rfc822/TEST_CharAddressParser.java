@@ -0,0 +1,275 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing.rfc822;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import things.data.processing.rfc822.AddressListener;
+import things.data.processing.rfc822.AddressParser;
+import things.data.processing.rfc822.AddressParserMSG;
+import things.data.processing.rfc822.CharAddressParser;
+import things.data.processing.rfc822.FullAddress;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the CharAddressParser against the stream parsers.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 24 MAY 10
+ * </pre>
+ */
+public class TEST_CharAddressParser extends Test {
+
+	// TESTS
+	public final static String CORPUS = "Corpus";
+	public final static String CORPUS_MSG = "Corpus forgiving";
+	public final static String FUZZ = "Fuzz";
+	public final static String WINDOW = "Window";
+	public final static String PARALLEL = "Parallel";
+
+	// Configuration
+	public final static String[] SAMPLES = {
+		"",
+		"   ",
+		"a@b.com",
+		"a@b.com, c@d.com",
+		"  a@b.com ,, c@d.com  ",
+		"Joe Smith <joe@smith.com>",
+		"\"Smith, Joe\" <joe@smith.com>, <jane@smith.com>",
+		"joe@smith.com (Joe Smith)",
+		"(comment) joe@smith.com",
+		"Joe <joe@smith.com> (trailing), Jane <jane@smith.com>",
+		"friends: a@b.com, c@d.com;",
+		"friends: a@b.com, Joe <joe@smith.com>; other@x.org",
+		"friends: ;",
+		"<\"quoted local\"@smith.com>",
+		"\"esc\\\"aped\" <a@b.com>",
+		"<joe @smith.com>",
+		"<joe smith>",
+		"<joe@smith.com  >",
+		"joe@smith.com junk",
+		"joe@smith.com <real@smith.com>",
+		"Joe Smith",
+		"Joe, Smith <a@b.com>",
+		"a@b.com; c@d.com",
+		"@b.com",
+		"a@",
+		"<a@b.com",
+		"\"open quote <a@b.com>",
+		"(open comment a@b.com",
+		"a:b:c@d.com",
+		"Joe \\ Smith <a@b.com>",
+		"back\\slash <a@b.com>",
+		"<a@b.com> @junk, c@d.com",
+		"<a:b@c.com>",
+		"<a@o'brien.com>",
+		"pat@o'brien.com",
+		"<a@b:c.com>",
+		"a@b.com @extra",
+		"Jörg <j@b.com>",
+		"<j@bé.com>",
+		"Joe\r\n <joe@smith.com>,\r\n\tJane <jane@smith.com>",
+		"[a@b.com]",
+		"a@b.com>",
+		"group: a@b.com, inner: c@d.com;;",
+	};
+	public final static int FUZZ_COUNT = 20000;
+	public final static String FUZZ_PARTS = "ab@.,;:<>\"()\\ '\t\r\néxy";
+	public final static int PARALLEL_LISTS = 5000;
+	public final static int GOOD_SAMPLES = 7;	// The first ones in SAMPLES parse in any combination.
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.rfc822.TEST_CharAddressParser");
+		DECLARE(CORPUS);
+		DECLARE(CORPUS_MSG);
+		DECLARE(FUZZ);
+		DECLARE(WINDOW);
+		DECLARE(PARALLEL);
+	}
+
+	public void test_execute() throws Throwable {
+		
+		// == CORPUS ========================================================================================================================
+		try {
+			for (String sample : SAMPLES) compare(sample, false);
+			PASS(CORPUS);
+		} catch (TestLocalException tle) {
+			FAIL(CORPUS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CORPUS,e.getMessage());
+		}
+
+		// == CORPUS MSG ====================================================================================================================
+		try {
+			for (String sample : SAMPLES) compare(sample, true);
+			PASS(CORPUS_MSG);
+		} catch (TestLocalException tle) {
+			FAIL(CORPUS_MSG,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CORPUS_MSG,e.getMessage());
+		}
+
+		// == FUZZ ==========================================================================================================================
+		try {
+			Random random = new Random(822);
+			for (int count = 0; count < FUZZ_COUNT; count++) {
+				String sample = fuzz(random);
+				compare(sample, false);
+				compare(sample, true);
+			}
+			PASS(FUZZ);
+		} catch (TestLocalException tle) {
+			FAIL(FUZZ,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FUZZ,e.getMessage());
+		}
+		
+		// == WINDOW ========================================================================================================================
+		try {
+			char[] text = "xxJoe <joe@smith.com>, a@b.comyy".toCharArray();
+			Recorder recorder = new Recorder();
+			new CharAddressParser().parse(text, 2, text.length - 4, recorder);
+			if (!recorder.toString().equals("[joe@smith.com|Joe |null|null][a@b.com|null|null|null]")) PUNT("Window parse wrong.  got=" + recorder);
+			
+			// Reuse after a failure.
+			CharAddressParser parser = new CharAddressParser();
+			try {
+				parser.parse("<broken");
+				PUNT("Broken address parsed.");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				// Good
+			}
+			List<FullAddress> addresses = parser.parse("c@d.com");
+			if ((addresses.size() != 1)||(!addresses.get(0).inet.equals("c@d.com"))) PUNT("Parser not reusable after a failure.");
+			PASS(WINDOW);
+		} catch (TestLocalException tle) {
+			FAIL(WINDOW,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(WINDOW,e.getMessage());
+		}
+		
+		// == PARALLEL ======================================================================================================================
+		try {
+			Random random = new Random(1234);
+			List<String> lists = new ArrayList<String>();
+			for (int count = 0; count < PARALLEL_LISTS; count++) {
+				StringBuilder list = new StringBuilder();
+				for (int item = random.nextInt(5); item >= 0; item--) {
+					if (list.length() > 0) list.append(", ");
+					list.append(SAMPLES[random.nextInt((random.nextInt(10) == 0) ? SAMPLES.length : GOOD_SAMPLES)]);
+				}
+				lists.add(list.toString());
+			}
+			
+			List<List<FullAddress>> parallel = CharAddressParser.parseAll(lists, false, 4);
+			List<List<FullAddress>> serial = CharAddressParser.parseAll(lists, false, 1);
+			if ((parallel.size() != lists.size())||(serial.size() != lists.size())) PUNT("Wrong number of results.");
+			int failed = 0;
+			for (int index = 0; index < lists.size(); index++) {
+				if (!render(parallel.get(index)).equals(render(serial.get(index)))) PUNT("Parallel and serial differ.  list=" + lists.get(index));
+				
+				Recorder recorder = new Recorder();
+				try {
+					new AddressParser().parser(lists.get(index), recorder);
+				} catch (Throwable t) {
+					recorder = null;
+				}
+				if (recorder == null) {
+					failed++;
+					if (parallel.get(index) != null) PUNT("Parsed a list that AddressParser rejects.  list=" + lists.get(index));
+				} else if (!render(parallel.get(index)).equals(recorder.toString())) {
+					PUNT("Different from AddressParser.  list=" + lists.get(index));
+				}
+			}
+			PASS(PARALLEL, "failed lists=" + failed);
+		} catch (TestLocalException tle) {
+			FAIL(PARALLEL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(PARALLEL,e.getMessage());
+		}
+	}
+	
+	/**
+	 * Both parsers must agree on the addresses or both must fail.
+	 */
+	private void compare(String sample, boolean forgiving) throws Throwable {
+		Recorder original = new Recorder();
+		boolean originalFailed = false;
+		try {
+			if (forgiving) new AddressParserMSG().parser(sample, original);
+			else new AddressParser().parser(sample, original);
+		} catch (Throwable t) {
+			originalFailed = true;
+		}
+		
+		Recorder windowed = new Recorder();
+		boolean windowedFailed = false;
+		try {
+			new CharAddressParser(forgiving).parse(sample, windowed);
+		} catch (Throwable t) {
+			windowedFailed = true;
+		}
+		
+		if (originalFailed != windowedFailed) PUNT("Parsers disagree on failure.  forgiving=" + forgiving + " sample=" + sample + " original failed=" + originalFailed);
+		if (!original.toString().equals(windowed.toString())) PUNT("Parsers disagree.  forgiving=" + forgiving + " sample=" + sample + " original=" + original + " new=" + windowed);
+	}
+	
+	private String fuzz(Random random) {
+		StringBuilder result = new StringBuilder();
+		int length = random.nextInt(30);
+		for (int index = 0; index < length; index++) {
+			if (random.nextInt(4) == 0) result.append(SAMPLES[random.nextInt(SAMPLES.length)]);
+			else result.append(FUZZ_PARTS.charAt(random.nextInt(FUZZ_PARTS.length())));
+		}
+		return result.toString();
+	}
+	
+	private String render(List<FullAddress> addresses) {
+		if (addresses == null) return "null";
+		StringBuilder result = new StringBuilder();
+		for (FullAddress address : addresses) result.append('[').append(address.inet).append('|').append(address.friendly).append('|').append(address.group).append('|').append(address.busted).append(']');
+		return result.toString();
+	}
+	
+	/**
+	 * Records what the parser pushes, in the form render() uses.
+	 */
+	private class Recorder implements AddressListener {
+		List<FullAddress> addresses = new ArrayList<FullAddress>();
+		
+		public void push(String address, String friendly, String group, String busted) {
+			addresses.add(new FullAddress(address, friendly, group, busted));
+		}
+		
+		public boolean add(FullAddress item) {
+			addresses.add(item);
+			return true;
+		}
+		
+		public String toString() {
+			return render(addresses);
+		}
+	}
+
+}
@@ -0,0 +1,509 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing.rfc822;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import things.common.ThingsConstants;
+import things.common.ThingsException;
+import things.common.tools.BitBucketOutputStream;
+import things.data.processing.rfc822.HeaderEngine;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the HeaderEngine.  The corpus cases run generated mail headers through it and check what it finds against what was
+ * generated.  The benchmark runs the same corpus through the old HeaderProcessor.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 26 MAY 10
+ * </pre>
+ */
+public class TEST_HeaderEngine extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String BASIC = "Basic";
+	public final static String FOLDING = "Folding";
+	public final static String SEPARATION = "Header separation";
+	public final static String BARE_LF = "Bare LF and no empty line";
+	public final static String INCREMENTAL = "Incremental window";
+	public final static String BUFFERS = "ByteBuffer and stream";
+	public final static String DECLARATIONS = "Declarations";
+	public final static String CORPUS = "Mail corpus";
+	public final static String MALFORMED = "Malformed fuzz";
+	public final static String BENCHMARK = "Benchmark against HeaderProcessor";
+
+	// Configuration
+	public final static long SEED = 20100526L;
+	public final static int CORPUS_SIZE = 2000;
+	public final static int FUZZ_ROUNDS = 1500;
+	public final static int BENCHMARK_PASSES = 5;
+	public final static int DECLARED_NAMES = 200;
+
+	// Ids
+	public final static int ID_DA = 1;
+	public final static int ID_FA = 2;
+	public final static int ID_SUBJECT = 3;
+	public final static int ID_RECEIVED = 4;
+	public final static int ID_MESSAGE_ID = 5;
+
+	// Test values
+	public final static String CRLF = ThingsConstants.CRLF;
+	public final static String HEADER_BASIC =
+		"Da: Bo" + CRLF +
+		"fa:Qo  " + CRLF +
+		"X-Other : thing" + CRLF +
+		CRLF;
+
+	public final static String HEADER_FOLD =
+		"Da: Bo" + CRLF +
+		" Mo" + CRLF +
+		"\t" + CRLF +
+		"Fa:" + CRLF +
+		"\tQo" + CRLF +
+		CRLF;
+
+	public final static String HEADER_SEPARATION =
+		"Da: Bo" + CRLF +
+		CRLF +
+		"Fa: Qo" + CRLF;
+
+	public final static String HEADER_BARE =
+		"Da: Bo\n" +
+		" Mo\n" +
+		"Subject: no empty line";
+
+	private final static String[] MAIL_NAMES = { "Return-Path", "Delivered-To", "Reply-To", "To", "Cc", "Date", "MIME-Version", "Content-Type",
+		"Content-Transfer-Encoding", "X-Mailer", "X-Spam-Status", "X-Spam-Score", "List-Id", "List-Unsubscribe", "Precedence", "Thread-Index",
+		"DKIM-Signature", "Authentication-Results", "In-Reply-To", "References" };
+	private final static String WORDCHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.-_@<>=;/";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.rfc822.TEST_HeaderEngine");
+		DECLARE(SETUP);
+		DECLARE(BASIC);
+		DECLARE(FOLDING);
+		DECLARE(SEPARATION);
+		DECLARE(BARE_LF);
+		DECLARE(INCREMENTAL);
+		DECLARE(BUFFERS);
+		DECLARE(DECLARATIONS);
+		DECLARE(CORPUS);
+		DECLARE(MALFORMED);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		HeaderEngine engine = null;
+		Random rng = new Random(SEED);
+
+		// == SETUP =========================================================================================================================
+		try {
+			engine = new HeaderEngine();
+			declarations(engine);
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		// == BASIC =========================================================================================================================
+		try {
+			byte[] data = HEADER_BASIC.getBytes("ISO-8859-1");
+			engine.reset();
+			if (!engine.parse(data, 0, data.length)) PUNT("Head not complete.");
+			if (engine.getHeadEnd() != data.length) PUNT("Head end is wrong.  end=" + engine.getHeadEnd());
+			if (engine.getHeaderCount() != 3) PUNT("Expected 3 headers.  got=" + engine.getHeaderCount());
+			if (engine.getHeaderId(0) != ID_DA) PUNT("Da not matched.");
+			if (engine.getHeaderId(1) != ID_FA) PUNT("fa not matched.");
+			if (engine.getHeaderId(2) != HeaderEngine.UNDECLARED) PUNT("X-Other matched.");
+			if (!"Bo".equals(engine.getHeaderValue(0))) PUNT("Da value wrong.  value=" + engine.getHeaderValue(0));
+			if (!"Qo".equals(engine.getHeaderValue(1))) PUNT("fa value wrong.  value=" + engine.getHeaderValue(1));
+			if (!"X-Other".equals(engine.getHeaderName(2))) PUNT("Name wrong.  name=" + engine.getHeaderName(2));
+			if (!"thing".equals(engine.getHeaderValue("x-other"))) PUNT("X-Other value wrong.");
+			if (engine.findHeader(ID_SUBJECT, -1) >= 0) PUNT("Found a header that isn't there.");
+
+			// Slices
+			String slice = new String(engine.getWindow(), engine.getHeaderValueOffset(1), engine.getHeaderValueLength(1), "ISO-8859-1");
+			if (!"Qo".equals(slice)) PUNT("Value slice wrong.  slice=" + slice);
+			slice = new String(engine.getWindow(), engine.getHeaderNameOffset(1), engine.getHeaderNameLength(1), "ISO-8859-1");
+			if (!"fa".equals(slice)) PUNT("Name slice wrong.  slice=" + slice);
+
+			PASS(BASIC);
+		} catch (TestLocalException tle) {
+			FAIL(BASIC,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(BASIC,e.getMessage());
+		}
+
+		// == FOLDING =======================================================================================================================
+		try {
+			byte[] data = HEADER_FOLD.getBytes("ISO-8859-1");
+			engine.reset();
+			if (!engine.parse(data, 0, data.length)) PUNT("Head not complete.");
+			if (engine.getHeaderCount() != 2) PUNT("Expected 2 headers.  got=" + engine.getHeaderCount());
+			if (!"Bo Mo".equals(engine.getHeaderValue(0))) PUNT("Folded value wrong.  value=" + engine.getHeaderValue(0));
+			if (!engine.isFolded(0)) PUNT("Fold not flagged.");
+			if (!"Qo".equals(engine.getHeaderValue(1))) PUNT("Value starting on the continuation is wrong.  value=" + engine.getHeaderValue(1));
+			if (engine.isFolded(1)) PUNT("Value starting on the continuation is flagged as folded.");
+
+			PASS(FOLDING);
+		} catch (TestLocalException tle) {
+			FAIL(FOLDING,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FOLDING,e.getMessage());
+		}
+
+		// == SEPARATION ====================================================================================================================
+		try {
+			byte[] data = HEADER_SEPARATION.getBytes("ISO-8859-1");
+			engine.reset();
+			if (!engine.parse(data, 0, data.length)) PUNT("Head not complete.");
+			if (engine.getHeaderCount() != 1) PUNT("Body was parsed as header.");
+			if (data[engine.getHeadEnd()] != 'F') PUNT("Head end is not at the body.");
+
+			PASS(SEPARATION);
+		} catch (TestLocalException tle) {
+			FAIL(SEPARATION,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(SEPARATION,e.getMessage());
+		}
+
+		// == BARE LF =======================================================================================================================
+		try {
+			byte[] data = HEADER_BARE.getBytes("ISO-8859-1");
+			engine.reset();
+			if (engine.parse(data, 0, data.length)) PUNT("Complete without an empty line.");
+			engine.finish();
+			if (!engine.isComplete()) PUNT("Not complete after finish.");
+			if (engine.getHeadEnd() != data.length) PUNT("Head end is not the end of the data.");
+			if (engine.getHeaderCount() != 2) PUNT("Expected 2 headers.  got=" + engine.getHeaderCount());
+			if (!"Bo Mo".equals(engine.getHeaderValue(0))) PUNT("Folded value wrong.  value=" + engine.getHeaderValue(0));
+			if (!"no empty line".equals(engine.getHeaderValue(engine.findHeader(ID_SUBJECT, -1)))) PUNT("Last line lost.");
+
+			PASS(BARE_LF);
+		} catch (TestLocalException tle) {
+			FAIL(BARE_LF,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(BARE_LF,e.getMessage());
+		}
+
+		// == INCREMENTAL ===================================================================================================================
+		try {
+			byte[] data = mail(rng, 3).getBytes("ISO-8859-1");
+			engine.reset();
+			if (!engine.parse(data, 0, data.length)) PUNT("Head not complete.");
+			String[] expected = snapshot(engine);
+
+			HeaderEngine other = new HeaderEngine();
+			declarations(other);
+			int size = 0;
+			while (!other.parse(data, 0, size)) {
+				size++;
+				if (size > data.length) PUNT("Never completed.");
+			}
+			if (other.getHeadEnd() != engine.getHeadEnd()) PUNT("Head end differs.");
+			compare(expected, snapshot(other), "incremental");
+
+			PASS(INCREMENTAL);
+		} catch (TestLocalException tle) {
+			FAIL(INCREMENTAL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(INCREMENTAL,e.getMessage());
+		}
+
+		// == BUFFERS =======================================================================================================================
+		try {
+			String text = mail(rng, 4);
+			byte[] data = (text + "BODY").getBytes("ISO-8859-1");
+			engine.reset();
+			engine.parse(data, 0, data.length);
+			String[] expected = snapshot(engine);
+
+			ByteBuffer heap = ByteBuffer.wrap(data);
+			engine.reset();
+			if (!engine.parse(heap)) PUNT("Heap buffer not complete.");
+			if (heap.get() != 'B') PUNT("Heap buffer not positioned at the body.");
+			compare(expected, snapshot(engine), "heap");
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+			direct.put(data);
+			direct.flip();
+			engine.reset();
+			if (!engine.parse(direct)) PUNT("Direct buffer not complete.");
+			if (direct.get() != 'B') PUNT("Direct buffer not positioned at the body.");
+			compare(expected, snapshot(engine), "direct");
+
+			InputStream ins = new BufferedInputStream(new ByteArrayInputStream(data));
+			engine.readHead(ins);
+			if (ins.read() != 'B') PUNT("Buffered stream not positioned at the body.");
+			compare(expected, snapshot(engine), "buffered stream");
+
+			ins = new ByteArrayInputStream(data) {
+				public boolean markSupported() {
+					return false;
+				}
+			};
+			engine.readHead(ins);
+			if (ins.read() != 'B') PUNT("Plain stream not positioned at the body.");
+			compare(expected, snapshot(engine), "plain stream");
+
+			PASS(BUFFERS);
+		} catch (TestLocalException tle) {
+			FAIL(BUFFERS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(BUFFERS,e.getMessage());
+		}
+
+		// == DECLARATIONS ==================================================================================================================
+		try {
+			HeaderEngine big = new HeaderEngine();
+			StringBuffer head = new StringBuffer();
+			for (int index = 0; index < DECLARED_NAMES; index++) {
+				big.declare("X-Name-" + index, index + 1);
+				head.append("x-NAME-").append(index).append(": ").append(index).append(CRLF);
+			}
+			head.append("X-Name-Nope: nope").append(CRLF).append(CRLF);
+
+			for (int index = 0; index < DECLARED_NAMES; index++) {
+				if (big.getDeclaredId("X-NAME-" + index) != index + 1) PUNT("Declared id wrong.  name=X-Name-" + index);
+			}
+			if (big.getDeclaredId("X-Name-") != HeaderEngine.UNDECLARED) PUNT("Prefix matched.");
+			if (big.getDeclaredId("X-Name-0x") != HeaderEngine.UNDECLARED) PUNT("Longer name matched.");
+
+			byte[] data = head.toString().getBytes("ISO-8859-1");
+			if (!big.parse(data, 0, data.length)) PUNT("Head not complete.");
+			for (int index = 0; index < DECLARED_NAMES; index++) {
+				if (big.getHeaderId(index) != index + 1) PUNT("Field id wrong.  index=" + index + " id=" + big.getHeaderId(index));
+			}
+			if (big.getHeaderId(DECLARED_NAMES) != HeaderEngine.UNDECLARED) PUNT("Undeclared field matched.");
+
+			big.declare("x-name-7", 1000);
+			if (big.getDeclaredId("X-Name-7") != 1000) PUNT("Redeclare didn't change the id.");
+			try {
+				big.declare("X-Bad", HeaderEngine.UNDECLARED);
+				PUNT("Declared with UNDECLARED id.");
+			} catch (ThingsException te) {
+				// Good.
+			}
+
+			PASS(DECLARATIONS);
+		} catch (TestLocalException tle) {
+			FAIL(DECLARATIONS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(DECLARATIONS,e.getMessage());
+		}
+
+		// == CORPUS ========================================================================================================================
+		// Each generated header ends with X-Expect, which lists every field as name=value, so it can be checked.
+		try {
+			String text = null;
+			for (int round = 0; round < CORPUS_SIZE; round++) {
+				text = mail(rng, 1 + rng.nextInt(8));
+				byte[] data = text.getBytes("ISO-8859-1");
+				engine.reset();
+				if (!engine.parse(data, 0, data.length)) PUNT("Head not complete.  head=" + text);
+				int expect = engine.findHeader("X-Expect");
+				if (expect != engine.getHeaderCount() - 1) PUNT("X-Expect is not last.  head=" + text);
+
+				String[] expected = engine.getHeaderValue(expect).split("\\|");
+				if (expected.length != expect) PUNT("Field count wrong.  expected=" + expected.length + " got=" + expect + " head=" + text);
+				for (int index = 0; index < expect; index++) {
+					String field = engine.getHeaderName(index) + "=" + engine.getHeaderValue(index);
+					if (!expected[index].equals(field)) PUNT("Field wrong.  expected=" + expected[index] + " got=" + field + " head=" + text);
+				}
+
+				int received = 0;
+				for (int index = engine.findHeader(ID_RECEIVED, -1); index >= 0; index = engine.findHeader(ID_RECEIVED, index)) {
+					if (!engine.headerNameEquals(index, "RECEIVED")) PUNT("Received id on the wrong field.  head=" + text);
+					received++;
+				}
+				int names = 0;
+				for (int index = 0; index < expect; index++) {
+					if (engine.headerNameEquals(index, "Received")) names++;
+				}
+				if (received != names) PUNT("Received count wrong.  ids=" + received + " names=" + names + " head=" + text);
+			}
+
+			PASS(CORPUS);
+		} catch (TestLocalException tle) {
+			FAIL(CORPUS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CORPUS,e.getMessage());
+		}
+
+		// == MALFORMED =====================================================================================================================
+		// Anything goes, but only ThingsExceptions may come out.
+		try {
+			byte[] data;
+			for (int round = 0; round < FUZZ_ROUNDS; round++) {
+				data = mail(rng, 2).getBytes("ISO-8859-1");
+				for (int flips = rng.nextInt(6); flips >= 0; flips--) {
+					data[rng.nextInt(data.length)] = (byte)rng.nextInt(256);
+				}
+				try {
+					engine.reset();
+					if (!engine.parse(data, 0, data.length)) engine.finish();
+					for (int index = 0; index < engine.getHeaderCount(); index++) {
+						engine.getHeaderName(index);
+						engine.getHeaderValue(index);
+					}
+				} catch (ThingsException te) {
+					// Fine.
+				} catch (RuntimeException re) {
+					PUNT("Runtime exception on malformed head.  exception=" + re.toString() + " head=" + new String(data, "ISO-8859-1"));
+				}
+			}
+
+			PASS(MALFORMED);
+		} catch (TestLocalException tle) {
+			FAIL(MALFORMED,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(MALFORMED,e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			Random benchmarkRng = new Random(SEED);
+			ArrayList<byte[]> corpus = new ArrayList<byte[]>();
+			long size = 0;
+			int fields = 0;
+			for (int index = 0; index < CORPUS_SIZE; index++) {
+				byte[] data = mail(benchmarkRng, 4 + benchmarkRng.nextInt(8)).getBytes("ISO-8859-1");
+				corpus.add(data);
+				size += data.length;
+			}
+			TestHeaderProcessor processor = new TestHeaderProcessor();
+			BitBucketOutputStream bucket = new BitBucketOutputStream();
+
+			// Warm both up before timing.
+			long oldTime = 0;
+			long newTime = 0;
+			long mark;
+			for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+				mark = System.nanoTime();
+				for (byte[] data : corpus) {
+					processor.process("noid", new ByteArrayInputStream(data), bucket);
+				}
+				oldTime = System.nanoTime() - mark;
+
+				mark = System.nanoTime();
+				fields = 0;
+				for (byte[] data : corpus) {
+					engine.reset();
+					engine.parse(data, 0, data.length);
+					for (int index = 0; index < engine.getHeaderCount(); index++) {
+						if (engine.getHeaderId(index) != HeaderEngine.UNDECLARED) engine.getHeaderValue(index);
+					}
+					fields += engine.getHeaderCount();
+				}
+				newTime = System.nanoTime() - mark;
+			}
+
+			TIME(BENCHMARK, newTime / 1000000);
+			SIZE(BENCHMARK, size);
+			VALUE(BENCHMARK, "old.ns.per.head", Long.toString(oldTime / CORPUS_SIZE));
+			VALUE(BENCHMARK, "new.ns.per.head", Long.toString(newTime / CORPUS_SIZE));
+			VALUE(BENCHMARK, "new.ns.per.field", Long.toString(newTime / fields));
+			PASS(BENCHMARK, "old=" + (oldTime / CORPUS_SIZE) + "ns new=" + (newTime / CORPUS_SIZE) + "ns per head, " + fields + " fields in " + size + " bytes");
+		} catch (Throwable e) {
+		    FAIL(BENCHMARK,e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private void declarations(HeaderEngine engine) throws Throwable {
+		engine.declare("Da", ID_DA);
+		engine.declare("FA", ID_FA);
+		engine.declare("subject", ID_SUBJECT);
+		engine.declare("Received", ID_RECEIVED);
+		engine.declare("Message-ID", ID_MESSAGE_ID);
+	}
+
+	private String[] snapshot(HeaderEngine engine) {
+		String[] result = new String[engine.getHeaderCount()];
+		for (int index = 0; index < result.length; index++) {
+			result[index] = engine.getHeaderName(index) + "=" + engine.getHeaderValue(index) + "#" + engine.getHeaderId(index);
+		}
+		return result;
+	}
+
+	private void compare(String[] expected, String[] got, String what) throws TestLocalException {
+		if (expected.length != got.length) PUNT(what + " field count differs.  expected=" + expected.length + " got=" + got.length);
+		for (int index = 0; index < expected.length; index++) {
+			if (!expected[index].equals(got[index])) PUNT(what + " field differs.  expected=" + expected[index] + " got=" + got[index]);
+		}
+	}
+
+	private String random(Random rng, String alphabet, int min, int max) {
+		int size = min + rng.nextInt(max - min + 1);
+		StringBuffer result = new StringBuffer();
+		for (int index = 0; index < size; index++) result.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+		return result.toString();
+	}
+
+	/**
+	 * Generate a mail header that looks like it came through a few relays.  Values are sometimes folded with CRLF or a bare LF.
+	 * The last field is X-Expect, which lists what came before it.
+	 */
+	private String mail(Random rng, int hops) {
+		StringBuffer result = new StringBuffer();
+		StringBuffer expect = new StringBuffer();
+		for (int hop = 0; hop < hops; hop++) {
+			field(rng, result, expect, rng.nextBoolean() ? "Received" : "received", "from " + random(rng, WORDCHARS, 4, 20) + " by " + random(rng, WORDCHARS, 4, 20) + " with ESMTP id "
+					+ random(rng, WORDCHARS, 8, 16) + "; Wed, 26 May 2010 10:" + (10 + rng.nextInt(50)) + ":00 -0500");
+		}
+		field(rng, result, expect, "Message-ID", "<" + random(rng, WORDCHARS, 8, 30) + ">");
+		field(rng, result, expect, "From", random(rng, WORDCHARS, 3, 12) + " <" + random(rng, WORDCHARS, 3, 12) + "@example.com>");
+		field(rng, result, expect, "Subject", random(rng, WORDCHARS, 1, 10) + " " + random(rng, WORDCHARS, 1, 30));
+		for (int extra = rng.nextInt(MAIL_NAMES.length); extra >= 0; extra--) {
+			field(rng, result, expect, MAIL_NAMES[rng.nextInt(MAIL_NAMES.length)], random(rng, WORDCHARS, 1, 20) + " " + random(rng, WORDCHARS, 1, 40));
+		}
+		result.append("X-Expect: ").append(expect).append(CRLF).append(CRLF);
+		return result.toString();
+	}
+
+	/**
+	 * Add a field.  Spaces in the value may become folds.
+	 */
+	private void field(Random rng, StringBuffer result, StringBuffer expect, String name, String value) {
+		if (expect.length() > 0) expect.append('|');
+		expect.append(name).append('=').append(value);
+		result.append(name).append(':').append(rng.nextInt(4) == 0 ? "\t" : " ");
+		for (int index = 0; index < value.length(); index++) {
+			if ((value.charAt(index) == ' ')&&(rng.nextInt(3) == 0)) {
+				result.append(rng.nextInt(5) == 0 ? "\n" : CRLF).append(rng.nextBoolean() ? " " : "\t  ");
+			} else {
+				result.append(value.charAt(index));
+			}
+		}
+		result.append(rng.nextInt(6) == 0 ? " " + CRLF : CRLF);
+	}
+
+}
@@ -0,0 +1,525 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.processing.rfc822;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import test.things.data.processing.TrickleInputStream;
+import things.common.ThingsConstants;
+import things.common.ThingsException;
+import things.common.tools.Base64;
+import things.data.processing.rfc822.MimeDecomposer;
+import things.data.processing.rfc822.MimeListener;
+import things.data.processing.rfc822.MimePart;
+import things.data.processing.rfc822.MimeSpiller;
+import things.data.processing.rfc822.QuotedPrintableInputStream;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.universe.UniverseID;
+import things.universe.server.UniverseLocal;
+
+/**
+ * TEST the MimeDecomposer.  The fuzz case generates random part trees, feeds them through a stream that hands out a few bytes at a
+ * time, and checks every part's decoded content against what was generated.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * </pre>
+ */
+public class TEST_MimeDecomposer extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String QUOTED_PRINTABLE = "Quoted-printable stream";
+	public final static String PLAIN = "Plain message";
+	public final static String TREE = "Nested tree";
+	public final static String FORGIVING = "Forgiving boundaries";
+	public final static String FUZZ = "Random trees";
+	public final static String LARGE = "Large attachment";
+	public final static String SPILL = "Spill to universe";
+
+	// Configuration
+	public final static long SEED = 20100528L;
+	public final static int FUZZ_ROUNDS = 400;
+	public final static int LARGE_SIZE = 4 * 1024 * 1024;
+
+	// Test values
+	public final static String CRLF = ThingsConstants.CRLF;
+	public final static String MESSAGE_PLAIN =
+		"From: a@b.com" + CRLF +
+		"Subject: plain" + CRLF +
+		CRLF +
+		"Hello." + CRLF +
+		"--not a boundary" + CRLF;
+
+	public final static String MESSAGE_TREE =
+		"From: a@b.com" + CRLF +
+		"MIME-Version: 1.0" + CRLF +
+		"Content-Type: multipart/mixed;" + CRLF +
+		"\tboundary=\"outer\"" + CRLF +
+		CRLF +
+		"This is the preamble." + CRLF +
+		"--outer" + CRLF +
+		"Content-Type: text/plain; charset=iso-8859-1" + CRLF +
+		"Content-Transfer-Encoding: quoted-printable" + CRLF +
+		CRLF +
+		"Caf=E9 au lait, =" + CRLF +
+		"s'il vous pla=EEt." + CRLF +
+		"--outer" + CRLF +
+		"Content-Type: multipart/alternative; boundary=inner" + CRLF +
+		CRLF +
+		"--inner" + CRLF +
+		CRLF +
+		"no headers" + CRLF +
+		"--inner" + CRLF +
+		"Content-Type: text/html" + CRLF +
+		CRLF +
+		"<b>bold</b>" + CRLF +
+		"--inner--" + CRLF +
+		"inner epilogue" + CRLF +
+		"--outer" + CRLF +
+		"Content-Type: application/octet-stream; name=\"data.bin\"" + CRLF +
+		"Content-Transfer-Encoding: base64" + CRLF +
+		"Content-Disposition: attachment; filename=\"data.bin\"" + CRLF +
+		CRLF +
+		"AAECAwQF" + CRLF +
+		"BgcICQ==" + CRLF +
+		"--outer" + CRLF +
+		"Content-Type: message/rfc822" + CRLF +
+		CRLF +
+		"Subject: inside" + CRLF +
+		CRLF +
+		"Inner body." + CRLF +
+		"--outer--" + CRLF +
+		"Epilogue." + CRLF;
+
+	public final static String MESSAGE_FORGIVING =
+		"Content-Type: multipart/mixed; boundary=\"a\"\n" +
+		"\n" +
+		"--a\n" +
+		"Content-Type: multipart/mixed; boundary=\"b\"\n" +
+		"\n" +
+		"--b\n" +
+		"\n" +
+		"first\n" +
+		"--a\n" +
+		"--a\n" +
+		"\n" +
+		"last";
+
+	private final static String TEXTCHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,-!";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.processing.rfc822.TEST_MimeDecomposer");
+		DECLARE(SETUP);
+		DECLARE(QUOTED_PRINTABLE);
+		DECLARE(PLAIN);
+		DECLARE(TREE);
+		DECLARE(FORGIVING);
+		DECLARE(FUZZ);
+		DECLARE(LARGE);
+		DECLARE(SPILL);
+	}
+
+	public void test_execute() throws Throwable {
+
+		MimeDecomposer decomposer = null;
+		Random rng = new Random(SEED);
+
+		// == SETUP =========================================================================================================================
+		try {
+			decomposer = new MimeDecomposer();
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		// == QUOTED PRINTABLE ==============================================================================================================
+		try {
+			String encoded = "a=3Db =" + CRLF + "c  " + CRLF + "d=\t \nE=4" + CRLF + "=zz=";
+			String expected = "a=b c" + CRLF + "dE=4" + CRLF + "=zz";
+			String got = new String(read(new QuotedPrintableInputStream(new ByteArrayInputStream(encoded.getBytes("ISO-8859-1")))), "ISO-8859-1");
+			if (!expected.equals(got)) PUNT("Decoded wrong.  got='" + got + "'");
+
+			byte[] data = random(rng, 5000);
+			got = new String(read(new QuotedPrintableInputStream(new ByteArrayInputStream(quotedPrintable(rng, data, CRLF).getBytes("ISO-8859-1")))), "ISO-8859-1");
+			if (!new String(data, "ISO-8859-1").equals(got)) PUNT("Random data decoded wrong.");
+
+			PASS(QUOTED_PRINTABLE);
+		} catch (TestLocalException tle) {
+			FAIL(QUOTED_PRINTABLE,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(QUOTED_PRINTABLE,e.getMessage());
+		}
+
+		// == PLAIN =========================================================================================================================
+		try {
+			Recorder recorder = new Recorder();
+			MimePart root = decomposer.decompose(new ByteArrayInputStream(MESSAGE_PLAIN.getBytes("ISO-8859-1")), recorder);
+			if (!"0 text/plain".equals(recorder.events())) PUNT("Events wrong.  events=" + recorder.events());
+			if (!("Hello." + CRLF + "--not a boundary" + CRLF).equals(recorder.text("0"))) PUNT("Content wrong.  content=" + recorder.text("0"));
+			if (!"plain".equals(root.getHeader("SUBJECT"))) PUNT("Header wrong.");
+			if (root.size != recorder.content.get("0").length) PUNT("Size wrong.  size=" + root.size);
+
+			PASS(PLAIN);
+		} catch (TestLocalException tle) {
+			FAIL(PLAIN,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(PLAIN,e.getMessage());
+		}
+
+		// == TREE ==========================================================================================================================
+		try {
+			Recorder recorder = new Recorder();
+			decomposer.decompose(new TrickleInputStream(MESSAGE_TREE.getBytes("ISO-8859-1"), rng, 7), recorder);
+			String expected = "0 multipart/mixed,1 text/plain,2 multipart/alternative,2.1 text/plain,2.2 text/html,3 application/octet-stream,4 message/rfc822,4.1 text/plain";
+			if (!expected.equals(recorder.events())) PUNT("Events wrong.  events=" + recorder.events());
+			if (!"Caf\u00e9 au lait, s'il vous pla\u00eet.".equals(recorder.text("1"))) PUNT("QP part wrong.  content=" + recorder.text("1"));
+			if (!"no headers".equals(recorder.text("2.1"))) PUNT("Headerless part wrong.  content=" + recorder.text("2.1"));
+			if (!"<b>bold</b>".equals(recorder.text("2.2"))) PUNT("HTML part wrong.  content=" + recorder.text("2.2"));
+			byte[] binary = recorder.content.get("3");
+			if ((binary == null)||(binary.length != 10)) PUNT("Base64 part wrong length.");
+			for (int index = 0; index < binary.length; index++) {
+				if (binary[index] != index) PUNT("Base64 part wrong at " + index);
+			}
+			if (!"Inner body.".equals(recorder.text("4.1"))) PUNT("Encapsulated part wrong.  content=" + recorder.text("4.1"));
+
+			MimePart part = recorder.parts.get("3");
+			if (!"data.bin".equals(part.filename)) PUNT("File name wrong.");
+			if (!part.isAttachment()) PUNT("Not an attachment.");
+			if (!"iso-8859-1".equals(recorder.parts.get("1").charset)) PUNT("Charset wrong.");
+			if (!"inside".equals(recorder.parts.get("4.1").getHeader("Subject"))) PUNT("Encapsulated header wrong.");
+			if (recorder.parts.get("2.2").depth != 2) PUNT("Depth wrong.");
+
+			PASS(TREE);
+		} catch (TestLocalException tle) {
+			FAIL(TREE,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(TREE,e.getMessage());
+		}
+
+		// == FORGIVING =====================================================================================================================
+		// The inner multipart is never closed, so the outer boundary ends it.  The outer one is never closed either.
+		try {
+			Recorder recorder = new Recorder();
+			decomposer.decompose(new ByteArrayInputStream(MESSAGE_FORGIVING.getBytes("ISO-8859-1")), recorder);
+			String expected = "0 multipart/mixed,1 multipart/mixed,1.1 text/plain,2 text/plain,3 text/plain";
+			if (!expected.equals(recorder.events())) PUNT("Events wrong.  events=" + recorder.events());
+			if (!"first".equals(recorder.text("1.1"))) PUNT("Inner part wrong.  content=" + recorder.text("1.1"));
+			if (!"".equals(recorder.text("2"))) PUNT("Empty part wrong.  content=" + recorder.text("2"));
+			if (!"last".equals(recorder.text("3"))) PUNT("Last part wrong.  content=" + recorder.text("3"));
+
+			PASS(FORGIVING);
+		} catch (TestLocalException tle) {
+			FAIL(FORGIVING,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FORGIVING,e.getMessage());
+		}
+
+		// == FUZZ ==========================================================================================================================
+		try {
+			for (int round = 0; round < FUZZ_ROUNDS; round++) {
+				Generator generator = new Generator(rng, rng.nextInt(4) == 0 ? "\n" : CRLF);
+				String message = generator.message();
+				Recorder recorder = new Recorder();
+				decomposer.decompose(new TrickleInputStream(message.getBytes("ISO-8859-1"), rng, 1 + rng.nextInt(200)), recorder);
+
+				if (!generator.events.toString().equals(recorder.events())) PUNT("Events wrong.  round=" + round + " expected=" + generator.events + " got=" + recorder.events());
+				for (String id : generator.content.keySet()) {
+					byte[] expected = generator.content.get(id);
+					byte[] got = recorder.content.get(id);
+					if (got == null) PUNT("No content.  round=" + round + " id=" + id);
+					if (!new String(expected, "ISO-8859-1").equals(new String(got, "ISO-8859-1"))) PUNT("Content wrong.  round=" + round + " id=" + id + " message=" + message);
+				}
+			}
+
+			PASS(FUZZ);
+		} catch (TestLocalException tle) {
+			FAIL(FUZZ,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FUZZ,e.getMessage());
+		}
+
+		// == LARGE =========================================================================================================================
+		try {
+			byte[] data = random(rng, LARGE_SIZE);
+			CRC32 expected = new CRC32();
+			expected.update(data);
+			String message = "Content-Type: multipart/mixed; boundary=\"big\"" + CRLF + CRLF +
+				"--big" + CRLF + "Content-Type: application/zip" + CRLF + "Content-Transfer-Encoding: base64" + CRLF + CRLF +
+				Base64.encodeBytes(data) + CRLF + "--big--" + CRLF;
+
+			final CRC32 got = new CRC32();
+			final long[] size = new long[1];
+			long mark = System.currentTimeMillis();
+			decomposer.decompose(new TrickleInputStream(message.getBytes("ISO-8859-1"), rng, 65536), new Recorder() {
+				public void content(MimePart part, InputStream content) throws Throwable {
+					byte[] chunk = new byte[4096];
+					int read = content.read(chunk);
+					while (read >= 0) {
+						got.update(chunk, 0, read);
+						size[0] += read;
+						read = content.read(chunk);
+					}
+				}
+			});
+			if (size[0] != LARGE_SIZE) PUNT("Size wrong.  size=" + size[0]);
+			if (got.getValue() != expected.getValue()) PUNT("CRC wrong.");
+
+			TIME(LARGE, System.currentTimeMillis() - mark);
+			SIZE(LARGE, message.length());
+			PASS(LARGE);
+		} catch (TestLocalException tle) {
+			FAIL(LARGE,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(LARGE,e.getMessage());
+		}
+
+		// == SPILL =========================================================================================================================
+		try {
+			File root = File.createTempFile("things", "mime");
+			root.delete();
+			root.mkdirs();
+			UniverseLocal universe = new UniverseLocal();
+			universe.genesis(root.getAbsolutePath(), new UniverseID("mime"));
+
+			MimeSpiller spiller = new MimeSpiller(universe, "parts", true);
+			decomposer.decompose(new ByteArrayInputStream(MESSAGE_TREE.getBytes("ISO-8859-1")), spiller);
+			if (spiller.getParts().size() != 8) PUNT("Wrong number of parts.  count=" + spiller.getParts().size());
+			MimePart attachment = null;
+			for (MimePart part : spiller.getParts()) {
+				if (part.spillName == null) continue;
+				if (attachment != null) PUNT("More than the attachment was spilled.");
+				attachment = part;
+			}
+			if ((attachment == null)||(!"3".equals(attachment.id))) PUNT("Attachment not spilled.");
+			if (attachment.spillSize != 10) PUNT("Spill size wrong.  size=" + attachment.spillSize);
+			byte[] stored = read(universe.getStream(attachment.spillName));
+			if (stored.length != 10) PUNT("Stored size wrong.  size=" + stored.length);
+			for (int index = 0; index < stored.length; index++) {
+				if (stored[index] != index) PUNT("Stored data wrong at " + index);
+			}
+
+			spiller.release();
+			if (attachment.spillName != null) PUNT("Not released.");
+
+			MimeSpiller everything = new MimeSpiller(universe, "parts", false);
+			decomposer.decompose(new ByteArrayInputStream(MESSAGE_TREE.getBytes("ISO-8859-1")), everything);
+			int spilled = 0;
+			for (MimePart part : everything.getParts()) {
+				if (part.spillName != null) spilled++;
+			}
+			if (spilled != 5) PUNT("Expected 5 spilled parts.  spilled=" + spilled);
+			everything.release();
+
+			PASS(SPILL);
+		} catch (TestLocalException tle) {
+			FAIL(SPILL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(SPILL,e.getMessage());
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	/**
+	 * Records everything.
+	 */
+	private class Recorder implements MimeListener {
+		StringBuffer events = new StringBuffer();
+		HashMap<String, byte[]> content = new HashMap<String, byte[]>();
+		HashMap<String, MimePart> parts = new HashMap<String, MimePart>();
+		ArrayList<String> ended = new ArrayList<String>();
+
+		public void startPart(MimePart part) throws Throwable {
+			if (events.length() > 0) events.append(',');
+			events.append(part.toString());
+			parts.put(part.id, part);
+		}
+
+		public void content(MimePart part, InputStream content) throws Throwable {
+			this.content.put(part.id, read(content));
+		}
+
+		public void endPart(MimePart part) throws Throwable {
+			ended.add(part.id);
+		}
+
+		String events() throws TestLocalException {
+			if (ended.size() != parts.size()) PUNT("Not every part ended.");
+			return events.toString();
+		}
+
+		String text(String id) throws Throwable {
+			byte[] data = content.get(id);
+			if (data == null) return null;
+			return new String(data, "ISO-8859-1");
+		}
+	}
+
+	/**
+	 * Generates random part trees and remembers what should come out.
+	 */
+	private class Generator {
+		Random rng;
+		String nl;
+		StringBuffer events = new StringBuffer();
+		HashMap<String, byte[]> content = new HashMap<String, byte[]>();
+		int boundaries;
+
+		Generator(Random rng, String nl) {
+			this.rng = rng;
+			this.nl = nl;
+		}
+
+		String message() throws Throwable {
+			StringBuffer result = new StringBuffer();
+			result.append("From: fuzz@example.com").append(nl).append("Subject: fuzz").append(nl);
+			entity(result, MimePart.ROOT_ID, 0, rng.nextInt(3) == 0 ? 2 : 0);
+			return result.toString();
+		}
+
+		/**
+		 * Add the rest of the headers and the body for an entity.
+		 */
+		void entity(StringBuffer result, String id, int depth, int choice) throws Throwable {
+			if (events.length() > 0) events.append(',');
+			switch(choice) {
+			case 0:
+				// Multipart
+				String boundary = "=_b" + (boundaries++) + "_" + rng.nextInt(1000000);
+				events.append(id).append(" multipart/mixed");
+				result.append("Content-Type: multipart/mixed;").append(nl).append(" boundary=\"").append(boundary).append('"').append(nl).append(nl);
+				if (rng.nextBoolean()) result.append("preamble").append(nl);
+				int children = 1 + rng.nextInt(4);
+				for (int child = 1; child <= children; child++) {
+					result.append("--").append(boundary).append(rng.nextInt(5) == 0 ? "  " : "").append(nl);
+					int next = 1 + rng.nextInt(depth < 3 ? 4 : 2);
+					if (next == 4) next = 0;
+					entity(result, (depth == 0) ? Integer.toString(child) : id + "." + child, depth + 1, next);
+					result.append(nl);
+				}
+				result.append("--").append(boundary).append("--").append(nl);
+				if (rng.nextBoolean()) result.append("epilogue").append(nl);
+				break;
+
+			case 1:
+				leaf(result, id);
+				break;
+
+			case 2:
+				// Encapsulated message
+				events.append(id).append(" message/rfc822");
+				result.append("Content-Type: message/rfc822").append(nl).append(nl).append("Subject: inner").append(nl);
+				entity(result, (depth == 0) ? "1" : id + ".1", depth + 1, rng.nextBoolean() ? 0 : 1);
+				break;
+
+			default:
+				leaf(result, id);
+				break;
+			}
+		}
+
+		void leaf(StringBuffer result, String id) throws Throwable {
+			byte[] data;
+			switch(rng.nextInt(3)) {
+			case 0:
+				events.append(id).append(" text/plain");
+				StringBuffer text = new StringBuffer();
+				for (int line = rng.nextInt(5); line > 0; line--) {
+					text.append(random(rng, TEXTCHARS, 0, 70));
+					if (line > 1) text.append(nl);
+				}
+				data = text.toString().getBytes("ISO-8859-1");
+				result.append("Content-Type: text/plain; charset=us-ascii").append(nl).append(nl).append(text);
+				break;
+
+			case 1:
+				events.append(id).append(" application/octet-stream");
+				data = random(rng, rng.nextInt(3000));
+				result.append("Content-Type: application/octet-stream").append(nl).append("Content-Transfer-Encoding: base64").append(nl).append(nl);
+				result.append(Base64.encodeBytes(data).replace("\n", nl));
+				break;
+
+			default:
+				events.append(id).append(" text/plain");
+				data = random(rng, rng.nextInt(2000));
+				result.append("Content-Transfer-Encoding: Quoted-Printable").append(nl).append(nl).append(quotedPrintable(rng, data, nl));
+				break;
+			}
+			content.put(id, data);
+		}
+	}
+
+	private String quotedPrintable(Random rng, byte[] data, String nl) {
+		StringBuffer result = new StringBuffer();
+		int line = 0;
+		int character;
+		for (int index = 0; index < data.length; index++) {
+			character = data[index] & 0xff;
+			if ((character >= 33)&&(character <= 126)&&(character != '=')) {
+				result.append((char)character);
+				line++;
+			} else {
+				result.append('=').append(Integer.toHexString(0x100 + character).substring(1).toUpperCase());
+				line += 3;
+			}
+			if ((line > 60)&&(rng.nextInt(4) == 0)) {
+				result.append('=').append(nl);
+				line = 0;
+			}
+		}
+		return result.toString();
+	}
+
+	private String random(Random rng, String alphabet, int min, int max) {
+		int size = min + rng.nextInt(max - min + 1);
+		StringBuffer result = new StringBuffer();
+		for (int index = 0; index < size; index++) result.append(alphabet.charAt(rng.nextInt(alphabet.length())));
+		return result.toString();
+	}
+
+	private byte[] random(Random rng, int size) {
+		byte[] result = new byte[size];
+		rng.nextBytes(result);
+		return result;
+	}
+
+	private byte[] read(InputStream ins) throws IOException, ThingsException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] chunk = new byte[1024];
+		int read = ins.read(chunk);
+		while (read >= 0) {
+			result.write(chunk, 0, read);
+			read = ins.read(chunk);
+		}
+		return result.toByteArray();
+	}
+
+}
@@ -22,7 +22,6 @@ import java.util.List;
 import things.common.ThingsException;
 import things.data.ThingsPropertyView;
 import things.data.impl.ThingsPropertyTreeBASIC;
-import things.data.processing.rfc822.HeaderProcessor;
 
 /**
  * Test subclass for the HeaderProcessor tool.<br>
@@ -34,7 +33,8 @@ import things.data.processing.rfc822.HeaderProcessor;
  * <pre>EPG - Initial - 28 JAN 07
  * </pre> 
  */
-public class TestHeaderProcessor extends HeaderProcessor {
+@SuppressWarnings("deprecation")
+public class TestHeaderProcessor extends things.data.processing.rfc822.HeaderProcessor {
 
 	// ================================================================================================================
 	// PUBLIC DATA 
@@ -0,0 +1,46 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.transport.smtp;
+
+import things.testing.unit.TestGroup;
+
+/**
+ * GROUP for data transport smtp.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 MAY 10
+ * EPG - Pooled manager - 17 MAY 10
+ * EPG - Data encoder - 19 MAY 10
+ * </pre> 
+ */
+public class GROUP_SMTP extends TestGroup {
+
+	public void group_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.transport.smtp.");
+		DECLARETEST("things.data.transport.smtp.TEST_DataEncoder","test.things.data.transport.smtp.TEST_DataEncoder");
+		DECLARETEST("things.data.transport.smtp.TEST_FancySMTPClient","test.things.data.transport.smtp.TEST_FancySMTPClient");
+		DECLARETEST("things.data.transport.smtp.TEST_PooledSMTPClientManager","test.things.data.transport.smtp.TEST_PooledSMTPClientManager");
+	}
+    
+	public void group_execute() throws Throwable {
+		RUN("things.data.transport.smtp.TEST_DataEncoder");
+		RUN("things.data.transport.smtp.TEST_FancySMTPClient");
+		RUN("things.data.transport.smtp.TEST_PooledSMTPClientManager");
+	}
+}
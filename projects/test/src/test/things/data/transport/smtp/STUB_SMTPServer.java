@@ -0,0 +1,254 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.transport.smtp;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tiny SMTP server for the client tests.  It accepts everything except recipients with "refuse" in them.  Each connection gets
+ * its own thread.
+ * <p>
+ * It can advertise CHUNKING and take BDAT.
+ * <p>
+ * If a hold is set, the replies to MAIL FROM and the RCPT TOs are not sent until that many RCPT TOs have been read.  A client
+ * that waits for each reply before sending the next command will time out.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 MAY 10
+ * EPG - CHUNKING - 19 MAY 10
+ * </pre>
+ */
+public class STUB_SMTPServer extends Thread {
+
+	// DATA
+	private ServerSocket server;
+	private boolean pipelining;
+	private boolean chunking;
+	private volatile int hold;
+	private int messages;
+	private int connections;
+	private List<String> accepted = new ArrayList<String>();
+	private String lastMessage;
+
+	/**
+	 * Constructor.  It listens on a free loopback port.
+	 * @param pipelining advertise PIPELINING.
+	 * @throws Exception
+	 */
+	public STUB_SMTPServer(boolean pipelining) throws Exception {
+		this(pipelining, false);
+	}
+
+	/**
+	 * Constructor.  It listens on a free loopback port.
+	 * @param pipelining advertise PIPELINING.
+	 * @param chunking advertise CHUNKING.
+	 * @throws Exception
+	 */
+	public STUB_SMTPServer(boolean pipelining, boolean chunking) throws Exception {
+		this.pipelining = pipelining;
+		this.chunking = chunking;
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		setDaemon(true);
+	}
+
+	/**
+	 * Hold envelope replies until this many recipients are read.  0 for no hold.
+	 * @param recipients the count.
+	 */
+	public void setHold(int recipients) {
+		hold = recipients;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public synchronized int getMessages() {
+		return messages;
+	}
+
+	public synchronized int getConnections() {
+		return connections;
+	}
+
+	/**
+	 * Recipients accepted for the last message.
+	 * @return the recipients.
+	 */
+	public synchronized List<String> getAccepted() {
+		return new ArrayList<String>(accepted);
+	}
+
+	/**
+	 * The last message received, with the dot stuffing removed and without the terminator.  BDAT messages are exactly as sent.
+	 * @return the message.
+	 */
+	public synchronized String getLastMessage() {
+		return lastMessage;
+	}
+
+	public void close() {
+		try {
+			server.close();
+		} catch (Throwable t) {
+			// Don't care.
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				final Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				synchronized(this) {
+					connections++;
+				}
+				Thread handler = new Thread() {
+					public void run() {
+						try {
+							handle(socket);
+						} catch (Throwable t) {
+							// Client went away.
+						} finally {
+							try {
+								socket.close();
+							} catch (Throwable t) {
+								// Don't care.
+							}
+						}
+					}
+				};
+				handler.setDaemon(true);
+				handler.start();
+			}
+		} catch (Throwable t) {
+			// Closed.
+		}
+	}
+
+	private void handle(Socket socket) throws Exception {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		OutputStream out = socket.getOutputStream();
+		StringBuffer held = new StringBuffer();
+		List<String> envelope = new ArrayList<String>();
+		int heldRecipients = 0;
+		StringBuffer chunks = new StringBuffer();
+		reply(out, "220 stub ready");
+
+		String line = in.readLine();
+		while (line != null) {
+			String command = line.toUpperCase();
+			if (command.startsWith("EHLO")) {
+				StringBuffer ehlo = new StringBuffer("250-stub\r\n");
+				if (pipelining) ehlo.append("250-PIPELINING\r\n");
+				if (chunking) ehlo.append("250-CHUNKING\r\n");
+				reply(out, ehlo.append("250 DSN").toString());
+
+			} else if (command.startsWith("HELO")) {
+				reply(out, "250 stub");
+
+			} else if (command.startsWith("MAIL FROM:")) {
+				envelope.clear();
+				heldRecipients = 0;
+				held.append("250 sender ok\r\n");
+
+			} else if (command.startsWith("RCPT TO:")) {
+				heldRecipients++;
+				if (command.indexOf("REFUSE") >= 0) {
+					held.append("550 no such user\r\n");
+				} else {
+					envelope.add(line.substring(8).trim());
+					held.append("250 recipient ok\r\n");
+				}
+
+			} else if (command.startsWith("DATA")) {
+				reply(out, "354 go ahead");
+				StringBuffer message = new StringBuffer();
+				line = in.readLine();
+				while ((line != null)&&(!line.equals("."))) {
+					if (line.startsWith(".")) line = line.substring(1);
+					message.append(line).append("\r\n");
+					line = in.readLine();
+				}
+				synchronized(this) {
+					messages++;
+					accepted = new ArrayList<String>(envelope);
+					lastMessage = message.toString();
+				}
+				reply(out, "250 queued");
+
+			} else if (command.startsWith("BDAT ")) {
+				String[] parts = command.split(" ");
+				char[] chunk = new char[Integer.parseInt(parts[1])];
+				int size = 0;
+				while (size < chunk.length) {
+					int count = in.read(chunk, size, chunk.length - size);
+					if (count < 0) return;
+					size += count;
+				}
+				chunks.append(chunk);
+				if ((parts.length > 2)&&(parts[2].equals("LAST"))) {
+					synchronized(this) {
+						messages++;
+						accepted = new ArrayList<String>(envelope);
+						lastMessage = chunks.toString();
+					}
+					chunks.setLength(0);
+					reply(out, "250 queued");
+				} else {
+					reply(out, "250 chunk ok");
+				}
+
+			} else if (command.startsWith("RSET")) {
+				envelope.clear();
+				chunks.setLength(0);
+				reply(out, "250 reset");
+
+			} else if (command.startsWith("QUIT")) {
+				reply(out, "221 bye");
+				return;
+
+			} else {
+				reply(out, "500 what");
+			}
+
+			// Release the envelope replies.
+			if ((held.length() > 0)&&((hold < 1)||(heldRecipients >= hold))) {
+				out.write(held.toString().getBytes("ISO-8859-1"));
+				out.flush();
+				held.setLength(0);
+			}
+			line = in.readLine();
+		}
+	}
+
+	private void reply(OutputStream out, String text) throws Exception {
+		out.write((text + "\r\n").getBytes("ISO-8859-1"));
+		out.flush();
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.transport.smtp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import things.data.transport.smtp.DataEncoder;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+
+/**
+ * TEST the DATA encoder's dot stuffing and chunking.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 19 MAY 10
+ * </pre>
+ */
+public class TEST_DataEncoder extends Test {
+
+	// TESTS
+	public final static String STUFFING = "Dot stuffing";
+	public final static String TERMINATOR = "Terminator";
+	public final static String SPLITS = "Buffer and stream splits";
+	public final static String FUZZ = "Fuzz";
+	public final static String CHUNKS = "Chunks";
+
+	public final static String[] CASES = {
+		".",
+		"..",
+		".start\r\n",
+		"a\r\n.b\r\n..c\r\n",
+		"a\r\n.\r\n",
+		"a\n.b\r.c\r\r\n.d",
+		"\r\n\r\n.\r\n.",
+		"no dots at all",
+		"end with a dot\r\n."
+	};
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.transport.smtp.TEST_DataEncoder");
+		DECLARE(STUFFING);
+		DECLARE(TERMINATOR);
+		DECLARE(SPLITS);
+		DECLARE(FUZZ);
+		DECLARE(CHUNKS);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == STUFFING ======================================================================================================================
+		try {
+			for (int index = 0; index < CASES.length; index++) {
+				check(new DataEncoder(), CASES[index].getBytes("ISO-8859-1"), 1, "case " + index);
+			}
+			PASS(STUFFING);
+		} catch (TestLocalException tle) {
+			FAIL(STUFFING,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(STUFFING,e.getMessage());
+		}
+
+		// == TERMINATOR ====================================================================================================================
+		try {
+			if (!encode(new DataEncoder(), "abc").equals("abc\r\n.\r\n")) PUNT("No line ending not terminated correctly.");
+			if (!encode(new DataEncoder(), "abc\r\n").equals("abc\r\n.\r\n")) PUNT("Line ending not terminated correctly.");
+			if (!encode(new DataEncoder(), "abc\r").equals("abc\r\r\n.\r\n")) PUNT("Bare CR not terminated correctly.");
+			if (!encode(new DataEncoder(), "").equals(".\r\n")) PUNT("Empty not terminated correctly.");
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long count = new DataEncoder().writeData(out, new ByteArrayInputStream(".a\r\nb".getBytes()));
+			if (count != out.size()) PUNT("Count doesn't match what was written.  count=" + count + " size=" + out.size());
+			PASS(TERMINATOR);
+		} catch (TestLocalException tle) {
+			FAIL(TERMINATOR,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(TERMINATOR,e.getMessage());
+		}
+
+		// == SPLITS ========================================================================================================================
+		try {
+			DataEncoder[] encoders = new DataEncoder[] { new DataEncoder(1), new DataEncoder(2), new DataEncoder(3), new DataEncoder(7) };
+			for (int index = 0; index < CASES.length; index++) {
+				byte[] data = CASES[index].getBytes("ISO-8859-1");
+				for (int encoder = 0; encoder < encoders.length; encoder++) {
+					for (int split = 0; split <= data.length; split++) {
+						check(encoders[encoder], data, split, "case " + index + " encoder " + encoder);
+					}
+				}
+			}
+			PASS(SPLITS);
+		} catch (TestLocalException tle) {
+			FAIL(SPLITS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(SPLITS,e.getMessage());
+		}
+
+		// == FUZZ ==========================================================================================================================
+		try {
+			Random random = new Random(19);
+			byte[] alphabet = ".\r\na".getBytes("ISO-8859-1");
+			DataEncoder small = new DataEncoder(5);
+			DataEncoder normal = new DataEncoder();
+			for (int round = 0; round < 500; round++) {
+				byte[] data = new byte[random.nextInt(200)];
+				for (int index = 0; index < data.length; index++) data[index] = alphabet[random.nextInt(alphabet.length)];
+				int split = (data.length > 0) ? random.nextInt(data.length) : 0;
+				check(small, data, split, "round " + round);
+				check(normal, data, split, "round " + round);
+			}
+			PASS(FUZZ);
+		} catch (TestLocalException tle) {
+			FAIL(FUZZ,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(FUZZ,e.getMessage());
+		}
+
+		// == CHUNKS ========================================================================================================================
+		try {
+			DataEncoder encoder = new DataEncoder(4);
+			encoder.startChunks(new ByteArrayInputStream("abcdef".getBytes()), null, new ByteArrayInputStream("gh".getBytes()));
+			if (!chunk(encoder).equals("abcd")) PUNT("First chunk wrong.");
+			if (!chunk(encoder).equals("efgh")) PUNT("Chunk across streams wrong.");
+			if (!chunk(encoder).equals("")) PUNT("Exact multiple did not end with an empty chunk.");
+			
+			encoder.startChunks(new ByteArrayInputStream("abcdef".getBytes()));
+			chunk(encoder);
+			if (!chunk(encoder).equals("ef")) PUNT("Short last chunk wrong.");
+			PASS(CHUNKS);
+		} catch (TestLocalException tle) {
+			FAIL(CHUNKS,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CHUNKS,e.getMessage());
+		}
+
+	}
+
+	// == TOOLS =================================================================================================================================
+
+	/**
+	 * Encode split into two streams with a null between and compare to the simple byte at a time version.
+	 */
+	private void check(DataEncoder encoder, byte[] data, int split, String name) throws Throwable {
+		split = Math.min(split, data.length);
+		InputStream first = new ByteArrayInputStream(data, 0, split);
+		InputStream second = new ByteArrayInputStream(data, split, data.length - split);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long count = encoder.writeData(out, first, null, second);
+		String expected = reference(data);
+		String actual = new String(out.toByteArray(), "ISO-8859-1");
+		if (!expected.equals(actual)) PUNT("Encoding differs.  " + name + " split=" + split);
+		if (count != out.size()) PUNT("Count wrong.  " + name);
+	}
+
+	/**
+	 * The plain version.  A dot at the start of the data or after a CRLF is doubled.
+	 */
+	private String reference(byte[] data) throws Throwable {
+		String text = new String(data, "ISO-8859-1");
+		StringBuffer result = new StringBuffer();
+		for (int index = 0; index < text.length(); index++) {
+			char c = text.charAt(index);
+			if ((c == '.')&&((index == 0)||((index > 1)&&(text.charAt(index - 2) == '\r')&&(text.charAt(index - 1) == '\n')))) result.append('.');
+			result.append(c);
+		}
+		if ((text.length() > 0)&&(!text.endsWith("\r\n"))) result.append("\r\n");
+		return result.append(".\r\n").toString();
+	}
+
+	private String encode(DataEncoder encoder, String text) throws Throwable {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.writeData(out, new ByteArrayInputStream(text.getBytes("ISO-8859-1")));
+		return new String(out.toByteArray(), "ISO-8859-1");
+	}
+
+	private String chunk(DataEncoder encoder) throws Throwable {
+		int size = encoder.nextChunk();
+		return new String(encoder.getBuffer(), 0, size, "ISO-8859-1");
+	}
+
+}
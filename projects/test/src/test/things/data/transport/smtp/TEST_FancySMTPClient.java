@@ -0,0 +1,338 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.transport.smtp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import test.things.STUB_Logger;
+import things.common.impl.StringPosterBitBucket;
+import things.data.transport.smtp.CleanSMTPClient;
+import things.data.transport.smtp.FancySMTPClient;
+import things.data.transport.smtp.Reply;
+import things.data.transport.smtp.SMTPClient;
+import things.data.transport.smtp.SMTPClientManager;
+import things.data.transport.smtp.SMTPState;
+import things.data.transport.smtp.TolerantSMTPClientManager;
+import things.data.transport.smtp.TouchySMTPClientManager;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.io.Logger;
+
+/**
+ * TEST the SMTP clients' envelopes, pipelined and not, against a stub server.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 MAY 10
+ * EPG - Dot stuffing, CHUNKING and throughput - 19 MAY 10
+ * </pre>
+ */
+public class TEST_FancySMTPClient extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String PIPELINED = "Pipelined envelope";
+	public final static String REFUSED = "All recipients refused";
+	public final static String SEQUENTIAL = "Sequential envelope";
+	public final static String GROUPS = "Pipeline groups";
+	public final static String MANAGER = "Multi-recipient submit";
+	public final static String CHUNKING = "Chunking";
+	public final static String THROUGHPUT = "Throughput";
+
+	// Configuration
+	public final static int TIMEOUT = 3000;
+	public final static String SENDER = "sender@test.com";
+	public final static String MESSAGE = "Subject: test\r\n\r\nLine one\r\n.dotted line\r\n";
+	public final static int THROUGHPUT_MESSAGES = 200;
+	public final static int THROUGHPUT_LINES = 1000;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.transport.smtp.TEST_FancySMTPClient");
+		DECLARE(SETUP);
+		DECLARE(PIPELINED);
+		DECLARE(REFUSED);
+		DECLARE(SEQUENTIAL);
+		DECLARE(GROUPS);
+		DECLARE(MANAGER);
+		DECLARE(CHUNKING);
+		DECLARE(THROUGHPUT);
+	}
+
+	public void test_execute() throws Throwable {
+
+		Logger logger = null;
+		STUB_SMTPServer pipeliningServer = null;
+		STUB_SMTPServer plainServer = null;
+		STUB_SMTPServer chunkingServer = null;
+
+		// == SETUP =========================================================================================================================
+		try {
+			logger = new STUB_Logger(new StringPosterBitBucket());
+			pipeliningServer = new STUB_SMTPServer(true);
+			pipeliningServer.start();
+			plainServer = new STUB_SMTPServer(false);
+			plainServer.start();
+			chunkingServer = new STUB_SMTPServer(true, true);
+			chunkingServer.start();
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		try {
+
+			// == PIPELINED =====================================================================================================================
+			try {
+				// The server won't answer until it has all three recipients, so this only works if they were pipelined.
+				pipeliningServer.setHold(3);
+				FancySMTPClient client = open(logger, pipeliningServer);
+				if (!client.extensionPresent(FancySMTPClient.EXTENSION_PIPELINING)) PUNT("PIPELINING not found.");
+				
+				Reply[] replies = client.envelope(SENDER, null, "a@test.com", "refuse@test.com", "c@test.com");
+				if (replies.length != 4) PUNT("Wrong number of replies.  count=" + replies.length);
+				if (replies[0].code != 250) PUNT("Sender not accepted.  code=" + replies[0].code);
+				if (replies[1].code != 250) PUNT("First recipient not accepted.");
+				if (replies[2].code != 550) PUNT("Refused recipient not refused.  code=" + replies[2].code);
+				if (replies[3].code != 250) PUNT("Last recipient not accepted.");
+				if (client.getState() != SMTPState.RCPTTO_DONE) PUNT("Not RCPTTO_DONE.  state=" + client.getState().name());
+				
+				Reply reply = client.sendData(new ByteArrayInputStream(MESSAGE.getBytes()));
+				if (reply.code != 250) PUNT("Data not accepted.  code=" + reply.code);
+				if (!pipeliningServer.getAccepted().equals(Arrays.asList("<a@test.com>", "<c@test.com>"))) PUNT("Server got the wrong recipients.  " + pipeliningServer.getAccepted());
+				if (!pipeliningServer.getLastMessage().startsWith(MESSAGE)) PUNT("Message damaged.");
+				
+				client.reset();
+				client.done();
+				PASS(PIPELINED);
+			} catch (TestLocalException tle) {
+				FAIL(PIPELINED,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(PIPELINED,e.getMessage());
+			}
+
+			// == REFUSED =======================================================================================================================
+			try {
+				pipeliningServer.setHold(2);
+				FancySMTPClient client = open(logger, pipeliningServer);
+				Reply[] replies = client.envelope(SENDER, null, "refuse1@test.com", "refuse2@test.com");
+				if ((replies[1].code != 550)||(replies[2].code != 550)) PUNT("Recipients not refused.");
+				if (client.getState() != SMTPState.MAILFROM_DONE) PUNT("Not MAILFROM_DONE.  state=" + client.getState().name());
+				
+				// Another recipient can still be added.
+				if (client.recipient("b@test.com").code != 250) PUNT("Additional recipient not accepted.");
+				if (client.getState() != SMTPState.RCPTTO_DONE) PUNT("Not RCPTTO_DONE after additional recipient.");
+				
+				client.reset();
+				if (client.getState() != SMTPState.LOGIN_COMPLETE) PUNT("Reset did not go to LOGIN_COMPLETE.");
+				client.done();
+				PASS(REFUSED);
+			} catch (TestLocalException tle) {
+				FAIL(REFUSED,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(REFUSED,e.getMessage());
+			}
+
+			// == SEQUENTIAL ====================================================================================================================
+			try {
+				FancySMTPClient client = open(logger, plainServer);
+				if (client.extensionPresent(FancySMTPClient.EXTENSION_PIPELINING)) PUNT("PIPELINING found where not advertised.");
+				check(client, "Fancy");
+				client.done();
+				
+				CleanSMTPClient clean = new CleanSMTPClient(logger, "clean");
+				clean.setTimeout(TIMEOUT);
+				clean.connect("127.0.0.1", pipeliningServer.getPort());
+				clean.login("test");
+				pipeliningServer.setHold(0);
+				check(clean, "Clean");
+				clean.done();
+				PASS(SEQUENTIAL);
+			} catch (TestLocalException tle) {
+				FAIL(SEQUENTIAL,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(SEQUENTIAL,e.getMessage());
+			}
+
+			// == GROUPS ========================================================================================================================
+			try {
+				pipeliningServer.setHold(0);
+				FancySMTPClient client = open(logger, pipeliningServer);
+				String[] recipients = new String[FancySMTPClient.PIPELINE_GROUP_LIMIT * 2 + 50];
+				for (int index = 0; index < recipients.length; index++) recipients[index] = "r" + index + "@test.com";
+				Reply[] replies = client.envelope(SENDER, null, recipients);
+				for (int index = 0; index < replies.length; index++) {
+					if ((replies[index] == null)||(replies[index].code != 250)) PUNT("Reply missing or bad.  index=" + index);
+				}
+				if (client.sendData(new ByteArrayInputStream(MESSAGE.getBytes())).code != 250) PUNT("Data not accepted.");
+				if (pipeliningServer.getAccepted().size() != recipients.length) PUNT("Server got the wrong number of recipients.");
+				client.done();
+				PASS(GROUPS);
+			} catch (TestLocalException tle) {
+				FAIL(GROUPS,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(GROUPS,e.getMessage());
+			}
+
+			// == MANAGER =======================================================================================================================
+			try {
+				pipeliningServer.setHold(3);
+				List<String> recipients = new ArrayList<String>();
+				recipients.add("a@test.com");
+				recipients.add("refuse@test.com");
+				recipients.add("c@test.com");
+				
+				TolerantSMTPClientManager tolerant = new TolerantSMTPClientManager();
+				tolerant.init(logger, "tolerant", "127.0.0.1", pipeliningServer.getPort(), false, true);
+				tolerant.setTimeout(TIMEOUT);
+				submit(tolerant, recipients, pipeliningServer, "Tolerant");
+				
+				TouchySMTPClientManager touchy = new TouchySMTPClientManager();
+				touchy.init(logger, "touchy", "127.0.0.1", pipeliningServer.getPort(), false, true);
+				touchy.setTimeout(TIMEOUT);
+				submit(touchy, recipients, pipeliningServer, "Touchy");
+				
+				// Everyone refused is a failure.
+				pipeliningServer.setHold(0);
+				try {
+					tolerant.submit(SENDER, Arrays.asList("refuse@test.com"), new ByteArrayInputStream(MESSAGE.getBytes()));
+					PUNT("Submit with every recipient refused did not fail.");
+				} catch (TestLocalException tle) {
+					throw tle;
+				} catch (Throwable t) {
+					// Expected.
+				}
+				
+				PASS(MANAGER);
+			} catch (TestLocalException tle) {
+				FAIL(MANAGER,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(MANAGER,e.getMessage());
+			}
+
+			// == CHUNKING ======================================================================================================================
+			try {
+				FancySMTPClient client = open(logger, chunkingServer);
+				if (!client.extensionPresent(FancySMTPClient.EXTENSION_CHUNKING)) PUNT("CHUNKING not found.");
+				
+				// Small, nothing changed.
+				client.envelope(SENDER, null, "a@test.com");
+				Reply reply = client.sendData(new ByteArrayInputStream(MESSAGE.getBytes()));
+				if (reply.code != 250) PUNT("Chunked data not accepted.  code=" + reply.code);
+				if (!chunkingServer.getLastMessage().equals(MESSAGE)) PUNT("Chunked message changed.");
+				client.reset();
+				
+				// Several chunks, split over streams.
+				byte[] big = bigMessage();
+				client.envelope(SENDER, null, "a@test.com");
+				reply = client.sendData(new ByteArrayInputStream(big, 0, 1000), null, new ByteArrayInputStream(big, 1000, big.length - 1000));
+				if (reply.code != 250) PUNT("Big chunked data not accepted.  code=" + reply.code);
+				if (!chunkingServer.getLastMessage().equals(new String(big, "ISO-8859-1"))) PUNT("Big chunked message changed.");
+				if (reply.size < big.length) PUNT("Size not reported.");
+				client.done();
+				PASS(CHUNKING);
+			} catch (TestLocalException tle) {
+				FAIL(CHUNKING,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(CHUNKING,e.getMessage());
+			}
+
+			// == THROUGHPUT ====================================================================================================================
+			try {
+				byte[] big = bigMessage();
+				
+				CleanSMTPClient clean = new CleanSMTPClient(logger, "clean");
+				clean.setTimeout(TIMEOUT);
+				clean.connect("127.0.0.1", plainServer.getPort());
+				clean.login("test");
+				String dataRate = throughput(clean, big);
+				clean.done();
+				if (!plainServer.getLastMessage().equals(new String(big, "ISO-8859-1"))) PUNT("DATA message damaged.");
+				
+				FancySMTPClient fancy = open(logger, chunkingServer);
+				String chunkRate = throughput(fancy, big);
+				fancy.done();
+				if (!chunkingServer.getLastMessage().equals(new String(big, "ISO-8859-1"))) PUNT("BDAT message damaged.");
+				
+				PASS(THROUGHPUT, "DATA " + dataRate + " BDAT " + chunkRate);
+			} catch (TestLocalException tle) {
+				FAIL(THROUGHPUT,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(THROUGHPUT,e.getMessage());
+			}
+
+		} finally {
+			if (pipeliningServer != null) pipeliningServer.close();
+			if (plainServer != null) plainServer.close();
+			if (chunkingServer != null) chunkingServer.close();
+		}
+
+	}
+
+	// == TOOLS =================================================================================================================================
+
+	private FancySMTPClient open(Logger logger, STUB_SMTPServer server) throws Throwable {
+		FancySMTPClient client = new FancySMTPClient(logger, "fancy");
+		client.setTimeout(TIMEOUT);
+		client.connect("127.0.0.1", server.getPort());
+		if (client.login("test").code != 250) PUNT("Login failed.");
+		return client;
+	}
+
+	private void check(SMTPClient client, String name) throws Throwable {
+		Reply[] replies = client.envelope(SENDER, null, "a@test.com", "refuse@test.com");
+		if ((replies[0].code != 250)||(replies[1].code != 250)||(replies[2].code != 550)) PUNT(name + " envelope replies wrong.");
+		if (client.getState() != SMTPState.RCPTTO_DONE) PUNT(name + " not RCPTTO_DONE.");
+		if (client.sendData(new ByteArrayInputStream(MESSAGE.getBytes())).code != 250) PUNT(name + " data not accepted.");
+	}
+
+	private byte[] bigMessage() throws Throwable {
+		StringBuffer text = new StringBuffer("Subject: big\r\n\r\n");
+		for (int index = 0; index < THROUGHPUT_LINES; index++) {
+			if ((index % 10) == 0) text.append('.');
+			text.append("Line number ").append(index).append(" of the message body, long enough to look like real mail.\r\n");
+		}
+		return text.toString().getBytes("ISO-8859-1");
+	}
+
+	/**
+	 * Send the message over and over.
+	 * @return the rate as text.
+	 */
+	private String throughput(SMTPClient client, byte[] message) throws Throwable {
+		long start = System.currentTimeMillis();
+		for (int count = 0; count < THROUGHPUT_MESSAGES; count++) {
+			client.envelope(SENDER, null, "a@test.com");
+			if (client.sendData(new ByteArrayInputStream(message)).code != 250) PUNT("Throughput message not accepted.");
+			client.reset();
+		}
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		return (THROUGHPUT_MESSAGES * 1000L / millis) + " msgs/sec " + ((long)THROUGHPUT_MESSAGES * message.length / 1024 / millis) + " KB/ms";
+	}
+
+	private void submit(SMTPClientManager manager, List<String> recipients, STUB_SMTPServer server, String name) throws Throwable {
+		Reply reply = manager.submit(SENDER, recipients, new ByteArrayInputStream(MESSAGE.getBytes()));
+		if (reply.code != 250) PUNT(name + " submit not accepted.  code=" + reply.code);
+		if ((reply.recipients == null)||(reply.recipients.length != 3)) PUNT(name + " recipient replies missing.");
+		if (reply.recipients[1].code != 550) PUNT(name + " refused recipient not reported.");
+		if (server.getAccepted().size() != 2) PUNT(name + " server got the wrong recipients.");
+	}
+
+}
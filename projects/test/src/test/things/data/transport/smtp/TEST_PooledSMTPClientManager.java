@@ -0,0 +1,198 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.data.transport.smtp;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import test.things.STUB_Logger;
+import things.common.ThingsNamespace;
+import things.common.impl.StringPosterBitBucket;
+import things.data.Data;
+import things.data.transport.smtp.PooledSMTPClientManager;
+import things.data.transport.smtp.Reply;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thing.Metrics;
+import things.thing.RESULT;
+import things.thinger.io.Logger;
+
+/**
+ * TEST the pooled client manager against a stub server.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 17 MAY 10
+ * </pre>
+ */
+public class TEST_PooledSMTPClientManager extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String PARALLEL = "Parallel submit";
+	public final static String STREAM_MAX = "Stream max";
+	public final static String NOT_STREAMING = "Not streaming";
+	public final static String MEASURED = "Measured submit";
+
+	// Configuration
+	public final static int TIMEOUT = 5000;
+	public final static int THREADS = 8;
+	public final static int PER_THREAD = 10;
+	public final static int POOL = 3;
+	public final static String SENDER = "sender@test.com";
+	public final static String RECIPIENT = "recipient@test.com";
+	public final static String MESSAGE = "Subject: test\r\n\r\nLine one\r\n";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.data.transport.smtp.TEST_PooledSMTPClientManager");
+		DECLARE(SETUP);
+		DECLARE(PARALLEL);
+		DECLARE(STREAM_MAX);
+		DECLARE(NOT_STREAMING);
+		DECLARE(MEASURED);
+	}
+
+	public void test_execute() throws Throwable {
+
+		Logger logger = null;
+		STUB_SMTPServer server = null;
+
+		// == SETUP =========================================================================================================================
+		try {
+			logger = new STUB_Logger(new StringPosterBitBucket());
+			server = new STUB_SMTPServer(true);
+			server.start();
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		try {
+
+			// == PARALLEL ======================================================================================================================
+			try {
+				final PooledSMTPClientManager manager = manager(logger, server, POOL, true);
+				final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+				Thread[] threads = new Thread[THREADS];
+				for (int index = 0; index < threads.length; index++) {
+					threads[index] = new Thread() {
+						public void run() {
+							try {
+								for (int count = 0; count < PER_THREAD; count++) {
+									Reply reply = manager.submit(SENDER, RECIPIENT, new ByteArrayInputStream(MESSAGE.getBytes()));
+									if (reply.code != 250) errors.add("code=" + reply.code);
+								}
+							} catch (Throwable t) {
+								errors.add(t.getMessage());
+							}
+						}
+					};
+					threads[index].start();
+				}
+				for (int index = 0; index < threads.length; index++) threads[index].join();
+				
+				if (errors.size() > 0) PUNT("Submits failed.  first=" + errors.get(0));
+				if (server.getMessages() != THREADS * PER_THREAD) PUNT("Server got the wrong number of messages.  count=" + server.getMessages());
+				if (server.getConnections() > POOL) PUNT("Too many connections.  count=" + server.getConnections());
+				
+				RESULT report = manager.report();
+				Metrics total = report.getTypedThing();
+				if ((total.count != THREADS * PER_THREAD)||(total.pass != THREADS * PER_THREAD)) PUNT("Report counts wrong.  count=" + total.count + " pass=" + total.pass);
+				if (report.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_RATE) == null) PUNT("No rate reported.");
+				
+				List<RESULT> connections = manager.getConnectionReports();
+				if ((connections.size() < 1)||(connections.size() > POOL)) PUNT("Wrong number of connection reports.  count=" + connections.size());
+				int sum = 0;
+				for (RESULT connection : connections) sum += connection.getTypedThing().count;
+				if (sum != THREADS * PER_THREAD) PUNT("Connection reports don't add up.  sum=" + sum);
+				
+				manager.disconnect();
+				PASS(PARALLEL, "rate=" + report.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_RATE).getValue());
+			} catch (TestLocalException tle) {
+				FAIL(PARALLEL,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(PARALLEL,e.getMessage());
+			}
+
+			// == STREAM MAX ====================================================================================================================
+			try {
+				PooledSMTPClientManager manager = manager(logger, server, 1, true);
+				manager.setStreamMax(5);
+				int before = server.getConnections();
+				for (int count = 0; count < 12; count++) {
+					if (manager.submit(SENDER, RECIPIENT, new ByteArrayInputStream(MESSAGE.getBytes())).code != 250) PUNT("Submit failed.");
+				}
+				if (server.getConnections() - before != 3) PUNT("Connection not reused up to the stream max.  connections=" + (server.getConnections() - before));
+				manager.disconnect();
+				PASS(STREAM_MAX);
+			} catch (TestLocalException tle) {
+				FAIL(STREAM_MAX,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(STREAM_MAX,e.getMessage());
+			}
+
+			// == NOT STREAMING =================================================================================================================
+			try {
+				PooledSMTPClientManager manager = manager(logger, server, 1, false);
+				int before = server.getConnections();
+				for (int count = 0; count < 3; count++) {
+					if (manager.submit(SENDER, RECIPIENT, new ByteArrayInputStream(MESSAGE.getBytes())).code != 250) PUNT("Submit failed.");
+				}
+				if (server.getConnections() - before != 3) PUNT("Connection reused when not streaming.");
+				PASS(NOT_STREAMING);
+			} catch (TestLocalException tle) {
+				FAIL(NOT_STREAMING,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(NOT_STREAMING,e.getMessage());
+			}
+
+			// == MEASURED ======================================================================================================================
+			try {
+				PooledSMTPClientManager manager = manager(logger, server, 2, true);
+				RESULT result = manager.meassuredSubmit(SENDER, RECIPIENT, "1", new ByteArrayInputStream(MESSAGE.getBytes()));
+				if (result.getType() != Data.Type.PASS) PUNT("Measured submit did not pass.  type=" + result.getType());
+				result = manager.meassuredSubmit(SENDER, "refuse@test.com", "2", new ByteArrayInputStream(MESSAGE.getBytes()));
+				if (result.getType() == Data.Type.PASS) PUNT("Refused submit passed.");
+				Metrics total = manager.report().getTypedThing();
+				if ((total.count != 2)||(total.pass != 1)) PUNT("Report counts wrong.  count=" + total.count + " pass=" + total.pass);
+				manager.disconnect();
+				PASS(MEASURED);
+			} catch (TestLocalException tle) {
+				FAIL(MEASURED,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(MEASURED,e.getMessage());
+			}
+
+		} finally {
+			if (server != null) server.close();
+		}
+
+	}
+
+	// == TOOLS =================================================================================================================================
+
+	private PooledSMTPClientManager manager(Logger logger, STUB_SMTPServer server, int size, boolean streaming) throws Throwable {
+		PooledSMTPClientManager manager = new PooledSMTPClientManager(size);
+		manager.init(logger, "pool", "127.0.0.1", server.getPort(), streaming, true);
+		manager.setTimeout(TIMEOUT);
+		return manager;
+	}
+
+}
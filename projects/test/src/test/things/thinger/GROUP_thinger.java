@@ -25,6 +25,8 @@ import things.testing.unit.TestGroup;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 20 DEC 05
+ * EPG - Add service - 10 MAY 10
+ * EPG - Add kernel - 25 JUN 10
  * </pre>
  */
 public class GROUP_thinger extends TestGroup {
@@ -32,11 +34,15 @@ public class GROUP_thinger extends TestGroup {
 	public void group_prepare() throws Throwable {
 		SET_LONG_NAME("thinger.");
 	    DECLAREGROUP("thinger.io.GROUP_io","test.things.thinger.io.GROUP_io");
+	    DECLAREGROUP("thinger.service.GROUP_service","test.things.thinger.service.GROUP_service");
+	    DECLAREGROUP("thinger.kernel.GROUP_kernel","test.things.thinger.kernel.GROUP_kernel");
 	}
     
 	public void group_execute() throws Throwable {
 		THE_BUCK_STOPS_HERE();
 		RUNGROUP("thinger.io.GROUP_io");
+		RUNGROUP("thinger.service.GROUP_service");
+		RUNGROUP("thinger.kernel.GROUP_kernel");
 	}
 	
 }
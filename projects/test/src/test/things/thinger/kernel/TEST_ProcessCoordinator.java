@@ -0,0 +1,531 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.kernel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import test.things.STUB_SystemSuperInterface;
+import things.common.ThingsException;
+import things.common.WhoAmI;
+import things.common.impl.StringPosterBitBucket;
+import things.common.impl.WhoAmISimple;
+import things.data.ThingsPropertyView;
+import things.data.tables.Table;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.SystemException;
+import things.thinger.kernel.Clearance;
+import things.thinger.kernel.PCB;
+import things.thinger.kernel.ProcessCoordinator;
+import things.thinger.kernel.ThingsProcess;
+import things.thinger.service.command.local.LocalCommandDispatcher;
+
+/**
+ * TEST the ProcessCoordinator caller identity, clearance checks and process table.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 25 JUN 10
+ * EPG - Process table - 28 JUN 10
+ * EPG - Thread binding - 30 JUN 10
+ * EPG - Helper threads are not the process - 30 JUN 10
+ * </pre>
+ */
+public class TEST_ProcessCoordinator extends Test {
+
+	// TESTS
+	public final static String IDENTITY = "Caller identity";
+	public final static String BINDING = "Thread binding";
+	public final static String TABLE = "Process table";
+	public final static String REMOVED = "Removed caller";
+	public final static String CONCURRENT = "Concurrent table";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static int CALLS = 1000000;
+	public final static int THREADS = 4;
+	public final static int CHURN = 200;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.kernel.TEST_ProcessCoordinator");
+		DECLARE(IDENTITY);
+		DECLARE(BINDING);
+		DECLARE(TABLE);
+		DECLARE(REMOVED);
+		DECLARE(CONCURRENT);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == IDENTITY ======================================================================================================================
+		try {
+			final ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			
+			final Worker high = new Worker("high");
+			high.body = new Body() {
+				public void run() throws Throwable {
+					for (int pass = 0; pass < 2; pass++) {
+						if (coordinator.callerId() != high.getProcessId()) PUNT("Process was not itself.");
+						if (!coordinator.checkClearance(Clearance.PRIVILEGED)) PUNT("Process did not pass its own clearance.");
+						if (coordinator.requireClearance(Clearance.PUBLIC, "test") != high.getProcessId()) PUNT("requireClearance gave the wrong id.");
+						expect(SystemException.PROCESS_ERROR_CREDENTIAL_FAILED, new Body() {
+							public void run() throws Throwable {
+								coordinator.requireClearance(Clearance.EXTREME, "test");
+							}
+						});
+					}
+					
+					// A helper thread it starts is not the process, and neither are the threads the helper starts.
+					final Throwable[] helperFault = new Throwable[2];
+					Thread helper = new Thread() {
+						public void run() {
+							try {
+								coordinator.callerId();
+							} catch (Throwable t) {
+								helperFault[0] = t;
+							}
+							Thread grandchild = new Thread() {
+								public void run() {
+									try {
+										coordinator.checkClearance(Clearance.FLOOR);
+									} catch (Throwable t) {
+										helperFault[1] = t;
+									}
+								}
+							};
+							grandchild.start();
+							try {
+								grandchild.join();
+							} catch (InterruptedException ie) {
+								// Checked below
+							}
+						}
+					};
+					helper.start();
+					helper.join();
+					for (Throwable fault : helperFault) {
+						if ((!(fault instanceof SystemException))||(((SystemException)fault).numeric != SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED)) PUNT("Helper thread was recognized as its process.");
+					}
+					
+					// A process it makes is itself.
+					final Worker child = new Worker("child");
+					child.body = new Body() {
+						public void run() throws Throwable {
+							if (coordinator.callerId() != child.getProcessId()) PUNT("Child process acted for its parent.");
+							if (coordinator.checkClearance(Clearance.PRIVILEGED)) PUNT("Child process got its parent's clearance.");
+						}
+					};
+					coordinator.registerProcess(child, Clearance.PUBLIC, properties, properties);
+					child.go();
+				}
+			};
+			coordinator.registerProcess(high, Clearance.PRIVILEGED, properties, properties);
+			high.go();
+			
+			// Strangers are not recognized.
+			expect(SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED, new Body() {
+				public void run() throws Throwable {
+					coordinator.callerId();
+				}
+			});
+			expect(SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED, new Body() {
+				public void run() throws Throwable {
+					coordinator.checkClearance(Clearance.FLOOR);
+				}
+			});
+			PASS(IDENTITY);
+		} catch (TestLocalException tle) {
+			FAIL(IDENTITY, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(IDENTITY, e.getMessage());
+		}
+
+		// == BINDING =======================================================================================================================
+		try {
+			final ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			
+			// Only a process can get one.
+			expect(SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED, new Body() {
+				public void run() throws Throwable {
+					coordinator.getBinding();
+				}
+			});
+			
+			final ProcessCoordinator.Binding[] binding = new ProcessCoordinator.Binding[1];
+			final Worker owner = new Worker("owner");
+			owner.body = new Body() {
+				public void run() throws Throwable {
+					binding[0] = coordinator.getBinding();
+				}
+			};
+			coordinator.registerProcess(owner, Clearance.PRIVILEGED, properties, properties);
+			owner.go();
+			if (binding[0].getProcessId() != owner.getProcessId()) PUNT("Binding is for the wrong process.");
+			
+			// A bound thread acts for the process until it unbinds.
+			final WhoAmI[] seen = new WhoAmI[1];
+			final boolean[] passed = new boolean[1];
+			final Throwable[] afterwards = new Throwable[1];
+			Thread helper = new Thread() {
+				public void run() {
+					binding[0].bind();
+					try {
+						seen[0] = coordinator.callerId();
+						passed[0] = coordinator.checkClearance(Clearance.PRIVILEGED);
+					} catch (Throwable t) {
+						// Checked below
+					}
+					binding[0].unbind();
+					try {
+						coordinator.callerId();
+					} catch (Throwable t) {
+						afterwards[0] = t;
+					}
+				}
+			};
+			helper.start();
+			helper.join();
+			if (seen[0] != owner.getProcessId()) PUNT("Bound thread did not act for the process.");
+			if (!passed[0]) PUNT("Bound thread did not get the process clearance.");
+			if ((!(afterwards[0] instanceof SystemException))||(((SystemException)afterwards[0]).numeric != SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED)) PUNT("Unbound thread was still recognized.");
+			
+			// A process can't be bound to another.
+			final Worker other = new Worker("other");
+			other.body = new Body() {
+				public void run() throws Throwable {
+					binding[0].bind();
+					if (coordinator.callerId() != other.getProcessId()) PUNT("Process was bound to another process.");
+					if (coordinator.checkClearance(Clearance.PRIVILEGED)) PUNT("Process got another process's clearance by binding.");
+				}
+			};
+			coordinator.registerProcess(other, Clearance.PUBLIC, properties, properties);
+			other.go();
+			
+			// Dispatcher workers act for the process that gives them the binding.
+			LocalCommandDispatcher dispatcher = new LocalCommandDispatcher("bound", 2);
+			dispatcher.start(binding[0]);
+			final CountDownLatch done = new CountDownLatch(2);
+			final WhoAmI[] ran = new WhoAmI[2];
+			for (int index = 0; index < 2; index++) {
+				final int job = index;
+				dispatcher.submit("requester" + index, "test", new LocalCommandDispatcher.Job() {
+					public void run() throws Throwable {
+						try {
+							ran[job] = coordinator.requireClearance(Clearance.PRIVILEGED, "test");
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			if (!done.await(10, TimeUnit.SECONDS)) PUNT("Dispatcher jobs did not finish.");
+			dispatcher.stop();
+			if ((ran[0] != owner.getProcessId())||(ran[1] != owner.getProcessId())) PUNT("Dispatcher worker did not act for the process.");
+			
+			// Removing the process ends the binding.
+			coordinator.removeProcess(owner.getProcessId());
+			afterwards[0] = null;
+			helper = new Thread() {
+				public void run() {
+					binding[0].bind();
+					try {
+						coordinator.callerId();
+					} catch (Throwable t) {
+						afterwards[0] = t;
+					}
+				}
+			};
+			helper.start();
+			helper.join();
+			if (!(afterwards[0] instanceof SystemException)) PUNT("Thread bound to a removed process was recognized.");
+			PASS(BINDING);
+		} catch (TestLocalException tle) {
+			FAIL(BINDING, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BINDING, e.getMessage());
+		}
+
+		// == TABLE =========================================================================================================================
+		try {
+			ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			ArrayList<Worker> workers = new ArrayList<Worker>();
+			for (int index = 0; index < 4; index++) workers.add(new Worker("process" + index));
+			for (int index = 0; index < 3; index++) coordinator.registerProcess(workers.get(index), Clearance.PUBLIC, properties, properties);
+			
+			// Snapshots don't change.
+			final Collection<PCB> snapshot = coordinator.getProcesses();
+			coordinator.registerProcess(workers.get(3), Clearance.PUBLIC, properties, properties);
+			if (snapshot.size() != 3) PUNT("Snapshot changed.  size=" + snapshot.size());
+			int index = 0;
+			for (PCB pcb : coordinator.getProcesses()) {
+				if (pcb.getProcess() != workers.get(index++)) PUNT("Processes not in registration order.");
+			}
+			if (index != 4) PUNT("Wrong number of processes: " + index);
+			try {
+				snapshot.clear();
+				PUNT("Snapshot could be changed.");
+			} catch (UnsupportedOperationException uoe) {
+				// Good
+			}
+			
+			// Removing cleans up both tables, so it can come back.
+			final PCB removed = coordinator.getProcess(workers.get(1).getProcessId());
+			coordinator.removeProcess(workers.get(1).getProcessId());
+			if (removed.isManaged()) PUNT("Removed process still managed.");
+			expect(SystemException.PROCESS_ERROR_NOT_FOUND, new Body() {
+				public void run() throws Throwable {
+					coordinator.getProcess(removed.getProcess().getProcessId());
+				}
+			});
+			expect(SystemException.PROCESS_ERROR_NOT_FOUND, new Body() {
+				public void run() throws Throwable {
+					coordinator.getProcessOrganic(removed.getIdentityString());
+				}
+			});
+			Table<String> list = new Table<String>();
+			coordinator.dumpProcessTable(list);
+			if (list.getNumberRows() != 3) PUNT("Process list has the removed process.  rows=" + list.getNumberRows());
+			coordinator.registerProcess(removed, Clearance.PUBLIC);
+			if (coordinator.getProcessOrganic(removed.getIdentityString()) != removed) PUNT("Process did not come back.");
+			coordinator.removeProcess("not there");
+			if (coordinator.getProcesses().size() != 4) PUNT("Wrong number of processes after coming back.");
+			PASS(TABLE);
+		} catch (TestLocalException tle) {
+			FAIL(TABLE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(TABLE, e.getMessage());
+		}
+
+		// == REMOVED =======================================================================================================================
+		try {
+			ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			final CountDownLatch known = new CountDownLatch(1);
+			final CountDownLatch gone = new CountDownLatch(1);
+			final Worker worker = new Worker("worker");
+			worker.body = new Body() {
+				public void run() throws Throwable {
+					try {
+						if (coordinator.callerId() != worker.getProcessId()) PUNT("Process was not itself.");
+					} finally {
+						known.countDown();
+					}
+					gone.await();
+					expect(SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED, new Body() {
+						public void run() throws Throwable {
+							coordinator.callerId();
+						}
+					});
+				}
+			};
+			coordinator.registerProcess(worker, Clearance.PUBLIC, properties, properties);
+			worker.start();
+			known.await();
+			coordinator.removeProcess(worker.getProcessId());
+			gone.countDown();
+			worker.finish();
+			PASS(REMOVED);
+		} catch (TestLocalException tle) {
+			FAIL(REMOVED, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(REMOVED, e.getMessage());
+		}
+
+		// == CONCURRENT ====================================================================================================================
+		try {
+			final ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			final Worker resident = new Worker("resident");
+			coordinator.registerProcess(resident, Clearance.PUBLIC, properties, properties);
+			final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+			final CountDownLatch writing = new CountDownLatch(THREADS);
+			final int[] dumps = new int[1];
+			
+			Thread[] threads = new Thread[THREADS * 2];
+			for (int index = 0; index < THREADS; index++) {
+				final int writer = index;
+				threads[index] = new Thread() {
+					public void run() {
+						try {
+							for (int round = 0; round < CHURN; round++) {
+								Worker worker = new Worker("churn" + writer + "." + round);
+								coordinator.registerProcess(worker, Clearance.PUBLIC, properties, properties);
+								coordinator.getProcess(worker.getProcessId());
+								coordinator.removeProcess(worker.getProcessId());
+							}
+						} catch (Throwable t) {
+							problem.compareAndSet(null, t);
+						} finally {
+							writing.countDown();
+						}
+					}
+				};
+				threads[THREADS + index] = new Thread() {
+					public void run() {
+						try {
+							while (writing.getCount() > 0) {
+								Table<String> list = new Table<String>();
+								coordinator.dumpProcessTable(list);
+								if ((list.getNumberRows() < 1)||(list.getNumberRows() > THREADS + 1)) throw new Exception("Process list size impossible: " + list.getNumberRows());
+								if (coordinator.getProcess(resident.getProcessId()).getProcess() != resident) throw new Exception("Lost the resident process.");
+								synchronized(dumps) {
+									dumps[0]++;
+								}
+							}
+						} catch (Throwable t) {
+							problem.compareAndSet(null, t);
+						}
+					}
+				};
+			}
+			for (Thread thread : threads) thread.start();
+			for (Thread thread : threads) thread.join();
+			if (problem.get() != null) PUNT("Concurrent use failed: " + problem.get());
+			if (coordinator.getProcesses().size() != 1) PUNT("Table did not settle.  size=" + coordinator.getProcesses().size());
+			PASS(CONCURRENT, (THREADS * CHURN) + " processes came and went during " + dumps[0] + " process lists");
+		} catch (TestLocalException tle) {
+			FAIL(CONCURRENT, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(CONCURRENT, e.getMessage());
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			ThingsPropertyView properties = new STUB_SystemSuperInterface(new StringPosterBitBucket()).getLocalProperties();
+			final ProcessCoordinator coordinator = new ProcessCoordinator(new WhoAmISimple("coordinator"));
+			final long[] times = new long[2];
+			final Worker worker = new Worker("worker");
+			worker.body = new Body() {
+				public void run() throws Throwable {
+					
+					// The old way: build the identity string and look it up.
+					HashMap<String, PCB> table = new HashMap<String, PCB>();
+					PCB pcb = coordinator.getProcess(worker.getProcessId());
+					table.put(pcb.getIdentityString(), pcb);
+					int passed = 0;
+					for (int round = 0; round < 2; round++) {
+						long time = System.nanoTime();
+						for (int index = 0; index < CALLS; index++) {
+							PCB found;
+							synchronized(table) {
+								found = table.get(PCB.getCallerIdentityString());
+							}
+							if (found.getClearance().pass(Clearance.PUBLIC)) passed++;
+						}
+						times[0] = System.nanoTime() - time;
+					}
+					
+					// Now.
+					for (int round = 0; round < 2; round++) {
+						long time = System.nanoTime();
+						for (int index = 0; index < CALLS; index++) {
+							if (coordinator.checkClearance(Clearance.PUBLIC)) passed++;
+						}
+						times[1] = System.nanoTime() - time;
+					}
+					if (passed != CALLS * 4) PUNT("Checks failed.");
+				}
+			};
+			coordinator.registerProcess(worker, Clearance.PUBLIC, properties, properties);
+			worker.go();
+			
+			long before = times[0] / CALLS;
+			long after = times[1] / CALLS;
+			if (times[1] >= times[0]) PUNT("Remembered callers were not faster.  before=" + before + "ns after=" + after + "ns");
+			TIME(BENCHMARK, (times[0] + times[1]) / 1000000);
+			VALUE(BENCHMARK, "before.ns.per.check", Long.toString(before));
+			VALUE(BENCHMARK, "after.ns.per.check", Long.toString(after));
+			PASS(BENCHMARK, "checkClearance before=" + before + "ns after=" + after + "ns");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+	}
+
+	/**
+	 * Run something that must fail with the numeric.
+	 */
+	private void expect(int numeric, Body body) throws Throwable {
+		try {
+			body.run();
+		} catch (ThingsException te) {
+			if (te.numeric == numeric) return;
+			PUNT("Wrong exception.  numeric=" + te.numeric + " message=" + te.getMessage());
+		}
+		PUNT("Expected an exception.  numeric=" + numeric);
+	}
+
+	/**
+	 * Something to run.
+	 */
+	private interface Body {
+		public void run() throws Throwable;
+	}
+
+	/**
+	 * A process that just runs its body on its own thread.
+	 */
+	private static class Worker extends ThingsProcess {
+		Body body;
+		Throwable failure;
+		Worker(String name) throws Throwable {
+			fix(new WhoAmISimple(name));
+		}
+		void go() throws Throwable {
+			start();
+			finish();
+		}
+		void finish() throws Throwable {
+			join();
+			if (failure != null) throw failure;
+		}
+		public void run() {
+			try {
+				body.run();
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+		public void executeThingsProcess() {
+		}
+		public void constructThingsProcess() {
+		}
+		public void destructThingsProcess() {
+		}
+		public String getProcessName() {
+			return "test";
+		}
+		public void resourceRevocation(WhoAmI resourceID) {
+		}
+		public void resourceRevoked(WhoAmI resourceID) {
+		}
+		public WhoAmI getListenerId() {
+			return getProcessId();
+		}
+	}
+}
@@ -0,0 +1,412 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.actor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import test.things.STUB_SystemSuperInterface;
+import things.common.ThingsException;
+import things.common.impl.StringPosterBitBucket;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.service.actor.ActorClientBase;
+import things.thinger.service.actor.ActorConstants;
+import things.thinger.service.actor.ActorMessage;
+import things.thinger.service.actor.ActorServiceBase;
+import things.thinger.service.actor.ActorServiceThread;
+
+/**
+ * TEST the ActorMessage frames and a pipelined actor session.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 18 JUN 10
+ * </pre>
+ */
+public class TEST_ActorMessage extends Test {
+
+	// TESTS
+	public final static String FRAME = "Frame";
+	public final static String BAD = "Bad frames";
+	public final static String PIECES = "Frames in pieces";
+	public final static String SESSION = "Pipelined session";
+	public final static String BENCHMARK = "Benchmark";
+
+	// Configuration
+	public final static String VALUE = "VALUE";
+	public final static int REQUESTS = 2000;
+	public final static int WINDOW = 64;
+	public final static int BENCHMARK_MESSAGES = 200000;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.actor.TEST_ActorMessage");
+		DECLARE(FRAME);
+		DECLARE(BAD);
+		DECLARE(PIECES);
+		DECLARE(SESSION);
+		DECLARE(BENCHMARK);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == FRAME =========================================================================================================================
+		try {
+			ActorMessage message = sample(7);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			message.save(bytes);
+			byte[] frame = bytes.toByteArray();
+			if (decode(frame, 0) != frame.length - 4) PUNT("Length prefix is wrong: " + decode(frame, 0) + " for " + frame.length);
+			
+			// Two in a row into the same message.
+			message.sequence = 8;
+			message.addParamter("first", "replaced");
+			message.save(bytes);
+			InputStream in = new ByteArrayInputStream(bytes.toByteArray());
+			ActorMessage loaded = new ActorMessage();
+			loaded.load(in);
+			same(sample(7), loaded);
+			loaded.load(in);
+			if (loaded.sequence != 8) PUNT("Second sequence wrong.");
+			if (!"replaced".equals(loaded.getParameter("first"))) PUNT("Replaced parameter wrong: " + loaded.getParameter("first"));
+			if (loaded.getParameterCount() != 3) PUNT("Replacing added a parameter: " + loaded.getParameterCount());
+			if (loaded.getParameter("nope") != null) PUNT("Missing parameter was not null.");
+			try {
+				loaded.load(in);
+				PUNT("Load past the end did not fail.");
+			} catch (EOFException eofe) {
+				// Good
+			}
+			PASS(FRAME);
+		} catch (TestLocalException tle) {
+			FAIL(FRAME, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(FRAME, e.getMessage());
+		}
+
+		// == BAD ===========================================================================================================================
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			sample(1).save(bytes);
+			byte[] good = bytes.toByteArray();
+			
+			// Truncated
+			bad(copy(good, good.length - 3), "truncated");
+			
+			// Impossible length
+			byte[] broken = copy(good, good.length);
+			ActorConstants.encodeInteger(broken, 0, 1 << 30);
+			bad(broken, "huge length");
+			
+			// Extra bytes
+			broken = copy(good, good.length + 2);
+			ActorConstants.encodeInteger(broken, 0, good.length - 2);
+			bad(broken, "extra bytes");
+			
+			// Token size zero.  The TYPE size is after the three counts.
+			broken = copy(good, good.length);
+			ActorConstants.encodeInteger(broken, 16, 0);
+			bad(broken, "empty type");
+			
+			// Too many parameters
+			broken = copy(good, good.length);
+			ActorConstants.encodeInteger(broken, 8, 11);
+			bad(broken, "parameter count");
+			
+			// An empty value can't be sent.
+			ActorMessage empty = new ActorMessage(1);
+			empty.setType(ActorConstants.MESSAGE_TYPE_SEND);
+			empty.addParamter("empty", "");
+			try {
+				empty.save(new ByteArrayOutputStream());
+				PUNT("Empty value was saved.");
+			} catch (ThingsException te) {
+				if (te.numeric != ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE_FIELD) PUNT("Wrong error for empty value: " + te.numeric);
+			}
+			PASS(BAD);
+		} catch (TestLocalException tle) {
+			FAIL(BAD, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BAD, e.getMessage());
+		}
+
+		// == PIECES ========================================================================================================================
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			for (int index = 0; index < 5; index++) sample(index).write(bytes);
+			InputStream in = new Trickle(bytes.toByteArray());
+			ActorMessage loaded = new ActorMessage();
+			for (int index = 0; index < 5; index++) {
+				loaded.load(in);
+				same(sample(index), loaded);
+			}
+			PASS(PIECES);
+		} catch (TestLocalException tle) {
+			FAIL(PIECES, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(PIECES, e.getMessage());
+		}
+
+		// == SESSION =======================================================================================================================
+		ServerSocket listen = null;
+		try {
+			STUB_SystemSuperInterface si = new STUB_SystemSuperInterface(new StringPosterBitBucket());
+			listen = new ServerSocket(0);
+			final ServerSocket listener = listen;
+			final STUB_SystemSuperInterface serverSi = si;
+			Thread acceptor = new Thread() {
+				public void run() {
+					try {
+						while (true) {
+							Socket accepted = listener.accept();
+							ActorServiceThread session = new ActorServiceThread();
+							session.initialize(serverSi, accepted);
+							new Thread(session).start();
+						}
+					} catch (Throwable t) {
+						// Closed
+					}
+				}
+			};
+			acceptor.setDaemon(true);
+			acceptor.start();
+			String port = Integer.toString(listen.getLocalPort());
+			
+			// One at a time.
+			Client single = new Client();
+			single.start("localhost", port, Echo.class.getName(), si);
+			single.setWindow(1);
+			long singleTime = System.nanoTime();
+			run(single, REQUESTS / 4);
+			singleTime = System.nanoTime() - singleTime;
+			single.stop();
+			
+			// Pipelined
+			Client pipelined = new Client();
+			pipelined.start("localhost", port, Echo.class.getName(), si);
+			pipelined.setWindow(WINDOW);
+			long pipelinedTime = System.nanoTime();
+			run(pipelined, REQUESTS);
+			pipelinedTime = System.nanoTime() - pipelinedTime;
+			
+			// A NACK comes back for its own sequence.
+			ActorMessage bad = new ActorMessage();
+			bad.setType(ActorConstants.MESSAGE_TYPE_SEND);
+			bad.addParamter("OTHER", "x");
+			int badSequence = pipelined.send(bad);
+			pipelined.sync();
+			if ((pipelined.nacks.size() != 1)||(pipelined.nacks.get(0).intValue() != badSequence)) PUNT("NACK did not match its request.");
+			pipelined.stop();
+			
+			VALUE(SESSION, "single.us.per.request", Long.toString(singleTime / 1000 / (REQUESTS / 4)));
+			VALUE(SESSION, "pipelined.us.per.request", Long.toString(pipelinedTime / 1000 / REQUESTS));
+			PASS(SESSION, "window 1=" + (singleTime / 1000 / (REQUESTS / 4)) + "us per request, window " + WINDOW + "=" + (pipelinedTime / 1000 / REQUESTS) + "us per request");
+		} catch (TestLocalException tle) {
+			FAIL(SESSION, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SESSION, e.getMessage());
+		} finally {
+			try {
+				listen.close();
+			} catch (Throwable t) {
+				// Don't care
+			}
+		}
+
+		// == BENCHMARK =====================================================================================================================
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			sample(3).write(bytes);
+			byte[] frame = bytes.toByteArray();
+			byte[] many = new byte[frame.length * 1000];
+			for (int index = 0; index < 1000; index++) System.arraycopy(frame, 0, many, index * frame.length, frame.length);
+
+			ActorMessage message = new ActorMessage();
+			long time = System.nanoTime();
+			int found = 0;
+			for (int round = 0; round < BENCHMARK_MESSAGES / 1000; round++) {
+				InputStream in = new ByteArrayInputStream(many);
+				for (int index = 0; index < 1000; index++) {
+					message.load(in);
+					if (message.getParameter("second") != null) found++;
+				}
+			}
+			long loadTime = System.nanoTime() - time;
+			if (found != BENCHMARK_MESSAGES) PUNT("Lost parameters.");
+
+			ActorMessage out = sample(3);
+			Sink sink = new Sink();
+			time = System.nanoTime();
+			for (int index = 0; index < BENCHMARK_MESSAGES; index++) out.write(sink);
+			long saveTime = System.nanoTime() - time;
+
+			TIME(BENCHMARK, (loadTime + saveTime) / 1000000);
+			SIZE(BENCHMARK, (long)frame.length * BENCHMARK_MESSAGES * 2);
+			VALUE(BENCHMARK, "load.ns.per.message", Long.toString(loadTime / BENCHMARK_MESSAGES));
+			VALUE(BENCHMARK, "write.ns.per.message", Long.toString(saveTime / BENCHMARK_MESSAGES));
+			PASS(BENCHMARK, frame.length + " byte frames_ load=" + (loadTime / BENCHMARK_MESSAGES) + "ns write=" + (saveTime / BENCHMARK_MESSAGES) + "ns");
+		} catch (TestLocalException tle) {
+			FAIL(BENCHMARK, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BENCHMARK, e.getMessage());
+		}
+	}
+
+	/**
+	 * Run requests through a client and check the replies.
+	 */
+	private void run(Client client, int requests) throws Throwable {
+		ActorMessage request = new ActorMessage();
+		request.setType(ActorConstants.MESSAGE_TYPE_SEND);
+		int first = -1;
+		for (int index = 0; index < requests; index++) {
+			request.addParamter(VALUE, "value " + index);
+			int sequence = client.queue(request);
+			if (first < 0) first = sequence;
+			if (client.getPendingCount() > client.getWindow()) PUNT("Window exceeded: " + client.getPendingCount());
+		}
+		client.sync();
+		if (client.getPendingCount() != 0) PUNT("Replies are missing: " + client.getPendingCount());
+		if (client.acks.size() != requests) PUNT("Wrong number of ACKs: " + client.acks.size());
+		for (int index = 0; index < requests; index++) {
+			if (client.acks.get(index).intValue() != first + index) PUNT("ACK out of order at " + index);
+			if (!client.responses.get(index).equals("value " + index)) PUNT("Wrong response at " + index + ": " + client.responses.get(index));
+		}
+	}
+
+	/**
+	 * A message with every part.
+	 */
+	private static ActorMessage sample(int sequence) throws Throwable {
+		ActorMessage message = new ActorMessage(sequence);
+		message.setType(ActorConstants.MESSAGE_TYPE_SEND);
+		message.addParamter("first", "one " + sequence);
+		message.addParamter("second", "two \u00e9\u4e2d");
+		message.addParamter("third", "3");
+		message.addAttribute("attribute", "value");
+		return message;
+	}
+
+	/**
+	 * Compare against a sample.
+	 */
+	private void same(ActorMessage expected, ActorMessage actual) throws Throwable {
+		if (expected.sequence != actual.sequence) PUNT("Sequence differs: " + actual.sequence);
+		if (!expected.getType().equals(actual.getType())) PUNT("Type differs: " + actual.getType());
+		if (actual.getParameterCount() != expected.getParameterCount()) PUNT("Parameter count differs: " + actual.getParameterCount());
+		if (actual.getAttributeCount() != expected.getAttributeCount()) PUNT("Attribute count differs: " + actual.getAttributeCount());
+		String[] names = { "first", "second", "third" };
+		for (String name : names) {
+			if (!expected.getParameter(name).equals(actual.getParameter(name))) PUNT("Parameter " + name + " differs: " + actual.getParameter(name));
+		}
+		if (!"value".equals(actual.getAttribute("attribute"))) PUNT("Attribute differs: " + actual.getAttribute("attribute"));
+	}
+
+	/**
+	 * A bad frame must not load.
+	 */
+	private void bad(byte[] frame, String what) throws Throwable {
+		try {
+			new ActorMessage().load(new ByteArrayInputStream(frame));
+			PUNT("Bad frame loaded: " + what);
+		} catch (ThingsException te) {
+			// Good
+		} catch (EOFException eofe) {
+			// Good
+		}
+	}
+
+	private static int decode(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+	}
+
+	private static byte[] copy(byte[] bytes, int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, 0, result, 0, Math.min(length, bytes.length));
+		return result;
+	}
+
+	/**
+	 * A stream that gives a byte or two at a time.
+	 */
+	private static class Trickle extends ByteArrayInputStream {
+		private int turn;
+		Trickle(byte[] bytes) {
+			super(bytes);
+		}
+		public synchronized int read(byte[] buffer, int offset, int length) {
+			return super.read(buffer, offset, Math.min(length, 1 + (turn++ % 2)));
+		}
+	}
+
+	/**
+	 * A stream that throws it all away.
+	 */
+	private static class Sink extends java.io.OutputStream {
+		public void write(int b) {
+		}
+		public void write(byte[] buffer, int offset, int length) {
+		}
+	}
+
+	/**
+	 * Echo service.  A SEND is answered with its VALUE.
+	 */
+	public static class Echo extends ActorServiceBase {
+		public void init() {
+		}
+		public void quit() {
+		}
+		public void process() throws Throwable {
+			String value = getOptionalParameter(VALUE);
+			if (value == null) PUNT("No " + VALUE);
+			OK(value);
+		}
+		public void process_unnumbered() {
+		}
+	}
+
+	/**
+	 * Client that remembers the replies.
+	 */
+	private static class Client extends ActorClientBase {
+		ArrayList<Integer> acks = new ArrayList<Integer>();
+		ArrayList<String> responses = new ArrayList<String>();
+		ArrayList<Integer> nacks = new ArrayList<Integer>();
+		public void init_chain() {
+		}
+		public void quit_chain() {
+		}
+		public void message_chain(ActorMessage e) {
+		}
+		public void message_ack(int sequence, String response) {
+			acks.add(Integer.valueOf(sequence));
+			responses.add(response);
+		}
+		public void message_nack(int sequence, String response) {
+			nacks.add(Integer.valueOf(sequence));
+		}
+		public void message_log(String logEntry) {
+		}
+	}
+}
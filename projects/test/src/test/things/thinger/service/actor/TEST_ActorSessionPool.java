@@ -0,0 +1,245 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.actor;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import test.things.STUB_SystemSuperInterface;
+import things.common.impl.StringPosterBitBucket;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.service.actor.ActorClientBase;
+import things.thinger.service.actor.ActorConstants;
+import things.thinger.service.actor.ActorMessage;
+import things.thinger.service.actor.ActorSessionPool;
+
+/**
+ * TEST the ActorSessionPool limits, idle sessions and gauges.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 JUN 10
+ * </pre>
+ */
+public class TEST_ActorSessionPool extends Test {
+
+	// TESTS
+	public final static String LIMITS = "Session limits";
+	public final static String IDLE = "Idle sessions";
+	public final static String SHUTDOWN = "Shutdown";
+
+	// Configuration
+	public final static long WAIT = 5000;
+	public final static int IDLE_TIMEOUT = 300;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.actor.TEST_ActorSessionPool");
+		DECLARE(LIMITS);
+		DECLARE(IDLE);
+		DECLARE(SHUTDOWN);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == LIMITS ========================================================================================================================
+		ServerSocket listen = null;
+		Socket queued = null;
+		Socket turnedAway = null;
+		try {
+			STUB_SystemSuperInterface si = new STUB_SystemSuperInterface(new StringPosterBitBucket());
+			listen = new ServerSocket(0);
+			ActorSessionPool pool = new ActorSessionPool(si, 2, 1, 0);
+			String port = accept(listen, pool);
+
+			// Fill the pool.
+			Client first = new Client();
+			first.start("localhost", port, TEST_ActorMessage.Echo.class.getName(), si);
+			Client second = new Client();
+			second.start("localhost", port, TEST_ActorMessage.Echo.class.getName(), si);
+			if (!waitFor(pool, 2, 0, 2)) PUNT("Pool did not fill.  " + pool);
+			
+			// One waits.
+			queued = new Socket("localhost", Integer.parseInt(port));
+			if (!waitFor(pool, 2, 1, 3)) PUNT("Session did not queue.  " + pool);
+			
+			// One is turned away and closed.
+			turnedAway = new Socket("localhost", Integer.parseInt(port));
+			turnedAway.setSoTimeout((int)WAIT);
+			int read;
+			try {
+				read = turnedAway.getInputStream().read();
+			} catch (java.io.IOException ioe) {
+				read = -1;
+			}
+			if (read != -1) PUNT("Turned away connection was not closed.");
+			if (pool.getRejected() != 1) PUNT("Rejection not counted.  " + pool);
+			if (pool.getAccepted() != 3) PUNT("Accepted count wrong.  " + pool);
+			
+			// When one quits, the waiting one runs and the pool still works.
+			first.stop();
+			if (!waitFor(pool, 2, 0, 3)) PUNT("Queued session did not run.  " + pool);
+			ping(second, "after");
+			second.stop();
+			queued.close();
+			if (!waitFor(pool, 0, 0, 3)) PUNT("Sessions did not finish.  " + pool);
+			pool.shutdown();
+
+			PASS(LIMITS, pool.toString());
+		} catch (TestLocalException tle) {
+			FAIL(LIMITS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(LIMITS, e.getMessage());
+		} finally {
+			close(listen, queued, turnedAway);
+		}
+
+		// == IDLE ==========================================================================================================================
+		listen = null;
+		try {
+			STUB_SystemSuperInterface si = new STUB_SystemSuperInterface(new StringPosterBitBucket());
+			listen = new ServerSocket(0);
+			ActorSessionPool pool = new ActorSessionPool(si, 2, 0, IDLE_TIMEOUT);
+			String port = accept(listen, pool);
+
+			// A busy client stays.
+			Client busy = new Client();
+			busy.start("localhost", port, TEST_ActorMessage.Echo.class.getName(), si);
+			for (int index = 0; index < 4; index++) {
+				Thread.sleep(IDLE_TIMEOUT / 2);
+				ping(busy, "busy " + index);
+			}
+			if (pool.getIdled() != 0) PUNT("Busy session was closed.  " + pool);
+			
+			// A quiet one does not.
+			if (!waitFor(pool, 0, 0, 1)) PUNT("Idle session was not closed.  " + pool);
+			if (pool.getIdled() != 1) PUNT("Idle close not counted.  " + pool);
+			pool.shutdown();
+
+			PASS(IDLE, pool.toString());
+		} catch (TestLocalException tle) {
+			FAIL(IDLE, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(IDLE, e.getMessage());
+		} finally {
+			close(listen, null, null);
+		}
+
+		// == SHUTDOWN ======================================================================================================================
+		listen = null;
+		try {
+			STUB_SystemSuperInterface si = new STUB_SystemSuperInterface(new StringPosterBitBucket());
+			listen = new ServerSocket(0);
+			ActorSessionPool pool = new ActorSessionPool(si, 4, 4, 0);
+			String port = accept(listen, pool);
+
+			for (int index = 0; index < 3; index++) {
+				Client client = new Client();
+				client.start("localhost", port, TEST_ActorMessage.Echo.class.getName(), si);
+			}
+			if (!waitFor(pool, 3, 0, 3)) PUNT("Sessions did not start.  " + pool);
+			pool.shutdown();
+			if (!waitFor(pool, 0, 0, 3)) PUNT("Sessions were not closed.  " + pool);
+
+			PASS(SHUTDOWN, pool.toString());
+		} catch (TestLocalException tle) {
+			FAIL(SHUTDOWN, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(SHUTDOWN, e.getMessage());
+		} finally {
+			close(listen, null, null);
+		}
+	}
+
+	/**
+	 * Accept connections into the pool until the listener is closed.
+	 * @return the port.
+	 */
+	private String accept(final ServerSocket listener, final ActorSessionPool pool) {
+		Thread acceptor = new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						pool.dispatch(listener.accept());
+					}
+				} catch (Throwable t) {
+					// Closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return Integer.toString(listener.getLocalPort());
+	}
+
+	/**
+	 * Wait for the gauges to settle.
+	 * @return true if they did.
+	 */
+	private boolean waitFor(ActorSessionPool pool, int active, int queued, long accepted) throws Throwable {
+		long deadline = System.currentTimeMillis() + WAIT;
+		while (System.currentTimeMillis() < deadline) {
+			if ((pool.getActive() == active)&&(pool.getQueued() == queued)&&(pool.getAccepted() == accepted)) return true;
+			Thread.sleep(10);
+		}
+		return false;
+	}
+
+	/**
+	 * One request through a client.
+	 */
+	private void ping(Client client, String value) throws Throwable {
+		ActorMessage request = new ActorMessage();
+		request.setType(ActorConstants.MESSAGE_TYPE_SEND);
+		request.addParamter(TEST_ActorMessage.VALUE, value);
+		client.send(request);
+		client.sync();
+		if (!value.equals(client.response)) PUNT("Wrong response: " + client.response);
+	}
+
+	private void close(ServerSocket listen, Socket one, Socket two) {
+		try {
+			if (listen != null) listen.close();
+			if (one != null) one.close();
+			if (two != null) two.close();
+		} catch (Throwable t) {
+			// Don't care
+		}
+	}
+
+	/**
+	 * Client that remembers the last reply.
+	 */
+	private static class Client extends ActorClientBase {
+		String response;
+		public void init_chain() {
+		}
+		public void quit_chain() {
+		}
+		public void message_chain(ActorMessage e) {
+		}
+		public void message_ack(int sequence, String response) {
+			this.response = response;
+		}
+		public void message_nack(int sequence, String response) {
+			this.response = null;
+		}
+		public void message_log(String logEntry) {
+		}
+	}
+}
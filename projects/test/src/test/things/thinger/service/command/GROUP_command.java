@@ -0,0 +1,41 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.command;
+
+import things.testing.unit.TestGroup;
+
+/**
+ * GROUP for things.thinger.service.command.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 23 JUN 10
+ * </pre>
+ */
+public class GROUP_command extends TestGroup {
+
+	public void group_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.command.");
+	    DECLARETEST("things.thinger.service.command.local.TEST_LocalCommandDispatcher","test.things.thinger.service.command.TEST_LocalCommandDispatcher");
+	}
+
+	public void group_execute() throws Throwable {
+		RUN("things.thinger.service.command.local.TEST_LocalCommandDispatcher");
+	}
+
+}
@@ -0,0 +1,277 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.command;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.SystemException;
+import things.thinger.service.command.local.LocalCommandDispatcher;
+
+/**
+ * TEST the LocalCommandDispatcher ordering, limits and faults.<br>
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 23 JUN 10
+ * </pre>
+ */
+public class TEST_LocalCommandDispatcher extends Test {
+
+	// TESTS
+	public final static String ORDER = "Requester order";
+	public final static String LIMITS = "Type limits";
+	public final static String BLOCKING = "Slow command";
+	public final static String FAULT = "Fault";
+	public final static String THROUGHPUT = "Throughput";
+
+	// Configuration
+	public final static long WAIT = 10000;
+	public final static int WORKERS = 4;
+	public final static int REQUESTERS = 6;
+	public final static int JOBS = 300;
+	public final static int SLEEP = 20;
+	public final static String READ = "read";
+	public final static String WRITE = "write";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.command.local.TEST_LocalCommandDispatcher");
+		DECLARE(ORDER);
+		DECLARE(LIMITS);
+		DECLARE(BLOCKING);
+		DECLARE(FAULT);
+		DECLARE(THROUGHPUT);
+	}
+
+	public void test_execute() throws Throwable {
+
+		// == ORDER =========================================================================================================================
+		LocalCommandDispatcher dispatcher = null;
+		try {
+			dispatcher = new LocalCommandDispatcher("test", WORKERS);
+			dispatcher.setLimit(READ, LocalCommandDispatcher.PARALLEL);
+			final ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+			final AtomicInteger overlaps = new AtomicInteger();
+			final AtomicInteger[] inLane = new AtomicInteger[REQUESTERS];
+			for (int requester = 0; requester < REQUESTERS; requester++) {
+				seen.add(new ArrayList<Integer>());
+				inLane[requester] = new AtomicInteger();
+			}
+			
+			// Submit some before starting to be sure they wait.
+			for (int index = 0; index < JOBS; index++) {
+				for (int requester = 0; requester < REQUESTERS; requester++) {
+					final int lane = requester;
+					final int number = index;
+					dispatcher.submit("requester" + lane, READ, new LocalCommandDispatcher.Job() {
+						public void run() throws Throwable {
+							if (inLane[lane].incrementAndGet() != 1) overlaps.incrementAndGet();
+							seen.get(lane).add(Integer.valueOf(number));
+							Thread.yield();
+							inLane[lane].decrementAndGet();
+						}
+					});
+				}
+				if (index == JOBS / 2) dispatcher.start();
+			}
+			if (!waitFor(dispatcher, JOBS * REQUESTERS)) PUNT("Jobs did not finish.  " + dispatcher);
+			if (overlaps.get() != 0) PUNT("Jobs for one requester overlapped " + overlaps.get() + " times.");
+			for (int requester = 0; requester < REQUESTERS; requester++) {
+				ArrayList<Integer> lane = seen.get(requester);
+				if (lane.size() != JOBS) PUNT("Requester " + requester + " lost jobs: " + lane.size());
+				for (int index = 0; index < JOBS; index++) {
+					if (lane.get(index).intValue() != index) PUNT("Requester " + requester + " out of order at " + index);
+				}
+			}
+			if ((dispatcher.getRunning() != 0)||(dispatcher.getPending() != 0)) PUNT("Gauges wrong.  " + dispatcher);
+			PASS(ORDER, dispatcher.toString());
+		} catch (TestLocalException tle) {
+			FAIL(ORDER, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(ORDER, e.getMessage());
+		} finally {
+			if (dispatcher != null) dispatcher.stop();
+		}
+
+		// == LIMITS ========================================================================================================================
+		dispatcher = null;
+		try {
+			dispatcher = new LocalCommandDispatcher("test", WORKERS);
+			dispatcher.setLimit(READ, LocalCommandDispatcher.PARALLEL);
+			dispatcher.setLimit(WRITE, 1);
+			if (dispatcher.getLimit("other") != 1) PUNT("Default limit is not 1.");
+			final AtomicInteger writing = new AtomicInteger();
+			final AtomicInteger mostWriting = new AtomicInteger();
+			final AtomicInteger reading = new AtomicInteger();
+			final AtomicInteger mostReading = new AtomicInteger();
+			dispatcher.start();
+			for (int requester = 0; requester < REQUESTERS * 2; requester++) {
+				dispatcher.submit("writer" + requester, WRITE, new Counted(writing, mostWriting));
+				dispatcher.submit("reader" + requester, READ, new Counted(reading, mostReading));
+			}
+			if (!waitFor(dispatcher, REQUESTERS * 4)) PUNT("Jobs did not finish.  " + dispatcher);
+			if (mostWriting.get() != 1) PUNT("Serialized type ran " + mostWriting.get() + " at once.");
+			if (mostReading.get() < 2) PUNT("Parallel type never ran in parallel.");
+			if (mostReading.get() > WORKERS) PUNT("More than the workers ran at once: " + mostReading.get());
+			PASS(LIMITS, "most writing=" + mostWriting.get() + " most reading=" + mostReading.get());
+		} catch (TestLocalException tle) {
+			FAIL(LIMITS, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(LIMITS, e.getMessage());
+		} finally {
+			if (dispatcher != null) dispatcher.stop();
+		}
+
+		// == BLOCKING ======================================================================================================================
+		dispatcher = null;
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			dispatcher = new LocalCommandDispatcher("test", WORKERS);
+			dispatcher.setLimit(READ, LocalCommandDispatcher.PARALLEL);
+			dispatcher.setLimit(WRITE, 1);
+			dispatcher.start();
+			
+			// A slow write holds its lane and its type, but nothing else.
+			LocalCommandDispatcher.Job slow = new LocalCommandDispatcher.Job() {
+				public void run() throws Throwable {
+					release.await();
+				}
+			};
+			dispatcher.submit("slow", WRITE, slow);
+			dispatcher.submit("slow", READ, new Counted(new AtomicInteger(), new AtomicInteger()));
+			dispatcher.submit("other", WRITE, new Counted(new AtomicInteger(), new AtomicInteger()));
+			for (int index = 0; index < JOBS; index++) {
+				dispatcher.submit("reader" + (index % REQUESTERS), READ, new Counted(new AtomicInteger(), new AtomicInteger()));
+			}
+			if (!waitFor(dispatcher, JOBS)) PUNT("Reads were blocked by a slow command.  " + dispatcher);
+			Thread.sleep(SLEEP);
+			if (dispatcher.getCompleted() != JOBS) PUNT("Something ran past the slow command.  " + dispatcher);
+			if (dispatcher.getPending() != 2) PUNT("Pending count wrong.  " + dispatcher);
+			release.countDown();
+			if (!waitFor(dispatcher, JOBS + 3)) PUNT("Jobs behind the slow command did not finish.  " + dispatcher);
+			PASS(BLOCKING, dispatcher.toString());
+		} catch (TestLocalException tle) {
+			FAIL(BLOCKING, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(BLOCKING, e.getMessage());
+		} finally {
+			release.countDown();
+			if (dispatcher != null) dispatcher.stop();
+		}
+
+		// == FAULT =========================================================================================================================
+		dispatcher = null;
+		try {
+			dispatcher = new LocalCommandDispatcher("test", WORKERS);
+			dispatcher.start();
+			final Throwable problem = new Exception("Broken");
+			dispatcher.submit("requester", READ, new LocalCommandDispatcher.Job() {
+				public void run() throws Throwable {
+					throw problem;
+				}
+			});
+			try {
+				dispatcher.await();
+				PUNT("Fault not thrown from await().");
+			} catch (TestLocalException tle) {
+				throw tle;
+			} catch (Throwable t) {
+				if (t != problem) PUNT("Wrong fault: " + t);
+			}
+			try {
+				dispatcher.submit("requester", READ, new Counted(new AtomicInteger(), new AtomicInteger()));
+				PUNT("Submit after a fault was taken.");
+			} catch (SystemException se) {
+				// Good
+			}
+			PASS(FAULT);
+		} catch (TestLocalException tle) {
+			FAIL(FAULT, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(FAULT, e.getMessage());
+		} finally {
+			if (dispatcher != null) dispatcher.stop();
+		}
+
+		// == THROUGHPUT ====================================================================================================================
+		dispatcher = null;
+		try {
+			dispatcher = new LocalCommandDispatcher("test", WORKERS);
+			dispatcher.setLimit(READ, LocalCommandDispatcher.PARALLEL);
+			dispatcher.start();
+			int jobs = WORKERS * 10;
+			long time = System.currentTimeMillis();
+			for (int index = 0; index < jobs; index++) {
+				dispatcher.submit("requester" + index, READ, new LocalCommandDispatcher.Job() {
+					public void run() throws Throwable {
+						Thread.sleep(SLEEP);
+					}
+				});
+			}
+			if (!waitFor(dispatcher, jobs)) PUNT("Jobs did not finish.  " + dispatcher);
+			time = System.currentTimeMillis() - time;
+			long serial = (long)jobs * SLEEP;
+			if (time >= serial) PUNT("No faster than one at a time: " + time + "ms");
+			TIME(THROUGHPUT, time);
+			VALUE(THROUGHPUT, "serial.ms", Long.toString(serial));
+			PASS(THROUGHPUT, jobs + " slow commands in " + time + "ms, one at a time would take " + serial + "ms");
+		} catch (TestLocalException tle) {
+			FAIL(THROUGHPUT, tle.getMessage());
+		} catch (Throwable e) {
+			ABORT(THROUGHPUT, e.getMessage());
+		} finally {
+			if (dispatcher != null) dispatcher.stop();
+		}
+	}
+
+	/**
+	 * Wait for jobs to finish.
+	 * @return true if they did.
+	 */
+	private boolean waitFor(LocalCommandDispatcher dispatcher, long completed) throws Throwable {
+		long deadline = System.currentTimeMillis() + WAIT;
+		while (System.currentTimeMillis() < deadline) {
+			if (dispatcher.getCompleted() >= completed) return true;
+			Thread.sleep(5);
+		}
+		return false;
+	}
+
+	/**
+	 * A short job that keeps track of how many like it run at once.
+	 */
+	private static class Counted implements LocalCommandDispatcher.Job {
+		AtomicInteger count;
+		AtomicInteger most;
+		Counted(AtomicInteger count, AtomicInteger most) {
+			this.count = count;
+			this.most = most;
+		}
+		public void run() throws Throwable {
+			int now = count.incrementAndGet();
+			synchronized(most) {
+				if (now > most.get()) most.set(now);
+			}
+			Thread.sleep(2);
+			count.decrementAndGet();
+		}
+	}
+}
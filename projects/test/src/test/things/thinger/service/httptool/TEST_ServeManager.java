@@ -0,0 +1,370 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.httptool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import things.common.tools.FileTools;
+import things.data.processing.http.HttpRequest;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thinger.service.httptool.ServeCache;
+import things.thinger.service.httptool.ServeFile;
+import things.thinger.service.httptool.ServeManager;
+import things.universe.UniverseID;
+import things.universe.server.UniverseLocal;
+
+/**
+ * TEST the ServeManager validators, conditional GET, ranges and gzip.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 10 MAY 10
+ * EPG - Hot object cache - 12 MAY 10
+ * </pre>
+ */
+public class TEST_ServeManager extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String PLAIN = "Plain serve";
+	public final static String CONDITIONAL = "Conditional GET";
+	public final static String RANGES = "Byte ranges";
+	public final static String GZIP = "On the fly gzip";
+	public final static String PRECOMPUTED = "Precomputed gzip";
+	public final static String DATES = "HTTP dates";
+	public final static String HOT = "Hot object cache";
+	public final static String EVICTION = "Cache eviction";
+
+	// Configuration
+	public final static String ROOT = "serve";
+	public final static long MODIFIED = 1262304000000L;		// 1 JAN 2010 00:00:00 GMT
+	public final static String MODIFIED_TEXT = "Fri, 01 Jan 2010 00:00:00 GMT";
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.httptool.TEST_ServeManager");
+		DECLARE(SETUP);
+		DECLARE(PLAIN);
+		DECLARE(CONDITIONAL);
+		DECLARE(RANGES);
+		DECLARE(GZIP);
+		DECLARE(PRECOMPUTED);
+		DECLARE(DATES);
+		DECLARE(HOT);
+		DECLARE(EVICTION);
+	}
+
+	public void test_execute() throws Throwable {
+
+		File root = null;
+		ServeManager manager = null;
+		byte[] page = null;
+		byte[] image = null;
+
+		// == SETUP =========================================================================================================================
+		try {
+			root = File.createTempFile("things", "serve");
+			root.delete();
+			root.mkdirs();
+			UniverseLocal universe = new UniverseLocal();
+			universe.genesis(root.getAbsolutePath(), new UniverseID("serve"));
+
+			StringBuffer text = new StringBuffer();
+			for (int index = 0; index < 500; index++) text.append("<p>Line number ").append(index).append("</p>\r\n");
+			page = text.toString().getBytes("US-ASCII");
+			image = new byte[1000];
+			for (int index = 0; index < image.length; index++) image[index] = (byte)index;
+
+			write(root, "dash.html", page, MODIFIED);
+			write(root, "logo.png", image, MODIFIED);
+			write(root, "app.js", page, MODIFIED);
+			write(root, "app.js.gz", gzip("precomputed".getBytes()), MODIFIED + 1000);
+			write(root, "old.css", page, MODIFIED);
+			write(root, "old.css.gz", gzip("stale".getBytes()), MODIFIED - 1000);
+
+			manager = new ServeManager();
+			manager.init(universe, ROOT, ServeManager.DEFAULT_GZIP_CACHE_LIMIT);
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		// == PLAIN =========================================================================================================================
+		try {
+			ServeFile file = manager.get(request("/dash.html"));
+			if (file.status != ServeFile.STATUS_OK) PUNT("Not 200.  status=" + file.status);
+			if (!Arrays.equals(page, readAll(file.source))) PUNT("Content differs.");
+			if (file.length != page.length) PUNT("Wrong length.");
+			if (file.encoding != null) PUNT("Encoded without asking.");
+			if (file.etag == null) PUNT("No ETag.");
+			if (file.lastModified != MODIFIED) PUNT("Wrong Last-Modified.");
+			if (manager.get(request("/missing.html")) != null) PUNT("Found something missing.");
+			if (!file.etag.equals(manager.get("/dash.html").etag)) PUNT("ETag differs by path get.");
+
+			PASS(PLAIN);
+		} catch (TestLocalException tle) {
+			FAIL(PLAIN,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(PLAIN,e.getMessage());
+		}
+
+		// == CONDITIONAL ===================================================================================================================
+		try {
+			String etag = manager.get(request("/logo.png")).etag;
+			if (manager.get(request("/logo.png", "If-None-Match", etag)).status != ServeFile.STATUS_NOT_MODIFIED) PUNT("If-None-Match did not 304.");
+			if (manager.get(request("/logo.png", "if-none-match", "\"x\", W/" + etag)).status != ServeFile.STATUS_NOT_MODIFIED) PUNT("Weak list did not 304.");
+			if (manager.get(request("/logo.png", "If-None-Match", "*")).status != ServeFile.STATUS_NOT_MODIFIED) PUNT("* did not 304.");
+			if (manager.get(request("/logo.png", "If-None-Match", "\"other\"")).status != ServeFile.STATUS_OK) PUNT("Other etag did 304.");
+			if (manager.get(request("/logo.png", "If-Modified-Since", MODIFIED_TEXT)).status != ServeFile.STATUS_NOT_MODIFIED) PUNT("Same date did not 304.");
+			if (manager.get(request("/logo.png", "If-Modified-Since", "Thu, 31 Dec 2009 23:59:59 GMT")).status != ServeFile.STATUS_OK) PUNT("Older date did 304.");
+			if (manager.get(request("/logo.png", "If-Modified-Since", "garbage")).status != ServeFile.STATUS_OK) PUNT("Bad date did 304.");
+			if (manager.get(request("/logo.png", "If-None-Match", "\"other\"", "If-Modified-Since", MODIFIED_TEXT)).status != ServeFile.STATUS_OK) PUNT("If-Modified-Since beat If-None-Match.");
+			ServeFile notModified = manager.get(request("/logo.png", "If-None-Match", etag));
+			if (readAll(notModified.source).length != 0) PUNT("304 has a body.");
+
+			PASS(CONDITIONAL);
+		} catch (TestLocalException tle) {
+			FAIL(CONDITIONAL,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(CONDITIONAL,e.getMessage());
+		}
+
+		// == RANGES ========================================================================================================================
+		try {
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=10-19")), image, 10, 19);
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=990-")), image, 990, 999);
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=-5")), image, 995, 999);
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=0-5000")), image, 0, 999);
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=-5000")), image, 0, 999);
+
+			ServeFile file = manager.get(request("/logo.png", "Range", "bytes=1000-"));
+			if (file.status != ServeFile.STATUS_RANGE_NOT_SATISFIABLE) PUNT("Past the end not 416.");
+			if (!"bytes */1000".equals(file.contentRange)) PUNT("Bad 416 Content-Range.");
+			if (manager.get(request("/logo.png", "Range", "bytes=1-2,5-6")).status != ServeFile.STATUS_OK) PUNT("Multiple ranges not ignored.");
+			if (manager.get(request("/logo.png", "Range", "bytes=9-2")).status != ServeFile.STATUS_OK) PUNT("Bad range not ignored.");
+			if (manager.get(request("/logo.png", "Range", "lines=1-2")).status != ServeFile.STATUS_OK) PUNT("Bad unit not ignored.");
+
+			String etag = manager.get(request("/logo.png")).etag;
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=1-2", "If-Range", etag)), image, 1, 2);
+			checkRange(manager.get(request("/logo.png", "Range", "bytes=1-2", "If-Range", MODIFIED_TEXT)), image, 1, 2);
+			if (manager.get(request("/logo.png", "Range", "bytes=1-2", "If-Range", "\"other\"")).status != ServeFile.STATUS_OK) PUNT("Stale If-Range not full.");
+
+			PASS(RANGES);
+		} catch (TestLocalException tle) {
+			FAIL(RANGES,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(RANGES,e.getMessage());
+		}
+
+		// == GZIP ==========================================================================================================================
+		try {
+			ServeFile file = manager.get(request("/dash.html", "Accept-Encoding", "deflate, gzip;q=0.8"));
+			if (!"gzip".equals(file.encoding)) PUNT("Not gzipped.");
+			if (!file.vary) PUNT("No Vary.");
+			byte[] compressed = readAll(file.source);
+			if (compressed.length != file.length) PUNT("Wrong length.");
+			if (compressed.length >= page.length) PUNT("Didn't get smaller.");
+			if (!Arrays.equals(page, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))))) PUNT("Content differs.");
+			if (file.etag.equals(manager.get(request("/dash.html")).etag)) PUNT("Same ETag for both encodings.");
+			long cached = manager.getGzipCacheSize();
+			if (cached != compressed.length) PUNT("Not cached.  cached=" + cached);
+
+			// Again is from the cache and validates against the gzip etag.
+			file = manager.get(request("/dash.html", "Accept-Encoding", "gzip"));
+			if (!Arrays.equals(compressed, readAll(file.source))) PUNT("Cached content differs.");
+			if (manager.getGzipCacheSize() != cached) PUNT("Cached twice.");
+			if (manager.get(request("/dash.html", "Accept-Encoding", "gzip", "If-None-Match", file.etag)).status != ServeFile.STATUS_NOT_MODIFIED) PUNT("Gzip etag did not 304.");
+
+			// Declined, incompressible and ranges.
+			if (manager.get(request("/dash.html", "Accept-Encoding", "gzip;q=0")).encoding != null) PUNT("q=0 gzipped.");
+			if (manager.get(request("/logo.png", "Accept-Encoding", "gzip")).encoding != null) PUNT("Image gzipped.");
+			if (manager.get(request("/dash.html", "Accept-Encoding", "gzip", "Range", "bytes=0-1")).status != ServeFile.STATUS_OK) PUNT("Range applied to gzip.");
+
+			// Changed file is recompressed.
+			write(root, "dash.html", "<p>changed</p>".getBytes(), MODIFIED + 5000);
+			byte[] changed = readAll(manager.get(request("/dash.html", "Accept-Encoding", "gzip")).source);
+			if (!"<p>changed</p>".equals(new String(changed))) PUNT("Stale cache or small file gzipped.");
+			write(root, "dash.html", page, MODIFIED);
+
+			PASS(GZIP);
+		} catch (TestLocalException tle) {
+			FAIL(GZIP,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(GZIP,e.getMessage());
+		}
+
+		// == PRECOMPUTED ===================================================================================================================
+		try {
+			ServeFile file = manager.get(request("/app.js", "Accept-Encoding", "gzip"));
+			if (!"gzip".equals(file.encoding)) PUNT("Not gzipped.");
+			if (!"precomputed".equals(new String(readAll(new GZIPInputStream(file.source))))) PUNT("Precomputed not used.");
+			file = manager.get(request("/old.css", "Accept-Encoding", "gzip"));
+			if (!Arrays.equals(page, readAll(new GZIPInputStream(file.source)))) PUNT("Stale precomputed used.");
+
+			PASS(PRECOMPUTED);
+		} catch (TestLocalException tle) {
+			FAIL(PRECOMPUTED,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(PRECOMPUTED,e.getMessage());
+		}
+
+		// == DATES =========================================================================================================================
+		try {
+			if (!MODIFIED_TEXT.equals(ServeManager.formatHttpDate(MODIFIED))) PUNT("Bad format.  got=" + ServeManager.formatHttpDate(MODIFIED));
+			if (ServeManager.parseHttpDate("Friday, 01-Jan-10 00:00:00 GMT") != MODIFIED) PUNT("RFC 850 failed.");
+			if (ServeManager.parseHttpDate("Fri Jan  1 00:00:00 2010") != MODIFIED) PUNT("asctime failed.");
+			if (ServeManager.parseHttpDate(null) != -1) PUNT("Null parsed.");
+
+			PASS(DATES);
+		} catch (TestLocalException tle) {
+			FAIL(DATES,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(DATES,e.getMessage());
+		}
+
+		// == HOT =========================================================================================================================
+		try {
+			ServeManager hotManager = new ServeManager();
+			UniverseLocal universe = new UniverseLocal();
+			universe.genesis(root.getAbsolutePath(), new UniverseID("serve"));
+			hotManager.init(universe, ROOT, ServeManager.DEFAULT_GZIP_CACHE_LIMIT, 100000, 5000);
+			ServeCache cache = hotManager.getHotCache();
+
+			if (!Arrays.equals(image, readAll(hotManager.get(request("/logo.png")).source))) PUNT("Content differs on load.");
+			if ((cache.getMisses() != 1)||(cache.getHits() != 0)||(cache.getSize() != image.length)) PUNT("Not loaded.  " + cache);
+			for (int index = 0; index < 10; index++) {
+				if (!Arrays.equals(image, readAll(hotManager.get(request("/logo.png")).source))) PUNT("Content differs from cache.");
+			}
+			checkRange(hotManager.get(request("/logo.png", "Range", "bytes=10-19")), image, 10, 19);
+			if (!Arrays.equals(image, readAll(hotManager.get("/logo.png").source))) PUNT("Content differs by path get.");
+			if (cache.getHits() != 12) PUNT("Not hitting.  " + cache);
+
+			// Too big.
+			readAll(hotManager.get(request("/dash.html")).source);
+			if (cache.getCount() != 1) PUNT("Cached something too big.  " + cache);
+
+			// Changed.
+			byte[] changed = new byte[image.length + 1];
+			write(root, "logo.png", changed, MODIFIED + 5000);
+			if (!Arrays.equals(changed, readAll(hotManager.get(request("/logo.png")).source))) PUNT("Served stale data.");
+			if (cache.getSize() != changed.length) PUNT("Stale entry kept.  " + cache);
+			write(root, "logo.png", image, MODIFIED);
+
+			// Off.
+			hotManager.init(universe, ROOT, ServeManager.DEFAULT_GZIP_CACHE_LIMIT, 0, 5000);
+			readAll(hotManager.get(request("/logo.png")).source);
+			if (hotManager.getHotCache().getCount() != 0) PUNT("Cached when off.");
+
+			PASS(HOT, cache.toString());
+		} catch (TestLocalException tle) {
+			FAIL(HOT,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(HOT,e.getMessage());
+		}
+
+		// == EVICTION ======================================================================================================================
+		try {
+			ServeCache cache = new ServeCache(100, 60);
+			cache.put("a", "1", new byte[40]);
+			cache.put("b", "1", new byte[40]);
+			if (cache.get("a", "1") == null) PUNT("Lost a.");			// a is now the most recent.
+			cache.put("c", "1", new byte[40]);
+			if (cache.get("b", "1") != null) PUNT("b not evicted.");
+			if ((cache.get("a", "1") == null)||(cache.get("c", "1") == null)) PUNT("Evicted the wrong one.");
+			if ((cache.getSize() != 80)||(cache.getEvictions() != 1)) PUNT("Bad accounting.  " + cache);
+			cache.put("d", "1", new byte[61]);
+			if (cache.getCount() != 2) PUNT("Cached an object over the limit.");
+			if (cache.get("a", "2") != null) PUNT("Stale etag hit.");
+			if ((cache.getCount() != 1)||(cache.getSize() != 40)) PUNT("Stale entry kept.  " + cache);
+			cache.clear();
+			if ((cache.getCount() != 0)||(cache.getSize() != 0)) PUNT("Not cleared.");
+
+			PASS(EVICTION);
+		} catch (TestLocalException tle) {
+			FAIL(EVICTION,tle.getMessage());
+		} catch (Throwable e) {
+		    FAIL(EVICTION,e.getMessage());
+		}
+
+		// Cleanup
+		try {
+			FileTools.destroy(root);
+		} catch (Throwable t) {
+			// Don't care.
+		}
+
+	}  // end test_execute()
+
+	// ==================================================================================================================================
+	// TOOLS
+
+	private HttpRequest request(String path, String... headers) throws Throwable {
+		HttpRequest result = new HttpRequest();
+		result.method = HttpRequest.Method.GET;
+		result.path = path;
+		for (int index = 0; index < headers.length; index += 2) {
+			result.headerItems.setProperty(headers[index], headers[index + 1]);
+		}
+		return result;
+	}
+
+	private void checkRange(ServeFile file, byte[] data, int first, int last) throws Throwable {
+		if (file.status != ServeFile.STATUS_PARTIAL_CONTENT) PUNT("Not 206.  status=" + file.status);
+		if (!("bytes " + first + "-" + last + "/" + data.length).equals(file.contentRange)) PUNT("Bad Content-Range.  got=" + file.contentRange);
+		byte[] got = readAll(file.source);
+		if (got.length != file.length) PUNT("Wrong length.");
+		if (!Arrays.equals(Arrays.copyOfRange(data, first, last + 1), got)) PUNT("Range content differs.");
+	}
+
+	private void write(File root, String name, byte[] data, long modified) throws Throwable {
+		File file = new File(root, ROOT + File.separator + name);
+		file.getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(file);
+		os.write(data);
+		os.close();
+		file.setLastModified(modified);
+	}
+
+	private byte[] gzip(byte[] data) throws Throwable {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(result);
+		gzos.write(data);
+		gzos.close();
+		return result.toByteArray();
+	}
+
+	private byte[] readAll(InputStream ins) throws Throwable {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int size;
+		while ((size = ins.read(buffer)) > 0) {
+			result.write(buffer, 0, size);
+		}
+		ins.close();
+		return result.toByteArray();
+	}
+
+}
@@ -0,0 +1,287 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.things.thinger.service.smtp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import test.things.STUB_Logger;
+import things.common.ThingsNamespace;
+import things.common.impl.StringPosterBitBucket;
+import things.data.Data;
+import things.data.transport.smtp.CleanSMTPClient;
+import things.data.transport.smtp.FancySMTPClient;
+import things.data.transport.smtp.PooledSMTPClientManager;
+import things.data.transport.smtp.Reply;
+import things.testing.unit.Test;
+import things.testing.unit.TestLocalException;
+import things.thing.Metrics;
+import things.thing.RESULT;
+import things.thing.tools.SMTPBenchmark;
+import things.thinger.io.Logger;
+import things.thinger.service.smtp.SMTPSink;
+import things.universe.UniverseID;
+import things.universe.server.UniverseLocal;
+
+/**
+ * TEST the SMTP sink with the real clients, and the benchmark against it.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 MAY 10
+ * </pre>
+ */
+public class TEST_SMTPSink extends Test {
+
+	// TESTS
+	public final static String SETUP = "Setup";
+	public final static String DATA = "Clean DATA";
+	public final static String CHUNKED = "Fancy BDAT";
+	public final static String ORDER = "Command order";
+	public final static String BENCHMARK = "Benchmark";
+	public final static String PERCENTILE = "Percentile";
+
+	// Configuration
+	public final static int TIMEOUT = 5000;
+	public final static String SENDER = "sender@test.com";
+	public final static String MESSAGE = "Subject: test\r\n\r\nLine one\r\n.dotted line\r\n..two dots\r\n.\r\n";
+	public final static int BENCHMARK_MESSAGES = 400;
+	public final static int BENCHMARK_THREADS = 4;
+
+	public void test_prepare() throws Throwable {
+		SET_LONG_NAME("things.thinger.service.smtp.TEST_SMTPSink");
+		DECLARE(SETUP);
+		DECLARE(DATA);
+		DECLARE(CHUNKED);
+		DECLARE(ORDER);
+		DECLARE(BENCHMARK);
+		DECLARE(PERCENTILE);
+	}
+
+	public void test_execute() throws Throwable {
+
+		Logger logger = null;
+		UniverseLocal universe = null;
+		File mail = null;
+		SMTPSink storing = null;
+		SMTPSink counting = null;
+		ServerSocket storingListen = null;
+		ServerSocket countingListen = null;
+
+		// == SETUP =========================================================================================================================
+		try {
+			logger = new STUB_Logger(new StringPosterBitBucket());
+			File root = File.createTempFile("things", "sink");
+			root.delete();
+			root.mkdirs();
+			universe = new UniverseLocal();
+			universe.genesis(root.getAbsolutePath(), new UniverseID("sink"));
+			mail = new File(root, "mail");
+			
+			storing = new SMTPSink(universe, "mail");
+			storingListen = listen(storing);
+			counting = new SMTPSink();
+			countingListen = listen(counting);
+			PASS(SETUP);
+		} catch (Throwable e) {
+		    ABORT(SETUP,e.getMessage());
+		}
+
+		try {
+			
+			// == DATA ==========================================================================================================================
+			try {
+				CleanSMTPClient client = new CleanSMTPClient(logger, "clean");
+				client.setTimeout(TIMEOUT);
+				client.connect("127.0.0.1", storingListen.getLocalPort());
+				if (client.login("test").code != 250) PUNT("Login failed.");
+				Reply[] replies = client.envelope(SENDER, null, "a@test.com", "b@test.com");
+				if ((replies[0].code != 250)||(replies[1].code != 250)||(replies[2].code != 250)) PUNT("Envelope not accepted.");
+				Reply reply = client.sendData(new ByteArrayInputStream(MESSAGE.getBytes()));
+				if (reply.code != 250) PUNT("Data not accepted.  code=" + reply.code);
+				client.done();
+				
+				String stored = onlyMessage(mail);
+				if (!stored.equals(MESSAGE)) PUNT("Stored message is different.  stored=" + stored);
+				if ((storing.getMessages() != 1)||(storing.getRecipients() != 2)) PUNT("Counts wrong.  messages=" + storing.getMessages() + " recipients=" + storing.getRecipients());
+				if (storing.getBytes() != MESSAGE.length()) PUNT("Byte count wrong.  bytes=" + storing.getBytes());
+				PASS(DATA);
+			} catch (TestLocalException tle) {
+				FAIL(DATA,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(DATA,e.getMessage());
+			}
+			
+			// == CHUNKED =======================================================================================================================
+			try {
+				for (File stored : mail.listFiles()) stored.delete();
+				FancySMTPClient client = new FancySMTPClient(logger, "fancy");
+				client.setTimeout(TIMEOUT);
+				client.connect("127.0.0.1", storingListen.getLocalPort());
+				if (client.login("test").code != 250) PUNT("Login failed.");
+				if (!client.extensionPresent(FancySMTPClient.EXTENSION_PIPELINING)) PUNT("PIPELINING not offered.");
+				if (!client.extensionPresent(FancySMTPClient.EXTENSION_CHUNKING)) PUNT("CHUNKING not offered.");
+				
+				byte[] big = SMTPBenchmark.message(100000);
+				client.envelope(SENDER, null, "a@test.com");
+				Reply reply = client.sendData(new ByteArrayInputStream(big));
+				if (reply.code != 250) PUNT("Chunked data not accepted.  code=" + reply.code);
+				client.done();
+				
+				if (!onlyMessage(mail).equals(new String(big, "US-ASCII"))) PUNT("Stored chunked message is different.");
+				PASS(CHUNKED);
+			} catch (TestLocalException tle) {
+				FAIL(CHUNKED,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(CHUNKED,e.getMessage());
+			}
+			
+			// == ORDER =========================================================================================================================
+			try {
+				// Pipelined all at once, so the replies must come back in order from one batch.
+				Socket socket = new Socket("127.0.0.1", countingListen.getLocalPort());
+				socket.setSoTimeout(TIMEOUT);
+				OutputStream out = socket.getOutputStream();
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+				if (!in.readLine().startsWith("220")) PUNT("No greeting.");
+				out.write(("HELO test\r\nRCPT TO:<a@test.com>\r\nDATA\r\nMAIL FROM:<b@test.com>\r\nMAIL FROM:<c@test.com>\r\nBDAT 5\r\n12345" + 
+						"RCPT TO:<a@test.com>\r\nBDAT 3 LAST\r\nabcWHAT\r\nQUIT\r\n").getBytes("US-ASCII"));
+				out.flush();
+				String[] expected = { "250", "503", "503", "250", "503", "503", "250", "250", "502", "221" };
+				for (String code : expected) {
+					String line = in.readLine();
+					if ((line == null)||(!line.startsWith(code))) PUNT("Wrong reply.  expected=" + code + " got=" + line);
+				}
+				socket.close();
+				PASS(ORDER);
+			} catch (TestLocalException tle) {
+				FAIL(ORDER,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(ORDER,e.getMessage());
+			}
+			
+			// == BENCHMARK =====================================================================================================================
+			try {
+				long before = counting.getMessages();
+				PooledSMTPClientManager manager = new PooledSMTPClientManager(BENCHMARK_THREADS);
+				manager.init(logger, "bench", "127.0.0.1", countingListen.getLocalPort(), false, true);
+				RESULT result = SMTPBenchmark.measure(manager, BENCHMARK_MESSAGES, BENCHMARK_THREADS, SMTPBenchmark.message(SMTPBenchmark.DEFAULT_SIZE));
+				manager.disconnect();
+				
+				Metrics metrics = result.getTypedThing();
+				if (result.getType() != Data.Type.PASS) PUNT("Benchmark did not pass.  fail=" + metrics.fail);
+				if (metrics.pass != BENCHMARK_MESSAGES) PUNT("Wrong pass count.  pass=" + metrics.pass);
+				if (counting.getMessages() - before != BENCHMARK_MESSAGES) PUNT("Sink count wrong.  count=" + (counting.getMessages() - before));
+				long p50 = Long.parseLong(result.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_LATENCY_P50).getValue());
+				long p99 = Long.parseLong(result.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_LATENCY_P99).getValue());
+				long max = Long.parseLong(result.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_LATENCY_MAX).getValue());
+				if ((p50 <= 0)||(p50 > p99)||(p99 > max)) PUNT("Latencies don't make sense.  p50=" + p50 + " p99=" + p99 + " max=" + max);
+				
+				RESULT report = counting.report();
+				if (report.getTypedThing().pass != counting.getMessages()) PUNT("Sink report wrong.");
+				PASS(BENCHMARK, "rate=" + result.attributes.getAttribute(ThingsNamespace.ATTR_TRANSPORT_RATE).getValue() + " p50us=" + p50 + " p99us=" + p99);
+			} catch (TestLocalException tle) {
+				FAIL(BENCHMARK,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(BENCHMARK,e.getMessage());
+			}
+			
+			// == PERCENTILE ====================================================================================================================
+			try {
+				long[] values = new long[100];
+				for (int index = 0; index < values.length; index++) values[index] = index + 1;
+				if (SMTPBenchmark.percentile(values, 50) != 50) PUNT("p50 wrong.");
+				if (SMTPBenchmark.percentile(values, 99) != 99) PUNT("p99 wrong.");
+				if (SMTPBenchmark.percentile(values, 100) != 100) PUNT("max wrong.");
+				if (SMTPBenchmark.percentile(new long[] { 7 }, 1) != 7) PUNT("Single value wrong.");
+				if (SMTPBenchmark.percentile(new long[0], 50) != 0) PUNT("Empty wrong.");
+				PASS(PERCENTILE);
+			} catch (TestLocalException tle) {
+				FAIL(PERCENTILE,tle.getMessage());
+			} catch (Throwable e) {
+			    FAIL(PERCENTILE,e.getMessage());
+			}
+			
+		} finally {
+			try {
+				storingListen.close();
+				countingListen.close();
+			} catch (Throwable t) {
+			}
+		}
+	}
+	
+	/**
+	 * Accept connections for a sink, a thread per session.
+	 */
+	private ServerSocket listen(final SMTPSink sink) throws Throwable {
+		final ServerSocket listen = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = listen.accept();
+						Thread session = new Thread() {
+							public void run() {
+								try {
+									sink.session(socket);
+								} catch (Throwable t) {
+								}
+							}
+						};
+						session.setDaemon(true);
+						session.start();
+					}
+				} catch (Throwable t) {
+					// Closed.
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return listen;
+	}
+	
+	/**
+	 * Get the only stored message.
+	 */
+	private String onlyMessage(File mail) throws Throwable {
+		File[] stored = mail.listFiles();
+		if ((stored == null)||(stored.length != 1)) PUNT("Expected one stored message.");
+		InputStream in = new FileInputStream(stored[0]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int size = in.read(buffer);
+		while (size > 0) {
+			out.write(buffer, 0, size);
+			size = in.read(buffer);
+		}
+		in.close();
+		return out.toString("US-ASCII");
+	}
+
+}
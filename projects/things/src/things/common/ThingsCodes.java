@@ -178,6 +178,7 @@ public interface ThingsCodes {
 	public final static int SYSTEM_FAULT_PROCESS_UNHANDLED = 0x1553;
 	public final static int SYSTEM_FAULT_PROCESS_INTERRUPTED = 0x1554;
 	public final static int SYSTEM_FAULT_PROCESS_WAIT_INTERRUPTED = 0x1555;
+	public final static int SYSTEM_FAULT_PROCESS_JOB_FAILED = 0x1556;
 	
 	public final static int	SYSTEM_COMMAND_FAULT = 0x1600;	
 	public final static int	SYSTEM_COMMAND_FAULT_RESPONSE_FAILED = 0x1601;	
@@ -475,6 +476,7 @@ public interface ThingsCodes {
 	
 	public final static int DATA_ERROR_EXPECTED_NUMBER= 0x4930;
 	public final static int DATA_ERROR_BAD_DATE_FORMAT = 0x4931;
+	public final static int DATA_ERROR_BAD_BASE64 = 0x4932;
 	
 	public final static int DATA_ERROR_MATCHER_GENERAL = 0x4940;
 	public final static int DATA_ERROR_MATCHER_CANNOT_ADD = 0x4941;
@@ -512,6 +514,10 @@ public interface ThingsCodes {
 	
 	public final static int PROCESSOR_HTTPHEADER_FAILED = 0x4B10;
 	public final static int PROCESSOR_HTTPREQUEST_FAILED = 0x4B11;
+	public final static int PROCESSOR_HTTPBODY_FAILED = 0x4B12;
+	public final static int PROCESSOR_ADDRESS_FAILED = 0x4B20;
+	public final static int PROCESSOR_MIME_FAILED = 0x4B21;
+	public final static int PROCESSOR_MIME_SPILL_FAILED = 0x4B22;
 	
 	public final static int BAD_DSN = 0x4C20;
 	
@@ -554,6 +560,9 @@ public interface ThingsCodes {
 	public final static int SMTPCLIENT_ERROR_SEND_FAILED = 0x5234;
 	public final static int SMTPCLIENT_ERROR_SEND_TIMEOUT = 0x5235;
 	
+	public final static int SMTPSINK_ERROR = 0x5240;
+	public final static int SMTPSINK_STORE_FAILED = 0x5241;
+	
 	public final static int CRAWLER_ERROR_DURING_SETUP = 0x5250;
 	public final static int CRAWLER_ERROR = 0x5251;
 	
@@ -564,8 +573,11 @@ public interface ThingsCodes {
 	public final static int ACTORSERVICE_PROTOCOL_ERROR = 0x5401;	
 	public final static int ACTORSERVICE_LINK_ERROR = 0x5402;	
 	public final static int ACTORSERVICE_SEND_ERROR = 0x5403;	
+	public final static int ACTORSERVICE_SESSION_REJECTED = 0x5404;
 	
 	public final static int DECOMPOSER_LOOKUP_ERROR = 0x5420;	
+	public final static int LANGUAGE_GENERATION_FAILED = 0x5425;
+	public final static int LANGUAGE_WORD_FILE_FAILED = 0x5426;
 	
 	public final static int PROXY_ERROR = 0x5500;	
 	public final static int PROXY_SESSION_ERROR = 0x5501;	
@@ -628,9 +640,15 @@ public interface ThingsCodes {
 	public final static int SMTPCLIENT_SEND_OK = 0xB060;
 	public final static int SMTPCLIENT_BENIGN_DISCONNECT_ERROR = 0xB061;
 	public final static int SMTPCLIENT_INTERRUPTED_AND_QUITTING = 0xB062;
+	public final static int SMTPCLIENT_POOL_REPORT = 0xB063;
+	public final static int SMTPCLIENT_BENCHMARK_REPORT = 0xB064;
+	public final static int SMTPSINK_REPORT = 0xB065;
 	
 	public final static int SERVICE_ACTOR_OK = 0xB070;
 	public final static int SERVICE_ACTOR_CONNECTION_ACCEPTED = 0xB071;
+	public final static int SERVICE_ACTOR_SESSION_IDLE = 0xB072;
+	public final static int SERVICE_ACTOR_REPORT = 0xB073;
+	public final static int SERVICE_ACTOR_SESSION_CLOSED = 0xB074;
 	
 	public final static int SERVICE_PROXY_ACCEPT = 0xB101;
 	public final static int SERVICE_PROXY_SR_COMPLETE = 0xB102;
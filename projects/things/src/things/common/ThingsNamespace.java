@@ -153,5 +153,13 @@ public interface ThingsNamespace {
 	public final static String ATTR_TRANSPORT_SENT_SIZE = "transport.sent.size";
 	public final static String ATTR_TRANSPORT_SENT_SIZE_ACTUAL = "transport.sent.size.actual";
 	public final static String ATTR_TRANSPORT_SEQUENCE = "transport.sequence";
+	public final static String ATTR_TRANSPORT_CONNECTIONS = "transport.connections";
+	public final static String ATTR_TRANSPORT_RATE = "transport.rate";
+	public final static String ATTR_TRANSPORT_LATENCY_P50 = "transport.latency.p50.us";
+	public final static String ATTR_TRANSPORT_LATENCY_P90 = "transport.latency.p90.us";
+	public final static String ATTR_TRANSPORT_LATENCY_P99 = "transport.latency.p99.us";
+	public final static String ATTR_TRANSPORT_LATENCY_MAX = "transport.latency.max.us";
+	public final static String ATTR_TRANSPORT_MESSAGES = "transport.messages";
+	public final static String ATTR_TRANSPORT_RECIPIENTS = "transport.recipients";
 	
 }
@@ -15,12 +15,14 @@
  */
 package things.common.configuration;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import things.common.StringPoster;
@@ -31,8 +33,9 @@ import things.common.ThingsUsageException;
 import things.common.help.Helper;
 import things.common.help.Helpful;
 import things.common.impl.StringPosterConsole;
-import things.common.impl.StringPosterStringBuffer;
-import things.common.tools.StreamTools;
+import things.common.tools.Parallel;
+import things.common.tools.Template;
+import things.common.tools.TemplateCache;
 import things.data.LineFeeder;
 import things.data.ThingsPropertyView;
 import things.data.impl.FileAccessor;
@@ -65,11 +68,16 @@ import things.thinger.io.fs.FSFileSystem;
  *    recurse   
  * </pre>
  * <p>
+ * Files to configure are gathered for each line and then merged by a pool of threads, since they don't depend on each other.  
+ * Compiled templates are cached between runs and recompiled only when the source file changes.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 JAN 05
+ * EPG - Parallel configure with cached templates - 16 JUN 10
+ * EPG - Configure with Parallel - 30 JUN 10
  * </pre> 
  */
 public class ConfigureByProps implements Helpful {
@@ -88,6 +96,16 @@ public class ConfigureByProps implements Helpful {
 	public final static String	OPERATION_NAME_CHECKPOINT = "checkpoint";	
 	public final static String	OPERATION_NAME_CONFIGURE = "configure";		
 	
+	/**
+	 * The most threads used to configure files.
+	 */
+	public final static int		CONFIGURE_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+	
+	/**
+	 * The most template characters kept compiled between runs.
+	 */
+	public final static long	TEMPLATE_CACHE_LIMIT = 16 * 1024 * 1024;
+	
 
 	// ==============================================================================================
 	// PRIVATE FIELDS
@@ -115,6 +133,10 @@ public class ConfigureByProps implements Helpful {
 	private int	currentLineNumber;
 	private ThingsPropertyView myProps;
 	private Operation currentOperation;
+	private ArrayList<String> pending = new ArrayList<String>();
+	
+	// Shared by all runs.
+	private static TemplateCache templates = new TemplateCache(TEMPLATE_CACHE_LIMIT);
 	
 	// ==============================================================================================
 	// METHODS
@@ -241,6 +263,9 @@ public class ConfigureByProps implements Helpful {
 					logline("Bad line, unknown Action.");
 				} // end if ACTION
 				
+				// Configure what the line gathered.
+				configurePending();
+				
 				// DONT EDIT AFTER!
 				configs = nextConfigLine();
 			} // end while
@@ -277,7 +302,7 @@ public class ConfigureByProps implements Helpful {
 							destination.copy(item,source.openInputStream(item));
 							logline("Copied " + FileSystemTools.normalizePath(item));
 						} else {
-							configurator(item);
+							pending.add(item);
 						}
 						
 					} else if (source.isDirectory(item)) {
@@ -299,7 +324,7 @@ public class ConfigureByProps implements Helpful {
 					destination.copy(root,source.openInputStream(root));
 					logline("Copied " + FileSystemTools.normalizePath(root));
 				} else {
-					configurator(root);				 
+					pending.add(root);				 
 				}
 			}	
 		
@@ -310,22 +335,78 @@ public class ConfigureByProps implements Helpful {
 	}
 	
 	/**
-	 * Perform a configuration.
+	 * Configure the gathered files.  A pool of threads takes them in turn.  If any fail, the rest are not started and the first
+	 * failure is thrown.  The files that were configured are logged in the order they were gathered, not the order they finished.
+	 * @throws ThingsException
+	 */
+	private void configurePending() throws ThingsException {
+		if (pending.size() < 1) return;
+		final List<String> items = pending;
+		pending = new ArrayList<String>();
+		
+		final AtomicInteger next = new AtomicInteger();
+		final ThingsException[] failure = new ThingsException[1];
+		final String[] failed = new String[1];
+		final boolean[] configured = new boolean[items.size()];
+		Parallel.Job[] jobs = new Parallel.Job[Math.min(CONFIGURE_THREADS, items.size())];
+		for (int index = 0; index < jobs.length; index++) {
+			jobs[index] = new Parallel.Job() {
+				public void run() throws Throwable {
+					int item = next.getAndIncrement();
+					while ((item < items.size()) && !Thread.currentThread().isInterrupted()) {
+						try {
+							configurator(items.get(item));
+						} catch (Throwable t) {
+							synchronized(failure) {
+								if (failure[0] == null) {
+									failure[0] = (t instanceof ThingsException) ? (ThingsException)t : 
+										new ThingsException("Configurator fault.  " + t.getMessage(),ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION,t);
+									failed[0] = items.get(item);
+								}
+							}
+							throw t;
+						}
+						configured[item] = true;
+						item = next.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			Parallel.runAll(jobs);
+		} catch (InterruptedException ie) {
+			throw new ThingsException("Interrupted while configuring.",ThingsException.CONFIGURATION_FAULT_DEFAULT,ie);
+		} catch (Throwable t) {
+			// The jobs keep the first failure with its item.  Only a failure to start them isn't kept.
+			if (failure[0] == null) throw new ThingsException("Configurator fault.  " + t.getMessage(),ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION,t);
+		} finally {
+			for (int item = 0; item < items.size(); item++) {
+				if (configured[item]) logline("Configured " + FileSystemTools.normalizePath(items.get(item)));
+			}
+		}
+		
+		if (failure[0] != null) {
+			logline("Failed " + FileSystemTools.normalizePath(failed[0]));
+			throw failure[0];
+		}
+	}
+	
+	/**
+	 * Perform a configuration.  It isn't logged here, so configurePending() can log them in order.
 	 * @param item
 	 * @throws ThingsException
 	 */
 	private void configurator(String item) throws ThingsException {
 		
-		StringPosterStringBuffer reporter = new StringPosterStringBuffer();
-		BufferedReader bin = null;
 		BufferedWriter bout = null;
 		try {
-			bin = new BufferedReader(new InputStreamReader(source.openInputStream(item)));
+			Template template = template(item);
 			bout  = new BufferedWriter(new OutputStreamWriter(destination.openOutputStream(item)));				
-			if (!StreamTools.merge(bin,bout,myProps,reporter)) {
-					throw new ThingsException(reporter.toString(),ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION);
+			try {
+				template.merge(bout,myProps);
+			} catch (ThingsException te) {
+				throw new ThingsException(te.getMessage(),ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION,te);
 			} 
-			logline("Configured " + FileSystemTools.normalizePath(item));
 			
 		} catch (ThingsException tee) {
 			throw tee;
@@ -337,12 +418,30 @@ public class ConfigureByProps implements Helpful {
 			} catch (Exception e) {
 				// ignore
 			}
+		}
+	}
+	
+	/**
+	 * Get the compiled template for a source file.  It comes from the cache unless the file changed.
+	 * @param item the source file.
+	 * @return the template.
+	 * @throws Exception
+	 */
+	private Template template(String item) throws Exception, ThingsException {
+		String key = source.describeRoot() + ":" + FileSystemTools.normalizePath(item);
+		long modified = source.lastModified(item);
+		long length = source.size(item);
+		Template result = templates.get(key, modified, length);
+		if (result == null) {
+			Reader bin = new InputStreamReader(source.openInputStream(item));
 			try {
-				bin.close();			
-			} catch (Exception e) {
-				// ignore
+				result = Template.compile(bin);
+			} finally {
+				bin.close();
 			}
+			if (modified != 0) templates.put(key, modified, length, result);
 		}
+		return result;
 	}
 		
 	// ==============================================================================================
@@ -407,7 +506,9 @@ public class ConfigureByProps implements Helpful {
 	 *  @param message A message to log.
 	 */
 	private void logline(String message) {
-		logger.postit(formLogline(message));
+		synchronized(logger) {
+			logger.postit(formLogline(message));
+		}
 	}	
 	
 	/**
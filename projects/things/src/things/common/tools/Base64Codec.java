@@ -0,0 +1,743 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+
+/**
+ * A table driven Base64 codec for bulk work.  It speaks the same dialects and line breaking as {@link Base64} and takes the same 
+ * option flags (URL_SAFE, ORDERED and DONT_BREAK_LINES), but it works on whole buffers.  Encoding looks up twelve bits at a time, 
+ * so a triplet is two table reads, and decoding looks up two characters at a time, so a clean quartet is also two table reads.  
+ * The options are settled once, when the tables are picked, and not checked in the loops.
+ * <p>
+ * The Encoder and Decoder are incremental, in the manner of a CharsetEncoder.  Give them whatever input and output room you have 
+ * and they report UNDERFLOW (they want more input, or they are finished if it was the end of input), OVERFLOW (they want more 
+ * output room), or MALFORMED (the decoder is stopped on a bad character).  They hold a partial group between calls.  An output 
+ * buffer should have at least five bytes of room or it may never see progress.
+ * <p>
+ * The static methods are thread safe.  Encoders, Decoders and the streams are not.  The tables for a dialect are built the first time 
+ * it is used.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 31 MAY 10
+ * </pre> 
+ */
+public class Base64Codec {
+
+	// =================================================================================================
+	// == FIELDS
+
+	/**
+	 * All the input was used.  Give more or, if it was the end of input, the work is done.
+	 */
+	public final static int UNDERFLOW = 0;
+
+	/**
+	 * The output is full.  Make room and call again.
+	 */
+	public final static int OVERFLOW = 1;
+
+	/**
+	 * The input has a bad character at its position.  Only a strict Decoder will say this.
+	 */
+	public final static int MALFORMED = 2;
+
+	/**
+	 * Line length for broken lines.  Same as Base64.
+	 */
+	public final static int LINE_LENGTH = 76;
+
+	private final static int QUADS_PER_LINE = LINE_LENGTH / 4;
+	private final static int SCRATCH_SIZE = 4096;
+	private final static byte NEW_LINE = (byte)'\n';
+	private final static byte EQUALS_SIGN = (byte)'=';
+	private final static byte BAD = -9;
+	private final static byte WHITE_SPACE = -5;
+	private final static byte PAD = -1;
+
+	private final static String STANDARD_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+	private final static String URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+	private final static String ORDERED_ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+	private final static int DIALECT_STANDARD = 0;
+	private final static int DIALECT_URL_SAFE = 1;
+	private final static int DIALECT_ORDERED = 2;
+	private static Tables[] dialects = new Tables[3];
+
+	/**
+	 * The lookup tables for one dialect.
+	 */
+	private static class Tables {
+
+		/**
+		 * Twelve bits to two characters, the first in the high byte.
+		 */
+		final short[] encode = new short[4096];
+
+		/**
+		 * Two characters, the first in the high byte, to twelve bits.  -1 if either isn't in the alphabet.
+		 */
+		final short[] decode = new short[65536];
+
+		/**
+		 * One character to six bits, or BAD, WHITE_SPACE or PAD.
+		 */
+		final byte[] sextet = new byte[256];
+
+		Tables(String alphabet) {
+			for (int index = 0; index < 256; index++) sextet[index] = BAD;
+			sextet['\t'] = WHITE_SPACE;
+			sextet['\n'] = WHITE_SPACE;
+			sextet['\r'] = WHITE_SPACE;
+			sextet[' '] = WHITE_SPACE;
+			sextet[EQUALS_SIGN] = PAD;
+			for (int index = 0; index < 64; index++) sextet[alphabet.charAt(index)] = (byte)index;
+
+			for (int bits = 0; bits < 4096; bits++) {
+				encode[bits] = (short)((alphabet.charAt(bits >>> 6) << 8) | alphabet.charAt(bits & 0x3f));
+			}
+			for (int pair = 0; pair < 65536; pair++) {
+				int high = sextet[pair >>> 8];
+				int low = sextet[pair & 0xff];
+				if ((high < 0)||(low < 0)) decode[pair] = -1;
+				else decode[pair] = (short)((high << 6) | low);
+			}
+		}
+	}
+
+	// =================================================================================================
+	// == STATIC METHODS
+
+	/**
+	 * Get the tables for the dialect named in the options.  URL_SAFE wins over ORDERED, as it does in Base64.
+	 * @param options the options.
+	 * @return the tables.
+	 */
+	private static synchronized Tables getTables(int options) {
+		int dialect = DIALECT_STANDARD;
+		String alphabet = STANDARD_ALPHABET;
+		if ((options & Base64.URL_SAFE) == Base64.URL_SAFE) {
+			dialect = DIALECT_URL_SAFE;
+			alphabet = URL_SAFE_ALPHABET;
+		} else if ((options & Base64.ORDERED) == Base64.ORDERED) {
+			dialect = DIALECT_ORDERED;
+			alphabet = ORDERED_ALPHABET;
+		}
+		if (dialects[dialect] == null) dialects[dialect] = new Tables(alphabet);
+		return dialects[dialect];
+	}
+
+	/**
+	 * How many bytes will encoding produce?  Lines are broken the way Base64.encodeBytes() breaks them: a newline after every 
+	 * nineteenth whole triplet.
+	 * @param length the number of bytes to encode.
+	 * @param options the options.
+	 * @return the encoded length.
+	 */
+	public static int encodedLength(int length, int options) {
+		int result = ((length + 2) / 3) * 4;
+		if ((options & Base64.DONT_BREAK_LINES) != Base64.DONT_BREAK_LINES) result += (length / 3) / QUADS_PER_LINE;
+		return result;
+	}
+
+	/**
+	 * The most bytes decoding could produce.
+	 * @param length the number of characters to decode.
+	 * @return the largest decoded length.
+	 */
+	public static int maxDecodedLength(int length) {
+		return (int)(((long)length * 3) / 4);
+	}
+
+	/**
+	 * Encode bytes.
+	 * @param source the bytes.
+	 * @param off where to start.
+	 * @param len how many.
+	 * @param options the options.
+	 * @return the encoded bytes.
+	 */
+	public static byte[] encode(byte[] source, int off, int len, int options) {
+		byte[] result = new byte[encodedLength(len, options)];
+		new Encoder(options).encode(ByteBuffer.wrap(source, off, len), ByteBuffer.wrap(result), true);
+		return result;
+	}
+
+	/**
+	 * Encode bytes.
+	 * @param source the bytes.
+	 * @param options the options.
+	 * @return the encoded bytes.
+	 */
+	public static byte[] encode(byte[] source, int options) {
+		return encode(source, 0, source.length, options);
+	}
+
+	/**
+	 * Encode bytes to a string.
+	 * @param source the bytes.
+	 * @param options the options.
+	 * @return the encoded string.
+	 */
+	public static String encodeToString(byte[] source, int options) {
+		byte[] encoded = encode(source, 0, source.length, options);
+		char[] result = new char[encoded.length];
+		for (int index = 0; index < encoded.length; index++) result[index] = (char)encoded[index];
+		return new String(result);
+	}
+
+	/**
+	 * Encode the remaining bytes in a buffer.  The source position is moved to its limit.
+	 * @param source the bytes.
+	 * @param options the options.
+	 * @return a new buffer with the encoded bytes, ready to read.
+	 */
+	public static ByteBuffer encode(ByteBuffer source, int options) {
+		ByteBuffer result = ByteBuffer.allocate(encodedLength(source.remaining(), options));
+		new Encoder(options).encode(source, result, true);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * Decode bytes.  Whitespace is skipped, anything after padding is ignored, and an unpadded last group is decoded.
+	 * @param source the characters as bytes.
+	 * @param off where to start.
+	 * @param len how many.
+	 * @param options the options.  Only the dialect matters.
+	 * @return the decoded bytes.
+	 * @throws ThingsException DATA_ERROR_BAD_BASE64 for a character that is not in the dialect or a lone character in the last group.
+	 */
+	public static byte[] decode(byte[] source, int off, int len, int options) throws ThingsException {
+		ByteBuffer result = decode(ByteBuffer.wrap(source, off, len), options);
+		if (result.remaining() == result.capacity()) return result.array();
+		byte[] trimmed = new byte[result.remaining()];
+		result.get(trimmed);
+		return trimmed;
+	}
+
+	/**
+	 * Decode a string.
+	 * @param source the characters.
+	 * @param options the options.  Only the dialect matters.
+	 * @return the decoded bytes.
+	 * @throws ThingsException DATA_ERROR_BAD_BASE64 for a character that is not in the dialect or a lone character in the last group.
+	 * @see #decode(byte[], int, int, int)
+	 */
+	public static byte[] decode(String source, int options) throws ThingsException {
+		byte[] characters = new byte[source.length()];
+		for (int index = 0; index < characters.length; index++) {
+			char c = source.charAt(index);
+			if (c < 256) characters[index] = (byte)c;
+		}
+		return decode(characters, 0, characters.length, options);
+	}
+
+	/**
+	 * Decode the remaining bytes in a buffer.  The source position is moved to its limit.
+	 * @param source the characters as bytes.
+	 * @param options the options.  Only the dialect matters.
+	 * @return a new buffer with the decoded bytes, ready to read.
+	 * @throws ThingsException DATA_ERROR_BAD_BASE64 for a character that is not in the dialect or a lone character in the last group.
+	 * @see #decode(byte[], int, int, int)
+	 */
+	public static ByteBuffer decode(ByteBuffer source, int options) throws ThingsException {
+		int start = source.position();
+		ByteBuffer result = ByteBuffer.allocate(maxDecodedLength(source.remaining()));
+		if (new Decoder(options).decode(source, result, true) == MALFORMED) {
+			throw new ThingsException("Bad Base64 data.", ThingsException.DATA_ERROR_BAD_BASE64, ThingsNamespace.ATTR_DATA_INDEX, Integer.toString(source.position() - start));
+		}
+		result.flip();
+		return result;
+	}
+
+	// =================================================================================================
+	// == CODERS
+
+	/**
+	 * The shared buffer handling.  The real work is done over arrays.  Buffers that aren't backed by an accessible array go 
+	 * through scratch arrays.
+	 */
+	abstract static class Coder {
+
+		/**
+		 * Where the last code() left the source and destination.
+		 */
+		int sourcePosition;
+		int destinationPosition;
+
+		private byte[] scratchSource;
+		private byte[] scratchDestination;
+
+		/**
+		 * Do the work.  Set sourcePosition and destinationPosition before returning.
+		 */
+		abstract int code(byte[] source, int sp, int sl, byte[] destination, int dp, int dl, boolean endOfInput);
+
+		final int code(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+			if (in.hasArray() && out.hasArray()) {
+				int inBase = in.arrayOffset();
+				int outBase = out.arrayOffset();
+				int result = code(in.array(), inBase + in.position(), inBase + in.limit(), out.array(), outBase + out.position(), outBase + out.limit(), endOfInput);
+				in.position(sourcePosition - inBase);
+				out.position(destinationPosition - outBase);
+				return result;
+			}
+
+			if (scratchSource == null) {
+				scratchSource = new byte[SCRATCH_SIZE];
+				scratchDestination = new byte[SCRATCH_SIZE];
+			}
+			int result;
+			boolean roomLeft;
+			do {
+				int start = in.position();
+				int size = Math.min(in.remaining(), SCRATCH_SIZE);
+				int room = Math.min(out.remaining(), SCRATCH_SIZE);
+				boolean last = endOfInput && (size == in.remaining());
+				roomLeft = out.remaining() > room;
+				in.get(scratchSource, 0, size);
+				result = code(scratchSource, 0, size, scratchDestination, 0, room, last);
+				in.position(start + sourcePosition);
+				out.put(scratchDestination, 0, destinationPosition);
+			} while (((result == UNDERFLOW)&&(in.hasRemaining())) || ((result == OVERFLOW)&&(roomLeft)));
+			return result;
+		}
+
+		final int done(int sp, int dp, int result) {
+			sourcePosition = sp;
+			destinationPosition = dp;
+			return result;
+		}
+	}
+
+	/**
+	 * An incremental encoder.
+	 */
+	public static class Encoder extends Coder {
+
+		private final short[] table;
+		private final boolean breakLines;
+		private final byte[] pending = new byte[3];
+		private int pendingCount;
+		private int lineQuads;
+
+		/**
+		 * Constructor.
+		 * @param options the options: URL_SAFE, ORDERED and DONT_BREAK_LINES.
+		 */
+		public Encoder(int options) {
+			table = getTables(options).encode;
+			breakLines = (options & Base64.DONT_BREAK_LINES) != Base64.DONT_BREAK_LINES;
+		}
+
+		/**
+		 * Forget any held bytes and start a new line.
+		 */
+		public void reset() {
+			pendingCount = 0;
+			lineQuads = 0;
+		}
+
+		/**
+		 * Encode as much as possible.  When it is the end of input, the last partial group is padded and written.  Call reset() 
+		 * before using it for something new.
+		 * @param in the bytes.  The position is moved past what was used.
+		 * @param out the output.  The position is moved past what was written.
+		 * @param endOfInput true if there is no more input after this.
+		 * @return UNDERFLOW or OVERFLOW.
+		 */
+		public int encode(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+			return code(in, out, endOfInput);
+		}
+
+		int code(byte[] source, int sp, int sl, byte[] destination, int dp, int dl, boolean endOfInput) {
+			// Finish a held group.
+			if (pendingCount > 0) {
+				while ((pendingCount < 3)&&(sp < sl)) pending[pendingCount++] = source[sp++];
+				if (pendingCount == 3) {
+					int need = ((breakLines)&&(lineQuads == QUADS_PER_LINE - 1)) ? 5 : 4;
+					if (dl - dp < need) return done(sp, dp, OVERFLOW);
+					dp = quad(((pending[0] & 0xff) << 16) | ((pending[1] & 0xff) << 8) | (pending[2] & 0xff), destination, dp);
+					pendingCount = 0;
+					if (breakLines && (++lineQuads == QUADS_PER_LINE)) {
+						destination[dp++] = NEW_LINE;
+						lineQuads = 0;
+					}
+				}
+			}
+
+			// Whole triplets, a line or as much as fits at a time.
+			while (sl - sp >= 3) {
+				int quads = Math.min((sl - sp) / 3, (dl - dp) / 4);
+				if (breakLines) {
+					int toEnd = QUADS_PER_LINE - lineQuads;
+					if (quads >= toEnd) quads = (dl - dp > toEnd * 4) ? toEnd : toEnd - 1;
+				}
+				if (quads <= 0) return done(sp, dp, OVERFLOW);
+
+				int end = sp + (quads * 3);
+				while (sp < end) {
+					int bits = ((source[sp] & 0xff) << 16) | ((source[sp + 1] & 0xff) << 8) | (source[sp + 2] & 0xff);
+					short high = table[bits >>> 12];
+					short low = table[bits & 0xfff];
+					destination[dp] = (byte)(high >> 8);
+					destination[dp + 1] = (byte)high;
+					destination[dp + 2] = (byte)(low >> 8);
+					destination[dp + 3] = (byte)low;
+					sp += 3;
+					dp += 4;
+				}
+
+				if (breakLines) {
+					lineQuads += quads;
+					if (lineQuads == QUADS_PER_LINE) {
+						destination[dp++] = NEW_LINE;
+						lineQuads = 0;
+					}
+				}
+			}
+
+			// Hold what's left.
+			while (sp < sl) pending[pendingCount++] = source[sp++];
+
+			// Pad the last group.
+			if (endOfInput && (pendingCount > 0)) {
+				if (dl - dp < 4) return done(sp, dp, OVERFLOW);
+				int bits = (pending[0] & 0xff) << 16;
+				if (pendingCount > 1) bits |= (pending[1] & 0xff) << 8;
+				dp = quad(bits, destination, dp);
+				destination[dp - 1] = EQUALS_SIGN;
+				if (pendingCount == 1) destination[dp - 2] = EQUALS_SIGN;
+				pendingCount = 0;
+			}
+			return done(sp, dp, UNDERFLOW);
+		}
+
+		private int quad(int bits, byte[] destination, int dp) {
+			short high = table[bits >>> 12];
+			short low = table[bits & 0xfff];
+			destination[dp] = (byte)(high >> 8);
+			destination[dp + 1] = (byte)high;
+			destination[dp + 2] = (byte)(low >> 8);
+			destination[dp + 3] = (byte)low;
+			return dp + 4;
+		}
+	}
+
+	/**
+	 * An incremental decoder.  Whitespace is skipped and anything after padding is ignored.  At the end of input an unpadded last 
+	 * group is decoded.  A lenient decoder also skips characters that aren't in the dialect and drops a lone character in the last 
+	 * group, so it never reports MALFORMED.
+	 */
+	public static class Decoder extends Coder {
+
+		private final short[] table;
+		private final byte[] sextet;
+		private final boolean lenient;
+		private int group;
+		private int groupCount;
+		private boolean padded;
+
+		/**
+		 * Constructor for a strict decoder.
+		 * @param options the options.  Only the dialect matters.
+		 */
+		public Decoder(int options) {
+			this(options, false);
+		}
+
+		/**
+		 * Constructor.
+		 * @param options the options.  Only the dialect matters.
+		 * @param lenient true to skip bad characters rather than report them.
+		 */
+		public Decoder(int options, boolean lenient) {
+			Tables tables = getTables(options);
+			table = tables.decode;
+			sextet = tables.sextet;
+			this.lenient = lenient;
+		}
+
+		/**
+		 * Forget any held characters and any padding seen.
+		 */
+		public void reset() {
+			group = 0;
+			groupCount = 0;
+			padded = false;
+		}
+
+		/**
+		 * Has it seen padding?  Everything after it is ignored.
+		 * @return true if it has.
+		 */
+		public boolean isPadded() {
+			return padded;
+		}
+
+		/**
+		 * Decode as much as possible.  Call reset() before using it for something new.
+		 * @param in the characters as bytes.  The position is moved past what was used.  On MALFORMED it is at the bad character.
+		 * @param out the output.  The position is moved past what was written.
+		 * @param endOfInput true if there is no more input after this.
+		 * @return UNDERFLOW, OVERFLOW or MALFORMED.  A lone character in the last group is MALFORMED with all the input used.
+		 */
+		public int decode(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+			return code(in, out, endOfInput);
+		}
+
+		int code(byte[] source, int sp, int sl, byte[] destination, int dp, int dl, boolean endOfInput) {
+			if (padded) sp = sl;
+
+			while (sp < sl) {
+
+				// Clean quartets.
+				if (groupCount == 0) {
+					int end = sp + (Math.min((sl - sp) / 4, (dl - dp) / 3) * 4);
+					while (sp < end) {
+						int high = table[((source[sp] & 0xff) << 8) | (source[sp + 1] & 0xff)];
+						int low = table[((source[sp + 2] & 0xff) << 8) | (source[sp + 3] & 0xff)];
+						if ((high | low) < 0) break;
+						int bits = (high << 12) | low;
+						destination[dp] = (byte)(bits >> 16);
+						destination[dp + 1] = (byte)(bits >> 8);
+						destination[dp + 2] = (byte)bits;
+						sp += 4;
+						dp += 3;
+					}
+					if (sp >= sl) break;
+				}
+
+				// One character at a time until the group is whole again.
+				int value = sextet[source[sp] & 0xff];
+				if (value >= 0) {
+					if ((groupCount == 3)&&(dl - dp < 3)) return done(sp, dp, OVERFLOW);
+					group = (group << 6) | value;
+					sp++;
+					if (++groupCount == 4) {
+						destination[dp] = (byte)(group >> 16);
+						destination[dp + 1] = (byte)(group >> 8);
+						destination[dp + 2] = (byte)group;
+						dp += 3;
+						group = 0;
+						groupCount = 0;
+					}
+
+				} else if (value == WHITE_SPACE) {
+					sp++;
+
+				} else if (value == PAD) {
+					if ((groupCount == 1)&&(!lenient)) return done(sp, dp, MALFORMED);
+					if (dl - dp < groupCount - 1) return done(sp, dp, OVERFLOW);
+					dp = flushGroup(destination, dp);
+					padded = true;
+					sp = sl;
+
+				} else {
+					if (!lenient) return done(sp, dp, MALFORMED);
+					sp++;
+				}
+			}
+
+			// An unpadded last group.
+			if (endOfInput && (groupCount > 0)) {
+				if ((groupCount == 1)&&(!lenient)) {
+					groupCount = 0;
+					group = 0;
+					return done(sp, dp, MALFORMED);
+				}
+				if (dl - dp < groupCount - 1) return done(sp, dp, OVERFLOW);
+				dp = flushGroup(destination, dp);
+			}
+			return done(sp, dp, UNDERFLOW);
+		}
+
+		/**
+		 * Write what a partial group holds.  A lone character holds less than a byte and is dropped.
+		 */
+		private int flushGroup(byte[] destination, int dp) {
+			if (groupCount == 2) {
+				destination[dp++] = (byte)(group >> 4);
+			} else if (groupCount == 3) {
+				destination[dp++] = (byte)(group >> 10);
+				destination[dp++] = (byte)(group >> 2);
+			}
+			group = 0;
+			groupCount = 0;
+			return dp;
+		}
+	}
+
+	// =================================================================================================
+	// == STREAMS
+
+	/**
+	 * Decode Base64 read from another stream, a block at a time.  It is lenient, like Base64.InputStream: bad characters are skipped.
+	 */
+	public static class DecodingInputStream extends FilterInputStream {
+
+		private final Decoder decoder;
+		private final ByteBuffer raw = ByteBuffer.allocate(SCRATCH_SIZE);
+		private final ByteBuffer decoded = ByteBuffer.allocate(SCRATCH_SIZE);
+		private final byte[] single = new byte[1];
+		private boolean endOfInput;
+		private boolean done;
+
+		/**
+		 * Constructor.
+		 * @param in the stream of Base64 characters.
+		 * @param options the options.  Only the dialect matters.
+		 */
+		public DecodingInputStream(java.io.InputStream in, int options) {
+			super(in);
+			decoder = new Decoder(options, true);
+			raw.flip();
+			decoded.flip();
+		}
+
+		public int read() throws IOException {
+			if (read(single, 0, 1) < 0) return -1;
+			return single[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			while (!decoded.hasRemaining()) {
+				if (done) return -1;
+				fill();
+			}
+			int size = Math.min(len, decoded.remaining());
+			decoded.get(b, off, size);
+			return size;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n) {
+				while (!decoded.hasRemaining()) {
+					if (done) return skipped;
+					fill();
+				}
+				int size = (int)Math.min(n - skipped, decoded.remaining());
+				decoded.position(decoded.position() + size);
+				skipped += size;
+			}
+			return skipped;
+		}
+
+		public int available() throws IOException {
+			return decoded.remaining();
+		}
+
+		public boolean markSupported() {
+			return false;
+		}
+
+		public void mark(int readlimit) {
+			// Not supported.
+		}
+
+		public void reset() throws IOException {
+			throw new IOException("mark/reset not supported");
+		}
+
+		private void fill() throws IOException {
+			if ((!raw.hasRemaining())&&(!endOfInput)) {
+				int size = in.read(raw.array(), 0, raw.capacity());
+				raw.clear();
+				if (size < 0) {
+					endOfInput = true;
+					raw.limit(0);
+				} else {
+					raw.limit(size);
+				}
+			}
+			decoded.clear();
+			if ((decoder.decode(raw, decoded, endOfInput) == UNDERFLOW)&&(endOfInput)) done = true;
+			decoded.flip();
+		}
+	}
+
+	/**
+	 * Encode into another stream, a block at a time.  close() or finish() pads the last group.
+	 */
+	public static class EncodingOutputStream extends FilterOutputStream {
+
+		private final Encoder encoder;
+		private final ByteBuffer encoded = ByteBuffer.allocate(SCRATCH_SIZE);
+		private final ByteBuffer empty = ByteBuffer.allocate(0);
+		private final byte[] single = new byte[1];
+
+		/**
+		 * Constructor.
+		 * @param out the stream to get the Base64 characters.
+		 * @param options the options: URL_SAFE, ORDERED and DONT_BREAK_LINES.
+		 */
+		public EncodingOutputStream(java.io.OutputStream out, int options) {
+			super(out);
+			encoder = new Encoder(options);
+		}
+
+		public void write(int b) throws IOException {
+			single[0] = (byte)b;
+			write(single, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer source = ByteBuffer.wrap(b, off, len);
+			while (encoder.encode(source, encoded, false) == OVERFLOW) drain();
+		}
+
+		/**
+		 * Pad and write the last group without closing.  Anything written after this starts a new encoding on a new line count.
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			while (encoder.encode(empty, encoded, true) == OVERFLOW) drain();
+			drain();
+			encoder.reset();
+		}
+
+		/**
+		 * Flush what is encoded so far.  A held partial group stays held.
+		 */
+		public void flush() throws IOException {
+			drain();
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			finish();
+			super.close();
+		}
+
+		private void drain() throws IOException {
+			out.write(encoded.array(), 0, encoded.position());
+			encoded.clear();
+		}
+	}
+
+}
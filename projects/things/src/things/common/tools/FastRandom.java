@@ -0,0 +1,235 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+import java.util.Random;
+
+/**
+ * A fast random source.  It is xoshiro256** seeded through SplitMix64, so any seed (even 0) gives a good start.  It is a Random, 
+ * so it can go anywhere a Random does, but unlike Random it has no atomic seed: an instance must only be used by one thread at 
+ * a time.
+ * <p>
+ * current() gets the calling thread's own instance.  shared() gets one Random that any number of threads can use at once, since 
+ * it only hands each call to the calling thread's instance.  A seeded FastRandom gives the same numbers every time, which is what 
+ * a test wants.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 14 JUN 10
+ * </pre> 
+ */
+public class FastRandom extends Random {
+	
+	public static final long serialVersionUID=1;
+	
+	// ========================================================================================
+	// = DATA
+	private final static long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private final static double DOUBLE_UNIT = 1.0 / (1L << 53);
+	private final static float FLOAT_UNIT = 1.0f / (1 << 24);
+	
+	private long s0;
+	private long s1;
+	private long s2;
+	private long s3;
+	
+	private final static ThreadLocal<FastRandom> local = new ThreadLocal<FastRandom>() {
+		protected FastRandom initialValue() {
+			return new FastRandom();
+		}
+	};
+	private final static Random SHARED = new Shared();
+	
+	// ========================================================================================
+	// = METHODS
+	
+	/**
+	 * Construct with a seed that is different every time.
+	 */
+	public FastRandom() {
+		super();
+	}
+	
+	/**
+	 * Construct with a seed.
+	 * @param seed the seed.
+	 */
+	public FastRandom(long seed) {
+		super(seed);
+	}
+	
+	/**
+	 * The calling thread's own instance.  Don't give it to other threads.
+	 * @return the instance.
+	 */
+	public static FastRandom current() {
+		return local.get();
+	}
+	
+	/**
+	 * A Random any thread can use, without contention.  It can't be seeded.
+	 * @return the shared Random.
+	 */
+	public static Random shared() {
+		return SHARED;
+	}
+	
+	/**
+	 * Get a generator for this thread to use in a tight loop.  The shared Random is swapped for the thread's own instance, which 
+	 * saves a lookup on every call.  Anything else is returned as is.
+	 * @param source the source.
+	 * @return the generator to use.
+	 */
+	public static Random local(Random source) {
+		if (source == SHARED) return local.get();
+		return source;
+	}
+	
+	/**
+	 * Start over from a seed.
+	 * @param seed the seed.
+	 */
+	public void setSeed(long seed) {
+		s0 = mix(seed += GOLDEN_GAMMA);
+		s1 = mix(seed += GOLDEN_GAMMA);
+		s2 = mix(seed += GOLDEN_GAMMA);
+		s3 = mix(seed + GOLDEN_GAMMA);
+	}
+	
+	/**
+	 * Make a new generator seeded from this one.  The two streams won't overlap in practice, so it is a good way to give threads 
+	 * their own reproducible generators.
+	 * @return the new generator.
+	 */
+	public FastRandom split() {
+		return new FastRandom(nextLong());
+	}
+
+	public long nextLong() {
+		long result = Long.rotateLeft(s1 * 5, 7) * 9;
+		long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+	
+	public int nextInt() {
+		return (int)(nextLong() >>> 32);
+	}
+	
+	/**
+	 * A number from 0 up to the bound, exclusive, without bias.
+	 * @param bound the bound.  It must be positive.
+	 * @return the number.
+	 */
+	public int nextInt(int bound) {
+		if (bound <= 0) throw new IllegalArgumentException("bound must be positive");
+		long product = (nextLong() >>> 32) * bound;
+		if ((product & 0xffffffffL) < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while ((product & 0xffffffffL) < threshold) product = (nextLong() >>> 32) * bound;
+		}
+		return (int)(product >>> 32);
+	}
+	
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+	
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+	
+	public float nextFloat() {
+		return (nextLong() >>> 40) * FLOAT_UNIT;
+	}
+	
+	protected int next(int bits) {
+		return (int)(nextLong() >>> (64 - bits));
+	}
+	
+	// ========================================================================================
+	// = INTERNAL
+	
+	/**
+	 * SplitMix64 finalizer.
+	 */
+	static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+	
+	/**
+	 * Hands everything to the calling thread's instance.
+	 */
+	private static class Shared extends Random {
+		public static final long serialVersionUID=1;
+		private final boolean initialized;
+		
+		Shared() {
+			super(0);
+			initialized = true;
+		}
+		
+		public void setSeed(long seed) {
+			if (initialized) throw new UnsupportedOperationException("The shared random source cannot be seeded.");
+		}
+		
+		public long nextLong() {
+			return local.get().nextLong();
+		}
+		
+		public int nextInt() {
+			return local.get().nextInt();
+		}
+		
+		public int nextInt(int bound) {
+			return local.get().nextInt(bound);
+		}
+		
+		public boolean nextBoolean() {
+			return local.get().nextBoolean();
+		}
+		
+		public double nextDouble() {
+			return local.get().nextDouble();
+		}
+		
+		public float nextFloat() {
+			return local.get().nextFloat();
+		}
+		
+		public void nextBytes(byte[] bytes) {
+			local.get().nextBytes(bytes);
+		}
+		
+		public double nextGaussian() {
+			return local.get().nextGaussian();
+		}
+		
+		protected int next(int bits) {
+			return local.get().next(bits);
+		}
+	}
+	
+}
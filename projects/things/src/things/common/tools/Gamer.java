@@ -25,6 +25,7 @@ import java.util.Random;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Rewrite - 10 AUG 06
+ * EPG - Per thread random source by default, seeded or plugged in if wanted - 14 JUN 10
  * </pre> 
  */
 public class Gamer {
@@ -38,7 +39,8 @@ public class Gamer {
 	// = FIELDS
 	
 	/**
-	 * The Random source.  I can't remember why I left it public.
+	 * The Random source.  I can't remember why I left it public.  By default it is FastRandom.shared(), which any thread can use 
+	 * without waiting on the others.
 	 */
 	public Random rng;
 	
@@ -47,12 +49,53 @@ public class Gamer {
 	// = METHODS
 	
     /**
-     * Construct the gamer.
+     * Construct the gamer.  Each thread that uses it gets its own random numbers.
      */
     public Gamer() {
-    	rng = new Random();
+    	rng = FastRandom.shared();
     } 
     
+    /**
+     * Construct the gamer with a seed, so it gives the same results every time.  Only one thread should use it.
+     * @param seed the seed.
+     */
+    public Gamer(long seed) {
+    	rng = new FastRandom(seed);
+    } 
+    
+    /**
+     * Construct the gamer with a random source.
+     * @param source the source.  If null, it will use the default.
+     */
+    public Gamer(Random source) {
+    	setRandom(source);
+    } 
+    
+    /**
+     * Set the random source.
+     * @param source the source.  If null, it will use the default.
+     */
+    public void setRandom(Random source) {
+    	if (source == null) rng = FastRandom.shared();
+    	else rng = source;
+    }
+    
+    /**
+     * Get the random source.
+     * @return the source.
+     */
+    public Random getRandom() {
+    	return rng;
+    }
+    
+    /**
+     * Start over with a seed.  The gamer will give the same results every time after this, but only one thread should use it.
+     * @param seed the seed.
+     */
+    public void setSeed(long seed) {
+    	rng = new FastRandom(seed);
+    }
+    
     /**
      * Flip a coin, true or false.  
      * @return true or false, 50/50 chance of either.
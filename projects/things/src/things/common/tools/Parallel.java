@@ -0,0 +1,234 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import things.common.ThingsException;
+
+/**
+ * Runs jobs side by side on a shared pool of daemon threads.  The pool makes a thread only when none is idle and lets idle ones go 
+ * after a while, so a job can run jobs of its own without waiting on its caller.
+ * <p>
+ * The first job to throw stops the run: the jobs still going are interrupted and the ones not yet started are skipped.  A run is 
+ * always finished with join() or cancel(), which wait for every job to be out, no matter how they return.
+ * <p>
+ * The pool threads are not processes, so a job that needs the kernel has to be bound to one.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 30 JUN 10
+ * </pre> 
+ */
+public class Parallel {
+
+	// =========================================================================================
+	// JOB
+	
+	/**
+	 * A job.  It should quit if it is interrupted.
+	 */
+	public interface Job {
+		
+		/**
+		 * Do the work.
+		 * @throws Throwable anything thrown stops the run and comes out of join().
+		 */
+		public void run() throws Throwable;
+	}
+	
+	// =========================================================================================
+	// DATA
+	
+	/**
+	 * Seconds an idle pool thread waits for a job before it goes away.
+	 */
+	public final static long IDLE_SECONDS = 60;
+	
+	private final static AtomicInteger threadNumber = new AtomicInteger();
+	private final static ThreadPoolExecutor pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_SECONDS, TimeUnit.SECONDS,
+		new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "Parallel-" + threadNumber.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		});
+	
+	private final Job[] jobs;
+	private final Thread[] runners;
+	private final CountDownLatch done;
+	private Throwable problem;
+	private boolean stopping;
+	
+	// =========================================================================================
+	// METHODS
+	
+	/**
+	 * Run the jobs and wait for all of them.
+	 * @param jobs the jobs.
+	 * @throws InterruptedException if interrupted while waiting.  The jobs are interrupted and waited for before it is thrown.
+	 * @throws ThingsException the first problem a job had.  Unchecked throwables and ThingsExceptions come out as they were thrown and 
+	 * anything else is wrapped as SYSTEM_FAULT_PROCESS_JOB_FAILED.
+	 */
+	public static void runAll(Job... jobs) throws InterruptedException, ThingsException {
+		start(jobs).join();
+	}
+	
+	/**
+	 * Start the jobs and return without waiting.  The run must be finished with join() or cancel().
+	 * @param jobs the jobs.
+	 * @return the run.
+	 */
+	public static Parallel start(Job... jobs) {
+		final Parallel result = new Parallel(jobs);
+		for (int index = 0; index < jobs.length; index++) {
+			final int number = index;
+			try {
+				pool.execute(new Runnable() {
+					public void run() {
+						result.work(number);
+					}
+				});
+			} catch (Throwable t) {
+				result.fail(t);
+				result.done.countDown();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Wait for every job.
+	 * @throws InterruptedException if interrupted while waiting.  The jobs are interrupted and waited for before it is thrown.
+	 * @throws ThingsException the first problem a job had, as with runAll().
+	 */
+	public void join() throws InterruptedException, ThingsException {
+		try {
+			done.await();
+		} catch (InterruptedException ie) {
+			cancel();
+			throw ie;
+		}
+		
+		Throwable first;
+		synchronized (this) {
+			first = problem;
+		}
+		if (first == null) return;
+		if (first instanceof ThingsException) throw (ThingsException)first;
+		if (first instanceof RuntimeException) throw (RuntimeException)first;
+		if (first instanceof Error) throw (Error)first;
+		throw new ThingsException("Parallel job failed.", ThingsException.SYSTEM_FAULT_PROCESS_JOB_FAILED, first);
+	}
+	
+	/**
+	 * Stop the run.  The jobs still going are interrupted, the rest are skipped, and it waits for all of them to be out.  Anything 
+	 * they throw is dropped.  If the calling thread is interrupted while waiting, it keeps waiting and is interrupted again after.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			stop();
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Are all the jobs out?
+	 * @return true if they are.
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+	
+	/**
+	 * Get the first problem a job had.  It does not wait.
+	 * @return the problem or null if there hasn't been one.
+	 */
+	public synchronized Throwable getProblem() {
+		return problem;
+	}
+	
+	// =========================================================================================
+	// INTERNAL
+	
+	private Parallel(Job[] jobs) {
+		this.jobs = jobs;
+		runners = new Thread[jobs.length];
+		done = new CountDownLatch(jobs.length);
+	}
+	
+	/**
+	 * Run one job on a pool thread.  The runner is only there while the job is, so an interrupt can't leak onto the pool thread's 
+	 * next job.
+	 */
+	private void work(int index) {
+		try {
+			synchronized (this) {
+				if (stopping) return;
+				runners[index] = Thread.currentThread();
+			}
+			try {
+				jobs[index].run();
+			} catch (Throwable t) {
+				fail(t);
+			} finally {
+				synchronized (this) {
+					runners[index] = null;
+				}
+				Thread.interrupted();
+			}
+		} finally {
+			done.countDown();
+		}
+	}
+	
+	/**
+	 * Keep the first problem and stop the others.  Whatever they throw because of it is ignored.
+	 */
+	private synchronized void fail(Throwable t) {
+		if (stopping) return;
+		problem = t;
+		stop();
+	}
+	
+	/**
+	 * Must hold the lock.
+	 */
+	private void stop() {
+		stopping = true;
+		for (Thread runner : runners) {
+			if (runner != null) runner.interrupt();
+		}
+	}
+	
+}
@@ -0,0 +1,185 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache that evicts the least recently used entries first.  Each entry is stamped with whatever identifies the version of 
+ * the thing it was made from, such as an ETag or a file's modification time and size.  A get with a different stamp is a miss and 
+ * the old entry is dropped.  Stamps are compared with equals().
+ * <p>
+ * The bound is on the total size of the values, as measured by sizeOf().  It is thread safe.  Values are shared, so callers must not 
+ * change them.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial, from the ServeCache - 30 JUN 10
+ * </pre>
+ */
+public abstract class StampedCache<S, V> {
+
+	// =================================================================================================
+	// == DATA
+	private long limit;
+	private long objectLimit;
+	private long size;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private LinkedHashMap<String, Entry<S, V>> entries = new LinkedHashMap<String, Entry<S, V>>(16, 0.75f, true);
+
+	private static class Entry<S, V> {
+		S stamp;
+		V value;
+		long size;
+	}
+
+	// =================================================================================================
+	// == METHODS
+
+	/**
+	 * Constructor.
+	 * @param limit the most to hold, in the units of sizeOf().  0 means nothing is ever cached.
+	 * @param objectLimit the largest single value to hold.
+	 */
+	public StampedCache(long limit, long objectLimit) {
+		this.limit = limit;
+		this.objectLimit = Math.min(limit, objectLimit);
+	}
+
+	/**
+	 * The size of a value.
+	 * @param value the value.
+	 * @return the size.
+	 */
+	protected abstract long sizeOf(V value);
+
+	/**
+	 * Would a value of this size be cached?
+	 * @param objectSize the size.
+	 * @return true if it would.
+	 */
+	public boolean fits(long objectSize) {
+		return (objectSize <= objectLimit)&&(limit > 0);
+	}
+
+	/**
+	 * Get a cached value.  An entry for a different stamp is stale and is removed.
+	 * @param key the key.
+	 * @param stamp the current stamp.
+	 * @return the value or null if it is not cached.
+	 */
+	public synchronized V get(String key, S stamp) {
+		Entry<S, V> entry = entries.get(key);
+		if (entry != null) {
+			if (entry.stamp.equals(stamp)) {
+				hits++;
+				return entry.value;
+			}
+			entries.remove(key);
+			size -= entry.size;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Put a value in the cache.  It will quietly not be cached if it's too big.
+	 * @param key the key.
+	 * @param stamp the stamp for the value.
+	 * @param value the value.
+	 */
+	public synchronized void put(String key, S stamp, V value) {
+		long valueSize = sizeOf(value);
+		if (!fits(valueSize)) return;
+		Entry<S, V> entry = new Entry<S, V>();
+		entry.stamp = stamp;
+		entry.value = value;
+		entry.size = valueSize;
+		Entry<S, V> old = entries.put(key, entry);
+		if (old != null) size -= old.size;
+		size += valueSize;
+
+		Iterator<Map.Entry<String, Entry<S, V>>> eldest = entries.entrySet().iterator();
+		while ((size > limit)&&(eldest.hasNext())) {
+			size -= eldest.next().getValue().size;
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drop everything.  The counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Total size held.
+	 * @return the size.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Number of entries held.
+	 * @return the count.
+	 */
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Number of gets that found a current value.
+	 * @return the hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of gets that didn't, including stale entries.
+	 * @return the misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Number of entries pushed out to make room.
+	 * @return the evictions.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * A line for the logs.
+	 * @return the statistics.
+	 */
+	public synchronized String toString() {
+		return "entries=" + entries.size() + " size=" + size + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+	}
+
+}
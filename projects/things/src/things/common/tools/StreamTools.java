@@ -15,7 +15,6 @@
  */
 package things.common.tools;
 import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -27,7 +26,6 @@ import java.io.Writer;
 
 import things.common.StringPoster;
 import things.common.ThingsException;
-import things.common.configuration.ConfigureConstants;
 import things.data.ThingsPropertyViewReader;
 
 /**
@@ -38,22 +36,19 @@ import things.data.ThingsPropertyViewReader;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 14 MAR 05
+ * EPG - Merge through Template - 16 JUN 10
  * </pre> 
  */
 public class StreamTools {
 	
-	// ENGINE VALUES
-	private enum Operation { START, OPEN, READ, CLOSE }
-	private final static int MAX_16_VALUE = 65534;
-
 	/**
-	 *  Merge a reader with properties to writer.  It will not buffer either, so pass buffered
-	 *  implementations, if that matters.  It will only work properly with 16-bit UTF-16 (which should cover typical Unicode 4.0).<br>
+	 *  Merge a reader with properties to writer.  It reads in blocks and writes literal text in runs, so neither needs buffering.
+	 *  It will only work properly with 16-bit UTF-16 (which should cover typical Unicode 4.0).<br>
 	 *  You can escape property names with double characters.<br>
 	 *  "Test $$ text" = "Test $ text"<br>
-	 *  "Test $aa$$a$ is a test" = "Test {value of 'aa$a') is a test" without the paren.<br>
+	 *  "Test $aa$$a$ is a test" = "Test {value of 'aa$$a') is a test" without the paren.<br>
 	 *  <p>
-	 *  Exceptions are logged, not thrown.
+	 *  Exceptions are logged, not thrown.  Use a {@link Template} if the same text is merged more than once.
 	 *  <p>
 	 * @param input A Reader source.
 	 * @param output A Writer destination.
@@ -67,205 +62,52 @@ public class StreamTools {
 		ThingsPropertyViewReader props,
 		StringPoster log ) {
 
-		Operation state = Operation.START;
-		int workingCharacter;
-		StringBuffer substitutionBuffer = null;
-		String propertyName = null;
-		String propertyValue = null;
 		boolean result = false;
-		
 		try {
-			
-			// Start the engine
-			workingCharacter = input.read();
-			while ((workingCharacter >= 0)&& (workingCharacter < MAX_16_VALUE)) {
-
-				switch (state) {
-
-					case START :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER)
-							state = Operation.OPEN;
-						else
-							output.write(workingCharacter);
-						break;
-
-					case OPEN :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							// Escaped property character
-							state = Operation.START;
-							output.write(ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-						} else {
-							state = Operation.READ;
-							substitutionBuffer = new StringBuffer();
-							substitutionBuffer.append((char) workingCharacter);
-						}
-						break;
-
-					case READ :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							state = Operation.CLOSE;
-						} else {
-							substitutionBuffer.append((char) workingCharacter);
-						}
-						break;
-
-					case CLOSE :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							// Escaped property character in the property name
-							state = Operation.READ;
-							substitutionBuffer.append((char) ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-							substitutionBuffer.append((char) workingCharacter);
-							
-						} else {
-							// An actual substitution is named
-							propertyName = substitutionBuffer.toString();
-							propertyValue = props.getProperty(propertyName);
-							if (propertyValue!=null) {
-								// The substitution exists in the property set
-								output.write(propertyValue);
-								substitutionBuffer = null;
-							} else {
-								output.write(ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER + propertyName + ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-							}
-							// Dont forget this character
-							output.write(workingCharacter);
-							
-							// Do this last so we can detect any property bufoonery that causes a bug.
-							state = Operation.START;
-						}
-						break;
-				} // end case
-				workingCharacter = input.read();
+			if (Template.merge(input, output, props)) {
+				log.postit("Merge complete.");
+				result = true;
+			} else {
+				log.postit("Incomplete substitution during merge.  Destination file might be corrupt.");
 			}
+			
 		} catch (ThingsException te) {
 			log.postit("Property system error while merging.  message=" + te.getMessage());
-		} catch (EOFException eofe) {
-			// Ignore 
 		} catch (Exception ee) {		
 			log.postit("Catastrophic merging error.  message=" + ee.getMessage());
-		} finally {
-			try {
-				if (state != Operation.START) {
-					log.postit("Incomplete substitution during merge.  Destination file might be corrupt.");
-				} else {
-					log.postit("Merge complete.");
-					result = true;
-				}
-				
-			} catch (Exception eee) {
-				log.postit("Catastrophic error message=" + eee.getMessage());
-			}
-			
 		}
 		return result;
 	}
 	
 	/**
-	 *  Merge a reader with properties to writer.  It will not buffer either, so pass buffered
-	 *  implementations, if that matters.  It will only work properly with 16-bit UTF-16 (which should cover typical Unicode 4.0).<br>
+	 *  Merge a reader with properties to writer.  It reads in blocks and writes literal text in runs, so neither needs buffering.
+	 *  It will only work properly with 16-bit UTF-16 (which should cover typical Unicode 4.0).<br>
 	 *  You can escape property names with double characters.<br>
 	 *  "Test $$ text" = "Test $ text"<br>
-	 *  "Test $aa$$a$ is a test" = "Test {value of 'aa$a') is a test" without the paren.<br>
+	 *  "Test $aa$$a$ is a test" = "Test {value of 'aa$$a') is a test" without the paren.<br>
 	 *  <p>
-	 *  Any error will throw an exception.
+	 *  Any error will throw an exception.  Use a {@link Template} if the same text is merged more than once.
 	 * @param input A Reader source.
 	 * @param output A Writer destination.
 	 * @param props Properties that are candidates for substitution.
-	 * @return true if it completed without error, otherwise false
+	 * @return true if it completed.  Otherwise it throws.
 	 * @throws Throwable
 	 * @see things.common.StringPoster
 	 */
 	public static boolean merge(
 		Reader input, Writer output,
 		ThingsPropertyViewReader props) throws Throwable {
-		Operation state = Operation.START;
-		int workingCharacter;
-		StringBuffer substitutionBuffer = null;
-		String propertyName = null;
-		String propertyValue = null;
-		boolean result = false;
-		
-		try {
-			
-			// Start the engine
-			workingCharacter = input.read();
-			while ((workingCharacter >= 0)&& (workingCharacter < MAX_16_VALUE)) {
-
-				switch (state) {
-
-					case START :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER)
-							state = Operation.OPEN;
-						else
-							output.write(workingCharacter);
-						break;
-
-					case OPEN :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							// Escaped property character
-							state = Operation.START;
-							output.write(ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-						} else {
-							state = Operation.READ;
-							substitutionBuffer = new StringBuffer();
-							substitutionBuffer.append((char) workingCharacter);
-						}
-						break;
-
-					case READ :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							state = Operation.CLOSE;
-						} else {
-							substitutionBuffer.append((char) workingCharacter);
-						}
-						break;
 
-					case CLOSE :
-						if (workingCharacter == ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER) {
-							// Escaped property character in the property name
-							state = Operation.READ;
-							substitutionBuffer.append((char) ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-							substitutionBuffer.append((char) workingCharacter);
-							
-						} else {
-							// An actual substitution is named
-							propertyName = substitutionBuffer.toString();
-							propertyValue = props.getProperty(propertyName);
-							if (propertyValue!=null) {
-								// The substitution exists in the property set
-								output.write(propertyValue);
-								substitutionBuffer = null;
-							} else {
-								output.write(ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER + propertyName + ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER);
-							}
-							// Dont forget this character
-							output.write(workingCharacter);
-							
-							// Do this last so we can detect any property bufoonery that causes a bug.
-							state = Operation.START;
-						}
-						break;
-				} // end case
-				workingCharacter = input.read();
-			}
+		boolean complete;
+		try {
+			complete = Template.merge(input, output, props);
 		} catch (ThingsException te) {
 			throw new ThingsException("Property system error while merging.", ThingsException.PROCESSING_ERROR_MERGE, te);
-		} catch (EOFException eofe) {
-			// Ignore 
 		} catch (Exception ee) {		
 			throw new ThingsException("Merging error.", ThingsException.PROCESSING_ERROR_MERGE, ee);
-		} finally {
-			try {
-				if (state != Operation.START) {
-					throw new ThingsException("Incomplete substitution during merge.  Destination file might be corrupt.", ThingsException.PROCESSING_ERROR_MERGE_INCOMPLETE);
-				} 
-				
-			} catch (Exception eee) {
-				throw new ThingsException("Catastrophic error", ThingsException.PROCESSING_ERROR_MERGE, eee);
-			}
-			
 		}
-		return result;
+		if (!complete) throw new ThingsException("Incomplete substitution during merge.  Destination file might be corrupt.", ThingsException.PROCESSING_ERROR_MERGE_INCOMPLETE);
+		return true;
 	}
 	
 	/**
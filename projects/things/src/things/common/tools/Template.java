@@ -0,0 +1,410 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import things.common.ThingsException;
+import things.common.configuration.ConfigureConstants;
+import things.data.ThingsPropertyViewReader;
+
+/**
+ * A compiled merge template.  The text is parsed once into literal segments and property slots, so a merge is just writing the
+ * segments and the values.  Each distinct property name is looked up once per merge, no matter how many times it is used.
+ * <p>
+ * The syntax is the same as {@link StreamTools#merge(Reader, Writer, ThingsPropertyViewReader) StreamTools.merge}:<br>
+ * "Test $$ text" = "Test $ text"<br>
+ * "Test $aa$ is a test" = "Test {value of 'aa'} is a test" without the braces.<br>
+ * A property that isn't set is left in the text as it was.  A template that ends inside a property name is incomplete; it will
+ * merge what it can and then complain.
+ * <p>
+ * A compiled template is immutable and can be merged by many threads at once.  The static {@link #merge(Reader, Writer, ThingsPropertyViewReader)}
+ * streams a template without keeping it.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 16 JUN 10
+ * </pre>
+ */
+public class Template {
+
+	// =================================================================================================
+	// == FIELDS
+	
+	/**
+	 * Characters read at a time.
+	 */
+	public final static int BLOCK_SIZE = 4096;
+	
+	private final static char MARK = ConfigureConstants.CONFIGURE_PROPERTY_CHARACTER;
+	private final static int MAX_16_VALUE = 65534;
+	
+	// =================================================================================================
+	// == DATA
+	private final String[] literals;
+	private final int[] slots;
+	private final String[] names;
+	private final boolean complete;
+	private final long size;
+
+	// =================================================================================================
+	// == METHODS
+
+	/**
+	 * Compile a template from a reader.  It reads in blocks, so don't bother buffering it.  The reader is not closed.
+	 * @param input the template source.
+	 * @return the template.
+	 * @throws IOException for read problems.
+	 */
+	public static Template compile(Reader input) throws IOException {
+		Compiler compiler = new Compiler();
+		Parser parser = new Parser(compiler);
+		char[] buffer = new char[BLOCK_SIZE];
+		int amount = input.read(buffer);
+		while (amount >= 0) {
+			try {
+				if (!parser.feed(buffer, 0, amount)) break;
+			} catch (ThingsException te) {
+				// The compiler never throws.
+				throw new IOException(te.getMessage());
+			}
+			amount = input.read(buffer);
+		}
+		return compiler.template(parser.isComplete());
+	}
+	
+	/**
+	 * Compile a template from text.
+	 * @param text the template text.
+	 * @return the template.
+	 */
+	public static Template compile(String text) {
+		Compiler compiler = new Compiler();
+		Parser parser = new Parser(compiler);
+		char[] chars = text.toCharArray();
+		try {
+			parser.feed(chars, 0, chars.length);
+		} catch (Exception e) {
+			// The compiler never throws.
+			throw new RuntimeException(e);
+		} catch (ThingsException te) {
+			throw new RuntimeException(te);			
+		}
+		return compiler.template(parser.isComplete());
+	}
+	
+	/**
+	 * Merge a template straight from a reader to a writer without compiling it.  It reads in blocks and writes literal text in 
+	 * runs, so neither needs buffering.  Neither is closed.
+	 * @param input the template source.
+	 * @param output the destination.
+	 * @param props properties that are candidates for substitution.
+	 * @return true if the template was complete, false if it ended inside a property name.  Everything before that was written.
+	 * @throws ThingsException if the properties fail.
+	 * @throws IOException for read or write problems.
+	 */
+	public static boolean merge(Reader input, Writer output, ThingsPropertyViewReader props) throws ThingsException, IOException {
+		Parser parser = new Parser(new Streamer(output, props));
+		char[] buffer = new char[BLOCK_SIZE];
+		int amount = input.read(buffer);
+		while (amount >= 0) {
+			if (!parser.feed(buffer, 0, amount)) break;
+			amount = input.read(buffer);
+		}
+		return parser.isComplete();
+	}
+	
+	/**
+	 * Merge the template.  The writer is not buffered or closed.
+	 * @param output the destination.
+	 * @param props properties that are candidates for substitution.
+	 * @throws ThingsException PROCESSING_ERROR_MERGE_INCOMPLETE if the template was incomplete, after everything that could be merged is 
+	 * written, or anything the properties throw.
+	 * @throws IOException for write problems.
+	 */
+	public void merge(Writer output, ThingsPropertyViewReader props) throws ThingsException, IOException {
+		String[] values = resolve(props);
+		output.write(literals[0]);
+		for (int index = 0; index < slots.length; index++) {
+			output.write(values[slots[index]]);
+			output.write(literals[index + 1]);
+		}
+		if (!complete) throw new ThingsException("Incomplete substitution during merge.  Destination file might be corrupt.", ThingsException.PROCESSING_ERROR_MERGE_INCOMPLETE);
+	}
+
+	/**
+	 * Merge the template to a string.
+	 * @param props properties that are candidates for substitution.
+	 * @return the merged text.
+	 * @throws ThingsException PROCESSING_ERROR_MERGE_INCOMPLETE if the template was incomplete or anything the properties throw.
+	 */
+	public String merge(ThingsPropertyViewReader props) throws ThingsException {
+		StringWriter result = new StringWriter((int)Math.min(size + (size >> 2), Integer.MAX_VALUE));
+		try {
+			merge(result, props);
+		} catch (IOException ioe) {
+			// StringWriter doesn't do this.
+			throw new ThingsException("Merging error.", ThingsException.PROCESSING_ERROR_MERGE, ioe);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * Was the template complete?  An incomplete one ended inside a property name.
+	 * @return true if complete.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Number of substitution slots.
+	 * @return the count.
+	 */
+	public int getSlotCount() {
+		return slots.length;
+	}
+	
+	/**
+	 * The distinct property names used, in the order first seen.
+	 * @return the names.  Don't change it.
+	 */
+	public String[] getNames() {
+		return names;
+	}
+	
+	/**
+	 * Number of literal characters held.
+	 * @return the size.
+	 */
+	public long getSize() {
+		return size;
+	}
+	
+	// =================================================================================================
+	// == INTERNAL
+
+	/**
+	 * Constructor.  Use compile.
+	 */
+	private Template(String[] literals, int[] slots, String[] names, boolean complete, long size) {
+		this.literals = literals;
+		this.slots = slots;
+		this.names = names;
+		this.complete = complete;
+		this.size = size;
+	}
+
+	/**
+	 * Look up each name once.  A missing property merges as it was written.
+	 */
+	private String[] resolve(ThingsPropertyViewReader props) throws ThingsException {
+		String[] values = new String[names.length];
+		for (int index = 0; index < names.length; index++) {
+			values[index] = props.getProperty(names[index]);
+			if (values[index] == null) values[index] = MARK + names[index] + MARK;
+		}
+		return values;
+	}
+	
+	/**
+	 * Where the parser sends what it finds.
+	 */
+	private interface Sink {
+		void literal(char[] buffer, int offset, int length) throws IOException;
+		void literal(char character) throws IOException;
+		void slot(String name) throws ThingsException, IOException;
+	}
+	
+	/**
+	 * Writes as it goes.
+	 */
+	private static class Streamer implements Sink {
+		private final Writer output;
+		private final ThingsPropertyViewReader props;
+		private HashMap<String, String> values = new HashMap<String, String>();
+		
+		Streamer(Writer output, ThingsPropertyViewReader props) {
+			this.output = output;
+			this.props = props;
+		}
+		
+		public void literal(char[] buffer, int offset, int length) throws IOException {
+			output.write(buffer, offset, length);
+		}
+		
+		public void literal(char character) throws IOException {
+			output.write(character);
+		}
+		
+		public void slot(String name) throws ThingsException, IOException {
+			String value = values.get(name);
+			if (value == null) {
+				value = props.getProperty(name);
+				if (value == null) value = MARK + name + MARK;
+				values.put(name, value);
+			}
+			output.write(value);
+		}
+	}
+	
+	/**
+	 * Builds the segments.
+	 */
+	private static class Compiler implements Sink {
+		private StringBuilder literal = new StringBuilder();
+		private ArrayList<String> literals = new ArrayList<String>();
+		private int[] slots = new int[16];
+		private int slotCount;
+		private HashMap<String, Integer> index = new HashMap<String, Integer>();
+		private ArrayList<String> names = new ArrayList<String>();
+		private long size;
+		
+		public void literal(char[] buffer, int offset, int length) {
+			literal.append(buffer, offset, length);
+		}
+		
+		public void literal(char character) {
+			literal.append(character);
+		}
+		
+		public void slot(String name) {
+			Integer number = index.get(name);
+			if (number == null) {
+				number = Integer.valueOf(names.size());
+				index.put(name, number);
+				names.add(name);
+			}
+			if (slotCount == slots.length) {
+				int[] grown = new int[slotCount * 2];
+				System.arraycopy(slots, 0, grown, 0, slotCount);
+				slots = grown;
+			}
+			slots[slotCount++] = number.intValue();
+			endLiteral();
+		}
+		
+		Template template(boolean complete) {
+			endLiteral();
+			int[] finalSlots = new int[slotCount];
+			System.arraycopy(slots, 0, finalSlots, 0, slotCount);
+			return new Template(literals.toArray(new String[literals.size()]), finalSlots, names.toArray(new String[names.size()]), complete, size);
+		}
+		
+		private void endLiteral() {
+			size += literal.length();
+			literals.add(literal.toString());
+			literal.setLength(0);
+		}
+	}
+	
+	/**
+	 * The parser.  It keeps its state between blocks, so a property name may span them.
+	 */
+	private static class Parser {
+		private enum State { START, OPEN, READ, CLOSE }
+		private final Sink sink;
+		private final StringBuilder name = new StringBuilder();
+		private State state = State.START;
+		
+		Parser(Sink sink) {
+			this.sink = sink;
+		}
+		
+		/**
+		 * Feed a block.
+		 * @return false if it hit the end marker character and nothing more should be fed.
+		 */
+		boolean feed(char[] buffer, int offset, int length) throws ThingsException, IOException {
+			int end = offset + length;
+			int run = offset;
+			int position = offset;
+			char character;
+			while (position < end) {
+				switch (state) {
+				
+				case START:
+					// Literal text goes out in runs.
+					while ((position < end)&&((character = buffer[position]) != MARK)&&(character < MAX_16_VALUE)) position++;
+					if (position > run) sink.literal(buffer, run, position - run);
+					if (position == end) return true;
+					if (buffer[position] >= MAX_16_VALUE) return false;
+					state = State.OPEN;
+					break;
+					
+				case OPEN:
+					character = buffer[position];
+					if (character >= MAX_16_VALUE) return false;
+					if (character == MARK) {
+						// Escaped mark
+						sink.literal(MARK);
+						state = State.START;
+					} else {
+						name.setLength(0);
+						name.append(character);
+						state = State.READ;
+					}
+					break;
+					
+				case READ:
+					run = position;
+					while ((position < end)&&((character = buffer[position]) != MARK)&&(character < MAX_16_VALUE)) position++;
+					if (position > run) name.append(buffer, run, position - run);
+					if (position == end) return true;
+					if (buffer[position] >= MAX_16_VALUE) return false;
+					state = State.CLOSE;
+					break;
+					
+				case CLOSE:
+					character = buffer[position];
+					if (character >= MAX_16_VALUE) return false;
+					if (character == MARK) {
+						// Escaped mark in the name.  It's kept doubled.
+						name.append(MARK).append(MARK);
+						state = State.READ;
+					} else {
+						sink.slot(name.toString());
+						state = State.START;
+						
+						// This character is part of the next literal run.
+						run = position;
+						continue;
+					}
+					break;
+				}
+				position++;
+				run = position;
+			}
+			return true;
+		}
+		
+		/**
+		 * Is it outside of a property?
+		 * @return true if it is.
+		 */
+		boolean isComplete() {
+			return state == State.START;
+		}
+	}
+	
+}
@@ -0,0 +1,105 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.common.tools;
+
+/**
+ * A cache of compiled templates.  Each entry is stamped with the modification time and size of the file it was compiled from, 
+ * so a changed file is a miss and the old entry is dropped.  It is bounded by the literal characters held and evicts the least 
+ * recently used entries first.
+ * <p>
+ * It is thread safe.  Templates are immutable, so they can be shared.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 16 JUN 10
+ * EPG - Built on the StampedCache - 30 JUN 10
+ * </pre>
+ */
+public class TemplateCache extends StampedCache<TemplateCache.FileStamp, Template> {
+
+	// =================================================================================================
+	// == STAMP
+
+	/**
+	 * The modification time and size of a file.
+	 */
+	public static class FileStamp {
+		private final long modified;
+		private final long length;
+
+		/**
+		 * Constructor.
+		 * @param modified the modification time of the file.
+		 * @param length the size of the file.
+		 */
+		public FileStamp(long modified, long length) {
+			this.modified = modified;
+			this.length = length;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof FileStamp)) return false;
+			return (((FileStamp)other).modified == modified)&&(((FileStamp)other).length == length);
+		}
+
+		public int hashCode() {
+			return (int)(modified ^ (modified >>> 32) ^ (length * 31));
+		}
+	}
+
+	// =================================================================================================
+	// == METHODS
+
+	/**
+	 * Constructor.
+	 * @param limit the most template characters to hold.  0 means nothing is ever cached.
+	 */
+	public TemplateCache(long limit) {
+		super(limit, limit);
+	}
+
+	/**
+	 * The size of a template is the literal characters it holds.
+	 */
+	protected long sizeOf(Template template) {
+		return template.getSize();
+	}
+
+	/**
+	 * Get a cached template.  An entry for a different modification time or size is stale and is removed.
+	 * @param key the key, usually the file path.
+	 * @param modified the current modification time of the file.
+	 * @param length the current size of the file.
+	 * @return the template or null if it is not cached.
+	 */
+	public Template get(String key, long modified, long length) {
+		return get(key, new FileStamp(modified, length));
+	}
+
+	/**
+	 * Put a template in the cache.  It will quietly not be cached if it's too big.
+	 * @param key the key, usually the file path.
+	 * @param modified the modification time of the file it was compiled from.
+	 * @param length the size of the file it was compiled from.
+	 * @param template the template.
+	 */
+	public void put(String key, long modified, long length, Template template) {
+		put(key, new FileStamp(modified, length), template);
+	}
+
+}
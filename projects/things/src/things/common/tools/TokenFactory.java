@@ -29,6 +29,7 @@ import things.data.FlaggedString;
  * <pre>
  * EPG - Initial, integrated from another project. - 26 NOV 04<br>
  * EPG - Converted to use Gamer and added methods. - 11 AUG 06
+ * EPG - Seeded and plugged random sources, bulk fills into a char buffer - 14 JUN 10
  * </pre> 
  */
 public class TokenFactory extends Gamer {
@@ -66,7 +67,35 @@ public class TokenFactory extends Gamer {
      * @param lowASCII if true, it will include chars between 1 and 32 (inclusive)
      */
     public TokenFactory(int  maxSize, boolean highASCII, boolean lowASCII) {
-  
+    	super();
+    	configure(maxSize, highASCII, lowASCII);
+    } 
+    
+    /**
+     * Construct the factory with a seed, so it makes the same tokens every time.  Only one thread should use it.
+     * @param maxSize maximum size of the token, must be at least 3.  The minimum size is automatically 2.
+     * @param highASCII if true, it will include chars over 127
+     * @param lowASCII if true, it will include chars between 1 and 32 (inclusive)
+     * @param seed the seed.
+     */
+    public TokenFactory(int  maxSize, boolean highASCII, boolean lowASCII, long seed) {
+    	super(seed);
+    	configure(maxSize, highASCII, lowASCII);
+    } 
+    
+    /**
+     * Construct the factory with a random source.
+     * @param maxSize maximum size of the token, must be at least 3.  The minimum size is automatically 2.
+     * @param highASCII if true, it will include chars over 127
+     * @param lowASCII if true, it will include chars between 1 and 32 (inclusive)
+     * @param source the random source.  If null, it will use the default.
+     */
+    public TokenFactory(int  maxSize, boolean highASCII, boolean lowASCII, Random source) {
+    	super(source);
+    	configure(maxSize, highASCII, lowASCII);
+    } 
+    
+    private void configure(int  maxSize, boolean highASCII, boolean lowASCII) {
     	top = 127;
     	bottom = 33;
     	if (highASCII) top = 255;
@@ -77,8 +106,6 @@ public class TokenFactory extends Gamer {
     		MAX_SIZE = maxSize;
     	}
     	THROW_SIZE = MAX_SIZE - MIN_SIZE;
-    	
-    	rng = new Random();
     } 
 
     /**
@@ -95,12 +122,10 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomToken(int size) {
-    	int span = top-bottom;
-		StringBuffer token = new StringBuffer();	
-		for (int index = 0; index < size; index++) {
-			token.append((char)(rng.nextInt(span) + bottom));
-		}	
-    	return token.toString();
+    	if (size < 1) return "";
+    	char[] token = new char[size];
+    	fillToken(token, 0, size);
+    	return new String(token);
     }
     
     /**
@@ -117,11 +142,7 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomTokenAN(int size) {
-		StringBuffer token = new StringBuffer();	
-		for (int index = 0; index < size; index++) {
-			token.append(alphaNumericCharacters[rng.nextInt(alphaNumericCharacters.length)]);
-		}			
-    	return token.toString();
+    	return random(size, alphaNumericCharacters);
     }
     
     /**
@@ -129,7 +150,7 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomTokenN() {
-    	return randomTokenAN(rng.nextInt(THROW_SIZE)+ MIN_SIZE);
+    	return randomTokenN(rng.nextInt(THROW_SIZE)+ MIN_SIZE);
     }
     
     /**
@@ -138,11 +159,7 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomTokenN(int size) {
-		StringBuffer token = new StringBuffer();	
-		for (int index = 0; index < size; index++) {
-			token.append(numericCharacters[rng.nextInt(numericCharacters.length)]);
-		}			
-    	return token.toString();
+    	return random(size, numericCharacters);
     }
     
     /**
@@ -159,11 +176,7 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomTokenANS(int size) {
-		StringBuffer token = new StringBuffer();		
-		for (int index = 0; index < size; index++) {
-			token.append(alphaNumericCharactersS[rng.nextInt(alphaNumericCharactersS.length)]);
-		}			
-    	return token.toString();
+    	return random(size, alphaNumericCharactersS);
     }
     
     /**
@@ -194,11 +207,7 @@ public class TokenFactory extends Gamer {
      * @return the token.
      */
     public String randomHex(int size) {
-		StringBuffer token = new StringBuffer();	
-		for (int index = 0; index < size; index++) {
-			token.append(hexCharactersLower[rng.nextInt(hexCharactersLower.length)]);
-		}			
-    	return token.toString();
+    	return random(size, hexCharactersLower);
     } 
 
     /**
@@ -366,6 +375,74 @@ public class TokenFactory extends Gamer {
 		return numericCharacters[rng.nextInt(numericCharacters.length)];
 	}
 	
+	// ========================================================================================================================
+	// = BULK
+	
+	/**
+	 * Fill a buffer with characters picked from a set.  Each random long gives two characters.  The pick is out by less than one 
+	 * part in 2^24 for sets of 256 or fewer, which is more than good enough for tokens.
+	 * @param buffer the buffer.
+	 * @param offset where to start.
+	 * @param length how many characters.
+	 * @param characters the set to pick from, such as alphaNumericCharacters.  It can't be empty.
+	 */
+	public void fill(char[] buffer, int offset, int length, char[] characters) {
+		Random source = FastRandom.local(rng);
+		long count = characters.length;
+		int end = offset + length;
+		int index = offset;
+		while (index < end) {
+			long bits = source.nextLong();
+			buffer[index++] = characters[(int)(((bits >>> 32) * count) >>> 32)];
+			if (index < end) buffer[index++] = characters[(int)(((bits & 0xffffffffL) * count) >>> 32)];
+		}
+	}
+	
+	/**
+	 * Fill a buffer with characters like randomToken() makes.  
+	 * @param buffer the buffer.
+	 * @param offset where to start.
+	 * @param length how many characters.
+	 */
+	public void fillToken(char[] buffer, int offset, int length) {
+		Random source = FastRandom.local(rng);
+		long span = top-bottom;
+		int end = offset + length;
+		int index = offset;
+		while (index < end) {
+			long bits = source.nextLong();
+			buffer[index++] = (char)((((bits >>> 32) * span) >>> 32) + bottom);
+			if (index < end) buffer[index++] = (char)((((bits & 0xffffffffL) * span) >>> 32) + bottom);
+		}
+	}
+	
+	/**
+	 * Fill a buffer with alphanumeric characters.
+	 * @param buffer the buffer.
+	 * @param offset where to start.
+	 * @param length how many characters.
+	 */
+	public void fillAN(char[] buffer, int offset, int length) {
+		fill(buffer, offset, length, alphaNumericCharacters);
+	}
+	
+	/**
+	 * Fill a buffer with hex characters.
+	 * @param buffer the buffer.
+	 * @param offset where to start.
+	 * @param length how many characters.
+	 */
+	public void fillHex(char[] buffer, int offset, int length) {
+		fill(buffer, offset, length, hexCharactersLower);
+	}
+	
+	private String random(int size, char[] characters) {
+		if (size < 1) return "";
+		char[] token = new char[size];
+		fill(token, 0, size, characters);
+		return new String(token);
+	}
+	
 	// ========================================================================================================================
 	// = INTERNAL TABLES
     
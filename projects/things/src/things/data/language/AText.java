@@ -25,6 +25,7 @@ package things.data.language;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 10 MAY 06
+ * EPG - StringBuilder, since a hunk is only ever used by one thread - 2 JUN 10
  * </pre> 
  */
 public class AText {
@@ -40,7 +41,7 @@ public class AText {
 	/**
 	 * The text.
 	 */
-	public StringBuffer	text;
+	public StringBuilder	text;
 	
 	// ==========================================================================================================
 	// == METHODS
@@ -49,7 +50,23 @@ public class AText {
 	 * Constructor.
 	 */
 	public AText() {
-		text = new StringBuffer();
+		text = new StringBuilder();
+	}
+	
+	/**
+	 * Constructor.
+	 * @param capacity the starting capacity in characters.  Use the expected size to avoid growing it.
+	 */
+	public AText(int capacity) {
+		text = new StringBuilder(capacity);
+	}
+	
+	/**
+	 * Empty it for reuse.  The capacity is kept.
+	 */
+	public void clear() {
+		text.setLength(0);
+		currentWrap = 0;
 	}
 	
 	
@@ -15,8 +15,11 @@
  */
 package things.data.language;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import things.common.ThingsException;
 import things.common.tools.Gamer;
+import things.common.tools.Parallel;
 
 /**
  * Basic implementation of the language interface.
@@ -28,6 +31,9 @@ import things.common.tools.Gamer;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 10 MAY 06
+ * EPG - Seeded random streams, no concatenation per word, and parallel generate() - 2 JUN 10
+ * EPG - Seed through the Gamer, which now gives each seed its own FastRandom - 14 JUN 10
+ * EPG - Generate with Parallel - 30 JUN 10
  * </pre> 
  */
 public class LanguageGenerator_Basic implements LanguageGenerator {
@@ -37,6 +43,7 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 	
 	private WordDictionary dictionary;
 	private Gamer rng = new Gamer();
+	private long seed = System.nanoTime();
 	
 	// Config
 	private final static int COMMA_THRESHOLD = 15;
@@ -57,6 +64,109 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 
 	public final static String LINE_WRAP = "\r\n";
 	public final static String SENTENCE_SEPERATOR = "  ";
+	public final static int DEFAULT_WRAP = 76;
+	
+	// ==========================================================================================================
+	// == METHODS
+	
+	/**
+	 * Constructor.  It will be seeded from the clock.
+	 */
+	public LanguageGenerator_Basic() {
+		rng.setSeed(seed);
+	}
+	
+	/**
+	 * Constructor.  The same seed and dictionary will make the same text.
+	 * @param seed the seed.
+	 */
+	public LanguageGenerator_Basic(long seed) {
+		setSeed(seed);
+	}
+	
+	/**
+	 * Set the seed.  The same seed and dictionary will make the same text.
+	 * @param seed the seed.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		rng.setSeed(seed);
+	}
+	
+	/**
+	 * Generate pages in parallel.  Each page gets its own random stream, seeded from this generator's seed and the page number, so 
+	 * a seed always makes the same pages no matter how many threads make them or in what order.  The dictionary is only read.
+	 * @param count how many pages.
+	 * @param size the size of each page.  It must be more than PARAGRAPH_MIN_SIZE.
+	 * @return the pages.
+	 * @throws Throwable
+	 * @see #generate(int, int, int, String, int)
+	 */
+	public String[] generate(int count, int size) throws Throwable {
+		return generate(count, size, DEFAULT_WRAP, null, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Generate pages in parallel.  Each page gets its own random stream, seeded from this generator's seed and the page number, so 
+	 * a seed always makes the same pages no matter how many threads make them or in what order.  The dictionary is only read.
+	 * @param count how many pages.
+	 * @param size the size of each page.  It must be more than PARAGRAPH_MIN_SIZE.
+	 * @param wrap Line wrap size.   It must be more than 3.
+	 * @param wrapPrepend if not null, prepend this after each line wrap.
+	 * @param threads how many threads to make them with.
+	 * @return the pages.
+	 * @throws Throwable the first problem any thread had.
+	 */
+	public String[] generate(final int count, final int size, final int wrap, final String wrapPrepend, int threads) throws Throwable {
+		if (dictionary==null) ThingsException.softwareProblem("LanguageGenerator_Basic used before it was initialized.");
+		if (size < PARAGRAPH_MIN_SIZE) ThingsException.softwareProblem("Size is too small in generate().  size=" + size);
+		if (count < 0) ThingsException.softwareProblem("Count cannot be negative in generate().  count=" + count);
+		if (threads > count) threads = count;
+		if (threads < 1) threads = 1;
+		
+		final String[] result = new String[count];
+		final AtomicInteger next = new AtomicInteger();
+		final long base = seed;
+		Parallel.Job[] jobs = new Parallel.Job[threads];
+		for (int index = 0; index < threads; index++) {
+			jobs[index] = new Parallel.Job() {
+				public void run() throws Throwable {
+					LanguageGenerator_Basic generator = new LanguageGenerator_Basic();
+					generator.dictionary = dictionary;
+					AText text = new AText(size + (size / 8));
+					int number = next.getAndIncrement();
+					while ((number < count) && !Thread.currentThread().isInterrupted()) {
+						generator.rng.setSeed(streamSeed(base, number));
+						text.clear();
+						generator.page(text, size, wrap, wrapPrepend);
+						result[number] = text.text.toString();
+						number = next.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			Parallel.runAll(jobs);
+		} catch (InterruptedException ie) {
+			throw ie;
+		} catch (Throwable t) {
+			throw new ThingsException("Failed to generate text.", ThingsException.LANGUAGE_GENERATION_FAILED, t);
+		}
+		return result;
+	}
+	
+	/**
+	 * The seed for one stream out of a base seed.  It is the SplitMix64 mix, so neighboring streams are not alike.
+	 * @param seed the base seed.
+	 * @param stream the stream number.
+	 * @return the seed for the stream.
+	 */
+	public static long streamSeed(long seed, long stream) {
+		long mixed = seed + ((stream + 1) * 0x9E3779B97F4A7C15L);
+		mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+		return mixed ^ (mixed >>> 31);
+	}
 	
 	// ==========================================================================================================
 	// == INTERFACE
@@ -77,7 +187,7 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 	 * @throws Throwable
 	 */
 	public String word() throws Throwable {
-		return dictionary.get();
+		return dictionary.get(rng.rng);
 	}
 	
 	/**
@@ -87,7 +197,7 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 	 * @throws Throwable
 	 */
 	public String word(int size) throws Throwable {
-		return dictionary.get(size);
+		return dictionary.get(size, rng.rng);
 	}
 
 	/**
@@ -114,8 +224,11 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 	 */
 	public void sentence(AText target, int size, int wrap, String wrapPrepend) throws Throwable {
 		String word;
+		int wordLength;
+		boolean comma;
 		int realSize = size-1;
 		boolean firstWord = true;
+		boolean capital;
 		int realWrap = wrap-1; // Always leave from for a final period.
 		String wrapString;
 		if (wrapPrepend==null) {
@@ -133,47 +246,52 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 			
 			// Next word.  
 			if (realSize < WORD_CUTOFF_SIZE) 
-				word = dictionary.get(realSize);		// Don't get a runt near the end.  Just take what is left.
+				word = dictionary.get(realSize, rng.rng);		// Don't get a runt near the end.  Just take what is left.
 			else
-				word = dictionary.getMax(realSize);
-			realSize-=word.length();
+				word = dictionary.getMax(realSize, rng.rng);
+			wordLength = word.length();
+			realSize-=wordLength;
 			
-			// If there is room, occasionally we'll add a comma.
+			// If there is room, occasionally we'll add a comma.  It's counted now and appended when the word is emitted.
+			comma = false;
 			if ((realSize > COMMA_THRESHOLD)&&(rng.percent(COMMA_CHANCE))) {
-				word = word + ",";
+				comma = true;
+				wordLength++;
 				realSize--;
 			}
 			
-			// BAD HACK, but I'm in a hurry
-			if (firstWord) {
-				word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
-				firstWord = false;
-			}
+			// Capitalize when emitted.
+			capital = firstWord;
+			firstWord = false;
 			
 			// Wrap
-			run += word.length();
+			run += wordLength;
 			if ( run >= realWrap) {
 				
 				// Can we wrap with our wrap string and still have something?
 				if (realSize < (wrapString.length()+1)) {
 					
 					// Not enough characters remaining to add the wrap string. 
-					if (word.length() > wrapString.length()) {
+					if (wordLength > wrapString.length()) {
 						
 						// Steal from the word.
-						word = dictionary.getMax(word.length()-wrapString.length());
+						word = dictionary.getMax(wordLength-wrapString.length(), rng.rng);
+						wordLength = word.length();
+						comma = false;
 						target.text.append(wrapString);						
 						realSize = 0;
 						
 					} else {
 						
 						// Can't steal from the word.  Ouch.  Just force something.
-						switch(realSize + word.length()) {
+						switch(realSize + wordLength) {
 						case 0:
 							word = "";
+							comma = false;
 							break;
 						case 1:
 							word = "X";
+							comma = false;
 							break;
 							
 						case 2:
@@ -192,8 +310,9 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 							return;
 						
 						default:
-							// This is sort of likely at this point.  I want to see what happens before I decide what to do here.
-							ThingsException.softwareProblem("Erich's math is bad in sentence.");
+							// It happens with a wrap prepend longer than a couple characters.  There isn't room for the wrap 
+							// and another word, so let this line run long.
+							break;
 						}
 					}
 					
@@ -202,17 +321,23 @@ public class LanguageGenerator_Basic implements LanguageGenerator {
 					// We can add the wrap.
 					target.text.append(wrapString);
 					realSize-=wrapString.length();
-					run = word.length();
+					run = wordLength;
 				}
 
 			} else {
 				
 				// Not wrapping.
-				run+=word.length();
+				run+=wordLength;
 			}
 			
 			// emit it
-			target.text.append(word);
+			if (capital && (word.length() > 0)) {
+				target.text.append(Character.toUpperCase(word.charAt(0)));
+				target.text.append(word, 1, word.length());
+			} else {
+				target.text.append(word);
+			}
+			if (comma) target.text.append(',');
 	
 			// Are we done?  
 			if (realSize < 1) {
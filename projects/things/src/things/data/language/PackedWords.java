@@ -0,0 +1,295 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.language;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.List;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+
+/**
+ * Words packed by size.  Every word of a size is the same length, so a size is just a run of characters and word N of size S 
+ * starts at the run's start plus N times S.  There is no object or offset per word, so a large dictionary costs little more 
+ * than its characters.
+ * <p>
+ * It can be written to a file and loaded or memory mapped back.  A mapped file is shared by the operating system and is never on 
+ * the heap.  The file is a header of MAGIC, VERSION, the max size and a count for each size, all big-endian ints, followed by 
+ * the characters as big-endian UTF-16.
+ * <p>
+ * It never changes once made, so any number of threads can use it.
+ * <p>  
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 4 JUN 10
+ * </pre> 
+ */
+public class PackedWords {
+
+	// ========================================================================================
+	// FIELDS
+	
+	/**
+	 * File magic.  "THWD"
+	 */
+	public final static int MAGIC = 0x54485744;
+	
+	/**
+	 * File version.
+	 */
+	public final static int VERSION = 1;
+	
+	// ========================================================================================
+	// INTERNAL DATA
+	
+	private int maxSize;
+	private int[] counts;
+	private int[] starts;
+	private char[] array;
+	private CharBuffer buffer;
+	
+	// ========================================================================================
+	// METHODS
+	
+	/**
+	 * Pack words.
+	 * @param bySize the words for each size.  The first collection is for size 1, the second for size 2, and so on.  Every word must 
+	 * be the size of its collection.
+	 * @return the packed words.
+	 * @throws ThingsException if a word is the wrong size.
+	 */
+	public static PackedWords pack(List<? extends Collection<String>> bySize) throws ThingsException {
+		PackedWords result = new PackedWords();
+		result.maxSize = bySize.size();
+		result.counts = new int[result.maxSize];
+		long total = 0;
+		for (int index = 0; index < result.maxSize; index++) {
+			result.counts[index] = bySize.get(index).size();
+			total += (long)result.counts[index] * (index + 1);
+		}
+		if (total > Integer.MAX_VALUE) throw new ThingsException("Too many words to pack.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_SIZE, Long.toString(total));
+		result.locate();
+		
+		result.array = new char[(int)total];
+		int position = 0;
+		for (int index = 0; index < result.maxSize; index++) {
+			for (String word : bySize.get(index)) {
+				if (word.length() != index + 1) throw new ThingsException("Word is the wrong size for its bucket.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_VALUE, word);
+				word.getChars(0, index + 1, result.array, position);
+				position += index + 1;
+			}
+		}
+		result.buffer = CharBuffer.wrap(result.array);
+		return result;
+	}
+	
+	/**
+	 * Read packed words onto the heap.
+	 * @param source a stream with what write() wrote.  It is not closed.
+	 * @return the packed words.
+	 * @throws ThingsException if the stream can't be read or isn't packed words.
+	 */
+	public static PackedWords read(InputStream source) throws ThingsException {
+		try {
+			DataInputStream input = new DataInputStream(source);
+			PackedWords result = new PackedWords();
+			result.header(input);
+			byte[] bytes = new byte[result.size() * 2];
+			input.readFully(bytes);
+			result.array = new char[result.size()];
+			ByteBuffer.wrap(bytes).asCharBuffer().get(result.array);
+			result.buffer = CharBuffer.wrap(result.array);
+			return result;
+			
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("Could not read packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, t);
+		}
+	}
+	
+	/**
+	 * Memory map a packed words file.  The characters stay in the file.
+	 * @param file a file that write() made.
+	 * @return the packed words.
+	 * @throws ThingsException if the file can't be mapped or isn't packed words.
+	 */
+	public static PackedWords map(File file) throws ThingsException {
+		RandomAccessFile mapped = null;
+		try {
+			mapped = new RandomAccessFile(file, "r");
+			PackedWords result = new PackedWords();
+			result.header(mapped);
+			long headerSize = mapped.getFilePointer();
+			if (mapped.length() < headerSize + (result.size() * 2L)) throw new ThingsException("Packed words file is truncated.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_PLATFORM_FILE_NAME, file.getAbsolutePath());
+			result.buffer = mapped.getChannel().map(FileChannel.MapMode.READ_ONLY, headerSize, result.size() * 2L).asCharBuffer();
+			return result;
+			
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("Could not map packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, t, ThingsNamespace.ATTR_PLATFORM_FILE_NAME, file.getAbsolutePath());
+		} finally {
+			// The mapping outlives the file.
+			try {
+				if (mapped != null) mapped.close();
+			} catch (Throwable t) {
+				// Don't care.
+			}
+		}
+	}
+	
+	/**
+	 * Write them so read() or map() can get them back.
+	 * @param destination where to write them.  It is flushed but not closed.
+	 * @throws ThingsException
+	 */
+	public void write(OutputStream destination) throws ThingsException {
+		try {
+			DataOutputStream output = new DataOutputStream(destination);
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(maxSize);
+			for (int count : counts) output.writeInt(count);
+			
+			byte[] chunk = new byte[8192];
+			ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+			CharBuffer source = buffer.duplicate();
+			source.clear();
+			while (source.hasRemaining()) {
+				int size = Math.min(source.remaining(), chunk.length / 2);
+				chunkBuffer.clear();
+				for (int index = 0; index < size; index++) chunkBuffer.putChar(source.get());
+				output.write(chunk, 0, size * 2);
+			}
+			output.flush();
+			
+		} catch (Throwable t) {
+			throw new ThingsException("Could not write packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, t);
+		}
+	}
+	
+	/**
+	 * The largest word size.
+	 * @return the size.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * How many words there are of a size.
+	 * @param size the size.
+	 * @return the count, or 0 if the size is out of range.
+	 */
+	public int count(int size) {
+		if ((size < 1)||(size > maxSize)) return 0;
+		return counts[size - 1];
+	}
+	
+	/**
+	 * How many words there are.
+	 * @return the count.
+	 */
+	public int count() {
+		int result = 0;
+		for (int count : counts) result += count;
+		return result;
+	}
+	
+	/**
+	 * How many characters there are, all words together.
+	 * @return the count.
+	 */
+	public int size() {
+		if (maxSize < 1) return 0;
+		return starts[maxSize - 1] + (counts[maxSize - 1] * maxSize);
+	}
+	
+	/**
+	 * Is it mapped from a file rather than on the heap?
+	 * @return true if it is mapped.
+	 */
+	public boolean isMapped() {
+		return array == null;
+	}
+	
+	/**
+	 * Get a word.
+	 * @param size the size.
+	 * @param index which one, from 0 to count(size) - 1.
+	 * @return the word.
+	 * @throws IndexOutOfBoundsException if there is no such word.
+	 */
+	public String get(int size, int index) {
+		if ((index < 0)||(index >= count(size))) throw new IndexOutOfBoundsException("No word " + index + " of size " + size);
+		int start = starts[size - 1] + (index * size);
+		if (array != null) return new String(array, start, size);
+		char[] word = new char[size];
+		for (int character = 0; character < size; character++) word[character] = buffer.get(start + character);
+		return new String(word);
+	}
+	
+	// ========================================================================================
+	// INTERNAL
+	
+	private PackedWords() {
+	}
+	
+	/**
+	 * Read and check the header.
+	 */
+	private void header(java.io.DataInput input) throws Throwable {
+		if (input.readInt() != MAGIC) throw new ThingsException("Not a packed words file.", ThingsException.LANGUAGE_WORD_FILE_FAILED);
+		int version = input.readInt();
+		if (version != VERSION) throw new ThingsException("Unsupported packed words version.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_VALUE, Integer.toString(version));
+		maxSize = input.readInt();
+		if ((maxSize < 0)||(maxSize > 1024)) throw new ThingsException("Bad max size in packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_VALUE, Integer.toString(maxSize));
+		counts = new int[maxSize];
+		long total = 0;
+		for (int index = 0; index < maxSize; index++) {
+			counts[index] = input.readInt();
+			if (counts[index] < 0) throw new ThingsException("Bad count in packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_VALUE, Integer.toString(counts[index]));
+			total += (long)counts[index] * (index + 1);
+		}
+		if (total > Integer.MAX_VALUE) throw new ThingsException("Too many words in packed words.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_SIZE, Long.toString(total));
+		locate();
+	}
+	
+	/**
+	 * Find where each size starts.
+	 */
+	private void locate() {
+		starts = new int[maxSize];
+		int position = 0;
+		for (int index = 0; index < maxSize; index++) {
+			starts[index] = position;
+			position += counts[index] * (index + 1);
+		}
+	}
+	
+}
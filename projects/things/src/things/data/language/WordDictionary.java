@@ -17,11 +17,15 @@ package things.data.language;
 
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.tools.FastRandom;
 import things.common.tools.TokenFactory;
 import things.data.processing.Decomposer;
 
@@ -36,6 +40,10 @@ import things.data.processing.Decomposer;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial -10 MAY 06
+ * EPG - Alias table size sampling and caller random sources - 2 JUN 10
+ * EPG - Words kept packed and translation memory bounded - 4 JUN 10
+ * EPG - Only make Strings for tokens that could fit - 11 JUN 10
+ * EPG - Per thread random source - 14 JUN 10
  * </pre> 
  */
 public class WordDictionary implements Translator {
@@ -49,41 +57,43 @@ public class WordDictionary implements Translator {
 	 */
 	public final static int MAXSIZE = 36;
 	
+	/**
+	 * Default most translations remembered.
+	 */
+	public final static int DEFAULT_TRANSLATION_MEMORY = 65536;
+	
 	// ========================================================================================
 	// INTERNAL DATA
 	
-	private HashSet<String> masterBucket;
-	private ArrayList<ArrayList<String>> sizeBuckets;
-	private HashMap<String,String> rememberedTranslations;
-	private TokenFactory tokaner;
+	private PackedWords words;
+	private TranslationMemory rememberedTranslations;
+	private int translationMemorySize = DEFAULT_TRANSLATION_MEMORY;
 	private Random rng;
-	private int[] sizeCache;
 	private int[] frequencyChart;
+	private SizeChart sizeChart;
+	private ConcurrentHashMap<int[], SizeChart> otherCharts = new ConcurrentHashMap<int[], SizeChart>();
 
 	// ========================================================================================
 	// METHODS
 	
 	/**
 	 * A  ready to do stream from which WS delimited words can be found.  Buffer it if necessary.
-	 * This is memory hungry, since we'll be converting a hashset to a array for every word size.
+	 * The words are sorted into a set per size while loading and then packed, so only the packed characters are kept.
 	 * @param wordSource a stream to the word source.
 	 * @throws Throwable for any failure.
 	 */
 	public WordDictionary(InputStream	wordSource) throws Throwable {
 		if (wordSource==null) ThingsException.softwareProblem("wordSource cannot be null.");
 		
-		rng = new Random();
-		masterBucket = new HashSet<String>();
-		tokaner = new TokenFactory(MAXSIZE, false, false);
-		rememberedTranslations = new HashMap<String,String>();
+		rng = FastRandom.shared();
+		TokenFactory tokaner = new TokenFactory(MAXSIZE, false, false);
+		rememberedTranslations = new TranslationMemory(translationMemorySize);
 		
 		frequencyChart = defaultFrequencyChart;
+		sizeChart = new SizeChart(frequencyChart);
 	
 		ArrayList<HashSet<String>> tempBuckets = new ArrayList<HashSet<String>>(MAXSIZE);
-		sizeBuckets = new ArrayList<ArrayList<String>>(MAXSIZE);
-		sizeCache = new int[MAXSIZE];
 		for (int index = 0; index < MAXSIZE; index++) {
-			sizeBuckets.add(new ArrayList<String>());
 			tempBuckets.add(new HashSet<String>());
 		}
 		
@@ -91,28 +101,29 @@ public class WordDictionary implements Translator {
 			Decomposer decomposer = new Decomposer();
 			decomposer.start(wordSource);
 			String working = null;
-			String token = decomposer.token();
+			CharSequence token = decomposer.tokenView();
 			while (token != null) {
 				
-				working = token.trim();
-				masterBucket.add(working);
-				if ((working.length() > 0)&&(working.length()<=MAXSIZE)) {
-					tempBuckets.get(working.length()-1).add(working);
+				// A token too long even after a trim is never made into a String.
+				int length = token.length();
+				if ((length <= MAXSIZE)||(token.charAt(0) <= ' ')||(token.charAt(length - 1) <= ' ')) {
+					working = token.toString().trim();
+					if ((working.length() > 0)&&(working.length()<=MAXSIZE)) {
+						tempBuckets.get(working.length()-1).add(working);
+					}
 				}
 				
 				// Do not alter below this line
-				token = decomposer.token();
+				token = decomposer.tokenView();
 			}
 			
-			// Convert all the buckets and make sure they all have at least one word.
+			// Make sure they all have at least one word and pack them.
 			for (int index = 0; index < MAXSIZE; index++) {
-				sizeBuckets.get(index).addAll(tempBuckets.get(index));
-				sizeCache[index] = sizeBuckets.get(index).size();
-				if (sizeCache[index] < 1) {
-					sizeBuckets.get(index).add(tokaner.randomTokenANS(index+1));
-					sizeCache[index]++;
+				if (tempBuckets.get(index).size() < 1) {
+					tempBuckets.get(index).add(tokaner.randomTokenANS(index+1));
 				}
 			}
+			words = PackedWords.pack(tempBuckets);
 	
 		} catch (Throwable t) {
 			throw new ThingsException("Failed to load words.", ThingsException.DECOMPOSER_FAULT, t);
@@ -120,11 +131,57 @@ public class WordDictionary implements Translator {
 		}
 	}
 	
+	/**
+	 * Use words that are already packed, such as ones read or mapped from a file that getWords().write() made.
+	 * @param packed the words.  They must have every size up to MAXSIZE.
+	 * @throws Throwable if they don't.
+	 */
+	public WordDictionary(PackedWords packed) throws Throwable {
+		if (packed==null) ThingsException.softwareProblem("packed words cannot be null.");
+		if (packed.getMaxSize() != MAXSIZE) throw new ThingsException("Packed words have the wrong max size.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(packed.getMaxSize()));
+		for (int size = 1; size <= MAXSIZE; size++) {
+			if (packed.count(size) < 1) throw new ThingsException("Packed words have no words of a size.", ThingsException.LANGUAGE_WORD_FILE_FAILED, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(size));
+		}
+		
+		rng = FastRandom.shared();
+		rememberedTranslations = new TranslationMemory(translationMemorySize);
+		frequencyChart = defaultFrequencyChart;
+		sizeChart = new SizeChart(frequencyChart);
+		words = packed;
+	}
+	
+	/**
+	 * Get the packed words.  Write them to a file to load the dictionary faster next time.
+	 * @return the words.
+	 */
+	public PackedWords getWords() {
+		return words;
+	}
+	
 	/**
 	 * Refresh what we've remembered.
 	 */
-	public void refreshMemory() {
-		rememberedTranslations = new HashMap<String,String>();
+	public synchronized void refreshMemory() {
+		rememberedTranslations = new TranslationMemory(translationMemorySize);
+	}
+	
+	/**
+	 * Set the most translations to remember.  When it is full, the one used longest ago is forgotten.  This refreshes the memory.
+	 * @param size the most translations.  It must be at least one.
+	 * @throws Throwable if it isn't.
+	 */
+	public synchronized void setTranslationMemory(int size) throws Throwable {
+		if (size < 1) ThingsException.softwareProblem("Translation memory must be at least one.  size=" + size);
+		translationMemorySize = size;
+		refreshMemory();
+	}
+	
+	/**
+	 * How many translations are remembered.
+	 * @return the count.
+	 */
+	public synchronized int getRememberedCount() {
+		return rememberedTranslations.size();
 	}
 	
 	/**
@@ -136,6 +193,16 @@ public class WordDictionary implements Translator {
 		return get(rng.nextInt(MAXSIZE)-1);
 	}
 	
+	/**
+	 * Get a word of random size, using the caller's random source.
+	 * @param random the random source.  
+	 * @return the word
+	 * @throws Throwable
+	 */
+	public String get(Random random) throws Throwable {
+		return get(random.nextInt(MAXSIZE)-1, random);
+	}
+	
 	/**
 	 * Get a word of random size up to the specified maximum.  It still cannot be bigger than MAXSIZE.  It will use
 	 * the configured frequency chart for picking the size.
@@ -156,16 +223,31 @@ public class WordDictionary implements Translator {
 	 * @throws Throwable
 	 */
 	public String getMax(int max, int[]	chart) throws Throwable {
-		int size = chart[rng.nextInt(100)];
-		int loop = 0;
-		while (size > max) {
-			size = chart[rng.nextInt(100)];
-			
-			// runaway protection
-			loop++;	
-			if (loop>5) size = max;
-		}
-		return get(size);
+		return get(getSizeChart(chart).sample(max, rng), rng);
+	}
+	
+	/**
+	 * Get a word of random size up to the specified maximum, using the caller's random source.  Nothing shared is changed, so 
+	 * threads that each have their own random source can use one dictionary without contending.
+	 * @param max max size.
+	 * @param random the random source.
+	 * @return the word
+	 * @throws Throwable
+	 */
+	public String getMax(int max, Random random) throws Throwable {
+		return get(sizeChart.sample(max, random), random);
+	}
+	
+	/**
+	 * Get a word of random size up to the specified maximum, using the passed chart and the caller's random source.
+	 * @param max max size.
+	 * @param chart use this frequency chart instead of the configured.  It is read the first time it is used, so don't change it after.
+	 * @param random the random source.
+	 * @return the word
+	 * @throws Throwable
+	 */
+	public String getMax(int max, int[] chart, Random random) throws Throwable {
+		return get(getSizeChart(chart).sample(max, random), random);
 	}
 	
 	/**
@@ -175,18 +257,28 @@ public class WordDictionary implements Translator {
 	 * @throws Throwable
 	 */
 	public String get(int size) throws Throwable {
+		return get(size, rng);
+	}
+	
+	/**
+	 * Get a word of specified size, using the caller's random source.
+	 * @param size if less than one, it'll return an empty string.  If there is no words of the specified size, it returns an empty string.
+	 * @param random the random source.
+	 * @return the word
+	 * @throws Throwable
+	 */
+	public String get(int size, Random random) throws Throwable {
 		String result = null;
 		
 		try {
 
 			if (size < 1) return "";
-			int sizeBucket;
-			if (size > MAXSIZE) sizeBucket = MAXSIZE-1;
-			else sizeBucket = size-1;
+			if (size > MAXSIZE) size = MAXSIZE;
 			
 			// Randomly select a word from the bucket.
-			if (sizeCache[sizeBucket] < 1) return "";
-			result = sizeBuckets.get(sizeBucket).get(rng.nextInt(sizeCache[sizeBucket]));
+			int count = words.count(size);
+			if (count < 1) return "";
+			result = words.get(size, random.nextInt(count));
 				
 		} catch (Throwable t) {
 			// This will always be bad usage.
@@ -204,13 +296,14 @@ public class WordDictionary implements Translator {
 	 * @return the translated word or null if passed null.
 	 * @throws Throwable
 	 */
-	public String translate(String word) throws Throwable {
+	public synchronized String translate(String word) throws Throwable {
 		String result = null;
 		
 		try {
 		
 			// Available?
-			if (rememberedTranslations.containsKey(word)) return rememberedTranslations.get(word);
+			result = rememberedTranslations.get(word);
+			if (result != null) return result;
 			 
 			// Randomly select a dictionary word the same size
 			int wordSize = word.length();
@@ -218,8 +311,8 @@ public class WordDictionary implements Translator {
 			if (wordSize > MAXSIZE) wordSize = MAXSIZE;
 			
 			// Randomly select a word from the bucket.
-			int selected = rng.nextInt(sizeCache[wordSize-1]);
-			result = sizeBuckets.get(wordSize-1).get(selected);
+			int selected = rng.nextInt(words.count(wordSize));
+			result = words.get(wordSize, selected);
 			rememberedTranslations.put(word, result);
 				
 		} catch (Throwable t) {
@@ -239,7 +332,139 @@ public class WordDictionary implements Translator {
 	public void setFrequencyChart(int[] chart) throws Throwable {
 		if (chart==null)  ThingsException.softwareProblem("The frequency chart cannot be null.");
 		if (chart.length != 100) ThingsException.softwareProblem("The frequency chart must be exactly 100 entries.  This chart had " + chart.length + " entries.");
+		sizeChart = new SizeChart(chart);
+		frequencyChart = chart;
+	}
+	
+	/**
+	 * Samples word sizes from a frequency chart in constant time, using Vose's alias method.  There is a table for every max size,
+	 * built only from the chart entries that fit, so a pick is never thrown back.  If nothing in the chart fits, the max itself 
+	 * is the pick.
+	 * <p>
+	 * The weights are whole numbers (how many times a size appears in the chart), so the tables are exact and one random number 
+	 * picks both the column and whether to take its alias.
+	 */
+	public static class SizeChart {
+		
+		private int largest;
+		private int[][] sizes;
+		private int[][] keeps;
+		private int[][] aliases;
+		private int[] totals;
 		
+		/**
+		 * Constructor.
+		 * @param chart the chart.  Every entry is a size and is as likely as any other.
+		 */
+		public SizeChart(int[] chart) {
+			for (int size : chart) if (size > largest) largest = size;
+			sizes = new int[largest + 1][];
+			keeps = new int[largest + 1][];
+			aliases = new int[largest + 1][];
+			totals = new int[largest + 1];
+			
+			int[] counts = new int[largest + 1];
+			for (int max = 0; max <= largest; max++) {
+				
+				// Weights for just the sizes that fit.
+				int columns = 0;
+				for (int index = 0; index <= max; index++) counts[index] = 0;
+				for (int size : chart) {
+					if ((size >= 0)&&(size <= max)) {
+						if (counts[size] == 0) columns++;
+						counts[size]++;
+						totals[max]++;
+					}
+				}
+				if (columns == 0) continue;
+				
+				// Each column holds totals[max] units.  Fill the short ones from the long ones.
+				int[] size = new int[columns];
+				int[] weight = new int[columns];
+				int column = 0;
+				for (int index = 0; index <= max; index++) {
+					if (counts[index] > 0) {
+						size[column] = index;
+						weight[column] = counts[index] * columns;
+						column++;
+					}
+				}
+				int total = totals[max];
+				int[] keep = new int[columns];
+				int[] alias = new int[columns];
+				int[] small = new int[columns];
+				int[] large = new int[columns];
+				int smallCount = 0;
+				int largeCount = 0;
+				for (column = 0; column < columns; column++) {
+					if (weight[column] < total) small[smallCount++] = column;
+					else large[largeCount++] = column;
+				}
+				while ((smallCount > 0)&&(largeCount > 0)) {
+					int shorter = small[--smallCount];
+					int longer = large[--largeCount];
+					keep[shorter] = weight[shorter];
+					alias[shorter] = longer;
+					weight[longer] -= total - weight[shorter];
+					if (weight[longer] < total) small[smallCount++] = longer;
+					else large[largeCount++] = longer;
+				}
+				while (largeCount > 0) keep[large[--largeCount]] = total;
+				while (smallCount > 0) keep[small[--smallCount]] = total;
+				
+				sizes[max] = size;
+				keeps[max] = keep;
+				aliases[max] = alias;
+			}
+		}
+		
+		/**
+		 * Pick a size.
+		 * @param max the largest size to pick.
+		 * @param random the random source.
+		 * @return the size.
+		 */
+		public int sample(int max, Random random) {
+			if (max > largest) max = largest;
+			if ((max < 0)||(sizes[max] == null)) return max;
+			int[] size = sizes[max];
+			int total = totals[max];
+			int pick = random.nextInt(size.length * total);
+			int column = pick / total;
+			if ((pick % total) < keeps[max][column]) return size[column];
+			return size[aliases[max][column]];
+		}
+	}
+	
+	/**
+	 * Translations remembered in use order, bounded.
+	 */
+	private static class TranslationMemory extends LinkedHashMap<String,String> {
+		
+		public static final long serialVersionUID=1;
+		private int limit;
+		
+		TranslationMemory(int limit) {
+			super(16, 0.75f, true);
+			this.limit = limit;
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+			return size() > limit;
+		}
+	}
+	
+	/**
+	 * Get the size chart for a frequency chart, making it the first time.
+	 */
+	private SizeChart getSizeChart(int[] chart) {
+		if (chart == frequencyChart) return sizeChart;
+		SizeChart result = otherCharts.get(chart);
+		if (result == null) {
+			result = new SizeChart(chart);
+			otherCharts.put(chart, result);
+		}
+		return result;
 	}
 	
 	// =========================================================================================
@@ -13,24 +13,26 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package things.data.processing;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.StringTokenizer;
 
 import things.common.ThingsException;
 
 /**
  * General decomposer.
  * <p>
+ * The work is done by a {@link Tokenizer}, so tokens are cut right out of its buffer.  tokenView() gets a token without making a 
+ * String for it.  line() and peekLine() give the whole current line, even if tokens have been taken from it.  restOfLine() gives 
+ * what is left of it, starting at the next token.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from autohit - 22 OCT 06
+ * EPG - Use the buffer Tokenizer instead of lines and a StringTokenizer - 11 JUN 10
  * </pre> 
  */
 public class Decomposer {
@@ -38,16 +40,13 @@ public class Decomposer {
 	// ========================================================================================
 	// DATA
 	private boolean valid = false;
-	private BufferedReader ireader;
-	private StringTokenizer currentTokens;
-	private String currentLine;
-	private String currentDelim;
+	private Tokenizer tokenizer;
 	private int lineNumber;
 	
 	/**
 	 * The default delimiter characters in a string.
 	 */
-	public final static String DEFAULT_DELIMITERS = " \t\n\r\f";
+	public final static String DEFAULT_DELIMITERS = Tokenizer.DEFAULT_DELIMITERS;
 
 	// ========================================================================================
 	// METHODS
@@ -69,24 +68,19 @@ public class Decomposer {
 		
 		// Qualify
 		if (ios==null) ThingsException.softwareProblem("You cannot start a decomposer with a null stream.");
-		if (delimiters==null) {
-			currentDelim = DEFAULT_DELIMITERS;
-		} else {
-			if (delimiters.length()<1) ThingsException.softwareProblem("You cannot start a decomposer with an empty (but not null) delimiters String.");
-			currentDelim = delimiters;
+		if ((delimiters!=null)&&(delimiters.length()<1)) ThingsException.softwareProblem("You cannot start a decomposer with an empty (but not null) delimiters String.");
+
+		// If one is already chugging, we are done with it.
+		if (tokenizer != null) {
+			done();
 		}
 
 		// Invalidate the whole thing
 		valid = false;
 		lineNumber = 0;
 
-		// If one is already chugging, we are done with it.
-		if (ireader != null) {
-			done();
-		}
-
-		// Build a buffered reader
-		ireader = new BufferedReader(new InputStreamReader(ios));
+		tokenizer = new Tokenizer(delimiters);
+		tokenizer.start(new InputStreamReader(ios));
 		if (this.eat()) {
 			// It's a valid stream
 			valid = true;
@@ -112,9 +106,12 @@ public class Decomposer {
 		String result = null;
 
 		if (valid) {
-			result = currentLine;
+			try {
+				result = tokenizer.line(true);
+			} catch (Exception e) {
+				// Don't care.  null will bubble out
+			}
 			valid = this.eat();
-
 		}
 		return result;
 	}
@@ -128,7 +125,31 @@ public class Decomposer {
 		String result = null;
 
 		if (valid) {
-			result = currentLine;
+			try {
+				result = tokenizer.line(false);
+			} catch (Exception e) {
+				valid = false;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Return what is left of the current line, starting at the next token, and move to the next line.  If there is no next line or 
+	 * no session has been started, it will return a null.
+	 * @return the rest of the line or null
+	 */
+	public String restOfLine() {
+
+		String result = null;
+
+		if (valid) {
+			try {
+				result = tokenizer.restOfLine(true);
+			} catch (Exception e) {
+				// Don't care.  null will bubble out
+			}
+			valid = this.eat();
 		}
 		return result;
 	}
@@ -138,19 +159,30 @@ public class Decomposer {
 	 * @return the next token or a null
 	 */
 	public String token() {
-		String result = null;
+		CharSequence result = tokenView();
+		if (result == null) return null;
+		return result.toString();
+	}
 
-		if (valid) {
+	/**
+	 * Return the next token without making a String of it.  It is only good until the next call to this decomposer.
+	 * @return the next token or a null
+	 */
+	public CharSequence tokenView() {
+		Tokenizer.Token result = null;
 
-			if (currentTokens.hasMoreTokens()) {
-				result = currentTokens.nextToken();
-			} else {
-				valid = this.eat();
-				if (valid == true) {
-					result = currentTokens.nextToken();
+		if (valid) {
+			try {
+				result = tokenizer.nextOnLine();
+				if (result == null) {
+					valid = this.eat();
+					if (valid == true) {
+						result = tokenizer.nextOnLine();
+					}
 				}
+			} catch (Exception e) {
+				valid = false;
 			}
-
 		}
 		return result;
 	}
@@ -163,9 +195,11 @@ public class Decomposer {
 		String result = null;
 
 		if (valid) {
-
-			if (currentTokens.hasMoreTokens()) {
-				result = currentTokens.nextToken();
+			try {
+				Tokenizer.Token token = tokenizer.nextOnLine();
+				if (token != null) result = token.toString();
+			} catch (Exception e) {
+				valid = false;
 			}
 		}
 		return result;
@@ -180,15 +214,20 @@ public class Decomposer {
 
 		// Assume it will fail
 		if (valid) {
-			if (currentTokens.hasMoreTokens()) {
-				// current line has the goods
-				return true;
-			} else {
-				// see if the next line has the goods
-				valid = this.eat();
-				if (valid) {
+			try {
+				if (tokenizer.hasNextOnLine()) {
+					// current line has the goods
 					return true;
 				}
+			} catch (Exception e) {
+				valid = false;
+				return false;
+			}
+			
+			// see if the next line has the goods
+			valid = this.eat();
+			if (valid) {
+				return true;
 			}
 		}
 		return false;
@@ -203,14 +242,11 @@ public class Decomposer {
 		valid = false;
 		lineNumber = 0;
 		
-	    try  {
 		// If one is already chugging, close it
-		if (ireader != null)
-			ireader.close();
-			ireader = null;
-	    } catch (Exception e) {
-	        //dont care
-	    }
+		if (tokenizer != null) {
+			tokenizer.done();
+			tokenizer = null;
+		}
 	}
 
 	/**
@@ -235,21 +271,15 @@ public class Decomposer {
 	}
 	
 	/**
-	 * Chew lines until one is found with a token or there is nothing left to chew.
+	 * Move to the next line with a token, if there is one.
 	 * @return true if successful, false if we ran out
 	 */
 	private boolean eat() {
 
 		try {
-			currentLine = ireader.readLine();
-			lineNumber++;
-			while (currentLine != null) {
-				currentTokens = new StringTokenizer(currentLine, currentDelim);
-				if (currentTokens.hasMoreTokens())
-					return true;
-				currentLine = ireader.readLine();
-				lineNumber++;
-			}
+			boolean result = tokenizer.hasNext();
+			lineNumber = tokenizer.getLineNumber();
+			return result;
 		} catch (Exception e) {
 			// Don't care.  false will bubble out
 		}
@@ -0,0 +1,571 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing;
+
+import java.util.Arrays;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+
+/**
+ * An Aho-Corasick automaton for finding many phrases in one pass.  Whitespace in a phrase only breaks tokens, so any run of 
+ * whitespace in a phrase or the text is one space.  Phrases can be case sensitive or not.  The two kinds are kept in separate 
+ * tries, since folding case onto a shared trie would make the failure links wrong, and both are stepped for every character.
+ * <p>
+ * It works on UTF-16 characters.  A character outside the Basic Multilingual Plane is a surrogate pair and is matched as two 
+ * characters, which gives the same answer.  Case folding is done a character at a time.
+ * <p>
+ * Once built it never changes, so one automaton can be shared by any number of threads, each with its own Matcher.  The states 
+ * are packed into arrays: each state's edges are a sorted run in one label array and one target array, and the start state has a 
+ * direct table for ASCII.  When it isn't too big, the failure links are also compiled into a full transition table over just the 
+ * characters the phrases use, so a step is one array read.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 7 JUN 10
+ * </pre>
+ */
+public class PhraseAutomaton {
+
+	// =========================================================================================
+	// INTERNAL DATA
+
+	private final static int LINEAR_SEARCH = 8;
+	private final static int ROOT_TABLE = 128;
+	private final static int DENSE_LIMIT = 1 << 21;		// Most entries in a transition table.
+	private final static char SPACE = ' ';
+
+	/**
+	 * Character case folding, for every UTF-16 character.
+	 */
+	private final static char[] FOLD = new char[65536];
+	static {
+		for (int character = 0; character < FOLD.length; character++) {
+			if ((character >= Character.MIN_SURROGATE)&&(character <= Character.MAX_SURROGATE)) FOLD[character] = (char)character;
+			else FOLD[character] = Character.toLowerCase(Character.toUpperCase((char)character));
+		}
+	}
+
+	private Trie exact;
+	private Trie folded;
+	private int phraseCount;
+	private int ringMask;
+
+	// =========================================================================================
+	// METHODS
+
+	/**
+	 * Find every phrase in the text, overlapping ones too.  Where more than one ends on the same character, the longest is reported 
+	 * first.
+	 * @param text the text.
+	 * @param listener gets the phrases.
+	 * @throws Throwable whatever the listener throws.
+	 */
+	public void scan(CharSequence text, PhraseListener listener) throws Throwable {
+		Matcher matcher = matcher();
+		int length = text.length();
+		for (int index = 0; index < length; index++) {
+			if (matcher.next(text.charAt(index))) {
+				do {
+					listener.phrase(matcher.getMatchId(), matcher.getMatchStart(), matcher.getPosition());
+				} while (matcher.nextMatch());
+			}
+		}
+	}
+
+	/**
+	 * Get a matcher.  Each thread needs its own.
+	 * @return a new matcher at the start.
+	 */
+	public Matcher matcher() {
+		return new Matcher(this);
+	}
+
+	/**
+	 * How many phrases it has.  A phrase declared twice is counted once.
+	 * @return the count.
+	 */
+	public int getPhraseCount() {
+		return phraseCount;
+	}
+
+	/**
+	 * How many states it has.
+	 * @return the count.
+	 */
+	public int getStateCount() {
+		return exact.states() + folded.states();
+	}
+
+	/**
+	 * Is it a whitespace character?  A run of them is one space.
+	 * @param character the character.
+	 * @return true if it is.
+	 */
+	public static boolean isSpace(char character) {
+		return Character.isWhitespace(character) || Character.isSpaceChar(character);
+	}
+
+	// =========================================================================================
+	// BUILDER
+
+	/**
+	 * Build an automaton.  Declare the phrases and then build().  A builder can keep building; each build() makes a new automaton 
+	 * with everything declared so far.
+	 */
+	public static class Builder {
+
+		private Node[] exactNodes = new Node[] { new Node(0) };
+		private int exactCount = 1;
+		private Node[] foldedNodes = new Node[] { new Node(0) };
+		private int foldedCount = 1;
+		private int[] ids = new int[16];
+		private int phraseCount;
+
+		/**
+		 * Declare a phrase.  Declaring the same phrase again, after whitespace and case are normalized, replaces its id.
+		 * @param phrase the phrase.  Leading and trailing whitespace is ignored.  Control characters are not allowed.
+		 * @param id the id to report.  Any value.
+		 * @param caseSensitive true if case matters.
+		 * @throws ThingsException PROCESSING_ERROR_DEFINITION if the phrase is empty or has a control character.
+		 */
+		public void declare(String phrase, int id, boolean caseSensitive) throws ThingsException {
+			if (phrase == null) throw new ThingsException("Phrase cannot be null.", ThingsException.PROCESSING_ERROR_DEFINITION);
+			char[] normal = normalize(phrase, !caseSensitive);
+
+			Node[] nodes;
+			int count;
+			if (caseSensitive) {
+				nodes = exactNodes;
+				count = exactCount;
+			} else {
+				nodes = foldedNodes;
+				count = foldedCount;
+			}
+
+			int state = 0;
+			for (char character : normal) {
+				int next = nodes[state].find(character);
+				if (next < 0) {
+					if (count == nodes.length) nodes = Arrays.copyOf(nodes, count * 2);
+					nodes[count] = new Node(nodes[state].depth + 1);
+					nodes[state].add(character, count);
+					next = count++;
+				}
+				state = next;
+			}
+
+			if (nodes[state].phrase < 0) {
+				if (phraseCount == ids.length) ids = Arrays.copyOf(ids, phraseCount * 2);
+				nodes[state].phrase = phraseCount++;
+			}
+			ids[nodes[state].phrase] = id;
+
+			if (caseSensitive) {
+				exactNodes = nodes;
+				exactCount = count;
+			} else {
+				foldedNodes = nodes;
+				foldedCount = count;
+			}
+		}
+
+		/**
+		 * Build it.
+		 * @return the automaton.
+		 */
+		public PhraseAutomaton build() {
+			PhraseAutomaton result = new PhraseAutomaton();
+			int[] frozen = Arrays.copyOf(ids, phraseCount);
+			result.exact = new Trie(exactNodes, exactCount, frozen);
+			result.folded = new Trie(foldedNodes, foldedCount, frozen);
+			result.phraseCount = phraseCount;
+			int deepest = Math.max(result.exact.deepest, result.folded.deepest);
+			int ring = 1;
+			while (ring <= deepest) ring <<= 1;
+			result.ringMask = ring - 1;
+			return result;
+		}
+
+		/**
+		 * Trim, collapse whitespace and maybe fold.
+		 */
+		private static char[] normalize(String phrase, boolean fold) throws ThingsException {
+			char[] result = new char[phrase.length()];
+			int length = 0;
+			boolean spacing = true;
+			for (int index = 0; index < phrase.length(); index++) {
+				char character = phrase.charAt(index);
+				if (isSpace(character)) {
+					if (!spacing) result[length++] = SPACE;
+					spacing = true;
+				} else if (Character.isISOControl(character)) {
+					throw new ThingsException("Bad phrase definition.  Contains a control character.", ThingsException.PROCESSING_ERROR_DEFINITION, 
+							ThingsNamespace.ATTR_DATA_ARGUMENT, phrase, ThingsNamespace.ATTR_DATA_CLASSIFICATION_CHAR, Integer.toString(character));
+				} else {
+					result[length++] = fold ? FOLD[character] : character;
+					spacing = false;
+				}
+			}
+			if ((length > 0)&&(result[length - 1] == SPACE)) length--;
+			if (length == 0) throw new ThingsException("Bad phrase definition.  It is empty.", ThingsException.PROCESSING_ERROR_DEFINITION, ThingsNamespace.ATTR_DATA_ARGUMENT, phrase);
+			return Arrays.copyOf(result, length);
+		}
+	}
+
+	/**
+	 * A trie node while building.
+	 */
+	private static class Node {
+		char[] labels = new char[2];
+		int[] targets = new int[2];
+		int edges;
+		int depth;
+		int phrase = -1;
+
+		Node(int depth) {
+			this.depth = depth;
+		}
+
+		int find(char label) {
+			for (int index = 0; index < edges; index++) {
+				if (labels[index] == label) return targets[index];
+			}
+			return -1;
+		}
+
+		void add(char label, int target) {
+			if (edges == labels.length) {
+				labels = Arrays.copyOf(labels, edges * 2);
+				targets = Arrays.copyOf(targets, edges * 2);
+			}
+			labels[edges] = label;
+			targets[edges] = target;
+			edges++;
+		}
+	}
+
+	// =========================================================================================
+	// TRIE
+
+	/**
+	 * A packed trie with failure links.  States are numbered breadth first.
+	 */
+	private static class Trie {
+
+		int[] edgeStart;
+		char[] labels;
+		int[] targets;
+		int[] fail;
+		int[] depth;
+		int[] phrase;
+		int[] ids;
+		int[] output;
+		int[] root = new int[ROOT_TABLE];
+		int deepest;
+		char[] classes;		// Character to column in the transition table.  Anything past the end is column 0.
+		int width;
+		int[] table;		// null if it would be too big.
+
+		Trie(Node[] nodes, int count, int[] ids) {
+
+			// Number them breadth first.
+			int[] order = new int[count];
+			int[] number = new int[count];
+			int edgeCount = 0;
+			int tail = 1;
+			for (int head = 0; head < tail; head++) {
+				Node node = nodes[order[head]];
+				edgeCount += node.edges;
+				for (int edge = 0; edge < node.edges; edge++) {
+					number[node.targets[edge]] = tail;
+					order[tail++] = node.targets[edge];
+				}
+			}
+
+			// Pack the edges, sorted, with new numbers.
+			edgeStart = new int[count + 1];
+			labels = new char[edgeCount];
+			targets = new int[edgeCount];
+			depth = new int[count];
+			phrase = new int[count];
+			this.ids = ids;
+			int position = 0;
+			long[] sorter = new long[16];
+			for (int state = 0; state < count; state++) {
+				Node node = nodes[order[state]];
+				edgeStart[state] = position;
+				depth[state] = node.depth;
+				if (node.depth > deepest) deepest = node.depth;
+				phrase[state] = node.phrase;
+				if (sorter.length < node.edges) sorter = new long[node.edges];
+				for (int edge = 0; edge < node.edges; edge++) sorter[edge] = ((long)node.labels[edge] << 32) | number[node.targets[edge]];
+				Arrays.sort(sorter, 0, node.edges);
+				for (int edge = 0; edge < node.edges; edge++) {
+					labels[position] = (char)(sorter[edge] >>> 32);
+					targets[position] = (int)sorter[edge];
+					position++;
+				}
+			}
+			edgeStart[count] = position;
+
+			Arrays.fill(root, -1);
+			for (int edge = edgeStart[0]; edge < edgeStart[1]; edge++) {
+				if (labels[edge] < ROOT_TABLE) root[labels[edge]] = targets[edge];
+			}
+
+			// Failure and output links, breadth first so the links they lean on are done.
+			fail = new int[count];
+			output = new int[count];
+			output[0] = -1;
+			for (int state = 0; state < count; state++) {
+				for (int edge = edgeStart[state]; edge < edgeStart[state + 1]; edge++) {
+					int target = targets[edge];
+					if (state == 0) {
+						fail[target] = 0;
+					} else {
+						fail[target] = step(fail[state], labels[edge]);
+					}
+					int link = fail[target];
+					output[target] = (phrase[link] >= 0) ? link : output[link];
+				}
+			}
+
+			compile(count);
+		}
+
+		/**
+		 * Make the transition table.  Column 0 is for characters no phrase uses, which always go back to the start.
+		 */
+		private void compile(int count) {
+			int highest = -1;
+			for (int edge = 0; edge < labels.length; edge++) {
+				if (labels[edge] > highest) highest = labels[edge];
+			}
+			classes = new char[highest + 1];
+			char[] members = new char[Math.min(labels.length, classes.length) + 1];
+			width = 1;
+			for (int edge = 0; edge < labels.length; edge++) {
+				if (classes[labels[edge]] == 0) {
+					members[width] = labels[edge];
+					classes[labels[edge]] = (char)width++;
+				}
+			}
+			if ((long)count * width > DENSE_LIMIT) {
+				classes = null;
+				return;
+			}
+
+			// Breadth first, so a failure state's row is always done.
+			int[] result = new int[count * width];
+			for (int state = 0; state < count; state++) {
+				int row = state * width;
+				int failRow = fail[state] * width;
+				for (int column = 1; column < width; column++) {
+					int next = find(state, members[column]);
+					if (next >= 0) result[row + column] = next;
+					else if (state > 0) result[row + column] = result[failRow + column];
+				}
+			}
+			table = result;
+		}
+
+		/**
+		 * Where a character goes from a state.
+		 */
+		final int next(int state, char character) {
+			if (table == null) return step(state, character);
+			return table[state * width + ((character < classes.length) ? classes[character] : 0)];
+		}
+
+		int states() {
+			return depth.length;
+		}
+
+		/**
+		 * Where a character goes from a state, following failure links.
+		 */
+		final int step(int state, char character) {
+			while (true) {
+				int next = find(state, character);
+				if (next >= 0) return next;
+				if (state == 0) return 0;
+				state = fail[state];
+			}
+		}
+
+		/**
+		 * The edge for a character, or -1.
+		 */
+		final int find(int state, char character) {
+			if (state == 0) {
+				if (character < ROOT_TABLE) return root[character];
+			}
+			int low = edgeStart[state];
+			int high = edgeStart[state + 1] - 1;
+			if (high - low < LINEAR_SEARCH) {
+				for (int edge = low; edge <= high; edge++) {
+					if (labels[edge] == character) return targets[edge];
+				}
+				return -1;
+			}
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char label = labels[middle];
+				if (label < character) low = middle + 1;
+				else if (label > character) high = middle - 1;
+				else return targets[middle];
+			}
+			return -1;
+		}
+	}
+
+	// =========================================================================================
+	// MATCHER
+
+	/**
+	 * Walks an automaton over text, one character at a time.  It is for one thread.  Positions count every character given to 
+	 * next() since the matcher was made or reset().
+	 */
+	public static class Matcher {
+
+		private final Trie exact;
+		private final Trie folded;
+		private final long[] ring;
+		private final int mask;
+		private int exactState;
+		private int foldedState;
+		private int exactCursor = -1;
+		private int foldedCursor = -1;
+		private boolean spacing = true;
+		private long position;
+		private long normalized;
+		private int matchId;
+		private long matchStart;
+
+		Matcher(PhraseAutomaton automaton) {
+			exact = automaton.exact;
+			folded = automaton.folded;
+			mask = automaton.ringMask;
+			ring = new long[mask + 1];
+		}
+
+		/**
+		 * Give it the next character.
+		 * @param character the character.
+		 * @return true if a phrase ends here.  The longest one is ready to get.  Call nextMatch() for others that end here.
+		 */
+		public boolean next(char character) {
+			position++;
+			exactCursor = -1;
+			foldedCursor = -1;
+			if (isSpace(character)) {
+				if (spacing) return false;
+				spacing = true;
+				character = SPACE;
+			} else {
+				spacing = false;
+			}
+			normalized++;
+			ring[(int)(normalized & mask)] = position - 1;
+
+			exactState = exact.next(exactState, character);
+			foldedState = folded.next(foldedState, FOLD[character]);
+			exactCursor = (exact.phrase[exactState] >= 0) ? exactState : exact.output[exactState];
+			foldedCursor = (folded.phrase[foldedState] >= 0) ? foldedState : folded.output[foldedState];
+			return nextMatch();
+		}
+
+		/**
+		 * Move to the next phrase that ends on the same character, from longest to shortest.
+		 * @return true if there is one.
+		 */
+		public boolean nextMatch() {
+			int exactLength = (exactCursor > 0) ? exact.depth[exactCursor] : 0;
+			int foldedLength = (foldedCursor > 0) ? folded.depth[foldedCursor] : 0;
+			int length;
+			if ((exactLength == 0)&&(foldedLength == 0)) return false;
+			if (exactLength >= foldedLength) {
+				matchId = exact.ids[exact.phrase[exactCursor]];
+				length = exactLength;
+				exactCursor = exact.output[exactCursor];
+			} else {
+				matchId = folded.ids[folded.phrase[foldedCursor]];
+				length = foldedLength;
+				foldedCursor = folded.output[foldedCursor];
+			}
+			matchStart = ring[(int)((normalized - length + 1) & mask)];
+			return true;
+		}
+
+		/**
+		 * The id of the current match.
+		 * @return the id.
+		 */
+		public int getMatchId() {
+			return matchId;
+		}
+
+		/**
+		 * Where the current match starts.
+		 * @return the position.
+		 */
+		public long getMatchStart() {
+			return matchStart;
+		}
+
+		/**
+		 * How many characters it has been given.  This is also where the current match ends, exclusive.
+		 * @return the position.
+		 */
+		public long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Where the longest phrase that could still match would start.  Text before it can't be part of a match.
+		 * @return the position, which is the current position if nothing is partly matched.
+		 */
+		public long getHoldStart() {
+			int length = Math.max(exact.depth[exactState], folded.depth[foldedState]);
+			if (length == 0) return position;
+			return ring[(int)((normalized - length + 1) & mask)];
+		}
+
+		/**
+		 * Forget any partial matches but keep counting positions.  Use it to keep matches from overlapping.
+		 */
+		public void restart() {
+			exactState = 0;
+			foldedState = 0;
+			exactCursor = -1;
+			foldedCursor = -1;
+			spacing = true;
+		}
+
+		/**
+		 * Start over at position zero.
+		 */
+		public void reset() {
+			restart();
+			position = 0;
+			normalized = 0;
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing;
+
+/**
+ * A listener for phrases found by a PhraseAutomaton scan.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 7 JUN 10
+ * </pre>
+ */
+public interface PhraseListener {
+
+	/**
+	 * A phrase was found.  Offsets are in characters from the start of the scan.
+	 * @param id the phrase id.
+	 * @param start where it starts.
+	 * @param end where it ends, exclusive.
+	 * @throws Throwable which will stop the scan.
+	 */
+	public void phrase(int id, long start, long end) throws Throwable;
+
+}
@@ -0,0 +1,397 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.tools.Parallel;
+import things.thinger.io.Logger;
+
+/**
+ * A crawler that walks the tree with a pool of threads and streams the files it accepts through a bounded queue, so whoever is 
+ * processing them can start on the first file while the crawl is still going.  When the queue is full the crawl waits for the 
+ * consumer.
+ * <p>
+ * Each thread takes directories from a shared deque.  A thread pushes the subdirectories it finds onto the deque and takes from 
+ * the same end, so it mostly works depth first on its own subtree while idle threads pick up whatever is left.  The include and 
+ * exclude patterns are compiled once when the crawl starts, and each thread keeps its own matchers.
+ * <p>
+ * The files come out in no particular order.  Directories that can't be read are counted and skipped.  Symbolic links are 
+ * followed, but each directory is only crawled once by its canonical path, so a link back up the tree is counted as a repeat 
+ * and skipped.
+ * <p>
+ * The threads come from Parallel.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 9 JUN 10
+ * EPG - Crawl with Parallel - 30 JUN 10
+ * </pre> 
+ */
+public class StreamCrawler {
+
+	// ========================================================================================
+	// PUBLIC DATA
+	public final static int DEFAULT_CAPACITY = 1024;
+	
+	// ========================================================================================
+	// FIELDS
+	private final static File END = new File("");
+	private final static long IDLE_WAIT = 50;			// Milliseconds an idle thread waits for a directory.
+	
+	private String pathroot;
+	private Logger logger;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int capacity = DEFAULT_CAPACITY;
+	
+	private ArrayList<String> includeParts = new ArrayList<String>();
+	private ArrayList<String> excludeParts = new ArrayList<String>();
+	private String suffix;
+	
+	// Per crawl
+	private Pattern includePattern;
+	private Pattern excludePattern;
+	private LinkedBlockingDeque<File> directories;
+	private ArrayBlockingQueue<File> files;
+	private AtomicInteger outstanding;
+	private ConcurrentHashMap<String, Boolean> visited;		// Canonical paths of the directories already found.
+	private Parallel workers;
+	private volatile boolean stopped;
+	private volatile Throwable failure;
+	private volatile boolean ended;
+	
+	private AtomicLong directoryCount = new AtomicLong();
+	private AtomicLong fileCount = new AtomicLong();
+	private AtomicLong skipCount = new AtomicLong();
+	private AtomicLong unreadableCount = new AtomicLong();
+	private AtomicLong repeatCount = new AtomicLong();
+
+	// ========================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 * @param pathroot the path from where to start.
+	 * @param logger the logger to use.
+	 * @throws Throwable for a null argument.
+	 */
+	public StreamCrawler(String pathroot, Logger logger) throws Throwable {
+		if (logger==null) throw new ThingsException("Crawler failed to start due to EXCEPTION.  Null logger.", ThingsException.CRAWLER_ERROR_DURING_SETUP);
+		if (pathroot==null) throw new ThingsException("Crawler failed to start due to EXCEPTION.  Null pathroot.", ThingsException.CRAWLER_ERROR_DURING_SETUP);
+		this.pathroot = pathroot;
+		this.logger = logger;
+	}
+	
+	/**
+	 * Set how many threads will crawl.  It takes effect on the next start().
+	 * @param threads the number of threads.  It must be at least one.
+	 * @throws Throwable
+	 */
+	public synchronized void setThreads(int threads) throws Throwable {
+		if (threads < 1) ThingsException.softwareProblem("StreamCrawler.setThreads must be at least one.", ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(threads));
+		this.threads = threads;
+	}
+	
+	/**
+	 * Set how many accepted files can wait for the consumer before the crawl waits too.  It takes effect on the next start().
+	 * @param capacity the capacity.  It must be at least one.
+	 * @throws Throwable
+	 */
+	public synchronized void setCapacity(int capacity) throws Throwable {
+		if (capacity < 1) ThingsException.softwareProblem("StreamCrawler.setCapacity must be at least one.", ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(capacity));
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Require every filename to match the regex.  More than one are OR'd together.  It takes effect on the next start().
+	 * @param text the regex.   It cannot be null or empty.
+	 * @throws Throwable
+	 */
+	public synchronized void match(String text) throws Throwable {
+		if ((text==null)||(text.length()<1)) ThingsException.softwareProblem("StreamCrawler.match cannot be called with an empty text.");
+		Pattern.compile(text);
+		includeParts.add(text);
+	}
+	
+	/**
+	 * Require every filename to NOT match the regex.  More than one are OR'd together.  It takes effect on the next start().
+	 * @param text the regex.   It cannot be null or empty.
+	 * @throws Throwable
+	 */
+	public synchronized void dontMatch(String text) throws Throwable {
+		if ((text==null)||(text.length()<1)) ThingsException.softwareProblem("StreamCrawler.dontMatch cannot be called with an empty text.");
+		Pattern.compile(text);
+		excludeParts.add(text);
+	}
+	
+	/**
+	 * Ignore any file that has this as a suffix.  You can only set one at a time.  It takes effect on the next start().
+	 * @param suffix The suffix.  Null will turn it off.  It is not case sensitive.
+	 * @throws Throwable
+	 */
+	public synchronized void dropSuffix(String suffix) throws Throwable {
+		if ((suffix!=null)&&(suffix.length()<1)) ThingsException.softwareProblem("StreamCrawler.dropSuffix cannot be called with an empty text.");
+		if (suffix==null) this.suffix = null;
+		else this.suffix = suffix.toLowerCase();
+	}
+	
+	/**
+	 * Start the crawl.  Any crawl still running is stopped first.
+	 * @throws Throwable if the root isn't a directory.
+	 */
+	public synchronized void start() throws Throwable {
+		stop();
+		File root = new File(pathroot);
+		if (!root.isDirectory()) throw new ThingsException("Crawler given a bad directory as root.", ThingsException.CRAWLER_ERROR_DURING_SETUP, ThingsNamespace.ATTR_PLATFORM_FILE_NAME, pathroot);
+		
+		includePattern = compile(includeParts);
+		excludePattern = compile(excludeParts);
+		directories = new LinkedBlockingDeque<File>();
+		files = new ArrayBlockingQueue<File>(capacity);
+		outstanding = new AtomicInteger(1);
+		visited = new ConcurrentHashMap<String, Boolean>();
+		visited.put(root.getCanonicalPath(), Boolean.TRUE);
+		directories.add(root);
+		stopped = false;
+		failure = null;
+		ended = false;
+		directoryCount.set(0);
+		fileCount.set(0);
+		skipCount.set(0);
+		unreadableCount.set(0);
+		repeatCount.set(0);
+		
+		logger.info("CRAWL STARTING.  root=" + pathroot + " threads=" + threads);
+		Worker[] jobs = new Worker[threads];
+		for (int index = 0; index < threads; index++) {
+			jobs[index] = new Worker(directories, files);
+		}
+		workers = Parallel.start(jobs);
+	}
+	
+	/**
+	 * Get the next file.  It waits if the crawl hasn't found one yet.
+	 * @return the file or null if the crawl is done or stopped.
+	 * @throws Throwable if the crawl failed or the wait was interrupted.
+	 */
+	public File next() throws Throwable {
+		if (files == null) ThingsException.softwareProblem("StreamCrawler.next called before start.");
+		
+		// The END comes after the last file if the crawl finishes.  If it fails or is stopped, the flags say so.
+		try {
+			while (!ended) {
+				File result = files.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+				if (failure != null) throw new ThingsException("Crawler failed due to EXCEPTION.", ThingsException.CRAWLER_ERROR, failure, ThingsNamespace.ATTR_PLATFORM_FILE_NAME, pathroot);
+				if ((result == END)||(stopped)) {
+					ended = true;
+				} else if (result != null) {
+					return result;
+				}
+			}
+		} catch (InterruptedException ie) {
+			throw new ThingsException("Crawler interrupted while waiting for a file.", ThingsException.CRAWLER_ERROR, ie);
+		}
+		return null;
+	}
+	
+	/**
+	 * Stop the crawl.  The threads quit, anything already queued is dropped, and next() will return null.  It's safe to call when 
+	 * nothing is running.
+	 * @throws Throwable
+	 */
+	public synchronized void stop() throws Throwable {
+		if (workers == null) return;
+		stopped = true;
+		workers.cancel();
+		workers = null;
+		files.clear();
+	}
+	
+	/**
+	 * Is it still crawling?
+	 * @return true if there are threads still walking the tree.
+	 */
+	public boolean isCrawling() {
+		return (outstanding != null) && (outstanding.get() > 0) && !stopped;
+	}
+	
+	/**
+	 * How many directories have been read.
+	 * @return the count.
+	 */
+	public long getDirectoryCount() {
+		return directoryCount.get();
+	}
+	
+	/**
+	 * How many files have been accepted.
+	 * @return the count.
+	 */
+	public long getFileCount() {
+		return fileCount.get();
+	}
+	
+	/**
+	 * How many files did not match.
+	 * @return the count.
+	 */
+	public long getSkipCount() {
+		return skipCount.get();
+	}
+
+	/**
+	 * How many directories couldn't be read.
+	 * @return the count.
+	 */
+	public long getUnreadableCount() {
+		return unreadableCount.get();
+	}
+	
+	/**
+	 * How many directories were skipped because they had already been found by another path, such as through a symbolic link.
+	 * @return the count.
+	 */
+	public long getRepeatCount() {
+		return repeatCount.get();
+	}
+
+	// ========================================================================================
+	// INTERNAL
+	
+	private static Pattern compile(ArrayList<String> parts) {
+		if (parts.size() < 1) return null;
+		StringBuffer temp = new StringBuffer();
+		for (int index = 0; index < parts.size() ; index++) {
+			if (index > 0) temp.append('|');  // OR
+			temp.append("(?:").append(parts.get(index)).append(')');
+		}
+		return Pattern.compile(temp.toString());
+	}
+	
+	/**
+	 * A crawling job.  It keeps its own matchers.
+	 */
+	private class Worker implements Parallel.Job {
+		private final LinkedBlockingDeque<File> directories;
+		private final ArrayBlockingQueue<File> files;
+		private final Matcher include;
+		private final Matcher exclude;
+		private final String suffix;
+		
+		Worker(LinkedBlockingDeque<File> directories, ArrayBlockingQueue<File> files) {
+			this.directories = directories;
+			this.files = files;
+			include = (includePattern == null) ? null : includePattern.matcher("");
+			exclude = (excludePattern == null) ? null : excludePattern.matcher("");
+			suffix = StreamCrawler.this.suffix;
+		}
+		
+		public void run() {
+			try {
+				while (!stopped && (outstanding.get() > 0)) {
+					File directory = directories.pollFirst(IDLE_WAIT, TimeUnit.MILLISECONDS);
+					if (directory == null) continue;
+					crawl(directory);
+					
+					// The last one out ends it.  Every file is already queued, since that's done before a directory is counted off.
+					if (outstanding.decrementAndGet() == 0) {
+						offer(END);
+						logger.info("CRAWL DONE.  directories=" + directoryCount.get() + " files=" + fileCount.get());
+					}
+				}
+				
+			} catch (InterruptedException ie) {
+				// Stopped.
+			} catch (Throwable t) {
+				if (!stopped) {
+					failure = t;
+					stopped = true;
+				}
+			}
+		}
+		
+		/**
+		 * Queue it, waiting for room.  Give up if the crawl is stopped.
+		 */
+		private void offer(File file) throws InterruptedException {
+			while (!files.offer(file, IDLE_WAIT, TimeUnit.MILLISECONDS)) {
+				if (stopped) throw new InterruptedException();
+			}
+		}
+		
+		private void crawl(File directory) throws Throwable {
+			File[] entries = directory.listFiles();
+			if (entries == null) {
+				unreadableCount.incrementAndGet();
+				logger.warning("CRAWL could not read directory.", ThingsException.CRAWLER_ERROR, ThingsNamespace.ATTR_PLATFORM_FILE_NAME, directory.getPath());
+				return;
+			}
+			directoryCount.incrementAndGet();
+			
+			for (File entry : entries) {
+				if (stopped) return;
+				if (entry.isDirectory()) {
+					if (visited.putIfAbsent(canonical(entry), Boolean.TRUE) != null) {
+						repeatCount.incrementAndGet();
+						continue;
+					}
+					outstanding.incrementAndGet();
+					directories.addFirst(entry);
+				} else if (entry.isFile()) {
+					if (accept(entry.getName())) {
+						fileCount.incrementAndGet();
+						offer(entry);
+					} else {
+						skipCount.incrementAndGet();
+					}
+				}
+			}
+		}
+		
+		/**
+		 * The canonical path.  If it can't be had, the absolute path will do.
+		 */
+		private String canonical(File directory) {
+			try {
+				return directory.getCanonicalPath();
+			} catch (IOException ioe) {
+				return directory.getAbsolutePath();
+			}
+		}
+		
+		private boolean accept(String name) {
+			if ((include != null) && !include.reset(name).matches()) return false;
+			if ((exclude != null) && exclude.reset(name).matches()) return false;
+			if ((suffix != null) && name.toLowerCase().endsWith(suffix)) return false;
+			return true;
+		}
+	}
+	
+}
@@ -0,0 +1,402 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+
+/**
+ * A tokenizer that works right in a character buffer.  The delimiters are a bit set, and a token is handed back as a view on the 
+ * buffer, so nothing is allocated unless the caller asks for a String.  Line ends always break tokens, whether they are delimiters 
+ * or not, and lines are counted as they go by: LF, CR, and CR LF are each one line end.
+ * <p>
+ * The start of the current line is kept in the buffer, so line() can hand back all of it even after tokens have been taken from it.
+ * A token view is only good until the next call.  The buffer grows if a token or line won't fit in it.  It is not thread safe.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 11 JUN 10
+ * </pre> 
+ */
+public class Tokenizer {
+
+	// ========================================================================================
+	// PUBLIC DATA
+	
+	/**
+	 * The default delimiter characters: SPACE, TAB, LF, CR, and FORM FEED.
+	 */
+	public final static String DEFAULT_DELIMITERS = " \t\n\r\f";
+	public final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	// ========================================================================================
+	// DATA
+	private final static char LF = '\n';
+	private final static char CR = '\r';
+	
+	private final long[] breaks;		// Delimiters and line ends.
+	private final int breakLimit;
+	private final Token token = new Token();
+	
+	private Reader reader;
+	private char[] buffer;
+	private int position;
+	private int mark;				// Start of what is being gathered.  fill() keeps it and moves it.
+	private int lineStart;			// Start of the current line.  fill() keeps it and moves it.
+	private int limit;
+	private boolean eof = true;
+	private int lineNumber;
+	private boolean afterReturn;		// The last line end was a CR, so an LF right after it doesn't count.
+
+	// ========================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 * @param delimiters the delimiters.  If null, the default will be used.
+	 * @throws Throwable if the delimiters are empty.
+	 */
+	public Tokenizer(String delimiters) throws Throwable {
+		this(delimiters, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Constructor.
+	 * @param delimiters the delimiters.  If null, the default will be used.
+	 * @param bufferSize the starting buffer size.
+	 * @throws Throwable if the delimiters are empty or the size isn't positive.
+	 */
+	public Tokenizer(String delimiters, int bufferSize) throws Throwable {
+		if (delimiters==null) delimiters = DEFAULT_DELIMITERS;
+		if (delimiters.length()<1) ThingsException.softwareProblem("You cannot make a tokenizer with an empty (but not null) delimiters String.");
+		if (bufferSize<1) ThingsException.softwareProblem("Tokenizer buffer size must be positive.", ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(bufferSize));
+		
+		int highest = Math.max(LF, CR);
+		for (int index = 0; index < delimiters.length(); index++) highest = Math.max(highest, delimiters.charAt(index));
+		breaks = new long[(highest >>> 6) + 1];
+		breakLimit = breaks.length << 6;
+		set(LF);
+		set(CR);
+		for (int index = 0; index < delimiters.length(); index++) set(delimiters.charAt(index));
+		buffer = new char[bufferSize];
+	}
+	
+	/**
+	 * Start on a reader.  Anything already started is dropped, but not closed.
+	 * @param reader the reader.
+	 * @throws Throwable if it is null.
+	 */
+	public void start(Reader reader) throws Throwable {
+		if (reader==null) ThingsException.softwareProblem("You cannot start a tokenizer with a null reader.");
+		this.reader = reader;
+		position = 0;
+		lineStart = 0;
+		limit = 0;
+		eof = false;
+		lineNumber = 1;
+		afterReturn = false;
+	}
+	
+	/**
+	 * Done.  The reader is closed and errors are eaten.
+	 */
+	public void done() {
+		try {
+			if (reader != null) reader.close();
+		} catch (Throwable t) {
+			// Don't care
+		}
+		reader = null;
+		position = 0;
+		lineStart = 0;
+		limit = 0;
+		eof = true;
+	}
+	
+	/**
+	 * Get the next token, going past line ends if it has to.
+	 * @return the token view or null if there are no more.
+	 * @throws IOException from the reader.
+	 */
+	public Token next() throws IOException {
+		if (!skip(true)) return null;
+		return take();
+	}
+	
+	/**
+	 * Get the next token on the current line.  It won't go past a line end.
+	 * @return the token view or null if there are no more on this line.
+	 * @throws IOException from the reader.
+	 */
+	public Token nextOnLine() throws IOException {
+		if (!skip(false)) return null;
+		return take();
+	}
+	
+	/**
+	 * Is there another token?  It goes past line ends to find it, so getLineNumber() will be the line it is on.
+	 * @return true if there is.
+	 * @throws IOException from the reader.
+	 */
+	public boolean hasNext() throws IOException {
+		return skip(true);
+	}
+
+	/**
+	 * Is there another token on the current line?
+	 * @return true if there is.
+	 * @throws IOException from the reader.
+	 */
+	public boolean hasNextOnLine() throws IOException {
+		return skip(false);
+	}
+	
+	/**
+	 * Get the rest of the current line, without delimiters at the front or the line end.
+	 * @param consume if true, it goes past the line end.  If false, it is only a look.
+	 * @return the text, which is empty if there is nothing left on the line, or null if there is nothing left at all.
+	 * @throws IOException from the reader.
+	 */
+	public String restOfLine(boolean consume) throws IOException {
+		boolean any = skip(false);
+		if ((!any)&&(position == limit)) return null;
+		
+		mark = position;
+		while (true) {
+			while ((position < limit)&&(buffer[position] != LF)&&(buffer[position] != CR)) position++;
+			if ((position < limit)||(!fill(mark))) break;
+		}
+		int start = mark;
+		String result = new String(buffer, start, position - start);
+		
+		if (consume) {
+			endLine();
+		} else {
+			position = start;
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the whole current line, from its first character to the line end, no matter how many tokens have been taken from it.
+	 * @param consume if true, it goes past the line end.  If false, it is only a look.
+	 * @return the line without the line end, or null if there is nothing left at all.
+	 * @throws IOException from the reader.
+	 */
+	public String line(boolean consume) throws IOException {
+		mark = position;
+		while (true) {
+			while ((position < limit)&&(buffer[position] != LF)&&(buffer[position] != CR)) position++;
+			if ((position < limit)||(!fill(lineStart))) break;
+		}
+		if ((position == lineStart)&&(position == limit)) {
+			position = mark;
+			return null;
+		}
+		String result = new String(buffer, lineStart, position - lineStart);
+		
+		if (consume) {
+			endLine();
+		} else {
+			position = mark;
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the current line number, counting from 1.  After a token is taken, it is the line the token was on.
+	 * @return the line number.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+	
+	/**
+	 * Is it a delimiter or line end?
+	 * @param character the character.
+	 * @return true if it breaks tokens.
+	 */
+	public boolean isBreak(char character) {
+		return (character < breakLimit)&&((breaks[character >>> 6] & (1L << character)) != 0);
+	}
+
+	// ========================================================================================
+	// INTERNAL
+	
+	private void set(char character) {
+		breaks[character >>> 6] |= 1L << character;
+	}
+	
+	/**
+	 * Count a line end.
+	 */
+	private void newline(char character) {
+		if (character == CR) {
+			lineNumber++;
+			afterReturn = true;
+		} else {
+			if (!afterReturn) lineNumber++;
+			afterReturn = false;
+		}
+	}
+	
+	/**
+	 * Go past the line end at the position, if there is one, and start the next line.
+	 */
+	private void endLine() throws IOException {
+		if (position < limit) {
+			newline(buffer[position++]);
+			if ((afterReturn)&&((position < limit)||fill(position))&&(buffer[position] == LF)) newline(buffer[position++]);
+		}
+		lineStart = position;
+	}
+	
+	/**
+	 * Skip delimiters.  
+	 * @param crossLines if true, skip line ends too.
+	 * @return true if it is at a token, false if it is at the end of the line (when not crossing) or the data.
+	 */
+	private boolean skip(boolean crossLines) throws IOException {
+		while (true) {
+			if ((position == limit)&&(!fill(position))) return false;
+			char character = buffer[position];
+			if (!isBreak(character)) return true;
+			if ((character == LF)||(character == CR)) {
+				if (!crossLines) return false;
+				newline(character);
+				lineStart = position + 1;
+			} else {
+				afterReturn = false;
+			}
+			position++;
+		}
+	}
+	
+	/**
+	 * Take the token at the position.
+	 */
+	private Token take() throws IOException {
+		mark = position++;
+		afterReturn = false;
+		while (true) {
+			while ((position < limit)&&(!isBreak(buffer[position]))) position++;
+			if ((position < limit)||(!fill(mark))) break;
+		}
+		token.start = mark;
+		token.end = position;
+		token.line = lineNumber;
+		return token;
+	}
+	
+	/**
+	 * Read more.  Everything before keep, or the start of the current line if that is earlier, is thrown away and the rest is moved 
+	 * to the front, along with the position, mark, and line start.  The buffer grows if it is all kept.
+	 * @param keep where to keep from.
+	 * @return false if there is no more.
+	 */
+	private boolean fill(int keep) throws IOException {
+		if (eof) return false;
+		if (lineStart < keep) keep = lineStart;
+		int kept = limit - keep;
+		if (kept == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		} else if (keep > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, kept);
+		}
+		position -= keep;
+		mark -= keep;
+		lineStart -= keep;
+		limit = kept;
+		
+		int count = reader.read(buffer, limit, buffer.length - limit);
+		while (count == 0) count = reader.read(buffer, limit, buffer.length - limit);
+		if (count < 0) {
+			eof = true;
+			return false;
+		}
+		limit += count;
+		return true;
+	}
+	
+	// ========================================================================================
+	// TOKEN
+	
+	/**
+	 * A token.  It is a view on the tokenizer's buffer and it is only good until the tokenizer is called again.  Use toString() to 
+	 * keep it.
+	 */
+	public class Token implements CharSequence {
+		int start;
+		int end;
+		int line;
+		
+		public int length() {
+			return end - start;
+		}
+		
+		public char charAt(int index) {
+			if ((index < 0)||(index >= end - start)) throw new IndexOutOfBoundsException("index=" + index + " length=" + (end - start));
+			return buffer[start + index];
+		}
+		
+		public CharSequence subSequence(int from, int to) {
+			if ((from < 0)||(to > end - start)||(from > to)) throw new IndexOutOfBoundsException("from=" + from + " to=" + to + " length=" + (end - start));
+			return new String(buffer, start + from, to - from);
+		}
+		
+		/**
+		 * Does it have the same characters?
+		 * @param text the text.
+		 * @return true if it does.
+		 */
+		public boolean matches(CharSequence text) {
+			int length = end - start;
+			if (text.length() != length) return false;
+			for (int index = 0; index < length; index++) {
+				if (buffer[start + index] != text.charAt(index)) return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Copy the characters out.
+		 * @param destination where to put them.
+		 * @param offset where in the destination.
+		 */
+		public void getChars(char[] destination, int offset) {
+			System.arraycopy(buffer, start, destination, offset, end - start);
+		}
+		
+		/**
+		 * The line it was on.
+		 * @return the line number, counting from 1.
+		 */
+		public int getLine() {
+			return line;
+		}
+		
+		public String toString() {
+			return new String(buffer, start, end - start);
+		}
+	}
+	
+}
@@ -0,0 +1,347 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.universe.Universe;
+
+/**
+ * Body processor for multipart/form-data (RFC 2388 over RFC 2046).  It streams.  The body is read through a single fixed window and the
+ * parts are handed to HttpBodyPart as they are found, so a large part goes straight to the spill universe without ever being
+ * on the heap.
+ * <p>
+ * Each part is added to the request's bodyParts.  Parts that are simple form fields (no filename) and were not spilled are also set
+ * into the request's bodyValues, so they look like they came from a form-urlencoded body.
+ * <p>
+ * The source must be bounded to the body (such as a LimitedInputStream or ChunkedInputStream), since any epilogue is read and discarded.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 5 MAY 10
+ * </pre>
+ */
+public class BodyProcessor_Multipart {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * The window size.  A single part header line may not be longer than this.
+	 */
+	public final static int BUFFER_SIZE = 16384;
+
+	/**
+	 * The most headers a single part may have.
+	 */
+	public final static int MAX_PART_HEADERS = 64;
+
+	public final static String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+	public final static String PARAMETER_BOUNDARY = "boundary";
+	public final static String PARAMETER_NAME = "name";
+	public final static String PARAMETER_FILENAME = "filename";
+	public final static String PARAMETER_CHARSET = "charset";
+
+	// ================================================================================================================
+	// INTERNAL DATA
+
+	private Universe spillUniverse;
+	private String spillBase;
+	private long spillThreshold;
+
+	private InputStream ins;
+	private byte[] buffer;
+	private int start;
+	private int end;
+	private byte[] delimiter;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @param spillUniverse the universe to spill large parts into.  If null, no part may be larger than the threshold.
+	 * @param spillBase the base name for spill objects.
+	 * @param spillThreshold the largest part that will be kept in memory.
+	 */
+	public BodyProcessor_Multipart(Universe spillUniverse, String spillBase, long spillThreshold) {
+		this.spillUniverse = spillUniverse;
+		this.spillBase = spillBase;
+		this.spillThreshold = spillThreshold;
+		buffer = new byte[BUFFER_SIZE];
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Parse a multipart body.  The boundary is taken from the request's content type.
+	 * <p>
+	 * Only one thread per object at a time, so we synchronize it.
+	 * @param source the body source.  It must end at the end of the body.
+	 * @param request the request to fill.
+	 * @throws ThingsException for a bad body or a problem spilling.  Any parts that were completed are already in the request.
+	 * @throws IOException if the source has a problem.  It is likely dead at this point.
+	 */
+	public synchronized void parser(InputStream source, HttpRequest request) throws ThingsException, IOException {
+		if ((source==null)||(request==null)) ThingsException.softwareProblem("Null source or request passed to BodyProcessor_Multipart.");
+
+		String boundary = getParameter(request.contentType, PARAMETER_BOUNDARY);
+		if ((boundary==null)||(boundary.length() < 1)||(boundary.length() > 200))
+			throw new ThingsException("Multipart body without a usable boundary.", ThingsException.PROCESSOR_HTTPBODY_FAILED, ThingsNamespace.ATTR_DATA_ARGUMENT, request.contentType);
+
+		// The body is treated as if it starts with a CRLF, so the first boundary looks like the rest.
+		delimiter = ("\r\n--" + boundary).getBytes("ISO-8859-1");
+		ins = source;
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		start = 0;
+		end = 2;
+
+		HttpBodyPart part = null;
+		try {
+
+			// Preamble.
+			int at = find();
+			while (at < 0) {
+				discardTo(end - (delimiter.length - 1));
+				if (!fill()) throw new ThingsException("Multipart body without an opening boundary.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+				at = find();
+			}
+			start = at + delimiter.length;
+
+			// Parts
+			while (true) {
+				if (!ensure(2)) throw new ThingsException("Multipart body truncated after a boundary.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+				if ((buffer[start]=='-')&&(buffer[start+1]=='-')) break;
+				boundaryLineEnd();
+
+				part = new HttpBodyPart(spillUniverse, spillBase, spillThreshold);
+				partHeaders(part);
+
+				at = find();
+				while (at < 0) {
+					int safe = end - (delimiter.length - 1);
+					if (safe > start) {
+						part.append(buffer, start, safe - start);
+						start = safe;
+					}
+					if (!fill()) throw new ThingsException("Multipart body truncated.  Closing boundary missing.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+					at = find();
+				}
+				part.append(buffer, start, at - start);
+				start = at + delimiter.length;
+				part.finish();
+
+				request.bodyParts.add(part);
+				if ((part.filename==null)&&(part.name!=null)&&(!part.isSpilled())) {
+					request.bodyValues.setProperty(part.name, part.getValue(getParameter(part.contentType, PARAMETER_CHARSET)));
+				}
+				part = null;
+			}
+
+			// Epilogue.
+			while (ins.read(buffer) >= 0);
+
+		} catch (ThingsException te) {
+			if (part!=null) part.release();
+			throw te;
+		} catch (IOException ioe) {
+			if (part!=null) part.release();
+			throw ioe;
+		} finally {
+			ins = null;
+		}
+	}
+
+	/**
+	 * Get a parameter from a header value, such as the boundary from a Content-Type or the name from a Content-Disposition.  The
+	 * parameter name is not case sensitive.  Quotes are removed.
+	 * @param headerValue the header value.  It may be null.
+	 * @param parameterName the parameter name.
+	 * @return the value or null if it isn't there.
+	 */
+	public static String getParameter(String headerValue, String parameterName) {
+		if (headerValue==null) return null;
+		int length = headerValue.length();
+		int rover = headerValue.indexOf(';');
+		while ((rover >= 0)&&(rover < length)) {
+
+			// Name
+			rover++;
+			while ((rover < length)&&(headerValue.charAt(rover) <= ' ')) rover++;
+			int nameStart = rover;
+			while ((rover < length)&&(headerValue.charAt(rover)!='=')&&(headerValue.charAt(rover)!=';')) rover++;
+			String name = headerValue.substring(nameStart, rover).trim();
+			if ((rover >= length)||(headerValue.charAt(rover)==';')) continue;
+
+			// Value
+			rover++;
+			while ((rover < length)&&(headerValue.charAt(rover) <= ' ')) rover++;
+			StringBuffer value = new StringBuffer();
+			if ((rover < length)&&(headerValue.charAt(rover)=='"')) {
+				rover++;
+				while ((rover < length)&&(headerValue.charAt(rover)!='"')) {
+					if ((headerValue.charAt(rover)=='\\')&&(rover+1 < length)) rover++;
+					value.append(headerValue.charAt(rover));
+					rover++;
+				}
+				rover = headerValue.indexOf(';', rover);
+			} else {
+				while ((rover < length)&&(headerValue.charAt(rover)!=';')) {
+					value.append(headerValue.charAt(rover));
+					rover++;
+				}
+			}
+			if (name.equalsIgnoreCase(parameterName)) return value.toString().trim();
+		}
+		return null;
+	}
+
+	// ================================================================================================================
+	// INTERNAL
+
+	/**
+	 * Find the delimiter in the window.
+	 * @return the offset of the delimiter or -1 if it isn't completely in the window.
+	 */
+	private int find() {
+		int last = end - delimiter.length;
+		byte first = delimiter[0];
+		for (int rover = start; rover <= last; rover++) {
+			if (buffer[rover]!=first) continue;
+			int index = 1;
+			while ((index < delimiter.length)&&(buffer[rover + index]==delimiter[index])) index++;
+			if (index==delimiter.length) return rover;
+		}
+		return -1;
+	}
+
+	/**
+	 * Fill the window from the source.
+	 * @return false if the source is at EOF.
+	 */
+	private boolean fill() throws IOException, ThingsException {
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end = end - start;
+			start = 0;
+		}
+		if (end >= buffer.length) throw new ThingsException("Multipart part header line too long.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+		int read = ins.read(buffer, end, buffer.length - end);
+		while (read==0) read = ins.read(buffer, end, buffer.length - end);
+		if (read < 0) return false;
+		end += read;
+		return true;
+	}
+
+	/**
+	 * Make sure there are so many bytes in the window.
+	 * @return false if the source ended first.
+	 */
+	private boolean ensure(int size) throws IOException, ThingsException {
+		while ((end - start) < size) {
+			if (!fill()) return false;
+		}
+		return true;
+	}
+
+	private void discardTo(int position) {
+		if (position > start) start = position;
+	}
+
+	/**
+	 * Find the end of the current line.
+	 * @return the offset of the LF.
+	 */
+	private int lineEnd() throws IOException, ThingsException {
+		int rover = start;
+		while (true) {
+			for (; rover < end; rover++) {
+				if (buffer[rover]=='\n') return rover;
+			}
+			rover -= start;
+			if (!fill()) throw new ThingsException("Multipart body truncated in part headers.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+			rover += start;
+		}
+	}
+
+	/**
+	 * Finish a boundary line.  Transport padding is allowed.
+	 */
+	private void boundaryLineEnd() throws IOException, ThingsException {
+		int lf = lineEnd();
+		for (int rover = start; rover < lf; rover++) {
+			if ((buffer[rover]!=' ')&&(buffer[rover]!='\t')&&(buffer[rover]!='\r'))
+				throw new ThingsException("Multipart boundary followed by junk.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+		}
+		start = lf + 1;
+	}
+
+	/**
+	 * Read the part headers up to and including the empty line.  Folded lines are joined with a single space.
+	 */
+	private void partHeaders(HttpBodyPart part) throws IOException, ThingsException {
+		String name = null;
+		StringBuffer value = new StringBuffer();
+		int count = 0;
+
+		while (true) {
+			int lf = lineEnd();
+			int lineEnd = lf;
+			if ((lineEnd > start)&&(buffer[lineEnd-1]=='\r')) lineEnd--;
+
+			if (lineEnd==start) {
+				start = lf + 1;
+				break;
+			}
+
+			if ((buffer[start]==' ')||(buffer[start]=='\t')) {
+				if (name==null) throw new ThingsException("Multipart part headers start with a fold.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+				value.append(' ').append(new String(buffer, start, lineEnd - start, "ISO-8859-1").trim());
+
+			} else {
+				if (name!=null) setHeader(part, name, value.toString().trim());
+				if (++count > MAX_PART_HEADERS) throw new ThingsException("Multipart part has too many headers.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+
+				int colon = start;
+				while ((colon < lineEnd)&&(buffer[colon]!=':')) colon++;
+				if ((colon==lineEnd)||(colon==start)) throw new ThingsException("Multipart part header is missing a name.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+				name = new String(buffer, start, colon - start, "ISO-8859-1").trim();
+				value.setLength(0);
+				value.append(new String(buffer, colon + 1, lineEnd - colon - 1, "ISO-8859-1"));
+			}
+			start = lf + 1;
+		}
+		if (name!=null) setHeader(part, name, value.toString().trim());
+	}
+
+	private void setHeader(HttpBodyPart part, String name, String value) throws ThingsException {
+		part.headerItems.setProperty(name, value);
+		if (name.equalsIgnoreCase(HEADER_CONTENT_DISPOSITION)) {
+			part.name = getParameter(value, PARAMETER_NAME);
+			part.filename = getParameter(value, PARAMETER_FILENAME);
+		} else if (name.equalsIgnoreCase(HttpHeaderProcessor.HEADER_CONTENT_TYPE_STRING)) {
+			part.contentType = value;
+		}
+	}
+
+}
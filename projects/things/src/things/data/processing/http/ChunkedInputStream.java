@@ -4,9 +4,9 @@
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -17,13 +17,21 @@ package things.data.processing.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import things.common.ThingsException;
+import things.data.ThingsPropertyView;
+import things.data.impl.ThingsPropertyTreeBASIC;
 import things.data.processing.LexicalTool;
 
 /**
  * A response processor.
  * <p>
+ * It reads ahead into a buffer, but it will never read a byte past the end of the chunked body.  It only asks the source for as
+ * many bytes as the body is known to still have: the rest of the current chunk, its CRLF and the shortest possible next chunk-size line.
+ * That keeps it safe for pipelined connections and echo streams.  Chunk-size lines are parsed out of the buffer, chunk extensions are
+ * ignored and trailers are kept (see getTrailers()).
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
@@ -31,104 +39,150 @@ import things.data.processing.LexicalTool;
  * <pre>
  * EPG - Initial - 11 AUG 03
  * EPG - Moved to http and changed to match http chunking- 12 FEB 07
- * </pre> 
+ * EPG - Bulk reads from a reusable buffer, trailers and transferTo - 7 MAY 10
+ * </pre>
  */
 public class ChunkedInputStream extends InputStream {
-	
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * Default buffer size.
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * Longest trailer line allowed.
+	 */
+	public final static int MAX_TRAILER_LINE = 8192;
+
 	// ================================================================================================================
-	// INTERNAL DATA 
+	// INTERNAL DATA
     private InputStream ins;
-    private int sizeCurrentChunk;
-    private int roverCurrentChunk;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    // Bytes past the buffered ones that are known to still be part of the body.  It is never safe to read more than this.
+    private long safe;
+
+    // Data left in the current chunk, including any that is already buffered.
+    private long chunkRemaining;
+    private boolean chunkEndPending;
+    private boolean eof;
+    private ThingsPropertyView trailers;
+
+    // Shortest possible chunk-size line ("0" CR LF) and line end.
+    private final static int MIN_SIZE_LINE = 3;
+    private final static int MIN_LINE_END = 2;
 
-    // Size flags.  The sizeCurrentChunk is used for the flags.
-    private final static int NEXT_CHUNK = 0;
-    private final static int EOF = -1;    
-   
     /**
      * Constructor.
      * @param source stream.  It will NOT be closed (even with the close method).  You need to close it when you are done.
-     * @throws Throwable if the stream is null. 
+     * @throws Throwable if the stream is null.
      */
     public ChunkedInputStream(InputStream source) throws Throwable {
+    	this(source, null);
+    }
+
+    /**
+     * Constructor with a buffer to reuse.  The buffer belongs to the stream until it is done, so don't share it with another stream
+     * that is still in use.
+     * @param source stream.  It will NOT be closed (even with the close method).  You need to close it when you are done.
+     * @param buffer the buffer to use.  If null, one will be made.  It must have room for at least 16 bytes.
+     * @throws Throwable if the stream is null or the buffer is too small.
+     */
+    public ChunkedInputStream(InputStream source, byte[] buffer) throws Throwable {
     	if (source == null) ThingsException.softwareProblem("ChunkedInputStream created with a null stream.");
+    	if (buffer == null) buffer = new byte[DEFAULT_BUFFER_SIZE];
+    	if (buffer.length < 16) ThingsException.softwareProblem("ChunkedInputStream created with a tiny buffer.  size=" + buffer.length);
         ins = source;
-        roverCurrentChunk = 0;
-        sizeCurrentChunk = NEXT_CHUNK;
+        this.buffer = buffer;
+        position = 0;
+        limit = 0;
+        safe = MIN_SIZE_LINE;
+        chunkRemaining = 0;
+        chunkEndPending = false;
+        eof = false;
     }
-    
+
 	// ================================================================================================================
-	// INPUT STREAM 
-    
+	// INPUT STREAM
+
     /**
-     * Reads the next byte of data from the input stream. The value byte is returned as an int in the range 0 to 255. 
-     * If no byte is available because the end of the stream has been reached, the value -1 is returned. This method blocks 
-     * until input data is available, the end of the stream is detected, or an exception is thrown. 
-     * @return the next byte of data, or -1 if the end of the stream is reached. 
+     * Reads the next byte of data from the input stream. The value byte is returned as an int in the range 0 to 255.
+     * If no byte is available because the end of the stream has been reached, the value -1 is returned. This method blocks
+     * until input data is available, the end of the stream is detected, or an exception is thrown.
+     * @return the next byte of data, or -1 if the end of the stream is reached.
      * @throws IOException if an I/O error occurs.
      */
     public int read() throws IOException {
-
-    	// Done or chunk?
-    	if (sizeCurrentChunk==EOF) return -1;
-    	if (roverCurrentChunk>=sizeCurrentChunk) {
-    		// Attempt next chunk.
-    		nextChunk();
-    		if (sizeCurrentChunk==EOF) return -1;
-    	} 
-    	
-		// Read from current chunk
-		roverCurrentChunk++;
-		return ins.read();
+    	if (!ready()) return -1;
+    	if (position >= limit) fill(1);
+    	chunkRemaining--;
+    	return buffer[position++] & 0xff;
     }
 
     /**
-     * Reads up to len bytes of data from the input stream into an array of bytes. An attempt is made to read as many as len bytes, but a smaller number may be read. The number of bytes actually read is returned as an integer. 
+     * Reads up to len bytes of data from the input stream into an array of bytes. An attempt is made to read as many as len bytes, but a smaller number may be read. The number of bytes actually read is returned as an integer.
      * @param b the buffer into which the data is read.
      * @param off the start offset in array b  at which the data is written.
-     * @param len the maximum number of bytes to read. 
-     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached. 
-     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs. 
+     * @param len the maximum number of bytes to read.
+     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached.
+     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs.
      */
     public int read (byte[] b, int off, int len) throws IOException {
+    	if (len < 1) return 0;
+    	if (!ready()) return -1;
 
-    	// Done or chunk?
-    	if (sizeCurrentChunk==EOF) return -1;
-    	if (roverCurrentChunk>=sizeCurrentChunk) {
-    		// Attempt next chunk.
-    		nextChunk();
-    		if (sizeCurrentChunk==EOF) return -1;
-    	} 
-    	
-    	// Get what's left in the chunk or the len, whichever is smaller, so we don't crack into the next chunk.
-    	int left = sizeCurrentChunk - roverCurrentChunk;
-    	if (left < len) len = left;
-        int actuallyRead = ins.read(b, off, len);
-        roverCurrentChunk += actuallyRead;
-        return actuallyRead;
-    }
+    	// Don't crack into the next chunk.
+    	int want = (int)Math.min(len, chunkRemaining);
+    	int got;
+    	if (position < limit) {
+    		got = Math.min(want, limit - position);
+    		System.arraycopy(buffer, position, b, off, got);
+    		position += got;
+
+    	} else if (want >= buffer.length) {
+    		// Big read.  Go straight to the caller's array.
+    		got = ins.read(b, off, want);
+    		if (got < 0) throw new IOException("Chunked stream ended inside a chunk.");
+    		consumed(got);
+
+    	} else {
+    		fill(1);
+    		got = Math.min(want, limit - position);
+    		System.arraycopy(buffer, position, b, off, got);
+    		position += got;
+    	}
 
+    	chunkRemaining -= got;
+    	return got;
+    }
 
     /**
      * Reads some number of bytes from the input stream and stores them into the buffer array b. The number of bytes actually read is returned as an integer.
-     * This method blocks until input data is available, end of file is detected, or an exception is thrown. 
+     * This method blocks until input data is available, end of file is detected, or an exception is thrown.
      * @param b the buffer into which the data is read.
-     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached. 
-     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs. 
+     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached.
+     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs.
      */
     public int read (byte[] b) throws IOException {
         return read(b, 0, b.length);
     }
-    
+
     /**
-     * Returns an estimate of the number of bytes that can be read (or skipped over) from this input stream without blocking by the next invocation of a method for this input stream. The next invocation might be the same thread or another thread. A single read or skip of this many bytes will not block, but may read or skip fewer bytes. 
+     * Returns an estimate of the number of bytes that can be read (or skipped over) from this input stream without blocking by the next invocation of a method for this input stream. The next invocation might be the same thread or another thread. A single read or skip of this many bytes will not block, but may read or skip fewer bytes.
  	 * @return number of bytes available.
  	 * @throws IO exception
      */
     public int 	available()  throws IOException {
-    	return ins.available();
+    	if ((ins==null)||(eof)||(chunkRemaining < 1)) return 0;
+    	if (position < limit) return (int)Math.min(limit - position, chunkRemaining);
+    	return (int)Math.min(ins.available(), chunkRemaining);
     }
-    
+
     /**
      * Close the stream.  It will NOT deplete the stream.  However, all subsequent calls to reads will yield EOF and any internal
      * references to the stream will be cleared.
@@ -136,123 +190,184 @@ public class ChunkedInputStream extends InputStream {
      * All subsequent calls to the reads will result in EOF.
      */
     public void close() throws IOException {
-    	sizeCurrentChunk = EOF;
+    	eof = true;
     	ins = null;
     }
 
-    
 	// ================================================================================================================
-	// INTERNAL 
-    
+	// METHODS
+
     /**
-     * Chunk process state.
-     * I anticipate having to deal other stuff.
+     * Transfer the rest of the body to an output stream.  Data is moved straight from the buffer, so this is the cheapest way
+     * to copy or drain the body.
+     * @param out the output stream.  If null, the body is just drained.
+     * @return the number of bytes transferred.
+     * @throws IOException if either stream has a problem or the chunking is bad.
      */
-    private enum ChunkState {
-    	READ,
-    	WS,
-    	CR,
-    	DONE
+    public long transferTo(OutputStream out) throws IOException {
+    	long total = 0;
+    	while (ready()) {
+    		if (position >= limit) fill(1);
+    		int size = (int)Math.min(limit - position, chunkRemaining);
+    		if (out != null) out.write(buffer, position, size);
+    		position += size;
+    		chunkRemaining -= size;
+    		total += size;
+    	}
+    	return total;
     }
 
     /**
-     * Find the next chunk or end it all (sizeCurrentChunk = EOF).
+     * Get the trailers that followed the last chunk.  They are only available once the stream has reached EOF.
+     * @return the trailers or null if there were none.
+     */
+    public ThingsPropertyView getTrailers() {
+    	return trailers;
+    }
+
+	// ================================================================================================================
+	// INTERNAL
+
+    /**
+     * Get ready to read chunk data.
+     * @return true if there is chunk data to read, false if at EOF.
+     * @throws IOException
+     */
+    private boolean ready() throws IOException {
+    	if ((eof)||(ins==null)) return false;
+    	if (chunkRemaining > 0) return true;
+    	if (chunkEndPending) {
+    		if (next()!='\r') throw new IOException("Chunk data not followed by a CR.");
+    		if (next()!='\n') throw new IOException("Strange character after CR.  Expected an LF.");
+    		chunkEndPending = false;
+    	}
+    	nextChunk();
+    	return !eof;
+    }
+
+    /**
+     * Find the next chunk or end it all.
      * This is pretty tight logic, so be careful.
      * @throws IOException
      */
     private void nextChunk() throws IOException {
-    	int value = 0;
-    	int readValue = 0;
-    	ChunkState state = ChunkState.READ;
-
-    	// First character
-    	int currentChar = ins.read();
-		switch(currentChar) {
-		case '\r':
-			// Maybe just depleting previous line.
-			currentChar = ins.read();
-			if (currentChar=='\n') currentChar = ins.read();
-			else throw new IOException("Chunk specification missing LF following CR.");
-			if (LexicalTool.getHexValue(currentChar)==LexicalTool.NOT_ALLOWED) throw new IOException("Strange character encountered starting the chunk specification after CRLF.  char=" + currentChar);
-			break;
-		case '\n':
-			throw new IOException("Chunk specification had LF before a CR.");
-		case ' ':
-		case '\t':
-			throw new IOException("Chunk specification started with whitespace.");
-		default:
-			readValue = LexicalTool.getHexValue(currentChar);
-			if (readValue==LexicalTool.NOT_ALLOWED) {
-				throw new IOException("Strange character encountered in chunk specification.  char=" + currentChar);
-			}
-			value = readValue;
-			currentChar = ins.read();
-			break;
-		}
-    	
-    	while(state == ChunkState.READ) {
+    	long value = 0;
+    	int digits = 0;
+    	int readValue;
+
+    	// Size
+    	int currentChar = next();
+    	readValue = LexicalTool.getHexValue(currentChar);
+    	while (readValue != LexicalTool.NOT_ALLOWED) {
+    		if (++digits > 15) throw new IOException("Chunk size is too large.");
+    		value = (value << 4) + readValue;
+    		currentChar = next();
+    		readValue = LexicalTool.getHexValue(currentChar);
+    	}
+    	if (digits==0) {
+    		if (currentChar=='\n') throw new IOException("Chunk specification had LF before a CR.");
+    		if ((currentChar==' ')||(currentChar=='\t')) throw new IOException("Chunk specification started with whitespace.");
+    		throw new IOException("Strange character encountered in chunk specification.  char=" + currentChar);
+    	}
+
+    	// Whitespace and extensions, which are ignored.
+    	while (currentChar != '\r') {
     		switch(currentChar) {
-    		case '\r':
-    			state = ChunkState.CR;
-    			currentChar = ins.read();
-    			break;
-    		case '\n':
-    			throw new IOException("Chunk specification had LF before a CR.");
     		case ' ':
     		case '\t':
-    			state = ChunkState.WS;
-    			currentChar = ins.read();
+    			currentChar = next();
     			break;
-    		default:
-    			readValue = LexicalTool.getHexValue(currentChar);
-    			if (readValue==LexicalTool.NOT_ALLOWED) {
-    				throw new IOException("Strange character encountered in chunk specification.  char=" + currentChar);
-    			}
-    			value = (value << 4) + readValue;
-    			currentChar = ins.read();
-    			break;
-    		}
-    		if (currentChar < 0) throw new IOException("Chunk specification not completed or terminated before end of stream.");
-    	}
-    	
-    	while(state == ChunkState.WS) {
-    		switch(currentChar) {
-    		case '\r':
-    			state = ChunkState.CR;
-    			currentChar = ins.read();
+    		case ';':
+    			while ((currentChar != '\r')&&(currentChar != '\n')) currentChar = next();
     			break;
     		case '\n':
     			throw new IOException("Chunk specification had LF before a CR.");
-    		case ' ':
-    		case '\t':
-    			currentChar = ins.read();
-    			break;
     		default:
     			throw new IOException("Strange character encountered in chunk specification between value and line termination.  char=" + currentChar);
     		}
-    		if (currentChar < 0) throw new IOException("Chunk specification not terminated before end of stream.");
     	}
-    	
-    	// Final LF
-    	if (currentChar=='\n') {
-    		if (value==0) {
-    			value = EOF;
-    			
-        		// It appears there is a final CRLF sequence behind the EOF.  I'll deplete them here.  This might be a bad idea--time will tell.
-        		// There is a chance that net lag could screw this up.
-        		ins.read();
-        		if (ins.read()!='\n') throw new IOException("Did not find second CRLF.  This may be a bug with ChunkedInputStream.");
-    		}
-    		
-    		sizeCurrentChunk = value;
-    		roverCurrentChunk = 0;		
+    	if (next()!='\n') throw new IOException("Strange character after CR.  Expected an LF.");
+
+    	if (value==0) {
+    		expect(MIN_LINE_END);
+    		readTrailers();
+    		eof = true;
     	} else {
-			// Not a LF
-			throw new IOException("Strange character after CR.  Expected an LF.  char=" + currentChar);
+    		chunkRemaining = value;
+    		chunkEndPending = true;
+    		expect(value + MIN_LINE_END + MIN_SIZE_LINE);
     	}
-  
     }
-    
-    
-   
+
+    /**
+     * Read trailer lines up to and including the empty line.
+     * @throws IOException
+     */
+    private void readTrailers() throws IOException {
+    	StringBuffer line = new StringBuffer();
+    	while (true) {
+    		line.setLength(0);
+    		int currentChar = next();
+    		while (currentChar != '\r') {
+    			if (currentChar == '\n') throw new IOException("Chunk trailer had LF before a CR.");
+    			if (line.length() >= MAX_TRAILER_LINE) throw new IOException("Chunk trailer line too long.");
+    			line.append((char)currentChar);
+    			currentChar = next();
+    		}
+    		if (next()!='\n') throw new IOException("Strange character after CR in trailer.  Expected an LF.");
+    		if (line.length()==0) return;
+
+    		int colon = line.indexOf(":");
+    		if (colon < 1) throw new IOException("Chunk trailer is missing a name.");
+    		try {
+    			if (trailers==null) trailers = new ThingsPropertyTreeBASIC();
+    			trailers.setProperty(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+    		} catch (ThingsException te) {
+    			throw new IOException("Bad chunk trailer.  message=" + te.getMessage());
+    		}
+    	}
+    }
+
+    /**
+     * Get the next byte of a chunk-size line or trailer.  There is always at least one more of those before the end of the body.
+     */
+    private int next() throws IOException {
+    	if (position >= limit) fill(1);
+    	return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Note that the body has at least so many more bytes from the current position.
+     */
+    private void expect(long need) {
+    	long beyond = need - (limit - position);
+    	if (beyond > safe) safe = beyond;
+    }
+
+    /**
+     * Note bytes consumed from the source.
+     */
+    private void consumed(int count) {
+    	safe -= count;
+    	if (safe < 0) safe = 0;
+    }
+
+    /**
+     * Fill the buffer, reading no more than is safe.
+     * @param atLeast the caller knows at least this many more bytes are in the body.
+     */
+    private void fill(int atLeast) throws IOException {
+    	if (position > 0) {
+    		System.arraycopy(buffer, position, buffer, 0, limit - position);
+    		limit -= position;
+    		position = 0;
+    	}
+    	int want = (int)Math.min(buffer.length - limit, Math.max(safe, atLeast));
+    	int got = ins.read(buffer, limit, want);
+    	while (got == 0) got = ins.read(buffer, limit, want);
+    	if (got < 0) throw new IOException("Chunk specification not completed or terminated before end of stream.");
+    	limit += got;
+    	consumed(got);
+    }
+
 }
@@ -0,0 +1,233 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.data.ThingsPropertyView;
+import things.data.impl.ThingsPropertyTreeBASIC;
+import things.universe.Universe;
+
+/**
+ * A part of a request body, such as one part of a multipart/form-data body.  Small parts are kept in memory.  Once a part
+ * grows past the spill threshold, everything is moved to a unique object in the spill universe and the rest of the part is streamed
+ * there.  It will never be on the heap as a whole.
+ * <p>
+ * Spilled parts are temporary.  Call release() (or HttpRequest.releaseBodyParts()) when done with them or the objects will be left in
+ * the universe.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 5 MAY 10
+ * </pre>
+ */
+public class HttpBodyPart {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * The form name for the part.  It may be null if the part was not named.
+	 */
+	public String name;
+
+	/**
+	 * The file name for the part.  It will be null if this isn't a file.
+	 */
+	public String filename;
+
+	/**
+	 * The content type.  It will be null if none was given.
+	 */
+	public String contentType;
+
+	/**
+	 * All the headers for the part, including the Content-Disposition and Content-Type.
+	 */
+	public ThingsPropertyView headerItems;
+
+	// ================================================================================================================
+	// INTERNAL DATA
+
+	private Universe spillUniverse;
+	private String spillBase;
+	private long spillThreshold;
+
+	private ByteArrayOutputStream memory;
+	private OutputStream spill;
+	private String spillName;
+	private long size;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @param spillUniverse the universe to spill into.  If null, the part may not grow past the threshold.
+	 * @param spillBase the base name for spill objects.  It is passed to the universe's reserveUnique().
+	 * @param spillThreshold the most that will be kept in memory.
+	 */
+	public HttpBodyPart(Universe spillUniverse, String spillBase, long spillThreshold) {
+		this.spillUniverse = spillUniverse;
+		this.spillBase = spillBase;
+		this.spillThreshold = spillThreshold;
+		headerItems = new ThingsPropertyTreeBASIC();
+		memory = new ByteArrayOutputStream();
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * The total size of the part in bytes.
+	 * @return the size.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Was the part spilled to the universe?
+	 * @return true if it was.
+	 */
+	public boolean isSpilled() {
+		return spillName != null;
+	}
+
+	/**
+	 * Get the universe object name for a spilled part.
+	 * @return the name or null if it wasn't spilled.
+	 */
+	public String getSpillName() {
+		return spillName;
+	}
+
+	/**
+	 * Get the part data as bytes.  This only works for parts that were not spilled.
+	 * @return the bytes or null if the part was spilled or released.
+	 */
+	public byte[] getBytes() {
+		if ((spillName != null)||(memory == null)) return null;
+		return memory.toByteArray();
+	}
+
+	/**
+	 * Get the part data as a string.  This only works for parts that were not spilled.
+	 * @param charset the character set or null for the 8-bit default.
+	 * @return the value or null if the part was spilled or released.
+	 * @throws ThingsException if the charset is not supported.
+	 */
+	public String getValue(String charset) throws ThingsException {
+		if ((spillName != null)||(memory == null)) return null;
+		try {
+			if (charset == null) return memory.toString("ISO-8859-1");
+			return memory.toString(charset);
+		} catch (Throwable t) {
+			throw new ThingsException("Could not decode body part.", ThingsException.PROCESSOR_HTTPBODY_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, charset);
+		}
+	}
+
+	/**
+	 * Get a stream to read the part data, whether it was spilled or not.
+	 * @return the stream.  The caller must close it.
+	 * @throws ThingsException if the part was released or the universe would not give up the object.
+	 */
+	public InputStream getStream() throws ThingsException {
+		if (spillName != null) return spillUniverse.getStream(spillName);
+		if (memory == null) throw new ThingsException("Body part already released.", ThingsException.PROCESSOR_HTTPBODY_FAILED);
+		return new ByteArrayInputStream(memory.toByteArray());
+	}
+
+	/**
+	 * Release the part.  Any spilled object is deleted.  It is safe to call more than once.
+	 */
+	public void release() {
+		try {
+			if (spill != null) spill.close();
+		} catch (Throwable t) {
+			// Don't care.
+		}
+		try {
+			if (spillName != null) spillUniverse.delete(spillName);
+		} catch (Throwable t) {
+			// Don't care.  There is nothing that can be done about it.
+		}
+		spill = null;
+		spillName = null;
+		memory = null;
+	}
+
+	// ================================================================================================================
+	// PACKAGE
+
+	/**
+	 * Append data to the part.  This is where the spill happens.
+	 * @param data the data.
+	 * @param offset the offset into the data.
+	 * @param length the number of bytes.
+	 * @throws ThingsException if the part grows too large and cannot spill or the spill universe fails.
+	 */
+	void append(byte[] data, int offset, int length) throws ThingsException {
+		if (length < 1) return;
+		try {
+			if (spill == null) {
+				if ((size + length) <= spillThreshold) {
+					memory.write(data, offset, length);
+					size += length;
+					return;
+				}
+				if (spillUniverse == null) throw new ThingsException("Body part larger than the spill threshold and there is no spill universe.", ThingsException.PROCESSOR_HTTPBODY_FAILED,
+						ThingsNamespace.ATTR_DATA_ARGUMENT, Long.toString(spillThreshold));
+
+				// Spill everything so far.
+				spillName = spillUniverse.reserveUnique(spillBase);
+				spill = spillUniverse.putStream(spillName);
+				memory.writeTo(spill);
+				memory = null;
+			}
+			spill.write(data, offset, length);
+			size += length;
+
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("Could not spill body part.", ThingsException.PROCESSOR_HTTPBODY_FAILED, t);
+		}
+	}
+
+	/**
+	 * Finish the part.  Any spill stream is closed.
+	 * @throws ThingsException if the spill universe failed.
+	 */
+	void finish() throws ThingsException {
+		if (spill == null) return;
+		try {
+			spill.close();
+		} catch (Throwable t) {
+			throw new ThingsException("Could not finish spilled body part.", ThingsException.PROCESSOR_HTTPBODY_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, spillName);
+		} finally {
+			spill = null;
+		}
+	}
+
+}
@@ -0,0 +1,669 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import things.common.ThingsException;
+import things.data.processing.LexicalTool;
+import things.data.processing.rfc822.HeaderEngine;
+
+/**
+ * A window based HTTP head parser.  It parses the Request-Line or Status-Line and the header fields out of a byte[] (or ByteBuffer)
+ * window and only records offsets.  Nothing becomes a String until someone asks for it.  The header fields are handled by a
+ * HeaderEngine, so they are parsed exactly like RFC822 headers.<p>
+ * The window may be fed a little at a time.  If parse() returns false, add more data to the same window and call it again
+ * with the longer length--it will pick up at the first unfinished line.  When it returns true, getHeadEnd() is the offset of
+ * the first byte past the head (the body, if any).<p>
+ * Unlike the RequestLineParser, ResponseLineParser and HttpHeaderProcessor, it is NOT synchronized.  Keep an instance
+ * confined to one thread and reset() it between heads, or just use getThreadParser().<p>
+ * This implementation assumes 8-bit characters throughout the head.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 3 MAY 10
+ * EPG - Header fields moved into the HeaderEngine - 26 MAY 10
+ * </pre>
+ */
+public class HttpHeadParser {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * Largest head we will accept, unless told otherwise.
+	 */
+	public final static int DEFAULT_MAX_HEAD_SIZE = 65536;
+
+	/**
+	 * Start-line tokens.  For a request they are method, target and version.  For a response they are version, code
+	 * and reason.
+	 */
+	public final static int START_TOKEN_FIRST = 0;
+	public final static int START_TOKEN_SECOND = 1;
+	public final static int START_TOKEN_THIRD = 2;
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static int START_TOKENS = 3;
+	private final static int INITIAL_SCRATCH = 2048;
+	private final static int NO_OFFSET = -1;
+
+	private final static ThreadLocal<HttpHeadParser> threadParser = new ThreadLocal<HttpHeadParser>() {
+		protected HttpHeadParser initialValue() {
+			return new HttpHeadParser();
+		}
+	};
+
+	// Window
+	private byte[] window;
+	private int windowStart;
+	private int scan;
+	private int headEnd;
+	private boolean startLineDone;
+	private boolean done;
+	private int maxHeadSize;
+
+	// Offsets
+	private int[] startLine;
+	private HeaderEngine engine;
+
+	// Reusable work areas
+	private byte[] scratch;
+	private char[] chars;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Construct with the default max head size.
+	 */
+	public HttpHeadParser() {
+		this(DEFAULT_MAX_HEAD_SIZE);
+	}
+
+	/**
+	 * Construct.
+	 * @param maxHeadSize the largest head allowed.  Anything larger will fault.
+	 */
+	public HttpHeadParser(int maxHeadSize) {
+		this.maxHeadSize = maxHeadSize;
+		startLine = new int[START_TOKENS * 2];
+		engine = new HeaderEngine(maxHeadSize);
+		try {
+			HttpHeaderProcessor.declarations(engine);
+		} catch (ThingsException te) {
+			// Really should NEVER happen.  The names and ids are constants.
+		}
+		chars = new char[INITIAL_SCRATCH];
+		reset();
+	}
+
+	/**
+	 * Get the parser for the calling thread.  It will be reset and ready to go.  Don't hand it to another thread.
+	 * @return the parser.
+	 */
+	public static HttpHeadParser getThreadParser() {
+		HttpHeadParser result = threadParser.get();
+		result.reset();
+		return result;
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Reset the parser so it can take a new head.  It does not release the work areas.
+	 */
+	public void reset() {
+		window = null;
+		windowStart = 0;
+		scan = 0;
+		headEnd = NO_OFFSET;
+		startLineDone = false;
+		done = false;
+		engine.reset();
+		for (int index = 0; index < startLine.length; index++) startLine[index] = NO_OFFSET;
+	}
+
+	/**
+	 * Parse a head out of the window.  If the same window and offset were given to the previous call, it'll resume
+	 * where it left off.  Anything else starts over.  The window must not be changed between the offset and the
+	 * previous length while resuming or the head is complete.
+	 * @param data the window.
+	 * @param offset where the head starts in the window.
+	 * @param length how many bytes are currently in the window, starting at the offset.
+	 * @return true if the head is complete, false if it needs more data.
+	 * @throws ThingsException for malformed heads (GENERAL_PARSER_ERROR) or heads that are too large (GENERAL_PARSER_FAULT).
+	 */
+	public boolean parse(byte[] data, int offset, int length) throws ThingsException {
+		if (data==null) ThingsException.softwareProblem("Null window passed to HttpHeadParser.parse");
+		if ((data != window)||(offset != windowStart)) {
+			reset();
+			window = data;
+			windowStart = offset;
+			scan = offset;
+		}
+		if (done) return true;
+
+		int limit = offset + length;
+		int lf;
+		int lineEnd;
+		while (!startLineDone) {
+
+			// Find a complete line
+			lf = scan;
+			while ((lf < limit)&&(window[lf] != LexicalTool.WS_LF_CONTROL)) lf++;
+			if (lf >= limit) {
+				if ((limit - windowStart) > maxHeadSize) fault("Head exceeds maximum size of " + maxHeadSize);
+				return false;
+			}
+			lineEnd = lf;
+			if ((lineEnd > scan)&&(window[lineEnd-1] == LexicalTool.WS_CR_CONTROL)) lineEnd--;
+
+			// Robust servers ignore empty lines before the start-line.
+			if (lineEnd > scan) {
+				startLine(scan, lineEnd);
+				startLineDone = true;
+			}
+			scan = lf + 1;
+		}
+
+		// The fields start at the scan point, which doesn't move again, so the engine will resume.
+		if (engine.parse(window, scan, limit - scan)) {
+			headEnd = engine.getHeadEnd();
+			done = true;
+		}
+		return done;
+	}
+
+	/**
+	 * Parse a head out of a buffer.  Heap buffers are parsed in place.  Direct buffers are copied into a reusable work area, but 
+	 * only as much as the largest head allowed, so a body after the head is not copied.
+	 * When the head is complete, the buffer position is moved to the first byte after it.  Otherwise, the position is
+	 * left alone so more data can be added and the call repeated.
+	 * @param buffer the buffer.  The data between the position and the limit is used.
+	 * @return true if the head is complete, false if it needs more data.
+	 * @throws ThingsException for malformed or oversized heads.
+	 */
+	public boolean parse(ByteBuffer buffer) throws ThingsException {
+		if (buffer==null) ThingsException.softwareProblem("Null buffer passed to HttpHeadParser.parse");
+		boolean result;
+		if (buffer.hasArray()) {
+			result = parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (result) buffer.position(headEnd - buffer.arrayOffset());
+
+		} else {
+			int size = Math.min(buffer.remaining(), maxHeadSize + 1);
+			ensureScratch(size);
+			int mark = buffer.position();
+			buffer.get(scratch, 0, size);
+			buffer.position(mark);
+			result = parse(scratch, 0, size);
+			if (result) buffer.position(mark + headEnd);
+			else if (size < buffer.remaining()) fault("Head exceeds maximum size of " + maxHeadSize);
+		}
+		return result;
+	}
+
+	/**
+	 * Read a head from a stream into the parser's own window.  If the stream supports mark (like a BufferedInputStream),
+	 * it will read in blocks and then put back anything past the head.  Otherwise, it will have to read a byte at a time
+	 * so it doesn't eat the body.
+	 * @param ins the stream.
+	 * @throws ThingsException for malformed or oversized heads.
+	 * @throws IOException if the stream has a problem.  EOFException if it ends before anything is read.
+	 */
+	public void readHead(InputStream ins) throws ThingsException, IOException {
+		if (ins==null) ThingsException.softwareProblem("Null stream passed to HttpHeadParser.readHead");
+		reset();
+		ensureScratch(INITIAL_SCRATCH);
+		int filled = 0;
+		int got;
+
+		if (ins.markSupported()) {
+			ins.mark(maxHeadSize + 1);
+			while (true) {
+				if (filled >= scratch.length) ensureScratch(scratch.length * 2);
+				got = ins.read(scratch, filled, scratch.length - filled);
+				if (got < 0) break;
+				filled += got;
+				if (parse(scratch, 0, filled)) {
+					ins.reset();
+					skipFully(ins, headEnd);
+					return;
+				}
+			}
+
+		} else {
+			while (true) {
+				got = ins.read();
+				if (got < 0) break;
+				if (filled >= scratch.length) ensureScratch(scratch.length * 2);
+				scratch[filled++] = (byte)got;
+				if ((got == LexicalTool.WS_LF_CONTROL)&&(parse(scratch, 0, filled))) return;
+			}
+		}
+
+		// !EOF!
+		if (filled == 0) throw new EOFException();
+		error("Truncated head.  size=" + filled);
+	}
+
+	/**
+	 * Is the head complete?
+	 * @return true if it is.
+	 */
+	public boolean isComplete() {
+		return done;
+	}
+
+	/**
+	 * Get the offset in the window of the first byte after the head.
+	 * @return the offset or -1 if the head isn't complete.
+	 */
+	public int getHeadEnd() {
+		return headEnd;
+	}
+
+	/**
+	 * Get the window being parsed.  Offsets from this parser are into this array.
+	 * @return the window.
+	 */
+	public byte[] getWindow() {
+		return window;
+	}
+
+	// ================================================================================================================
+	// START-LINE
+
+	/**
+	 * Get a start-line token as a String.
+	 * @param token START_TOKEN_FIRST, START_TOKEN_SECOND or START_TOKEN_THIRD.
+	 * @return the token or null if it wasn't present.
+	 */
+	public String getStartToken(int token) {
+		int start = startLine[token * 2];
+		if (start == NO_OFFSET) return null;
+		return string(start, startLine[(token * 2) + 1]);
+	}
+
+	/**
+	 * Get the offset of a start-line token in the window.
+	 * @param token the token.
+	 * @return the offset or -1 if it wasn't present.
+	 */
+	public int getStartTokenOffset(int token) {
+		return startLine[token * 2];
+	}
+
+	/**
+	 * Get the length of a start-line token.
+	 * @param token the token.
+	 * @return the length or 0 if it wasn't present.
+	 */
+	public int getStartTokenLength(int token) {
+		if (startLine[token * 2] == NO_OFFSET) return 0;
+		return startLine[(token * 2) + 1] - startLine[token * 2];
+	}
+
+	// ================================================================================================================
+	// FIELDS
+
+	/**
+	 * Get the number of header fields.  Repeats are counted separately.
+	 * @return the number of fields.
+	 */
+	public int getHeaderCount() {
+		return engine.getHeaderCount();
+	}
+
+	/**
+	 * Get a header name.
+	 * @param index the field index.
+	 * @return the name.
+	 */
+	public String getHeaderName(int index) {
+		return engine.getHeaderName(index);
+	}
+
+	/**
+	 * Get a header value.  Leading and trailing whitespace is removed and folded lines are joined with a single space.
+	 * @param index the field index.
+	 * @return the value.
+	 */
+	public String getHeaderValue(int index) {
+		return engine.getHeaderValue(index);
+	}
+
+	/**
+	 * Get the value of the first field with the name.  The match is not case sensitive.
+	 * @param name the header name without the colon.
+	 * @return the value or null if there is no such field.
+	 */
+	public String getHeaderValue(String name) {
+		return engine.getHeaderValue(name);
+	}
+
+	/**
+	 * Find the first field with the name.  The match is not case sensitive and does not create any objects.
+	 * @param name the header name without the colon.
+	 * @return the field index or -1 if not found.
+	 */
+	public int findHeader(String name) {
+		return engine.findHeader(name);
+	}
+
+	/**
+	 * Check a field's name.  The match is not case sensitive and does not create any objects.
+	 * @param index the field index.
+	 * @param name the name to check.
+	 * @return true if it matches.
+	 */
+	public boolean headerNameEquals(int index, String name) {
+		return engine.headerNameEquals(index, name);
+	}
+
+	/**
+	 * Is the field value folded across lines?  If it is, the raw value bytes include the line breaks.
+	 * @param index the field index.
+	 * @return true if folded.
+	 */
+	public boolean isFolded(int index) {
+		return engine.isFolded(index);
+	}
+
+	/**
+	 * Get the offset of a field name in the window.
+	 * @param index the field index.
+	 * @return the offset.
+	 */
+	public int getHeaderNameOffset(int index) {
+		return engine.getHeaderNameOffset(index);
+	}
+
+	/**
+	 * Get the length of a field name.
+	 * @param index the field index.
+	 * @return the length.
+	 */
+	public int getHeaderNameLength(int index) {
+		return engine.getHeaderNameLength(index);
+	}
+
+	/**
+	 * Get the offset of a field value in the window.  It's already past the leading whitespace.
+	 * @param index the field index.
+	 * @return the offset.
+	 */
+	public int getHeaderValueOffset(int index) {
+		return engine.getHeaderValueOffset(index);
+	}
+
+	/**
+	 * Get the raw length of a field value.  Trailing whitespace is not included.
+	 * @param index the field index.
+	 * @return the length.
+	 */
+	public int getHeaderValueLength(int index) {
+		return engine.getHeaderValueLength(index);
+	}
+
+	/**
+	 * Get the engine that holds the header fields.  Field offsets and declared ids come from it.
+	 * @return the engine.
+	 */
+	public HeaderEngine getHeaderEngine() {
+		return engine;
+	}
+
+	// ================================================================================================================
+	// POPULATE
+
+	/**
+	 * Put the parsed head into a request, the same way the RequestLineParser and HttpHeaderProcessor would.  The
+	 * request target is decoded (% escapes and '+') and any query is put into the urlValues.  Unlike the RequestLineParser,
+	 * absolute-form targets (http://server/path) are split into the server and path.
+	 * @param request the request to fill.
+	 * @throws ThingsException GENERAL_PARSER_ERROR for a bad start-line or PROCESSOR_HTTPHEADER_FAILED for bad headers.
+	 */
+	public void populate(HttpRequest request) throws ThingsException {
+		if (!done) ThingsException.softwareProblem("HttpHeadParser.populate called before the head was complete.");
+
+		// Method
+		request.methodText = getStartToken(START_TOKEN_FIRST);
+		request.method = HttpRequest.Method.match(request.methodText);
+		if (request.method==HttpRequest.Method.UNSUPPORTED) error("unsupported method.  text='" + request.methodText + "'");
+
+		// Target
+		int start = startLine[START_TOKEN_SECOND * 2];
+		if (start == NO_OFFSET) error("Terminated before URI.");
+		target(request, start, startLine[(START_TOKEN_SECOND * 2) + 1]);
+
+		// Version
+		if (startLine[START_TOKEN_THIRD * 2] == NO_OFFSET) error("Terminated without version.");
+		request.httpVersion = getStartToken(START_TOKEN_THIRD);
+
+		populateHeaders(request);
+	}
+
+	/**
+	 * Put the parsed head into a response, the same way the ResponseLineParser and HttpHeaderProcessor would.  The body
+	 * stream is not touched.
+	 * @param response the response to fill.
+	 * @throws ThingsException GENERAL_PARSER_ERROR for a bad start-line or PROCESSOR_HTTPHEADER_FAILED for bad headers.
+	 */
+	public void populate(HttpResponse response) throws ThingsException {
+		if (!done) ThingsException.softwareProblem("HttpHeadParser.populate called before the head was complete.");
+
+		response.httpVersion = getStartToken(START_TOKEN_FIRST);
+		response.codeText = getStartToken(START_TOKEN_SECOND);
+		if (response.codeText == null) error("Excepting Code.");
+		try {
+			response.code = Integer.parseInt(response.codeText);
+		} catch (NumberFormatException nfe) {
+			error("Bad Code.  Note a numeric.  value=" + response.codeText);
+		}
+		response.reasonPhrase = getStartToken(START_TOKEN_THIRD);
+		if (response.reasonPhrase == null) response.reasonPhrase = "";
+
+		populateHeaders(response);
+	}
+
+	/**
+	 * Put the header fields into the headers.
+	 * @param headers where they go.
+	 * @throws ThingsException
+	 */
+	public void populateHeaders(HttpHeaders headers) throws ThingsException {
+		HttpHeaderProcessor.populate(engine, headers);
+	}
+
+	// ================================================================================================================
+	// PRIVATE - LINES
+
+	/**
+	 * Split the start-line into its three tokens.  The third token is the rest of the line, since a reason phrase may have spaces.
+	 */
+	private void startLine(int start, int end) {
+		int rover = start;
+		for (int token = 0; token < START_TOKENS; token++) {
+			while ((rover < end)&&(isWS(window[rover]))) rover++;
+			if (rover >= end) return;
+			startLine[token * 2] = rover;
+			if (token == START_TOKEN_THIRD) {
+				rover = end;
+				while (isWS(window[rover-1])) rover--;
+			} else {
+				while ((rover < end)&&(!isWS(window[rover]))) rover++;
+			}
+			startLine[(token * 2) + 1] = rover;
+		}
+	}
+
+	// ================================================================================================================
+	// PRIVATE - TARGET
+
+	/**
+	 * Decode the request target into the server, path and urlValues.
+	 */
+	private void target(HttpRequest request, int start, int end) throws ThingsException {
+
+		// Asterisk-form
+		if ((end - start == 1)&&(window[start] == LexicalTool.SPECIAL_SPLAT)) {
+			request.server = "";
+			request.path = "*";
+			return;
+		}
+
+		// Query?
+		int query = start;
+		while ((query < end)&&(window[query] != LexicalTool.SPECIAL_QUEST)) query++;
+
+		// Absolute-form?
+		int pathStart = start;
+		request.server = "";
+		if (window[start] != LexicalTool.SPECIAL_SLASH) {
+			int rover = start;
+			while ((rover < query - 2)&&(window[rover] != LexicalTool.SPECIAL_COLON)) rover++;
+			if ((rover < query - 2)&&(window[rover+1] == LexicalTool.SPECIAL_SLASH)&&(window[rover+2] == LexicalTool.SPECIAL_SLASH)) {
+				rover += 3;
+				pathStart = rover;
+				while ((pathStart < query)&&(window[pathStart] != LexicalTool.SPECIAL_SLASH)) pathStart++;
+				request.server = decode(rover, pathStart, false);
+			} else {
+				// Authority-form or something naughty.  Treat it as a server only.
+				request.server = decode(start, query, false);
+				pathStart = query;
+			}
+		}
+		request.path = decode(pathStart, query, true);
+
+		// Query items
+		int rover = query + 1;
+		int itemEnd;
+		int equals;
+		while (rover < end) {
+			itemEnd = rover;
+			equals = NO_OFFSET;
+			while ((itemEnd < end)&&(window[itemEnd] != LexicalTool.SPECIAL_AMP)) {
+				if ((equals == NO_OFFSET)&&(window[itemEnd] == LexicalTool.SPECIAL_EQ)) equals = itemEnd;
+				itemEnd++;
+			}
+			if (itemEnd > rover) {
+				if (equals == NO_OFFSET) {
+					request.urlValues.setProperty(decode(rover, itemEnd, true), "");
+				} else {
+					request.urlValues.setProperty(decode(rover, equals, true), decode(equals + 1, itemEnd, true));
+				}
+			}
+			rover = itemEnd + 1;
+		}
+	}
+
+	/**
+	 * Decode a piece of the target.
+	 * @param plusIsSpace if true, '+' becomes a space.
+	 */
+	private String decode(int start, int end, boolean plusIsSpace) throws ThingsException {
+		if (chars.length < end - start) chars = new char[end - start];
+		int size = 0;
+		int character;
+		int sixteens;
+		int ones;
+		for (int rover = start; rover < end; rover++) {
+			character = window[rover] & 0xff;
+			if (character == LexicalTool.SPECIAL_PERCENT) {
+				if (rover + 2 >= end) error("Truncated line with dangling escape.");
+				sixteens = LexicalTool.getHexValue(window[rover+1] & 0xff);
+				ones = LexicalTool.getHexValue(window[rover+2] & 0xff);
+				if ((sixteens < 0)||(ones < 0)) error("Broken escape.");
+				chars[size++] = (char)((sixteens * 16) + ones);
+				rover += 2;
+			} else if ((plusIsSpace)&&(character == LexicalTool.SPECIAL_PLUS)) {
+				chars[size++] = ' ';
+			} else {
+				chars[size++] = (char)character;
+			}
+		}
+		return new String(chars, 0, size);
+	}
+
+	// ================================================================================================================
+	// PRIVATE - TOOLS
+
+	/**
+	 * Make a String from the window.  8-bit, like the rest of the HTTP processing.
+	 */
+	private String string(int start, int end) {
+		int size = end - start;
+		if (chars.length < size) chars = new char[size];
+		for (int rover = 0; rover < size; rover++) {
+			chars[rover] = (char)(window[start + rover] & 0xff);
+		}
+		return new String(chars, 0, size);
+	}
+
+	/**
+	 * Make sure the scratch window is at least this big.  It keeps what is already there.
+	 */
+	private void ensureScratch(int size) throws ThingsException {
+		if ((scratch != null)&&(scratch.length >= size)) return;
+		if (size > maxHeadSize + INITIAL_SCRATCH) fault("Head exceeds maximum size of " + maxHeadSize);
+		byte[] newScratch = new byte[size];
+		if (scratch != null) System.arraycopy(scratch, 0, newScratch, 0, scratch.length);
+		scratch = newScratch;
+	}
+
+	/**
+	 * Skip exactly this many bytes.
+	 */
+	private static void skipFully(InputStream ins, int count) throws IOException {
+		long skipped;
+		while (count > 0) {
+			skipped = ins.skip(count);
+			if (skipped <= 0) {
+				if (ins.read() < 0) throw new EOFException();
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	private static boolean isWS(byte character) {
+		return (character == LexicalTool.WS_SPACE)||(character == LexicalTool.WS_TAB_CONTROL);
+	}
+
+	/**
+	 * Throw an error with consistent formatting and the code GENERAL_PARSER_ERROR.
+	 */
+	private void error(String text) throws ThingsException {
+		throw new ThingsException("Error: " + text, ThingsException.GENERAL_PARSER_ERROR);
+	}
+
+	/**
+	 * Throw a fault with consistent formatting and the code GENERAL_PARSER_FAULT.
+	 */
+	private void fault(String text) throws ThingsException {
+		throw new ThingsException("Fault: " + text, ThingsException.GENERAL_PARSER_FAULT);
+	}
+
+}
@@ -15,24 +15,26 @@
  */
 package things.data.processing.http;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
 
 import things.common.ThingsException;
-import things.data.processing.rfc822.HeaderProcessorv3;
+import things.data.processing.rfc822.HeaderEngine;
 
 /**
- * Processes headers for HTTP.  This implementation assumes 8-bit characters throughout the header.
+ * Processes headers for HTTP.  This implementation assumes 8-bit characters throughout the header.<p>
+ * It reads the header with a HeaderEngine.  If the input supports mark, it will read in blocks and put back anything past the
+ * header.  Otherwise it reads a byte at a time, so the body is never eaten.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 FEB 07
+ * EPG - Use the HeaderEngine instead of the HeaderProcessorv3 - 26 MAY 10
+ * EPG - All values are trimmed - 30 JUN 10
  * </pre> 
  */
-public class HttpHeaderProcessor extends HeaderProcessorv3 {
+public class HttpHeaderProcessor {
 
 	// ================================================================================================================
 	// PUBLIC DATA 
@@ -48,18 +50,19 @@ public class HttpHeaderProcessor extends HeaderProcessorv3 {
 	public final static int HEADER_TRANSFER_ENCODING	=	3;
 	public final static String HEADER_TRANSFER_ENCODING_STRING	= "Transfer-Encoding";
 	
-	// Session data
-	private HttpHeaders headers;
+	// Engine
+	private HeaderEngine engine;
 	
 	
 	// ================================================================================================================
 	// CONSTRUCTOR
 	public HttpHeaderProcessor() throws Throwable {
-		super();
+		engine = new HeaderEngine();
+		declarations(engine);
 	}
 	
 	// ================================================================================================================
-	// CONSTRUCTOR
+	// METHODS
 	
 	/**
 	 * Process the header.  This is a one way trip.  This implementation does NOT write anything.  
@@ -73,154 +76,68 @@ public class HttpHeaderProcessor extends HeaderProcessorv3 {
 			// Qualify
 			if (input==null) ThingsException.softwareProblem("Null input passed to processHeader");
 			if (headers==null) ThingsException.softwareProblem("Null headers passed to processHeader");
-			this.headers = headers;
 			
 			// Process
-			this.process("nothing", input);
+			engine.readHead(input);
+			populate(engine, headers);
 
-		} catch (InterruptedException ie) {
-			throw ie;
 		} catch (Throwable t) {
 			throw new ThingsException("Header processing failed.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, t);
 		}
 	}
 	
-	
-	// ================================================================================================================
 	// ================================================================================================================
-	// ABSTRACT METHODS
+	// STATIC TOOLS
 	
 	/**
-	 * All declarations should be put here, so they are done with any initialization.
-	 * @throws Throwable
+	 * Declare the headers we care about in an engine.
+	 * @param engine the engine.
+	 * @throws ThingsException
 	 */
-	protected void declarations() throws Throwable {
-		declare(HEADER_CONTENT_TYPE_STRING,	HEADER_CONTENT_TYPE, 	 false);
-		declare(HEADER_CONTENT_LENGTH_STRING,	HEADER_CONTENT_LENGTH,	false);
-		declare(HEADER_TRANSFER_ENCODING_STRING,	HEADER_TRANSFER_ENCODING,	false);
+	public static void declarations(HeaderEngine engine) throws ThingsException {
+		engine.declare(HEADER_CONTENT_TYPE_STRING,	HEADER_CONTENT_TYPE);
+		engine.declare(HEADER_CONTENT_LENGTH_STRING,	HEADER_CONTENT_LENGTH);
+		engine.declare(HEADER_TRANSFER_ENCODING_STRING,	HEADER_TRANSFER_ENCODING);
 	}
 	
 	/**
-	 * Start on a specific header.  This gives the implementation a chance to initialize.
-	 * @param messageId the id for the message being processed.  The implementation may choose to ignore it.
-	 * @throws Throwable
+	 * Put the fields from a complete head into the headers.  The engine must have had the declarations().  Every value, declared
+	 * or not, is set as the engine gives it: trimmed, with folded lines joined by a single space.  (The HeaderProcessorv3 version
+	 * left undeclared values raw, with their line breaks.)
+	 * @param engine the engine.
+	 * @param headers where they go.
+	 * @throws ThingsException PROCESSOR_HTTPHEADER_FAILED for a bad content length.
 	 */
-	protected void start(String messageId) throws Throwable {
-		// Nothing.
-	}
-	
-	/**
-	 * This method will be called when a header is unmatched.  Be sure to write to outs if you want anything preserved!  This includes the CRLF.
-	 * The read() method will supply the read of the header line.  
-	 * @param headerBuffer What we read about the header already.
-	 * @param size how much is actually in the buffer.
-	 * @throws Throwable
-	 */
-	protected void unmatch(byte[] headerBuffer, int size) throws Throwable {
-		try  {
-			String name = new String(headerBuffer, 0, size);
-			String value = rest(this);
-			if (name.charAt(name.length()-1)==':') name = name.substring(0, name.length()-1);
-			headers.headerItems.setProperty(name, value );
-		} catch (IOException ioe) {
-			throw ioe;
-		} catch (InterruptedException ie) {
-			throw ie;			
-		} catch (Throwable t) {
-			throw new ThingsException("Processing broke on unrecognized header.", ThingsException.PROCESSOR_HTTPHEADER_UNHANDLED, t);
-		}
-	}
-
-	/**
-	 * This method will be called when a header is matched.  This will be called when a header is matched for a read-only operation.
-	 * @param id The defined id.
-	 * @throws Throwable
-	 */
-	protected void match(int	id) throws Throwable {
-		String value = null;
-		try {
-			value = rest(this).trim();
-		} catch (IOException ioe) {
-			throw ioe;
-		} catch (InterruptedException ie) {
-			throw ie;
-		} catch (Throwable t) {
-			throw new ThingsException("Bad header.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, t);
-		}
-		
-		switch(id) {
-		case HEADER_CONTENT_TYPE: 
-			try {
+	public static void populate(HeaderEngine engine, HttpHeaders headers) throws ThingsException {
+		String value;
+		for (int index = 0; index < engine.getHeaderCount(); index++) {
+			value = engine.getHeaderValue(index);
+			switch(engine.getHeaderId(index)) {
+			case HEADER_CONTENT_TYPE: 
 				headers.contentType = value;
 				headers.headerItems.setProperty(HEADER_CONTENT_TYPE_STRING, value);
+				break;
 				
-			} catch (Throwable t) {
-				throw new ThingsException("Bad content type header.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, t);
-			}
-			break;
-			
-		case HEADER_CONTENT_LENGTH: 
-			try {
-				headers.contentLength = Long.parseLong(value);
+			case HEADER_CONTENT_LENGTH: 
+				try {
+					headers.contentLength = Long.parseLong(value);
+				} catch (NumberFormatException nfe) {
+					throw new ThingsException("Bad content length header.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, nfe);
+				}
 				headers.headerItems.setProperty(HEADER_CONTENT_LENGTH_STRING, value);
+				break;
 				
-			} catch (Throwable t) {
-				throw new ThingsException("Bad content length header.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, t);
-			}
-			break;
-			
-		case HEADER_TRANSFER_ENCODING: 
-			try {
+			case HEADER_TRANSFER_ENCODING: 
 				headers.transferEncoding = value;
 				headers.headerItems.setProperty(HEADER_TRANSFER_ENCODING_STRING, value);
-				
-			} catch (Throwable t) {
-				throw new ThingsException("Bad transfer encoding header.", ThingsException.PROCESSOR_HTTPHEADER_FAILED, t);
+				break;
+			
+			default:
+				headers.headerItems.setProperty(engine.getHeaderName(index), value);
+				break;
 			}
-			break;
-		
-		default:
-			ThingsException.softwareProblem("Matched but not declared.  This is a bug.");
-		}
-	}
-	
-	/**
-	 * Complete on a specific header.  This gives the implementation a chance to return entries.  If anything is returned at all
-	 * is up to the implementation.  It can give a null if it wants to.
-	 * @return A list of header fields.
-	 * @throws Throwable
-	 */
-	protected List<String> complete() throws Throwable {
-		return null;
-	}
-	
-	/**
-	 * The headers are done.  All that is left is the final CR and LFs, whatever they may be. This is a good time to add your own headers.
-	 * @throws Throwable
-	 */
-	protected void headersComplete() throws Throwable {
-		// NOP
-	}
-	
-	// ========================================================================================
-	// METHODS
-	
-	/**
-	 * Read the rest of the stream into a new string.
-	 * BE VERY BAD AND ASSUME 8bit characters!
-	 * @return A String with the rest of the stream.
-	 * @param is the stream to deplete.
-	 */
-	private String rest(InputStream is) throws Throwable {
-		StringBuffer buffer = new StringBuffer();
-		int current = is.read();		
-		while (current >= 0) {
-			buffer.append((char)current);    // bad programmer!
-			current = is.read();
 		}
-		return buffer.toString();
 	}
 
 }
 
-
@@ -15,6 +15,9 @@
  */
 package things.data.processing.http;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An HTTP request.
  * <p>
@@ -23,6 +26,7 @@ package things.data.processing.http;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 12 FEB 07
+ * EPG - Add body parts - 5 MAY 10
  * </pre> 
  */
 public class HttpRequest extends HttpHeaders {
@@ -60,7 +64,12 @@ public class HttpRequest extends HttpHeaders {
 	 * The HTTP method text -- for debugging.
 	 */
 	public String 	methodText;
-	
+	
+	/**
+	 * Body parts, such as from a multipart/form-data body.  Some may be spilled to a universe, so call releaseBodyParts() when done.
+	 */
+	public List<HttpBodyPart>	bodyParts;
+	
 	// =========================================================================================
 	// INTERNAL DATA 
 
@@ -71,7 +80,21 @@ public class HttpRequest extends HttpHeaders {
 	public HttpRequest() {
 		super();
 		method = Method.UNSUPPORTED;
-	}
+		bodyParts = new ArrayList<HttpBodyPart>();
+	}
+	
+	// =========================================================================================
+	// METHODS
+	
+	/**
+	 * Release all the body parts.  Any that were spilled to a universe will be deleted.
+	 */
+	public void releaseBodyParts() {
+		for (HttpBodyPart part : bodyParts) {
+			part.release();
+		}
+		bodyParts.clear();
+	}
 
 }
 
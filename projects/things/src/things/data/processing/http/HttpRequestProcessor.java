@@ -20,18 +20,22 @@ import java.io.InputStream;
 
 import things.common.ThingsException;
 import things.common.ThingsNamespace;
+import things.universe.Universe;
 
 /**
  * A request processor.  It handles just GET and POST for now.  <p>
  * This implementation assumes 8-bit characters throughout the header.<p>
- * It only supports application/x-www-form-urlencoded bodies.  We don't actually verify that is the format too!  (Just that it isn't
- * multipart).
+ * It supports application/x-www-form-urlencoded and multipart/form-data bodies, with either a Content-Length or chunked transfer encoding.
+ * Multipart parts larger than the spill threshold are streamed into a temporary object in the spill universe.  If there is no spill universe,
+ * such a part will fail the request.  Call HttpRequest.releaseBodyParts() when done with the request.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 13 FEB 07
+ * EPG - Streaming multipart and chunked bodies - 5 MAY 10
+ * EPG - Reuse one buffer for body streams - 7 MAY 10
  * </pre> 
  */
 public class HttpRequestProcessor {
@@ -39,6 +43,16 @@ public class HttpRequestProcessor {
 	// ================================================================================================================
 	// PUBLIC DATA 
 	
+	/**
+	 * Default spill threshold.  Parts larger than this are not kept in memory.
+	 */
+	public final static long DEFAULT_SPILL_THRESHOLD = 256 * 1024;
+	
+	/**
+	 * Default base name for spilled parts.
+	 */
+	public final static String DEFAULT_SPILL_BASE = "httpbody";
+	
 	// ================================================================================================================
 	// INTERNAL DATA 
 	
@@ -47,15 +61,31 @@ public class HttpRequestProcessor {
 	private RequestLineParser requestLineParser;
 	
 	private BodyProcessor_FormURLEncoded	bodyProcessor_FURLE;	
+	private BodyProcessor_Multipart			bodyProcessor_Multipart;
+	private byte[]							bodyBuffer;
 	
 	
 	// ================================================================================================================
 	// CONSTRUCTOR
-	public HttpRequestProcessor() throws Throwable {
+	public HttpRequestProcessor() throws Throwable {
+		this(null, DEFAULT_SPILL_BASE, DEFAULT_SPILL_THRESHOLD);
+	}
+	
+	/**
+	 * Constructor with a spill universe for large body parts.
+	 * @param spillUniverse the universe for spilled parts.  It may be null, in which case large parts will fail.
+	 * @param spillBase the base name for spilled parts.
+	 * @param spillThreshold the largest part that will be kept in memory.
+	 */
+	public HttpRequestProcessor(Universe spillUniverse, String spillBase, long spillThreshold) throws Throwable {
 		super();
+		if (spillBase==null) ThingsException.softwareProblem("Null spillBase passed to HttpRequestProcessor.");
+		if (spillThreshold < 0) ThingsException.softwareProblem("Negative spillThreshold passed to HttpRequestProcessor.");
 		headerProcessor = new HttpHeaderProcessor();
 		requestLineParser = new RequestLineParser();
-		bodyProcessor_FURLE = new BodyProcessor_FormURLEncoded();
+		bodyProcessor_FURLE = new BodyProcessor_FormURLEncoded();
+		bodyProcessor_Multipart = new BodyProcessor_Multipart(spillUniverse, spillBase, spillThreshold);
+		bodyBuffer = new byte[ChunkedInputStream.DEFAULT_BUFFER_SIZE];
 	}
 	
 	// ================================================================================================================
@@ -94,14 +124,23 @@ public class HttpRequestProcessor {
 			// Step 2 - Header processing
 			headerProcessor.processHeader(input, request);
 			
-			// Step 3 - Body processing, if not a multipart.  We are not a patient processor; if there is no data waiting, assume it's done and quit.  
-			if ((input.available() > 0)&&(request.contentLength>0)) {
-				if (request.contentType.toLowerCase().indexOf("application/x-www-form-urlencoded")==0) {
-					bodyProcessor_FURLE.parser(new LimitedInputStream(input, request.contentLength), request);
-				} else if (request.contentType.toLowerCase().indexOf("text/plain")==0) {
+			// Step 3 - Body processing.  The body is read through a stream that ends where the body ends, so nothing is read past it.
+			InputStream body = null;
+			if ((request.transferEncoding!=null)&&(request.transferEncoding.toLowerCase().indexOf("chunked")>=0)) {
+				body = new ChunkedInputStream(input, bodyBuffer);
+			} else if (request.contentLength>0) {
+				body = new LimitedInputStream(input, request.contentLength, bodyBuffer);
+			}
+			if (body!=null) {
+				String type = (request.contentType==null) ? "" : request.contentType.toLowerCase();
+				if (type.indexOf("application/x-www-form-urlencoded")==0) {
+					bodyProcessor_FURLE.parser(body, request);
+				} else if (type.indexOf("text/plain")==0) {
 					// The FURLE can handle these do.  I'm not sure how many people use this as the encoding for these.  Does anyone on the internet behave?!?!?
-					bodyProcessor_FURLE.parser(new LimitedInputStream(input, request.contentLength), request);					
-				} else if (request.contentType.toLowerCase().indexOf("text/xml")==0) {
+					bodyProcessor_FURLE.parser(body, request);					
+				} else if (type.indexOf("multipart/form-data")==0) {
+					bodyProcessor_Multipart.parser(body, request);
+				} else if (type.indexOf("text/xml")==0) {
 					throw new ThingsException("Unsupported body type.  Probably SOAP.  I'll add this later.", ThingsException.PROCESSOR_HTTPREQUEST_FAILED, ThingsNamespace.ATTR_DATA_ARGUMENT, request.contentType);
 				} else {
 					throw new ThingsException("Unsupported body type.", ThingsException.PROCESSOR_HTTPREQUEST_FAILED, ThingsNamespace.ATTR_DATA_ARGUMENT, request.contentType);
@@ -109,12 +148,16 @@ public class HttpRequestProcessor {
 			}
 
 		} catch (ThingsException te) {
+			if (request!=null) request.releaseBodyParts();
 			throw te;
 		} catch (InterruptedException ie) {
+			if (request!=null) request.releaseBodyParts();
 			throw ie;
 		} catch (IOException ioe) {
+			if (request!=null) request.releaseBodyParts();
 			throw ioe;
 		} catch (Throwable t) {
+			if (request!=null) request.releaseBodyParts();
 			throw new ThingsException("Processing failed.", ThingsException.PROCESSOR_HTTPREQUEST_FAILED, t);
 		}
 		
@@ -23,13 +23,14 @@ import things.common.ThingsException;
 import things.thinger.io.EmptyInputStream;
 
 /**
- * A response processor.  Does not handle trailing headers!
+ * A response processor.  Trailing headers on a chunked body are available from the ChunkedInputStream once it is drained.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 FEB 07
+ * EPG - Reuse one buffer for body streams - 7 MAY 10
  * </pre> 
  */
 public class HttpResponseProcessor {
@@ -43,6 +44,7 @@ public class HttpResponseProcessor {
 	private ResponseLineParser responseLineParser;
 	
 	private final static EmptyInputStream emptyStream = new EmptyInputStream();
+	private byte[] bodyBuffer;
 
 	// ================================================================================================================
 	// CONSTRUCTOR
@@ -50,6 +52,7 @@ public class HttpResponseProcessor {
 		super();
 		headerProcessor = new HttpHeaderProcessor();
 		responseLineParser = new ResponseLineParser();
+		bodyBuffer = new byte[ChunkedInputStream.DEFAULT_BUFFER_SIZE];
 	}
 	
 	// ================================================================================================================
@@ -58,7 +61,8 @@ public class HttpResponseProcessor {
 	/**
 	 * Process a response from a stream. 
 	 * <p>
-	 * Only one thread per object at a time, so we synchronize it.
+	 * Only one thread per object at a time, so we synchronize it.  The body stream uses a buffer owned by this processor, so
+	 * be done with it before calling process() again.
 	 * @param input the source input.  It should be buffered already.
 	 * @return the request
 	 * @see things.data.processing.http.HttpResponse
@@ -99,10 +103,10 @@ public class HttpResponseProcessor {
 				
 				// Chunked or limited?
 				if ((response.transferEncoding!=null)&&(response.transferEncoding.trim().equalsIgnoreCase("chunked"))) {
-					response.bodyStream = new ChunkedInputStream(input);
+					response.bodyStream = new ChunkedInputStream(input, bodyBuffer);
 					response.alwaysDrain=true;
 				} else if (response.contentLength>0) {
-					response.bodyStream = new LimitedInputStream(input, response.contentLength);
+					response.bodyStream = new LimitedInputStream(input, response.contentLength, bodyBuffer);
 					response.alwaysDrain=true;
 				} else {
 					// No.  Just hand back an empty stream.
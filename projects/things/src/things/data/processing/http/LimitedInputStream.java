@@ -4,9 +4,9 @@
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
- * 
+ *
  *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -17,25 +17,40 @@ package things.data.processing.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import things.common.ThingsException;
 
 /**
  * Allow it to only read so many bytes.
  * <p>
+ * It reads ahead into a buffer so single byte reads don't go to the source each time, but it never reads past the limit.
+ * <p>
  * @author Erich P. Gatejen<br>
  * @version 1.0<br>
  * <i>Version History</i>
  * <br>
- * <code>EPG - New - 12 FEB 2007</code> 
+ * <code>EPG - New - 12 FEB 2007
+ * EPG - Bulk reads from a reusable buffer and transferTo - 7 MAY 2010</code>
  */
 public class LimitedInputStream extends InputStream {
-	
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * Default buffer size.
+	 */
+	public final static int DEFAULT_BUFFER_SIZE = 8192;
+
 	// ================================================================================================================
-	// INTERNAL DATA 
+	// INTERNAL DATA
     private InputStream ins;
-    private long remaining;  
-   
+    private long remaining;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
     /**
      * Constructor.
      * @param source stream.  It will NOT be closed (even with the close method).  You need to close it when you are done.
@@ -43,72 +58,103 @@ public class LimitedInputStream extends InputStream {
      * @throws Throwable if the stream is null or the limit is less than 1.
      */
     public LimitedInputStream(InputStream source, long limit) throws Throwable {
+    	this(source, limit, null);
+    }
+
+    /**
+     * Constructor with a buffer to reuse.  The buffer belongs to the stream until it is done, so don't share it with another stream
+     * that is still in use.
+     * @param source stream.  It will NOT be closed (even with the close method).  You need to close it when you are done.
+     * @param limit the limit in bytes.
+     * @param buffer the buffer to use.  If null, one will be made.
+     * @throws Throwable if the stream is null, the limit is less than 1 or the buffer is empty.
+     */
+    public LimitedInputStream(InputStream source, long limit, byte[] buffer) throws Throwable {
     	if (source == null) ThingsException.softwareProblem("LimitedInputStream created with a null stream.");
     	if (limit < 1) ThingsException.softwareProblem("LimitedInputStream created with a limit less than one.  limit=" + limit);
+    	if (buffer == null) buffer = new byte[(int)Math.min(limit, DEFAULT_BUFFER_SIZE)];
+    	if (buffer.length < 1) ThingsException.softwareProblem("LimitedInputStream created with an empty buffer.");
         ins = source;
         remaining = limit;
+        this.buffer = buffer;
+        position = 0;
+        this.limit = 0;
     }
-    
+
 	// ================================================================================================================
-	// INPUT STREAM 
-    
+	// INPUT STREAM
+
     /**
-     * Reads the next byte of data from the input stream. The value byte is returned as an int in the range 0 to 255. 
-     * If no byte is available because the end of the stream has been reached, the value -1 is returned. This method blocks 
-     * until input data is available, the end of the stream is detected, or an exception is thrown. 
-     * @return the next byte of data, or -1 if the end of the stream is reached. 
+     * Reads the next byte of data from the input stream. The value byte is returned as an int in the range 0 to 255.
+     * If no byte is available because the end of the stream has been reached, the value -1 is returned. This method blocks
+     * until input data is available, the end of the stream is detected, or an exception is thrown.
+     * @return the next byte of data, or -1 if the end of the stream is reached.
      * @throws IOException if an I/O error occurs.
      */
     public int read() throws IOException {
-
-    	// Done or chunk?
-    	if (remaining > 0) {
-    		remaining--;
-    		return ins.read();
+    	if (position >= limit) {
+    		if (fill() < 0) return -1;
     	}
-    	return -1;
+    	return buffer[position++] & 0xff;
     }
 
     /**
-     * Reads up to len bytes of data from the input stream into an array of bytes. An attempt is made to read as many as len bytes, but a smaller number may be read. The number of bytes actually read is returned as an integer. 
+     * Reads up to len bytes of data from the input stream into an array of bytes. An attempt is made to read as many as len bytes, but a smaller number may be read. The number of bytes actually read is returned as an integer.
      * @param b the buffer into which the data is read.
      * @param off the start offset in array b  at which the data is written.
-     * @param len the maximum number of bytes to read. 
-     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached. 
-     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs. 
+     * @param len the maximum number of bytes to read.
+     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached.
+     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs.
      */
     public int read (byte[] b, int off, int len) throws IOException {
+    	if (len < 1) return 0;
+
+    	// Buffered first.
+    	if (position < limit) {
+    		int got = Math.min(len, limit - position);
+    		System.arraycopy(buffer, position, b, off, got);
+    		position += got;
+    		return got;
+    	}
+    	if ((ins == null)||(remaining < 1)) return -1;
 
-    	if (remaining > 0) {
-        	if (remaining < len) len = (int)remaining;
-            int actuallyRead = ins.read(b, off, len);
-            remaining -= actuallyRead;
-            return actuallyRead;
+    	// Big reads go straight to the caller's array.
+    	if (len >= buffer.length) {
+    		if (remaining < len) len = (int)remaining;
+    		int actuallyRead = ins.read(b, off, len);
+    		if (actuallyRead > 0) remaining -= actuallyRead;
+    		return actuallyRead;
     	}
-    	return -1;
-    
+
+    	if (fill() < 0) return -1;
+    	int got = Math.min(len, limit - position);
+    	System.arraycopy(buffer, position, b, off, got);
+    	position += got;
+    	return got;
     }
 
     /**
      * Reads some number of bytes from the input stream and stores them into the buffer array b. The number of bytes actually read is returned as an integer.
-     * This method blocks until input data is available, end of file is detected, or an exception is thrown. 
+     * This method blocks until input data is available, end of file is detected, or an exception is thrown.
      * @param b the buffer into which the data is read.
-     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached. 
-     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs. 
+     * @return  the total number of bytes read into the buffer, or -1 if there is no more data because the end of the stream has been reached.
+     * @throws If the first byte cannot be read for any reason other than end of file or if some other I/O error occurs.
      */
     public int read (byte[] b) throws IOException {
         return read(b, 0, b.length);
     }
-    
+
     /**
-     * Returns an estimate of the number of bytes that can be read (or skipped over) from this input stream without blocking by the next invocation of a method for this input stream. The next invocation might be the same thread or another thread. A single read or skip of this many bytes will not block, but may read or skip fewer bytes. 
+     * Returns an estimate of the number of bytes that can be read (or skipped over) from this input stream without blocking by the next invocation of a method for this input stream. The next invocation might be the same thread or another thread. A single read or skip of this many bytes will not block, but may read or skip fewer bytes.
  	 * @return number of bytes available.
  	 * @throws IO exception
      */
     public int 	available()  throws IOException {
-    	return ins.available();
+    	if (position < limit) return limit - position;
+    	if ((ins == null)||(remaining < 1)) return 0;
+    	return (int)Math.min(ins.available(), remaining);
     }
-    
+
     /**
      * Close the stream.  It will NOT deplete the stream.  However, all subsequent calls to reads will yield EOF and any internal
      * references to the stream will be cleared.
@@ -117,12 +163,53 @@ public class LimitedInputStream extends InputStream {
      */
     public void close() throws IOException {
     	remaining = 0;
+    	position = 0;
+    	limit = 0;
     	ins = null;
     }
 
-    
 	// ================================================================================================================
-	// INTERNAL 
- 
-   
+	// METHODS
+
+    /**
+     * Transfer the rest of the data to an output stream.  This is the cheapest way to copy or drain it.
+     * @param out the output stream.  If null, the data is just drained.
+     * @return the number of bytes transferred.
+     * @throws IOException if either stream has a problem.
+     */
+    public long transferTo(OutputStream out) throws IOException {
+    	long total = 0;
+    	if (position < limit) {
+    		if (out != null) out.write(buffer, position, limit - position);
+    		total += limit - position;
+    		position = limit;
+    	}
+    	while (fill() > 0) {
+    		if (out != null) out.write(buffer, 0, limit);
+    		total += limit;
+    		position = limit;
+    	}
+    	return total;
+    }
+
+	// ================================================================================================================
+	// INTERNAL
+
+    /**
+     * Fill the empty buffer, never reading past the limit.
+     * @return the number of bytes read or -1 if at the limit or the source is done.
+     */
+    private int fill() throws IOException {
+    	position = 0;
+    	limit = 0;
+    	if ((ins == null)||(remaining < 1)) return -1;
+    	int want = (int)Math.min(buffer.length, remaining);
+    	int actuallyRead = ins.read(buffer, 0, want);
+    	while (actuallyRead == 0) actuallyRead = ins.read(buffer, 0, want);
+    	if (actuallyRead < 0) return -1;
+    	remaining -= actuallyRead;
+    	limit = actuallyRead;
+    	return actuallyRead;
+    }
+
 }
@@ -0,0 +1,1256 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import things.common.ThingsException;
+import things.common.tools.Parallel;
+import things.data.processing.LexicalTool;
+
+/**
+ * An 822 address parser that works on a character window instead of a StreamSource.  It runs the same grammar as the AddressParser, or 
+ * as the AddressParserMSG when made forgiving, and gives the same addresses.
+ * <p>
+ * Nothing is synchronized.  An instance only keeps scratch space between calls, so one can be reused for any number of parses by a single
+ * thread.  Give each thread its own, or use parseAll(), which does that for you.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 24 MAY 10
+ * EPG - Run the slices with Parallel - 30 JUN 10
+ * </pre> 
+ */
+public class CharAddressParser extends LexicalTool {
+
+	// =========================================================================================================
+	// STATIC METHODS
+	
+	/**
+	 * Parse lists of addresses, using as many threads as there are processors.  
+	 * @param texts the address lists.  Each is parsed on its own.
+	 * @return the addresses for each list, in the same order.  A list that could not be parsed gets a null.
+	 * @throws InterruptedException
+	 * @throws ThingsException if a thread failed for something other than a bad list.
+	 */
+	static public List<List<FullAddress>> parseAll(List<String> texts) throws InterruptedException, ThingsException {
+		return parseAll(texts, false, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Parse lists of addresses.  The lists are split into contiguous runs, one per thread, and each thread has its own parser.  The
+	 * threads come from Parallel.
+	 * @param texts the address lists.  Each is parsed on its own.
+	 * @param forgiving if true, use the AddressParserMSG grammar.
+	 * @param threads the most threads to use.  1 or less means the caller's thread does it all.
+	 * @return the addresses for each list, in the same order.  A list that could not be parsed gets a null.
+	 * @throws InterruptedException
+	 * @throws ThingsException if a thread failed for something other than a bad list.
+	 */
+	static public List<List<FullAddress>> parseAll(final List<String> texts, final boolean forgiving, int threads) throws InterruptedException, ThingsException {
+		final List<FullAddress>[] results = newResults(texts.size());
+		threads = Math.min(threads, texts.size() / PARALLEL_MINIMUM);
+		
+		if (threads <= 1) {
+			new CharAddressParser(forgiving).parseRun(texts, results, 0, texts.size());
+			
+		} else {
+			Parallel.Job[] jobs = new Parallel.Job[threads];
+			int slice = (texts.size() + threads - 1) / threads;
+			for (int index = 0; index < threads; index++) {
+				final int from = index * slice;
+				final int to = Math.min(texts.size(), from + slice);
+				jobs[index] = new Parallel.Job() {
+					public void run() {
+						new CharAddressParser(forgiving).parseRun(texts, results, from, to);
+					}
+				};
+			}
+			Parallel.runAll(jobs);
+		}
+		return Arrays.asList(results);
+	}
+	
+	// =========================================================================================================
+	// DATA
+	
+	/**
+	 * Lists per thread below which parseAll() won't bother with more threads.
+	 */
+	public final static int PARALLEL_MINIMUM = 64;
+	
+	private boolean 		forgiving;
+	private char[]			chars = new char[256];
+	private int				position;
+	private int				end;
+	private StringBuilder	accumulator = new StringBuilder();
+	private AddressListener addressTarget;
+	
+	private String			REG_friendly;
+	private String			REG_address;
+	private String			REG_group;
+	private String			REG_busted;
+	private boolean			FLAG_GROUP;
+	private boolean 		FLAG_GROUP_ENDED;
+	
+	// =========================================================================================================
+	// PUBLIC METHODS
+	
+	/**
+	 * Constructor for the AddressParser grammar.
+	 */
+	public CharAddressParser() {
+	}
+	
+	/**
+	 * Constructor.
+	 * @param forgiving if true, use the AddressParserMSG grammar, which lets some broken MSG header addresses through.
+	 */
+	public CharAddressParser(boolean forgiving) {
+		this.forgiving = forgiving;
+	}
+	
+	/**
+	 * Parse a window of characters.  The characters are not changed or kept.
+	 * @param text the characters.
+	 * @param offset where to start.
+	 * @param length how many.
+	 * @param addressListener gets the addresses as they are found.
+	 * @throws ThingsException if the addresses can't be parsed or the listener fails.
+	 */
+	public void parse(char[] text, int offset, int length, AddressListener addressListener) throws ThingsException {
+		char[] saved = chars;
+		chars = text;
+		try {
+			run(offset, offset + length, addressListener);
+		} finally {
+			chars = saved;
+		}
+	}
+	
+	/**
+	 * Parse characters.
+	 * @param text the characters.
+	 * @param addressListener gets the addresses as they are found.
+	 * @throws ThingsException if the addresses can't be parsed or the listener fails.
+	 */
+	public void parse(CharSequence text, AddressListener addressListener) throws ThingsException {
+		int length = text.length();
+		if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+		if (text instanceof String) {
+			((String)text).getChars(0, length, chars, 0);
+		} else {
+			for (int index = 0; index < length; index++) chars[index] = text.charAt(index);
+		}
+		run(0, length, addressListener);
+	}
+	
+	/**
+	 * Parse characters into a list.
+	 * @param text the characters.
+	 * @return the addresses in the order found.
+	 * @throws ThingsException if the addresses can't be parsed.
+	 */
+	public List<FullAddress> parse(CharSequence text) throws ThingsException {
+		Collector collector = new Collector();
+		parse(text, collector);
+		return collector.addresses;
+	}
+	
+	// =========================================================================================================
+	// PRIVATE ENGINE	
+	
+	/**
+	 * Run the grammar over chars from start to finish.  See AddressParser for the grammar.  The forgiving changes are marked in the 
+	 * reductions.
+	 */
+	private void run(int start, int finish, AddressListener addressListener) throws ThingsException {
+		position = start;
+		end = finish;
+		addressTarget = addressListener;
+		try {
+			START();
+		} finally {
+			addressTarget = null;
+		}
+	}
+	
+	/**
+	 * Parse a run of lists for parseAll.
+	 */
+	private void parseRun(List<String> texts, List<FullAddress>[] results, int from, int to) {
+		for (int index = from; index < to; index++) {
+			try {
+				results[index] = parse(texts.get(index));
+			} catch (Throwable t) {
+				results[index] = null;
+			}
+		}
+	}
+	
+	@SuppressWarnings({"unchecked","rawtypes"})
+	private static List<FullAddress>[] newResults(int size) {
+		return new List[size];
+	}
+	
+	// == REDUCTIONS ===================================================================
+	
+	private void START() throws ThingsException {
+		while (position < end) {
+			REG_friendly = null;
+			REG_address = null;
+			REG_group = null;
+			REG_busted = null;
+			FLAG_GROUP = false;
+			FLAG_GROUP_ENDED = false;
+			accumulator.setLength(0);
+			OPEN();		
+		}
+	}
+	
+//	[OPEN]	
+//		- WS, COMMA	- burn
+//		- CHAR		- push, [ACCUMULATE], ^RETURN^
+//		- OPENPAREN	- push, [GATHERCOMMENT]
+//		- QUOTE		- push, [GATHERQUOTE], [ACCUMULATE], ^RETURN^
+//		- LT		- [LTADDRESS], ^RETURN^	
+//		- SEMICOLON	- if (true = $FLAG_GROUP) then 
+//					pop->$ADDRESS, [SUBMIT], false->$FLAG_GROUP_ENDED, ^RETURN^
+//				  else
+//				  	error(Character not allowed in DN.)
+//		- |SPECIAL|	- error(meaningless and unquoted special)
+//		- !OTHER!	- error(character not allowed in open)
+//		- EOF		- ^EXIT^
+//
+//		-> ($FLAG_GROUP_ENDED = true)	- false->$FLAG_GROUP_ENDED, ^RETURN^
+	private void OPEN() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];
+			switch(name(character)) {
+			
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+			case SPECIAL_COMMA:	// burn 
+				break;
+				
+			case CHAR: case CHAR_DNSCHAR_POUND: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR:
+				accumulator.append((char)character); 
+				ACCUMULATE();
+				return;
+				
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+			
+			case SPECIAL_QUOTE:				
+				accumulator.append((char)character); 
+				GATHERQUOTE();
+				ACCUMULATE();
+				return;
+				
+			case SPECIAL_LT:
+				LTADDRESS();
+				return;
+				
+			case SPECIAL_SEMICOLON:
+				if (FLAG_GROUP ==  true) {
+					REG_address = pop(); SUBMIT(); FLAG_GROUP_ENDED = false;
+				} else {
+					error("Character not allowed in DN.");
+				}
+				return;
+				
+			case SPECIAL_AT:
+				if (forgiving) SLURP();
+				else error("meaningless and unquoted special.");
+				break;
+				
+			case SPECIAL_CLOSEPAREN: case SPECIAL_COLON:
+			case SPECIAL_GT: case SPECIAL_OPENBRACK: case SPECIAL_BACKSLASH: case SPECIAL_CLOSEBRACK:
+				error("meaningless and unquoted special.");
+				break;
+				
+			default:
+				error("character not allowed in OPEN.  character=" + character);
+			break;			
+				
+			}	// end switch
+
+			if (FLAG_GROUP_ENDED == true) {
+				FLAG_GROUP_ENDED = false;
+				return;
+			}
+		}	
+	} // END OPEN()
+	
+//	[ACCUMULATE]
+//		- CHAR		- push
+//		- COMMA		- pop->$ADDRESS, submit, ^RETURN^
+//		- QUOTE		- push, [GATHERQUOTE]
+//		- OPENPAREN	- push, [GATHERCOMMENT]
+//		- AT		- push, [NAKED_ADDRESS_DN_ONLY], ^RETURN^
+//		- LT		- pop->$FRIENDLY, [LTADDRESS], ^RETURN^
+//		- WS		- push(SPACE), [ACCUMULATE_WITH_WS], ^RETURN^
+//		- COLON		- [GROUP], ^RETURN^
+//		- |SPECIAL|	- error(unquoted special)
+//		- !OTHER!	- error(character not allowed in open)
+//		- EOF		- pop->$ADDRESS, submit, ^RETURN^
+	private void ACCUMULATE() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+			
+			case CHAR: case CHAR_DNSCHAR: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR_POUND:  case SPECIAL_CHAR_DNSCHAR_DOT:
+				accumulator.append((char)character); 
+				break;
+				
+			case SPECIAL_COMMA:
+				REG_address = pop(); SUBMIT(); 
+				return;
+				
+			case SPECIAL_QUOTE:				
+				accumulator.append((char)character); 
+				GATHERQUOTE();
+				break;
+				
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+				
+			case SPECIAL_AT:
+				accumulator.append((char)character);
+				NAKED_ADDRESS_DN_ONLY();
+				return;
+				
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				accumulator.append(' ');				
+				ACCUMULATE_WITH_WS();
+				return;
+			
+			case SPECIAL_LT: 
+				REG_friendly = pop();
+				LTADDRESS();
+				return;
+				
+			case SPECIAL_COLON:
+				GROUP(); 
+				return;
+						
+			case SPECIAL_BACKSLASH:
+				if (!forgiving) error("meaningless and unquoted special.");
+				accumulator.append((char)character); 
+				FRIENDLY_ESCAPE();
+				FRIENDLY();
+				return;
+				
+			case SPECIAL_CLOSEPAREN: 
+			case SPECIAL_SEMICOLON: case SPECIAL_GT: case SPECIAL_OPENBRACK: case SPECIAL_CLOSEBRACK:
+				error("meaningless and unquoted special.");
+				break;
+				
+			default:
+				error("character not allowed in open.  character=" + character);
+			break;						
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		REG_address = pop(); SUBMIT();
+	} // end ACCUMULATE
+	
+	
+	// [ACCUMULATE_WITH_WS]
+	//	- CHAR		- push, [FRIENDLY], ^RETURN^
+	//	- COLON		- [GROUP], ^RETURN^
+	//	- COMMA		- pop->$ADDRESS, [SUBMIT], ^RETURN^
+	//	- OPENPAREN	- push, [GATHERCOMMENT]
+	//	- AT		- error(bad address with unquoted whitespace)
+	//	- WS		- push(SPACE)
+	//	- GT		- pop->$FRIENDLY, [LTADDRESS], ^RETURN^
+	//	- |SPECIAL|	- error(unquoted special)
+	//	- !OTHER!	- error(character not allowed in open)
+	//  - EOF		- pop->$ADDRESS, [SUBMIT], ^RETURN^
+	private void ACCUMULATE_WITH_WS() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {	
+			
+			case CHAR: case CHAR_DNSCHAR: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR_POUND: case SPECIAL_CHAR_DNSCHAR_DOT:
+				accumulator.append((char)character); 
+				FRIENDLY();
+				return;	
+				
+			case SPECIAL_COLON:
+				GROUP(); 
+				return;			
+			
+			case SPECIAL_COMMA:
+				REG_address = pop(); SUBMIT(); 
+				return;
+				
+			case SPECIAL_QUOTE:				
+				accumulator.append((char)character); 
+				GATHERQUOTE();
+				break;				
+				
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+				
+			case SPECIAL_AT:
+				error("bad address with unquoted whitespace");
+				break;
+				
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				accumulator.append(' ');
+				break;
+				
+			case SPECIAL_LT: 
+				REG_friendly = pop();
+				LTADDRESS();
+				return;
+								
+			case SPECIAL_CLOSEPAREN:
+			case SPECIAL_SEMICOLON: case SPECIAL_GT: case SPECIAL_OPENBRACK: case SPECIAL_BACKSLASH: case SPECIAL_CLOSEBRACK:
+				error("unquoted special.");
+				break;
+				
+			default:
+				error("character not allowed in open (friendly).  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		REG_address = pop(); SUBMIT(); 
+		return;
+	} // end ACCUMULATE_WITH_WS
+	
+	// [FRIENDLY]
+	//  - CHAR		- push
+	//	- AT		- push
+	//	- COLON		- [GROUP], ^RETURN^
+	//	- COMMA		- error(no address present)
+	//	- OPENPAREN	- push, [GATHERCOMMENT]
+	//	- WS		- push(SPACE)
+	//	- LT		- pop->$FRIENDLY, [LTADDRESS], ^RETURN^
+	//	- |SPECIAL|	- error(unquoted special)
+	//	- !OTHER!	- error(character not allowed in open)
+	//	- EOF		- error(no address)
+	private void FRIENDLY() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {	
+			
+			case CHAR: case CHAR_DNSCHAR: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR_POUND: case SPECIAL_CHAR_DNSCHAR_DOT:
+			case SPECIAL_AT:
+				accumulator.append((char)character); 
+				break;	
+				
+			case SPECIAL_COLON:
+				GROUP(); 
+				return;			
+			
+			case SPECIAL_COMMA:
+				if (!forgiving) error("bad address");
+				accumulator.append((char)character); 
+				break;
+				
+			case SPECIAL_BACKSLASH:
+				if (!forgiving) error("unquoted special.");
+				accumulator.append((char)character); 
+				FRIENDLY_ESCAPE();
+				break;
+
+			case SPECIAL_QUOTE:				
+				accumulator.append((char)character); 
+				GATHERQUOTE();
+				break;
+				
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+				
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				accumulator.append(' ');
+				break;
+				
+			case SPECIAL_LT: 
+				REG_friendly = pop();
+				LTADDRESS();
+				return;
+								
+			case SPECIAL_CLOSEPAREN: 
+			case SPECIAL_SEMICOLON: case SPECIAL_GT: case SPECIAL_OPENBRACK: case SPECIAL_CLOSEBRACK:
+				error("unquoted special.");
+				break;
+				
+			default:
+				error("character not allowed in unquoted friendly.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		if (!forgiving) error("no address found");
+	} // end FRIENDLY
+	
+	
+	//[FRIENDLY_ESCAPE]  (forgiving only)
+	//	- !OTHER!	- push, ^RETURN^
+	//	- EOF		- error(no address)
+	private void FRIENDLY_ESCAPE() throws ThingsException {
+		if (position < end) {
+			accumulator.append(chars[position++]);
+		} else {
+			// EOF
+			error("comment left dangling.");
+		}
+	}
+	
+	// [LTADDRESS]
+	// ->[LT_FRONT_ADDRESS_OPEN]
+	// -> NULL->$FRIENDLY
+	// ->^RETURN^		
+	private void LTADDRESS() throws ThingsException {
+		LT_FRONT_ADDRESS_OPEN();
+		REG_friendly = null;
+	}
+
+	// [LT_FRONT_ADDRESS_OPEN]
+	// 	- WS		- burn
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- CHAR		- push, [FRONT_ADDRESS_NORMAL], ^RETURN^
+	// 	- QUOTE		- push, [LT_FRONT_ADDRESS_QUOTED], ^RETURN^
+	// 	- !OTHER!	- error(Not allowed character)
+	//	- EOF		- error(no address)	
+	private void LT_FRONT_ADDRESS_OPEN() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {	
+			
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;			
+			
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+				
+			case CHAR: case CHAR_DNSCHAR: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR_POUND: case SPECIAL_CHAR_DNSCHAR_DOT:
+				accumulator.append((char)character); 
+				LT_FRONT_ADDRESS_NORMAL();
+				return;				
+				
+			case SPECIAL_QUOTE:				
+				accumulator.append((char)character); 
+				LT_FRONT_ADDRESS_QUOTED();
+				return;			
+				
+			default:
+				error("character not allowed unquoted in address.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("no address found");
+	}
+	
+	// [LT_FRONT_ADDRESS_NORMAL]
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- CHAR		- push
+	// 	- AT		- push, [LT_ADDRESS_DN_ONLY], ^RETURN^
+	//  - WS		- [LT_CLOSE_ONLY], ^RETURN^
+	//  - GT		- pop->$ADDRESS, [SUBMIT], [EXPECT_SEPERATOR_OR_EOF], ^RETURN^	
+	// 	- !OTHER!	- error(Character not allowed in name.)
+	// 	- EOF		- error(no address)
+	private void LT_FRONT_ADDRESS_NORMAL() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+			
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+				
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				LT_CLOSE_ONLY();
+				return;
+				
+			case SPECIAL_GT:
+				REG_address = pop();
+				SUBMIT();
+				EXPECT_SEPERATOR_OR_EOF();
+				return;						
+				
+			case CHAR: case CHAR_DNSCHAR: case CHAR_DNSCHAR_NUMERIC: case CHAR_DNSCHAR_POUND: case SPECIAL_CHAR_DNSCHAR_DOT:
+				accumulator.append((char)character); 
+				break;				
+				
+			case SPECIAL_AT:				
+				accumulator.append((char)character); 
+				LT_ADDRESS_DN_ONLY();
+				return;			
+				
+			default:
+				if (forgiving && ((character == ':')||(character == ';'))) accumulator.append((char)character);
+				else error("character not allowed in name.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("no address found");
+	}	
+	
+	//	[LT_CLOSE_ONLY]
+	//		- GT		- pop->$ADDRESS, [SUBMIT], [EXPECT_SEPERATOR_OR_EOF], ^RETURN^
+	// 		- !OTHER!	- push, [BUSTEDBRACKETADDRESS], ^RETURN^
+	//		- WS		- burn
+	//		- EOF		- error(must close a non-DN address)
+	private void LT_CLOSE_ONLY() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+						
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;
+				
+			case SPECIAL_GT:
+				REG_address = pop();
+				SUBMIT();
+				EXPECT_SEPERATOR_OR_EOF();
+				return;							
+				
+			default:
+				accumulator.append((char)character); 
+				BUSTEDBRACKETADDRESS();
+				return;
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("must close a non-DN address");
+	}	
+	
+	// [LT_FRONT_ADDRESS_QUOTED]
+	// -> [GATHERQUOTE]
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- AT		- push, [LT_ADDRESS_DN_ONLY], ^RETURN^
+	// 	- !OTHER!	- error(broken quoted against @ in address)
+	// 	- EOF		- error(no address)
+	private void LT_FRONT_ADDRESS_QUOTED() throws ThingsException {
+		GATHERQUOTE();
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+			
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+					
+			case SPECIAL_AT:				
+				accumulator.append((char)character); 
+				LT_ADDRESS_DN_ONLY();
+				return;			
+				
+			default:
+				error("broken quoted against @ in address.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("no address found");
+	}	// end LT_FRONT_ADDRESS_QUOTED	
+	
+	// [LT_ADDRESS_DN_ONLY] 
+	// -> [REQUIRE_DN]
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- DNSCHAR	- push
+	//  - WS		- [SEEK_GT], pop->$ADDRESS, [SUBMIT], [EXPECT_SEPERATOR_OR_EOF], ^RETURN^
+	// 	- GT		- pop->$ADDRESS, [SUBMIT], [EXPECT_SEPERATOR_OR_EOF], ^RETURN^
+	// 	- !OTHER!	- error(Character not allowed in DN.)
+	// 	- EOF		- error(no address)
+	private void LT_ADDRESS_DN_ONLY() throws ThingsException {
+		REQUIRE_DN();
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(dnsType(character)) {	
+			
+			case DNSCHAR:
+				accumulator.append((char)character); 
+				break;	
+				
+			case BREAKING:
+				switch(name(character)) {
+				case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+					SEEK_GT();
+					REG_address = pop();
+					SUBMIT();
+					EXPECT_SEPERATOR_OR_EOF();
+					return;	
+					
+				case SPECIAL_GT:
+					REG_address = pop();
+					SUBMIT();
+					if (!forgiving) EXPECT_SEPERATOR_OR_EOF();
+					return;			
+				
+				case SPECIAL_OPENPAREN:
+					accumulator.append((char)character); 
+					GATHERCOMMENT();
+					break;
+					
+				default:
+					if (forgiving && ((character == ':')||(character == ';'))) accumulator.append((char)character);
+					else error("character not allowed in DN.  character=" + character);
+				break;		
+					
+				} // end internal switch
+				break;
+							
+			default:
+				if (forgiving && (character == '\'')) accumulator.append((char)character);
+				else error("character not allowed in DN.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("address specification left dangling with closing '>'.");
+	} // end LT_ADDRESS_DN_ONLY
+	
+	// [NAKED_ADDRESS_DN_ONLY] 
+	// -> [REQUIRE_DN]
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- DNSCHAR	- push
+	//  - SEMICOLON	- if (true = $FLAG_GROUP) then 
+	//                  pop->$ADDRESS, [SUBMIT], true->FLAG_GROUP_ENDED, ^RETURN^
+    //                else
+  	//                  error(Character not allowed in DN.)
+	// 	- COMMA		- pop->$ADDRESS, [SUBMIT],	^RETURN^
+	//  - WS		- pop->$ADDRESS, [MAYBE_NOT_AN_ADDRES], ^RETURN^
+	// 	- !OTHER!	- error(Character not allowed in DN.)
+	// 	- EOF		-  pop->$ADDRESS, [SUBMIT], ^RETURN^
+	//
+	private void NAKED_ADDRESS_DN_ONLY() throws ThingsException {
+		REQUIRE_DN();
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(dnsType(character)) {	
+			
+			case DNSCHAR:
+				accumulator.append((char)character); 
+				break;	
+				
+			case BREAKING:
+				switch(name(character)) {
+
+				case SPECIAL_OPENPAREN:
+					accumulator.append((char)character); 
+					GATHERCOMMENT();
+					break;
+				
+				case SPECIAL_COMMA:
+					REG_address = pop();
+					SUBMIT();
+					return;	
+					
+				case SPECIAL_SEMICOLON:
+					if (FLAG_GROUP ==  true) {
+						REG_address = pop(); SUBMIT(); FLAG_GROUP_ENDED = true;
+					} else {
+						error("Character not allowed in DN.");
+					}
+					return;					
+					
+				case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+					MAYBE_NOT_AN_ADDRESS();
+					return;	
+
+				default:
+					error("character not allowed in DN.  character=" + character);
+					break;				
+				} // end switch
+				break;
+					
+			default:
+				if (forgiving && (character == '\'')) accumulator.append((char)character);
+				else error("character not allowed in DN.  character=" + character);
+			break;				
+			} // end switch
+		} // end while
+		
+		// EOF
+		REG_address = pop();
+		SUBMIT();
+	} // end NAKED_ADDRESS_DN_ONLY
+	
+	//	[MAYBE_NOT_AN_ADDRESS]
+	//		- OPENPAREN	- push, [GATHERCOMMENT], [FRIENDLY], ^RETURN^
+	//		- WS 		- burn
+	//		- SEMICOLON	- if (true = $FLAG_GROUP) then 
+	//				     pop->$ADDRESS, [SUBMIT], true->FLAG_GROUP_ENDED, ^RETURN^
+	//			          else
+	//			  	     error(Group teminator when group not defined.)
+	//		- LT		- pop->$FRIENDLY, [LTADDRESS], [EXPECT_SEPERATOR_OR_EOF], ^RETURN^
+	//		- COMMA		- pop->$ADDRESS, [SUBMIT], ^RETURN^
+	//		- EOF		- pop->$ADDRESS, [SUBMIT], ^RETURN^
+	//		- QUOTE		- push, [GATHERQUOTE], [FRIENDLY], ^RETURN^	
+	//		- CHAR		- push, [FRIENDLY], ^RETURN^	
+	//		- !OTHER!	- error(addresses not delimited.)
+	private void MAYBE_NOT_AN_ADDRESS() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+			
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				FRIENDLY();
+				break;
+				
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;
+			
+			case SPECIAL_SEMICOLON:
+				if (FLAG_GROUP ==  true) {
+					REG_address = pop(); SUBMIT(); FLAG_GROUP_ENDED = true;
+				} else {
+					error("Character not allowed in DN.");
+				}
+				return;	
+			
+			case SPECIAL_LT:
+				REG_friendly = pop();
+				LTADDRESS();
+				EXPECT_SEPERATOR_OR_EOF();
+				return;
+					
+			case SPECIAL_COMMA:				
+				REG_address = pop();
+				SUBMIT();
+				return;
+
+			case SPECIAL_QUOTE:
+				accumulator.append((char)character); 	
+				GATHERQUOTE();
+				FRIENDLY();
+				return;
+				
+			default:
+				if (type822(character)==CHAR) {
+					accumulator.append((char)character); 		
+					FRIENDLY();
+					return;
+					
+				} else {
+					error("could not detirmine if a friendly name or address.  last address=" + REG_address);
+				}
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		REG_address = pop();
+		SUBMIT();
+		
+	} // end EXPECT_COMMA_OR_EOF
+	
+	//	[EXPECT_SEPERATOR_OR_EOF]
+	//		- WS		- burn
+	//		- OPENPAREN	- burn, [BURNCOMMENT]
+	//		- SEMICOLON	- if (true = $FLAG_GROUP) then 
+	//				    	true->FLAG_GROUP_ENDED, ^RETURN^
+	//			        else
+	//			  	    	error(Group teminator when group not defined.)
+	//		- COMMA		- ^RETURN^
+	//		- EOF		- ^RETURN^
+	//		- !OTHER!	- error(addresses not delimited.)
+	private void EXPECT_SEPERATOR_OR_EOF() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+
+			case SPECIAL_OPENPAREN:
+				BURNCOMMENT();
+				break;
+			
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;
+
+			case SPECIAL_SEMICOLON:
+				if (FLAG_GROUP ==  true) {
+					FLAG_GROUP_ENDED = true;
+				} else {
+					error("group teminator when group not defined.");
+				}
+				return;	
+				
+			case SPECIAL_COMMA:				
+				return;			
+			
+			case SPECIAL_AT:
+				if (!forgiving) error("addresses not delimited properly.  character=" + character);
+				SLURP();
+				break;
+				
+			default:
+				error("addresses not delimited properly.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+	} // end SEEK_GT
+	
+	// [BUSTEDBRACKETADDRESS]
+	//	- OPENPAREN	- push, [GATHERCOMMENT]	
+	//	- WS		- push
+	//	- GT		- pop->$BUSTED, [SUBMIT], ^RETURN^
+	//	- !OTHER!	- push
+	//	- EOF		- error(address not closed with a '>')	
+	private void BUSTEDBRACKETADDRESS() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				accumulator.append((char)character); 
+				break;
+				
+			case SPECIAL_GT:		
+				REG_busted = pop();
+				SUBMIT();
+				return;			
+				
+			default:
+				accumulator.append((char)character); 			
+				break;
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("address not closed with a '>'");
+	} // end SEEK_GT
+	
+	
+	// [SEEK_GT]
+	//  - OPENPAREN		- push, [GATHERCOMMENT]	
+	// 	- WS		- burn
+	// 	- GT		- ^RETURN^
+	// 	- !OTHER!	- error(Character not allowed after whitespace, before '>')
+	// 	- EOF		- error(address not closed with a '>')
+	private void SEEK_GT() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;
+					
+			case SPECIAL_GT:				
+				return;			
+				
+			default:
+				error("character not allowed after whitespace, before '>'.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("address not closed with a '>'");
+	} // end SEEK_GT
+	
+	// [REQUIRE_DN]
+	//  - OPENPAREN	- push, [GATHERCOMMENT]	
+	// 	- DNSCHAR	- push, ^RETURN^
+	// 	- OPENPAREN	- push, [GATHERCOMMENT]
+	// 	- !OTHER!	- error(bad domain name)
+	// 	- EOF		- error(no address)
+	private void REQUIRE_DN() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			if (dnsType(character) == DNSCHAR) {
+				accumulator.append((char)character); 
+				return; 
+			}
+			switch(name(character)) {			
+			
+			case SPECIAL_OPENPAREN:
+				accumulator.append((char)character); 
+				GATHERCOMMENT();
+				break;
+
+			case WS_SPACE: case WS_LF_CONTROL: case WS_CR_CONTROL: case WS_TAB_CONTROL:
+				break;
+					
+//			case SPECIAL_GT:				
+//				return;			
+				
+			default:
+				error("domain name was fouled by the starting character.  character=" + character);
+			break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("last address missing DN.");
+	} // end REQUIRE_DN
+	
+	// [GATHERQUOTE]
+	// 	- BACKSLASH	= burn, [ESCAPE]
+	// 	- QUOTE		= push, ^RETURN^
+	//  - !OTHER!   - push
+	// 	- EOF		- error(quote left open)
+	private void GATHERQUOTE() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+
+			case SPECIAL_BACKSLASH:
+				ESCAPE();
+				break;
+
+			case SPECIAL_QUOTE:
+				accumulator.append((char)character); 				
+				return;	
+				
+			default:
+				accumulator.append((char)character); 
+				break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("quote left open.");
+	} // end GATHERQUOTE
+	
+	// [ESCAPE]
+	// 	- ASCII 	= push, ^RETURN^
+	// 	- EOF		- error(escape left open)
+	private void ESCAPE() throws ThingsException {
+		if (position < end) {
+			accumulator.append(chars[position++]); 	
+		} else {
+			// EOF
+			error("quote left open.");		
+		}
+	} // end GATHERQUOTE
+	
+	// [BURNCOMMENT]
+	// 	- CLOSEPAREN	= ^RETURN^
+	// 	- !OTHER!	= burn
+	// 	- EOF		- error(comment left dangling.)
+	private void BURNCOMMENT() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			if (name(character)==SPECIAL_CLOSEPAREN) return;
+		} // end while
+		
+		// EOF
+		error("comment left dangling.");
+	} // end BURNCOMMENT
+	
+	// [SLURP]  (forgiving only)
+	// 	- WS,COMMA,EOF	= ^RETURN^
+	// 	- !OTHER!	= burn
+	private void SLURP() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {
+			case SPECIAL_COMMA:
+			case WS_SPACE:
+				return;
+			}
+		} // end while
+		
+		// EOF
+	} // end SLURP
+	
+	// [GATHERCOMMENT]
+	// 	- CLOSEPAREN	= push, ^RETURN^
+	// 	- BACKSLASH	= burn, [ESCAPE]
+	// 	- !OTHER!	= push
+	// 	- EOF		- error(comment left dangling.)
+	private void GATHERCOMMENT() throws ThingsException {
+		int character;
+		while (position < end) {
+			character = chars[position++];	
+			switch(name(character)) {			
+			
+			case SPECIAL_CLOSEPAREN:
+				accumulator.append((char)character); 
+				return;
+
+			case SPECIAL_BACKSLASH:
+				ESCAPE();
+				break;
+				
+			default:
+				accumulator.append((char)character); 
+				break;		
+				
+			} // end switch
+		} // end while
+		
+		// EOF
+		error("comment left dangling.");
+	} // end GATHERCOMMENT
+	
+	// [GROUP]
+	// -> if($FLAG_COLON=true, error(cannot imbed groups)), 
+	// -> pop->$GROUP, 
+	// -> true->$FLAG_GROUP, 
+	// -> [OPEN], 
+	// -> NULL->$GROUP, 
+	// ->false->$FLAG_GROUP,
+	private void GROUP() throws ThingsException {
+		
+		if (FLAG_GROUP == true) error("cannot imbed groups");
+		REG_group = pop();
+		FLAG_GROUP = true;
+		OPEN();
+		REG_group = null;
+		FLAG_GROUP = false;		
+	}
+	
+	// [SUBMIT]
+	// -> submit($GROUP, $FRIENDLY, $ADDRESS)
+	// -> NULL->$FRIENDLY
+	// -> NULL->$ADDRESS
+	private void SUBMIT() throws ThingsException {
+		try {
+			addressTarget.push(REG_address, REG_friendly, REG_group, REG_busted);
+		} catch (Throwable t) {
+			throw new ThingsException("Address listener failed.", ThingsException.PROCESSOR_ADDRESS_FAILED, t);
+		}
+		REG_friendly = null;
+		REG_address = null;
+		REG_busted = null;
+	}
+	
+	// == TOOLS ===================================================================
+	
+	/**
+	 * Throw an error with consistent formatting.
+	 * @param text the text of the error.	
+	// == TOOLS ===================================================================
+	
+	/**
+	 * Throw an error with consistent formatting.
+	 * @param text the text of the error.
+	 * @throws ThingsException
+	 */
+	private void error(String text) throws ThingsException {
+		throw new ThingsException("Parsing: " + text + " acc=" + accumulator.toString(), ThingsException.PROCESSOR_ADDRESS_FAILED);
+	}
+
+	/**
+	 * Pop the accumulator.  The accumulator will be empty when this is done.
+	 * @return the contents of the accumulator.
+	 */
+	private String pop() {
+		String result = accumulator.toString();
+		accumulator.setLength(0);
+		return result;
+	}
+	
+	/**
+	 * The lexical lookups, without the exception for characters off the map.
+	 */
+	private static int name(int character) {
+		return (character < LEXICAL_MAP.length) ? LEXICAL_MAP[character][LEXICAL_MAP_NAME] : BAD;
+	}
+	
+	private static int type822(int character) {
+		return (character < LEXICAL_MAP.length) ? LEXICAL_MAP[character][LEXICAL_MAP_822_TYPE] : BAD;
+	}
+
+	private static int dnsType(int character) {
+		return (character < LEXICAL_MAP.length) ? LEXICAL_MAP[character][LEXICAL_MAP_DNS_TYPE] : BAD;
+	}
+	
+	/**
+	 * Collects addresses into a list.
+	 */
+	private static class Collector implements AddressListener {
+		ArrayList<FullAddress> addresses = new ArrayList<FullAddress>();
+		
+		public void push(String address, String friendly, String group, String busted) {
+			addresses.add(new FullAddress(address, friendly, group, busted));
+		}
+		
+		public boolean add(FullAddress item) {
+			addresses.add(item);
+			return true;
+		}
+	}
+	
+}
@@ -0,0 +1,772 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import things.common.ThingsException;
+import things.data.processing.LexicalTool;
+
+/**
+ * A window based, single pass header engine for RFC822 and HTTP headers.  It replaces the HeaderProcessor, HeaderProcessorv2 and
+ * HeaderProcessorv3.<p>
+ * Like the HttpHeadParser, it only records offsets into a byte[] (or ByteBuffer) window.  Nothing becomes a String until someone
+ * asks for it, so a value is available as a zero-copy slice (getWindow(), getHeaderValueOffset() and getHeaderValueLength()).
+ * Folded lines are joined into the field they continue.  The head ends at the first empty line.  Bare LF line ends are tolerated.<p>
+ * Names you care about are declared with an id.  They are kept in a hash table keyed on the lowercase name, and the table is grown
+ * until no two declared names share a slot, so matching a field costs one hash (computed while looking for the colon) and one
+ * compare.  Field names are not case sensitive, as RFC822 says.<p>
+ * The window may be fed a little at a time.  If parse() returns false, add more data to the same window and call it again with
+ * the longer length--it will pick up at the first unfinished line.  If the data ends without an empty line, finish() will close
+ * the head anyway.<p>
+ * It is NOT synchronized.  Keep an instance confined to one thread and reset() it between heads.  Declarations are kept by reset().
+ * This implementation assumes 8-bit characters throughout the head.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 26 MAY 10
+ * </pre>
+ */
+public class HeaderEngine {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * Largest head we will accept, unless told otherwise.
+	 */
+	public final static int DEFAULT_MAX_HEAD_SIZE = 65536;
+
+	/**
+	 * The id for a field whose name wasn't declared.  Declared ids must be larger.
+	 */
+	public final static int UNDECLARED = 0;
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static int FIELD_NAME_START = 0;
+	private final static int FIELD_NAME_END = 1;
+	private final static int FIELD_VALUE_START = 2;
+	private final static int FIELD_VALUE_END = 3;
+	private final static int FIELD_ID = 4;
+	private final static int FIELD_SLOTS = 5;
+	private final static int INITIAL_FIELDS = 32;
+	private final static int INITIAL_SCRATCH = 2048;
+	private final static int MAX_TABLE_SIZE = 4096;
+	private final static int NO_OFFSET = -1;
+	private final static int FNV_BASIS = 0x811c9dc5;
+	private final static int FNV_PRIME = 0x01000193;
+
+	// Declarations
+	private ArrayList<byte[]> names = new ArrayList<byte[]>();
+	private ArrayList<Integer> ids = new ArrayList<Integer>();
+	private int[] table;
+	private int[] tableIds;
+	private int tableMask;
+
+	// Window
+	private byte[] window;
+	private int windowStart;
+	private int windowLimit;
+	private int scan;
+	private int headEnd;
+	private boolean done;
+	private int maxHeadSize;
+
+	// Offsets
+	private int[] fields;
+	private boolean[] folded;
+	private int fieldCount;
+
+	// Reusable work areas
+	private byte[] scratch;
+	private char[] chars;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Construct with the default max head size.
+	 */
+	public HeaderEngine() {
+		this(DEFAULT_MAX_HEAD_SIZE);
+	}
+
+	/**
+	 * Construct.
+	 * @param maxHeadSize the largest head allowed.  Anything larger will fault.
+	 */
+	public HeaderEngine(int maxHeadSize) {
+		this.maxHeadSize = maxHeadSize;
+		fields = new int[INITIAL_FIELDS * FIELD_SLOTS];
+		folded = new boolean[INITIAL_FIELDS];
+		chars = new char[INITIAL_SCRATCH];
+		table = new int[1];
+		tableIds = new int[1];
+		reset();
+	}
+
+	// ================================================================================================================
+	// DECLARATIONS
+
+	/**
+	 * Declare a header name.  Fields with this name will get the id.  Declaring the same name again changes its id.
+	 * Fields that are already parsed keep the ids they had.
+	 * @param name the header name without the colon.  It is not case sensitive.
+	 * @param id the id.  It must be larger than UNDECLARED.
+	 * @throws ThingsException if the name or id is bad.
+	 */
+	public void declare(String name, int id) throws ThingsException {
+		if ((name==null)||(name.length() < 1)) ThingsException.softwareProblem("Empty name passed to HeaderEngine.declare");
+		if (id <= UNDECLARED) ThingsException.softwareProblem("HeaderEngine ids must be larger than UNDECLARED.  name=" + name);
+
+		byte[] lowered = new byte[name.length()];
+		for (int index = 0; index < lowered.length; index++) {
+			if (name.charAt(index) > 0xff) ThingsException.softwareProblem("HeaderEngine names must be 8-bit.  name=" + name);
+			lowered[index] = (byte)lower(name.charAt(index));
+		}
+		for (int index = 0; index < names.size(); index++) {
+			if (same(names.get(index), lowered)) {
+				ids.set(index, id);
+				build();
+				return;
+			}
+		}
+		names.add(lowered);
+		ids.add(id);
+		build();
+	}
+
+	/**
+	 * Get the id for a name.  The match is not case sensitive.
+	 * @param name the header name without the colon.
+	 * @return the id or UNDECLARED.
+	 */
+	public int getDeclaredId(String name) {
+		int hash = FNV_BASIS;
+		int character;
+		for (int index = 0; index < name.length(); index++) {
+			character = name.charAt(index);
+			if (character > 0xff) return UNDECLARED;
+			hash = (hash ^ lower(character)) * FNV_PRIME;
+		}
+		int slot = slot(hash);
+		byte[] candidate;
+		while (table[slot] != 0) {
+			candidate = names.get(table[slot] - 1);
+			if (candidate.length == name.length()) {
+				int index = 0;
+				while ((index < candidate.length)&&((candidate[index] & 0xff) == lower(name.charAt(index)))) index++;
+				if (index == candidate.length) return tableIds[slot];
+			}
+			slot = (slot + 1) & tableMask;
+		}
+		return UNDECLARED;
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Reset the engine so it can take a new head.  It does not release the work areas or forget the declarations.
+	 */
+	public void reset() {
+		window = null;
+		windowStart = 0;
+		windowLimit = 0;
+		scan = 0;
+		headEnd = NO_OFFSET;
+		done = false;
+		fieldCount = 0;
+	}
+
+	/**
+	 * Parse a head out of the window.  If the same window and offset were given to the previous call, it'll resume
+	 * where it left off.  Anything else starts over.  The window must not be changed between the offset and the
+	 * previous length while resuming or the head is complete.
+	 * @param data the window.
+	 * @param offset where the head starts in the window.
+	 * @param length how many bytes are currently in the window, starting at the offset.
+	 * @return true if the head is complete, false if it needs more data.
+	 * @throws ThingsException for malformed heads (GENERAL_PARSER_ERROR) or heads that are too large (GENERAL_PARSER_FAULT).
+	 */
+	public boolean parse(byte[] data, int offset, int length) throws ThingsException {
+		if (data==null) ThingsException.softwareProblem("Null window passed to HeaderEngine.parse");
+		if ((data != window)||(offset != windowStart)) {
+			reset();
+			window = data;
+			windowStart = offset;
+			scan = offset;
+		}
+		if (done) return true;
+
+		int limit = offset + length;
+		windowLimit = limit;
+		int lf;
+		while (true) {
+
+			// Find a complete line
+			lf = scan;
+			while ((lf < limit)&&(window[lf] != LexicalTool.WS_LF_CONTROL)) lf++;
+			if (lf >= limit) {
+				if ((limit - windowStart) > maxHeadSize) fault("Head exceeds maximum size of " + maxHeadSize);
+				return false;
+			}
+			if (line(lf)) return true;
+			scan = lf + 1;
+		}
+	}
+
+	/**
+	 * Parse a head out of a buffer.  Heap buffers are parsed in place.  Direct buffers are copied into a reusable work area.
+	 * When the head is complete, the buffer position is moved to the first byte after it.  Otherwise, the position is
+	 * left alone so more data can be added and the call repeated.
+	 * @param buffer the buffer.  The data between the position and the limit is used.
+	 * @return true if the head is complete, false if it needs more data.
+	 * @throws ThingsException for malformed or oversized heads.
+	 */
+	public boolean parse(ByteBuffer buffer) throws ThingsException {
+		if (buffer==null) ThingsException.softwareProblem("Null buffer passed to HeaderEngine.parse");
+		boolean result;
+		if (buffer.hasArray()) {
+			result = parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (result) buffer.position(headEnd - buffer.arrayOffset());
+
+		} else {
+			int size = buffer.remaining();
+			ensureScratch(size);
+			int mark = buffer.position();
+			buffer.get(scratch, 0, size);
+			buffer.position(mark);
+			result = parse(scratch, 0, size);
+			if (result) buffer.position(mark + headEnd);
+		}
+		return result;
+	}
+
+	/**
+	 * The data has ended.  Close the head even though there was no empty line.  An unfinished last line is taken as a
+	 * field.  The head end will be the end of the data.
+	 * @throws ThingsException if the last line is malformed.
+	 */
+	public void finish() throws ThingsException {
+		if (done) return;
+		if (window==null) ThingsException.softwareProblem("HeaderEngine.finish called before parse.");
+		if (scan < windowLimit) line(windowLimit);
+		headEnd = windowLimit;
+		scan = windowLimit;
+		done = true;
+	}
+
+	/**
+	 * Read a head from a stream into the engine's own window.  If the stream supports mark (like a BufferedInputStream),
+	 * it will read in blocks and then put back anything past the head.  Otherwise, it will have to read a byte at a time
+	 * so it doesn't eat the body.  If the stream ends before an empty line, the head is closed with finish().
+	 * @param ins the stream.
+	 * @throws ThingsException for malformed or oversized heads.
+	 * @throws IOException if the stream has a problem.  EOFException if it ends before anything is read.
+	 */
+	public void readHead(InputStream ins) throws ThingsException, IOException {
+		if (ins==null) ThingsException.softwareProblem("Null stream passed to HeaderEngine.readHead");
+		reset();
+		ensureScratch(INITIAL_SCRATCH);
+		int filled = 0;
+		int got;
+
+		if (ins.markSupported()) {
+			ins.mark(maxHeadSize + 1);
+			while (true) {
+				if (filled >= scratch.length) ensureScratch(scratch.length * 2);
+				got = ins.read(scratch, filled, scratch.length - filled);
+				if (got < 0) break;
+				filled += got;
+				if (parse(scratch, 0, filled)) {
+					ins.reset();
+					skipFully(ins, headEnd);
+					return;
+				}
+			}
+
+		} else {
+			while (true) {
+				got = ins.read();
+				if (got < 0) break;
+				if (filled >= scratch.length) ensureScratch(scratch.length * 2);
+				scratch[filled++] = (byte)got;
+				if ((got == LexicalTool.WS_LF_CONTROL)&&(parse(scratch, 0, filled))) return;
+			}
+		}
+
+		// !EOF!
+		if (filled == 0) throw new EOFException();
+		parse(scratch, 0, filled);
+		finish();
+	}
+
+	/**
+	 * Is the head complete?
+	 * @return true if it is.
+	 */
+	public boolean isComplete() {
+		return done;
+	}
+
+	/**
+	 * Get the offset in the window of the first byte after the head.
+	 * @return the offset or -1 if the head isn't complete.
+	 */
+	public int getHeadEnd() {
+		return headEnd;
+	}
+
+	/**
+	 * Get the window being parsed.  Offsets from this engine are into this array.
+	 * @return the window.
+	 */
+	public byte[] getWindow() {
+		return window;
+	}
+
+	// ================================================================================================================
+	// FIELDS
+
+	/**
+	 * Get the number of header fields.  Repeats are counted separately.
+	 * @return the number of fields.
+	 */
+	public int getHeaderCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Get the declared id for a field.
+	 * @param index the field index.
+	 * @return the id or UNDECLARED.
+	 */
+	public int getHeaderId(int index) {
+		return fields[(index * FIELD_SLOTS) + FIELD_ID];
+	}
+
+	/**
+	 * Get a header name.
+	 * @param index the field index.
+	 * @return the name.
+	 */
+	public String getHeaderName(int index) {
+		int base = index * FIELD_SLOTS;
+		return string(fields[base + FIELD_NAME_START], fields[base + FIELD_NAME_END]);
+	}
+
+	/**
+	 * Get a header value.  Leading and trailing whitespace is removed and folded lines are joined with a single space.
+	 * @param index the field index.
+	 * @return the value.
+	 */
+	public String getHeaderValue(int index) {
+		int base = index * FIELD_SLOTS;
+		if (folded[index]) return unfold(fields[base + FIELD_VALUE_START], fields[base + FIELD_VALUE_END]);
+		return string(fields[base + FIELD_VALUE_START], fields[base + FIELD_VALUE_END]);
+	}
+
+	/**
+	 * Get the value of the first field with the name.  The match is not case sensitive.
+	 * @param name the header name without the colon.
+	 * @return the value or null if there is no such field.
+	 */
+	public String getHeaderValue(String name) {
+		int index = findHeader(name);
+		if (index < 0) return null;
+		return getHeaderValue(index);
+	}
+
+	/**
+	 * Find the first field with the name.  The match is not case sensitive and does not create any objects.
+	 * @param name the header name without the colon.
+	 * @return the field index or -1 if not found.
+	 */
+	public int findHeader(String name) {
+		for (int index = 0; index < fieldCount; index++) {
+			if (headerNameEquals(index, name)) return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the next field with a declared id.  Start with -1 and keep passing back the last result to walk repeats, like Received.
+	 * @param id the declared id.
+	 * @param after the field index to start after.
+	 * @return the field index or -1 if there are no more.
+	 */
+	public int findHeader(int id, int after) {
+		for (int index = after + 1; index < fieldCount; index++) {
+			if (fields[(index * FIELD_SLOTS) + FIELD_ID] == id) return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * Check a field's name.  The match is not case sensitive and does not create any objects.
+	 * @param index the field index.
+	 * @param name the name to check.
+	 * @return true if it matches.
+	 */
+	public boolean headerNameEquals(int index, String name) {
+		int base = index * FIELD_SLOTS;
+		int start = fields[base + FIELD_NAME_START];
+		int size = fields[base + FIELD_NAME_END] - start;
+		if (size != name.length()) return false;
+		for (int rover = 0; rover < size; rover++) {
+			if (lower(window[start + rover] & 0xff) != lower(name.charAt(rover))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Is the field value folded across lines?  If it is, the raw value bytes include the line breaks.
+	 * @param index the field index.
+	 * @return true if folded.
+	 */
+	public boolean isFolded(int index) {
+		return folded[index];
+	}
+
+	/**
+	 * Get the offset of a field name in the window.
+	 * @param index the field index.
+	 * @return the offset.
+	 */
+	public int getHeaderNameOffset(int index) {
+		return fields[(index * FIELD_SLOTS) + FIELD_NAME_START];
+	}
+
+	/**
+	 * Get the length of a field name.
+	 * @param index the field index.
+	 * @return the length.
+	 */
+	public int getHeaderNameLength(int index) {
+		int base = index * FIELD_SLOTS;
+		return fields[base + FIELD_NAME_END] - fields[base + FIELD_NAME_START];
+	}
+
+	/**
+	 * Get the offset of a field value in the window.  It's already past the leading whitespace.
+	 * @param index the field index.
+	 * @return the offset.
+	 */
+	public int getHeaderValueOffset(int index) {
+		return fields[(index * FIELD_SLOTS) + FIELD_VALUE_START];
+	}
+
+	/**
+	 * Get the raw length of a field value.  Trailing whitespace is not included.
+	 * @param index the field index.
+	 * @return the length.
+	 */
+	public int getHeaderValueLength(int index) {
+		int base = index * FIELD_SLOTS;
+		return fields[base + FIELD_VALUE_END] - fields[base + FIELD_VALUE_START];
+	}
+
+	// ================================================================================================================
+	// PRIVATE - LINES
+
+	/**
+	 * Handle the line from the scan point to the line feed (or the end of the data).
+	 * @return true if it was the empty line that ends the head.
+	 */
+	private boolean line(int lf) throws ThingsException {
+		int lineEnd = lf;
+		if ((lineEnd > scan)&&(window[lineEnd-1] == LexicalTool.WS_CR_CONTROL)) lineEnd--;
+
+		if (lineEnd == scan) {
+			headEnd = lf + 1;
+			scan = headEnd;
+			done = true;
+			return true;
+
+		} else if (isWS(window[scan])) {
+			fold(scan, lineEnd);
+
+		} else {
+			field(scan, lineEnd);
+		}
+		return false;
+	}
+
+	/**
+	 * Record a header field line.  The name is hashed on the way to the colon.
+	 */
+	private void field(int start, int end) throws ThingsException {
+		int colon = start;
+		int hash = FNV_BASIS;
+		int nameHash = hash;
+		int nameEnd = start;
+		byte character;
+		while (colon < end) {
+			character = window[colon];
+			if (character == LexicalTool.SPECIAL_COLON) break;
+			hash = (hash ^ lower(character & 0xff)) * FNV_PRIME;
+			if (!isWS(character)) {
+				nameHash = hash;
+				nameEnd = colon + 1;
+			}
+			colon++;
+		}
+		if (colon >= end) error("Header line without a colon.");
+		if (nameEnd == start) error("Header line without a name.");
+
+		if (fieldCount >= folded.length) growFields();
+		int base = fieldCount * FIELD_SLOTS;
+		fields[base + FIELD_NAME_START] = start;
+		fields[base + FIELD_NAME_END] = nameEnd;
+		fields[base + FIELD_ID] = lookup(nameHash, start, nameEnd);
+		valueBounds(base, colon + 1, end);
+		folded[fieldCount] = false;
+		fieldCount++;
+	}
+
+	/**
+	 * Fold a continuation line into the previous field.
+	 */
+	private void fold(int start, int end) throws ThingsException {
+		if (fieldCount == 0) error("Continuation line before any header.");
+		int index = fieldCount - 1;
+		int base = index * FIELD_SLOTS;
+
+		// Skip it if it is nothing but whitespace.
+		int rover = start;
+		while ((rover < end)&&(isWS(window[rover]))) rover++;
+		if (rover >= end) return;
+
+		if (fields[base + FIELD_VALUE_START] == fields[base + FIELD_VALUE_END]) {
+			// The value was empty so far; this line is the start of it.
+			valueBounds(base, rover, end);
+		} else {
+			trimEnd(base, rover, end);
+			folded[index] = true;
+		}
+	}
+
+	/**
+	 * Set the value bounds, trimming whitespace from both ends.
+	 */
+	private void valueBounds(int base, int start, int end) {
+		while ((start < end)&&(isWS(window[start]))) start++;
+		fields[base + FIELD_VALUE_START] = start;
+		trimEnd(base, start, end);
+	}
+
+	/**
+	 * Set the value end, trimming whitespace.
+	 */
+	private void trimEnd(int base, int start, int end) {
+		while ((end > start)&&(isWS(window[end-1]))) end--;
+		fields[base + FIELD_VALUE_END] = end;
+	}
+
+	/**
+	 * Make the field tables bigger.
+	 */
+	private void growFields() {
+		int[] newFields = new int[fields.length * 2];
+		System.arraycopy(fields, 0, newFields, 0, fields.length);
+		fields = newFields;
+		boolean[] newFolded = new boolean[folded.length * 2];
+		System.arraycopy(folded, 0, newFolded, 0, folded.length);
+		folded = newFolded;
+	}
+
+	// ================================================================================================================
+	// PRIVATE - NAME TABLE
+
+	/**
+	 * Build the name table.  Start at twice the number of names and double it until every name has its own slot.  If that
+	 * can't be done within MAX_TABLE_SIZE (two names with the same full hash), the lookup will probe past the collision.
+	 */
+	private void build() {
+		int[] hashes = new int[names.size()];
+		for (int index = 0; index < hashes.length; index++) hashes[index] = hash(names.get(index));
+
+		int size = 2;
+		while (size < hashes.length * 2) size = size * 2;
+		boolean clean = false;
+		while ((!clean)&&(size < MAX_TABLE_SIZE)) {
+			clean = fill(hashes, size);
+			if (!clean) size = size * 2;
+		}
+		if (!clean) fill(hashes, size);
+	}
+
+	/**
+	 * Fill a table of the given size.
+	 * @return true if no two names landed in the same slot.
+	 */
+	private boolean fill(int[] hashes, int size) {
+		table = new int[size];
+		tableIds = new int[size];
+		tableMask = size - 1;
+		boolean clean = true;
+		int slot;
+		for (int index = 0; index < hashes.length; index++) {
+			slot = slot(hashes[index]);
+			while (table[slot] != 0) {
+				clean = false;
+				slot = (slot + 1) & tableMask;
+			}
+			table[slot] = index + 1;
+			tableIds[slot] = ids.get(index);
+		}
+		return clean;
+	}
+
+	/**
+	 * Look up a name in the window.
+	 */
+	private int lookup(int hash, int start, int end) {
+		int slot = slot(hash);
+		int size = end - start;
+		byte[] candidate;
+		int index;
+		while (table[slot] != 0) {
+			candidate = names.get(table[slot] - 1);
+			if (candidate.length == size) {
+				index = 0;
+				while ((index < size)&&((candidate[index] & 0xff) == lower(window[start + index] & 0xff))) index++;
+				if (index == size) return tableIds[slot];
+			}
+			slot = (slot + 1) & tableMask;
+		}
+		return UNDECLARED;
+	}
+
+	private int slot(int hash) {
+		return (hash ^ (hash >>> 16)) & tableMask;
+	}
+
+	private static int hash(byte[] lowered) {
+		int hash = FNV_BASIS;
+		for (int index = 0; index < lowered.length; index++) {
+			hash = (hash ^ (lowered[index] & 0xff)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static boolean same(byte[] left, byte[] right) {
+		if (left.length != right.length) return false;
+		for (int index = 0; index < left.length; index++) {
+			if (left[index] != right[index]) return false;
+		}
+		return true;
+	}
+
+	// ================================================================================================================
+	// PRIVATE - TOOLS
+
+	/**
+	 * Make a String from the window.  8-bit.
+	 */
+	private String string(int start, int end) {
+		int size = end - start;
+		if (chars.length < size) chars = new char[size];
+		for (int rover = 0; rover < size; rover++) {
+			chars[rover] = (char)(window[start + rover] & 0xff);
+		}
+		return new String(chars, 0, size);
+	}
+
+	/**
+	 * Make a String from a folded value.  Each line break and the whitespace around it becomes a single space.
+	 */
+	private String unfold(int start, int end) {
+		if (chars.length < end - start) chars = new char[end - start];
+		int size = 0;
+		int character;
+		boolean breaking = false;
+		for (int rover = start; rover < end; rover++) {
+			character = window[rover] & 0xff;
+			if ((character == LexicalTool.WS_CR_CONTROL)||(character == LexicalTool.WS_LF_CONTROL)) {
+				breaking = true;
+			} else if (breaking) {
+				if (!isWS((byte)character)) {
+					while ((size > 0)&&(chars[size-1]==' ' || chars[size-1]=='\t')) size--;
+					chars[size++] = ' ';
+					chars[size++] = (char)character;
+					breaking = false;
+				}
+			} else {
+				chars[size++] = (char)character;
+			}
+		}
+		return new String(chars, 0, size);
+	}
+
+	/**
+	 * Make sure the scratch window is at least this big.  It keeps what is already there.
+	 */
+	private void ensureScratch(int size) throws ThingsException {
+		if ((scratch != null)&&(scratch.length >= size)) return;
+		if (size > maxHeadSize + INITIAL_SCRATCH) fault("Head exceeds maximum size of " + maxHeadSize);
+		byte[] newScratch = new byte[size];
+		if (scratch != null) System.arraycopy(scratch, 0, newScratch, 0, scratch.length);
+		scratch = newScratch;
+	}
+
+	/**
+	 * Skip exactly this many bytes.
+	 */
+	private static void skipFully(InputStream ins, int count) throws IOException {
+		long skipped;
+		while (count > 0) {
+			skipped = ins.skip(count);
+			if (skipped <= 0) {
+				if (ins.read() < 0) throw new EOFException();
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	private static boolean isWS(byte character) {
+		return (character == LexicalTool.WS_SPACE)||(character == LexicalTool.WS_TAB_CONTROL);
+	}
+
+	private static int lower(int character) {
+		if ((character >= 'A')&&(character <= 'Z')) return character + 32;
+		return character;
+	}
+
+	/**
+	 * Throw an error with consistent formatting and the code GENERAL_PARSER_ERROR.
+	 */
+	private void error(String text) throws ThingsException {
+		throw new ThingsException("Error: " + text, ThingsException.GENERAL_PARSER_ERROR);
+	}
+
+	/**
+	 * Throw a fault with consistent formatting and the code GENERAL_PARSER_FAULT.
+	 */
+	private void fault(String text) throws ThingsException {
+		throw new ThingsException("Fault: " + text, ThingsException.GENERAL_PARSER_FAULT);
+	}
+
+}
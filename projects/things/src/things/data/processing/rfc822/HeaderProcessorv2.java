@@ -65,8 +65,11 @@ Terms	-1	beb
  * EPG - Modified for this project - 14 FEB 05
  * EPG - Forked into a second implementation - 25 MAR 05
  * EPG - Actually fixed - 1 APRIL 06
+ * EPG - Deprecated for the HeaderEngine - 26 MAY 10
  * </pre> 
+ * @deprecated Use the HeaderEngine.  It parses the whole head in one pass over a window and doesn't need a subclass.
  */
+@Deprecated
 public abstract class HeaderProcessorv2 extends InputStream  {
 
 	// =========================================================================================
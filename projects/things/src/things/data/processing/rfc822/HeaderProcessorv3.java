@@ -60,8 +60,11 @@ Terms	-1	beb
  * EPG - Initial (part of toolkit) - 22 NOV 02
  * EPG - Modified for this project - 14 FEB 05
  * EPG - Forked into a second implementation - 25 MAR 05
+ * EPG - Deprecated for the HeaderEngine - 26 MAY 10
  * </pre> 
- */
+ * @deprecated Use the HeaderEngine.  It parses the whole head in one pass over a window and doesn't need a subclass.
+ */
+@Deprecated
 public abstract class HeaderProcessorv3 extends InputStream  {
 
 	// =========================================================================================
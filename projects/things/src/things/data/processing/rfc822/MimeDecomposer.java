@@ -0,0 +1,565 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.tools.Base64;
+import things.common.tools.Base64Codec;
+import things.data.processing.LexicalTool;
+import things.data.processing.http.BodyProcessor_Multipart;
+
+/**
+ * A streaming MIME (RFC 2045/2046) decomposer.  It walks the body tree of a message and tells a MimeListener about each part as
+ * it is found.  The message is read through a single window, so no part is ever buffered as a whole.  Content comes to the
+ * listener as a stream that is decoded (base64 and quoted-printable) on the fly and ends where the part ends.<p>
+ * Headers are parsed with a HeaderEngine.  Multiparts are followed to any depth up to MAX_DEPTH, and encapsulated messages
+ * (message/rfc822) are decomposed too.  It's forgiving.  A missing closing boundary ends the multipart at the enclosing one (or
+ * the end of the message), and a boundary line for an enclosing multipart ends any parts inside it.  Preambles and epilogues
+ * are skipped.<p>
+ * Bare LF line ends are tolerated.  Only one message per object at a time, so decompose() is synchronized.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * EPG - Decode base64 parts a block at a time - 31 MAY 10
+ * </pre>
+ */
+public class MimeDecomposer {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	/**
+	 * The window size.  It'll grow to fit a large head, up to MAX_HEAD_SIZE.
+	 */
+	public final static int BUFFER_SIZE = 16384;
+
+	/**
+	 * The largest head for any part.
+	 */
+	public final static int MAX_HEAD_SIZE = HeaderEngine.DEFAULT_MAX_HEAD_SIZE;
+
+	/**
+	 * How deep parts may nest.
+	 */
+	public final static int MAX_DEPTH = 32;
+
+	/**
+	 * The longest boundary we'll take.  RFC 2046 says 70, but people don't read RFCs.  A longer boundary means the part is
+	 * not treated as a multipart.
+	 */
+	public final static int MAX_BOUNDARY = 200;
+
+	public final static String ENCODING_BASE64 = "base64";
+	public final static String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+	public final static String ENCODING_8BIT = "8bit";
+	public final static String ENCODING_BINARY = "binary";
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static int ID_CONTENT_TYPE = 1;
+	private final static int ID_CONTENT_TRANSFER_ENCODING = 2;
+	private final static int ID_CONTENT_DISPOSITION = 3;
+	private final static int NOT_FOUND = -1;
+	private final static int MAX_WINDOW = MAX_HEAD_SIZE + BUFFER_SIZE;
+
+	private HeaderEngine engine;
+	private MimeListener listener;
+
+	// Window
+	private InputStream ins;
+	private byte[] buffer;
+	private int start;
+	private int end;
+	private int searched;
+	private boolean eof;
+
+	// Delimiters, innermost last.  Each is LF, "--" and the boundary.
+	private ArrayList<byte[]> delimiters = new ArrayList<byte[]>();
+	private int matchLevel;
+	private int foundLevel;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @throws ThingsException
+	 */
+	public MimeDecomposer() throws ThingsException {
+		engine = new HeaderEngine(MAX_HEAD_SIZE);
+		engine.declare(MimePart.HEADER_CONTENT_TYPE, ID_CONTENT_TYPE);
+		engine.declare(MimePart.HEADER_CONTENT_TRANSFER_ENCODING, ID_CONTENT_TRANSFER_ENCODING);
+		engine.declare(MimePart.HEADER_CONTENT_DISPOSITION, ID_CONTENT_DISPOSITION);
+		buffer = new byte[BUFFER_SIZE];
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Decompose a message.  The whole source is read.
+	 * @param source the message, starting with its headers.
+	 * @param listener the listener.
+	 * @return the root part.
+	 * @throws ThingsException PROCESSOR_MIME_FAILED for a broken message or if the listener threw anything.
+	 * @throws IOException if the source has a problem.  It is likely dead at this point.
+	 */
+	public synchronized MimePart decompose(InputStream source, MimeListener listener) throws ThingsException, IOException {
+		if ((source==null)||(listener==null)) ThingsException.softwareProblem("Null source or listener passed to MimeDecomposer.");
+		ins = source;
+		this.listener = listener;
+		start = 0;
+		end = 0;
+		searched = 0;
+		eof = false;
+		delimiters.clear();
+		foundLevel = NOT_FOUND;
+
+		MimePart root = new MimePart(null);
+		try {
+			entity(root);
+		} finally {
+			ins = null;
+			this.listener = null;
+		}
+		return root;
+	}
+
+	// ================================================================================================================
+	// ENTITIES
+
+	/**
+	 * Decompose an entity.  It ends at a delimiter (foundLevel says which one) or the end of the message (foundLevel is NOT_FOUND).
+	 */
+	private void entity(MimePart part) throws ThingsException, IOException {
+		if (part.depth > MAX_DEPTH) throw new ThingsException("MIME parts nested too deep.", ThingsException.PROCESSOR_MIME_FAILED, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+
+		// A delimiter where the headers should be is an empty part.
+		int immediate = immediateDelimiter();
+		if (immediate != NOT_FOUND) {
+			start(part);
+			content(part, new PartStream(true));
+			foundLevel = immediate;
+			end(part);
+			return;
+		}
+
+		headers(part);
+		start(part);
+		if (part.isMultipart()) {
+			multipart(part);
+
+		} else if ((part.isMessage())&&(!encoded(part))) {
+			entity(new MimePart(part));
+
+		} else {
+			PartStream raw = new PartStream(false);
+			content(part, raw);
+			part.size = raw.count;
+		}
+		end(part);
+	}
+
+	/**
+	 * Decompose a multipart body.
+	 */
+	private void multipart(MimePart part) throws ThingsException, IOException {
+		int level = delimiters.size();
+		delimiters.add(("\n--" + part.boundary).getBytes("ISO-8859-1"));
+		boolean closed = false;
+		try {
+
+			// Preamble
+			new PartStream(false).skipRest();
+
+			// Parts
+			while (foundLevel == level) {
+				if (!ensure(2)) {
+					foundLevel = NOT_FOUND;
+					break;
+				}
+				if ((buffer[start]=='-')&&(buffer[start+1]=='-')) {
+					closed = true;
+					break;
+				}
+				if (!boundaryLineEnd()) {
+					foundLevel = NOT_FOUND;
+					break;
+				}
+				entity(new MimePart(part));
+			}
+
+		} finally {
+			delimiters.remove(level);
+		}
+
+		// Epilogue.  It runs to the enclosing delimiter.
+		if (closed) new PartStream(false).skipRest();
+	}
+
+	/**
+	 * Parse the headers into the part.  The window is left at the body.  For a multipart, the line feed that ended the head is
+	 * left in the window, so a boundary right at the start of the body still looks like a delimiter.
+	 */
+	private void headers(MimePart part) throws ThingsException, IOException {
+		engine.reset();
+		try {
+			while (!engine.parse(buffer, start, end - start)) {
+				if (!fill()) {
+					engine.finish();
+					break;
+				}
+			}
+		} catch (ThingsException te) {
+			throw new ThingsException("Bad MIME part headers.", ThingsException.PROCESSOR_MIME_FAILED, te, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+		}
+
+		String value;
+		for (int index = 0; index < engine.getHeaderCount(); index++) {
+			value = engine.getHeaderValue(index);
+			part.addHeader(engine.getHeaderName(index), value);
+			switch(engine.getHeaderId(index)) {
+			case ID_CONTENT_TYPE:
+				contentType(part, value);
+				break;
+			case ID_CONTENT_TRANSFER_ENCODING:
+				part.transferEncoding = value.trim().toLowerCase();
+				break;
+			case ID_CONTENT_DISPOSITION:
+				part.disposition = value;
+				String filename = BodyProcessor_Multipart.getParameter(value, MimePart.PARAMETER_FILENAME);
+				if (filename != null) part.filename = filename;
+				break;
+			default:
+				break;
+			}
+		}
+
+		start = engine.getHeadEnd();
+		if ((part.isMultipart())&&(start > 0)&&(buffer[start-1] == LexicalTool.WS_LF_CONTROL)) start--;
+	}
+
+	private void contentType(MimePart part, String value) {
+		part.contentType = value;
+		int semi = value.indexOf(';');
+		String type = ((semi < 0) ? value : value.substring(0, semi)).trim().toLowerCase();
+		if (type.length() > 0) part.mediaType = type;
+		part.charset = BodyProcessor_Multipart.getParameter(value, MimePart.PARAMETER_CHARSET);
+		if (part.filename == null) part.filename = BodyProcessor_Multipart.getParameter(value, MimePart.PARAMETER_NAME);
+		part.boundary = BodyProcessor_Multipart.getParameter(value, MimePart.PARAMETER_BOUNDARY);
+		if ((part.boundary != null)&&((part.boundary.length() < 1)||(part.boundary.length() > MAX_BOUNDARY))) part.boundary = null;
+	}
+
+	/**
+	 * Is the part content encoded?
+	 */
+	private boolean encoded(MimePart part) {
+		return part.transferEncoding.equals(ENCODING_BASE64)||part.transferEncoding.equals(ENCODING_QUOTED_PRINTABLE);
+	}
+
+	// ================================================================================================================
+	// LISTENER
+
+	private void start(MimePart part) throws ThingsException {
+		try {
+			listener.startPart(part);
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("MIME listener failed.", ThingsException.PROCESSOR_MIME_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+		}
+	}
+
+	/**
+	 * Give the content to the listener and then skip whatever it didn't read.
+	 */
+	private void content(MimePart part, PartStream raw) throws ThingsException, IOException {
+		InputStream content = raw;
+		if (part.transferEncoding.equals(ENCODING_BASE64)) {
+			content = new Base64Codec.DecodingInputStream(raw, Base64.NO_OPTIONS);
+		} else if (part.transferEncoding.equals(ENCODING_QUOTED_PRINTABLE)) {
+			content = new QuotedPrintableInputStream(raw);
+		}
+		try {
+			listener.content(part, content);
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("MIME listener failed on content.", ThingsException.PROCESSOR_MIME_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+		}
+		raw.skipRest();
+	}
+
+	private void end(MimePart part) throws ThingsException {
+		try {
+			listener.endPart(part);
+		} catch (ThingsException te) {
+			throw te;
+		} catch (Throwable t) {
+			throw new ThingsException("MIME listener failed.", ThingsException.PROCESSOR_MIME_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+		}
+	}
+
+	// ================================================================================================================
+	// WINDOW
+
+	/**
+	 * Fill the window from the source.  It'll grow if it's full.
+	 * @return false if the source is at EOF.
+	 */
+	private boolean fill() throws IOException, ThingsException {
+		if (eof) return false;
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end = end - start;
+			searched = searched - start;
+			start = 0;
+		}
+		if (end >= buffer.length) {
+			if (buffer.length >= MAX_WINDOW) throw new ThingsException("MIME line too long.", ThingsException.PROCESSOR_MIME_FAILED);
+			byte[] newBuffer = new byte[Math.min(buffer.length * 2, MAX_WINDOW)];
+			System.arraycopy(buffer, 0, newBuffer, 0, end);
+			buffer = newBuffer;
+		}
+		int read = ins.read(buffer, end, buffer.length - end);
+		while (read==0) read = ins.read(buffer, end, buffer.length - end);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		end += read;
+		return true;
+	}
+
+	/**
+	 * Make sure there are so many bytes in the window.
+	 * @return false if the source ended first.
+	 */
+	private boolean ensure(int size) throws IOException, ThingsException {
+		while ((end - start) < size) {
+			if (!fill()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finish a boundary line.  Anything after the boundary is ignored.
+	 * @return false if the source ended first.
+	 */
+	private boolean boundaryLineEnd() throws IOException, ThingsException {
+		int rover = start;
+		while (true) {
+			for (; rover < end; rover++) {
+				if (buffer[rover] == LexicalTool.WS_LF_CONTROL) {
+					start = rover + 1;
+					return true;
+				}
+			}
+			rover -= start;
+			if (!fill()) {
+				start = end;
+				return false;
+			}
+			rover += start;
+		}
+	}
+
+	/**
+	 * Is there a delimiter, without its leading line feed, right at the start of the window?  If so, it's consumed.
+	 * @return the level or NOT_FOUND.
+	 */
+	private int immediateDelimiter() throws IOException, ThingsException {
+		if (delimiters.size() < 1) return NOT_FOUND;
+		ensure(3);
+		if ((end - start < 2)||(buffer[start] != '-')||(buffer[start+1] != '-')) return NOT_FOUND;
+
+		byte[] delimiter;
+		int index;
+		for (int level = delimiters.size() - 1; level >= 0; level--) {
+			delimiter = delimiters.get(level);
+			ensure(delimiter.length - 1);
+			if (end - start < delimiter.length - 1) continue;
+			index = 3;
+			while ((index < delimiter.length)&&(buffer[start + index - 1] == delimiter[index])) index++;
+			if (index == delimiter.length) {
+				start += delimiter.length - 1;
+				return level;
+			}
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Find a delimiter in the window, starting at the searched mark.  The innermost delimiter is checked first.  If the end of the
+	 * window might be the start of one, the searched mark is left there and it isn't found yet.
+	 * @return the offset of the delimiter, with matchLevel set, or NOT_FOUND.
+	 */
+	private int find() {
+		int levels = delimiters.size();
+		if (levels < 1) {
+			searched = end;
+			return NOT_FOUND;
+		}
+
+		byte[] delimiter;
+		int index;
+		boolean partial;
+		for (int rover = searched; rover < end; rover++) {
+			if (buffer[rover] != LexicalTool.WS_LF_CONTROL) continue;
+			if (rover + 3 > end) {
+				if (eof) break;
+				searched = rover;
+				return NOT_FOUND;
+			}
+			if ((buffer[rover+1] != '-')||(buffer[rover+2] != '-')) continue;
+
+			partial = false;
+			for (int level = levels - 1; level >= 0; level--) {
+				delimiter = delimiters.get(level);
+				if (rover + delimiter.length > end) {
+					if (!eof) partial = true;
+					continue;
+				}
+				index = 3;
+				while ((index < delimiter.length)&&(buffer[rover + index] == delimiter[index])) index++;
+				if (index == delimiter.length) {
+					matchLevel = level;
+					searched = rover;
+					return rover;
+				}
+			}
+			if (partial) {
+				searched = rover;
+				return NOT_FOUND;
+			}
+		}
+		searched = end;
+		return NOT_FOUND;
+	}
+
+	// ================================================================================================================
+	// CONTENT STREAM
+
+	/**
+	 * The raw content of a part, straight out of the window.  It ends at a delimiter, which it consumes and leaves in foundLevel,
+	 * or at the end of the message.  A CR before the delimiter belongs to the delimiter.
+	 */
+	private class PartStream extends InputStream {
+
+		long count;
+		private boolean ended;
+		private int limit;
+		private int at = NOT_FOUND;
+		private int level;
+
+		PartStream(boolean empty) {
+			ended = empty;
+			limit = start;
+			searched = start;
+		}
+
+		public int read() throws IOException {
+			if ((start >= limit)&&(!refresh())) return -1;
+			count++;
+			return buffer[start++] & 0xff;
+		}
+
+		public int read(byte[] dest, int off, int len) throws IOException {
+			if (len < 1) return 0;
+			if ((start >= limit)&&(!refresh())) return -1;
+			int size = Math.min(len, limit - start);
+			System.arraycopy(buffer, start, dest, off, size);
+			start += size;
+			count += size;
+			return size;
+		}
+
+		public long skip(long n) throws IOException {
+			if ((n < 1)||((start >= limit)&&(!refresh()))) return 0;
+			int size = (int)Math.min(n, limit - start);
+			start += size;
+			count += size;
+			return size;
+		}
+
+		public int available() {
+			if (ended) return 0;
+			return limit - start;
+		}
+
+		/**
+		 * Skip to the end.  The delimiter is consumed.
+		 */
+		void skipRest() throws IOException {
+			while ((start < limit)||(refresh())) {
+				count += limit - start;
+				start = limit;
+			}
+		}
+
+		/**
+		 * Find more content.
+		 * @return false if it has ended.
+		 */
+		private boolean refresh() throws IOException {
+			try {
+				while (!ended) {
+					if (at != NOT_FOUND) {
+						start = at + delimiters.get(level).length;
+						foundLevel = level;
+						ended = true;
+						break;
+					}
+
+					int found = find();
+					if (found != NOT_FOUND) {
+						at = found;
+						level = matchLevel;
+						limit = found;
+						if ((limit > start)&&(buffer[limit-1] == LexicalTool.WS_CR_CONTROL)) limit--;
+						if (limit > start) return true;
+						continue;
+					}
+
+					limit = searched;
+					if ((!eof)&&(limit > start)&&(buffer[limit-1] == LexicalTool.WS_CR_CONTROL)) limit--;
+					if (limit > start) return true;
+					if (eof) {
+						start = end;
+						limit = end;
+						foundLevel = NOT_FOUND;
+						ended = true;
+						break;
+					}
+					fill();
+				}
+			} catch (ThingsException te) {
+				throw new IOException(te.getMessage());
+			}
+			limit = start;
+			return false;
+		}
+	}
+
+}
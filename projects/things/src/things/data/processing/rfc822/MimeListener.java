@@ -0,0 +1,57 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.io.InputStream;
+
+/**
+ * A listener for what comes out of the MimeDecomposer.  For each part, startPart() is called when its headers are done and
+ * endPart() is called when it is finished.  The children of a multipart or message come in between.  Only parts that aren't a
+ * multipart or message get content().
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * </pre>
+ */
+public interface MimeListener {
+
+	/**
+	 * A part is starting.  The headers are all there.
+	 * @param part the part.
+	 * @throws Throwable which will stop the decomposer.
+	 */
+	public void startPart(MimePart part) throws Throwable;
+
+	/**
+	 * The content for a part.  The stream is already decoded (base64 and quoted-printable) and ends where the part ends.  Read
+	 * as much or as little as you want--it'll be skipped past when this returns.  Don't keep it and don't close it.
+	 * @param part the part.
+	 * @param content the content.
+	 * @throws Throwable which will stop the decomposer.
+	 */
+	public void content(MimePart part, InputStream content) throws Throwable;
+
+	/**
+	 * A part is done.  The size is set.
+	 * @param part the part.
+	 * @throws Throwable which will stop the decomposer.
+	 */
+	public void endPart(MimePart part) throws Throwable;
+
+}
@@ -0,0 +1,250 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entity in a MIME message tree, as found by the MimeDecomposer.  The message itself is the root.  The children of a
+ * multipart are numbered from 1, and nested ones get dotted ids (like "2.1"), so the root's children are "1", "2", and so on.  An
+ * encapsulated message (message/rfc822) has a single child, which is the message it carries.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * </pre>
+ */
+public class MimePart {
+
+	// ================================================================================================================
+	// PUBLIC DATA
+
+	public final static String ROOT_ID = "0";
+	public final static String DEFAULT_MEDIA_TYPE = "text/plain";
+	public final static String DIGEST_MEDIA_TYPE = "message/rfc822";
+	public final static String DEFAULT_TRANSFER_ENCODING = "7bit";
+
+	public final static String HEADER_CONTENT_TYPE = "Content-Type";
+	public final static String HEADER_CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+	public final static String HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+	public final static String PARAMETER_BOUNDARY = "boundary";
+	public final static String PARAMETER_CHARSET = "charset";
+	public final static String PARAMETER_NAME = "name";
+	public final static String PARAMETER_FILENAME = "filename";
+
+	/**
+	 * The id, such as "0" for the root or "2.1".
+	 */
+	public String id;
+
+	/**
+	 * How deep it is.  The root is 0.
+	 */
+	public int depth;
+
+	/**
+	 * The parent or null for the root.
+	 */
+	public MimePart parent;
+
+	/**
+	 * The lowercase media type without parameters, such as "text/plain".  If there was no Content-Type, it's the default for
+	 * where the part was found.
+	 */
+	public String mediaType;
+
+	/**
+	 * The full Content-Type value or null if there wasn't one.
+	 */
+	public String contentType;
+
+	/**
+	 * The lowercase transfer encoding.  It defaults to 7bit.
+	 */
+	public String transferEncoding;
+
+	/**
+	 * The boundary for a multipart or null.
+	 */
+	public String boundary;
+
+	/**
+	 * The charset parameter or null.
+	 */
+	public String charset;
+
+	/**
+	 * The Content-Disposition value or null.
+	 */
+	public String disposition;
+
+	/**
+	 * The file name from the disposition or the name from the type.  It will be null if neither was given.
+	 */
+	public String filename;
+
+	/**
+	 * How many bytes of content, before decoding.  It isn't set until the part ends.  It is 0 for multiparts and messages, whose
+	 * content is in their children.
+	 */
+	public long size;
+
+	/**
+	 * The universe object holding the decoded content, if it was spilled by a MimeSpiller.
+	 */
+	public String spillName;
+
+	/**
+	 * How many bytes were spilled.
+	 */
+	public long spillSize;
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static String MULTIPART = "multipart/";
+	private final static String DIGEST = "multipart/digest";
+	private final static String ATTACHMENT = "attachment";
+
+	private ArrayList<String> headerNames = new ArrayList<String>();
+	private ArrayList<String> headerValues = new ArrayList<String>();
+	private int children;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @param parent the parent or null for the root.
+	 */
+	public MimePart(MimePart parent) {
+		this.parent = parent;
+		if (parent == null) {
+			id = ROOT_ID;
+			mediaType = DEFAULT_MEDIA_TYPE;
+		} else {
+			parent.children++;
+			depth = parent.depth + 1;
+			if (parent.depth == 0) {
+				id = Integer.toString(parent.children);
+			} else {
+				id = parent.id + "." + parent.children;
+			}
+			if (DIGEST.equals(parent.mediaType)) {
+				mediaType = DIGEST_MEDIA_TYPE;
+			} else {
+				mediaType = DEFAULT_MEDIA_TYPE;
+			}
+		}
+		transferEncoding = DEFAULT_TRANSFER_ENCODING;
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Is it a multipart?  It is only treated as one if it has a boundary.
+	 * @return true if it is.
+	 */
+	public boolean isMultipart() {
+		return (boundary != null)&&(mediaType.startsWith(MULTIPART));
+	}
+
+	/**
+	 * Is it an encapsulated message?
+	 * @return true if it is.
+	 */
+	public boolean isMessage() {
+		return DIGEST_MEDIA_TYPE.equals(mediaType);
+	}
+
+	/**
+	 * Does it look like an attachment?
+	 * @return true if the disposition says so or there is a file name.
+	 */
+	public boolean isAttachment() {
+		return (filename != null)||((disposition != null)&&(disposition.toLowerCase().startsWith(ATTACHMENT)));
+	}
+
+	/**
+	 * Get the number of headers.  Repeats are counted separately.
+	 * @return the count.
+	 */
+	public int getHeaderCount() {
+		return headerNames.size();
+	}
+
+	/**
+	 * Get a header name.
+	 * @param index the index.
+	 * @return the name.
+	 */
+	public String getHeaderName(int index) {
+		return headerNames.get(index);
+	}
+
+	/**
+	 * Get a header value.  It's already unfolded.
+	 * @param index the index.
+	 * @return the value.
+	 */
+	public String getHeaderValue(int index) {
+		return headerValues.get(index);
+	}
+
+	/**
+	 * Get the first value for a header.  The name isn't case sensitive.
+	 * @param name the name.
+	 * @return the value or null if there isn't one.
+	 */
+	public String getHeader(String name) {
+		for (int index = 0; index < headerNames.size(); index++) {
+			if (headerNames.get(index).equalsIgnoreCase(name)) return headerValues.get(index);
+		}
+		return null;
+	}
+
+	/**
+	 * Get all the values for a header, in order.  The name isn't case sensitive.
+	 * @param name the name.
+	 * @return the values.  It'll be empty if there are none.
+	 */
+	public List<String> getHeaders(String name) {
+		ArrayList<String> result = new ArrayList<String>();
+		for (int index = 0; index < headerNames.size(); index++) {
+			if (headerNames.get(index).equalsIgnoreCase(name)) result.add(headerValues.get(index));
+		}
+		return result;
+	}
+
+	public String toString() {
+		return id + " " + mediaType;
+	}
+
+	// ================================================================================================================
+	// PACKAGE
+
+	/**
+	 * Add a header.
+	 */
+	void addHeader(String name, String value) {
+		headerNames.add(name);
+		headerValues.add(value);
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.universe.Universe;
+
+/**
+ * A MimeListener that spills decoded part content into universe objects.  It can spill every part with content or only the ones
+ * that look like attachments.  Every part, spilled or not, is kept in order so the whole tree can be looked at afterwards.
+ * <p>
+ * The objects are the caller's to keep.  Call release() to delete them.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * </pre>
+ */
+public class MimeSpiller implements MimeListener {
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static int COPY_SIZE = 8192;
+
+	private Universe universe;
+	private String spillBase;
+	private boolean attachmentsOnly;
+	private ArrayList<MimePart> parts = new ArrayList<MimePart>();
+	private byte[] copy = new byte[COPY_SIZE];
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @param universe the universe to spill into.
+	 * @param spillBase the base name for the objects.  It is passed to the universe's reserveUnique().
+	 * @param attachmentsOnly if true, only parts where isAttachment() is true are spilled.
+	 */
+	public MimeSpiller(Universe universe, String spillBase, boolean attachmentsOnly) {
+		this.universe = universe;
+		this.spillBase = spillBase;
+		this.attachmentsOnly = attachmentsOnly;
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Get all the parts seen so far, in the order they started.
+	 * @return the parts.
+	 */
+	public List<MimePart> getParts() {
+		return parts;
+	}
+
+	/**
+	 * Delete every spilled object.  It is safe to call more than once.
+	 */
+	public void release() {
+		for (MimePart part : parts) {
+			if (part.spillName == null) continue;
+			try {
+				universe.delete(part.spillName);
+			} catch (Throwable t) {
+				// Don't care.  There is nothing that can be done about it.
+			}
+			part.spillName = null;
+		}
+	}
+
+	// ================================================================================================================
+	// LISTENER
+
+	public void startPart(MimePart part) throws Throwable {
+		parts.add(part);
+	}
+
+	public void content(MimePart part, InputStream content) throws Throwable {
+		if ((attachmentsOnly)&&(!part.isAttachment())) return;
+
+		OutputStream spill = null;
+		try {
+			part.spillName = universe.reserveUnique(spillBase);
+			spill = universe.putStream(part.spillName);
+			int read = content.read(copy);
+			while (read >= 0) {
+				spill.write(copy, 0, read);
+				part.spillSize += read;
+				read = content.read(copy);
+			}
+			spill.close();
+			spill = null;
+
+		} catch (Throwable t) {
+			throw new ThingsException("Could not spill MIME part.", ThingsException.PROCESSOR_MIME_SPILL_FAILED, t, ThingsNamespace.ATTR_DATA_ARGUMENT, part.id);
+		} finally {
+			try {
+				if (spill != null) spill.close();
+			} catch (Throwable t) {
+				// Already in trouble.
+			}
+		}
+	}
+
+	public void endPart(MimePart part) throws Throwable {
+		// Nothing to do.
+	}
+
+}
@@ -0,0 +1,218 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.processing.rfc822;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import things.data.processing.LexicalTool;
+
+/**
+ * Decodes quoted-printable (RFC 2045) on the fly.  Soft line breaks are removed, =XX escapes become the byte, and whitespace at the
+ * end of a line is dropped since a transport may have added it.  Hard line breaks pass through as they are.<p>
+ * It's forgiving.  A broken escape comes through as it was written.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 28 MAY 10
+ * </pre>
+ */
+public class QuotedPrintableInputStream extends FilterInputStream {
+
+	// ================================================================================================================
+	// INTERNAL DATA
+	private final static int NONE = -2;
+	private final static int MAX_PENDING = 1024;
+	private final static int ESCAPE = '=';
+
+	private byte[] pending = new byte[MAX_PENDING + 2];
+	private int pendingStart;
+	private int pendingEnd;
+	private int lookahead = NONE;
+
+	// ================================================================================================================
+	// CONSTRUCTOR
+
+	/**
+	 * Constructor.
+	 * @param in the encoded source.
+	 */
+	public QuotedPrintableInputStream(InputStream in) {
+		super(in);
+	}
+
+	// ================================================================================================================
+	// METHODS
+
+	/**
+	 * Read a decoded byte.
+	 * @return the byte or -1 at the end.
+	 * @throws IOException
+	 */
+	public int read() throws IOException {
+		while (pendingStart >= pendingEnd) {
+			if (!decode()) return -1;
+		}
+		return pending[pendingStart++] & 0xff;
+	}
+
+	/**
+	 * Read decoded bytes.
+	 * @param dest where they go.
+	 * @param off the offset in dest.
+	 * @param len the most to read.
+	 * @return the number read or -1 at the end.
+	 * @throws IOException
+	 */
+	public int read(byte[] dest, int off, int len) throws IOException {
+		if (len < 1) return 0;
+		int count = 0;
+		int size;
+		while (count < len) {
+			if (pendingStart >= pendingEnd) {
+				if (!decode()) break;
+				continue;
+			}
+			size = Math.min(len - count, pendingEnd - pendingStart);
+			System.arraycopy(pending, pendingStart, dest, off + count, size);
+			pendingStart += size;
+			count += size;
+		}
+		if (count == 0) return -1;
+		return count;
+	}
+
+	/**
+	 * Skip decoded bytes.
+	 * @param n how many.
+	 * @return how many were skipped.
+	 * @throws IOException
+	 */
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			if (pendingStart >= pendingEnd) {
+				if (!decode()) break;
+				continue;
+			}
+			int size = (int)Math.min(n - skipped, pendingEnd - pendingStart);
+			pendingStart += size;
+			skipped += size;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Only what is already decoded is known to be available.
+	 * @return the number of bytes that can be read without blocking.
+	 */
+	public int available() {
+		return pendingEnd - pendingStart;
+	}
+
+	public boolean markSupported() {
+		return false;
+	}
+
+	// ================================================================================================================
+	// PRIVATE
+
+	private int next() throws IOException {
+		if (lookahead != NONE) {
+			int result = lookahead;
+			lookahead = NONE;
+			return result;
+		}
+		return in.read();
+	}
+
+	/**
+	 * Decode the next piece into the pending buffer.  It may decode to nothing, such as a soft line break.
+	 * @return false at the end of the source.
+	 */
+	private boolean decode() throws IOException {
+		pendingStart = 0;
+		pendingEnd = 0;
+		int character = next();
+		if (character < 0) return false;
+
+		if ((character == LexicalTool.WS_SPACE)||(character == LexicalTool.WS_TAB_CONTROL)) {
+			// Hold whitespace until we know it isn't at the end of a line.
+			pending[pendingEnd++] = (byte)character;
+			while (true) {
+				character = next();
+				if ((character == LexicalTool.WS_SPACE)||(character == LexicalTool.WS_TAB_CONTROL)) {
+					if (pendingEnd >= MAX_PENDING) {
+						lookahead = character;
+						return true;
+					}
+					pending[pendingEnd++] = (byte)character;
+
+				} else if ((character < 0)||(character == LexicalTool.WS_CR_CONTROL)||(character == LexicalTool.WS_LF_CONTROL)) {
+					pendingEnd = 0;
+					if (character >= 0) lookahead = character;
+					return true;
+
+				} else {
+					lookahead = character;
+					return true;
+				}
+			}
+		}
+
+		if (character == ESCAPE) {
+			int first = next();
+			if (first < 0) return true;
+
+			// =XX
+			int sixteens = LexicalTool.getHexValue(first);
+			if (sixteens >= 0) {
+				int second = next();
+				int ones = (second < 0) ? -1 : LexicalTool.getHexValue(second);
+				if (ones >= 0) {
+					pending[pendingEnd++] = (byte)((sixteens * 16) + ones);
+				} else {
+					pending[pendingEnd++] = (byte)character;
+					pending[pendingEnd++] = (byte)first;
+					if (second >= 0) lookahead = second;
+				}
+				return true;
+			}
+
+			// Soft line break.  Transports may have left whitespace before the break.
+			int rover = first;
+			while ((rover == LexicalTool.WS_SPACE)||(rover == LexicalTool.WS_TAB_CONTROL)) rover = next();
+			if (rover == LexicalTool.WS_CR_CONTROL) {
+				rover = next();
+				if ((rover >= 0)&&(rover != LexicalTool.WS_LF_CONTROL)) lookahead = rover;
+				return true;
+			}
+			if ((rover < 0)||(rover == LexicalTool.WS_LF_CONTROL)) return true;
+
+			// Not an escape at all.
+			pending[pendingEnd++] = (byte)character;
+			lookahead = rover;
+			return true;
+		}
+
+		pending[pendingEnd++] = (byte)character;
+		return true;
+	}
+
+}
@@ -42,6 +42,8 @@ import things.thinger.io.Logger;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 23 NOV 06
+ * EPG - Multiple recipients - 14 MAY 10
+ * EPG - Buffered data encoding - 19 MAY 10
  * </pre> 
  */
 public class CleanSMTPClient implements SMTPClient, Debuggable {
@@ -69,6 +71,7 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 	private long	lastSize;
 	private int		timeout;
 	private int		retries;
+	private DataEncoder encoder = new DataEncoder();
 
 	// ===================================================================================================
 	// == METHODS  ==================================
@@ -159,6 +162,7 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 				connection = new Socket(connectAddress, connectPort);
 				connection.setSoTimeout(timeout);
 				connection.setKeepAlive(true);
+				connection.setTcpNoDelay(true);		// Writes are buffered and flushed at command boundaries, so don't let Nagle hold the tail of a message.
 				bis = new BufferedInputStream(connection.getInputStream());
 				bos = new BufferedOutputStream(connection.getOutputStream());	
 			} catch (Throwable t) {
@@ -295,7 +299,7 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 	}
 	
 	/**
-	 * Set the recipient using RCPT TO.  It must be at MAILFROM_DONE.
+	 * Set the recipient using RCPT TO.  It must be at MAILFROM_DONE or RCPTTO_DONE (for another recipient).
 	 * @param recipientText as a valid SMTP address.
 	 * @return A reply.
 	 * @throws ThingsException if not ready for  RCPT TO or actual transmission problem.
@@ -303,7 +307,7 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 	public Reply	recipient(String recipientText) throws ThingsException, InterruptedException  {	
 		// Qualify.  Must be connected.
 		if (state == SMTPState.BAD) throw new ThingsException("This client is now BAD.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE);
-		if (state != SMTPState.MAILFROM_DONE) throw new ThingsException("Bad state.  Not MAILFROM_DONE.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
+		if ((state != SMTPState.MAILFROM_DONE)&&(state != SMTPState.RCPTTO_DONE)) throw new ThingsException("Bad state.  Not MAILFROM_DONE.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
 			
 		// Do it.
 		Reply reply = null; 
@@ -339,6 +343,25 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 		// DOES NOT IMPLEMENT IT
 		return recipient(recipientText);
 	}
+
+	/**
+	 * Set the sender and all the recipients.  It must be at LOGIN_COMPLETE.  This client does each command in turn.
+	 * @param senderText as a valid SMTP address.
+	 * @param dsn command.  If null, it will be ignored.
+	 * @param recipientText one or more valid SMTP addresses.
+	 * @return the MAIL FROM reply followed by a RCPT TO reply for each recipient in order.  The recipients will be null if the sender was refused.
+	 * @throws ThingsException if not ready for MAIL FROM or actual transmission problem.
+	 */
+	public Reply[] envelope(String senderText, DSN dsn, String... recipientText) throws ThingsException, InterruptedException {
+		if ((recipientText == null)||(recipientText.length < 1)) ThingsException.softwareProblem("envelope() needs at least one recipient.");
+		Reply[] result = new Reply[recipientText.length + 1];
+		result[0] = sender(senderText, dsn);
+		if (state != SMTPState.MAILFROM_DONE) return result;
+		for (int index = 0; index < recipientText.length; index++) {
+			result[index + 1] = recipient(recipientText[index], dsn);
+		}
+		return result;
+	}
 	
 	/**
 	 * RESET the connection.  This will return the state to LOGIN_COMPLETE, as long as it has already been logged in.
@@ -404,56 +427,10 @@ public class CleanSMTPClient implements SMTPClient, Debuggable {
 			// Will it allow us to send?
 			if (reply.code != START_MAIL_INPUT) throw new Exception();  // PUNT		
 			
-			// Push the data
-			int iostate = STATE_START;
-			int character  = -1;
-			lastSize = 0;
-			
-			// pipeline the streams.
-			InputStream currentInputStream;
-			for (int index = 0; index < ios.length; index++) {
-				
-				currentInputStream = ios[index];
-				if (currentInputStream == null) continue;	// Allow and ignore nulls.
-				
-				character = currentInputStream.read();
-				while (character >= 0) {
-					lastSize++;	// A good char.  Count it.
-					
-					switch (character) {
-					case ThingsConstants.LF:
-						if (iostate==STATE_CR) iostate = STATE_LINE;
-						break;
-					case ThingsConstants.CR:
-						iostate = STATE_LF;
-						break;
-					case '.':
-						if (iostate==STATE_LINE) {
-							iostate = STATE_START;
-							bos.write('.'); // double it.
-							lastSize++;	
-						}
-						break;
-					default:
-						iostate = STATE_START;
-						break;
-					}
-					bos.write(character);
-					character = currentInputStream.read();
-				
-				}	// end while this stream has goodies. 
-			
-			} // end while there are streams in the pipeline.		
-			
-			// Terminate it.
-			bos.write(ThingsConstants.CR);
-			bos.write(ThingsConstants.LF);
-			bos.write('.');
-			bos.write(ThingsConstants.CR);
-			bos.write(ThingsConstants.LF);
-			lastSize += 5;
+			// Push the data, stuffed and terminated.
+			lastSize = encoder.writeData(bos, ios);
 			bos.flush();	
-			if (myLogger!=null) myLogger.post("sendData stream complete.  Waiting for reply.");
+			if (myLogger.debuggingState()) myLogger.post("sendData stream complete.  Waiting for reply.");
 		
 		} catch (InterruptedIOException iioe) {
 			if (myLogger.debuggingState()) myLogger.post("sendData interrupted by IO timeout.");
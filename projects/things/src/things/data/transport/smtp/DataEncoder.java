@@ -0,0 +1,176 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.transport.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import things.common.ThingsConstants;
+
+/**
+ * Encodes message data for the wire.  It reads the message streams a buffer at a time and writes them out in runs, rather than a byte at a time.
+ * <p>
+ * For DATA, a dot that starts a line (including the first line) is doubled and the terminating CRLF.CRLF is added.  Only a CRLF ends a line, so 
+ * a dot after a bare LF is left alone.  For BDAT (RFC 3030 CHUNKING), nextChunk() fills the buffer with the raw data so it can be sent as is.
+ * <p>
+ * One encoder can be used for any number of messages, but not by more than one thread at a time.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 19 MAY 10
+ * </pre> 
+ */
+public class DataEncoder {
+
+	// == EXPOSED SETTINGS ===============================================================================
+	public final static int DEFAULT_BUFFER_SIZE = 1024 * 16;
+	
+	// ===================================================================================================
+	// == INTERNAL DATA ==================================
+	
+	// Line states
+	private final static int MID_LINE = 0;
+	private final static int SAW_CR = 1;
+	private final static int LINE_START = 2;
+	
+	private byte[] buffer;
+	private InputStream[] chunkStreams;
+	private int chunkIndex;
+
+	// ===================================================================================================
+	// == METHODS  ==================================
+	
+	/**
+	 * Constructor with the default buffer size.
+	 */
+	public DataEncoder() {
+		buffer = new byte[DEFAULT_BUFFER_SIZE];
+	}
+	
+	/**
+	 * Constructor.
+	 * @param bufferSize the buffer size.  It is also the BDAT chunk size.
+	 */
+	public DataEncoder(int bufferSize) {
+		buffer = new byte[bufferSize];
+	}
+	
+	/**
+	 * Get the buffer.  After nextChunk(), the chunk is at the start of it.
+	 * @return the buffer.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Write the streams as DATA, dot-stuffed and terminated.  The output is not flushed.
+	 * @param out where to write.
+	 * @param ios the streams to send in turn.  Null entries are allowed and ignored.
+	 * @return the number of bytes written, including the stuffing and the terminator.
+	 * @throws IOException
+	 */
+	public long writeData(OutputStream out, InputStream... ios) throws IOException {
+		long written = 0;
+		int lineState = LINE_START;
+		int count;
+		int run;
+		
+		for (int index = 0; index < ios.length; index++) {
+			if (ios[index] == null) continue;	// Allow and ignore nulls.
+			
+			count = ios[index].read(buffer);
+			while (count >= 0) {
+				
+				// Scan for a dot at the start of a line.  Everything else goes out in runs.
+				run = 0;
+				for (int scan = 0; scan < count; scan++) {
+					switch (buffer[scan]) {
+					case '.':
+						if (lineState == LINE_START) {
+							out.write(buffer, run, scan - run);
+							out.write('.');		// Double it.  The original goes out with the next run.
+							written++;
+							run = scan;
+						}
+						lineState = MID_LINE;
+						break;
+					case ThingsConstants.CR:
+						lineState = SAW_CR;
+						break;
+					case ThingsConstants.LF:
+						lineState = (lineState == SAW_CR) ? LINE_START : MID_LINE;
+						break;
+					default:
+						lineState = MID_LINE;
+						break;
+					}
+				}
+				out.write(buffer, run, count - run);
+				written += count;
+				count = ios[index].read(buffer);
+			}
+		}
+		
+		// Terminate it.  Don't add a line if the data already ended with one.
+		if (lineState != LINE_START) {
+			out.write(ThingsConstants.CR);
+			out.write(ThingsConstants.LF);
+			written += 2;
+		}
+		out.write('.');
+		out.write(ThingsConstants.CR);
+		out.write(ThingsConstants.LF);
+		return written + 3;
+	}
+	
+	/**
+	 * Start reading chunks from these streams.
+	 * @param ios the streams to send in turn.  Null entries are allowed and ignored.
+	 */
+	public void startChunks(InputStream... ios) {
+		chunkStreams = ios;
+		chunkIndex = 0;
+	}
+	
+	/**
+	 * Fill the buffer with the next chunk.  The buffer is filled completely unless the streams run out, so a chunk shorter than the buffer
+	 * is the last one.  (If the data is an exact multiple of the buffer size, the last chunk will be empty.)
+	 * @return the size of the chunk.
+	 * @throws IOException
+	 */
+	public int nextChunk() throws IOException {
+		int size = 0;
+		int count;
+		while ((size < buffer.length)&&(chunkIndex < chunkStreams.length)) {
+			if (chunkStreams[chunkIndex] == null) {
+				chunkIndex++;
+				continue;
+			}
+			count = chunkStreams[chunkIndex].read(buffer, size, buffer.length - size);
+			if (count < 0) {
+				chunkIndex++;
+			} else {
+				size += count;
+			}
+		}
+		return size;
+	}
+	
+}
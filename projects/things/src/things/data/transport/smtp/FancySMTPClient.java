@@ -44,6 +44,8 @@ import things.thinger.io.Logger;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Added by request - 1 JUNV 09
+ * EPG - ESMTP PIPELINING (RFC 2920) for envelopes - 14 MAY 10
+ * EPG - Buffered data encoding and CHUNKING (RFC 3030) - 19 MAY 10
  * </pre> 
  */
 public class FancySMTPClient implements SMTPClient, Debuggable {
@@ -51,6 +53,7 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	// == EXPOSED SETTINGS ===============================================================================
 	public final static int CONNECTION_TIMEOUT = 1000 * 60 * 3; // 3 minutes
 	public final static int CONNECTION_RETRIES = 0;  // NONE
+	public final static int PIPELINE_GROUP_LIMIT = 100;	// Commands sent before reading replies.  Keeps both sides from blocking on full socket buffers.
 	
 	// == INERNTAL SETTINGS SETTINGS ====================================================================
 	private final static int READ_FULLY_LIMIT = 1024 * 2;
@@ -63,6 +66,8 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	 * Extension names.
 	 */
     public static final String EXTENSION_DSN = "DSN";
+    public static final String EXTENSION_PIPELINING = "PIPELINING";
+    public static final String EXTENSION_CHUNKING = "CHUNKING";
 
 	
 	// ===================================================================================================
@@ -75,6 +80,9 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	private Logger myLogger;
 	private SMTPState state;
 	private boolean extensionDSN;
+	private boolean extensionPipelining;
+	private boolean extensionChunking;
+	private DataEncoder encoder = new DataEncoder();
 	
 	// Other data
 	private String 	clientName;
@@ -171,6 +179,7 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 				connection = new Socket(connectAddress, connectPort);
 				connection.setSoTimeout(timeout);
 				connection.setKeepAlive(true);
+				connection.setTcpNoDelay(true);		// Writes are buffered and flushed at command boundaries, so don't let Nagle hold the tail of a message.
 				bis = new BufferedInputStream(connection.getInputStream());
 				bos = new BufferedOutputStream(connection.getOutputStream());	
 			} catch (Throwable t) {
@@ -238,6 +247,9 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		// Do it.
 		Reply reply = null; 
 		try {
+			extensionDSN = false;
+			extensionPipelining = false;
+			extensionChunking = false;
 			sendCommand("EHLO " + hostname);
 			reply = processLoginReplies(readReplies());
 			if (myLogger.debuggingState()) debugReply("login", reply);
@@ -324,7 +336,7 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	}
 	
 	/**
-	 * Set the recipient using RCPT TO.  It must be at MAILFROM_DONE.
+	 * Set the recipient using RCPT TO.  It must be at MAILFROM_DONE or RCPTTO_DONE (for another recipient).
 	 * @param recipientText as a valid SMTP address.
 	 * @param dsn command.  If null, it will be ignored.
 	 * @return A reply.
@@ -333,7 +345,7 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	public Reply	recipient(String recipientText, DSN dsn) throws ThingsException, InterruptedException  {	
 		// Qualify.  Must be connected.
 		if (state == SMTPState.BAD) throw new ThingsException("This client is now BAD.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE);
-		if (state != SMTPState.MAILFROM_DONE) throw new ThingsException("Bad SMTPState.  Not MAILFROM_DONE.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
+		if ((state != SMTPState.MAILFROM_DONE)&&(state != SMTPState.RCPTTO_DONE)) throw new ThingsException("Bad SMTPState.  Not MAILFROM_DONE.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
 			
 		// Do it.
 		Reply reply = null; 
@@ -366,6 +378,84 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		return reply;	
 	}
 	
+	/**
+	 * Set the sender and all the recipients.  It must be at LOGIN_COMPLETE.  If the server advertised PIPELINING, the MAIL FROM and RCPT TO
+	 * commands are sent in groups without waiting and the replies are read back in order afterwards.  Otherwise each command is done in turn.
+	 * @param senderText as a valid SMTP address.
+	 * @param dsn command.  If null, it will be ignored.
+	 * @param recipientText one or more valid SMTP addresses.
+	 * @return the MAIL FROM reply followed by a RCPT TO reply for each recipient in order.  Without pipelining, the recipients will be null if the sender was refused.
+	 * @throws ThingsException if not ready for MAIL FROM or actual transmission problem.
+	 */
+	public Reply[] envelope(String senderText, DSN dsn, String... recipientText) throws ThingsException, InterruptedException {
+		if ((recipientText == null)||(recipientText.length < 1)) ThingsException.softwareProblem("envelope() needs at least one recipient.");
+		Reply[] result = new Reply[recipientText.length + 1];
+
+		// Without pipelining, do them in turn.
+		if (!extensionPipelining) {
+			result[0] = sender(senderText, dsn);
+			if (state != SMTPState.MAILFROM_DONE) return result;
+			for (int index = 0; index < recipientText.length; index++) {
+				result[index + 1] = recipient(recipientText[index], dsn);
+			}
+			return result;
+		}
+		
+		// Qualify.  Must be connected.
+		if (state == SMTPState.BAD) throw new ThingsException("This client is now BAD.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE);
+		if (state != SMTPState.LOGIN_COMPLETE) throw new ThingsException("Bad SMTPState.  Not LOGIN_COMPLETE.", ThingsCodes.SMTPCLIENT_FAULT_NOT_STARTED, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
+		if ((dsn!=null)&&(!extensionDSN)) throw new ThingsException("Server does not implement DSN extension.", ThingsCodes.SMTPCLIENT_ERROR_MAILFROM_FAILED, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName);
+		
+		// Do it.  Once anything is sent, a failure leaves the replies out of step with the commands, so the connection can't be trusted.
+		try {
+			lastSize = 0;
+			int sent = 0;
+			int received = 0;
+			while (received < result.length) {
+				
+				// Send a group.
+				while ((sent < result.length)&&(sent - received < PIPELINE_GROUP_LIMIT)) {
+					if (sent == 0) {
+						if (dsn==null) queueCommand("MAIL FROM:<" + senderText + ">");
+						else queueCommand("MAIL FROM:<" + senderText + "> " + dsn.renderFrom());
+					} else {
+						if (dsn==null) queueCommand("RCPT TO:<" + recipientText[sent - 1] + ">");
+						else queueCommand("RCPT TO:<" + recipientText[sent - 1] + "> " + dsn.renderRecipient());
+					}
+					sent++;
+				}
+				bos.flush();
+				
+				// Read it back.
+				while (received < sent) {
+					result[received] = getOnlyOne(readReplies());
+					if (myLogger.debuggingState()) debugReply((received == 0) ? "envelope sender" : "envelope recipient", result[received]);
+					received++;
+				}
+			}
+			
+			// Figure the state.
+			if (result[0].code < CODE_FAIL_THRESHOLD) {
+				state = SMTPState.MAILFROM_DONE;
+				for (int index = 1; index < result.length; index++) {
+					if (result[index].code < CODE_FAIL_THRESHOLD) state = SMTPState.RCPTTO_DONE;
+				}
+			} else {
+				if (myLogger.debuggingState()) post("envelope() sender not ok.");
+			}
+			
+		} catch (InterruptedException ie) {
+			disconnect();
+			state = SMTPState.BAD;
+			throw ie;			
+		} catch (Throwable t) {
+			disconnect();
+			state = SMTPState.BAD;
+			throw new ThingsException("Pipelined envelope (MAIL FROM and RCPT TO) failed.", ThingsCodes.SMTPCLIENT_ERROR_RCPTTO_FAILED, t, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName);
+		}	
+		return result;
+	}
+	
 	/**
 	 * RESET the connection.  This will return the state to LOGIN_COMPLETE, as long as it has already been logged in.
 	 * @return the reply.
@@ -407,7 +497,8 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 	}
 	
 	/**
-	 * Send DATA.  It must be at RCPTTO_DONE.  It will do the appropriate dot doubling and CRLF management.
+	 * Send DATA.  It must be at RCPTTO_DONE.  It will do the appropriate dot doubling and CRLF management.  If the server supports CHUNKING, 
+	 * the data will be sent with BDAT instead and will not be changed at all.
 	 * @param ios Stream to send.  You handle any buffering.  Null entries are allowed and ignored.
 	 * @return the reply
 	 */
@@ -416,6 +507,7 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		// Qualify.  Must be connected.
 		if (state == SMTPState.BAD) throw new ThingsException("This client is now BAD.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE);
 		if (state != SMTPState.RCPTTO_DONE) throw new ThingsException("Bad SMTPState. Not RCPTTO_DONE.", ThingsCodes.SMTPCLIENT_FAULT_BAD_STATE, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_ACTUAL_STATE, state.name());
+		if (extensionChunking) return sendChunks(ios);
 		
 		Reply reply = null; 
 		
@@ -430,56 +522,10 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 			// Will it allow us to send?
 			if (reply.code != START_MAIL_INPUT) throw new Exception();  // PUNT		
 			
-			// Push the data
-			int iostate = STATE_START;
-			int character  = -1;
-			lastSize = 0;
-			
-			// pipeline the streams.
-			InputStream currentInputStream;
-			for (int index = 0; index < ios.length; index++) {
-				
-				currentInputStream = ios[index];
-				if (currentInputStream == null) continue;	// Allow and ignore nulls.
-				
-				character = currentInputStream.read();
-				while (character >= 0) {
-					lastSize++;	// A good char.  Count it.
-					
-					switch (character) {
-					case ThingsConstants.LF:
-						if (iostate==STATE_CR) iostate = STATE_LINE;
-						break;
-					case ThingsConstants.CR:
-						iostate = STATE_LF;
-						break;
-					case '.':
-						if (iostate==STATE_LINE) {
-							iostate = STATE_START;
-							bos.write('.'); // double it.
-							lastSize++;	
-						}
-						break;
-					default:
-						iostate = STATE_START;
-						break;
-					}
-					bos.write(character);
-					character = currentInputStream.read();
-				
-				}	// end while this stream has goodies. 
-			
-			} // end while there are streams in the pipeline.		
-			
-			// Terminate it.
-			bos.write(ThingsConstants.CR);
-			bos.write(ThingsConstants.LF);
-			bos.write('.');
-			bos.write(ThingsConstants.CR);
-			bos.write(ThingsConstants.LF);
-			lastSize += 5;
+			// Push the data, stuffed and terminated.
+			lastSize = encoder.writeData(bos, ios);
 			bos.flush();	
-			if (myLogger!=null) myLogger.post("sendData stream complete.  Waiting for reply.");
+			if (myLogger.debuggingState()) myLogger.post("sendData stream complete.  Waiting for reply.");
 		
 		} catch (InterruptedIOException iioe) {
 			if (myLogger.debuggingState()) myLogger.post("sendData interrupted by IO timeout.");
@@ -537,6 +583,69 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		return reply;	
 	}
 	
+	/**
+	 * Send the data as BDAT chunks (RFC 3030).  With pipelining, chunks are sent in groups before the replies are read.  Any failure leaves the
+	 * connection in an unknown place in the data, so it is dropped.
+	 * @param ios Stream to send.  Null entries are allowed and ignored.
+	 * @return the reply to the last chunk or the first chunk that failed.
+	 */
+	private Reply sendChunks(InputStream... ios) throws ThingsException, InterruptedException {
+		Reply reply = null;
+		Reply failed = null;
+		try {
+			lastSize = 0;
+			encoder.startChunks(ios);
+			byte[] buffer = encoder.getBuffer();
+			int outstanding = 0;
+			boolean last = false;
+			while (!last) {
+				
+				// A short chunk is the last one.
+				int size = encoder.nextChunk();
+				last = size < buffer.length;
+				if (last) queueCommand("BDAT " + size + " LAST");
+				else queueCommand("BDAT " + size);
+				bos.write(buffer, 0, size);
+				lastSize += size;
+				outstanding++;
+				
+				// Read the replies, unless we can keep going without them.
+				if ((!extensionPipelining)||(last)||(outstanding >= PIPELINE_GROUP_LIMIT)) {
+					bos.flush();
+					while (outstanding > 0) {
+						reply = getOnlyOne(readReplies());
+						outstanding--;
+						if ((reply.code >= CODE_FAIL_THRESHOLD)&&(failed == null)) failed = reply;
+					}
+					if (failed != null) break;
+				}
+			}
+			if (myLogger.debuggingState()) debugReply("sendChunks", reply);
+			
+		} catch (InterruptedException ie) {
+			if (myLogger.debuggingState()) myLogger.post("sendChunks interrupted during transmission.");
+			disconnect();
+			state = SMTPState.BAD;
+			throw ie;
+
+		} catch (InterruptedIOException iioe) {
+			if (myLogger.debuggingState()) myLogger.post("sendChunks interrupted by IO timeout.");
+			disconnect();
+			state = SMTPState.BAD;
+			throw new ThingsException("Send data (BDAT) interrupted by timeout.", ThingsCodes.SMTPCLIENT_ERROR_SEND_TIMEOUT, iioe, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName, ThingsNamespace.ATTR_TRANSPORT_SENT_SIZE_ACTUAL, Long.toString(lastSize));			
+			
+		} catch (Throwable t) {
+			if (myLogger.debuggingState()) myLogger.post("sendChunks exception during transmission.  message=" + t.getMessage());
+			disconnect();
+			state = SMTPState.BAD;
+			throw new ThingsException("Could not send data (BDAT).  Fail in transmission.", ThingsCodes.SMTPCLIENT_ERROR_SEND_FAILED, t, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, clientName);
+		}
+		
+		if (failed != null) reply = failed;
+		reply.size = lastSize;
+		return reply;
+	}
+	
 	/**
 	 * Quit the client.  This will return it to FRESH.  It will never throw an exception, but may return a bad reply.
 	 * @return a reply
@@ -596,6 +705,8 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		boolean result = false;
 		if (extensionName!=null) {
 			if (extensionName.equalsIgnoreCase(EXTENSION_DSN)) result = extensionDSN;
+			else if (extensionName.equalsIgnoreCase(EXTENSION_PIPELINING)) result = extensionPipelining;
+			else if (extensionName.equalsIgnoreCase(EXTENSION_CHUNKING)) result = extensionChunking;
 		}
 		return result;
 	}
@@ -626,6 +737,19 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 		lastSize = data.length + 2;
 	}
 
+	/**
+	 * Queue a command string for pipelining.  It is not flushed.  It will be encoded as US-ASCII, so use it for SMTP commands only!
+	 * @param theString
+	 * @throws Exception
+	 */
+	private void queueCommand(String theString) throws Exception {
+		byte[] data = theString.getBytes("US-ASCII");
+		bos.write(data);
+		bos.write(ThingsConstants.CR);
+		bos.write(ThingsConstants.LF);	
+		lastSize += data.length + 2;
+	}
+
 	/**
 	 * Get the login replies.  It'll set if certain features are available.
 	 * @param replies
@@ -638,10 +762,19 @@ public class FancySMTPClient implements SMTPClient, Debuggable {
 			Iterator<Reply> replyIterator = replies.listIterator();
 			result = replyIterator.next();
 			Reply current;
+			String keyword;
 			while(replyIterator.hasNext()) {
 				current = replyIterator.next();
-				if (current.text.equalsIgnoreCase(EXTENSION_DSN)) {
+				
+				// The extension keyword may have parameters after it.
+				keyword = current.text.trim();
+				if (keyword.indexOf(' ') > 0) keyword = keyword.substring(0, keyword.indexOf(' '));
+				if (keyword.equalsIgnoreCase(EXTENSION_DSN)) {
 					this.extensionDSN = true;
+				} else if (keyword.equalsIgnoreCase(EXTENSION_PIPELINING)) {
+					this.extensionPipelining = true;
+				} else if (keyword.equalsIgnoreCase(EXTENSION_CHUNKING)) {
+					this.extensionChunking = true;
 				}
 			}
 			
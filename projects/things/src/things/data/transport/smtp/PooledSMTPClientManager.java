@@ -0,0 +1,365 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.data.transport.smtp;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import things.common.ThingsCodes;
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.data.Data;
+import things.thing.Metrics;
+import things.thing.RESULT;
+import things.thing.UserException;
+import things.thinger.io.Logger;
+
+/**
+ * A client manager that keeps a bounded pool of connections to the target, so many threads can submit at once.  Each connection is a 
+ * TolerantSMTPClientManager, so it gets the same retry behavior and is reused until the stream max.  A submit takes an idle connection 
+ * (the most recently used one first, since it is most likely still open), opens a new one if the pool isn't full, or waits for one to come back.
+ * <p>
+ * Every submit is counted against its connection.  report() gives the totals for the pool and getConnectionReports() gives one per connection.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 17 MAY 10
+ * </pre> 
+ */
+public class PooledSMTPClientManager implements SMTPClientManager {
+
+	// == EXPOSED SETTINGS ===============================================================================
+	
+	/**
+	 * The default number of connections in the pool.
+	 */
+	public final static int DEFAULT_POOL_SIZE = 4;
+	
+	// ====================================================================================================================================
+	// ====================================================================================================================================
+	// == DATA
+
+	// Internal data
+	private int poolSize;
+	private Logger myLogger;
+	private String name;
+	private String mailtarget;
+	private int port;
+	private boolean streaming;
+	private boolean extensions = false;
+	private int streamMax = TolerantSMTPClientManager.DEFAULT_STREAM_MAX;
+	private int timeout = TolerantSMTPClientManager.CONNECTION_TIMEOUT;
+	private DSN dsn;
+	
+	private ArrayList<Connection> connections = new ArrayList<Connection>();
+	private LinkedList<Connection> idle = new LinkedList<Connection>();
+	private long firstStart;
+	private long lastDone;
+	
+	/**
+	 * A pooled connection and its counts.
+	 */
+	private class Connection {
+		TolerantSMTPClientManager manager;
+		String name;
+		Metrics metrics = new Metrics();
+	}
+	
+	// ====================================================================================================================================
+	// ====================================================================================================================================
+	// == Methods
+	
+	/**
+	 * Constructor with the default pool size.
+	 */
+	public PooledSMTPClientManager() {
+		this.poolSize = DEFAULT_POOL_SIZE;
+	}
+	
+	/**
+	 * Constructor.
+	 * @param poolSize the most connections that will be open at once.  It must be 1 or greater.
+	 * @throws ThingsException
+	 */
+	public PooledSMTPClientManager(int poolSize) throws ThingsException {
+		if (poolSize < 1) ThingsException.softwareProblem("PooledSMTPClientManager pool size must be 1 or greater.");
+		this.poolSize = poolSize;
+	}
+	
+	/**
+	 * Init the system.  This is a one-time deal.  The managers are one use only.  By default, no extensions will be supported.
+	 * Connections are not opened until they are needed.
+	 * @param aLogger
+	 * @param name
+	 * @param targetAddress
+	 * @param targetPort
+	 * @param isStreaming does it stream?  (Streaming attempts to reuse the connection).
+	 * @param extensions if true, server extensions will be supported.
+	 * @throws UserException
+	 */
+	public synchronized void init(Logger aLogger, String name, String targetAddress, int targetPort, boolean isStreaming, boolean extensions) throws ThingsException {
+		
+		// Qualify
+		if (mailtarget != null) UserException.softwareProblem("PooledSMTPClientManager.init() called more than once");
+		if (aLogger == null) throw new UserException("aLogger cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "aLogger");
+		if (name == null) throw new UserException("name cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "name");
+		if (targetAddress == null) throw new UserException("targetAddress cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "targetAddress");
+		if ((targetPort < 1)||(targetPort>65535)) throw new UserException("targetPort not a valid point", UserException.MODULE_FAULT_BAD_USAGE, ThingsNamespace.ATTR_PARAMETER_NAME, "targetPort", ThingsNamespace.ATTR_PARAMETER_VALUE, Integer.toString(targetPort));
+		
+		// Set
+		myLogger = aLogger;
+		this.name = name;
+		mailtarget = targetAddress;
+		port = targetPort;
+		streaming = isStreaming;
+		this.extensions = extensions;
+	}
+	
+	/**
+	 * Set the maximum number of messages a stream can send before it is closed and reestablished.  It applies to each connection.
+	 * @param max the maximum number.  It must be 1 or greater or you'll get an exception.  
+	 * @throws ThingsException
+	 * @throws InterruptedException
+	 */
+	public synchronized void setStreamMax(int max) throws ThingsException, InterruptedException {
+		if (max < 1) ThingsException.softwareProblem("setStreamMax() must be called with a positive integer.");
+		streamMax = max;
+		for (Connection connection : connections) connection.manager.setStreamMax(max);
+	}
+	
+	/**
+	 * Set a new timeout.  It'll take effect after the next connection is made (which might not be obvious).
+	 * @param timeout in milliseconds.
+	 * @throws ThingsException
+	 */
+	public synchronized void setTimeout(int timeout) throws ThingsException {
+		if (timeout < 0) UserException.softwareProblem("Cannot set the timeout as a negative number");
+		this.timeout = timeout;
+		for (Connection connection : connections) connection.manager.setTimeout(timeout);
+	}
+	
+	/**
+	 * Set a DSN for all subsequent sends.  If set to null, it will not be used.  Extensions must be supported for this to work.
+	 * @param dsn the dsn
+	 */
+	public synchronized void setDSN(DSN dsn) {
+		this.dsn = dsn;
+		for (Connection connection : connections) connection.manager.setDSN(dsn);
+	}
+	
+	/**
+	 * Are extensions supported?
+	 * @return true if they are
+	 */
+	public boolean isExtensionsSet() {
+		return extensions;
+	}
+	
+	/**
+	 * Get the pool size.
+	 * @return the most connections that will be open at once.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+	
+	/**
+	 * Submit a message.  We'll let InterruptedExceptions out like a good THINGS citizen.  It will wait for a connection if they are all busy.
+	 * @param senderInet
+	 * @param recipientInet
+	 * @param dataStream InputStreams to be sent in turn.  Null entries are allowed and ignored.
+	 * @return the SMTP reply for the send.  The size field is useful.
+	 * @throws ThingsException if not successful for any reason.  (Don't change this without modifying the other submit methods.)
+	 */
+	public Reply submit(String senderInet, String recipientInet, InputStream... dataStream) throws ThingsException, InterruptedException {
+		if (recipientInet == null) throw new UserException("recipientInet cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "recipientInet");
+		return submit(senderInet, Collections.singletonList(recipientInet), dataStream);
+	}
+	
+	/**
+	 * Submit a message to more than one recipient in a single transaction.  We'll let InterruptedExceptions out like a good THINGS citizen.
+	 * It will wait for a connection if they are all busy.
+	 * @param senderInet
+	 * @param recipientInets one or more recipients.
+	 * @param dataStream InputStreams to be sent in turn.  Null entries are allowed and ignored.
+	 * @return the SMTP reply for the send.  The size field is useful.
+	 * @throws ThingsException if not successful for any reason.  (Don't change this without modifying the other submit methods.)
+	 */
+	public Reply submit(String senderInet, List<String> recipientInets, InputStream... dataStream) throws ThingsException, InterruptedException {
+		Connection connection = borrow();
+		Metrics metrics = new Metrics();
+		metrics.count = 1;
+		metrics.cases = 1;
+		long start = System.currentTimeMillis();
+		try {
+			Reply reply = connection.manager.submit(senderInet, recipientInets, dataStream);
+			metrics.difference = reply.size;
+			if (reply.code >= CleanSMTPClient.CODE_FAIL_THRESHOLD) metrics.fail = 1;
+			else metrics.pass = 1;
+			return reply;
+			
+		} catch (ThingsException te) {
+			metrics.exception = 1;
+			throw te;
+			
+		} finally {
+			metrics.millis = System.currentTimeMillis() - start;
+			giveBack(connection, metrics, start);
+		}
+	}
+	
+	/**
+	 * Submit a message and return the result.  We'll let InterruptedExceptions out like a good THINGS citizen.
+	 * It will not let any other exception escape, but will reflect them in the RESULT.  (It will log complex info if debug is enabled.)  
+	 * <p>
+	 * A FAULT will result in a Type.EXCEPTION.  An ERROR will result in a Type.FAIL.  A successful transaction will result in a Type.PASS.
+	 * <p>
+	 * The metrics will contain a valid size giving the actual byte sent in the difference field, as well as count values.
+	 * <p>
+	 * @param senderInet
+	 * @param recipientInet
+	 * @param dataStream InputStreams to send in turn.
+	 * @param id the id of the operations.
+	 * @throws UserException for any really serious stuff.  Most problems will be returned in the RESULT.
+	 */
+	public RESULT meassuredSubmit(String senderInet, String recipientInet, String  id, InputStream... dataStream) throws UserException, InterruptedException {
+		Connection connection = null;
+		try {
+			connection = borrow();
+		} catch (UserException ue) {
+			throw ue;
+		} catch (ThingsException te) {
+			throw new UserException("Could not get a pooled connection.", ThingsCodes.SMTPCLIENT_FAULT_CANNOT_CONNECT, te, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, name);
+		}
+		RESULT result = null;
+		long start = System.currentTimeMillis();
+		try {
+			result = connection.manager.meassuredSubmit(senderInet, recipientInet, id, dataStream);
+		} finally {
+			if (result != null) giveBack(connection, result.getTypedThing(), start);
+			else giveBack(connection, Metrics.STOCK_Exception, start);
+		}
+		return result;
+	}
+
+	/**
+	 * Force a disconnection of every idle connection.  Busy ones are left alone.  It is nice, but not necessary, to call this when you are done--or just 
+	 * done for a while.  It doesn't ruin the manager.  You could still use it again (but remember, init is only once!).
+	 * @throws ThingsException
+	 * @throws InterruptedException
+	 */
+	public void disconnect()  throws ThingsException, InterruptedException {
+		List<Connection> closing;
+		synchronized(this) {
+			closing = new ArrayList<Connection>(idle);
+		}
+		for (Connection connection : closing) {
+			connection.manager.disconnect();
+		}
+	}
+	
+	/**
+	 * Report the totals for the pool.  The metrics millis is the wall clock time from the start of the first submit to the end of the last one, 
+	 * so the ATTR_TRANSPORT_RATE attribute (messages per second) is the actual throughput of the whole pool.
+	 * @return the result.
+	 * @throws ThingsException
+	 */
+	public synchronized RESULT report() throws ThingsException {
+		Metrics total = new Metrics();
+		for (Connection connection : connections) total.accumulate(connection.metrics);
+		total.cases = total.count;
+		total.millis = (total.count > 0) ? lastDone - firstStart : 0;
+		return new RESULT(ThingsCodes.SMTPCLIENT_POOL_REPORT, total, Data.Type.INFO, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, name, 
+				ThingsNamespace.ATTR_TRANSPORT_CONNECTIONS, Integer.toString(connections.size()), ThingsNamespace.ATTR_TRANSPORT_RATE, rate(total));
+	}
+	
+	/**
+	 * Report each connection.  The metrics millis is the time the connection spent on submits, so the ATTR_TRANSPORT_RATE attribute is its 
+	 * throughput while busy.
+	 * @return a result for each connection that has been opened, in the order they were opened.
+	 * @throws ThingsException
+	 */
+	public synchronized List<RESULT> getConnectionReports() throws ThingsException {
+		ArrayList<RESULT> result = new ArrayList<RESULT>(connections.size());
+		for (Connection connection : connections) {
+			Metrics metrics = new Metrics();
+			metrics.accumulate(connection.metrics);
+			metrics.cases = metrics.count;
+			result.add(new RESULT(ThingsCodes.SMTPCLIENT_POOL_REPORT, metrics, Data.Type.INFO, ThingsNamespace.ATTR_TRANSPORT_CLIENT_NAME, connection.name, 
+					ThingsNamespace.ATTR_TRANSPORT_RATE, rate(metrics)));
+		}
+		return result;
+	}
+	
+	// =========================================================================================
+	// Helpers
+	
+	/**
+	 * Get a connection.  Wait if they are all busy.
+	 * @return the connection.
+	 */
+	private Connection borrow() throws ThingsException, InterruptedException {
+		synchronized(this) {
+			if (mailtarget == null) UserException.softwareProblem("PooledSMTPClientManager.init() must be called before any other methods.");
+			while (idle.isEmpty()) {
+				if (connections.size() < poolSize) {
+					Connection connection = new Connection();
+					connection.name = name + "." + connections.size();
+					connection.manager = new TolerantSMTPClientManager();
+					connection.manager.init(myLogger, connection.name, mailtarget, port, streaming, extensions);
+					connection.manager.setStreamMax(streamMax);
+					connection.manager.setTimeout(timeout);
+					connection.manager.setDSN(dsn);
+					connections.add(connection);
+					idle.addFirst(connection);
+				} else {
+					wait();
+				}
+			}
+			if (firstStart == 0) firstStart = System.currentTimeMillis();
+			return idle.removeFirst();
+		}
+	}
+	
+	/**
+	 * Return a connection and count what it did.
+	 * @param connection the connection.
+	 * @param metrics what it did.
+	 * @param start when it started.
+	 */
+	private synchronized void giveBack(Connection connection, Metrics metrics, long start) {
+		connection.metrics.accumulate(metrics);
+		lastDone = Math.max(lastDone, start + metrics.millis);
+		idle.addFirst(connection);
+		notify();
+	}
+	
+	/**
+	 * Messages per second.
+	 * @param metrics the metrics.
+	 * @return the rate as text.
+	 */
+	private String rate(Metrics metrics) {
+		if (metrics.millis < 1) return "0";
+		return Long.toString((metrics.count * 1000L) / metrics.millis);
+	}
+	
+}
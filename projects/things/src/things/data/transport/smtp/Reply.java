@@ -24,6 +24,7 @@ package things.data.transport.smtp;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 23 NOV 06
+ * EPG - Recipient replies - 14 MAY 10
  * </pre> 
  */
 public class Reply {
@@ -31,6 +32,7 @@ public class Reply {
 		public String text;
 		public boolean broken = false;
 		public long size = 0;
+		public Reply[] recipients;	// RCPT TO replies for a multi-recipient submit, in order.  Otherwise null.
 		
 		public Reply() {
 			code = SMTPClient.ACTION_ABORTED;
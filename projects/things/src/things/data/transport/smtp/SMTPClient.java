@@ -27,6 +27,7 @@ import things.common.ThingsException;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 23 NOV 06
+ * EPG - Add envelope() for multiple recipients - 14 MAY 10
  * </pre> 
  */
 public interface SMTPClient  {
@@ -173,6 +174,18 @@ public interface SMTPClient  {
 	 * @throws ThingsException if not ready for  RCPT TO or actual transmission problem.
 	 */
 	public Reply	recipient(String recipientText, DSN dsn) throws ThingsException, InterruptedException;
+
+	/**
+	 * Set the sender and all the recipients.  It must be at LOGIN_COMPLETE.  A client may pipeline the commands if the server allows it.
+	 * It will be at RCPTTO_DONE if the sender and at least one recipient were accepted, at MAILFROM_DONE if only the sender was
+	 * accepted, and still at LOGIN_COMPLETE if the sender wasn't.
+	 * @param senderText as a valid SMTP address.
+	 * @param dsn command.  If null, it will be ignored.
+	 * @param recipientText one or more valid SMTP addresses.
+	 * @return the MAIL FROM reply followed by a RCPT TO reply for each recipient in order.  An entry is null if the command was never sent.
+	 * @throws ThingsException if not ready for MAIL FROM or actual transmission problem.
+	 */
+	public Reply[] envelope(String senderText, DSN dsn, String... recipientText) throws ThingsException, InterruptedException;
 	
 	/**
 	 * RESET the connection.  This will return the state to LOGIN_COMPLETE, as long as it has already been logged in.
@@ -16,6 +16,7 @@
 package things.data.transport.smtp;
 
 import java.io.InputStream;
+import java.util.List;
 
 import things.common.ThingsException;
 import things.thing.RESULT;
@@ -30,6 +31,7 @@ import things.thinger.io.Logger;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 23 NOV 06
+ * EPG - Multi-recipient submit - 14 MAY 10
  * </pre> 
  */
 public interface SMTPClientManager  {
@@ -83,6 +85,20 @@ public interface SMTPClientManager  {
 	 */
 	public Reply submit(String senderInet, String recipientInet, InputStream... dataStream) throws ThingsException, InterruptedException;
 	
+	/**
+	 * Submit a message to more than one recipient in a single transaction.  We'll let InterruptedExceptions out like a good THINGS citizen.
+	 * If the client and server support pipelining, the envelope will be sent without waiting for each reply.
+	 * <p>
+	 * It is successful if the sender and at least one recipient were accepted and the data was sent.  The returned reply's recipients field 
+	 * has the RCPT TO reply for each recipient in order, so refused recipients can be found there.
+	 * @param senderInet
+	 * @param recipientInets one or more recipients.
+	 * @param dataStream InputStreams to be sent in turn.  Null entries are allowed and ignored.
+	 * @return the SMTP reply for the send.  The size field is useful.
+	 * @throws ThingsException if not successful for any reason.  (Don't change this without modifying the other submit methods.)
+	 */
+	public Reply submit(String senderInet, List<String> recipientInets, InputStream... dataStream) throws ThingsException, InterruptedException;
+	
 	/**
 	 * Submit a message and return the result.  We'll let InterruptedExceptions out like a good THINGS citizen.
 	 * It will not let any other exception escape, but will reflect them in the RESULT.  (It will log complex info if debug is enabled.)  
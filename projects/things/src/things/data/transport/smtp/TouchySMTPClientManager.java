@@ -16,6 +16,8 @@
 package things.data.transport.smtp;
 
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 import things.common.PuntException;
 import things.common.ThingsCodes;
@@ -37,6 +39,8 @@ import things.thinger.io.Logger;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Adapted from another project - 23 NOV 06
+ * EPG - Multi-recipient submit - 14 MAY 10
+ * EPG - Streamed connections are kept until the stream max - 17 MAY 10
  * </pre> 
  */
 public class TouchySMTPClientManager implements SMTPClientManager {
@@ -153,39 +157,55 @@ public class TouchySMTPClientManager implements SMTPClientManager {
 	 * @throws ThingsException if not successful for any reason.  (Don't change this without modifying the other submit methods.)
 	 */
 	public Reply submit(String senderInet, String recipientInet, InputStream... dataStream) throws ThingsException, InterruptedException {
+		if (recipientInet == null) throw new UserException("recipientInet cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "recipientInet");
+		return submit(senderInet, Collections.singletonList(recipientInet), dataStream);
+	}
+	
+	/**
+	 * Submit a message to more than one recipient in a single transaction.  We'll let InterruptedExceptions out like a good THINGS citizen.
+	 * It is successful if the sender and at least one recipient were accepted and the data was sent.  The returned reply's recipients field 
+	 * has the RCPT TO reply for each recipient in order.
+	 * @param senderInet
+	 * @param recipientInets one or more recipients.
+	 * @param dataStream InputStreams to be sent in turn.  Null entries are allowed and ignored.
+	 * @return the SMTP reply for the send.  The size field is useful.
+	 * @throws ThingsException if not successful for any reason.  (Don't change this without modifying the other submit methods.)
+	 */
+	public Reply submit(String senderInet, List<String> recipientInets, InputStream... dataStream) throws ThingsException, InterruptedException {
 		Reply currentReply  = null;
+		Reply[] recipientReplies = null;
 		
 		// Qualify
 		if (senderInet == null) throw new UserException("senderInet cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "senderInet");
-		if (recipientInet == null) throw new UserException("recipientInet cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "recipientInet");
+		if ((recipientInets == null)||(recipientInets.size() < 1)) throw new UserException("recipientInets cannot be null or empty", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "recipientInets");
 		if (dataStream == null) throw new UserException("dataStream cannot be null", UserException.MODULE_FAULT_NULL_PARAMETER, ThingsNamespace.ATTR_PARAMETER_NAME, "dataStream");
+		String[] recipients = recipientInets.toArray(new String[recipientInets.size()]);
 		
 		try {
 		
 			// If we are FRESH, go through the login process.
 			if (myClient.getState() == SMTPState.FRESH) {
 				connect();
+				streamSent = 0;
 			}
 					
-			// Sender
+			// Sender and recipients.  They are one step, so the client can pipeline them.
 			if (myClient.getState() == SMTPState.LOGIN_COMPLETE) {
-				currentReply = myClient.sender(senderInet, dsn);	
-				if (currentReply.code >= CleanSMTPClient.CODE_FAIL_THRESHOLD) throw new PuntException("Sender");		
+				Reply[] envelope = myClient.envelope(senderInet, dsn, recipients);
+				currentReply = envelope[0];	
+				if (currentReply.code >= CleanSMTPClient.CODE_FAIL_THRESHOLD) throw new PuntException("Sender");
+				recipientReplies = new Reply[recipients.length];
+				System.arraycopy(envelope, 1, recipientReplies, 0, recipients.length);
+				currentReply = recipientReplies[recipients.length - 1];
+				if (myClient.getState() != SMTPState.RCPTTO_DONE) throw new PuntException("Recipient");		
 			} else {
 				throw new PuntException("Sender-BAD_STATE");
 			}
-
-			// Sender
-			if (myClient.getState() == SMTPState.MAILFROM_DONE) {
-				currentReply = myClient.recipient(recipientInet, dsn );	
-				if (currentReply.code >= CleanSMTPClient.CODE_FAIL_THRESHOLD) throw new PuntException("Recipient");		
-			} else {
-				throw new PuntException("Recipient-BAD_STATE");
-			}
 		
 			// Send data.  Only ONE retry from this point.
 			if (myClient.getState() == SMTPState.RCPTTO_DONE) {
 				currentReply = myClient.sendData(dataStream);	
+				currentReply.recipients = recipientReplies;
 				
 			} else {
 				throw new PuntException("SendData-BAD_STATE");
@@ -216,7 +236,7 @@ public class TouchySMTPClientManager implements SMTPClientManager {
 			streamSent++;
 			
 			// If we are not streaming or hit max streaming, drop the connection.
-			if ((streaming == false)||(streamSent<=streamMax)) {
+			if ((streaming == false)||(streamSent >= streamMax)) {
 				try {
 					myClient.disconnect();
 				} catch (Throwable t) {
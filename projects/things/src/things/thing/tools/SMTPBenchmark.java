@@ -0,0 +1,225 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thing.tools;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import things.common.ThingsCodes;
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.tools.Parallel;
+import things.data.Data;
+import things.data.ThingsPropertyReaderToolkit;
+import things.data.transport.smtp.PooledSMTPClientManager;
+import things.data.transport.smtp.Reply;
+import things.data.transport.smtp.SMTPClientManager;
+import things.thing.Metrics;
+import things.thing.RESULT;
+import things.thing.ResultExpectation;
+import things.thing.THING;
+import things.thing.UserException;
+
+/**
+ * Drive an SMTP server, usually the SMTP sink service, with a pooled client manager and report the throughput and latency.  Each message
+ * is timed from submit to the final reply.
+ * <p>
+ * The result metrics count messages, with a pass for every 250.  The millis are wall clock for the whole run.  Attributes give the rate 
+ * (ATTR_TRANSPORT_RATE, messages per second) and the latency percentiles in microseconds.
+ *<p>
+ * Properties:<br>
+ * PROPERTY_ADDRESS, PROPERTY_PORT - required.  The server.<br>
+ * PROPERTY_MESSAGES - optional.  How many to send.  Default is DEFAULT_MESSAGES.<br>
+ * PROPERTY_THREADS - optional.  Concurrent submitters.  Default is DEFAULT_THREADS.<br>
+ * PROPERTY_POOL - optional.  Connections in the pool.  Default is the thread count.<br>
+ * PROPERTY_SIZE - optional.  Message size in bytes.  Default is DEFAULT_SIZE.<br>
+ * PROPERTY_STREAM_MAX - optional.  Messages per connection before it is recycled.  0 means never recycle, which is the default.<br>
+ * PROPERTY_EXTENSIONS - optional.  Use ESMTP (PIPELINING and CHUNKING, if offered).  Default is true.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 MAY 10
+ * EPG - Submit with Parallel - 30 JUN 10
+ * </pre> 
+ */
+public class SMTPBenchmark extends THING {
+
+	// ====================================================================================================================================
+	// ====================================================================================================================================
+	// == DATA
+
+	/**
+	 * Names.
+	 */
+	public final static String RESULT_NAME = "smtp.benchmark";
+	public final static String RESULT_DESCRIPTION = "SMTP submit throughput and latency.";
+	
+	public final static String PROPERTY_ADDRESS = "smtp.benchmark.address";
+	public final static String PROPERTY_PORT = "smtp.benchmark.port";
+	public final static String PROPERTY_MESSAGES = "smtp.benchmark.messages";
+	public final static String PROPERTY_THREADS = "smtp.benchmark.threads";
+	public final static String PROPERTY_POOL = "smtp.benchmark.pool";
+	public final static String PROPERTY_SIZE = "smtp.benchmark.size";
+	public final static String PROPERTY_STREAM_MAX = "smtp.benchmark.stream.max";
+	public final static String PROPERTY_EXTENSIONS = "smtp.benchmark.extensions";
+	
+	public final static int DEFAULT_MESSAGES = 1000;
+	public final static int DEFAULT_THREADS = 4;
+	public final static int DEFAULT_SIZE = 2048;
+	
+	public final static String SENDER = "benchmark@things.local";
+	public final static String RECIPIENT = "sink@things.local";
+	
+	// ====================================================================================================================================
+	// ====================================================================================================================================
+	// == IMPLEMENTATION METHODS.
+	
+	/**
+	 * Definition step.
+	 */
+	public void DEFINITION() throws UserException {
+		DEFINE_RESULT(RESULT_NAME, RESULT_DESCRIPTION, ResultExpectation.PASS_FAIL);
+	}
+	
+	/**
+	 * Run the benchmark.
+	 * @throws any Throwable.
+	 */
+	public void PROCESS() throws Throwable {
+		ThingsPropertyReaderToolkit toolkit = PROPERTY_READER_TOOLKIT();
+		String address = toolkit.getRequired(PROPERTY_ADDRESS);
+		int port = toolkit.getRequiredInteger(PROPERTY_PORT);
+		int messages = toolkit.validateInt(toolkit.getDefaulted(PROPERTY_MESSAGES, Integer.toString(DEFAULT_MESSAGES)), PROPERTY_MESSAGES);
+		int threads = toolkit.validateInt(toolkit.getDefaulted(PROPERTY_THREADS, Integer.toString(DEFAULT_THREADS)), PROPERTY_THREADS);
+		int pool = toolkit.validateInt(toolkit.getDefaulted(PROPERTY_POOL, Integer.toString(threads)), PROPERTY_POOL);
+		int size = toolkit.validateInt(toolkit.getDefaulted(PROPERTY_SIZE, Integer.toString(DEFAULT_SIZE)), PROPERTY_SIZE);
+		int streamMax = toolkit.validateInt(toolkit.getDefaulted(PROPERTY_STREAM_MAX, "0"), PROPERTY_STREAM_MAX);
+		boolean extensions = Boolean.parseBoolean(toolkit.getDefaulted(PROPERTY_EXTENSIONS, "true"));
+		
+		PooledSMTPClientManager manager = new PooledSMTPClientManager(pool);
+		manager.init(GET_LOGGER(), GET_NAME(), address, port, streamMax > 0, extensions);
+		if (streamMax > 0) manager.setStreamMax(streamMax);
+		try {
+			SET_RESULT(RESULT_NAME, measure(manager, messages, threads, message(size)));
+		} finally {
+			manager.disconnect();
+		}
+	}
+	
+	/**
+	 * Get the simple name.  
+	 * @return the name.  
+	 */
+	public String GET_NAME() {
+		return "things.SMTPBenchmark";
+	}
+
+	// ====================================================================================================================================
+	// ====================================================================================================================================
+	// == TOOLS
+	
+	/**
+	 * Submit messages from concurrent threads and measure them.  The manager must be able to take concurrent submits, like the 
+	 * PooledSMTPClientManager.
+	 * @param manager an initialized manager.
+	 * @param messages how many to send.
+	 * @param threads how many threads to send them from.
+	 * @param message the message data.
+	 * @return the result.  It is PASS if every message got a 250.
+	 * @throws ThingsException
+	 * @throws InterruptedException
+	 */
+	public static RESULT measure(final SMTPClientManager manager, final int messages, int threads, final byte[] message) throws ThingsException, InterruptedException {
+		final long[] latencies = new long[messages];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger passed = new AtomicInteger();
+		Parallel.Job[] jobs = new Parallel.Job[threads];
+		
+		long start = System.currentTimeMillis();
+		for (int index = 0; index < threads; index++) {
+			jobs[index] = new Parallel.Job() {
+				public void run() {
+					int number = next.getAndIncrement();
+					long submitted;
+					Reply reply;
+					while (number < messages) {
+						submitted = System.nanoTime();
+						try {
+							reply = manager.submit(SENDER, RECIPIENT, new ByteArrayInputStream(message));
+							if (reply.code == 250) passed.incrementAndGet();
+						} catch (InterruptedException ie) {
+							return;
+						} catch (Throwable t) {
+							// Counted as a fail.
+						}
+						latencies[number] = (System.nanoTime() - submitted) / 1000;
+						number = next.getAndIncrement();
+					}
+				}
+			};
+		}
+		Parallel.runAll(jobs);
+		
+		Metrics metrics = new Metrics();
+		metrics.millis = System.currentTimeMillis() - start;
+		metrics.count = messages;
+		metrics.cases = messages;
+		metrics.pass = passed.get();
+		metrics.fail = messages - metrics.pass;
+		
+		Arrays.sort(latencies);
+		return new RESULT(ThingsCodes.SMTPCLIENT_BENCHMARK_REPORT, metrics, (metrics.fail == 0) ? Data.Type.PASS : Data.Type.FAIL, 
+				ThingsNamespace.ATTR_TRANSPORT_RATE, Long.toString((metrics.millis > 0) ? (messages * 1000L) / metrics.millis : messages * 1000L),
+				ThingsNamespace.ATTR_TRANSPORT_CONNECTIONS, Integer.toString(threads),
+				ThingsNamespace.ATTR_TRANSPORT_LATENCY_P50, Long.toString(percentile(latencies, 50)),
+				ThingsNamespace.ATTR_TRANSPORT_LATENCY_P90, Long.toString(percentile(latencies, 90)),
+				ThingsNamespace.ATTR_TRANSPORT_LATENCY_P99, Long.toString(percentile(latencies, 99)),
+				ThingsNamespace.ATTR_TRANSPORT_LATENCY_MAX, Long.toString(percentile(latencies, 100)));
+	}
+	
+	/**
+	 * Nearest rank percentile.
+	 * @param sorted the values, sorted.
+	 * @param percent the percentile, 1 through 100.
+	 * @return the value or 0 if there are none.
+	 */
+	public static long percentile(long[] sorted, int percent) {
+		if (sorted.length < 1) return 0;
+		int rank = (int)Math.ceil((percent / 100.0) * sorted.length);
+		if (rank < 1) rank = 1;
+		return sorted[rank - 1];
+	}
+	
+	/**
+	 * Make a plain text message of about the given size, in CRLF lines.
+	 * @param size the size in bytes.
+	 * @return the message.
+	 */
+	public static byte[] message(int size) {
+		StringBuilder text = new StringBuilder(size + 100);
+		text.append("From: ").append(SENDER).append("\r\nTo: ").append(RECIPIENT).append("\r\nSubject: benchmark\r\n\r\n");
+		int line = 0;
+		while (text.length() < size) {
+			text.append(line++ % 10 == 0 ? ".dotted line for the stuffer " : "line of benchmark text ");
+			text.append("0123456789abcdefghijklmnopqrstuvwxyz\r\n");
+		}
+		return text.toString().getBytes();
+	}
+	
+}
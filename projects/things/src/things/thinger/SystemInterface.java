@@ -26,6 +26,7 @@ import things.thing.MODULE;
 import things.thing.THING;
 import things.thinger.io.FileSystemLocator;
 import things.thinger.io.Logger;
+import things.thinger.kernel.ProcessCoordinator;
 import things.thinger.kernel.ProcessInterface;
 import things.thinger.kernel.ThingsState;
 import things.universe.Universe;
@@ -38,6 +39,7 @@ import things.universe.Universe;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 7 OCT 03
+ * EPG - Thread binding - 30 JUN 10
  * </pre> 
 */
 public interface SystemInterface {
@@ -224,6 +226,15 @@ public interface SystemInterface {
 	 */
 	public WhoAmI getCallingProcessId() throws SystemException;
 	
+	/**
+	 * Get a binding for the calling process.  A thread the process starts is not recognized by the kernel, unless it binds to
+	 * this.  Then it acts for the process, with its clearance, until it unbinds.
+	 * <p>
+	 * @return The binding.
+	 * @throws things.thinger.SystemException if the caller is not a process.
+	 */
+	public ProcessCoordinator.Binding getThreadBinding() throws SystemException;
+	
 	/**
 	 * Get an empty tree using the preferred, non-persistent implementation for the local host.
 	 * @return a new property tree.  
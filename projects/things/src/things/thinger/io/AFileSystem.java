@@ -31,6 +31,7 @@ import things.thinger.SystemException;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 20 FEB 05
+ * EPG - Add lastModified - 16 JUN 10
  * </pre> 
  */
 public interface AFileSystem {
@@ -59,6 +60,13 @@ public interface AFileSystem {
      * @return the size or 0 if the file doesn't exist or is invalid.
      */
     public long size(String  path);
+    
+    /**
+     * Last modification time of the file.  It can change.
+     * @param path The path
+     * @return the time in milliseconds since the epoch or 0 if the file doesn't exist or is invalid.
+     */
+    public long lastModified(String  path);
 	
   /**
      * Delete a file or directory if it exists at the path given.
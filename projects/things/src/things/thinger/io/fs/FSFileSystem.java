@@ -42,6 +42,7 @@ import things.thinger.io.FileSystemTools;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 18 MAR 05
+ * EPG - Add lastModified - 16 JUN 10
  * </pre> 
  */
 public class FSFileSystem implements AFileSystem {
@@ -121,6 +122,24 @@ public class FSFileSystem implements AFileSystem {
     	return result;
     }
     
+    /**
+     * Last modification time of the file.  It can change.
+     * @param path The path
+     * @return the time in milliseconds since the epoch or 0 if the file doesn't exist or is invalid.
+     */
+    public long lastModified(String  path) {
+    	long result = 0;
+    	try {
+    		File testFile = new File(FileSystemTools.normalizePath(myRoot + "/" + path));
+    		if (testFile.isFile()) {
+    			result = testFile.lastModified();
+    		}    		
+    	} catch (Throwable ee) {
+    		// Don't care.  Zero will return.
+    	}
+    	return result;
+    }
+    
     /**
      * Delete a file or directory if it exists at the path given.
      * @param path An absolute path to the item.
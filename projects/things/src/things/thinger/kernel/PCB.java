@@ -29,6 +29,7 @@ import things.thinger.SystemException;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 13 FEB 06
+ * EPG - Managed flag for the process coordinator - 28 JUN 10
  * </pre> 
  */
 public class PCB {
@@ -46,6 +47,9 @@ public class PCB {
 	private String		threadString;
 	private int			threadHash;
 	
+	// Set while a process coordinator has it in its table.
+	private volatile boolean	managed;
+	
 	// ========================================================================================================
 	// METHODS
 	
@@ -120,6 +124,22 @@ public class PCB {
 		return new String(me.toString() + me.getId() + me.hashCode());
 	}
 
+	/**
+	 * Is it in a process coordinator's table?
+	 * @return true if it is.
+	 */
+	public boolean isManaged() {
+		return managed;
+	}
+	
+	/**
+	 * Set by the process coordinator when it adds or removes it.
+	 * @param managed true if it is in the table.
+	 */
+	void setManaged(boolean managed) {
+		this.managed = managed;
+	}
+	
 	/**
 	 * Get the local properties for this process.
 	 * @return ThingsPropertyReader view of the local properties.
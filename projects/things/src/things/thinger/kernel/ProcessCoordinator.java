@@ -15,8 +15,12 @@
  */
 package things.thinger.kernel;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import things.common.WhoAmI;
 import things.data.ThingsPropertyView;
@@ -28,6 +32,13 @@ import things.thinger.SystemNamespace;
 /**
  * A process coordinator.  This is mostly a helper for the Kernel.    
  * <p>
+ * Callers are found by their thread.  The first call from a process thread finds its PCB by the thread identity string and 
+ * remembers it in a thread local, so later calls don't build the string or touch the tables.  The thread local is not inherited, 
+ * so threads started by a process are not recognized unless they are bound to it with a Binding.  A ThingsProcess thread 
+ * always acts for itself.  A remembered PCB is dropped once its process is removed.
+ * <p>
+ * The process table is copy on write.  Lookups don't lock, and the process list is a consistent snapshot.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
@@ -35,6 +46,11 @@ import things.thinger.SystemNamespace;
  * <pre>
  * EPG - Initial - 13FEB06
  * EPG - Change to use Clearance - 1 Dec 06
+ * EPG - Add status to the process table - 21 JUN 10
+ * EPG - Remember callers in a thread local - 25 JUN 10
+ * EPG - Copy on write process table - 28 JUN 10
+ * EPG - Thread binding - 30 JUN 10
+ * EPG - Callers are not inherited - 30 JUN 10
  * </pre> 
  */
 public class ProcessCoordinator {
@@ -42,8 +58,26 @@ public class ProcessCoordinator {
 	// ======================================================================================================
 	// DATA 
 
-	private HashMap<String, PCB>	processes;
-	private HashMap<String, PCB>	processesByOrganicId;
+	/**
+	 * A published process table.  It is never changed once published.  Writers copy it under the lock and publish the copy,
+	 * so readers never lock and a snapshot is just the current table.  Processes are registered rarely and looked up on every 
+	 * system call, so the copy is cheap enough.
+	 */
+	private static class ProcessTable {
+		final HashMap<String, PCB> byId;
+		final HashMap<String, PCB> byOrganicId;
+		final List<PCB> all;
+		
+		ProcessTable(LinkedHashMap<String, PCB> byId, HashMap<String, PCB> byOrganicId) {
+			this.byId = byId;
+			this.byOrganicId = byOrganicId;
+			all = Collections.unmodifiableList(new ArrayList<PCB>(byId.values()));
+		}
+	}
+	
+	private volatile ProcessTable	table;
+	private Object					tableLock;
+	private ThreadLocal<PCB>		callers;
 	
 	@SuppressWarnings("unused")
 	private WhoAmI					myId;	// Not used right now.
@@ -58,8 +92,9 @@ public class ProcessCoordinator {
 	 */
 	public ProcessCoordinator(WhoAmI	id) throws SystemException {
 		if (id==null) SystemException.softwareProblem("ProcessCoordinator constructed with a null id.");
-		processes = new HashMap<String, PCB>();
-		processesByOrganicId = new HashMap<String, PCB>();
+		table = new ProcessTable(new LinkedHashMap<String, PCB>(), new HashMap<String, PCB>());
+		tableLock = new Object();
+		callers = new ThreadLocal<PCB>();
 		myId = id;
 	}
 	
@@ -76,38 +111,18 @@ public class ProcessCoordinator {
 	 */
 	public PCB registerProcess(ThingsProcess	aProcess, Clearance		processClearance, ThingsPropertyView localProperties, ThingsPropertyViewReader configProperties) throws  SystemException {
 		
-		PCB candidatePCB = null;
-		
 		// Validation step 1 - make sure we can get an ID.
 		WhoAmI processID = aProcess.getProcessId();
 		if (processID == null) throw new SystemException("Cannot register a process since it has a null id.",SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD);
 	
-		// Register it
-		synchronized(processes) {
-			
-			// Make sure it is uniquely named.
-			if (processes.containsKey(processID.toString())) 
-				 throw new SystemException("Cannot register a process since another process has already been given the same ID (named).",SystemException.KERNEL_FAULT_PROCESS_ALREADY_NAMED,SystemNamespace.ATTR_PROCESS_ID,processID.toString());
-			
-			// Init it and put it under management.
-			try {
-				candidatePCB = new PCB(aProcess, processClearance, localProperties, configProperties);
-				processes.put(processID.toString(),candidatePCB);
-				
-				// do numeric 
-				String organicId = candidatePCB.getIdentityString();
-				if (processesByOrganicId.containsKey(organicId)) {
-					throw new SystemException("Process numeric is already in use.",SystemException.PANIC_KERNEL_ID_ALREADY_USED,SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId.toString());
-				}
-				
-				// Ok.  Save it.
-				processesByOrganicId.put(organicId,candidatePCB);
-				
-			} catch (Throwable t) {
-				 throw new SystemException("Cannot register a process due to a fault.", SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD, t, SystemNamespace.ATTR_PROCESS_ID, processID.toString(), SystemNamespace.ATTR_PLATFORM_MESSAGE, t.getMessage());
-			}
-
+		// Init it and put it under management.
+		PCB candidatePCB = null;
+		try {
+			candidatePCB = new PCB(aProcess, processClearance, localProperties, configProperties);
+		} catch (Throwable t) {
+			 throw new SystemException("Cannot register a process due to a fault.", SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD, t, SystemNamespace.ATTR_PROCESS_ID, processID.toString(), SystemNamespace.ATTR_PLATFORM_MESSAGE, t.getMessage());
 		}
+		add(processID, candidatePCB);
 		return candidatePCB;
 	}
 	
@@ -119,48 +134,20 @@ public class ProcessCoordinator {
 	 */
 	public void registerProcess(PCB	aPCB, Clearance		processClearance) throws  SystemException {
 		
-		
 		// Validation step 1 - make sure we can get an ID.
 		WhoAmI processID = aPCB.getProcess().getProcessId();
 		if (processID == null) throw new SystemException("Cannot register a process since it has a null id.",SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD);
-	
-		// Register it
-		synchronized(processes) {
-			
-			// Make sure it is uniquely named.
-			if (processes.containsKey(processID.toString())) 
-				 throw new SystemException("Cannot register a process since another process has already been given the same ID (named).",SystemException.KERNEL_FAULT_PROCESS_ALREADY_NAMED,SystemNamespace.ATTR_PROCESS_ID,processID.toString());
-			
-			// Init it and put it under management.
-			try {
-				processes.put(processID.toString(),aPCB);
-				
-				// do numeric 
-				String organicId = aPCB.getIdentityString();
-				if (processesByOrganicId.containsKey(organicId)) {
-					throw new SystemException("Process numeric is already in use.",SystemException.PANIC_KERNEL_ID_ALREADY_USED,SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId.toString());
-				}
-				
-				// Ok.  Save it.
-				processesByOrganicId.put(organicId,aPCB);
-				
-			} catch (Throwable t) {
-				 throw new SystemException("Cannot register a process due to a fault.", SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD, t, SystemNamespace.ATTR_PROCESS_ID, processID.toString(), SystemNamespace.ATTR_PLATFORM_MESSAGE, t.getMessage());
-			}
-
-		}
+		add(processID, aPCB);
 	}
 	
 	/**
-	 * Get the processes registered with the coordinator. 
-	 * @return a collection of PCBs
+	 * Get the processes registered with the coordinator.  This is a snapshot; it will not change as processes come and go.
+	 * @return an unmodifiable collection of PCBs in the order they were registered.
 	 * @throws things.thinger.SystemException
 	 * @see things.thinger.kernel.PCB
 	 */
 	public Collection<PCB> getProcesses() throws SystemException {
-	
-		// Find and return it.
-		return processes.values();
+		return table.all;
 	}	
 	
 	/**
@@ -189,23 +176,12 @@ public class ProcessCoordinator {
 	 */
 	public PCB getProcess(String	id) throws SystemException {
 	
-		PCB result = null;
-		
 		// Validate id
 		if ( id == null) throw new SystemException("Process id cannot be null for getProcess(String).",SystemException.PROCESS_ERROR_ID_NULL);
 		
-		// Find and return it.
-		synchronized(processes) {
-			if (processes.containsKey(id)) {
-				result = processes.get(id);
-			} else {
-				throw new SystemException("Process id(String) not registered.",SystemException.PROCESS_ERROR_NOT_FOUND,SystemNamespace.ATTR_PROCESS_ID,id);
-			}
-		}
-		
-		// Don't ever allow nulls.
-		if (result==null) throw new SystemException("Process id(String) yielded a null object.  This is bad.",SystemException.KERNEL_FAULT_PROCESS_MANAGEMENT,SystemNamespace.ATTR_PROCESS_ID,id);
-		
+		// Find and return it.  Nulls are never put in the table.
+		PCB result = table.byId.get(id);
+		if (result==null) throw new SystemException("Process id(String) not registered.",SystemException.PROCESS_ERROR_NOT_FOUND,SystemNamespace.ATTR_PROCESS_ID,id);
 		return result;
 	}	
 	
@@ -223,7 +199,7 @@ public class ProcessCoordinator {
 	
 	/**
 	 * Remove a processes by String ID.  This will usually be the same as WhoAmI.String(), but it isn't guaranteed.  If the processes is
-	 * not registered, it will quietly return.
+	 * not registered, it will quietly return.  The process and the threads bound to it are no longer recognized as callers.
 	 * @param id  The String representation of the ID.
 	 */
 	public void removeProcess(String	id) {
@@ -232,10 +208,17 @@ public class ProcessCoordinator {
 		if ( id == null) return;
 		
 		// Find and remove it.
-		synchronized(processes) {
-			if (processes.containsKey(id)) {
-				processes.remove(id);
-			}
+		synchronized(tableLock) {
+			ProcessTable current = table;
+			PCB removed = current.byId.get(id);
+			if (removed == null) return;
+			
+			LinkedHashMap<String, PCB> byId = new LinkedHashMap<String, PCB>(current.byId);
+			HashMap<String, PCB> byOrganicId = new HashMap<String, PCB>(current.byOrganicId);
+			byId.remove(id);
+			byOrganicId.remove(removed.getIdentityString());
+			removed.setManaged(false);
+			table = new ProcessTable(byId, byOrganicId);
 		}
 	}	
 	
@@ -247,19 +230,13 @@ public class ProcessCoordinator {
 	 * @see things.thinger.kernel.PCB
 	 */
 	public PCB getProcessOrganic(String	organicId) throws SystemException {
-		PCB result = null;
 		
 		// Validate id
 		if ( organicId == null) throw new SystemException("Process organicId cannot be null for getProcess().",SystemException.PROCESS_ERROR_ID_NULL);
 		
 		// Find and return it.
-		synchronized(processes) {
-			if (processesByOrganicId.containsKey(organicId)) {
-				result = processesByOrganicId.get(organicId);
-			} else {
-				throw new SystemException("Process organicId not registered.",SystemException.PROCESS_ERROR_NOT_FOUND,SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
-			}
-		}
+		PCB result = table.byOrganicId.get(organicId);
+		if (result==null) throw new SystemException("Process organicId not registered.",SystemException.PROCESS_ERROR_NOT_FOUND,SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
 		return result;
 	}	
 	
@@ -275,16 +252,17 @@ public class ProcessCoordinator {
 		if (target == null) throw new SystemException("The target cannot be null for dumpProcessTable().",SystemException.PROCESS_ERROR_BAD_CALL);
 		
 		// Stuff the headers.
-		target.setHeaders(PROCESS_TABLE_ENTRY1_TAG, PROCESS_TABLE_ENTRY2_ID, PROCESS_TABLE_ENTRY3_CLEARANCE, PROCESS_TABLE_ENTRY4_RUNTIME, PROCESS_TABLE_ENTRY5_NAME, PROCESS_TABLE_ENTRY6_STATE,PROCESS_TABLE_ENTRY7_STATE_NUMERIC);
+		target.setHeaders(PROCESS_TABLE_ENTRY1_TAG, PROCESS_TABLE_ENTRY2_ID, PROCESS_TABLE_ENTRY3_CLEARANCE, PROCESS_TABLE_ENTRY4_RUNTIME, PROCESS_TABLE_ENTRY5_NAME, PROCESS_TABLE_ENTRY6_STATE,PROCESS_TABLE_ENTRY7_STATE_NUMERIC, PROCESS_TABLE_ENTRY8_STATUS);
 		
 		try {
-			// Iterate the processes and fill in the table
+			// Iterate a snapshot of the processes and fill in the table
 			ThingsProcess currentProcess;
-			for (PCB p : processes.values()) {
+			for (PCB p : table.all) {
 				currentProcess = p.getProcess();
 				target.append(currentProcess.getProcessId().toTag(),currentProcess.getProcessId().toString(),p.getClearance().toString(),
 						Long.toString(System.currentTimeMillis()-currentProcess.getStartTime()), currentProcess.getProcessName(),
-						currentProcess.getCurrentState().getText(), Integer.toString(currentProcess.getCurrentStateNumeric())
+						currentProcess.getCurrentState().getText(), Integer.toString(currentProcess.getCurrentStateNumeric()),
+						currentProcess.getProcessStatus()
 						);
 			}
 			
@@ -302,24 +280,57 @@ public class ProcessCoordinator {
 	 public final static String PROCESS_TABLE_ENTRY5_NAME = "name";
 	 public final static String PROCESS_TABLE_ENTRY6_STATE = "state";
 	 public final static String PROCESS_TABLE_ENTRY7_STATE_NUMERIC = "state.numeric";
+	 public final static String PROCESS_TABLE_ENTRY8_STATUS = "status";
 	 
 	/**
 	 * Get the calling processes ID.
 	 * @return The ID of the calling process.
 	 */
 	public WhoAmI callerId() throws SystemException {
+		return caller("callerId").getProcess().getProcessId();
+	}
+	
+	/**
+	 * Get a binding for the calling process, so threads it starts can act for it.
+	 * @return the binding.
+	 * @throws SystemException KERNEL_FAULT_PROCESS_NOT_RECOGNIZED if the caller is not a process.
+	 */
+	public Binding getBinding() throws SystemException {
+		return new Binding(caller("getBinding"));
+	}
+	
+	/**
+	 * Binds threads to a process.  A thread that calls bind() acts for the process until it calls unbind() or the process is 
+	 * removed.  A ThingsProcess thread can't be bound to any process but its own.  Only the process itself can get one, from
+	 * getBinding().
+	 */
+	public final class Binding {
+		private final PCB process;
 		
-		// Find the process id
-		String organicId = PCB.getCallerIdentityString();
-		if (organicId == null) throw new SystemException("Process not recognized (during callerId).  It is null.",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED);
+		private Binding(PCB process) {
+			this.process = process;
+		}
+		
+		/**
+		 * Bind the calling thread to the process.
+		 */
+		public void bind() {
+			callers.set(process);
+		}
 		
-		// Find the PCB and extract the process id.
-		if (processesByOrganicId.containsKey(organicId)) {
-			// TODO wrap in exception handling.
-			return processesByOrganicId.get(organicId).getProcess().getProcessId();
-		} else {
-			throw new SystemException("Process not recognized (during checkCredentials).",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED,
-					SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
+		/**
+		 * Unbind the calling thread.  It is no longer recognized unless it is a process itself.
+		 */
+		public void unbind() {
+			callers.remove();
+		}
+		
+		/**
+		 * Get the id of the process it binds to.
+		 * @return the id.
+		 */
+		public WhoAmI getProcessId() {
+			return process.getProcess().getProcessId();
 		}
 	}
 	 
@@ -329,34 +340,17 @@ public class ProcessCoordinator {
 	 * @return true if this processes can pass teh clearance check, otherwise false.
 	 */
 	public boolean checkClearance(Clearance	requiredLevel) throws SystemException {
-		String organicId = null;
-		boolean result = false;
+		PCB candidateProcess = caller("checkClearance");
 		
 		try {
 			
-			// Find the process id
-			organicId = PCB.getCallerIdentityString();
-			if (organicId == null) throw new SystemException("Process not recognized (during checkClearance).  It is null.",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED);
-			
-			// Find the PCB
-			PCB candidateProcess;
-			if (processesByOrganicId.containsKey(organicId)) {
-				candidateProcess = processesByOrganicId.get(organicId);
-			} else {
-				throw new SystemException("Process not recognized (during checkClearance).",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED,
-						SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
-			}
-			
 			// Check credential
-			result = candidateProcess.getClearance().pass(requiredLevel);
+			return candidateProcess.getClearance().pass(requiredLevel);
 			
-		} catch (SystemException se) {
-			throw se;
 		} catch (Throwable t) {
 			throw new SystemException("Process checkClearance check failed due to error.",SystemException.KERNEL_FAULT_PROCESS_CREDENTIAL_FAULT,
-					SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
+					SystemNamespace.ATTR_PROCESS_ID,candidateProcess.getProcess().getProcessId().toString());
 		}
-		return result;
 	} 
 	
 	/**
@@ -367,24 +361,11 @@ public class ProcessCoordinator {
 	 */
 	public WhoAmI requireClearance(Clearance	requiredLevel, String 	operationName) throws SystemException {
 		
-		String organicId = null;
+		PCB candidateProcess = caller("requireClearance");
 		WhoAmI result = null;
 
 		try {
 			
-			// Find the process id
-			organicId = PCB.getCallerIdentityString();
-			if (organicId == null) throw new SystemException("Process not recognized (during requireClearance).  It is null.",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED);
-			
-			// Find the PCB
-			PCB candidateProcess;
-			if (processesByOrganicId.containsKey(organicId)) {
-				candidateProcess = processesByOrganicId.get(organicId);
-			} else {
-				throw new SystemException("Process not recognized (during requireClearance).",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED,
-						SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
-			}
-			
 			// Check credential
 			if (candidateProcess.getClearance().pass(requiredLevel)) {
 				result = candidateProcess.getProcess().getProcessId();
@@ -398,11 +379,75 @@ public class ProcessCoordinator {
 			throw se;
 		} catch (Throwable t) {
 			throw new SystemException("Process credential check failed due to error.",SystemException.KERNEL_FAULT_PROCESS_CREDENTIAL_FAULT,
-					SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
+					SystemNamespace.ATTR_PROCESS_ID,candidateProcess.getProcess().getProcessId().toString());
 		}
 		
 		// Return it
 		return result;
 	}
 	
+	// ======================================================================================================
+	// INTERNAL
+	
+	/**
+	 * Add a PCB to the table.
+	 * @param processID the process id.
+	 * @param aPCB the PCB.
+	 * @throws SystemException if the id or the organic id is already registered.
+	 */
+	private void add(WhoAmI processID, PCB aPCB) throws SystemException {
+		synchronized(tableLock) {
+			ProcessTable current = table;
+			
+			// Make sure it is uniquely named.
+			if (current.byId.containsKey(processID.toString())) 
+				 throw new SystemException("Cannot register a process since another process has already been given the same ID (named).",SystemException.KERNEL_FAULT_PROCESS_ALREADY_NAMED,SystemNamespace.ATTR_PROCESS_ID,processID.toString());
+			
+			try {
+				
+				// do numeric 
+				String organicId = aPCB.getIdentityString();
+				if (current.byOrganicId.containsKey(organicId)) {
+					throw new SystemException("Process numeric is already in use.",SystemException.PANIC_KERNEL_ID_ALREADY_USED,SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId.toString());
+				}
+				
+				// Ok.  Publish a new table with it.
+				LinkedHashMap<String, PCB> byId = new LinkedHashMap<String, PCB>(current.byId);
+				HashMap<String, PCB> byOrganicId = new HashMap<String, PCB>(current.byOrganicId);
+				byId.put(processID.toString(), aPCB);
+				byOrganicId.put(organicId, aPCB);
+				aPCB.setManaged(true);
+				table = new ProcessTable(byId, byOrganicId);
+				
+			} catch (Throwable t) {
+				 throw new SystemException("Cannot register a process due to a fault.", SystemException.KERNEL_FAULT_PROCESS_REGISTRATION_BAD, t, SystemNamespace.ATTR_PROCESS_ID, processID.toString(), SystemNamespace.ATTR_PLATFORM_MESSAGE, t.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Find the PCB for the calling thread.  A remembered PCB is used if it is still managed and either it is the thread's own or 
+	 * the thread was bound to it and isn't a process itself.  Only process threads are found the long way, since only they are
+	 * in the table.
+	 * @param during the operation, for the error.
+	 * @return the PCB.  It will never be null.
+	 * @throws SystemException KERNEL_FAULT_PROCESS_NOT_RECOGNIZED if the caller is not a process and isn't bound to one.
+	 */
+	private PCB caller(String during) throws SystemException {
+		Thread me = Thread.currentThread();
+		PCB result = callers.get();
+		if (result != null) {
+			if (result.isManaged() && ((result.getProcess() == me) || (!(me instanceof ThingsProcess)))) return result;
+			callers.remove();
+		}
+		
+		// Find it the long way.
+		String organicId = PCB.getCallerIdentityString();
+		result = table.byOrganicId.get(organicId);
+		if (result == null) throw new SystemException("Process not recognized (during " + during + ").",SystemException.KERNEL_FAULT_PROCESS_NOT_RECOGNIZED,
+				SystemNamespace.ATTR_PROCESS_ID_ORGANIC,organicId);
+		callers.set(result);
+		return result;
+	}
+	
 }
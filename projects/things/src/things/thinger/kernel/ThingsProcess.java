@@ -49,6 +49,7 @@ import things.thinger.io.Logger;
  * <pre>
  * EPG - Adapted - 6 SEP 04
  * EPG - Added control interface - 26 JUN 05
+ * EPG - Added status for the process list - 21 JUN 10
  * </pre> 
  *
  */
@@ -152,6 +153,14 @@ public abstract class ThingsProcess extends Thread implements ProcessInterface,
 	 */
 	public abstract String getProcessName();
 	
+	/**
+	 * Get a short status line for the process list, such as gauges for a service.  By default it is empty.
+	 * @return the status.  It should never be null.
+	 */
+	public String getProcessStatus() {
+		return "";
+	}
+	
 	// ***************************************************************************************************************
 	// ***************************************************************************************************************
 	// * SERVICES
@@ -42,6 +42,7 @@ import things.thinger.io.Logger.TYPE;
 import things.thinger.io.conduits.ConduitController;
 import things.thinger.kernel.Clearance;
 import things.thinger.kernel.PCB;
+import things.thinger.kernel.ProcessCoordinator;
 import things.thinger.kernel.ProcessInterface;
 import things.thinger.kernel.ResourceManager;
 import things.thinger.kernel.ThingsProcess;
@@ -59,6 +60,7 @@ import things.universe.UniverseAddress;
  * <pre>
  * EPG - Initial - 12 JUN 05
  * EPG - Split base and main - 6 FEB 06
+ * EPG - Thread binding - 30 JUN 10
  * </pre> 
  */
 public class KernelBasic extends KernelBasicBase {
@@ -773,6 +775,17 @@ public class KernelBasic extends KernelBasicBase {
 		WhoAmI caller = processes.requireClearance(Clearance.PUBLIC, "getId"); 
 		return caller;
 	}
+	
+	/**
+	 * Get a binding for the calling process.  A thread the process starts is not recognized by the kernel, unless it binds to
+	 * this.  Then it acts for the process, with its clearance, until it unbinds.
+	 * <p>
+	 * @return The binding.
+	 * @throws things.thinger.SystemException if the caller is not a process.
+	 */
+	public ProcessCoordinator.Binding getThreadBinding() throws SystemException {
+		return processes.getBinding();
+	}
 
 	/**
 	 * Get an empty tree using the preferred, non-persistent implementation for the local host.
@@ -25,7 +25,9 @@ package things.thinger.service;
  * <i>Version History</i>
  * <pre>
  * EPG - Initial - 11 AUG 05<br>
- * EPG - Add http service - 6 NOV 07
+ * EPG - Add http service - 6 NOV 07<br>
+ * EPG - Add SMTP sink service - 21 MAY 10<br>
+ * EPG - Add session limits - 21 JUN 10
  * </pre> 
  */
 public interface ServiceConstants {
@@ -50,6 +52,14 @@ public interface ServiceConstants {
 	 * Service thread pool..
 	 */
 	public static final String	POOL_MAX = "pool.max";
+	public static final String	POOL_QUEUE = "pool.queue";
+	
+	/**
+	 * Socket services.  The backlog is the most connections the system will hold before they are accepted.  The idle timeout is in
+	 * milliseconds.
+	 */
+	public static final String	ACCEPT_BACKLOG = "accept.backlog";
+	public static final String	SESSION_IDLE_TIMEOUT = "session.idle.timeout";
 	
 
 	/**
@@ -60,6 +70,11 @@ public interface ServiceConstants {
 	public static final String	ACTION_MANAGER = "manager.action";	
 	public static final String	SERVE_ROOT = "root";
 	public static final String	CLEARANCE = "clearance";
+	public static final String	BODY_SPILL_UNIVERSE_ADDRESS = "body.spill.addy";
+	public static final String	BODY_SPILL_THRESHOLD = "body.spill.threshold";
+	public static final String	SERVE_GZIP_CACHE_LIMIT = "serve.gzip.cache.limit";
+	public static final String	SERVE_CACHE_LIMIT = "serve.cache.limit";
+	public static final String	SERVE_CACHE_OBJECT_LIMIT = "serve.cache.object.limit";
 	
 	/**
 	 * Proxy service.
@@ -67,5 +82,10 @@ public interface ServiceConstants {
 	public static final String PROXY_PROCESSOR = "proxy.processor";
 	public static final String PROXY_SESSION_PATH = "proxy.session.path";
 	
+	/**
+	 * SMTP sink service.
+	 */
+	public static final String SMTP_SINK_STORE = "smtp.sink.store";
+	
 	
 }
\ No newline at end of file
@@ -33,11 +33,16 @@ import things.thinger.io.Logger;
 /**
  * The actor client base.  This can be used to make specific clients.
  * <p>
+ * Requests are pipelined.  A client may have up to the window of numbered messages out before it has to wait for replies, and 
+ * replies are matched to requests by their ACK sequence.  Use queue() to write requests without flushing them, send() to flush
+ * as well, and sync() to wait for every reply.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 MAY 07
+ * EPG - Pipelined requests - 18 JUN 10
  * </pre> 
  */
 public abstract class ActorClientBase {
@@ -64,7 +69,13 @@ public abstract class ActorClientBase {
 	 */
 	private int	rxSequence;
 	private int txSequence;
-	private HashSet<String> pending;
+	
+	/**
+	 * Sequences sent and not yet answered.
+	 */
+	private HashSet<Integer> pending;
+	private int window = ActorConstants.DEFAULT_PIPELINE_WINDOW;
+	private ActorMessage inbound;
 
 	private boolean gateBackend = false;
 	
@@ -125,6 +136,8 @@ public abstract class ActorClientBase {
 		// Setup
 		rxSequence = ActorConstants.STARTUP_SEQUENCE_NUMBER;
 		txSequence = ActorConstants.STARTUP_SEQUENCE_NUMBER;
+		pending = new HashSet<Integer>();
+		inbound = new ActorMessage();
 
 		this.si = si;
 		logger = si.getSystemLogger();   
@@ -202,17 +215,98 @@ public abstract class ActorClientBase {
 	public void recieve() throws Throwable {
 		// Backend
 		if (clientSocket==null) return;
-		if (backend()) quit_processing(); 
+		if (backend(Integer.MAX_VALUE)) quit_processing(); 
 	}
 	
 	/**
-	 * Send a message.
+	 * Send a message.  It is flushed to the server and then any replies that have arrived are handled.  If the window is full, it
+	 * will wait for replies first.
 	 * @param message the message.
+	 * @return the sequence number it was given.  The ACK or NACK will have it.
 	 * @throws Throwable
 	 */
-	public void send(ActorMessage 	message) throws Throwable {
-		
-		String	seqString = null;
+	public int send(ActorMessage 	message) throws Throwable {
+		return post(message, true);
+	}
+	
+	/**
+	 * Queue a message.  It is written but not flushed, so many can go out together.  If the window is full, it will flush and wait 
+	 * for replies first.  Call send() or sync() when done queueing.
+	 * @param message the message.
+	 * @return the sequence number it was given.  The ACK or NACK will have it.
+	 * @throws Throwable
+	 */
+	public int queue(ActorMessage 	message) throws Throwable {
+		return post(message, false);
+	}
+	
+	/**
+	 * Flush anything queued and wait until every message sent has been answered.
+	 * @throws Throwable
+	 */
+	public void sync() throws Throwable {
+		if (clientSocket==null) return;
+		try {
+			bos.flush();
+			if (backend(0)) quit_processing(); 
+		} catch (ThingsException te) {
+			throw te;
+		} catch (IOException ieo) {
+			throw new ThingsException("Connection I/O problem.  Likely, the connection failed.  Sync() failed.", ThingsException.ACTORSERVICE_LINK_ERROR, ieo);				
+		}
+	}
+	
+	/**
+	 * Stop the session.  It waits for the replies to everything sent, asks the server to quit and closes the connection.
+	 * @throws Throwable
+	 */
+	public void stop() throws Throwable {
+		if (clientSocket==null) return;
+		try {
+			sync();
+			if (clientSocket==null) return;
+			ActorMessage.buildQuickie(ActorConstants.UNNUMBERED_SEQUENCE_NUMBER,ActorConstants.MESSAGE_TYPE_QUIT).save(bos);
+		} finally {
+			if (clientSocket!=null) quit_processing();
+		}
+	}
+	
+	/**
+	 * Set the most numbered messages that may be waiting for replies.  1 means each message waits for the reply to the one before it.
+	 * @param messages the window.  It can't be less than 1.
+	 */
+	public void setWindow(int messages) {
+		window = Math.max(1, messages);
+	}
+	
+	/**
+	 * Get the window.
+	 * @return the most numbered messages that may be waiting for replies.
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	/**
+	 * Number of messages waiting for replies.
+	 * @return the count.
+	 */
+	public int getPendingCount() {
+		if (pending==null) return 0;
+		return pending.size();
+	}
+	
+	// =======================================================================================
+	// ## INTERNAL PROCESSING ############################################################################################
+	
+	/**
+	 * Post a message.
+	 * @param message the message.
+	 * @param flush flush it out now.
+	 * @return the sequence number.
+	 * @throws Throwable
+	 */
+	private int post(ActorMessage 	message, boolean flush) throws Throwable {
 		
 		try {
 			
@@ -221,17 +315,29 @@ public abstract class ActorClientBase {
 				throw new ThingsException("Connection not established or uplink dead.  Send() failed.", ThingsException.ACTORSERVICE_LINK_ERROR	);
 			}
 			
+			// Room in the window?
+			if (pending.size() >= window) {
+				bos.flush();
+				if (backend(window - 1)) {
+					quit_processing();
+					throw new ThingsException("Server quit while waiting for the window.  Send() failed.", ThingsException.ACTORSERVICE_LINK_ERROR);
+				}
+			}
+			
 			// Send it
 			message.sequence = txSequence;
-			message.save(bos);
+			message.write(bos);
 			txSequence++;
 			
 			// Remember the sequence number
-			seqString = Integer.toString(message.sequence);
-			pending.add(seqString);
+			pending.add(Integer.valueOf(message.sequence));
 			
 			// Backend 
-			if (backend()) quit_processing();
+			if (flush) {
+				bos.flush();
+				if (backend(Integer.MAX_VALUE)) quit_processing();
+			}
+			return message.sequence;
 
 		} catch (ThingsException ape) {
 			throw new ThingsException("Failed to send.", ThingsException.ACTORSERVICE_SEND_ERROR, ape);
@@ -250,9 +356,6 @@ public abstract class ActorClientBase {
 		}
  	}
 	
-	// =======================================================================================
-	// ## INTERNAL PROCESSING ############################################################################################
-	
 	/**
 	 * Quit processing.
 	 */
@@ -271,23 +374,27 @@ public abstract class ActorClientBase {
 	}
 	
 	/**
-	 * Spend some time on the inbound queue.
+	 * Spend some time on the inbound queue.  It handles whatever has arrived and then keeps reading until no more than the given
+	 * number of messages are waiting for replies.
+	 * @param most the most messages that may be left waiting.  Integer.MAX_VALUE means don't wait.
+	 * @return true if the server is quitting.
 	 */
-	private boolean backend() throws Throwable {
+	private boolean backend(int most) throws Throwable {
 		
 		// Prevent recursion.  The gate must be opened at the end!
 		if (gateBackend == true) return false;
 		gateBackend = true;
 		
-		ActorMessage	currentMessage = new ActorMessage();
+		ActorMessage	currentMessage = inbound;
 		String 			messageType;
 		String			seqString;
+		Integer			seq;
 		String			text;
 		
 		try {
 
-			// Anything pending?  This can be dicey, since we can get held up waiting for a message.  A better client would put this in another thread.
-			while (bis.available()>0) {
+			// Anything pending?  It will block only while more than most are waiting for replies.
+			while ((bis.available()>0)||(pending.size() > most)) {
 				
 				// Get it
 				currentMessage.load(bis);
@@ -298,10 +405,10 @@ public abstract class ActorClientBase {
 					seqString = currentMessage.getParameter(ActorConstants.PARAMETER_ACK_SEQUENCE);
 					text = currentMessage.getParameter(ActorConstants.PARAMETER_RESPONSE);
 					if (seqString==null) throw new ThingsException("FAULT:  ACK recieved without a ACK SEQUENCE number.", ThingsException.ACTORSERVICE_FAULT);
-					if (pending.contains(seqString)) {
+					seq = Integer.valueOf(seqString);
+					if (pending.remove(seq)) {
 						//OK!
-						pending.remove(seqString);
-						message_ack(Integer.parseInt(seqString),text);
+						message_ack(seq.intValue(),text);
 					} else {
 						throw new ThingsException("FAULT:  ACK for a message does not match a sent sequence.", ThingsException.ACTORSERVICE_FAULT);
 					}
@@ -311,12 +418,10 @@ public abstract class ActorClientBase {
 					seqString = currentMessage.getParameter(ActorConstants.PARAMETER_ACK_SEQUENCE);
 					text = currentMessage.getParameter(ActorConstants.PARAMETER_RESPONSE);					
 					if (seqString==null) throw new ThingsException("FAULT:  NACK recieved without a NACK SEQUENCE number.", ThingsException.ACTORSERVICE_FAULT);
-					
-					if (pending.contains(seqString)) {
+					seq = Integer.valueOf(seqString);
+					if (pending.remove(seq)) {
 						//OK!
-						pending.remove(seqString);
-						int nak_seq = Integer.parseInt(seqString);
-						message_nack(nak_seq,text);
+						message_nack(seq.intValue(),text);
 					} else {
 						throw new ThingsException("FAULT:  NACK for a message does not match a sent sequence.", ThingsException.ACTORSERVICE_FAULT);
 					}
@@ -338,8 +443,9 @@ public abstract class ActorClientBase {
 					// Unnumbered?
 					if (currentMessage.sequence!=ActorConstants.UNNUMBERED_SEQUENCE_NUMBER) rxSequence++;
 						
-					// let the user do it
+					// let the user do it.  It gets its own, since the inbound message is reused.
 					message_chain(currentMessage);
+					currentMessage = inbound = new ActorMessage();
 				}
 			}
 		
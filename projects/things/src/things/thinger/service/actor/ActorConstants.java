@@ -23,6 +23,7 @@ package things.thinger.service.actor;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 2 MAY 07
+ * EPG - Frame limit and pipeline window - 18 JUN 10
  * </pre> 
  */
 public class ActorConstants {
@@ -43,6 +44,16 @@ public class ActorConstants {
 	 */
 	static final long MAX_PARAMETERS_PER_MESSAGE = 10;
 	
+	/**
+	 * Largest frame, which is a full message with every token at the limit.
+	 */
+	static final int MAX_FRAME_SIZE = (int)(12 + ((1 + (4 * MAX_PARAMETERS_PER_MESSAGE)) * (4 + MAX_MESSAGE_TOKEN)));
+	
+	/**
+	 * Default most numbered messages a client will have waiting for a reply.
+	 */
+	public final static int DEFAULT_PIPELINE_WINDOW = 64;
+	
 	/**
 	 * Message type.
 	 */
@@ -15,39 +15,49 @@
  */
 package things.thinger.service.actor;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
 
 import things.common.ThingsException;
 import things.common.ThingsNamespace;
-import things.data.NV;
 import things.data.NVImmutable;
 
 /**
  * A message.<p>
- * MESSAGE = SEQUENCE,TYPE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,PARAMETERS,ATTRIBUTES<br>
+ * FRAME = LENGTH,MESSAGE<br>
+ * LENGTH = int (4-byte, jvm ordered), number of bytes in the MESSAGE<br>
+ * MESSAGE = SEQUENCE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,TYPE,PARAMETERS,ATTRIBUTES<br>
  * SEQUENCE = int (4-byte, jvm ordered)<br>
  * NUMBER.PARAMETERS = int (4-byte, jvm ordered), number of at PAIRs<br>
  * NUMBER.ATTRIBUTES = int (4-byte, jvm ordered), number of at PAIRs<br>
  * TYPE = STRING (for the message type)<br>
  * <p>
  * PARAMETERS = PAIR.1,PAIR.N<br>
- * NUMBER = int (4-byte, jvm ordered) representing the number of pairs<br>
+ * ATTRIBUTES = PAIR.1,PAIR.N<br>
  * PAIR.x = STRING,STRING (representing name/value)<br>
  * STRING = SIZE,BYTES<br>
  * SIZE = int (4-byte, jvm ordered)<br>
- * BYTES = byte[SIZE]<br>
+ * BYTES = byte[SIZE], UTF-8<br>
  * <p>
- * This is not entirely thread safe.  You should add a parameter during load or save which could cause the messages to get munged.  I'm not sure
- * this would ever be used across multiple threads, so I won't synchronize it.  
+ * A frame is read in one shot into a buffer the message keeps, so a message that is loaded over and over doesn't allocate.  The 
+ * header is decoded right away and the pairs are checked, but the pair strings aren't made until something asks for them.  A frame
+ * is written with one write to the stream.
+ * <p>
+ * This is not thread safe.  A message should be loaded, saved and changed by one thread at a time.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 11 MAY 07
+ * EPG - Length prefixed frames and lazy pairs - 18 JUN 10
+ * EPG - Pass read timeouts between frames - 21 JUN 10
  * </pre> 
  */
 public class ActorMessage implements Serializable {
@@ -63,20 +73,29 @@ public class ActorMessage implements Serializable {
 	public  int		sequence;
 	
 	/**
-	 * The parameters.  If null, there are none.
+	 * The parameters as name,value,name,value...  If null, there are none.
 	 */
-	private HashMap<String,NVImmutable>	parameters;
+	private String[] parameters;
+	private int parameterCount;
 	
 	/**
-	 * The attributes.  If null, there are none.
+	 * The attributes as name,value,name,value...  If null, there are none.
 	 */
-	private HashMap<String,NVImmutable>	attributes;	
+	private String[]	attributes;	
+	private int attributeCount;
 	
 	/**
 	 * Type
 	 */
 	private String	type;
 	
+	/**
+	 * The loaded frame and where its pairs start.  The pairs are undecoded if pairStart isn't NO_PAIRS.
+	 */
+	private transient byte[] frame;
+	private transient int pairStart = NO_PAIRS;
+	private final static int NO_PAIRS = -1;
+	
 	/**
 	 * Default constructor.
 	 */
@@ -101,16 +120,13 @@ public class ActorMessage implements Serializable {
 	public void addParamter(NVImmutable p) throws Throwable {
 		if (p==null) ThingsException.softwareProblem("addParamter called with null parameter");
 		if (p.getValue()==null)  ThingsException.softwareProblem("addParamter called with null value.  (Not sure how this could happen in the first place.)");
-		
-		if (parameters == null) {
-			parameters = new HashMap<String,NVImmutable>();
-		}
-		parameters.put(p.getName(),p);
+		addParamter(p.getName(), p.getValue());
 	}
 	
 	/**
 	 * Add a parameter.  It will be encoded into a PAIR.  There are practical and safety limits to the 
 	 * name and value String sizes.  Try to keep them under 2k.  If they are too big, they will be rejected by the distant end.
+	 * A parameter with the same name is replaced.
 	 * @param name The parameter name.
 	 * @param value The parameter value.
 	 * @throws Throwable
@@ -118,9 +134,11 @@ public class ActorMessage implements Serializable {
 	public void addParamter(String name, String value)  throws Throwable  {
 		if (name==null) ThingsException.softwareProblem("addParamter called with null name");
 		if (value==null) ThingsException.softwareProblem("addParamter called with null value");
-		
-		NVImmutable p = new NV(name,value); 
-		this.addParamter(p);
+		decode();
+		if (parameters == null) parameters = new String[8];
+		int index = find(parameters, parameterCount, name);
+		parameters = put(parameters, index, name, value);
+		if (index == parameterCount) parameterCount++;
 	}
 	
 	/**
@@ -130,12 +148,10 @@ public class ActorMessage implements Serializable {
 	 */
 	public String getParameter(String name) {
 		if (name==null) return null;
-		String response = ActorConstants.NO_PARAMETER;
-		if (parameters!=null) {
-			NVImmutable thang = parameters.get(name);
-			if (thang != null) response = thang.getValue();
-		}
-		return response;
+		decode();
+		int index = find(parameters, parameterCount, name);
+		if (index < parameterCount) return parameters[(index * 2) + 1];
+		return ActorConstants.NO_PARAMETER;
 	}
 	
 	/**
@@ -145,16 +161,13 @@ public class ActorMessage implements Serializable {
 	 */
 	public void addAttribute(NVImmutable p) throws Throwable {
 		if (p==null) ThingsException.softwareProblem("addAttribute called with null parameter");
-		
-		if (attributes == null) {
-			attributes = new HashMap<String,NVImmutable>();
-		}
-		attributes.put(p.getName(),p);
+		addAttribute(p.getName(), p.getValue());
 	}
 	
 	/**
 	 * Add an attribute.  It will be encoded into a PAIR.  There are practical and safety limits to the 
 	 * name and value String sizes.  Try to keep them under 2k.  If they are too big, they will be rejected by the distant end.
+	 * An attribute with the same name is replaced.
 	 * @param name The attribute name.
 	 * @param value The attribute value.
 	 * @throws Throwable
@@ -162,9 +175,11 @@ public class ActorMessage implements Serializable {
 	public void addAttribute(String name, String value) throws Throwable {
 		if (name==null) ThingsException.softwareProblem("addAttribute called with null name");
 		if (value==null) ThingsException.softwareProblem("addAttribute called with null value");
-		
-		NVImmutable p = new NV(name,value); 
-		this.addAttribute(p);
+		decode();
+		if (attributes == null) attributes = new String[8];
+		int index = find(attributes, attributeCount, name);
+		attributes = put(attributes, index, name, value);
+		if (index == attributeCount) attributeCount++;
 	}
 	
 	/**
@@ -174,152 +189,130 @@ public class ActorMessage implements Serializable {
 	 */
 	public String getAttribute(String name) {
 		if (name==null) return null;
-		String response = ActorConstants.NO_PARAMETER;
-		if (attributes!=null) {
-			NVImmutable thang = attributes.get(name);
-			if (thang != null) response = thang.getValue();
-		}
-		return response;
+		decode();
+		int index = find(attributes, attributeCount, name);
+		if (index < attributeCount) return attributes[(index * 2) + 1];
+		return ActorConstants.NO_PARAMETER;
 	}
 	
+	/**
+	 * Number of parameters.
+	 * @return the count.
+	 */
+	public int getParameterCount() {
+		return parameterCount;
+	}
+	
+	/**
+	 * Number of attributes.
+	 * @return the count.
+	 */
+	public int getAttributeCount() {
+		return attributeCount;
+	}
 
 	/**
-	 * Load this message from a stream.
+	 * Load this message from a stream.  Anything the message had is replaced.  It reads exactly one frame.  A read timeout 
+	 * while waiting for the frame length is thrown as is, so the caller can tell an idle peer from a broken one.
 	 * @param is The stream.
 	 * @throws Throwable
 	 */
-	public synchronized void load(InputStream is) throws Throwable  {
+	public void load(InputStream is) throws Throwable  {
 		int numberParameters;	
 		int numberAttributes;
+		int length;
 		
-		 // MESSAGE = SEQUENCE,TYPE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,PARAMETERS,ATTRIBUTES<br>
-		 // SEQUENCE = int (4-byte, jvm ordered)<br>
-		 // NUMBER.PARAMETERS = int (4-byte, jvm ordered), number of at PAIRs<br>
-		 // NUMBER.ATTRIBUTES = int (4-byte, jvm ordered), number of at PAIRs<br>
-		 // TYPE = STRING (for the message type)<br>
+		// Forget what was there.
+		pairStart = NO_PAIRS;
+		parameters = null;
+		parameterCount = 0;
+		attributes = null;
+		attributeCount = 0;
+		if (header == null) header = new byte[HEADER_SIZE];
+		
+		// FRAME = LENGTH,MESSAGE
+		try {
+			readFully(is, header, HEADER_SIZE, true);
+			length = ActorConstants.decodeInteger(header,0);
+		} catch (EOFException eofe) {
+			throw eofe;
+		} catch (SocketTimeoutException ste) {
+			throw ste;
+		} catch (Throwable t) {
+			throw new ThingsException("Failed reading frame.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t);
+		}
+		if ((length < MINIMUM_MESSAGE)||(length > ActorConstants.MAX_FRAME_SIZE)) throw new ThingsException("Frame size is impossible.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(length));
+		if ((frame == null)||(frame.length < length)) frame = new byte[Math.max(length, INITIAL_FRAME)];
 		try {
-			sequence = readInt(is);
-			numberParameters = readInt(is);
-			numberAttributes = readInt(is);
-			type = readString(is);
+			readFully(is, frame, length, false);
 		} catch (Throwable t) {
-			throw new ThingsException("Failed reading header.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t);
+			throw new ThingsException("Failed reading frame.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(length));
 		}
 		
-		// Validate
-		if (numberParameters > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum parameters per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberParameters));
-		if (numberAttributes > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum attributes per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberAttributes));
-		if ((type==null)||(type.length()<1)) throw new ThingsException("No TYPE given.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE);
+		// MESSAGE = SEQUENCE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,TYPE,PARAMETERS,ATTRIBUTES
+		sequence = ActorConstants.decodeInteger(frame,0);
+		numberParameters = ActorConstants.decodeInteger(frame,4);
+		numberAttributes = ActorConstants.decodeInteger(frame,8);
 		
-		// Items
-		String name;
-		String value;
+		// Validate
+		if ((numberParameters < 0)||(numberParameters > ActorConstants.MAX_PARAMETERS_PER_MESSAGE)) throw new ThingsException("Exceeded maximum parameters per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberParameters));
+		if ((numberAttributes < 0)||(numberAttributes > ActorConstants.MAX_PARAMETERS_PER_MESSAGE)) throw new ThingsException("Exceeded maximum attributes per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberAttributes));
+		int position = check(12, length, "TYPE", 0);
+		type = new String(frame, 16, position - 16, UTF8);
 		
-		// PARAMETERS
-		if (numberParameters > 0) parameters = new HashMap<String,NVImmutable>();
+		// Check the pairs now, so a bad message is found when it is loaded.  They are decoded when needed.
+		int pairs = position;
 		for (int index = 0; index < numberParameters; index++) {
-			
-			try {
-				name = readString(is);
-			} catch (Throwable t) {
-				throw new ThingsException("Failed reading PARAMETER name.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(index+1));
-			}
-
-			try {
-				value = readString(is);
-			} catch (Throwable t) {
-				throw new ThingsException("Failed reading PARAMETER value.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(index+1));
-			}
-		
-			// Save
-			addParamter(name, value);
-		}	
-		
-		// ATTRIBUTES
-		if (numberAttributes > 0) attributes = new HashMap<String,NVImmutable>();
+			position = check(position, length, "PARAMETER name", index);
+			position = check(position, length, "PARAMETER value", index);
+		}
 		for (int index = 0; index < numberAttributes; index++) {
-			
-			try {
-				name = readString(is);
-			} catch (Throwable t) {
-				throw new ThingsException("Failed reading ATTRIBUTE name.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(index+1));
-			}
-
-			try {
-				value = readString(is);
-			} catch (Throwable t) {
-				throw new ThingsException("Failed reading ATTRIBUTE value.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(index+1));
-			}
-		
-			// Save
-			addAttribute(name, value);
-		}	
+			position = check(position, length, "ATTRIBUTE name", index);
+			position = check(position, length, "ATTRIBUTE value", index);
+		}
+		if (position != length) throw new ThingsException("Frame has extra bytes.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(length));
+		pairStart = pairs;
+		parameterCount = numberParameters;
+		attributeCount = numberAttributes;
 	}
 	
 	/**
-	 * Save this message to a stream.
+	 * Save this message to a stream and flush it.
 	 * @param os The stream.
 	 * @throws Throwable
 	 */
-	public synchronized void save(OutputStream os) throws Throwable  {
-		
-		int numberParameters = parameters.size();	
-		int numberAttributes = attributes.size();
+	public void save(OutputStream os) throws Throwable  {
+		write(os);
+		os.flush();
+	}
+	
+	/**
+	 * Write this message to a stream as one frame, but don't flush it.  This lets many messages go out together.
+	 * @param os The stream.
+	 * @throws Throwable
+	 */
+	public void write(OutputStream os) throws Throwable  {
+		decode();
 		
 		// Validate
-		if ( numberParameters > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum parameters per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberParameters));
-		if ( numberAttributes > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum attributes per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(numberAttributes));
+		if ( parameterCount > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum parameters per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(parameterCount));
+		if ( attributeCount > ActorConstants.MAX_PARAMETERS_PER_MESSAGE) throw new ThingsException("Exceeded maximum attributes per message.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_METRIC_COUNT, Integer.toString(attributeCount));
 		if ((type==null)||(type.length()<1)) throw new ThingsException("No TYPE given.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE);
 		
+		// FRAME = LENGTH,MESSAGE
+		// MESSAGE = SEQUENCE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,TYPE,PARAMETERS,ATTRIBUTES
+		Encoder encoder = encoders.get();
+		encoder.position = HEADER_SIZE;
+		encoder.putInt(sequence);
+		encoder.putInt(parameterCount);
+		encoder.putInt(attributeCount);
+		encoder.putString(type, "TYPE");
+		for (int index = 0; index < parameterCount * 2; index++) encoder.putString(parameters[index], "PARAMETER");
+		for (int index = 0; index < attributeCount * 2; index++) encoder.putString(attributes[index], "ATTRIBUTE");
+		ActorConstants.encodeInteger(encoder.buffer, 0, encoder.position - HEADER_SIZE);
 		
-		 // MESSAGE = SEQUENCE,TYPE,NUMBER.PARAMETERS,NUMBER.ATTRIBUTES,PARAMETERS,ATTRIBUTES<br>
-		 // SEQUENCE = int (4-byte, jvm ordered)<br>
-		 // NUMBER.PARAMETERS = int (4-byte, jvm ordered), number of at PAIRs<br>
-		 // NUMBER.ATTRIBUTES = int (4-byte, jvm ordered), number of at PAIRs<br>
-		 // TYPE = STRING (for the message type)<br>
-		try {
-			writeInt(os, sequence);
-			writeInt(os, numberParameters);
-			writeInt(os, numberAttributes);
-			writeString(os, type);
-		} catch (Throwable t) {
-			throw new ThingsException("Failed writing header.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t);
-		}
-		
-		// PARAMETERS
-		for (NVImmutable item : parameters.values()) {
-			
-			try {
-				writeString(os, item.getName());
-			} catch (Throwable t) {
-				throw new ThingsException("Failed writing PARAMETER name.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_VALUE, item.getName());
-			}
-
-			try {
-				writeString(os, item.getValue());
-			} catch (Throwable t) {
-				throw new ThingsException("Failed writing PARAMETER value.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_PARAMETER_VALUE, item.getValue());
-			}
-		}	
-		
-		// ATTRIBUTES
-		for (NVImmutable item : attributes.values()) {
-			
-			try {
-				writeString(os, item.getName());
-			} catch (Throwable t) {
-				throw new ThingsException("Failed writing ATTRIBUTE name.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_DATA_ATTRIBUTE_VALUE, item.getName());
-			}
-
-			try {
-				writeString(os, item.getValue());
-			} catch (Throwable t) {
-				throw new ThingsException("Failed writing ATTRIBUTE value.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, t, ThingsNamespace.ATTR_DATA_ATTRIBUTE_VALUE, item.getValue());
-			}
-		}	
-		
-		// Push it.
-		os.flush();
+		// Push it in one go.
+		os.write(encoder.buffer, 0, encoder.position);
 	}
 	
 	/**
@@ -369,56 +362,153 @@ public class ActorMessage implements Serializable {
 	// ==============================================================================================================================
 	// = INTERNAL	
 	
-	private byte[] loadBuffer = new byte[4];
-	private byte[] saveBuffer = new byte[4];
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static int HEADER_SIZE = 4;
+	private final static int MINIMUM_MESSAGE = 17;
+	private final static int INITIAL_FRAME = 512;
+	private transient byte[] header;
 	
 	/**
-	 * Read an integer.
-	 * @param is
-	 * @return the integer.
-	 * @throws Throwable
+	 * Frame building space for each thread.
 	 */
-	private int readInt(InputStream is) throws Throwable {
-		is.read(loadBuffer,0,4);
-		return ActorConstants.decodeInteger(loadBuffer,0);
+	private static class Encoder {
+		byte[] buffer = new byte[INITIAL_FRAME];
+		int position;
+		
+		void ensure(int more) {
+			if (position + more > buffer.length) {
+				byte[] grown = new byte[Math.max(buffer.length * 2, position + more)];
+				System.arraycopy(buffer, 0, grown, 0, position);
+				buffer = grown;
+			}
+		}
+		
+		void putInt(int value) {
+			ensure(4);
+			ActorConstants.encodeInteger(buffer, position, value);
+			position += 4;
+		}
+		
+		void putString(String value, String what) throws ThingsException {
+			int length = value.length();
+			ensure(length + 4);
+			int start = position + 4;
+			int index = 0;
+			char character;
+			
+			// ASCII goes straight in.
+			while ((index < length)&&((character = value.charAt(index)) < 0x80)) buffer[start + index++] = (byte)character;
+			int size = length;
+			if (index < length) {
+				byte[] encoded = value.getBytes(UTF8);
+				size = encoded.length;
+				ensure(size + 4);
+				System.arraycopy(encoded, 0, buffer, start, size);
+			}
+			if ((size > ActorConstants.MAX_MESSAGE_TOKEN)||(size < 1)) throw new ThingsException("Token exceeds allowable size or is less than 1.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE_FIELD, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(size), ThingsNamespace.ATTR_DATA_TYPE, what);
+			ActorConstants.encodeInteger(buffer, position, size);
+			position = start + size;
+		}
 	}
+	private final static ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+		protected Encoder initialValue() {
+			return new Encoder();
+		}
+	};
 	
 	/**
-	 * Read a STRING.
+	 * Read exactly this many bytes.
 	 * @param is
-	 * @return the String.
-	 * @throws Throwable
+	 * @param buffer
+	 * @param length
+	 * @param start true if this is the start of a frame, so ending before anything is read is a clean end between frames.
+	 * @throws IOException
 	 */
-	private String readString(InputStream is) throws Throwable {
-		int size = readInt(is) ;
-		if ((size > ActorConstants.MAX_MESSAGE_TOKEN)||(size < 1)) throw new ThingsException("Token exceeds allowable size or is less than 1.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE_FIELD, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(size));
-		byte[] buffer = new byte[size];
-		is.read(buffer,0,size);
-		return new String(buffer);
+	private static void readFully(InputStream is, byte[] buffer, int length, boolean start) throws IOException {
+		int position = 0;
+		while (position < length) {
+			int amount = is.read(buffer, position, length - position);
+			if (amount < 0) {
+				if ((start)&&(position == 0)) throw new EOFException("Stream ended between frames.");
+				throw new EOFException("Stream ended inside a frame.");
+			}
+			position += amount;
+		}
 	}
 	
 	/**
-	 * Write an integer.
-	 * @param os target stream
-	 * @param value the integer
-	 * @throws Throwable
+	 * Check a STRING in the frame.
+	 * @return where the next item starts.
 	 */
-	private void writeInt(OutputStream os, int  value) throws Throwable {
-		ActorConstants.encodeInteger(saveBuffer, 0, value);
-		os.write(saveBuffer);
+	private int check(int position, int length, String what, int item) throws ThingsException {
+		if (position + 4 > length) throw new ThingsException("Frame ended before " + what + ".", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(item+1));
+		int size = ActorConstants.decodeInteger(frame, position);
+		if ((size > ActorConstants.MAX_MESSAGE_TOKEN)||(size < 1)) throw new ThingsException("Token exceeds allowable size or is less than 1.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE_FIELD, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(size), ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(item+1));
+		if (position + 4 + size > length) throw new ThingsException("Frame ended inside " + what + ".", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE, ThingsNamespace.ATTR_PARAMETER_ITEM_NUMBER, Integer.toString(item+1));
+		return position + 4 + size;
 	}
 	
 	/**
-	 * Write a STRING.
-	 * @param os target stream.
-	 * @param value the String.
-	 * @throws Throwable
+	 * Make the pair strings from a loaded frame, if they haven't been.  The frame was checked when it was loaded.
+	 */
+	private void decode() {
+		if (pairStart == NO_PAIRS) return;
+		int position = pairStart;
+		pairStart = NO_PAIRS;
+		parameters = null;
+		attributes = null;
+		if (parameterCount > 0) {
+			parameters = new String[parameterCount * 2];
+			for (int index = 0; index < parameters.length; index++) {
+				int size = ActorConstants.decodeInteger(frame, position);
+				parameters[index] = new String(frame, position + 4, size, UTF8);
+				position += size + 4;
+			}
+		}
+		if (attributeCount > 0) {
+			attributes = new String[attributeCount * 2];
+			for (int index = 0; index < attributes.length; index++) {
+				int size = ActorConstants.decodeInteger(frame, position);
+				attributes[index] = new String(frame, position + 4, size, UTF8);
+				position += size + 4;
+			}
+		}
+	}
+	
+	/**
+	 * Find a pair.
+	 * @return the pair number or count if it isn't there.
+	 */
+	private static int find(String[] pairs, int count, String name) {
+		for (int index = 0; index < count; index++) {
+			if (pairs[index * 2].equals(name)) return index;
+		}
+		return count;
+	}
+	
+	/**
+	 * Set a pair.
+	 * @return the pairs, which may have grown.
+	 */
+	private static String[] put(String[] pairs, int index, String name, String value) {
+		if ((index * 2) + 2 > pairs.length) {
+			String[] grown = new String[pairs.length * 2];
+			System.arraycopy(pairs, 0, grown, 0, index * 2);
+			pairs = grown;
+		}
+		pairs[index * 2] = name;
+		pairs[(index * 2) + 1] = value;
+		return pairs;
+	}
+	
+	/**
+	 * Decode before serialization, since the frame isn't kept.
+	 * @param out
+	 * @throws IOException
 	 */
-	private void writeString(OutputStream os, String value) throws Throwable {
-		int size = value.length();
-		if ((size > ActorConstants.MAX_MESSAGE_TOKEN)||(size < 1)) throw new ThingsException("Token exceeds allowable size or is less than 1.", ThingsException.ACTORSERVICE_FAULT_BAD_MESSAGE_FIELD, ThingsNamespace.ATTR_DATA_SIZE, Integer.toString(size));
-		writeInt(os, size);
-		os.write(value.getBytes()); 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		decode();
+		out.defaultWriteObject();
 	}
 	
 }
\ No newline at end of file
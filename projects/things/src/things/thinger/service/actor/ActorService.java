@@ -18,8 +18,6 @@ package things.thinger.service.actor;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.util.HashSet;
-import java.util.Iterator;
 
 import things.common.ThingsCodes;
 import things.common.ThingsException;
@@ -27,6 +25,7 @@ import things.common.ThingsNamespace;
 import things.common.WhoAmI;
 import things.data.ThingsPropertyReaderToolkit;
 import things.data.ThingsPropertyReaderToolkit.Validations;
+import things.data.ThingsPropertyView;
 import things.thinger.SystemException;
 import things.thinger.SystemNamespace;
 import things.thinger.service.Service;
@@ -35,13 +34,21 @@ import things.thinger.service.ServiceConstants;
 /**
  * The actor service.  This was never really finished.
  * <p>
- * LISTEN_PORT paramter gives the connect port.
+ * Sessions run in a bounded pool.  When the pool and its queue are full, new connections are closed right away.  The pool
+ * gauges show in the process list.
+ * <p>
+ * ServiceConstants.LISTEN_PORT - required.  The connect port.<br>
+ * ServiceConstants.POOL_MAX - optional.  The most concurrent sessions.<br>
+ * ServiceConstants.POOL_QUEUE - optional.  The most sessions waiting for a thread.  0 means none wait.<br>
+ * ServiceConstants.ACCEPT_BACKLOG - optional.  The most connections waiting to be accepted.<br>
+ * ServiceConstants.SESSION_IDLE_TIMEOUT - optional.  Milliseconds a session may wait for its client.  0 means forever.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 MAY 07
+ * EPG - Bounded session pool - 21 JUN 10
  * </pre> 
  */
 public class ActorService  extends Service {
@@ -50,18 +57,19 @@ public class ActorService  extends Service {
 	// CONFIGURATION
 	final private static int ACCEPT_TIMEOUT = 2000;
 	
+	public final static int DEFAULT_POOL_MAX = 50;
+	public final static int DEFAULT_POOL_QUEUE = 50;
+	public final static int DEFAULT_ACCEPT_BACKLOG = 50;
+	public final static int DEFAULT_SESSION_IDLE_TIMEOUT = 300000;
+	
 	// ============================================================================================================
 	// FIELDS
 
 	// ============================================================================================================
 	// INTERNAL DATA
-	private Boolean serviceIsOn;
+	private volatile boolean serviceIsOn;
 	private ServerSocket listen;
-	
-	/**
-	 *  active ports 
-	 */
-	HashSet<ActorServiceThread> active;
+	private ActorSessionPool pool;
 	
 	// =====================================================================================================================================
 	// =====================================================================================================================================
@@ -71,18 +79,14 @@ public class ActorService  extends Service {
 	 * Called to turn the service on.  This may be called by another thread.
 	 */
 	public void serviceOn() throws SystemException {
-		synchronized(serviceIsOn) {
-			serviceIsOn = true;
-		}
+		serviceIsOn = true;
 	}
 	
 	/**
 	 * Called to turn the service off.  This may be called by another thread.
 	 */
 	public void serviceOff() throws SystemException {
-		synchronized(serviceIsOn) {
-			serviceIsOn = false;
-		}
+		serviceIsOn = false;
 	}
 	
 	/**
@@ -98,7 +102,8 @@ public class ActorService  extends Service {
 		try {
 			
 			// -- PROPERTY CONFIGURATION ------------------------------------
-			ThingsPropertyReaderToolkit propToolkit = new ThingsPropertyReaderToolkit(ssi.getLocalProperties());
+			ThingsPropertyView localProperties = ssi.getLocalProperties();
+			ThingsPropertyReaderToolkit propToolkit = new ThingsPropertyReaderToolkit(localProperties);
 			
 			// Get the listen port.
 			int listenPortValue = 0;
@@ -106,16 +111,22 @@ public class ActorService  extends Service {
 			listenPortValue = Integer.parseInt(listenPort);
 			if ((listenPortValue<1)||(listenPortValue>65334)) throw new ThingsException("Property value bad.  Expecting a valie socket port.", ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.LISTEN_PORT, ThingsNamespace.ATTR_PROPERTY_VALUE, listenPort);
 
+			// Limits
+			int poolMax = getNumber(localProperties, ServiceConstants.POOL_MAX, DEFAULT_POOL_MAX, 1);
+			int poolQueue = getNumber(localProperties, ServiceConstants.POOL_QUEUE, DEFAULT_POOL_QUEUE, 0);
+			int acceptBacklog = getNumber(localProperties, ServiceConstants.ACCEPT_BACKLOG, DEFAULT_ACCEPT_BACKLOG, 1);
+			int idleTimeout = getNumber(localProperties, ServiceConstants.SESSION_IDLE_TIMEOUT, DEFAULT_SESSION_IDLE_TIMEOUT, 0);
+			
 			// -- SET UP  ---------------------------------------------------------------
-			listen = new ServerSocket(listenPortValue);
+			listen = new ServerSocket(listenPortValue, acceptBacklog);
 			listen.setSoTimeout(ACCEPT_TIMEOUT);	
+			pool = new ActorSessionPool(ssi, poolMax, poolQueue, idleTimeout);
 			
 			// Get my logger.
 			myLogger = ssi.getSystemLogger();
-			myLogger.info("HTTPToolService started.");
-			
-			// Data
-			active = new HashSet<ActorServiceThread>();
+			myLogger.info("ActorService started.", ThingsCodes.SERVICE_ACTOR_OK, ServiceConstants.POOL_MAX, Integer.toString(poolMax), ServiceConstants.POOL_QUEUE, 
+					Integer.toString(poolQueue), ServiceConstants.ACCEPT_BACKLOG, Integer.toString(acceptBacklog), ServiceConstants.SESSION_IDLE_TIMEOUT, 
+					Integer.toString(idleTimeout));
 			
 		} catch (Throwable t)  {
 			throw new SystemException("Failed to complete ActorService construction.",SystemException.PANIC_SYSTEM_SERVICE_FAILURE_DURING_CONSTRUCTION,t);
@@ -139,58 +150,38 @@ public class ActorService  extends Service {
 					
 					// Get the next connection
 					accepted = listen.accept();
-
-					// Create new thread
-					ActorServiceThread ast = new ActorServiceThread();
-					ast.initialize(ssi, accepted);
-					active.add(ast);
-					
-					// run it
-					ast.start();
-							
-					// Done.
-					myLogger.info("Connection accepted", ThingsCodes.SERVICE_ACTOR_CONNECTION_ACCEPTED, SystemNamespace.ATTR_ADDRESS_NETWORK, accepted.getInetAddress().toString());
 					
-				} catch (InterruptedException ie) {
-					throw ie;
+					// Hand it to the pool.  It closes what it can't take.
+					if (pool.dispatch(accepted)) {
+						myLogger.info("Connection accepted", ThingsCodes.SERVICE_ACTOR_CONNECTION_ACCEPTED, SystemNamespace.ATTR_ADDRESS_NETWORK, accepted.getInetAddress().toString());
+					}
 					
 				} catch (SocketTimeoutException stm) {
-					// NOP for now
-							
+					if (this.getCurrentState().isHalting()) break;
+					
 				} catch (Throwable t) {
-					throw new SystemException("Fault while accepting a connection.",SystemException.ACTORSERVICE_FAULT, SystemNamespace.ATTR_ADDRESS_NETWORK, accepted.getInetAddress().toString());
+					throw new SystemException("Fault while accepting a connection.",SystemException.ACTORSERVICE_FAULT, t, SystemNamespace.ATTR_ADDRESS_NETWORK, String.valueOf(accepted));
 									
 				}
 				
 			} // end while running		
 			
-		} catch (InterruptedException ie) {
-			// This is likely the 
-			screech("ActorService process execute() was interrupted.  Quiting.");
-		
 		} finally {
-			myLogger.info("ActorService stopping.");
+			myLogger.info("ActorService stopping.", ThingsCodes.SERVICE_ACTOR_REPORT, SystemNamespace.ATTR_PLATFORM_MESSAGE, pool.toString());
 		}
 		
-		
 	}
 	
 	/**
 	 * Destroy. This will be called when the Process is finalizing.
 	 */
 	public void destructThingsProcess() throws SystemException {
-		Iterator<ActorServiceThread> i = active.iterator();
-
-		while (i.hasNext()) {
-			ActorServiceThread ast = (ActorServiceThread) i.next();
-			active.remove(ast);
-			if (ast.isAlive()) {
-				try {
-					ast.interrupt();
-				} catch (Exception eee) { // dont care
-				}
-			}
-		} // end while
+		if (pool!=null) pool.shutdown();
+		try {
+			if (listen!=null) listen.close();
+		} catch (Exception e) {
+			// Don't care
+		}
 	}
 
 	/**
@@ -201,6 +192,15 @@ public class ActorService  extends Service {
 		return "ActorService";
 	}
 	
+	/**
+	 * Get the session gauges for the process list.
+	 * @return the status.
+	 */
+	public String getProcessStatus() {
+		if (pool==null) return "";
+		return pool.toString();
+	}
+	
 	// ==========================================================================================================
 	// == RESOURCE LISTENER IMPLEMENTATIONS - mostly unused.
 	public void resourceRevocation(WhoAmI	resourceID) throws SystemException, InterruptedException {
@@ -213,6 +213,30 @@ public class ActorService  extends Service {
 		return getProcessId();
 	}
 
+	// ==========================================================================================================
+	// == INTERNAL
 	
+	/**
+	 * Get an optional number property.
+	 * @param properties the properties.
+	 * @param name the property name.
+	 * @param defaultValue the value if it isn't set.
+	 * @param least the smallest value allowed.
+	 * @return the value.
+	 * @throws Throwable if it is set but not a number or too small.
+	 */
+	private int getNumber(ThingsPropertyView properties, String name, int defaultValue, int least) throws Throwable {
+		String text = properties.getProperty(name);
+		if (text==null) return defaultValue;
+		int result;
+		try {
+			result = Integer.parseInt(text.trim());
+		} catch (Throwable t) {
+			result = least - 1;
+		}
+		if (result < least) throw new ThingsException("Property value bad.  Expecting a number no less than " + least + ".", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, 
+				ThingsNamespace.ATTR_PROPERTY_NAME, name, ThingsNamespace.ATTR_PROPERTY_VALUE, text);
+		return result;
+	}
 	
 }
\ No newline at end of file
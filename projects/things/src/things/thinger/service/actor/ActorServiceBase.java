@@ -24,11 +24,15 @@ import things.thinger.io.Logger;
 /**
  * The actor service base.
  * <p>
+ * The session reads every request into the same ActorMessage, so a message is only good until process_message() returns.  An 
+ * implementation that wants to keep anything from it, including through currentMessage, must copy it out.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 MAY 07
+ * EPG - Messages are only good during the call - 30 JUN 10
  * </pre> 
  */
 public abstract class ActorServiceBase {
@@ -44,7 +48,8 @@ public abstract class ActorServiceBase {
 	protected SystemInterface si;
 	
 	/**
-	 * Current message.  A subclass can assume this is valid in their implementation of the process() method.
+	 * Current message.  A subclass can assume this is valid in their implementation of the process() method, but not after it
+	 * returns, since the session reuses it for the next request.
 	 */
 	public ActorMessage currentMessage;
 	
@@ -84,7 +89,7 @@ public abstract class ActorServiceBase {
 
 	/**
 	 *  Process a message.  This will be called by the service Thread.
-	 *  @param message the message
+	 *  @param message the message.  It is only valid during the call.  The session loads the next request into the same one.
 	 *  @return true if the process indicates a quit condition.
 	 */
 	protected boolean process_message(ActorMessage  message) throws Throwable {
@@ -17,24 +17,39 @@ package things.thinger.service.actor;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
+import things.common.ThingsCodes;
 import things.common.ThingsException;
+import things.common.ThingsNamespace;
 import things.thinger.SystemInterface;
+import things.thinger.SystemNamespace;
 import things.thinger.io.Logger;
 
 /**
  * The actor service.
  * <p>
+ * Requests may be pipelined by the client.  They are handled in order, and replies are flushed when there is no more input
+ * waiting, so a burst of requests gets its replies in a burst.
+ * <p>
+ * If the socket has a read timeout and the client says nothing for that long, the session is closed.
+ * <p>
+ * It is a Runnable, not a thread of its own.  The ActorSessionPool runs it on one of its pool threads.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 MAY 07
+ * EPG - Batch replies for pipelined requests - 18 JUN 10
+ * EPG - Idle sessions and close() for the session pool - 21 JUN 10
+ * EPG - Runnable instead of a Thread - 30 JUN 10
  * </pre> 
  */
-public class ActorServiceThread extends Thread implements ActorServiceContextInterface {
+public class ActorServiceThread implements Runnable, ActorServiceContextInterface {
 	
 	// ============================================================================================================
 	// CONFIGURATION
@@ -45,9 +60,10 @@ public class ActorServiceThread extends Thread implements ActorServiceContextInt
 	BufferedInputStream		bis;
 	BufferedOutputStream	bos;
 	ActorServiceBase	impl;
+	volatile boolean	idled;
 	
 	/**
-	 * Initialize the lightweight service thread.
+	 * Initialize the session.
 	 * @param si A system interface.
 	 * @param sock The server socket.
 	 * @throws Throwable
@@ -90,7 +106,7 @@ public class ActorServiceThread extends Thread implements ActorServiceContextInt
 			
 			// Validate 
 			String messageType = initialMessage.getType();
-			if (messageType.equals(ActorConstants.MESSAGE_TYPE_SERVICE)) throw new Exception("QUITING: Initial message not a SERVICE type.");
+			if (!messageType.equals(ActorConstants.MESSAGE_TYPE_SERVICE)) throw new Exception("QUITING: Initial message not a SERVICE type.");
 			serviceImplClass = initialMessage.getParameter(ActorConstants.PARAMETER_CLASS_NAME);
 			if ((serviceImplClass==null)||(serviceImplClass.length()<1)) throw new Exception("QUITING: Initial message does not have a " + ActorConstants.PARAMETER_CLASS_NAME + " specification.");
 			
@@ -113,12 +129,22 @@ public class ActorServiceThread extends Thread implements ActorServiceContextInt
 																			Integer.toString(ActorConstants.STARTUP_SEQUENCE_NUMBER));
 			initialMessageResponse.save(bos);
 			
+		} catch (SocketTimeoutException ste) {
+			logIdle();
+			failed = true;
+		} catch (EOFException eofe) {
+			logClosed(eofe.getMessage());
+			failed = true;
 		} catch (ClassNotFoundException cee) {	
 			logger.postit("ActorServiceInterface implementation not found.  class name=" + serviceImplClass + " message=" + cee.getMessage());
 			failed = true;
 		} catch (Throwable ee) {
-			logger.postit("ActorServiceThread failed startup.  message=" + ee.getMessage());
-			ee.printStackTrace();
+			if (socket.isClosed()) {
+				logClosed("Closed by the service.");
+			} else {
+				logger.postit("ActorServiceThread failed startup.  message=" + ee.getMessage());
+				ee.printStackTrace();
+			}
 			failed = true;
 		} finally {	
 			if (failed) {
@@ -133,22 +159,38 @@ public class ActorServiceThread extends Thread implements ActorServiceContextInt
 		// Run 
 		try {
 			
-			// Run until it quits.
-			ActorMessage message;
+			// Run until it quits.  The message is reused, so it is only good during process_message().  See ActorServiceBase.
+			ActorMessage message = new ActorMessage();
 			boolean quit = false;
 			while (quit==false) {
 				
-				message = new ActorMessage();
+				// Push out the replies before waiting for more.
+				if (bis.available() < 1) bos.flush();
 				message.load(bis);
 				
 				quit = impl.process_message(message);	
 			}
 			
+		} catch (SocketTimeoutException ste) {
+			logIdle();
+			
+		} catch (EOFException eofe) {
+			logClosed(eofe.getMessage());
+			
 		} catch (Throwable ee) {
+			if (socket.isClosed()) {
+				logClosed("Closed by the service.");
+				return;
+			}
 			logger.postit("ActorServiceThread failed.  message=" + ee.getMessage());
 			ee.printStackTrace();
 			return;		
 		} finally {
+			try {
+				bos.flush();
+			} catch (Exception eee){
+				// Don't care
+			}
 			try {
 				socket.close();
 			} catch (Exception eee){
@@ -159,21 +201,63 @@ public class ActorServiceThread extends Thread implements ActorServiceContextInt
 	}
 	
 	/**
-	 * Send the message.
+	 * Send the message.  It is flushed when the thread is about to wait for the next request.
 	 * @param theMessage The message to send.
 	 * @throws Throwable
 	 */
 	public void send(ActorMessage theMessage) throws Throwable {
 		
 		try {
-			theMessage.save(bos);
-			bos.flush();
+			theMessage.write(bos);
 		} catch (IOException ieo) {
 			throw new ThingsException("IO error writing to socket.", ThingsException.ACTORSERVICE_FAULT_MESSAGE, ieo);
 		} catch (Throwable t) {
 			throw t;
 		}
 	}
+	
+	/**
+	 * Close the session from another thread.  The session will quit quietly.
+	 */
+	public void close() {
+		try {
+			if (socket!=null) socket.close();
+		} catch (Exception e) {
+			// Don't care
+		}
+	}
+	
+	/**
+	 * Was the session closed because the client was idle?
+	 * @return true if it was.
+	 */
+	public boolean isIdled() {
+		return idled;
+	}
+	
+	/**
+	 * Note a session that ended quietly, because the client hung up or the service closed it.
+	 * @param why why it ended.
+	 */
+	private void logClosed(String why) {
+		try {
+			logger.info("Actor session closed.", ThingsCodes.SERVICE_ACTOR_SESSION_CLOSED, SystemNamespace.ATTR_ADDRESS_NETWORK, String.valueOf(socket.getInetAddress()), ThingsNamespace.ATTR_MESSAGE, why);
+		} catch (Throwable t) {
+			// Don't care
+		}
+	}
+	
+	/**
+	 * Note an idle session.
+	 */
+	private void logIdle() {
+		idled = true;
+		try {
+			logger.info("Actor session closed.  The client was idle.", ThingsCodes.SERVICE_ACTOR_SESSION_IDLE, SystemNamespace.ATTR_ADDRESS_NETWORK, String.valueOf(socket.getInetAddress()));
+		} catch (Throwable t) {
+			// Don't care
+		}
+	}
 
 
 }
\ No newline at end of file
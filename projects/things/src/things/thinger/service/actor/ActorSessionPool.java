@@ -0,0 +1,245 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.actor;
+
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import things.common.ThingsCodes;
+import things.thinger.SystemInterface;
+import things.thinger.SystemNamespace;
+import things.thinger.io.Logger;
+
+/**
+ * A bounded pool for actor sessions.  At most maxSessions run at once and at most maxQueued wait for a thread.  Past that, a 
+ * connection is closed right away, so a connection storm can't run the system out of threads.  A session that doesn't hear from
+ * its client for the idle timeout is closed.
+ * <p>
+ * Pool threads are made as needed and go away after they have been idle a while.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 JUN 10
+ * </pre> 
+ */
+public class ActorSessionPool {
+
+	// ============================================================================================================
+	// CONFIGURATION
+	
+	/**
+	 * How long an idle pool thread is kept, in milliseconds.
+	 */
+	public final static long THREAD_KEEP_ALIVE = 60000;
+	
+	// ============================================================================================================
+	// DATA
+	private SystemInterface si;
+	private Logger logger;
+	private int maxSessions;
+	private int maxQueued;
+	private int idleTimeout;
+	private ThreadPoolExecutor executor;
+	private HashSet<ActorServiceThread> sessions = new HashSet<ActorServiceThread>();
+	
+	// Gauges
+	private AtomicInteger active = new AtomicInteger();
+	private AtomicLong accepted = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong idled = new AtomicLong();
+	
+	// ============================================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 * @param si a system interface for the sessions.
+	 * @param maxSessions the most sessions run at once.  It must be at least 1.
+	 * @param maxQueued the most sessions waiting for a thread.  0 means none wait.
+	 * @param idleTimeout milliseconds a session may wait for its client before it is closed.  0 means forever.
+	 * @throws Throwable
+	 */
+	public ActorSessionPool(SystemInterface si, int maxSessions, int maxQueued, int idleTimeout) throws Throwable {
+		this.si = si;
+		logger = si.getSystemLogger();
+		this.maxSessions = maxSessions;
+		this.maxQueued = maxQueued;
+		this.idleTimeout = idleTimeout;
+		
+		BlockingQueue<Runnable> queue;
+		if (maxQueued > 0) queue = new ArrayBlockingQueue<Runnable>(maxQueued);
+		else queue = new SynchronousQueue<Runnable>();
+		executor = new ThreadPoolExecutor(maxSessions, maxSessions, THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+			private AtomicInteger number = new AtomicInteger();
+			public Thread newThread(Runnable runnable) {
+				Thread result = new Thread(runnable, "ActorSession-" + number.incrementAndGet());
+				result.setDaemon(true);
+				return result;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Dispatch an accepted connection.  If the pool and its queue are full, the connection is closed.
+	 * @param socket the connection.
+	 * @return true if it was taken, false if it was turned away.
+	 */
+	public boolean dispatch(Socket socket) {
+		final ActorServiceThread session = new ActorServiceThread();
+		try {
+			if (idleTimeout > 0) socket.setSoTimeout(idleTimeout);
+			session.initialize(si, socket);
+			
+			synchronized(sessions) {
+				sessions.add(session);
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					active.incrementAndGet();
+					try {
+						session.run();
+					} finally {
+						if (session.isIdled()) idled.incrementAndGet();
+						synchronized(sessions) {
+							sessions.remove(session);
+						}
+						active.decrementAndGet();
+					}
+				}
+			});
+			accepted.incrementAndGet();
+			return true;
+			
+		} catch (RejectedExecutionException ree) {
+			rejected.incrementAndGet();
+			logWarning("Actor session turned away.  The pool is full.  " + toString(), socket);
+			
+		} catch (Throwable t) {
+			rejected.incrementAndGet();
+			logWarning("Actor session could not be started.  message=" + t.getMessage(), socket);
+		}
+		
+		synchronized(sessions) {
+			sessions.remove(session);
+		}
+		try {
+			socket.close();
+		} catch (Throwable t) {
+			// Don't care
+		}
+		return false;
+	}
+	
+	/**
+	 * Close every session and stop the pool.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		synchronized(sessions) {
+			for (ActorServiceThread session : sessions) session.close();
+			sessions.clear();
+		}
+	}
+	
+	/**
+	 * Sessions running now.
+	 * @return the count.
+	 */
+	public int getActive() {
+		return active.get();
+	}
+	
+	/**
+	 * Sessions waiting for a thread.
+	 * @return the count.
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Most sessions that will run at once.
+	 * @return the count.
+	 */
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+	
+	/**
+	 * Most sessions that will wait for a thread.
+	 * @return the count.
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+	
+	/**
+	 * Connections taken so far.
+	 * @return the count.
+	 */
+	public long getAccepted() {
+		return accepted.get();
+	}
+	
+	/**
+	 * Connections turned away so far.
+	 * @return the count.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * Sessions closed for being idle so far.
+	 * @return the count.
+	 */
+	public long getIdled() {
+		return idled.get();
+	}
+	
+	/**
+	 * A line for the logs and the process list.
+	 * @return the gauges.
+	 */
+	public String toString() {
+		return "active=" + getActive() + "/" + maxSessions + " queued=" + getQueued() + "/" + maxQueued + " accepted=" + getAccepted() + 
+			" rejected=" + getRejected() + " idled=" + getIdled();
+	}
+	
+	// ============================================================================================================
+	// INTERNAL
+	
+	private void logWarning(String message, Socket socket) {
+		try {
+			logger.warning(message, ThingsCodes.ACTORSERVICE_SESSION_REJECTED, SystemNamespace.ATTR_ADDRESS_NETWORK, String.valueOf(socket.getInetAddress()));
+		} catch (Throwable t) {
+			// Nowhere to tell
+		}
+	}
+	
+}
\ No newline at end of file
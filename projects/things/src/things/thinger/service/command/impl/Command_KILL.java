@@ -30,6 +30,7 @@ import things.thinger.service.command.Command;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 10 JUN 07
+ * EPG - Own name.  It was sharing RUN's - 23 JUN 10
  * </pre> 
  */
 public class Command_KILL extends Command {
@@ -42,7 +43,7 @@ public class Command_KILL extends Command {
 	// ====================================================================================================================================
 	// ====================================================================================================================================
 	// == I/O NAMES
-	public final static String NAME = "things.run";
+	public final static String NAME = "things.kill";
 	public final static String PARAMETER_PID = "pid";
 
 	
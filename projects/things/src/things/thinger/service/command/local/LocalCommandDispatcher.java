@@ -0,0 +1,329 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.command.local;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import things.thinger.SystemException;
+import things.thinger.SystemNamespace;
+import things.thinger.kernel.ProcessCoordinator;
+
+/**
+ * Runs commands for the local command service on a fixed set of worker threads.
+ * <p>
+ * Each requester gets a lane.  A lane runs one command at a time in the order they were submitted, so a requester sees its 
+ * responses in order.  Different lanes run at the same time.  Each command type may also have a limit on how many of it run at
+ * once across all lanes; a limit of 1 serializes that type.  Types without a limit get the default.  A lane waiting on a type 
+ * limit does not hold up other lanes.
+ * <p>
+ * Lanes are served round robin.  The workers are bound to the process that starts the dispatcher, so the kernel sees the commands
+ * as that process, the same as when it ran them itself.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 23 JUN 10
+ * EPG - Bind the workers to the process - 30 JUN 10
+ * </pre> 
+ */
+public class LocalCommandDispatcher {
+	
+	// ===================================================================================================
+	// CONSTANTS
+	
+	/**
+	 * A limit that doesn't limit.  The worker count still does.
+	 */
+	public final static int PARALLEL = Integer.MAX_VALUE;
+	
+	// ===================================================================================================
+	// DATA
+	
+	/**
+	 * Something to run.  Anything it throws is a fault that stops the dispatcher.
+	 */
+	public interface Job {
+		public void run() throws Throwable;
+	}
+	
+	private class Lane {
+		LinkedList<String> types = new LinkedList<String>();
+		LinkedList<Job> jobs = new LinkedList<Job>();
+		boolean busy;
+	}
+	
+	private String name;
+	private int workerCount;
+	private int defaultLimit = 1;
+	private HashMap<String, Integer> limits = new HashMap<String, Integer>();
+	private HashMap<String, Integer> runningByType = new HashMap<String, Integer>();
+	private LinkedHashMap<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+	private Thread[] workers;
+	private boolean stopped;
+	private Throwable fault;
+	
+	// Gauges
+	private int running;
+	private int pending;
+	private long completed;
+	
+	// ===================================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 * @param name a name for the worker threads.
+	 * @param workerCount the most commands that run at once.  It must be at least 1.
+	 */
+	public LocalCommandDispatcher(String name, int workerCount) {
+		this.name = name;
+		this.workerCount = Math.max(1, workerCount);
+	}
+	
+	/**
+	 * Set the most commands of a type that may run at once.
+	 * @param type the command type.
+	 * @param limit the limit.  1 serializes it.  PARALLEL leaves it to the worker count.
+	 */
+	public synchronized void setLimit(String type, int limit) {
+		limits.put(type, Integer.valueOf(Math.max(1, limit)));
+	}
+	
+	/**
+	 * Set the limit for types that don't have their own.  It starts as 1.
+	 * @param limit the limit.
+	 */
+	public synchronized void setDefaultLimit(int limit) {
+		defaultLimit = Math.max(1, limit);
+	}
+	
+	/**
+	 * Get the limit for a type.
+	 * @param type the command type.
+	 * @return the limit.
+	 */
+	public synchronized int getLimit(String type) {
+		Integer limit = limits.get(type);
+		if (limit == null) return defaultLimit;
+		return limit.intValue();
+	}
+	
+	/**
+	 * Start the workers without binding them to a process.  Jobs submitted before this wait for it.
+	 */
+	public void start() {
+		start(null);
+	}
+	
+	/**
+	 * Start the workers.  Jobs submitted before this wait for it.
+	 * @param binding the process the workers act for.  It usually comes from SystemInterface.getThreadBinding() called by the 
+	 * process that owns the dispatcher.  If null, the workers are not bound and the kernel won't recognize them.
+	 */
+	public synchronized void start(final ProcessCoordinator.Binding binding) {
+		if (workers != null) return;
+		workers = new Thread[workerCount];
+		for (int index = 0; index < workerCount; index++) {
+			workers[index] = new Thread(name + "-" + index) {
+				public void run() {
+					if (binding != null) binding.bind();
+					try {
+						work();
+					} finally {
+						if (binding != null) binding.unbind();
+					}
+				}
+			};
+			workers[index].setDaemon(true);
+			workers[index].start();
+		}
+	}
+	
+	/**
+	 * Submit a job.
+	 * @param requester who it is for.  Jobs for the same requester run one at a time in order.
+	 * @param type the command type.
+	 * @param job the job.
+	 * @throws SystemException if the dispatcher has stopped.
+	 */
+	public synchronized void submit(String requester, String type, Job job) throws SystemException {
+		if (stopped || (fault != null)) throw new SystemException("Command dispatcher has stopped.", SystemException.SYSTEM_SERVICE_ERROR_COMMAND_GENERAL, SystemNamespace.ATTR_SYSTEM_COMMAND_NAME, type);
+		Lane lane = lanes.get(requester);
+		if (lane == null) {
+			lane = new Lane();
+			lanes.put(requester, lane);
+		}
+		lane.types.add(type);
+		lane.jobs.add(job);
+		pending++;
+		notifyAll();
+	}
+	
+	/**
+	 * Wait until the dispatcher stops.  If a job faulted, it is thrown here.
+	 * @throws Throwable the fault.
+	 * @throws InterruptedException if the caller was interrupted.
+	 */
+	public synchronized void await() throws Throwable {
+		while ((!stopped) && (fault == null)) wait();
+		if (fault != null) throw fault;
+	}
+	
+	/**
+	 * Stop the workers.  Jobs that haven't started are dropped.  Running ones are interrupted.
+	 */
+	public void stop() {
+		Thread[] current;
+		synchronized(this) {
+			stopped = true;
+			lanes.clear();
+			pending = 0;
+			notifyAll();
+			current = workers;
+		}
+		if (current != null) {
+			for (Thread worker : current) worker.interrupt();
+		}
+	}
+	
+	/**
+	 * Commands running now.
+	 * @return the count.
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+	
+	/**
+	 * Commands waiting to run.
+	 * @return the count.
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+	
+	/**
+	 * Commands finished so far.
+	 * @return the count.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+	
+	/**
+	 * A line for the logs and the process list.
+	 * @return the gauges.
+	 */
+	public synchronized String toString() {
+		return "running=" + running + "/" + workerCount + " pending=" + pending + " lanes=" + lanes.size() + " completed=" + completed;
+	}
+	
+	// ===================================================================================================
+	// INTERNAL
+	
+	/**
+	 * Worker loop.
+	 */
+	private void work() {
+		Lane lane;
+		String type;
+		Job job;
+		while (true) {
+			
+			// Get the next job that may run.
+			synchronized(this) {
+				lane = null;
+				while ((lane == null) && (!stopped) && (fault == null)) {
+					lane = next();
+					if (lane == null) {
+						try {
+							wait();
+						} catch (InterruptedException ie) {
+							return;
+						}
+					}
+				}
+				if (lane == null) return;
+				type = lane.types.removeFirst();
+				job = lane.jobs.removeFirst();
+				lane.busy = true;
+				runningByType.put(type, Integer.valueOf(running(type) + 1));
+				running++;
+				pending--;
+			}
+			
+			// Run it.
+			Throwable failure = null;
+			try {
+				job.run();
+			} catch (Throwable t) {
+				failure = t;
+			}
+			
+			// Done with it.
+			synchronized(this) {
+				runningByType.put(type, Integer.valueOf(running(type) - 1));
+				running--;
+				completed++;
+				lane.busy = false;
+				if ((failure != null) && (fault == null) && (!stopped)) fault = failure;
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Find the next lane with a job that may run and move it to the back.  Empty idle lanes are dropped along the way.
+	 * @return the lane or null if none.
+	 */
+	private Lane next() {
+		String key = null;
+		Lane result = null;
+		Iterator<Map.Entry<String, Lane>> entries = lanes.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Lane> entry = entries.next();
+			Lane lane = entry.getValue();
+			if (lane.busy) continue;
+			if (lane.jobs.isEmpty()) {
+				entries.remove();
+				continue;
+			}
+			String type = lane.types.getFirst();
+			if (running(type) < getLimit(type)) {
+				key = entry.getKey();
+				result = lane;
+				break;
+			}
+		}
+		if (result != null) {
+			lanes.remove(key);
+			lanes.put(key, result);
+		}
+		return result;
+	}
+	
+	private int running(String type) {
+		Integer count = runningByType.get(type);
+		if (count == null) return 0;
+		return count.intValue();
+	}
+
+}
\ No newline at end of file
@@ -30,6 +30,7 @@ import things.thinger.service.command.CommandRegistry;
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 12 FEB 06
+ * EPG - Synchronized for parallel command services - 23 JUN 10
  * </pre> 
  */
 public class LocalCommandRegistry implements CommandRegistry {
@@ -84,7 +85,7 @@ public class LocalCommandRegistry implements CommandRegistry {
 	 * @param name The name.
 	 * @return true if it does, otherwise false.
 	 */
-	public boolean has(String  name) {
+	public synchronized boolean has(String  name) {
 		return commands.containsKey(name);
 	}
 	
@@ -94,7 +95,7 @@ public class LocalCommandRegistry implements CommandRegistry {
 	 * @param command The command.
 	 * @see things.thinger.SystemException
 	 */
-	public void register(String  name, CommandDefinition command ) throws SystemException {
+	public synchronized void register(String  name, CommandDefinition command ) throws SystemException {
 		if (commands.containsKey(name)) throw new SystemException("Name already registered.", SystemException.SYSTEM_COMMAND_ERROR_BAD_DECLARATION, SystemNamespace.ATTR_SYSTEM_COMMAND_NAME, name);			
 		commands.put(name,command);
 	}
@@ -105,7 +106,7 @@ public class LocalCommandRegistry implements CommandRegistry {
 	 * @return The definition.
 	 * @see things.thinger.SystemException
 	 */
-	public CommandDefinition get(String  name) throws SystemException {
+	public synchronized CommandDefinition get(String  name) throws SystemException {
 		if (!commands.containsKey(name)) throw new SystemException("Command not registered.", SystemException.SYSTEM_COMMAND_ERROR_NOT_DECLARED, SystemNamespace.ATTR_SYSTEM_COMMAND_NAME, name);			
 		return commands.get(name);
 	}
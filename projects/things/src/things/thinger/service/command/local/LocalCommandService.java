@@ -15,7 +15,6 @@
  */
 package things.thinger.service.command.local;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import things.common.ThingsNamespace;
@@ -34,25 +33,41 @@ import things.thinger.io.conduits.PushDrain;
 import things.thinger.service.Service;
 import things.thinger.service.ServiceConstants;
 import things.thinger.service.command.Command;
+import things.thinger.service.command.impl.Command_KILL;
+import things.thinger.service.command.impl.Command_PINGPONG;
+import things.thinger.service.command.impl.Command_PROCESSLIST;
+import things.thinger.service.command.impl.Command_QUIT;
+import things.thinger.service.command.impl.Command_RUN;
+import things.thinger.service.command.impl.Command_SETPROP;
+import things.thinger.service.command.impl.Command_SHOWPROPS;
 
 /**
  * General command service.  All commands will come over a push drain.
  * <br>
  * All commands will respond with a Receipt, a reason, and a number (the latter two as attributes).
  * <p>
- * It expects the following local properties:
+ * Commands run on a LocalCommandDispatcher.  Commands from one requester run in order, one at a time.  Commands from different
+ * requesters run at the same time, except that QUIT, KILL, RUN and SETPROP run one at a time and commands the service doesn't know
+ * do too.  The read only commands (PINGPONG, PROCESSLIST, SHOWPROPS) are not limited.
+ * <p>
+ * It expects the following local properties:<br>
+ * ServiceConstants.CHANNEL_COMMAND - required.  The command channel.<br>
+ * ServiceConstants.POOL_MAX - optional.  The most commands that run at once.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 5 FEB 06
+ * EPG - Run commands in parallel - 23 JUN 10
+ * EPG - Bind the workers to the service - 30 JUN 10
  * </pre> 
  */
 public class LocalCommandService extends Service implements PushDrain {
 	
 	// CONSTANTS
 	private static final int STARTING_SERVED 	= 1;
+	public final static int DEFAULT_POOL_MAX = 8;
 	
 	// ===================================================================================================
 	// DATA
@@ -62,7 +77,7 @@ public class LocalCommandService extends Service implements PushDrain {
 	private Conduit			myConduit;
 	private Boolean	  		serviceIsOn;
 	private AtomicInteger	served;
-	private LinkedBlockingQueue<Entity<LocalCommandInfo>>	inboundCommands;
+	private LocalCommandDispatcher	dispatcher;
 	private Logger			myLogger;
 	private ThingsPropertyView localProperties;
 	private ConduitController systemConduitController;
@@ -97,17 +112,13 @@ public class LocalCommandService extends Service implements PushDrain {
 		try {
 			
 			// Validate state
-			if (inboundCommands == null) throw new SystemException("CommandService was not construct()'ed before use.");
+			if (dispatcher == null) throw new SystemException("CommandService was not construct()'ed before use.");
 			myLogger.info(getName() + " is alive.");
 			
-			// Loop it
-			Entity<LocalCommandInfo> currentCommand;
-			while(true) {
-				currentCommand = inboundCommands.take();
-				if (currentCommand==null) throw new Exception("Null Command object.");  // Just in case.
-				myLogger.debug("Command dequeued: " + currentCommand.getID().toString());
-				processCommand(currentCommand);
-			}
+			// The dispatcher runs the commands.  Wait until it stops or a command faults.  The workers are bound to this service, so 
+			// the kernel sees the commands as this service.
+			dispatcher.start(ssi.getThreadBinding());
+			dispatcher.await();
 			
 		} catch (InterruptedException ie) {
 			// This is likely the 
@@ -121,6 +132,7 @@ public class LocalCommandService extends Service implements PushDrain {
 			screech("General exception while processing command.  Quitting with error.");
 			throw new SystemException("General exception caused fault for CommandService process execute().  Quitting with error.",SystemException.SYSTEM_COMMAND_FAULT_SERVICE_ABORTED, t, SystemNamespace.ATTR_PLATFORM_MESSAGE,t.getMessage());
 		} finally {
+			if (dispatcher != null) dispatcher.stop();
 			myLogger.info("LocalCommandService stopping.");
 		}
 	}
@@ -150,8 +162,27 @@ public class LocalCommandService extends Service implements PushDrain {
 			myConduit = systemConduitController.tune(new ConduitID(commandChannelName),this.getProcessId());
 			myConduit.registerPushDrain(this);
 			
-			// Create bridge queue
-			inboundCommands = new LinkedBlockingQueue<Entity<LocalCommandInfo>>();
+			// Pool size
+			int poolMax = DEFAULT_POOL_MAX;
+			String poolMaxText = localProperties.getProperty(ServiceConstants.POOL_MAX);
+			if (poolMaxText!=null) {
+				try {
+					poolMax = Integer.parseInt(poolMaxText.trim());
+					if (poolMax<1) throw new Exception();
+				} catch (Throwable t) {
+					throw new SystemException("Property value bad.  Expecting a positive number.", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.POOL_MAX, ThingsNamespace.ATTR_PROPERTY_VALUE, poolMaxText);
+				}
+			}
+			
+			// Create the dispatcher.  Anything that changes the system runs one at a time.  The read only commands don't.
+			dispatcher = new LocalCommandDispatcher(getProcessName(), poolMax);
+			dispatcher.setLimit(Command_QUIT.NAME, 1);
+			dispatcher.setLimit(Command_KILL.NAME, 1);
+			dispatcher.setLimit(Command_RUN.NAME, 1);
+			dispatcher.setLimit(Command_SETPROP.NAME, 1);
+			dispatcher.setLimit(Command_PINGPONG.NAME, LocalCommandDispatcher.PARALLEL);
+			dispatcher.setLimit(Command_PROCESSLIST.NAME, LocalCommandDispatcher.PARALLEL);
+			dispatcher.setLimit(Command_SHOWPROPS.NAME, LocalCommandDispatcher.PARALLEL);
 			
 		} catch (Throwable t)  {
 			throw new SystemException("Failed to attach CommandService to its conduit.",SystemException.PANIC_SYSTEM_SERVICE_FAILURE_DURING_CONSTRUCTION,t);
@@ -186,6 +217,15 @@ public class LocalCommandService extends Service implements PushDrain {
 		return "LocalCommandService";
 	}
 	
+	/**
+	 * Get the dispatcher gauges for the process list.
+	 * @return the status.
+	 */
+	public String getProcessStatus() {
+		if (dispatcher==null) return "";
+		return dispatcher.toString();
+	}
+	
 	// ==========================================================================================================
 	// == PUSH DRAIN
 	
@@ -210,7 +250,7 @@ public class LocalCommandService extends Service implements PushDrain {
 	public Receipt postListener(Data		n) throws SystemException {
 		
 		Receipt result = null;
-		Entity<LocalCommandInfo>	item;
+		final Entity<LocalCommandInfo>	item;
 		
 		// On or off.  Since this is a post, it should be synchronized already anyway.
 		synchronized(serviceIsOn) {
@@ -223,14 +263,19 @@ public class LocalCommandService extends Service implements PushDrain {
 				if ((info.responseConduit.toTag()==null)&&this.isVerbose()) screech("CommandService got an Entry with a null tag.  LocalCommandService can onlyt handle LocalCommand commands.");	// See if it fails on class issues
 				
 				// Has this service been constructed?
-				if (inboundCommands == null) throw new SystemException("CommandService was not construct()'ed before use.");
+				if (dispatcher == null) throw new SystemException("CommandService was not construct()'ed before use.");
 			
 				// Is the service on?
 				if (serviceIsOn == true) {
 					
-					// Accept delivery and enqueue it for the service
+					// Accept delivery and hand it to the dispatcher.  The requester is the response conduit.
 					result = new Receipt(commandTagging(Integer.toString(n.getNumeric())), Receipt.Type.DELIVERY);
-					inboundCommands.add(item);
+					dispatcher.submit(info.responseConduit.toString(), info.commandName, new LocalCommandDispatcher.Job() {
+						public void run() throws Throwable {
+							myLogger.debug("Command dequeued: " + item.getID().toString());
+							processCommand(item);
+						}
+					});
 
 				} else {
 							
@@ -330,6 +375,7 @@ public class LocalCommandService extends Service implements PushDrain {
 		} catch (SystemException se) {
 			screech("System Exception during command instantiation.  message=" + se.toString());
 			responder.reportFailure(se.toStringCauses());
+			return;
 		} 
 		
 		// Now execute it.
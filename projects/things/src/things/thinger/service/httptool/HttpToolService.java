@@ -30,12 +30,15 @@ import things.common.WhoAmI;
 import things.common.impl.WhoAmISimple;
 import things.data.ThingsPropertyReaderToolkit;
 import things.data.ThingsPropertyReaderToolkit.Validations;
+import things.data.processing.http.HttpRequestProcessor;
 import things.thinger.SystemException;
 import things.thinger.SystemNamespace;
 import things.thinger.io.Logger.LEVEL;
 import things.thinger.kernel.Clearance;
 import things.thinger.service.Service;
 import things.thinger.service.ServiceConstants;
+import things.universe.Universe;
+import things.universe.UniverseAddress;
 
 /**
  * The service implementation.  It must be told what PageManager and ActionManager to use.  These are passed by the 
@@ -47,6 +50,7 @@ import things.thinger.service.ServiceConstants;
  * <i>Version History</i>
  * <pre>EPG - Initial - 17 NOV 07
  * EPG - Modified to be multi-threaded - 13 DEC 08
+ * EPG - Body spill universe - 5 MAY 10
  * </pre>  */
 public class HttpToolService extends Service {
 
@@ -81,6 +85,10 @@ public class HttpToolService extends Service {
 	private ServeManager serveManager;
 	private String serveRoot;
 	
+	private Universe bodySpillUniverse;
+	private String bodySpillBase;
+	private long bodySpillThreshold;
+	
 	private Clearance clearance;
 
 	// =====================================================================================================================================
@@ -223,6 +231,25 @@ public class HttpToolService extends Service {
 				}
 			}			
 			
+			// Body spill.  Without it, large multipart parts are rejected.
+			bodySpillBase = HttpRequestProcessor.DEFAULT_SPILL_BASE;
+			bodySpillThreshold = HttpRequestProcessor.DEFAULT_SPILL_THRESHOLD;
+			String spillAddy = propToolkit.getOptional(ServiceConstants.BODY_SPILL_UNIVERSE_ADDRESS);
+			if ((spillAddy!=null)&&(spillAddy.trim().length()>0)) {
+				UniverseAddress uAddy = new UniverseAddress(spillAddy.trim());
+				bodySpillUniverse = ssi.getUniverse(uAddy.universeName);
+				bodySpillBase = uAddy.path;
+			}
+			String spillThresholdText = propToolkit.getOptional(ServiceConstants.BODY_SPILL_THRESHOLD);
+			if ((spillThresholdText!=null)&&(spillThresholdText.trim().length()>0)) {
+				try {
+					bodySpillThreshold = Long.parseLong(spillThresholdText.trim());
+				} catch (Throwable t) {
+					bodySpillThreshold = -1;
+				}
+				if (bodySpillThreshold < 0) throw new ThingsException("Property value bad.  Expecting a non-negative number for the body spill threshold.", ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.BODY_SPILL_THRESHOLD, ThingsNamespace.ATTR_PROPERTY_VALUE, spillThresholdText);
+			}
+			
 			// Managers
 			String pageManagerClassName = propToolkit.getRequired(ServiceConstants.PAGE_MANAGER, Validations.NOT_EMPTY, Validations.NOT_NULL);
 			String actionManagerClassName = propToolkit.getRequired(ServiceConstants.ACTION_MANAGER, Validations.NOT_EMPTY, Validations.NOT_NULL);
@@ -331,7 +358,7 @@ public class HttpToolService extends Service {
 			
 			if (activeThreads.size()<poolMax) {
 				// We have room to build one.
-				result = new HttpToolServiceThread(pageManager, actionManager, serveManager);
+				result = new HttpToolServiceThread(pageManager, actionManager, serveManager, bodySpillUniverse, bodySpillBase, bodySpillThreshold);
 				ssi.startProcess(result, ssi.getLocalProperties(), clearance);
 				
 			} else {
@@ -37,6 +37,7 @@ import things.thinger.SystemException;
 import things.thinger.SystemNamespace;
 import things.thinger.io.Logger;
 import things.thinger.kernel.ThingsProcess;
+import things.universe.Universe;
 
 /**
  * A specific thread.
@@ -50,6 +51,8 @@ import things.thinger.kernel.ThingsProcess;
  * EPG - Set content type charset for PAGE as utf-8.  Firefox 4 gets bitchy without it.  - 8 APR 10
  * EPG - Stupid bug.  I set the Http-Version as "HTTP" instead of "HTTP/1.1"  Firefox 4 really didn't like.  It treated the streamed data as text instead of an HTTP message. 
  *       For some reason whenever it went through the logging proxy it worked.  Weird. - 9 APR 10
+ * EPG - Body spill universe and release body parts after each request - 5 MAY 10
+ * EPG - Let the serve manager handle conditional, range and gzip requests - 10 MAY 10
  * </pre> 
  */
 public class HttpToolServiceThread extends ThingsProcess {
@@ -66,6 +69,9 @@ public class HttpToolServiceThread extends ThingsProcess {
 	private PageManager pageManager;
 	private ActionManager actionManager;
 	private ServeManager serveManager;
+	private Universe bodySpillUniverse;
+	private String bodySpillBase;
+	private long bodySpillThreshold;
 	//private boolean running;
 	
 	private Logger logger;
@@ -84,11 +90,22 @@ public class HttpToolServiceThread extends ThingsProcess {
 	 * Constructor.
 	 */
 	public HttpToolServiceThread(PageManager pageManager, ActionManager actionManager, ServeManager serveManager) throws Throwable {
+		this(pageManager, actionManager, serveManager, null, HttpRequestProcessor.DEFAULT_SPILL_BASE, HttpRequestProcessor.DEFAULT_SPILL_THRESHOLD);
+	}
+	
+	/**
+	 * Constructor with a universe for spilling large request body parts.
+	 */
+	public HttpToolServiceThread(PageManager pageManager, ActionManager actionManager, ServeManager serveManager, 
+			Universe bodySpillUniverse, String bodySpillBase, long bodySpillThreshold) throws Throwable {
 		super();
 
 		this.pageManager = pageManager;
 		this.actionManager = actionManager;
 		this.serveManager = serveManager;	
+		this.bodySpillUniverse = bodySpillUniverse;
+		this.bodySpillBase = bodySpillBase;
+		this.bodySpillThreshold = bodySpillThreshold;
 	}
 	
 	// ***************************************************************************************************************	
@@ -102,7 +119,7 @@ public class HttpToolServiceThread extends ThingsProcess {
 	public void constructThingsProcess() throws SystemException {
 		handoff = new Rendezvous<HttpToolServiceContext>();
 		try  {
-			requestProcessor  = new HttpRequestProcessor();
+			requestProcessor  = new HttpRequestProcessor(bodySpillUniverse, bodySpillBase, bodySpillThreshold);
 		} catch (Throwable t) {
 			SystemException.softwareProblem("Couldn't build HttpToolServiceThread", t);
 		}
@@ -195,7 +212,11 @@ public class HttpToolServiceThread extends ThingsProcess {
 				request  = requestProcessor.process(bis);					
 				
 				// Process it
-				dataSize = processRequest();
+				try {
+					dataSize = processRequest();
+				} finally {
+					request.releaseBodyParts();
+				}
 						
 				// Done.
 				logger.info("Completed request.", ThingsCodes.SERVICE_HTTPTOOL_OK, ThingsNamespace.ATTR_PROCESSING_HTTP_ACTION, request.path, ThingsNamespace.ATTR_DATA_SIZE, Long.toString(dataSize));
@@ -468,15 +489,15 @@ public class HttpToolServiceThread extends ThingsProcess {
 	private ActionResult serveHead(HttpRequest request) throws Throwable {
 		ActionResult result;
 		
-		ServeFile file = serveManager.get(request.path);
+		ServeFile file = serveManager.get(request);
 		if (file==null) {
 			throw new FileNotFoundException();
 		} else {
 			result = new ActionResult(ActionResult.Type.SERVE);
-			result.setResponse("HTTP/1.1 200 OK");
+			result.setResponse(file.getResponse());
 			result.addHeader("Server", "HttpCommandService");
-			result.addHeader("Content-Type", file.type);
-			result.addHeader("Content-Length", Long.toString(file.length));
+			file.addHeadersToResult(result);
+			result.setInputStream(new ByteArrayInputStream(new byte[0]));
 			try {
 				file.source.close();  // We won't be needing the actual source stream.
 			} catch (Throwable t) {
@@ -496,15 +517,14 @@ public class HttpToolServiceThread extends ThingsProcess {
 	private ActionResult serve(HttpRequest request) throws Throwable {
 		ActionResult result;
 		
-		ServeFile file = serveManager.get(request.path);
+		ServeFile file = serveManager.get(request);
 		if (file==null) {
 			throw new FileNotFoundException("Page not defined for " + request.path);
 		} else {
 			result = new ActionResult(ActionResult.Type.SERVE);
-			result.setResponse("HTTP/1.1 200 OK");
+			result.setResponse(file.getResponse());
 			result.addHeader("Server", "HttpCommandService");
-			result.addHeader("Content-Type", file.type);
-			result.addHeader("Content-Length", Long.toString(file.length));
+			file.addHeadersToResult(result);
 			result.setInputStream(file.source);
 		}
 		
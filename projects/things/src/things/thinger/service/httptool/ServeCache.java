@@ -0,0 +1,56 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.httptool;
+
+import things.common.tools.StampedCache;
+
+/**
+ * A byte cache for served objects.  It is bounded by the total bytes held and evicts the least recently used entries first.  Each
+ * entry is stamped with the ETag it was made for, so a changed object (new size or modification date) is a miss and the old entry
+ * is dropped.
+ * <p>
+ * It is thread safe.  The data arrays are shared, so callers must not change them.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 12 MAY 10
+ * EPG - Built on the StampedCache - 30 JUN 10
+ * </pre>
+ */
+public class ServeCache extends StampedCache<String, byte[]> {
+
+	// =================================================================================================
+	// == METHODS
+
+	/**
+	 * Constructor.
+	 * @param limit the most bytes to hold.  0 means nothing is ever cached.
+	 * @param objectLimit the largest single object to hold.
+	 */
+	public ServeCache(long limit, long objectLimit) {
+		super(limit, objectLimit);
+	}
+
+	/**
+	 * The size of cached data is its length in bytes.
+	 */
+	protected long sizeOf(byte[] data) {
+		return data.length;
+	}
+
+}
@@ -18,22 +18,37 @@ package things.thinger.service.httptool;
 import java.io.InputStream;
 
 /**
- * A serve file.
+ * A serve file.  The length is what will actually be sent, so it is the range length for partial content and the compressed
+ * length for gzip.
  * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 21 NOV 07
+ * EPG - Status, validators, encoding and range - 10 MAY 10
  * </pre> 
  */
 public class ServeFile  {
 
+	// =================================================================================================
+	// == CONSTANTS
+	public final static int STATUS_OK = 200;
+	public final static int STATUS_PARTIAL_CONTENT = 206;
+	public final static int STATUS_NOT_MODIFIED = 304;
+	public final static int STATUS_RANGE_NOT_SATISFIABLE = 416;
+
 	// =================================================================================================
 	// == FIELDS
 	public  InputStream 	source;
 	public  String 			type;
 	public  long			length;
+	public  int				status = STATUS_OK;
+	public  String			etag;
+	public  long			lastModified = -1;
+	public  String			encoding;
+	public  String			contentRange;
+	public  boolean			vary;
 	
 	// =================================================================================================
 	// == METHODS
@@ -49,6 +64,40 @@ public class ServeFile  {
 		this.type = type;
 		this.length = length;
 	}
+
+	/**
+	 * Get the response line for the status.
+	 * @return the response line.
+	 */
+	public String getResponse() {
+		switch(status) {
+		case STATUS_PARTIAL_CONTENT:
+			return "HTTP/1.1 206 Partial Content";
+		case STATUS_NOT_MODIFIED:
+			return "HTTP/1.1 304 Not Modified";
+		case STATUS_RANGE_NOT_SATISFIABLE:
+			return "HTTP/1.1 416 Requested Range Not Satisfiable";
+		default:
+			return "HTTP/1.1 200 OK";
+		}
+	}
+
+	/**
+	 * Add the entity headers to the result.  A 304 gets only the validators.
+	 * @param result the result.
+	 */
+	public void addHeadersToResult(ActionResult result) {
+		if (etag != null) result.addHeader("ETag", etag);
+		if (lastModified >= 0) result.addHeader("Last-Modified", ServeManager.formatHttpDate(lastModified));
+		if (vary) result.addHeader("Vary", "Accept-Encoding");
+		if (status == STATUS_NOT_MODIFIED) return;
+
+		result.addHeader("Content-Type", type);
+		result.addHeader("Content-Length", Long.toString(length));
+		result.addHeader("Accept-Ranges", "bytes");
+		if (encoding != null) result.addHeader("Content-Encoding", encoding);
+		if (contentRange != null) result.addHeader("Content-Range", contentRange);
+	}
 	
 	
 	
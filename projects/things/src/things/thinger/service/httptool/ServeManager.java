@@ -16,14 +16,23 @@
 package things.thinger.service.httptool;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
 
 import things.common.ThingsConstants;
 import things.common.ThingsException;
 import things.common.ThingsNamespace;
 import things.data.ThingsPropertyReaderToolkit;
+import things.data.processing.http.HttpRequest;
+import things.data.processing.http.LimitedInputStream;
 import things.thinger.SystemInterface;
 import things.thinger.service.ServiceConstants;
 import things.universe.Universe;
@@ -32,21 +41,62 @@ import things.universe.UniverseAddress;
 /**
  * A serve manager.
  * <p>
+ * Served files get an ETag and Last-Modified from the universe size and modification date, so clients can revalidate with
+ * If-None-Match or If-Modified-Since and get a 304.  Single byte ranges are supported for the identity encoding.  If the client
+ * accepts gzip and the type is compressible, a precomputed variant (the same name with .gz added) is served when it is at least as new
+ * as the original.  Otherwise the file is compressed on the fly and kept in a small LRU cache until the object changes.
+ * <p>
+ * Small objects are also kept in a hot object cache, so frequently served things like UI assets come straight from memory.  Every
+ * request still checks the size and modification date, so a changed object is reloaded.
+ * <p>
  * @author Erich P. Gatejen
  * @version 1.0
  * <p>
  * <i>Version History</i>
  * <pre>EPG - Initial - 20 NOV 07
- * </pre> 
+ * EPG - ETag, conditional GET, ranges and gzip - 10 MAY 10
+ * EPG - Hot object cache - 12 MAY 10
+ * </pre>
  */
 public class ServeManager  {
-	
+
+	// =================================================================================================
+	// == PUBLIC DATA
+
+	/**
+	 * Default limit for the gzip cache in bytes.
+	 */
+	public final static long DEFAULT_GZIP_CACHE_LIMIT = 4 * 1024 * 1024;
+
+	/**
+	 * Default limit for the hot object cache in bytes.
+	 */
+	public final static long DEFAULT_HOT_CACHE_LIMIT = 8 * 1024 * 1024;
+
+	/**
+	 * Default size of the largest object that will be kept in the hot object cache.
+	 */
+	public final static long DEFAULT_HOT_OBJECT_LIMIT = 256 * 1024;
+
+	/**
+	 * Files smaller than this aren't worth compressing.
+	 */
+	public final static long GZIP_MINIMUM_SIZE = 256;
+
+	/**
+	 * Extension for precomputed gzip variants.
+	 */
+	public final static String GZIP_VARIANT_EXTENSION = ".gz";
+
 	// =================================================================================================
 	// == DATA
 	//private SystemInterface	si;
 	private Universe serveUniverse;
 	private String root;
 
+	private ServeCache gzipCache = new ServeCache(DEFAULT_GZIP_CACHE_LIMIT, DEFAULT_GZIP_CACHE_LIMIT);
+	private ServeCache hotCache = new ServeCache(DEFAULT_HOT_CACHE_LIMIT, DEFAULT_HOT_OBJECT_LIMIT);
+
 	// =================================================================================================
 	// == METHODS=
 
@@ -64,21 +114,47 @@ public class ServeManager  {
 	 */
 	public void init(SystemInterface	si) throws ThingsException {
 	//	this.si = si;
-		
+
 		// Set the source.
 		try {
 			ThingsPropertyReaderToolkit propToolkit = new ThingsPropertyReaderToolkit(si.getLocalProperties());
 			UniverseAddress uAddy = new UniverseAddress(propToolkit.getRequired(ServiceConstants.PAGE_MANAGER_UNIVERSE_ADDRESS));
-			serveUniverse = si.getUniverse(uAddy.universeName);
-			root = uAddy.path;
-			
+
+			init(si.getUniverse(uAddy.universeName), uAddy.path, getLimit(propToolkit, ServiceConstants.SERVE_GZIP_CACHE_LIMIT, DEFAULT_GZIP_CACHE_LIMIT),
+					getLimit(propToolkit, ServiceConstants.SERVE_CACHE_LIMIT, DEFAULT_HOT_CACHE_LIMIT), getLimit(propToolkit, ServiceConstants.SERVE_CACHE_OBJECT_LIMIT, DEFAULT_HOT_OBJECT_LIMIT));
+
 		} catch (Throwable t) {
 			throw new ThingsException("Could not find or prepare for stock pages", ThingsException.SERVICE_FAULT_HTTPTOOL_STOCK_SETUP, t);
 		}
 	}
-	
+
+	/**
+	 * Initialize the manager directly.
+	 * @param serveUniverse the universe to serve from.
+	 * @param root the root path in the universe.
+	 * @param gzipCacheLimit the most bytes of compressed data to cache.  0 disables on the fly compression, but precomputed variants are still served.
+	 */
+	public void init(Universe serveUniverse, String root, long gzipCacheLimit) {
+		init(serveUniverse, root, gzipCacheLimit, DEFAULT_HOT_CACHE_LIMIT, DEFAULT_HOT_OBJECT_LIMIT);
+	}
+
+	/**
+	 * Initialize the manager directly.
+	 * @param serveUniverse the universe to serve from.
+	 * @param root the root path in the universe.
+	 * @param gzipCacheLimit the most bytes of compressed data to cache.  0 disables on the fly compression, but precomputed variants are still served.
+	 * @param hotCacheLimit the most bytes of hot objects to cache.  0 disables the hot object cache.
+	 * @param hotObjectLimit the largest object to keep in the hot object cache.
+	 */
+	public void init(Universe serveUniverse, String root, long gzipCacheLimit, long hotCacheLimit, long hotObjectLimit) {
+		this.serveUniverse = serveUniverse;
+		this.root = root;
+		gzipCache = new ServeCache(gzipCacheLimit, gzipCacheLimit);
+		hotCache = new ServeCache(hotCacheLimit, hotObjectLimit);
+	}
+
 	/**
-	 * Get the serve file that matches this path
+	 * Get the serve file that matches this path.  It will always be the whole file in the identity encoding.
 	 * @param path the path.
 	 * @return The file or null if there is no match.
 	 * @throws Throwable
@@ -87,13 +163,23 @@ public class ServeManager  {
 		ServeFile result = null;
 		InputStream source = null;
 		String type = null;
-		
+
 		// Need to load it.
 		try {
 			if (serveUniverse.exists(root, path)) {
-				source = new BufferedInputStream(serveUniverse.getStream(root, path));
 				type = lookupExtension(path);
-				result = new ServeFile(source, type, serveUniverse.size(root, path));
+				long size = serveUniverse.size(root, path);
+				long modified = serveUniverse.lastModifiedDate(root, path);
+				String etag = makeEtag(size, modified, null);
+				byte[] hot = getHot(path, etag, size);
+				if (hot != null) {
+					source = new ByteArrayInputStream(hot);
+				} else {
+					source = new BufferedInputStream(serveUniverse.getStream(root, path));
+				}
+				result = new ServeFile(source, type, size);
+				result.etag = etag;
+				result.lastModified = modified;
 			}
 
 		} catch (Throwable t) {
@@ -101,8 +187,389 @@ public class ServeManager  {
 		}
 		return result;
 	}
-	
-	
+
+	/**
+	 * Get the serve file for a request.  The request's conditional, range and accept-encoding headers are honored.  The result
+	 * status will be one of 200, 206, 304 or 416.  Nothing but the headers should be sent if the request was a HEAD.
+	 * @param request the request.
+	 * @return The file or null if there is no match.
+	 * @throws Throwable
+	 */
+	public ServeFile get(HttpRequest request) throws Throwable {
+		ServeFile result = null;
+		String path = request.path;
+
+		try {
+			if (!serveUniverse.exists(root, path)) return null;
+
+			String type = lookupExtension(path);
+			long size = serveUniverse.size(root, path);
+			long modified = serveUniverse.lastModifiedDate(root, path);
+			String etag = makeEtag(size, modified, null);
+			boolean compressible = isCompressible(type);
+			byte[] hot = getHot(path, etag, size);
+
+			// Pick the encoding.  Ranges only apply to the identity encoding.
+			InputStream source = null;
+			long length = size;
+			String encoding = null;
+			if ( compressible && acceptsGzip(getHeader(request, "Accept-Encoding")) ) {
+				String variant = path + GZIP_VARIANT_EXTENSION;
+				if (serveUniverse.exists(root, variant) && (serveUniverse.lastModifiedDate(root, variant) >= modified)) {
+					length = serveUniverse.size(root, variant);
+					encoding = "gzip";
+					source = new BufferedInputStream(serveUniverse.getStream(root, variant));
+
+				} else if ((size >= GZIP_MINIMUM_SIZE)&&(gzipCache.fits(size))) {
+					byte[] data = getGzipped(path, etag, hot);
+					length = data.length;
+					encoding = "gzip";
+					source = new ByteArrayInputStream(data);
+				}
+				if (encoding != null) etag = makeEtag(size, modified, encoding);
+			}
+
+			// Conditional.  If-None-Match wins over If-Modified-Since.
+			boolean notModified = false;
+			String ifNoneMatch = getHeader(request, "If-None-Match");
+			if (ifNoneMatch != null) {
+				notModified = matchesEtag(ifNoneMatch, etag);
+			} else {
+				long ifModifiedSince = parseHttpDate(getHeader(request, "If-Modified-Since"));
+				if (ifModifiedSince >= 0) notModified = (modified / 1000) <= (ifModifiedSince / 1000);
+			}
+			if (notModified) {
+				closeQuietly(source);
+				result = new ServeFile(new ByteArrayInputStream(new byte[0]), type, 0);
+				result.status = ServeFile.STATUS_NOT_MODIFIED;
+
+			} else {
+
+				// Range?
+				long[] range = null;
+				if ((encoding == null)&&(request.method != HttpRequest.Method.HEAD)) {
+					String rangeHeader = getHeader(request, "Range");
+					String ifRange = getHeader(request, "If-Range");
+					if ((rangeHeader != null)&&((ifRange == null)||ifRange.trim().equals(etag)||(parseHttpDate(ifRange) / 1000 == modified / 1000))) {
+						range = parseRange(rangeHeader, size);
+					}
+				}
+
+				if ((range != null)&&(range[0] < 0)) {
+					result = new ServeFile(new ByteArrayInputStream(new byte[0]), type, 0);
+					result.status = ServeFile.STATUS_RANGE_NOT_SATISFIABLE;
+					result.contentRange = "bytes */" + size;
+
+				} else if (range != null) {
+					length = range[1] - range[0] + 1;
+					if (hot != null) {
+						result = new ServeFile(new ByteArrayInputStream(hot, (int)range[0], (int)length), type, length);
+					} else {
+						source = new BufferedInputStream(serveUniverse.getStream(root, path));
+						skipFully(source, range[0]);
+						result = new ServeFile(new LimitedInputStream(source, length), type, length);
+					}
+					result.status = ServeFile.STATUS_PARTIAL_CONTENT;
+					result.contentRange = "bytes " + range[0] + "-" + range[1] + "/" + size;
+
+				} else {
+					if ((source == null)&&(hot != null)) source = new ByteArrayInputStream(hot);
+					if (source == null) source = new BufferedInputStream(serveUniverse.getStream(root, path));
+					result = new ServeFile(source, type, length);
+					result.encoding = encoding;
+				}
+			}
+			result.etag = etag;
+			result.lastModified = modified;
+			result.vary = compressible;
+
+		} catch (Throwable t) {
+			throw new ThingsException("Could not get serve file.", ThingsException.SERVICE_HTTPTOOL_SERVE_FAILED, t, ThingsNamespace.ATTR_PROCESSING_HTTP_PATH, path);
+		}
+		return result;
+	}
+
+	/**
+	 * How many bytes are in the gzip cache.
+	 * @return the size in bytes.
+	 */
+	public long getGzipCacheSize() {
+		return gzipCache.getSize();
+	}
+
+	/**
+	 * Get the gzip cache, mostly for the statistics.
+	 * @return the cache.
+	 */
+	public ServeCache getGzipCache() {
+		return gzipCache;
+	}
+
+	/**
+	 * Get the hot object cache, mostly for the statistics.
+	 * @return the cache.
+	 */
+	public ServeCache getHotCache() {
+		return hotCache;
+	}
+
+	// =============================================================================
+	// HTTP TOOLS
+
+	private static ThreadLocal<SimpleDateFormat[]> httpDateFormats = new ThreadLocal<SimpleDateFormat[]>() {
+		protected SimpleDateFormat[] initialValue() {
+			SimpleDateFormat[] result = new SimpleDateFormat[] {
+				new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US),		// RFC 1123 - the one we send.
+				new SimpleDateFormat("EEEE, dd-MMM-yy HH:mm:ss zzz", Locale.US),		// RFC 850
+				new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.US)				// asctime
+			};
+			for (SimpleDateFormat item : result) {
+				item.setTimeZone(TimeZone.getTimeZone("GMT"));
+			}
+			return result;
+		}
+	};
+
+	/**
+	 * Format a date for HTTP.
+	 * @param time the time in milliseconds.
+	 * @return the RFC 1123 date.
+	 */
+	public static String formatHttpDate(long time) {
+		return httpDateFormats.get()[0].format(new Date(time));
+	}
+
+	/**
+	 * Parse an HTTP date in any of the three allowed formats.
+	 * @param text the date text.  It may be null.
+	 * @return the time in milliseconds or -1 if it could not be parsed.
+	 */
+	public static long parseHttpDate(String text) {
+		if (text == null) return -1;
+		String trimmed = text.trim();
+		for (SimpleDateFormat item : httpDateFormats.get()) {
+			try {
+				return item.parse(trimmed).getTime();
+			} catch (Throwable t) {
+				// Try the next one.
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parse a Range header.  Only a single bytes range is supported.  Anything else is ignored, which is allowed.
+	 * @param text the header value.
+	 * @param size the size of the file.
+	 * @return the first and last byte positions, null if the range should be ignored, or { -1, -1 } if it can't be satisfied.
+	 */
+	public static long[] parseRange(String text, long size) {
+		String trimmed = text.trim();
+		if (!trimmed.startsWith("bytes=")) return null;
+		String spec = trimmed.substring(6).trim();
+		if (spec.indexOf(',') >= 0) return null;
+		int dash = spec.indexOf('-');
+		if (dash < 0) return null;
+
+		long first;
+		long last;
+		try {
+			String firstText = spec.substring(0, dash).trim();
+			String lastText = spec.substring(dash + 1).trim();
+			if (firstText.length() == 0) {
+				// Suffix
+				if (lastText.length() == 0) return null;
+				long suffix = Long.parseLong(lastText);
+				if (suffix < 1) return new long[] { -1, -1 };
+				first = Math.max(0, size - suffix);
+				last = size - 1;
+			} else {
+				first = Long.parseLong(firstText);
+				if (first < 0) return null;
+				if (lastText.length() == 0) {
+					last = size - 1;
+				} else {
+					last = Long.parseLong(lastText);
+					if (last < first) return null;
+					last = Math.min(last, size - 1);
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		if ((first >= size)||(last < first)) return new long[] { -1, -1 };
+		return new long[] { first, last };
+	}
+
+	// =============================================================================
+	// INTERNAL TOOLS
+
+	/**
+	 * Make an ETag from the size and date.
+	 */
+	private String makeEtag(long size, long modified, String encoding) {
+		if (encoding == null) return "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "\"";
+		return "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "-" + encoding + "\"";
+	}
+
+	/**
+	 * Does an If-None-Match value match the etag?  This is the weak comparison.
+	 */
+	private boolean matchesEtag(String ifNoneMatch, String etag) {
+		for (String item : ifNoneMatch.split(",")) {
+			String candidate = item.trim();
+			if (candidate.equals("*")) return true;
+			if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+			if (candidate.equals(etag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Will the client take gzip?  A q of zero means no.
+	 */
+	private boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) return false;
+		for (String item : acceptEncoding.split(",")) {
+			String[] parts = item.split(";");
+			String coding = parts[0].trim().toLowerCase();
+			if (coding.equals("gzip")||coding.equals("x-gzip")||coding.equals("*")) {
+				for (int index = 1; index < parts.length; index++) {
+					String param = parts[index].trim();
+					if (param.startsWith("q=")) {
+						try {
+							if (Float.parseFloat(param.substring(2).trim()) <= 0) return false;
+						} catch (NumberFormatException nfe) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Is the type worth compressing?
+	 */
+	private boolean isCompressible(String type) {
+		return type.startsWith("text/") || (type.indexOf("xml") >= 0) || type.equals("application/javascript") || type.equals("application/json");
+	}
+
+	/**
+	 * Get a header by name, ignoring case.
+	 */
+	private String getHeader(HttpRequest request, String name) throws Throwable {
+		String result = request.headerItems.getProperty(name);
+		if (result != null) return result;
+		for (String item : request.headerItems.sub(null)) {
+			if (item.equalsIgnoreCase(name)) return request.headerItems.getProperty(item);
+		}
+		return null;
+	}
+
+	/**
+	 * Get the compressed data for the path.  It'll be cached if it fits.
+	 */
+	private byte[] getGzipped(String path, String etag, byte[] hot) throws Throwable {
+		byte[] result = gzipCache.get(path, etag);
+		if (result != null) return result;
+
+		// Compress outside of the cache lock.  Two threads might do the same work, but that's cheaper than making everyone wait.
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(compressed);
+		if (hot != null) {
+			gzos.write(hot);
+		} else {
+			InputStream ins = serveUniverse.getStream(root, path);
+			try {
+				byte[] buffer = new byte[8192];
+				int size;
+				while ((size = ins.read(buffer)) > 0) {
+					gzos.write(buffer, 0, size);
+				}
+			} finally {
+				closeQuietly(ins);
+			}
+		}
+		gzos.close();
+
+		result = compressed.toByteArray();
+		gzipCache.put(path, etag, result);
+		return result;
+	}
+
+	/**
+	 * Get the whole object from the hot cache, loading it if it fits.
+	 * @return the data or null if it's too big to be hot.
+	 */
+	private byte[] getHot(String path, String etag, long size) throws Throwable {
+		if (!hotCache.fits(size)) return null;
+		byte[] result = hotCache.get(path, etag);
+		if (result != null) return result;
+
+		result = new byte[(int)size];
+		InputStream ins = serveUniverse.getStream(root, path);
+		try {
+			int rover = 0;
+			int got;
+			while ((rover < result.length)&&((got = ins.read(result, rover, result.length - rover)) > 0)) {
+				rover += got;
+			}
+
+			// Changed under us.  Don't cache it and let the stream path deal with it.
+			if ((rover != result.length)||(ins.read() >= 0)) return null;
+		} finally {
+			closeQuietly(ins);
+		}
+		hotCache.put(path, etag, result);
+		return result;
+	}
+
+	/**
+	 * Get an optional, non-negative limit property.
+	 */
+	private long getLimit(ThingsPropertyReaderToolkit propToolkit, String name, long defaultValue) throws Throwable {
+		long result = defaultValue;
+		String text = propToolkit.getOptional(name);
+		if ((text!=null)&&(text.trim().length()>0)) {
+			try {
+				result = Long.parseLong(text.trim());
+			} catch (NumberFormatException nfe) {
+				result = -1;
+			}
+			if (result < 0) throw new ThingsException("Property value bad.  Expecting a non-negative number.", ThingsException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, name, ThingsNamespace.ATTR_PROPERTY_VALUE, text);
+		}
+		return result;
+	}
+
+	/**
+	 * Skip exactly so many bytes.
+	 */
+	private void skipFully(InputStream ins, long count) throws Throwable {
+		long left = count;
+		while (left > 0) {
+			long skipped = ins.skip(left);
+			if (skipped <= 0) {
+				if (ins.read() < 0) throw new ThingsException("File shorter than its size.", ThingsException.SERVICE_HTTPTOOL_SERVE_FAILED);
+				skipped = 1;
+			}
+			left -= skipped;
+		}
+	}
+
+	/**
+	 * Close and don't care.
+	 */
+	private void closeQuietly(InputStream ins) {
+		try {
+			if (ins != null) ins.close();
+		} catch (Throwable t) {
+			// Don't care.
+		}
+	}
+
 	// =============================================================================
 	// TYPE ENGINE
 	
@@ -179,6 +646,9 @@ public class ServeManager  {
 			putMap(new FileType("text/xml", "xml"));
 			putMap(new FileType("text/css", "css"));
 			putMap(new FileType("application/xml-dtd", "dtd"));
+			putMap(new FileType("application/javascript", "js"));
+			putMap(new FileType("application/json", "json"));
+			putMap(new FileType("image/svg+xml", "svg"));
 			
 			putMap(new FileType("application/java", "class"));
 			putMap(new FileType("application/java-archive", "jar"));
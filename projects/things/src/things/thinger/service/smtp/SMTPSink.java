@@ -0,0 +1,557 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import things.common.ThingsCodes;
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.data.Data;
+import things.thing.Metrics;
+import things.thing.RESULT;
+import things.universe.Universe;
+
+/**
+ * A local SMTP sink.  It speaks enough ESMTP (PIPELINING, CHUNKING, 8BITMIME) to take anything the clients in things.data.transport.smtp
+ * send, accepts every recipient and then either throws the message away or stores it in a universe.  It is meant as a target for load and
+ * regression runs, so it doesn't relay, check addresses or apply policy.  It only enforces command order.
+ * <p>
+ * Replies are batched the way a pipelining server should: they are only flushed when there is no more input waiting.  Input is read through
+ * the sink's own buffer, so pipelined commands that arrive with message data are never lost.
+ * <p>
+ * One sink can serve any number of sessions at once.  The counters are totals for all of them.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 MAY 10
+ * </pre> 
+ */
+public class SMTPSink {
+
+	// == EXPOSED SETTINGS ===============================================================================
+	public final static int BUFFER_SIZE = 1024 * 16;
+	public final static int COMMAND_LINE_LIMIT = 1024 * 4;
+	public final static int DATA_LINE_LIMIT = 1024 * 64;
+	public final static String DEFAULT_NAME = "things.sink";
+	public final static String STORE_PREFIX = "message";
+	
+	// ===================================================================================================
+	// == INTERNAL DATA ==================================
+	private final static byte[] CRLF = { '\r', '\n' };
+	
+	private String name = DEFAULT_NAME;
+	private Universe storeUniverse;
+	private String storePath;
+
+	private AtomicLong connections = new AtomicLong();
+	private AtomicLong messages = new AtomicLong();
+	private AtomicLong recipients = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+	private AtomicLong sequence = new AtomicLong();
+	
+	// ===================================================================================================
+	// == METHODS  ==================================
+	
+	/**
+	 * Constructor.  Messages will be counted and discarded.
+	 */
+	public SMTPSink() {
+	}
+	
+	/**
+	 * Constructor.  Messages will be stored.
+	 * @param storeUniverse the universe for the messages.  If null, they will be counted and discarded.
+	 * @param storePath the path within the universe.  Each message gets a unique name under it.
+	 */
+	public SMTPSink(Universe storeUniverse, String storePath) {
+		this.storeUniverse = storeUniverse;
+		this.storePath = storePath;
+	}
+	
+	/**
+	 * Set the name given in the greeting and EHLO replies.
+	 * @param name the name.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Run a session on a socket.  The socket will be closed when the session is done.
+	 * @param socket the accepted socket.
+	 * @throws IOException if the connection failed.  A client that just goes away is not an error.
+	 */
+	public void session(Socket socket) throws IOException {
+		try {
+			socket.setTcpNoDelay(true);
+			session(socket.getInputStream(), socket.getOutputStream());
+		} finally {
+			try {
+				socket.close();
+			} catch (Throwable t) {
+				// Don't care.
+			}
+		}
+	}
+	
+	/**
+	 * Run a session.  It returns after QUIT or when the input ends.  The streams are not closed.
+	 * @param in the stream from the client.
+	 * @param out the stream to the client.
+	 * @throws IOException if the connection failed.  A client that just goes away is not an error.
+	 */
+	public void session(InputStream in, OutputStream out) throws IOException {
+		Input input = new Input(in);
+		Output output = new Output(out);
+		try {
+			commands(input, output);
+		} finally {
+			abandon(output);
+		}
+	}
+	
+	/**
+	 * The command loop.
+	 */
+	private void commands(Input input, Output output) throws IOException {
+		byte[] line = new byte[COMMAND_LINE_LIMIT];
+		int length;
+		boolean haveSender = false;
+		int rcpts = 0;
+		String command;
+		String verb;
+		
+		connections.incrementAndGet();
+		output.reply("220 " + name + " ESMTP ready");
+		output.flush();
+		
+		while (true) {
+			
+			length = input.readLine(line);
+			if (length < 0) return;
+			if (!input.complete) {
+				input.skipLine();
+				output.reply("500 Line too long");
+				if (!input.ready()) output.flush();
+				continue;
+			}
+			
+			command = new String(line, 0, trimmed(line, length), "US-ASCII");
+			verb = (command.length() < 4) ? command.toUpperCase() : command.substring(0, 4).toUpperCase();
+			
+			if (verb.equals("EHLO")) {
+				abandon(output);
+				haveSender = false;
+				rcpts = 0;
+				output.reply("250-" + name);
+				output.reply("250-PIPELINING");
+				output.reply("250-CHUNKING");
+				output.reply("250 8BITMIME");
+				
+			} else if (verb.equals("HELO")) {
+				abandon(output);
+				haveSender = false;
+				rcpts = 0;
+				output.reply("250 " + name);
+				
+			} else if (verb.equals("MAIL")) {
+				if (!command.toUpperCase().startsWith("MAIL FROM:")) {
+					output.reply("501 Syntax: MAIL FROM:<address>");
+				} else if (haveSender) {
+					output.reply("503 Sender already given");
+				} else {
+					haveSender = true;
+					output.reply("250 OK");
+				}
+				
+			} else if (verb.equals("RCPT")) {
+				if (!command.toUpperCase().startsWith("RCPT TO:")) {
+					output.reply("501 Syntax: RCPT TO:<address>");					
+				} else if (!haveSender) {
+					output.reply("503 Need MAIL first");
+				} else {
+					rcpts++;
+					output.reply("250 OK");
+				}
+				
+			} else if (verb.equals("DATA")) {
+				if (rcpts < 1) {
+					output.reply("503 Need RCPT first");
+				} else {
+					output.reply("354 End data with <CR><LF>.<CR><LF>");
+					output.flush();
+					output.reply(data(input, output, rcpts));
+					haveSender = false;
+					rcpts = 0;
+				}
+				
+			} else if (verb.equals("BDAT")) {
+				// The chunk has to be read no matter what, or the session is lost.
+				String[] parts = command.trim().split("\\s+");
+				long size = -1;
+				try {
+					if ((parts.length == 2)||((parts.length == 3)&&(parts[2].equalsIgnoreCase("LAST")))) size = Long.parseLong(parts[1]);
+				} catch (NumberFormatException nfe) {
+					// Leave it bad
+				}
+				if (size < 0) {
+					output.reply("501 Syntax: BDAT size [LAST]");
+					output.flush();
+					return;		// Can't tell where the chunk ends.
+				}
+				output.reply(chunk(input, output, size, parts.length == 3, rcpts));
+				if (parts.length == 3) {
+					haveSender = false;
+					rcpts = 0;
+				}
+				
+			} else if (verb.equals("RSET")) {
+				abandon(output);
+				haveSender = false;
+				rcpts = 0;
+				output.reply("250 OK");
+				
+			} else if (verb.equals("NOOP")) {
+				output.reply("250 OK");
+				
+			} else if (verb.equals("QUIT")) {
+				abandon(output);
+				output.reply("221 Bye");
+				output.flush();
+				return;
+				
+			} else {
+				output.reply("502 Command not implemented");
+			}
+			
+			if (!input.ready()) output.flush();
+			
+		} // end while
+	}
+	
+	/**
+	 * Get the number of sessions started.
+	 * @return the count.
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+	
+	/**
+	 * Get the number of messages accepted.
+	 * @return the count.
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+	
+	/**
+	 * Get the number of recipients for accepted messages.
+	 * @return the count.
+	 */
+	public long getRecipients() {
+		return recipients.get();
+	}
+	
+	/**
+	 * Get the number of message bytes accepted, after DATA unstuffing.
+	 * @return the count.
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+	
+	/**
+	 * Get the number of messages that could not be stored.
+	 * @return the count.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Get a report of the totals.  The metrics count accepted messages as passes and messages that could not be stored as fails.
+	 * @return the report.
+	 * @throws ThingsException
+	 */
+	public RESULT report() throws ThingsException {
+		Metrics metrics = new Metrics();
+		metrics.pass = (int)messages.get();
+		metrics.fail = (int)failures.get();
+		metrics.count = metrics.pass + metrics.fail;
+		metrics.cases = metrics.count;
+		return new RESULT(ThingsCodes.SMTPSINK_REPORT, metrics, Data.Type.INFO, ThingsNamespace.ATTR_TRANSPORT_CONNECTIONS, Long.toString(connections.get()),
+				ThingsNamespace.ATTR_TRANSPORT_MESSAGES, Long.toString(messages.get()), ThingsNamespace.ATTR_TRANSPORT_RECIPIENTS, Long.toString(recipients.get()),
+				ThingsNamespace.ATTR_DATA_SIZE, Long.toString(bytes.get()));
+	}
+	
+	// ===================================================================================================
+	// == INTERNAL  ==================================
+	
+	/**
+	 * Open the store for the current message, if storing.
+	 * @return the stream or null if not storing or the store failed.
+	 */
+	private OutputStream open(Output output) {
+		if ((output.message == null)&&(!output.storeFailed)&&(storeUniverse != null)) {
+			try {
+				output.message = storeUniverse.putStream(storeUniverse.reserveUnique(storePath + "/" + STORE_PREFIX + sequence.incrementAndGet()));
+			} catch (Throwable t) {
+				output.storeFailed = true;
+			}
+		}
+		return output.message;
+	}
+	
+	/**
+	 * Read DATA up to the terminating dot, unstuffing as it goes.
+	 * @return the reply.
+	 */
+	private String data(Input input, Output output, int rcpts) throws IOException {
+		byte[] line = input.dataLine;
+		OutputStream message = open(output);
+		boolean lineStart = true;
+		int length;
+		int offset;
+		
+		while (true) {
+			length = input.readLine(line);
+			if (length < 0) throw new IOException("Connection closed during DATA.");
+			offset = 0;
+			if (lineStart && (line[0] == '.')) {
+				if (input.complete && (trimmed(line, length) == 1)) break;
+				offset = 1;
+			}
+			output.size += length - offset;
+			if (message != null) {
+				try {
+					message.write(line, offset, length - offset);
+				} catch (IOException ioe) {
+					output.storeFailed = true;
+					message = null;
+				}
+			}
+			lineStart = input.complete;
+		}
+		return finish(output, rcpts);
+	}
+
+	/**
+	 * Read a BDAT chunk.
+	 * @return the reply.
+	 */
+	private String chunk(Input input, Output output, long size, boolean last, int rcpts) throws IOException {
+		OutputStream message = null;
+		if (rcpts > 0) message = open(output);
+		input.copy(size, message, output);
+		if (rcpts < 1) {
+			abandon(output);
+			return "503 Need RCPT first";
+		}
+		output.size += size;
+		if (last) return finish(output, rcpts);
+		return "250 " + size + " octets received";
+	}
+	
+	/**
+	 * Finish a message.
+	 * @return the reply.
+	 */
+	private String finish(Output output, int rcpts) {
+		String result;
+		if (output.message != null) {
+			try {
+				output.message.close();
+			} catch (IOException ioe) {
+				output.storeFailed = true;
+			}
+		}
+		if (output.storeFailed) {
+			failures.incrementAndGet();
+			result = "451 Could not store message";
+		} else {
+			messages.incrementAndGet();
+			recipients.addAndGet(rcpts);
+			bytes.addAndGet(output.size);
+			result = "250 OK queued";
+		}
+		output.message = null;
+		output.storeFailed = false;
+		output.size = 0;
+		return result;
+	}
+	
+	/**
+	 * Drop a partial message.  The stored part, if any, is closed and left where it is.
+	 */
+	private void abandon(Output output) {
+		if (output.message != null) {
+			try {
+				output.message.close();
+			} catch (Throwable t) {
+				// Don't care.
+			}
+		}
+		output.message = null;
+		output.storeFailed = false;
+		output.size = 0;
+	}
+	
+	/**
+	 * Length without the line ending.
+	 */
+	private static int trimmed(byte[] line, int length) {
+		while ((length > 0)&&((line[length - 1] == '\n')||(line[length - 1] == '\r'))) length--;
+		return length;
+	}
+
+	/**
+	 * Buffered input that never reads ahead of what it hands out, except into its own buffer.
+	 */
+	private class Input {
+		InputStream in;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] dataLine = new byte[DATA_LINE_LIMIT];
+		int position;
+		int limit;
+		boolean complete;		// The last line read ended with a LF.
+		
+		Input(InputStream in) {
+			this.in = in;
+		}
+		
+		/**
+		 * Read a line, including the ending, up to the size of the array.  The complete flag says if the end was reached.
+		 * @return the bytes read or -1 if the input ended first.
+		 */
+		int readLine(byte[] line) throws IOException {
+			int count = 0;
+			int end;
+			int max;
+			while (count < line.length) {
+				if ((position >= limit)&&(!fill())) {
+					complete = false;
+					return (count == 0) ? -1 : count;
+				}
+				max = Math.min(limit, position + line.length - count);
+				end = position;
+				while ((end < max)&&(buffer[end] != '\n')) end++;
+				if (end < max) {
+					end++;
+					System.arraycopy(buffer, position, line, count, end - position);
+					count += end - position;
+					position = end;
+					complete = true;
+					return count;
+				}
+				System.arraycopy(buffer, position, line, count, max - position);
+				count += max - position;
+				position = max;
+			}
+			complete = false;
+			return count;
+		}
+		
+		/**
+		 * Throw away the rest of a line.
+		 */
+		void skipLine() throws IOException {
+			while (!complete) {
+				if (readLine(dataLine) < 0) return;
+			}
+		}
+		
+		/**
+		 * Copy an exact number of bytes.
+		 * @param target where to put them or null to drop them.
+		 */
+		void copy(long size, OutputStream target, Output output) throws IOException {
+			int run;
+			while (size > 0) {
+				if ((position >= limit)&&(!fill())) throw new IOException("Connection closed during BDAT.");
+				run = (int)Math.min(size, limit - position);
+				if (target != null) {
+					try {
+						target.write(buffer, position, run);
+					} catch (IOException ioe) {
+						output.storeFailed = true;
+						target = null;
+					}
+				}
+				position += run;
+				size -= run;
+			}
+		}
+		
+		/**
+		 * Is there input waiting?
+		 */
+		boolean ready() throws IOException {
+			return (position < limit)||(in.available() > 0);
+		}
+		
+		boolean fill() throws IOException {
+			position = 0;
+			limit = in.read(buffer, 0, buffer.length);
+			if (limit < 0) {
+				limit = 0;
+				return false;
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Buffered replies and the current message.
+	 */
+	private class Output {
+		OutputStream out;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int count;
+		OutputStream message;
+		boolean storeFailed;
+		long size;
+		
+		Output(OutputStream out) {
+			this.out = out;
+		}
+		
+		void reply(String text) throws IOException {
+			int length = text.length();
+			if (count + length + 2 > buffer.length) flush();
+			for (int index = 0; index < length; index++) buffer[count++] = (byte)text.charAt(index);
+			buffer[count++] = CRLF[0];
+			buffer[count++] = CRLF[1];
+		}
+		
+		void flush() throws IOException {
+			if (count > 0) {
+				out.write(buffer, 0, count);
+				count = 0;
+			}
+			out.flush();
+		}
+	}
+	
+}
@@ -0,0 +1,335 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.smtp;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import things.common.ThingsCodes;
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.WhoAmI;
+import things.data.ThingsPropertyView;
+import things.thing.RESULT;
+import things.thinger.SystemException;
+import things.thinger.SystemNamespace;
+import things.thinger.service.Service;
+import things.thinger.service.ServiceConstants;
+import things.universe.UniverseAddress;
+
+/**
+ * The SMTP sink service.  It listens on a local port and takes any mail sent to it, so the SMTP clients can be run and measured without a 
+ * real server.  Connections are dispatched to a pool of threads, each running a session on the shared SMTPSink.
+ * <p>
+ * Properties:<br>
+ * ServiceConstants.LISTEN_PORT - required.<br>
+ * ServiceConstants.POOL_MAX - optional.  The most concurrent sessions.  Further connections wait for a thread.<br>
+ * ServiceConstants.SMTP_SINK_STORE - optional.  A universe address where messages will be stored.  If not set, they are counted and dropped.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 MAY 10
+ * </pre> 
+ */
+public class SMTPSinkService extends Service {
+	
+	// ===================================================================================================
+	// EXPOSED DATA
+	public final static int DEFAULT_POOL_MAX = 50;
+	
+	// ===================================================================================================
+	// INTERNAL DATA
+	
+	// Settings
+	final private static int ACCEPT_TIMEOUT = 2000;
+	final private static int CONNECTION_TIMEOUT = 300000;
+	
+	// Data
+	private ServerSocket listen;
+	private LinkedBlockingQueue<SMTPSinkServiceThread> availableThreads;
+	private HashSet<SMTPSinkServiceThread> activeThreads;
+	private int poolMax = DEFAULT_POOL_MAX;
+	private SMTPSink sink;
+	
+	// ===================================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 */
+	public SMTPSinkService() {
+		super();
+		availableThreads = new LinkedBlockingQueue<SMTPSinkServiceThread>();
+		activeThreads = new HashSet<SMTPSinkServiceThread>();
+	}
+	
+	/**
+	 * Tell the service that a thread is done with its session.
+	 * @param thread the thread.
+	 */
+	public synchronized void complete(SMTPSinkServiceThread thread) {
+		activeThreads.remove(thread);
+		availableThreads.add(thread);
+	}
+	
+	/**
+	 * Get the totals so far.
+	 * @return the sink report.
+	 * @throws ThingsException
+	 */
+	public RESULT report() throws ThingsException {
+		return sink.report();
+	}
+	
+	// ===================================================================================================
+	// SERVICE IMPLEMENTATION
+	
+	/**
+	 * Called to turn the service on.  This may be called by another thread.
+	 * @throws things.thinger.SystemException
+	 */
+	public void serviceOn() throws SystemException {
+		// Always on
+	}
+	
+	/**
+	 * Called to turn the service off.  This may be called by another thread.
+	 * @throws things.thinger.SystemException
+	 */
+	public void serviceOff() throws SystemException {
+		// Always on		
+	}
+	
+	/**
+	 * This is the entry point for the actual processing.
+	 * @throws things.thinger.SystemException
+	 */
+	public void executeThingsProcess() throws SystemException {
+		Socket accepted = null;
+		SMTPSinkServiceThread sthread;
+			
+		try {
+			
+			myLogger.info(getName() + " is alive.");
+			
+			// Loop it.  If the consumer wants to stop they should throw a SystemException with SYSTEM_SERVICE_DONE as a numeric.
+			while (true) {
+				
+				try {
+					accepted = listen.accept();
+					accepted.setSoTimeout(CONNECTION_TIMEOUT);
+				} catch (SocketTimeoutException  ste) {
+					if (this.getCurrentState().isHalting()) break;
+					continue;	// Iterate on the listen.
+				}
+					
+				myLogger.debug("Accepted a connection.");
+				try {
+					sthread = getThread();
+					sthread.handoff.meet(accepted);
+					
+				} catch (InterruptedException ie) {
+					throw ie;
+				} catch (Throwable t) {
+					myLogger.error("Sink could not dispatch a connection.", ThingsCodes.SMTPSINK_ERROR, ThingsNamespace.ATTR_TRANSPORT_ADDRESS, accepted.getInetAddress().toString(), ThingsNamespace.ATTR_PLATFORM_MESSAGE_COMPLETE, ThingsException.toStringCauses(t));
+					try {
+						accepted.close();
+					} catch (Throwable tt) {
+					}
+				}
+				
+			} // End while working OK
+			
+		} catch (ThingsException te) {
+			
+			// Ignore it if it is just a DONE exception
+			if (te.numeric != ThingsException.SYSTEM_SERVICE_DONE) {
+				throw new SystemException("Unrecoverable exception in the SMTPSinkService.", SystemException.SYSTEM_FAULT_SERVICE_PROBLEM, te, SystemNamespace.ATTR_SYSTEM_SERVICE_CLASS, this.getClass().getName());						
+			}
+			
+		} catch (Throwable t) {
+			if (!this.getCurrentState().isHalting())  // Are we just quitting?
+				throw new SystemException("Unrecoverable exception in the SMTPSinkService.", SystemException.PANIC_SYSTEM_SERVICE_UNRECOVERABLE, t, SystemNamespace.ATTR_SYSTEM_SERVICE_CLASS, this.getClass().getName());			
+
+		} finally {
+			try {
+				RESULT totals = sink.report();
+				myLogger.info(getName() + " stopping.", ThingsCodes.SMTPSINK_REPORT, totals.getAttributes().getAttributes());
+			} catch (Throwable t) {
+				// Just losing the totals.
+			}
+		}	
+	}
+
+	/**
+	 * Complete construction. This will be called when the process is initialized.
+	 * <p>
+	 * Set up the sink and the listening port.
+	 */
+	public void constructThingsProcess() throws SystemException {
+		
+		try {
+			
+			ThingsPropertyView localProperties = ssi.getLocalProperties();
+			
+			// Where to store, if anywhere.
+			String storeAddress = localProperties.getProperty(ServiceConstants.SMTP_SINK_STORE);
+			if ((storeAddress==null)||(storeAddress.trim().length()<1)) {
+				sink = new SMTPSink();
+			} else {
+				try {
+					UniverseAddress ua = new UniverseAddress(storeAddress);
+					sink = new SMTPSink(ssi.getUniverse(ua.universeName), ua.path);
+				} catch (Throwable t) {
+					throw new ThingsException("Specified store is bad.  It must be a valid universe address.", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, t, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.SMTP_SINK_STORE, ThingsNamespace.ATTR_PROPERTY_VALUE, storeAddress);
+				}
+			}
+			
+			// Pool size
+			String poolMaxText = localProperties.getProperty(ServiceConstants.POOL_MAX);
+			if (poolMaxText!=null) {
+				try {
+					poolMax = Integer.parseInt(poolMaxText.trim());
+					if (poolMax<1) throw new Exception();
+				} catch (Throwable t) {
+					throw new ThingsException("Property value bad.  Expecting a positive number.", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.POOL_MAX, ThingsNamespace.ATTR_PROPERTY_VALUE, poolMaxText);
+				}
+			}
+			
+			// Get the listen port.
+			int listenPortValue = 0;
+			String listenPort = localProperties.getProperty(ServiceConstants.LISTEN_PORT);
+			if (listenPort==null) throw new ThingsException("Required property not set.", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.LISTEN_PORT);
+			try {
+				listenPortValue = Integer.parseInt(listenPort);
+				if ((listenPortValue<1)||(listenPortValue>65334)) throw new Exception();
+			} catch (Throwable t) {
+				throw new ThingsException("Property value bad.  Expecting a valid socket port.", SystemException.CONFIGURATION_ERROR_BAD_CONFIGURATION, ThingsNamespace.ATTR_PROPERTY_NAME, ServiceConstants.LISTEN_PORT, ThingsNamespace.ATTR_PROPERTY_VALUE, listenPort);
+			}
+			
+			listen = new ServerSocket(listenPortValue);
+			listen.setSoTimeout(ACCEPT_TIMEOUT);
+			
+		} catch (Throwable t) {
+			throw new SystemException("Failed to construct SMTPSinkService.", SystemException.SYSTEM_FAULT_SERVICE_FAILED_TO_CONSTRUCT, t, SystemNamespace.ATTR_SYSTEM_SERVICE_CLASS, this.getClass().getName());
+		}
+	}
+
+	/**
+	 * Destroy. This will be called when the Process is finalizing.
+	 */
+	public void destructThingsProcess() throws SystemException {
+		
+		try {
+			listen.close();
+		} catch (Throwable t) {
+			// Don't care.
+		}
+		
+		SMTPSinkServiceThread thread = availableThreads.poll();
+		while (thread!=null) {
+			thread.interrupt();
+			thread = availableThreads.poll();
+		}
+		
+		synchronized(this) {
+			Iterator<SMTPSinkServiceThread> threads = activeThreads.iterator();
+			while (threads.hasNext()) {
+				threads.next().interrupt();
+				threads.remove();
+			}
+		}
+	}
+		
+	/**
+	 * Get process name.  It does not have to be a unique ID. 
+	 * @return the name as a String
+	 */
+	public String getProcessName() {
+		return "SMTPSinkService";
+	}
+	
+	// ==========================================================================================================
+	// == RESOURCE LISTENER IMPLEMENTATIONS
+	
+	/**
+	 * The identified resource is in the process of being revoked.  It is still possible for the resource listener to call the resource within the context
+	 * of this thread and call.
+	 * <p>
+	 * @param resourceID the ID of the resource that is being revoked.
+	 * @throws things.thinger.SystemException
+	 * @see things.common.WhoAmI
+	 */
+	public void resourceRevocation(WhoAmI	resourceID) throws SystemException, InterruptedException {
+		 // Don't care
+	}
+	
+	/**
+	 * The identified resource bas been revoked.  It is gone.  Attempting to call it would be a very bad thing.  The listener should remove the resource 
+	 * from it's internal lists..
+	 * <p>
+	 * @param resourceID the ID of the resource that has been revoked.
+	 * @throws things.thinger.SystemException
+	 * @see things.common.WhoAmI
+	 */
+	public void resourceRevoked(WhoAmI	resourceID) throws SystemException, InterruptedException {
+		 // Don't care
+	}
+	
+	/**
+	 * Get the ID of the listener.
+	 * <p>
+	 * @return The listener's ID.
+	 * @see things.common.WhoAmI
+	 */
+	public WhoAmI getListenerId() {
+		return getProcessId();
+	}
+	
+	// ==========================================================================================================
+	// == PRIVATE AND INTERNAL
+	
+	/**
+	 * Get a thread.  If the pool is full, wait for one to come back.  The wait is outside the monitor, since complete() needs it.
+	 * @return the thread.
+	 * @throws Throwable
+	 */
+	private SMTPSinkServiceThread getThread() throws Throwable {
+		SMTPSinkServiceThread result;
+		
+		synchronized(this) {
+			result = availableThreads.poll();
+			if ((result==null)&&(activeThreads.size()<poolMax)) {
+				result = new SMTPSinkServiceThread(this, sink, myLogger);
+				result.setDaemon(true);
+				result.start();
+			}
+		}
+		if (result==null) result = availableThreads.take();
+		
+		synchronized(this) {
+			activeThreads.add(result);
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,107 @@
+/**
+ * THINGS/THINGER 2009
+ * Copyright Erich P Gatejen (c) 2001 through 2009  ALL RIGHTS RESERVED
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package things.thinger.service.smtp;
+
+import java.net.Socket;
+
+import things.common.ThingsCodes;
+import things.common.ThingsException;
+import things.common.ThingsNamespace;
+import things.common.tools.Rendezvous;
+import things.thinger.SystemException;
+import things.thinger.io.Logger;
+
+/**
+ * A thread that runs sink sessions handed to it by the service.
+ * <p>
+ * @author Erich P. Gatejen
+ * @version 1.0
+ * <p>
+ * <i>Version History</i>
+ * <pre>EPG - Initial - 21 MAY 10
+ * </pre> 
+ */
+public class SMTPSinkServiceThread extends Thread {
+	
+	// ===================================================================================================
+	// EXPOSED DATA
+	public Rendezvous<Socket> handoff;
+	
+	// ===================================================================================================
+	// INTERNAL DATA
+	private SMTPSinkService service;
+	private SMTPSink sink;
+	private Logger logger;
+
+	// ===================================================================================================
+	// METHODS
+	
+	/**
+	 * Constructor.
+	 * @param service the owning service.
+	 * @param sink the sink that runs the sessions.
+	 * @param logger logger for session failures.
+	 */
+	public SMTPSinkServiceThread(SMTPSinkService service, SMTPSink sink, Logger logger) {
+		this.service = service;
+		this.sink = sink;
+		this.logger = logger;
+		handoff = new Rendezvous<Socket>();
+	}
+
+	/**
+	 * Run method.
+	 */
+	public void run() {
+		boolean running = true;
+		Socket socket;
+		
+		while (running) {
+
+			try {
+				socket = handoff.enter();
+				if (socket==null) throw new InterruptedException();		// Done.
+				
+				try {
+					sink.session(socket);
+					
+				} catch (Throwable t) {
+					// Generally, don't care why.
+					try {
+						if (logger.debuggingState())
+							logger.error("Sink session died to exception.  message=" + t.getMessage(), ThingsCodes.SMTPSINK_ERROR, ThingsNamespace.ATTR_TRANSPORT_ADDRESS, socket.getInetAddress().toString(), ThingsNamespace.ATTR_PLATFORM_MESSAGE_COMPLETE, ThingsException.toStringCauses(t));
+					} catch (SystemException e) {
+						handoff = null;
+						throw new Error("Failed to log an error.  This is a very bad thing.", e);
+					}
+					
+				} finally {
+					service.complete(this);
+				}
+				
+			} catch (InterruptedException e) {
+				// time to die.
+				running = false;
+	
+			} catch (Throwable t) {
+				// The handoff itself broke.
+				running = false;
+			}
+			
+		} // end while
+	}
+	
+}